@@ -35,6 +35,7 @@ import com.cloud.network.element.UserDataServiceProvider;
 import com.cloud.offering.NetworkOffering;
 import com.cloud.offering.NetworkOffering.Detail;
 import com.cloud.user.Account;
+import com.cloud.utils.net.IpAddressBitmap;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
 import com.cloud.vm.VirtualMachine;
@@ -238,6 +239,12 @@ public interface NetworkModel {
 
     Set<Long> getAvailableIps(Network network, String requestedIp);
 
+    /**
+     * @return the guest address range of the network with every address in use, and the gateway,
+     *         marked as used; null if requestedIp is already in use
+     */
+    IpAddressBitmap getGuestIpBitmap(Network network, String requestedIp);
+
     String getDomainNetworkDomain(long domainId, long zoneId);
     
     PublicIpAddress getSourceNatIpAddressForGuestNetwork(Account owner, Network guestNetwork);
@@ -24,6 +24,7 @@ public class TemplateProp {
     long id;
     boolean isPublic;
     boolean isCorrupted;
+    String checksum;
 
     protected TemplateProp() {
 
@@ -78,4 +79,12 @@ public class TemplateProp {
         this.size = size;
     }
 
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(String checksum) {
+        this.checksum = checksum;
+    }
 }
@@ -0,0 +1,143 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.command.admin.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cloudstack.api.APICommand;
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.ApiErrorCode;
+import org.apache.cloudstack.api.BaseListCmd;
+import org.apache.cloudstack.api.Parameter;
+import org.apache.cloudstack.api.ServerApiException;
+import org.apache.cloudstack.api.response.DbStatisticsResponse;
+import org.apache.cloudstack.api.response.ListResponse;
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.db.DbStatistics;
+import com.cloud.utils.db.DbStatistics.QueryStats;
+import com.cloud.utils.db.DbStatistics.SlowQuery;
+
+@APICommand(name = "listDbStatistics", description = "Lists the database statistics of this management server.", responseObject = DbStatisticsResponse.class, since = "4.3.0")
+public class ListDbStatisticsCmd extends BaseListCmd {
+    public static final Logger s_logger = Logger.getLogger(ListDbStatisticsCmd.class.getName());
+
+    private static final String s_name = "listdbstatisticsresponse";
+
+    public static final String TYPE_QUERY = "query";
+    public static final String TYPE_SLOW_QUERY = "slowquery";
+    public static final String TYPE_TRANSACTION = "transaction";
+
+    /////////////////////////////////////////////////////
+    //////////////// API parameters /////////////////////
+    /////////////////////////////////////////////////////
+
+    @Parameter(name = ApiConstants.TYPE, type = CommandType.STRING, description = "query (per SQL template, by total time, the default), slowquery (the latest slow queries) or transaction (transaction hold times)")
+    private String type;
+
+    /////////////////////////////////////////////////////
+    /////////////////// Accessors ///////////////////////
+    /////////////////////////////////////////////////////
+
+    public String getType() {
+        return type != null ? type : TYPE_QUERY;
+    }
+
+    /////////////////////////////////////////////////////
+    /////////////// API Implementation///////////////////
+    /////////////////////////////////////////////////////
+
+    @Override
+    public String getCommandName() {
+        return s_name;
+    }
+
+    @Override
+    public void execute(){
+        DbStatistics stats = DbStatistics.getInstance();
+        List<DbStatisticsResponse> responses = new ArrayList<DbStatisticsResponse>();
+
+        if (getType().equalsIgnoreCase(TYPE_QUERY)) {
+            for (QueryStats query : stats.getQueryStats()) {
+                if (matches(query.getTemplate())) {
+                    DbStatisticsResponse response = createResponse(query.getTemplate(), query.getLatency());
+                    response.setReturnedRows(query.getReturnedRows());
+                    response.setUpdatedRows(query.getUpdatedRows());
+                    response.setErrors(query.getErrors());
+                    response.setLockingReadMs(query.getLockingReadMs());
+                    responses.add(response);
+                }
+            }
+        } else if (getType().equalsIgnoreCase(TYPE_SLOW_QUERY)) {
+            for (SlowQuery query : stats.getSlowQueries()) {
+                if (matches(query.getTemplate()) || matches(query.getCaller())) {
+                    DbStatisticsResponse response = new DbStatisticsResponse();
+                    response.setName(query.getTemplate());
+                    response.setMaxMs(query.getDurationMs());
+                    response.setCaller(query.getCaller());
+                    response.setCreated(query.getTime());
+                    response.setObjectName("dbstatistics");
+                    responses.add(response);
+                }
+            }
+        } else if (getType().equalsIgnoreCase(TYPE_TRANSACTION)) {
+            for (Map.Entry<String, LatencyHistogram> entry : stats.getTransactionHoldTimes().entrySet()) {
+                if (matches(entry.getKey()) && entry.getValue().getCount() > 0) {
+                    responses.add(createResponse(entry.getKey(), entry.getValue()));
+                }
+            }
+        } else {
+            throw new ServerApiException(ApiErrorCode.PARAM_ERROR, "Unknown type " + type + ", expected " + TYPE_QUERY + ", " + TYPE_SLOW_QUERY + " or " + TYPE_TRANSACTION);
+        }
+
+        ListResponse<DbStatisticsResponse> response = new ListResponse<DbStatisticsResponse>();
+        response.setResponses(page(responses), responses.size());
+        response.setResponseName(getCommandName());
+        this.setResponseObject(response);
+    }
+
+    private boolean matches(String name) {
+        return getKeyword() == null || (name != null && name.toLowerCase().contains(getKeyword().toLowerCase()));
+    }
+
+    private List<DbStatisticsResponse> page(List<DbStatisticsResponse> responses) {
+        Long startIndex = getStartIndex();
+        Long pageSize = getPageSizeVal();
+        if (startIndex == null || pageSize == null) {
+            return responses;
+        }
+        int from = (int)Math.min(startIndex, responses.size());
+        int to = (int)Math.min(startIndex + pageSize, responses.size());
+        return responses.subList(from, to);
+    }
+
+    private DbStatisticsResponse createResponse(String name, LatencyHistogram histogram) {
+        DbStatisticsResponse response = new DbStatisticsResponse();
+        response.setName(name);
+        response.setCount(histogram.getCount());
+        response.setTotalMs(histogram.getTotalMs());
+        response.setAverageMs(histogram.getAverageMs());
+        response.setP50Ms(histogram.getPercentileMs(50));
+        response.setP99Ms(histogram.getPercentileMs(99));
+        response.setMaxMs(histogram.getMaxMs());
+        response.setObjectName("dbstatistics");
+        return response;
+    }
+}
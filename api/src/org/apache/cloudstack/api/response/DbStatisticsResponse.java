@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.api.response;
+
+import java.util.Date;
+
+import org.apache.cloudstack.api.ApiConstants;
+import org.apache.cloudstack.api.BaseResponse;
+
+import com.cloud.serializer.Param;
+import com.google.gson.annotations.SerializedName;
+
+public class DbStatisticsResponse extends BaseResponse {
+    @SerializedName(ApiConstants.NAME) @Param(description="the SQL template, or the name of the transaction")
+    private String name;
+
+    @SerializedName(ApiConstants.COUNT) @Param(description="the number of executions")
+    private Long count;
+
+    @SerializedName("totalms") @Param(description="the total time spent, in ms")
+    private Long totalMs;
+
+    @SerializedName("averagems") @Param(description="the average time, in ms")
+    private Long averageMs;
+
+    @SerializedName("p50ms") @Param(description="the median time, in ms")
+    private Long p50Ms;
+
+    @SerializedName("p99ms") @Param(description="the 99th percentile of the time, in ms")
+    private Long p99Ms;
+
+    @SerializedName("maxms") @Param(description="the longest time, in ms")
+    private Long maxMs;
+
+    @SerializedName("returnedrows") @Param(description="the rows returned by the queries")
+    private Long returnedRows;
+
+    @SerializedName("updatedrows") @Param(description="the rows changed by the updates")
+    private Long updatedRows;
+
+    @SerializedName("errors") @Param(description="the number of failed executions")
+    private Long errors;
+
+    @SerializedName("lockingreadms") @Param(description="the time spent in locking reads, row lock waits included, in ms")
+    private Long lockingReadMs;
+
+    @SerializedName("caller") @Param(description="the method that ran a slow query")
+    private String caller;
+
+    @SerializedName(ApiConstants.CREATED) @Param(description="the time a slow query ran")
+    private Date created;
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void setCount(Long count) {
+        this.count = count;
+    }
+
+    public void setTotalMs(Long totalMs) {
+        this.totalMs = totalMs;
+    }
+
+    public void setAverageMs(Long averageMs) {
+        this.averageMs = averageMs;
+    }
+
+    public void setP50Ms(Long p50Ms) {
+        this.p50Ms = p50Ms;
+    }
+
+    public void setP99Ms(Long p99Ms) {
+        this.p99Ms = p99Ms;
+    }
+
+    public void setMaxMs(Long maxMs) {
+        this.maxMs = maxMs;
+    }
+
+    public void setReturnedRows(Long returnedRows) {
+        this.returnedRows = returnedRows;
+    }
+
+    public void setUpdatedRows(Long updatedRows) {
+        this.updatedRows = updatedRows;
+    }
+
+    public void setErrors(Long errors) {
+        this.errors = errors;
+    }
+
+    public void setLockingReadMs(Long lockingReadMs) {
+        this.lockingReadMs = lockingReadMs;
+    }
+
+    public void setCaller(String caller) {
+        this.caller = caller;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+}
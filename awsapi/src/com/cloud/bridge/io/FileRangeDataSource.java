@@ -34,6 +34,10 @@ public class FileRangeDataSource implements DataSource {
 		is = new FileRangeInputStream(file, startPos, endPos);
 	}
 
+	public FileRangeDataSource(File[] files, long startPos, long endPos) throws IOException {
+		is = new FileRangeInputStream(files, startPos, endPos);
+	}
+
 	@Override
 	public String getContentType() {
 		assert(false);
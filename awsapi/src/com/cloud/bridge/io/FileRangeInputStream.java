@@ -20,15 +20,38 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
+/**
+ * Reads the byte range [startPos, endPos) of a file, or of several files
+ * taken back to back as one object (see the composite objects written by
+ * S3FileSystemBucketAdapter.concatentateObjects).  Uses positional channel
+ * reads, so large ranges never go through seek/skipBytes.
+ */
 public class FileRangeInputStream extends InputStream {
+	private final File[] files;
+	private final long[] offsets;
 	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private int current = -1;
 	private long curPos;
 	private long endPos; 
 	private long fileLength;
 	
 	public FileRangeInputStream(File file, long startPos, long endPos) throws IOException {
-		fileLength = file.length();
+		this(new File[] { file }, startPos, endPos);
+	}
+
+	public FileRangeInputStream(File[] files, long startPos, long endPos) throws IOException {
+		if(files.length == 0)
+			throw new IllegalArgumentException("No files to read from");
+
+		this.files = files;
+		offsets = new long[files.length + 1];
+		for(int i = 0; i < files.length; i++)
+			offsets[i + 1] = offsets[i] + files[i].length();
+		fileLength = offsets[files.length];
 		
 		if(startPos > fileLength)
 			startPos = fileLength;
@@ -41,23 +64,38 @@ public class FileRangeInputStream extends InputStream {
 
 		this.curPos = startPos;
 		this.endPos = endPos;
-		randomAccessFile = new RandomAccessFile(file, "r");
-		randomAccessFile.seek(startPos);
+		openFileAt(startPos);
 	}
 	
+	private void openFileAt(long pos) throws IOException {
+		int index = files.length - 1;
+		for(int i = 0; i < files.length; i++) {
+			if(pos < offsets[i + 1]) {
+				index = i;
+				break;
+			}
+		}
+		if(index == current)
+			return;
+
+		if(randomAccessFile != null)
+			randomAccessFile.close();
+		randomAccessFile = new RandomAccessFile(files[index], "r");
+		channel = randomAccessFile.getChannel();
+		current = index;
+	}
+
 	@Override
 	public int available() throws IOException {
-		return (int)(endPos - curPos);
+		return (int)Math.min(Integer.MAX_VALUE, endPos - curPos);
 	}
 
 	@Override
 	public int read() throws IOException {
-		if(available() > 0) {
-			int value = randomAccessFile.read();
-			curPos++;
-			return value;
-		}
-		return -1;
+		byte[] b = new byte[1];
+		if(read(b, 0, 1) < 0)
+			return -1;
+		return b[0] & 0xff;
 	}
 	
 	@Override
@@ -67,11 +105,16 @@ public class FileRangeInputStream extends InputStream {
 	
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
-		int bytesToRead = Math.min(len, available());
-		if(bytesToRead == 0)
+		if(curPos >= endPos)
 			return -1;
+		if(len == 0)
+			return 0;
 		
-		int bytesRead = randomAccessFile.read(b, off, bytesToRead);
+		if(curPos >= offsets[current + 1])
+			openFileAt(curPos);
+
+		int bytesToRead = (int)Math.min(len, Math.min(endPos, offsets[current + 1]) - curPos);
+		int bytesRead = channel.read(ByteBuffer.wrap(b, off, bytesToRead), curPos - offsets[current]);
 		if(bytesRead < 0)
 			return -1;
 		
@@ -81,8 +124,7 @@ public class FileRangeInputStream extends InputStream {
 	
 	@Override
 	public long skip(long n) throws IOException {
-		long skipped = Math.min(n, available());
-		randomAccessFile.skipBytes((int)skipped);
+		long skipped = Math.max(0, Math.min(n, endPos - curPos));
 		curPos += skipped;
 		return skipped;
 	}
@@ -17,13 +17,17 @@
 package com.cloud.bridge.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
@@ -40,6 +44,15 @@ import com.cloud.bridge.util.OrderedPair;
 
 public class S3FileSystemBucketAdapter implements S3BucketAdapter {
     protected final static Logger logger = Logger.getLogger(S3FileSystemBucketAdapter.class);
+
+	// -> large enough that multi-GB objects are not written and digested 4 KB at a time
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	// -> a completed multipart upload is kept as its parts, in a "<stored path>.parts" directory
+	private static final String COMPOSITE_SUFFIX = ".parts";
+	private static final String MANIFEST_NAME = "manifest";
+	// -> an object being concatenated is assembled here and only renamed to its ".parts" directory once complete
+	private static final String STAGING_SUFFIX = ".tmp";
 	
 	public S3FileSystemBucketAdapter() {
 	}
@@ -94,17 +107,19 @@ public class S3FileSystemBucketAdapter implements S3BucketAdapter {
 		try {
 			// -> when versioning is off we need to rewrite the file contents
 			file.delete();
+			deleteComposite(mountedRoot, bucket, fileName);
 			file.createNewFile();
 			
 	        fos = new FileOutputStream(file);
-	        byte[] buffer = new byte[4096];
+	        FileChannel out = fos.getChannel();
+	        byte[] buffer = new byte[BUFFER_SIZE];
 	        int len = 0;
 	        while( (len = is.read(buffer)) > 0) {
-	        	fos.write(buffer, 0, len);
+	        	ByteBuffer data = ByteBuffer.wrap(buffer, 0, len);
+	        	while (data.hasRemaining()) out.write(data);
 	        	md5.update(buffer, 0, len);
-	        	
 	        }       
-	        //Convert MD4 digest to (lowercase) hex String
+	        //Convert MD5 digest to (lowercase) hex String
 	        return StringHelper.toHexString(md5.digest());
 	        
 		} 
@@ -123,9 +138,15 @@ public class S3FileSystemBucketAdapter implements S3BucketAdapter {
 	}
 	
 	/**
-	 * From a list of files (each being one part of the multipart upload), concatentate all files into a single
-	 * object that can be accessed by normal S3 calls.  This function could take a long time since a multipart is
-	 * allowed to have upto 10,000 parts (each 5 gib long).   Amazon defines that while this operation is in progress
+	 * From a list of files (each being one part of the multipart upload), build a single
+	 * object that can be accessed by normal S3 calls.  A multipart is allowed to have upto
+	 * 10,000 parts (each 5 gib long), so rather than copying every part into one new file the
+	 * part files are moved into a composite object directory next to where the object would
+	 * be stored, and a manifest listing them is written last.  The directory is assembled under
+	 * a staging name and only renamed into place once it is complete; if anything fails before
+	 * that the parts are moved back to the upload, so the completion can simply be retried.
+	 * loadObject and loadObjectRange read such an object as the concatenation of its parts.  Only the MD5 still requires
+	 * reading the parts back; Amazon defines that while this operation is in progress
 	 * whitespace is sent back to the client inorder to keep the HTTP connection alive.
 	 * 
 	 * @param mountedRoot - where both the source and dest buckets are located
@@ -150,46 +171,85 @@ public class S3FileSystemBucketAdapter implements S3BucketAdapter {
 		}
 		
 		File file = new File(getBucketFolderDir(mountedRoot, destBucket) + File.separatorChar + fileName);
+		File compositeDir = getCompositeDir(mountedRoot, destBucket, fileName);
+		File stagingDir = new File(compositeDir.getPath() + STAGING_SUFFIX);
+		String sourceDir = getBucketFolderDir(mountedRoot, sourceBucket);
+		File[] sources = new File[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			sources[i] = new File(sourceDir + File.separatorChar + parts[i].getPath());
+
+		// -> an earlier attempt that died half way may still hold some of these parts
+		restoreParts(stagingDir, sources);
+		if (stagingDir.exists() && !deleteDirectory(stagingDir))
+			throw new OutOfStorageException("Unable to delete " + stagingDir.getAbsolutePath());
+		if (!stagingDir.mkdirs())
+			throw new OutOfStorageException("Unable to create " + stagingDir.getAbsolutePath());
+
+		boolean[] moved = new boolean[parts.length];
+		boolean completed = false;
 		try {
-			// -> when versioning is off we need to rewrite the file contents
-			file.delete();
-			file.createNewFile();
-			
-	        final FileOutputStream fos = new FileOutputStream(file);
-	        byte[] buffer = new byte[4096];
-	        
-	        // -> get the input stream for the next file part
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
 	        for( int i=0; i < parts.length; i++ )
 	        {
-	           DataHandler nextPart = loadObject( mountedRoot, sourceBucket, parts[i].getPath());
-	           InputStream is = nextPart.getInputStream();
-	           
-	           int len = 0;
-	           while( (len = is.read(buffer)) > 0) {
-	        	   fos.write(buffer, 0, len);
-	        	   md5.update(buffer, 0, len);
-	        	   totalLength += len;
-	           }
-	           is.close();
+	           File target = new File(stagingDir, getPartName(i));
+	           // -> parts and objects normally share a file system, so this is a rename and not a copy
+	           moved[i] = sources[i].renameTo(target);
+	           if (!moved[i])
+	        	   copyFile(sources[i], target);
+	           totalLength += digestFile(target, md5, buffer);
 	           
-	           // -> after each file write tell the client we are still here to keep connection alive
+	           // -> after each file tell the client we are still here to keep connection alive
 	           if (null != client) {
 	        	   client.write( new String(" ").getBytes());
 	        	   client.flush();
 	           }
-	        }        
-	        fos.close();	
-	        return new OrderedPair<String, Long>(StringHelper.toHexString(md5.digest()), new Long(totalLength));
-	        //Create an ordered pair whose first element is the MD4 digest as a (lowercase) hex String
+	        }
+
+	        Properties manifest = new Properties();
+	        manifest.setProperty("parts", String.valueOf(parts.length));
+	        manifest.setProperty("size", String.valueOf(totalLength));
+	        FileOutputStream fos = new FileOutputStream(new File(stagingDir, MANIFEST_NAME));
+	        try {
+	        	manifest.store(fos, null);
+	        } finally {
+	        	fos.close();
+	        }
+
+	        // -> when versioning is off the previous contents are only dropped once the new object is complete
+	        file.delete();
+	        deleteComposite(mountedRoot, destBucket, fileName);
+	        if (!stagingDir.renameTo(compositeDir))
+	        	throw new OutOfStorageException("Unable to move " + stagingDir.getAbsolutePath() + " into place");
+	        completed = true;
 		} 
 		catch(IOException e) {
 			logger.error("concatentateObjects unexpected exception " + e.getMessage(), e);
 			throw new OutOfStorageException(e);
-		}	
+		}
+		finally {
+			if (!completed) {
+				// -> hand the parts back to the upload so that the client can retry the completion
+				restoreParts(stagingDir, sources);
+				deleteDirectory(stagingDir);
+			}
+		}
+
+		// -> parts that had to be copied are only removed from the upload once the object is in place
+		for (int i = 0; i < parts.length; i++) {
+			if (!moved[i])
+				sources[i].delete();
+		}
+
+		//Create an ordered pair whose first element is the MD5 digest as a (lowercase) hex String
+		return new OrderedPair<String, Long>(StringHelper.toHexString(md5.digest()), new Long(totalLength));
 	}
 	
 	@Override
 	public DataHandler loadObject(String mountedRoot, String bucket, String fileName) {
+		File[] compositeParts = getCompositeParts(mountedRoot, bucket, fileName);
+		if (compositeParts != null)
+			return loadObjectRange(mountedRoot, bucket, fileName, 0, Long.MAX_VALUE);
+
 		File file = new File(getBucketFolderDir(mountedRoot, bucket) + File.separatorChar + fileName);
 		try {
 			return new DataHandler(file.toURL());
@@ -202,7 +262,9 @@ public class S3FileSystemBucketAdapter implements S3BucketAdapter {
 	public void deleteObject(String mountedRoot, String bucket, String fileName) {
 		String filePath = new String( getBucketFolderDir(mountedRoot, bucket) + File.separatorChar + fileName );
 		File file = new File( filePath );	
-		if (!file.delete()) {
+		deleteComposite(mountedRoot, bucket, fileName);
+		// -> a file that is already gone (e.g. a multipart part moved into its object) is not an error
+		if (!file.delete() && file.exists()) {
 			logger.error("file: " + filePath + ", f=" + file.isFile() + ", h=" + file.isHidden() + ", e=" + file.exists() + ", w=" + file.canWrite());
 			throw new OutOfStorageException( "Unable to delete " + filePath + " for object deletion" ); 
 		}
@@ -212,7 +274,9 @@ public class S3FileSystemBucketAdapter implements S3BucketAdapter {
 	public DataHandler loadObjectRange(String mountedRoot, String bucket, String fileName, long startPos, long endPos) {
 		File file = new File(getBucketFolderDir(mountedRoot, bucket) + File.separatorChar + fileName);
 		try {
-			DataSource ds = new FileRangeDataSource(file, startPos, endPos);
+			File[] compositeParts = getCompositeParts(mountedRoot, bucket, fileName);
+			DataSource ds = compositeParts != null ? new FileRangeDataSource(compositeParts, startPos, endPos)
+				: new FileRangeDataSource(file, startPos, endPos);
 			return new DataHandler(ds);
 		} catch (MalformedURLException e) {
 			throw new FileNotExistException("Unable to open underlying object file");
@@ -235,6 +299,111 @@ public class S3FileSystemBucketAdapter implements S3BucketAdapter {
 		 return path.delete();
 	}
 	
+	private File getCompositeDir(String mountedRoot, String bucket, String fileName) {
+		return new File(getBucketFolderDir(mountedRoot, bucket) + File.separatorChar + fileName + COMPOSITE_SUFFIX);
+	}
+
+	/**
+	 * Moves the parts of a multipart upload that are found in a staging directory back to where
+	 * they were uploaded.  Parts that are still present in the upload area are left alone.
+	 */
+	private static void restoreParts(File stagingDir, File[] sources) {
+		if (!stagingDir.exists())
+			return;
+
+		for (int i = 0; i < sources.length; i++) {
+			File staged = new File(stagingDir, getPartName(i));
+			if (!staged.exists() || sources[i].exists())
+				continue;
+
+			if (!staged.renameTo(sources[i])) {
+				try {
+					copyFile(staged, sources[i]);
+				} catch (IOException e) {
+					logger.error("Unable to restore multipart part " + sources[i].getAbsolutePath() + " from " + staged.getAbsolutePath(), e);
+					throw new OutOfStorageException(e);
+				}
+			}
+		}
+	}
+
+	private static String getPartName(int index) {
+		return String.format("part-%05d", index + 1);
+	}
+
+	/**
+	 * @return the part files of a composite object in order, or null if the object is stored as a plain file
+	 */
+	private File[] getCompositeParts(String mountedRoot, String bucket, String fileName) {
+		File compositeDir = getCompositeDir(mountedRoot, bucket, fileName);
+		File manifestFile = new File(compositeDir, MANIFEST_NAME);
+		if (!manifestFile.exists())
+			return null;
+
+		Properties manifest = new Properties();
+		try {
+			FileInputStream fis = new FileInputStream(manifestFile);
+			try {
+				manifest.load(fis);
+			} finally {
+				fis.close();
+			}
+		} catch (IOException e) {
+			throw new FileNotExistException("Unable to read manifest of " + fileName);
+		}
+
+		int count = Integer.parseInt(manifest.getProperty("parts", "0"));
+		File[] files = new File[count];
+		for (int i = 0; i < count; i++)
+			files[i] = new File(compositeDir, getPartName(i));
+		return files;
+	}
+
+	private boolean deleteComposite(String mountedRoot, String bucket, String fileName) {
+		File compositeDir = getCompositeDir(mountedRoot, bucket, fileName);
+		if (!compositeDir.exists())
+			return false;
+
+		if (!deleteDirectory(compositeDir))
+			throw new OutOfStorageException("Unable to delete " + compositeDir.getAbsolutePath());
+		return true;
+	}
+
+	private static void copyFile(File source, File target) throws IOException {
+		FileInputStream fis = new FileInputStream(source);
+		FileOutputStream fos = new FileOutputStream(target);
+		try {
+			FileChannel in = fis.getChannel();
+			FileChannel out = fos.getChannel();
+			long size = in.size();
+			long position = 0;
+			while (position < size)
+				position += in.transferTo(position, size - position, out);
+		} finally {
+			fis.close();
+			fos.close();
+		}
+	}
+
+	private static long digestFile(File file, MessageDigest md5, ByteBuffer buffer) throws IOException {
+		long length = 0;
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel in = fis.getChannel();
+			buffer.clear();
+			int len;
+			while ((len = in.read(buffer)) >= 0) {
+				buffer.flip();
+				md5.update(buffer);
+				buffer.clear();
+				length += len;
+			}
+		} finally {
+			fis.close();
+		}
+		return length;
+	}
+
 	private String getBucketFolderName(String bucket) {
 		// temporary 
 		String name = bucket.replace(' ', '_');
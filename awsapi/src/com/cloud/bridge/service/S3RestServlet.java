@@ -486,10 +486,12 @@ public class S3RestServlet extends HttpServlet {
     }
 
     public static void writeResponse(HttpServletResponse response, InputStream is) throws IOException {
-        byte[] data = new byte[4096];
+        // object bodies can be many GB, so move them in large blocks
+        byte[] data = new byte[64 * 1024];
+        OutputStream os = response.getOutputStream();
         int length = 0;
         while((length = is.read(data)) > 0) {
-            response.getOutputStream().write(data, 0, length);
+            os.write(data, 0, length);
         }
     }
 
@@ -0,0 +1,182 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.bridge.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.bridge.service.core.s3.S3MultipartPart;
+import com.cloud.bridge.service.exception.OutOfStorageException;
+import com.cloud.bridge.util.OrderedPair;
+
+public class S3FileSystemBucketAdapterTest {
+	private static final String UPLOADS = "uploads";
+	private static final String BUCKET = "bucket";
+	private static final String OBJECT = "object";
+
+	private S3FileSystemBucketAdapter _adapter;
+	private File _root;
+
+	@Before
+	public void setUp() throws IOException {
+		_root = File.createTempFile("s3adapter", null);
+		_root.delete();
+		_root.mkdirs();
+
+		_adapter = new S3FileSystemBucketAdapter();
+		_adapter.createContainer(_root.getPath(), UPLOADS);
+		_adapter.createContainer(_root.getPath(), BUCKET);
+	}
+
+	@After
+	public void tearDown() {
+		S3FileSystemBucketAdapter.deleteDirectory(_root);
+	}
+
+	@Test
+	public void testConcatenationMovesThePartsIntoTheObject() throws IOException {
+		S3MultipartPart[] parts = uploadParts("aaa", "bb", "c");
+
+		OrderedPair<String, Long> result = _adapter.concatentateObjects(_root.getPath(), BUCKET, OBJECT, UPLOADS, parts, null);
+
+		assertEquals(6L, result.getSecond().longValue());
+		assertEquals("aaabbc", read(_adapter.loadObject(_root.getPath(), BUCKET, OBJECT).getInputStream()));
+		assertEquals("abbc", read(_adapter.loadObjectRange(_root.getPath(), BUCKET, OBJECT, 2, 6).getInputStream()));
+		for (S3MultipartPart part : parts)
+			assertFalse(uploaded(part).exists());
+	}
+
+	@Test
+	public void testFailedConcatenationLeavesThePartsInTheUpload() throws IOException {
+		S3MultipartPart[] parts = uploadParts("aaa", "bb", "c");
+		uploaded(parts[2]).delete();
+
+		try {
+			_adapter.concatentateObjects(_root.getPath(), BUCKET, OBJECT, UPLOADS, parts, null);
+			fail("a missing part must fail the concatenation");
+		} catch (OutOfStorageException e) {
+		}
+
+		assertTrue(uploaded(parts[0]).exists());
+		assertTrue(uploaded(parts[1]).exists());
+		assertFalse(new File(bucketDir(), OBJECT + ".parts").exists());
+		assertFalse(new File(bucketDir(), OBJECT + ".parts.tmp").exists());
+
+		// -> the client uploads the missing part again and retries
+		write(uploaded(parts[2]), "c");
+		_adapter.concatentateObjects(_root.getPath(), BUCKET, OBJECT, UPLOADS, parts, null);
+		assertEquals("aaabbc", read(_adapter.loadObject(_root.getPath(), BUCKET, OBJECT).getInputStream()));
+	}
+
+	@Test
+	public void testFailedConcatenationKeepsThePreviousObject() throws IOException {
+		_adapter.concatentateObjects(_root.getPath(), BUCKET, OBJECT, UPLOADS, uploadParts("old"), null);
+
+		S3MultipartPart[] parts = uploadParts("new", "er");
+		uploaded(parts[1]).delete();
+		try {
+			_adapter.concatentateObjects(_root.getPath(), BUCKET, OBJECT, UPLOADS, parts, null);
+			fail("a missing part must fail the concatenation");
+		} catch (OutOfStorageException e) {
+		}
+
+		assertEquals("old", read(_adapter.loadObject(_root.getPath(), BUCKET, OBJECT).getInputStream()));
+		assertTrue(uploaded(parts[0]).exists());
+	}
+
+	@Test
+	public void testRetryRecoversPartsOfAnInterruptedConcatenation() throws IOException {
+		S3MultipartPart[] parts = uploadParts("aaa", "bb", "c");
+
+		// -> as left behind by a management server that stopped after moving the first part
+		File staging = new File(bucketDir(), OBJECT + ".parts.tmp");
+		staging.mkdirs();
+		assertTrue(uploaded(parts[0]).renameTo(new File(staging, "part-00001")));
+
+		OrderedPair<String, Long> result = _adapter.concatentateObjects(_root.getPath(), BUCKET, OBJECT, UPLOADS, parts, null);
+
+		assertEquals(6L, result.getSecond().longValue());
+		assertEquals("aaabbc", read(_adapter.loadObject(_root.getPath(), BUCKET, OBJECT).getInputStream()));
+		assertFalse(staging.exists());
+	}
+
+	@Test
+	public void testSavedObjectReplacesTheComposite() throws IOException {
+		_adapter.concatentateObjects(_root.getPath(), BUCKET, OBJECT, UPLOADS, uploadParts("aaa", "bb"), null);
+
+		_adapter.saveObject(new ByteArrayInputStream("plain".getBytes()), _root.getPath(), BUCKET, OBJECT);
+
+		assertEquals("plain", read(_adapter.loadObject(_root.getPath(), BUCKET, OBJECT).getInputStream()));
+		String[] stored = bucketDir().list();
+		assertEquals(1, stored.length);
+		assertEquals(OBJECT, stored[0]);
+	}
+
+	private S3MultipartPart[] uploadParts(String... contents) throws IOException {
+		S3MultipartPart[] parts = new S3MultipartPart[contents.length];
+		for (int i = 0; i < contents.length; i++) {
+			parts[i] = new S3MultipartPart();
+			parts[i].setPartNumber(i + 1);
+			parts[i].setPath(OBJECT + "-" + System.nanoTime() + "-" + (i + 1));
+			write(uploaded(parts[i]), contents[i]);
+		}
+		return parts;
+	}
+
+	private File bucketDir() {
+		return new File(_adapter.getBucketFolderDir(_root.getPath(), BUCKET));
+	}
+
+	private File uploaded(S3MultipartPart part) {
+		return new File(_adapter.getBucketFolderDir(_root.getPath(), UPLOADS), part.getPath());
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			fos.write(content.getBytes());
+		} finally {
+			fos.close();
+		}
+	}
+
+	private static String read(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try {
+			byte[] buffer = new byte[1024];
+			int len;
+			while ((len = is.read(buffer)) > 0)
+				bos.write(buffer, 0, len);
+		} finally {
+			is.close();
+		}
+		return bos.toString();
+	}
+}
@@ -0,0 +1,48 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.api;
+
+/**
+ * Tells the peer management servers that an entity they may have cached has
+ * changed. The receiving server republishes the subject and id on its local
+ * message bus, where the owner of the cache is subscribed.
+ */
+public class CacheInvalidationCommand extends Command {
+    String subject;
+    long id;
+
+    protected CacheInvalidationCommand() {
+    }
+
+    public CacheInvalidationCommand(String subject, long id) {
+        this.subject = subject;
+        this.id = id;
+    }
+
+    public String getSubject() {
+        return subject;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.api;
+
+/**
+ * Tells the peer management servers that a configuration parameter has been
+ * updated so they can drop the values they have cached for it.  With a
+ * scope and a resource id it tells them the details of that zone, cluster,
+ * storage pool or account have changed instead.
+ */
+public class ConfigChangedCommand extends Command {
+    String name;
+    String scope;
+    Long resourceId;
+
+    protected ConfigChangedCommand() {
+    }
+
+    public ConfigChangedCommand(String name) {
+        this.name = name;
+    }
+
+    public ConfigChangedCommand(String scope, long resourceId) {
+        this.scope = scope;
+        this.resourceId = resourceId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public Long getResourceId() {
+        return resourceId;
+    }
+
+    @Override
+    public boolean executeInSequence() {
+        return false;
+    }
+}
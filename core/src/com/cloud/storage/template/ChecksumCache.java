@@ -0,0 +1,241 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.storage.template;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.NumbersUtil;
+
+/**
+ * MD5 checksums of files on secondary storage, remembered so that large
+ * templates are not re-read every time someone asks for their checksum.
+ *
+ * Each checksum is kept in memory and in a sidecar file next to the file it
+ * describes ("<file>.md5sum"), together with the path, size and modification
+ * time of the file it was computed for. A cached value is only returned while
+ * all three still match, so a file that is rewritten in place, or a sidecar
+ * that was moved or copied along with another file, is digested again.
+ */
+public class ChecksumCache {
+    private static final Logger s_logger = Logger.getLogger(ChecksumCache.class);
+
+    public static final String SUFFIX = ".md5sum";
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private static final Map<String, Entry> s_entries = new ConcurrentHashMap<String, Entry>();
+
+    private static class Entry {
+        final String path;
+        final long size;
+        final long modified;
+        final String checksum;
+
+        Entry(String path, long size, long modified, String checksum) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+        }
+
+        boolean isValidFor(File file) {
+            return path.equals(file.getAbsolutePath()) && size == file.length() && modified == file.lastModified();
+        }
+    }
+
+    private ChecksumCache() {
+    }
+
+    public static File sidecarFor(File file) {
+        return new File(file.getAbsolutePath() + SUFFIX);
+    }
+
+    /**
+     * @return the cached checksum of the file as 32 lower case hex digits, or
+     *         null if none is cached for its current size and mtime. Never
+     *         reads the file itself.
+     */
+    public static String lookup(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        String key = file.getAbsolutePath();
+        Entry entry = s_entries.get(key);
+        if (entry == null) {
+            entry = loadSidecar(file);
+            if (entry != null) {
+                s_entries.put(key, entry);
+            }
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.isValidFor(file)) {
+            s_entries.remove(key);
+            return null;
+        }
+        return entry.checksum;
+    }
+
+    /**
+     * Remembers a checksum that was computed while the file was written, e.g.
+     * during download, so it never has to be read back for it.
+     */
+    public static void record(File file, String checksum) {
+        if (checksum == null || !file.isFile()) {
+            return;
+        }
+        Entry entry = new Entry(file.getAbsolutePath(), file.length(), file.lastModified(), checksum.toLowerCase());
+        s_entries.put(file.getAbsolutePath(), entry);
+        saveSidecar(file, entry);
+    }
+
+    /**
+     * @return the checksum of the file, from the cache if it is still valid,
+     *         otherwise computed now and cached
+     */
+    public static String getChecksum(File file) throws IOException {
+        String checksum = lookup(file);
+        if (checksum != null) {
+            return checksum;
+        }
+
+        long size = file.length();
+        long modified = file.lastModified();
+        long start = System.currentTimeMillis();
+        checksum = compute(file);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Computed checksum of " + file.getAbsolutePath() + " (" + size + " bytes) in " + (System.currentTimeMillis() - start) + " ms");
+        }
+
+        // only cache the result if the file did not change while being read
+        if (size == file.length() && modified == file.lastModified()) {
+            Entry entry = new Entry(file.getAbsolutePath(), size, modified, checksum);
+            s_entries.put(file.getAbsolutePath(), entry);
+            saveSidecar(file, entry);
+        }
+        return checksum;
+    }
+
+    /**
+     * Computes the MD5 of a file through a large direct buffer, which avoids
+     * the per read copies and system call overhead of small stream reads.
+     */
+    public static String compute(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available: " + e.getMessage());
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            in.close();
+        }
+        return String.format("%032x", new BigInteger(1, digest.digest()));
+    }
+
+    public static void invalidate(File file) {
+        s_entries.remove(file.getAbsolutePath());
+        sidecarFor(file).delete();
+    }
+
+    private static Entry loadSidecar(File file) {
+        File sidecar = sidecarFor(file);
+        if (!sidecar.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(sidecar);
+            props.load(in);
+        } catch (IOException e) {
+            s_logger.debug("Unable to read checksum sidecar " + sidecar.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+        String checksum = props.getProperty("md5");
+        String path = props.getProperty("path");
+        long size = NumbersUtil.parseLong(props.getProperty("size"), -1);
+        long modified = NumbersUtil.parseLong(props.getProperty("mtime"), -1);
+        if (checksum == null || path == null || size < 0 || modified < 0) {
+            return null;
+        }
+        return new Entry(path, size, modified, checksum);
+    }
+
+    private static void saveSidecar(File file, Entry entry) {
+        Properties props = new Properties();
+        props.setProperty("md5", entry.checksum);
+        props.setProperty("path", entry.path);
+        props.setProperty("size", Long.toString(entry.size));
+        props.setProperty("mtime", Long.toString(entry.modified));
+
+        File sidecar = sidecarFor(file);
+        File tmp = new File(sidecar.getAbsolutePath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            props.store(out, null);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(sidecar)) {
+                s_logger.warn("Unable to save checksum sidecar " + sidecar.getAbsolutePath());
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            // the cache is only an optimization, the checksum is still returned
+            s_logger.warn("Unable to save checksum sidecar " + sidecar.getAbsolutePath() + ": " + e.getMessage());
+            tmp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
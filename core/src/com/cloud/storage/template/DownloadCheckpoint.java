@@ -0,0 +1,237 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.storage.template;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.NumbersUtil;
+
+/**
+ * Records which fixed size segments of a ranged download have been written
+ * to disk, so that a download interrupted by an agent or system vm restart
+ * can pick up where it left off instead of starting over.
+ *
+ * The checkpoint lives next to the file being downloaded, named after it
+ * with a ".checkpoint" suffix, and is rewritten atomically every time a
+ * segment completes.
+ */
+public class DownloadCheckpoint {
+    private static final Logger s_logger = Logger.getLogger(DownloadCheckpoint.class);
+
+    public static final String SUFFIX = ".checkpoint";
+
+    private final File _file;
+    private final String _url;
+    private final String _target;
+    private final long _size;
+    private final long _segmentSize;
+    private final String _validator;
+    private final BitSet _done;
+
+    public DownloadCheckpoint(File file, String url, String target, long size, long segmentSize, String validator) {
+        if (size <= 0 || segmentSize <= 0) {
+            throw new IllegalArgumentException("size and segment size must be positive");
+        }
+        _file = file;
+        _url = url;
+        _target = target;
+        _size = size;
+        _segmentSize = segmentSize;
+        _validator = validator;
+        _done = new BitSet(getSegmentCount());
+    }
+
+    public static File checkpointFor(String downloadFile) {
+        return new File(downloadFile + SUFFIX);
+    }
+
+    /**
+     * @return the checkpoint stored in the given file, or null if there is none or it cannot be read
+     */
+    public static DownloadCheckpoint load(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            props.load(in);
+        } catch (IOException e) {
+            s_logger.warn("Unable to read download checkpoint " + file.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        long size = NumbersUtil.parseLong(props.getProperty("size"), 0);
+        long segmentSize = NumbersUtil.parseLong(props.getProperty("segment.size"), 0);
+        String url = props.getProperty("url");
+        String target = props.getProperty("target");
+        if (size <= 0 || segmentSize <= 0 || url == null || target == null) {
+            s_logger.warn("Ignoring malformed download checkpoint " + file.getAbsolutePath());
+            return null;
+        }
+
+        DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, url, target, size, segmentSize, props.getProperty("validator"));
+        String done = props.getProperty("done", "");
+        for (String index : done.split(",")) {
+            int segment = NumbersUtil.parseInt(index.trim(), -1);
+            if (segment >= 0 && segment < checkpoint.getSegmentCount()) {
+                checkpoint._done.set(segment);
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Looks for a checkpoint in the given directory left behind by an earlier
+     * download of the same url whose partial file is still present.
+     */
+    public static DownloadCheckpoint find(String dir, String url) {
+        File[] files = new File(dir).listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File parent, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        if (files == null) {
+            return null;
+        }
+        for (File file : files) {
+            DownloadCheckpoint checkpoint = load(file);
+            if (checkpoint != null && url.equals(checkpoint.getUrl()) && new File(checkpoint.getTarget()).exists()) {
+                return checkpoint;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if this checkpoint describes the same remote object, so the segments it lists are still valid
+     */
+    public boolean matches(String url, long size, String validator) {
+        if (!_url.equals(url) || _size != size) {
+            return false;
+        }
+        return _validator == null ? validator == null : _validator.equals(validator);
+    }
+
+    public String getUrl() {
+        return _url;
+    }
+
+    public String getTarget() {
+        return _target;
+    }
+
+    public long getSize() {
+        return _size;
+    }
+
+    public long getSegmentSize() {
+        return _segmentSize;
+    }
+
+    public int getSegmentCount() {
+        return (int)((_size + _segmentSize - 1) / _segmentSize);
+    }
+
+    public long getSegmentStart(int segment) {
+        return segment * _segmentSize;
+    }
+
+    public long getSegmentLength(int segment) {
+        return Math.min(_segmentSize, _size - getSegmentStart(segment));
+    }
+
+    public synchronized boolean isDone(int segment) {
+        return _done.get(segment);
+    }
+
+    public synchronized boolean isComplete() {
+        return _done.cardinality() == getSegmentCount();
+    }
+
+    public synchronized long getCompletedBytes() {
+        long bytes = 0;
+        for (int i = _done.nextSetBit(0); i >= 0; i = _done.nextSetBit(i + 1)) {
+            bytes += getSegmentLength(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Marks a segment as written and persists the checkpoint. The caller is
+     * responsible for having flushed the segment data to disk beforehand.
+     */
+    public synchronized void markDone(int segment) throws IOException {
+        _done.set(segment);
+        save();
+    }
+
+    public synchronized void save() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("url", _url);
+        props.setProperty("target", _target);
+        props.setProperty("size", Long.toString(_size));
+        props.setProperty("segment.size", Long.toString(_segmentSize));
+        if (_validator != null) {
+            props.setProperty("validator", _validator);
+        }
+        StringBuilder done = new StringBuilder();
+        for (int i = _done.nextSetBit(0); i >= 0; i = _done.nextSetBit(i + 1)) {
+            if (done.length() > 0) {
+                done.append(',');
+            }
+            done.append(i);
+        }
+        props.setProperty("done", done.toString());
+
+        // write to a temporary file and rename it over the old checkpoint so a
+        // crash part way through never leaves a truncated checkpoint behind
+        File tmp = new File(_file.getAbsolutePath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            props.store(out, null);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(_file)) {
+            tmp.delete();
+            throw new IOException("Unable to update download checkpoint " + _file.getAbsolutePath());
+        }
+    }
+
+    public void delete() {
+        _file.delete();
+    }
+}
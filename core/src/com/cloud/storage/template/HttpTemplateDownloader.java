@@ -22,8 +22,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.math.BigInteger;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.httpclient.ChunkedInputStream;
 import org.apache.commons.httpclient.Credentials;
@@ -47,16 +62,33 @@ import com.cloud.agent.api.storage.Proxy;
 import com.cloud.storage.StorageLayer;
 import com.cloud.utils.Pair;
 import com.cloud.utils.UriUtils;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 
 /**
  * Download a template file using HTTP
  *
+ * When the server supports byte ranges the file is fetched as fixed size
+ * segments over several connections and written in place, with a
+ * {@link DownloadCheckpoint} recording finished segments so the download can
+ * be resumed after a restart. Otherwise it falls back to a single stream.
  */
 public class HttpTemplateDownloader extends ManagedContextRunnable implements TemplateDownloader {
     public static final Logger s_logger = Logger.getLogger(HttpTemplateDownloader.class.getName());
     private static final MultiThreadedHttpConnectionManager s_httpClientManager = new MultiThreadedHttpConnectionManager();
 
     private static final int CHUNK_SIZE = 1024*1024; //1M
+    private static final int RANGE_BUFFER_SIZE = 64 * 1024;
+    private static final int RANGE_RETRIES = 3;
+    public static final int DEFAULT_CONNECTIONS = 4;
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+    public static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    static {
+        // the default of two connections per host would serialize ranged downloads
+        s_httpClientManager.getParams().setDefaultMaxConnectionsPerHost(32);
+        s_httpClientManager.getParams().setMaxTotalConnections(128);
+    }
+
     private String downloadUrl;
     private String toFile;
     public TemplateDownloader.Status status= TemplateDownloader.Status.NOT_STARTED;
@@ -75,7 +107,10 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     private long MAX_TEMPLATE_SIZE_IN_BYTES;
     private ResourceType resourceType = ResourceType.TEMPLATE;
     private final HttpMethodRetryHandler myretryhandler;
-
+    private int connections = DEFAULT_CONNECTIONS;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private volatile String checksum;
+    private final Set<HttpMethod> activeRequests = Collections.synchronizedSet(new HashSet<HttpMethod>());
 
 
     public HttpTemplateDownloader (StorageLayer storageLayer, String downloadUrl, String toDir, DownloadCompleteCallback callback, long maxTemplateSizeInBytes, String user, String password, Proxy proxy, ResourceType resourceType) {
@@ -119,13 +154,20 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             completionCallback = callback;
             //this.request.setFollowRedirects(false);
 
-            File f = File.createTempFile("dnld", "tmp_", new File(toDir));
+            // pick up the partial file of an earlier ranged download of the same url, if any
+            DownloadCheckpoint checkpoint = DownloadCheckpoint.find(toDir, downloadUrl);
+            if (checkpoint != null) {
+                toFile = checkpoint.getTarget();
+                s_logger.info("Found checkpoint for " + downloadUrl + ", will resume download into " + toFile);
+            } else {
+                File f = File.createTempFile("dnld", "tmp_", new File(toDir));
 
-            if (_storage != null) {
-                _storage.setWorldReadableAndWriteable(f);
-            }
+                if (_storage != null) {
+                    _storage.setWorldReadableAndWriteable(f);
+                }
 
-            toFile = f.getAbsolutePath();
+                toFile = f.getAbsolutePath();
+            }
             Pair<String, Integer> hostAndPort = UriUtils.validateUrl(downloadUrl);
 
             if (proxy != null) {
@@ -170,6 +212,13 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         int bytes=0;
         File file = new File(toFile);
         try {
+            if (connections > 1 && (!resume || DownloadCheckpoint.checkpointFor(toFile).exists())) {
+                long rangeStart = System.currentTimeMillis();
+                if (downloadRanges(file)) {
+                    downloadTime += System.currentTimeMillis() - rangeStart;
+                    return status == TemplateDownloader.Status.DOWNLOAD_FINISHED ? totalBytes : 0;
+                }
+            }
 
             long localFileSize = 0;
             if (file.exists() && resume) {
@@ -236,6 +285,17 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             InputStream in = !chunked ? new BufferedInputStream(request.getResponseBodyAsStream()) : new ChunkedInputStream(
                     request.getResponseBodyAsStream());
 
+            MessageDigest digest = createDigest();
+            if (localFileSize > 0) {
+                // the digest has to cover what an earlier attempt already wrote
+                RandomAccessFile existing = new RandomAccessFile(file, "r");
+                try {
+                    digestRange(existing.getChannel(), digest, 0, localFileSize);
+                } finally {
+                    existing.close();
+                }
+            }
+
             RandomAccessFile out = new RandomAccessFile(file, "rwd");
             out.seek(localFileSize);
 
@@ -248,6 +308,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             while (!done && status != Status.ABORTED && offset <= remoteSize) {
                 if ( (bytes = in.read(block, 0, CHUNK_SIZE)) > -1) {
                     out.write(block, 0, bytes);
+                    digest.update(block, 0, bytes);
                     offset +=bytes;
                     out.seek(offset);
                     totalBytes += bytes;
@@ -260,6 +321,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             if (totalBytes >= remoteSize) {
                 status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
                 downloaded = "(download complete remote=" + remoteSize + "bytes)";
+                checksum = toHex(digest);
             }
             errorString = "Downloaded " + totalBytes + " bytes " + downloaded;
             downloadTime += finish.getTime() - start.getTime();
@@ -274,7 +336,8 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             status = TemplateDownloader.Status.UNRECOVERABLE_ERROR; //probably a file write error?
             errorString = ioe.getMessage();
         } finally {
-            if (status == Status.UNRECOVERABLE_ERROR && file.exists() && !file.isDirectory()) {
+            // a partial file tracked by a checkpoint is kept so the next attempt can resume it
+            if (status == Status.UNRECOVERABLE_ERROR && file.exists() && !file.isDirectory() && !DownloadCheckpoint.checkpointFor(toFile).exists()) {
                 file.delete();
             }
             request.releaseConnection();
@@ -285,6 +348,268 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
         return 0;
     }
 
+    /**
+     * Fetches the file as parallel byte ranges.
+     *
+     * @return false if the server does not support ranges, or the file is too
+     *         small to be worth splitting, and the caller should fall back to
+     *         a single stream
+     */
+    private boolean downloadRanges(File file) throws IOException {
+        GetMethod probe = new GetMethod(downloadUrl);
+        probe.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+        probe.addRequestHeader("Range", "bytes=0-0");
+        long size;
+        String validator;
+        try {
+            int responseCode = client.executeMethod(probe);
+            if (responseCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                s_logger.info("HTTP Server returned " + responseCode + " for a range request to " + downloadUrl + ", using a single connection");
+                // do not let the connection manager drain what may be the whole file
+                probe.abort();
+                return false;
+            }
+            size = parseRangeTotal(probe.getResponseHeader("Content-Range"));
+            Header validatorHeader = probe.getResponseHeader("ETag");
+            if (validatorHeader == null) {
+                validatorHeader = probe.getResponseHeader("Last-Modified");
+            }
+            validator = validatorHeader == null ? null : validatorHeader.getValue();
+        } finally {
+            probe.releaseConnection();
+        }
+
+        if (size <= 0 || size < 2 * segmentSize) {
+            return false;
+        }
+        if (size > MAX_TEMPLATE_SIZE_IN_BYTES) {
+            s_logger.info("Remote size is too large: " + size + " , max=" + MAX_TEMPLATE_SIZE_IN_BYTES);
+            status = Status.UNRECOVERABLE_ERROR;
+            errorString = "Download file size is too large";
+            return true;
+        }
+        remoteSize = size;
+
+        File checkpointFile = DownloadCheckpoint.checkpointFor(toFile);
+        DownloadCheckpoint checkpoint = DownloadCheckpoint.load(checkpointFile);
+        if (checkpoint != null && checkpoint.matches(downloadUrl, size, validator) && file.length() == size) {
+            s_logger.info("Resuming download of " + downloadUrl + " with " + checkpoint.getCompletedBytes() + " of " + size + " bytes already on disk");
+        } else {
+            if (checkpoint != null) {
+                s_logger.info("Discarding stale download checkpoint " + checkpointFile.getAbsolutePath());
+            }
+            RandomAccessFile preallocate = new RandomAccessFile(file, "rw");
+            try {
+                preallocate.setLength(0);
+                preallocate.setLength(size);
+            } finally {
+                preallocate.close();
+            }
+            checkpoint = new DownloadCheckpoint(checkpointFile, downloadUrl, file.getAbsolutePath(), size, segmentSize, validator);
+            checkpoint.save();
+        }
+
+        int segments = checkpoint.getSegmentCount();
+        s_logger.info("Starting download from " + getDownloadUrl() + " to " + toFile + " remoteSize=" + remoteSize + " in " + segments + " segments over "
+                + connections + " connections");
+
+        totalBytes = checkpoint.getCompletedBytes();
+        status = TemplateDownloader.Status.IN_PROGRESS;
+        MessageDigest digest = createDigest();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        FileChannel channel = out.getChannel();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, segments), new NamedThreadFactory("HttpTemplateDownloader"));
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>(segments);
+            for (int i = 0; i < segments; i++) {
+                results.add(checkpoint.isDone(i) ? null : executor.submit(new RangeFetcher(channel, checkpoint, i)));
+            }
+
+            // digest segments in order as they land, so the checksum is ready
+            // as soon as the last one is written
+            for (int i = 0; i < segments; i++) {
+                Future<Void> result = results.get(i);
+                if (result != null) {
+                    try {
+                        result.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while downloading " + downloadUrl);
+                    } catch (ExecutionException e) {
+                        if (status == Status.ABORTED) {
+                            break;
+                        }
+                        Throwable cause = e.getCause();
+                        throw cause instanceof IOException ? (IOException)cause : new IOException(cause.getMessage());
+                    }
+                }
+                if (status == Status.ABORTED) {
+                    break;
+                }
+                digestRange(channel, digest, checkpoint.getSegmentStart(i), checkpoint.getSegmentLength(i));
+            }
+        } finally {
+            executor.shutdownNow();
+            synchronized (activeRequests) {
+                for (HttpMethod method : activeRequests) {
+                    method.abort();
+                }
+            }
+            out.close();
+        }
+
+        if (status == Status.ABORTED) {
+            errorString = "Download aborted after " + totalBytes + " bytes";
+            return true;
+        }
+
+        checkpoint.delete();
+        checksum = toHex(digest);
+        status = TemplateDownloader.Status.DOWNLOAD_FINISHED;
+        errorString = "Downloaded " + totalBytes + " bytes (download complete remote=" + remoteSize + "bytes)";
+        return true;
+    }
+
+    /**
+     * Fetches one segment, retrying from the last written byte if the
+     * connection breaks part way through.
+     */
+    private class RangeFetcher implements Callable<Void> {
+        private final FileChannel channel;
+        private final DownloadCheckpoint checkpoint;
+        private final int segment;
+        private final long end;
+        private long position;
+
+        RangeFetcher(FileChannel channel, DownloadCheckpoint checkpoint, int segment) {
+            this.channel = channel;
+            this.checkpoint = checkpoint;
+            this.segment = segment;
+            position = checkpoint.getSegmentStart(segment);
+            end = position + checkpoint.getSegmentLength(segment);
+        }
+
+        @Override
+        public Void call() throws IOException {
+            int attempt = 0;
+            while (true) {
+                try {
+                    fetch();
+                    break;
+                } catch (IOException e) {
+                    if (status == Status.ABORTED || ++attempt >= RANGE_RETRIES) {
+                        throw e;
+                    }
+                    s_logger.warn("Retrying segment " + segment + " of " + downloadUrl + " from byte " + position + ": " + e.getMessage());
+                }
+            }
+            if (status != Status.ABORTED) {
+                channel.force(false);
+                checkpoint.markDone(segment);
+            }
+            return null;
+        }
+
+        private void fetch() throws IOException {
+            GetMethod get = new GetMethod(downloadUrl);
+            get.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, myretryhandler);
+            get.addRequestHeader("Range", "bytes=" + position + "-" + (end - 1));
+            activeRequests.add(get);
+            try {
+                int responseCode = client.executeMethod(get);
+                if (responseCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                    throw new IOException("HTTP Server returned " + responseCode + " (expected 206 Partial Content)");
+                }
+                InputStream in = get.getResponseBodyAsStream();
+                byte[] block = new byte[RANGE_BUFFER_SIZE];
+                while (position < end && status != Status.ABORTED) {
+                    int read = in.read(block, 0, (int)Math.min(block.length, end - position));
+                    if (read < 0) {
+                        throw new IOException("Connection closed at byte " + position + ", expected " + end);
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(block, 0, read);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    addDownloadedBytes(read);
+                }
+            } finally {
+                activeRequests.remove(get);
+                if (position < end) {
+                    get.abort();
+                }
+                get.releaseConnection();
+            }
+        }
+    }
+
+    private synchronized void addDownloadedBytes(long bytes) {
+        totalBytes += bytes;
+    }
+
+    private static long parseRangeTotal(Header contentRange) {
+        // Content-Range: bytes 0-0/12345
+        if (contentRange == null) {
+            return -1;
+        }
+        String value = contentRange.getValue();
+        int slash = value.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            // "*" when the server does not know the length
+            return -1;
+        }
+    }
+
+    private static MessageDigest createDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("MD5 is not available: " + e.getMessage());
+        }
+    }
+
+    private static void digestRange(FileChannel channel, MessageDigest digest, long start, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int)Math.min(buffer.capacity(), end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at byte " + position);
+            }
+            buffer.flip();
+            digest.update(buffer);
+            position += read;
+        }
+    }
+
+    private static String toHex(MessageDigest digest) {
+        return String.format("%032x", new BigInteger(1, digest.digest()));
+    }
+
+    /**
+     * @return the MD5 of the downloaded file, computed while it was being
+     *         written, or null if the download has not finished
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = Math.max(1, connections);
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = Math.max(MIN_SEGMENT_SIZE, segmentSize);
+    }
+
     public String getDownloadUrl() {
         return downloadUrl;
     }
@@ -317,10 +642,16 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
     public boolean stopDownload() {
         switch (getStatus()) {
         case IN_PROGRESS:
+            status = TemplateDownloader.Status.ABORTED;
             if (request != null) {
                 request.abort();
             }
-            status = TemplateDownloader.Status.ABORTED;
+            synchronized (activeRequests) {
+                for (HttpMethod method : activeRequests) {
+                    method.abort();
+                }
+            }
+            DownloadCheckpoint.checkpointFor(toFile).delete();
             return true;
         case UNKNOWN:
         case NOT_STARTED:
@@ -333,6 +664,7 @@ public class HttpTemplateDownloader extends ManagedContextRunnable implements Te
             if (f.exists()) {
                 f.delete();
             }
+            DownloadCheckpoint.checkpointFor(toFile).delete();
             return true;
 
         default:
@@ -21,6 +21,8 @@ import com.cloud.agent.api.to.DataTO;
 
 public class CopyCmdAnswer extends Answer {
     private DataTO newData;
+    private long transferredBytes;
+    private long transferTimeMs;
 
     public CopyCmdAnswer(DataTO newData) {
         super(null);
@@ -34,4 +36,24 @@ public class CopyCmdAnswer extends Answer {
     public CopyCmdAnswer(String errMsg) {
         super(null, false, errMsg);
     }
+
+    public void setTransferStats(long transferredBytes, long transferTimeMs) {
+        this.transferredBytes = transferredBytes;
+        this.transferTimeMs = transferTimeMs;
+    }
+
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    public long getTransferTimeMs() {
+        return transferTimeMs;
+    }
+
+    /**
+     * @return bytes per second of the data transfer, or 0 if no transfer was recorded
+     */
+    public long getThroughput() {
+        return transferTimeMs > 0 ? transferredBytes * 1000 / transferTimeMs : 0;
+    }
 }
@@ -0,0 +1,109 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.storage.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChecksumCacheTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("template", ".vhd");
+        write("hello world");
+    }
+
+    @After
+    public void tearDown() {
+        ChecksumCache.invalidate(file);
+        file.delete();
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testCompute() throws IOException {
+        assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", ChecksumCache.compute(file));
+    }
+
+    @Test
+    public void testComputedChecksumIsCached() throws IOException {
+        assertNull(ChecksumCache.lookup(file));
+        String checksum = ChecksumCache.getChecksum(file);
+        assertEquals(checksum, ChecksumCache.lookup(file));
+        assertTrue(ChecksumCache.sidecarFor(file).exists());
+    }
+
+    @Test
+    public void testRecordedChecksumIsServedWithoutReading() throws IOException {
+        // a recorded value wins as long as size and mtime are unchanged
+        ChecksumCache.record(file, "00000000000000000000000000000001");
+        assertEquals("00000000000000000000000000000001", ChecksumCache.getChecksum(file));
+    }
+
+    @Test
+    public void testModifiedFileIsRecomputed() throws IOException {
+        ChecksumCache.record(file, "00000000000000000000000000000001");
+        write("hello world, again");
+        file.setLastModified(file.lastModified() + 2000);
+        assertNull(ChecksumCache.lookup(file));
+        assertEquals(ChecksumCache.compute(file), ChecksumCache.getChecksum(file));
+    }
+
+    @Test
+    public void testRewriteOfTheSameSizeIsRecomputed() throws IOException {
+        ChecksumCache.getChecksum(file);
+        long modified = file.lastModified();
+        write("HELLO WORLD");
+        file.setLastModified(modified + 2000);
+        assertNull(ChecksumCache.lookup(file));
+        assertEquals(ChecksumCache.compute(file), ChecksumCache.getChecksum(file));
+    }
+
+    @Test
+    public void testSidecarMovedWithTheFileIsIgnored() throws IOException {
+        ChecksumCache.record(file, "00000000000000000000000000000001");
+        File moved = new File(file.getAbsolutePath() + ".moved");
+        try {
+            // same size and mtime at another path, with the sidecar moved along
+            assertTrue(file.renameTo(moved));
+            assertTrue(ChecksumCache.sidecarFor(file).renameTo(ChecksumCache.sidecarFor(moved)));
+            assertNull(ChecksumCache.lookup(moved));
+            assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", ChecksumCache.getChecksum(moved));
+        } finally {
+            ChecksumCache.invalidate(moved);
+            moved.delete();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.storage.template;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DownloadCheckpointTest {
+    private static final String URL = "http://example.com/template.vhd";
+
+    private File dir;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("checkpoint", "test");
+        dir.delete();
+        dir.mkdirs();
+        target = new File(dir, "dnld1234tmp_");
+        target.createNewFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSegmentLayout() {
+        DownloadCheckpoint checkpoint = new DownloadCheckpoint(DownloadCheckpoint.checkpointFor(target.getAbsolutePath()), URL,
+                target.getAbsolutePath(), 250, 100, null);
+        assertEquals(3, checkpoint.getSegmentCount());
+        assertEquals(200, checkpoint.getSegmentStart(2));
+        assertEquals(100, checkpoint.getSegmentLength(1));
+        assertEquals(50, checkpoint.getSegmentLength(2));
+    }
+
+    @Test
+    public void testMarkDoneSurvivesReload() throws IOException {
+        File file = DownloadCheckpoint.checkpointFor(target.getAbsolutePath());
+        DownloadCheckpoint checkpoint = new DownloadCheckpoint(file, URL, target.getAbsolutePath(), 250, 100, "\"etag\"");
+        checkpoint.save();
+        checkpoint.markDone(0);
+        checkpoint.markDone(2);
+
+        DownloadCheckpoint loaded = DownloadCheckpoint.load(file);
+        assertNotNull(loaded);
+        assertTrue(loaded.isDone(0));
+        assertFalse(loaded.isDone(1));
+        assertTrue(loaded.isDone(2));
+        assertFalse(loaded.isComplete());
+        assertEquals(150, loaded.getCompletedBytes());
+        assertTrue(loaded.matches(URL, 250, "\"etag\""));
+        assertFalse(loaded.matches(URL, 250, "\"other\""));
+        assertFalse(loaded.matches(URL, 251, "\"etag\""));
+    }
+
+    @Test
+    public void testFindByUrl() throws IOException {
+        new DownloadCheckpoint(DownloadCheckpoint.checkpointFor(target.getAbsolutePath()), URL, target.getAbsolutePath(), 10, 5, null).save();
+
+        DownloadCheckpoint found = DownloadCheckpoint.find(dir.getAbsolutePath(), URL);
+        assertNotNull(found);
+        assertEquals(target.getAbsolutePath(), found.getTarget());
+        assertNull(DownloadCheckpoint.find(dir.getAbsolutePath(), "http://example.com/other.vhd"));
+
+        // a checkpoint whose partial file is gone is useless
+        target.delete();
+        assertNull(DownloadCheckpoint.find(dir.getAbsolutePath(), URL));
+    }
+}
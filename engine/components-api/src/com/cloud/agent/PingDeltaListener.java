@@ -0,0 +1,30 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent;
+
+/**
+ * A Listener that only needs to see the PingCommands that carry news.
+ *
+ * Most pings just say the host is still there and AgentManager keeps track of
+ * that itself. Listeners implementing this interface are not called for those,
+ * they still receive a ping when it is the first one after the host connected,
+ * when the gateway of the host became reachable or unreachable, when it reports
+ * VM state changes, or when it is a subclass of PingRoutingCommand or
+ * PingCommand that carries its own payload.
+ */
+public interface PingDeltaListener extends Listener {
+}
@@ -16,11 +16,14 @@
 // under the License.
 package com.cloud.capacity;
 
+import java.util.List;
+
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
 import com.cloud.host.Host;
 import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.Volume;
 import com.cloud.vm.VirtualMachine;
 
 /**
@@ -60,6 +63,15 @@ public interface CapacityManager {
      */
     boolean checkIfHostHasCapacity(long hostId, Integer cpu, long ram, boolean checkFromReservedCapacity, float cpuOverprovisioningFactor, float memoryOvercommitRatio, boolean considerReservedCapacity);
 
+    /**
+     * Same check as above against capacity entries the caller already loaded,
+     * e.g. for many hosts at once.
+     * @param capacityCpu CPU capacity entry of the host, may be null
+     * @param capacityMem memory capacity entry of the host, may be null
+     */
+    boolean checkIfHostHasCapacity(long hostId, CapacityVO capacityCpu, CapacityVO capacityMem, Integer cpu, long ram, boolean checkFromReservedCapacity,
+            float cpuOverprovisioningFactor, float memoryOvercommitRatio, boolean considerReservedCapacity);
+
 	void updateCapacityForHost(Host host);
     
 	/**
@@ -68,6 +80,40 @@ public interface CapacityManager {
      * @return total allocated capacity for the storage pool
      */
     long getAllocatedPoolCapacity(StoragePoolVO pool, VMTemplateVO templateForVmCreation);
+
+    /**
+     * @param poolId storage pool
+     * @return total allocated capacity for the storage pool, served from memory once the pool is loaded
+     */
+    long getAllocatedPoolCapacity(long poolId);
+
+    /**
+     * Recomputes the allocated capacity of the pool from the database and
+     * corrects the in-memory figure with it.
+     * @param pool storage pool
+     * @return total allocated capacity for the storage pool
+     */
+    long reconcileAllocatedPoolCapacity(StoragePoolVO pool);
+
+    /**
+     * To be called when templates are added to, removed from or resized on a pool.
+     * @param poolId storage pool
+     */
+    void templatesOnPoolChanged(long poolId);
+
+    /**
+     * To be called when the size or VM snapshot chain size of a volume changes
+     * outside a volume state transition.
+     * @param volume the volume as persisted
+     */
+    void volumeOnPoolChanged(Volume volume);
+
+    /**
+     * @param poolIds storage pools
+     * @param accountId account
+     * @return the pools ordered by the number of Ready volumes the account has on them, fewest first
+     */
+    List<Long> orderPoolsByAccountVolumeCount(List<Long> poolIds, long accountId);
     
     /**
      * Check if specified host's running VM count has reach hypervisor limit
@@ -19,6 +19,8 @@ package com.cloud.configuration;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.cloudstack.framework.config.ConfigKey;
+
 import com.cloud.dc.ClusterVO;
 import com.cloud.dc.DataCenter;
 import com.cloud.dc.DataCenter.NetworkType;
@@ -69,6 +71,16 @@ public interface ConfigurationManager {
      */
     String updateConfiguration(long userId, String name, String category, String value, String scope, Long id);
 
+    /**
+     * Drops the config values cached for a zone, cluster, storage pool or
+     * account, here and on the peer management servers, after its details
+     * have been changed.
+     *
+     * @param scope scope of the details that changed
+     * @param resourceId id of the zone, cluster, storage pool or account
+     */
+    void scopedConfigChanged(ConfigKey.Scope scope, long resourceId);
+
 //    /**
 //     * Creates a new service offering
 //     * 
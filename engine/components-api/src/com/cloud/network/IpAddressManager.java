@@ -43,6 +43,10 @@ public interface IpAddressManager {
         "If true, when account has dedicated public ip range(s), once the ips dedicated to the account have been consumed ips will be acquired from the system pool", true,
         ConfigKey.Scope.Account);
 
+    static final String GuestIpAllocationPolicyCK = "guest.ip.allocation.policy";
+    static final ConfigKey<String> GuestIpAllocationPolicy = new ConfigKey<String>("Advanced", String.class, GuestIpAllocationPolicyCK, "random",
+        "How guest network addresses are handed out when no address is requested: random or sequential (lowest free address first)", true);
+
     /**
      * Assigns a new public ip address.
      * 
@@ -101,6 +105,17 @@ public interface IpAddressManager {
 
     public String acquireGuestIpAddress(Network network, String requestedIp);
 
+    /**
+     * To be called once a guest address handed out by acquireGuestIpAddress is no longer used.
+     */
+    void releaseGuestIpAddress(long networkId, String ip);
+
+    /**
+     * To be called once a network is shut down, destroyed or gets another guest CIDR, drops the guest addresses
+     * acquireGuestIpAddress remembers for it.
+     */
+    void invalidateGuestIps(long networkId);
+
     boolean applyStaticNats(List<? extends StaticNat> staticNats, boolean continueOnError, boolean forRevoke) throws ResourceUnavailableException;
 
     IpAddress assignSystemIp(long networkId, Account owner, boolean forElasticLb, boolean forElasticIp) throws InsufficientAddressCapacityException;
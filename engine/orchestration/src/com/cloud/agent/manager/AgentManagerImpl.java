@@ -47,6 +47,7 @@ import org.apache.log4j.Logger;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.agent.Listener;
+import com.cloud.agent.PingDeltaListener;
 import com.cloud.agent.StartupCommandProcessor;
 import com.cloud.agent.api.AgentControlAnswer;
 import com.cloud.agent.api.AgentControlCommand;
@@ -107,6 +108,7 @@ import com.cloud.utils.nio.HandlerFactory;
 import com.cloud.utils.nio.Link;
 import com.cloud.utils.nio.NioServer;
 import com.cloud.utils.nio.Task;
+import com.cloud.utils.mgmt.JmxUtil;
 import com.cloud.utils.time.InaccurateClock;
 
 /**
@@ -159,7 +161,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     protected ScheduledExecutorService _monitorExecutor;
 
     protected StateMachine2<Status, Status.Event, Host> _statusStateMachine = Status.getStateMachine();
-    private final Map<Long, Long> _pingMap = new ConcurrentHashMap<Long, Long>(10007);
+    private final HostPingTable _pingTable = new HostPingTable();
 
     @Inject ResourceManager _resourceMgr;
 
@@ -190,7 +192,13 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         long lastPing = (System.currentTimeMillis() >> 10) - (long)(PingTimeout.value() * PingInterval.value());
         _hostDao.markHostsAsDisconnected(_nodeId, lastPing);
 
-        registerForHostEvents(new BehindOnPingListener(), true, true, false);
+        // pings are recorded by processPing(), the listener only follows connects
+        registerForHostEvents(new BehindOnPingListener(), true, false, false);
+        try {
+            JmxUtil.registerMBean("AgentManager", "HostPingTable", _pingTable);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register host ping table MBean", e);
+        }
 
         _executor = new ThreadPoolExecutor(threads, threads, 60l, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("AgentTaskPool"));
 
@@ -282,6 +290,70 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         return new AgentControlAnswer(cmd);
     }
 
+    /**
+     * Records a ping from a host and passes it on to the listeners.
+     *
+     * A ping that carries nothing new only updates the host ping table and
+     * skips the listeners that asked for ping deltas only. The gateway alert
+     * is raised or cleared when the state reported by the host changes.
+     */
+    public void processPing(AgentAttache attache, final long sequence, final PingCommand ping) {
+        long startTick = System.nanoTime();
+        long hostId = attache.getId();
+
+        Boolean gatewayAccessible = null;
+        boolean hasNewStates = false;
+        if (ping instanceof PingRoutingCommand) {
+            PingRoutingCommand routingPing = (PingRoutingCommand)ping;
+            gatewayAccessible = routingPing.isGatewayAccessible();
+            hasNewStates = routingPing.getNewStates() != null && !routingPing.getNewStates().isEmpty();
+        }
+
+        int changes = _pingTable.ping(hostId, InaccurateClock.getTimeInSeconds(), gatewayAccessible);
+
+        // subclasses carry a payload of their own
+        boolean delta = changes != 0 || hasNewStates || (ping.getClass() != PingCommand.class && ping.getClass() != PingRoutingCommand.class);
+        Command[] cmds = new Command[] { ping };
+        for (Pair<Integer, Listener> listener : _cmdMonitors) {
+            if (!delta && listener.second() instanceof PingDeltaListener) {
+                continue;
+            }
+            boolean processed = listener.second().processCommands(hostId, sequence, cmds);
+            if (s_logger.isTraceEnabled()) {
+                s_logger.trace("SeqA " + hostId + "-" + sequence + ": " + (processed ? "processed" : "not processed") + " by " + listener.getClass());
+            }
+        }
+
+        if ((changes & (HostPingTable.GATEWAY_LOST | HostPingTable.GATEWAY_RESTORED)) != 0) {
+            handleGatewayStateChange(hostId, (changes & HostPingTable.GATEWAY_LOST) == 0);
+        }
+
+        _pingTable.recordProcessing(System.nanoTime() - startTick, delta);
+    }
+
+    private void handleGatewayStateChange(long hostId, boolean gatewayAccessible) {
+        HostVO host = _hostDao.findById(hostId);
+        if (host == null) {
+            s_logger.debug("Not processing " + PingRoutingCommand.class.getSimpleName() +
+                    " for agent id=" + hostId + "; can't find the host in the DB");
+            return;
+        }
+
+        if (!gatewayAccessible) {
+            // alert that host lost connection to
+            // gateway (cannot ping the default route)
+            DataCenterVO dcVO = _dcDao.findById(host.getDataCenterId());
+            HostPodVO podVO = _podDao.findById(host.getPodId());
+            String hostDesc = "name: " + host.getName() + " (id:" + host.getId() + "), availability zone: " + dcVO.getName() + ", pod: " + podVO.getName();
+
+            _alertMgr.sendAlert(AlertManager.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId(), "Host lost connection to gateway, " + hostDesc, "Host [" + hostDesc
+                    + "] lost connection to gateway (default route) and is possibly having network connection issues.");
+        } else {
+            _alertMgr.clearAlert(AlertManager.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId());
+        }
+        _pingTable.recordGatewayAlert(!gatewayAccessible);
+    }
+
     public void handleCommands(AgentAttache attache, final long sequence, final Command[] cmds) {
         for (Pair<Integer, Listener> listener : _cmdMonitors) {
             boolean processed = listener.second().processCommands(attache.getId(), sequence, cmds);
@@ -1175,37 +1247,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
                         return;
                     } else if (cmd instanceof AgentControlCommand) {
                         answer = handleControlCommand(attache, (AgentControlCommand) cmd);
+                    } else if (cmd instanceof PingCommand) {
+                        processPing(attache, request.getSequence(), (PingCommand) cmd);
+                        answer = new PingAnswer((PingCommand) cmd);
                     } else {
                         handleCommands(attache, request.getSequence(), new Command[] { cmd });
-                        if (cmd instanceof PingCommand) {
-                            long cmdHostId = ((PingCommand) cmd).getHostId();
-
-                            // if the router is sending a ping, verify the
-                            // gateway was pingable
-                            if (cmd instanceof PingRoutingCommand) {
-                                boolean gatewayAccessible = ((PingRoutingCommand) cmd).isGatewayAccessible();
-                                HostVO host = _hostDao.findById(Long.valueOf(cmdHostId));
-
-                                if (host != null) {
-                                    if (!gatewayAccessible) {
-                                        // alert that host lost connection to
-                                        // gateway (cannot ping the default route)
-                                        DataCenterVO dcVO = _dcDao.findById(host.getDataCenterId());
-                                        HostPodVO podVO = _podDao.findById(host.getPodId());
-                                        String hostDesc = "name: " + host.getName() + " (id:" + host.getId() + "), availability zone: " + dcVO.getName() + ", pod: " + podVO.getName();
-
-                                        _alertMgr.sendAlert(AlertManager.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId(), "Host lost connection to gateway, " + hostDesc, "Host [" + hostDesc
-                                                + "] lost connection to gateway (default route) and is possibly having network connection issues.");
-                                    } else {
-                                        _alertMgr.clearAlert(AlertManager.ALERT_TYPE_ROUTING, host.getDataCenterId(), host.getPodId());
-                                    }
-                                } else {
-                                    s_logger.debug("Not processing " + PingRoutingCommand.class.getSimpleName() +
-                                            " for agent id=" + cmdHostId + "; can't find the host in the DB");
-                                }
-                            }
-                            answer = new PingAnswer((PingCommand) cmd);
-                        } else if (cmd instanceof ReadyAnswer) {
+                        if (cmd instanceof ReadyAnswer) {
                             HostVO host = _hostDao.findById(attache.getId());
                             if (host == null) {
                                 if (s_logger.isDebugEnabled()) {
@@ -1422,11 +1469,11 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
     }
 
     public Long getAgentPingTime(long agentId) {
-        return _pingMap.get(agentId);
+        return _pingTable.getLastPing(agentId);
     }
 
     public void pingBy(long agentId) {
-        _pingMap.put(agentId, InaccurateClock.getTimeInSeconds());
+        _pingTable.ping(agentId, InaccurateClock.getTimeInSeconds(), null);
     }
 
     protected class MonitorTask extends ManagedContextRunnable {
@@ -1488,13 +1535,10 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
         }
 
         protected List<Long> findAgentsBehindOnPing() {
-            List<Long> agentsBehind = new ArrayList<Long>();
+            _pingTable.updateRate(System.currentTimeMillis());
+
             long cutoffTime = InaccurateClock.getTimeInSeconds() - getTimeout();
-            for (Map.Entry<Long, Long> entry : _pingMap.entrySet()) {
-                if (entry.getValue() < cutoffTime) {
-                    agentsBehind.add(entry.getKey());
-                }
-            }
+            List<Long> agentsBehind = _pingTable.findBehind(cutoffTime);
 
             if (agentsBehind.size() > 0) {
                 s_logger.info("Found the following agents behind on ping: " + agentsBehind);
@@ -1517,13 +1561,7 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
 
         @Override
         public boolean processCommands(long agentId, long seq, Command[] commands) {
-            boolean processed = false;
-            for (Command cmd : commands) {
-                if (cmd instanceof PingCommand) {
-                    pingBy(agentId);
-                }
-            }
-            return processed;
+            return false;
         }
 
         @Override
@@ -1539,12 +1577,12 @@ public class AgentManagerImpl extends ManagerBase implements AgentManager, Handl
             }
 
             // NOTE: We don't use pingBy here because we're initiating.
-            _pingMap.put(host.getId(), InaccurateClock.getTimeInSeconds());
+            _pingTable.connect(host.getId(), InaccurateClock.getTimeInSeconds());
         }
 
         @Override
         public boolean processDisconnect(long agentId, Status state) {
-            _pingMap.remove(agentId);
+            _pingTable.remove(agentId);
             return true;
         }
 
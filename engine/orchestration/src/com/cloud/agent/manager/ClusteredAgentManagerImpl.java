@@ -44,8 +44,11 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 
 import org.apache.cloudstack.framework.config.ConfigDepot;
+import org.apache.cloudstack.framework.config.ConfigDepotAdmin;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.PublishScope;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
 import org.apache.cloudstack.utils.identity.ManagementServerNode;
@@ -53,10 +56,12 @@ import org.apache.log4j.Logger;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.agent.api.Answer;
+import com.cloud.agent.api.CacheInvalidationCommand;
 import com.cloud.agent.api.CancelCommand;
 import com.cloud.agent.api.ChangeAgentAnswer;
 import com.cloud.agent.api.ChangeAgentCommand;
 import com.cloud.agent.api.Command;
+import com.cloud.agent.api.ConfigChangedCommand;
 import com.cloud.agent.api.PropagateResourceEventCommand;
 import com.cloud.agent.api.ScheduleHostScanTaskCommand;
 import com.cloud.agent.api.TransferAgentCommand;
@@ -121,6 +126,10 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
     ConfigurationDao _configDao;
     @Inject
     ConfigDepot _configDepot;
+    @Inject
+    ConfigDepotAdmin _configDepotAdmin;
+    @Inject
+    MessageBus _messageBus;
 
     protected ClusteredAgentManagerImpl() {
         super();
@@ -1311,6 +1320,33 @@ public class ClusteredAgentManagerImpl extends AgentManagerImpl implements Clust
                 ScheduleHostScanTaskCommand cmd = (ScheduleHostScanTaskCommand)cmds[0];
                 String response = handleScheduleHostScanTaskCommand(cmd);
                 return response;
+            } else if (cmds.length == 1 && cmds[0] instanceof ConfigChangedCommand) {
+                ConfigChangedCommand cmd = (ConfigChangedCommand)cmds[0];
+                if (cmd.getScope() != null) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Intercepting command to invalidate cached config values of " + cmd.getScope() + " " + cmd.getResourceId());
+                    }
+                    _configDepotAdmin.invalidateScopedCache(ConfigKey.Scope.valueOf(cmd.getScope()), cmd.getResourceId());
+                } else {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Intercepting command to invalidate cached values of config " + cmd.getName());
+                    }
+                    _configDepotAdmin.invalidateCache(cmd.getName());
+                }
+
+                Answer[] answers = new Answer[1];
+                answers[0] = new Answer(cmd, true, null);
+                return _gson.toJson(answers);
+            } else if (cmds.length == 1 && cmds[0] instanceof CacheInvalidationCommand) {
+                CacheInvalidationCommand cmd = (CacheInvalidationCommand)cmds[0];
+                if (s_logger.isDebugEnabled()) {
+                    s_logger.debug("Intercepting command to invalidate cached " + cmd.getSubject() + " " + cmd.getId());
+                }
+                _messageBus.publish(getName(), cmd.getSubject(), PublishScope.LOCAL, cmd.getId());
+
+                Answer[] answers = new Answer[1];
+                answers[0] = new Answer(cmd, true, null);
+                return _gson.toJson(answers);
             }
 
             try {
@@ -150,7 +150,7 @@ public class DirectAgentAttache extends AgentAttache {
                         s_logger.trace("SeqA " + _id + "-" + seq + ": " + new Request(_id, -1, cmd, false).toString());
                     }
 
-                    _mgr.handleCommands(DirectAgentAttache.this, seq, new Command[]{cmd});
+                    _mgr.processPing(DirectAgentAttache.this, seq, cmd);
                 } else {
                     s_logger.debug("Unable to send ping because agent is disconnected " + _id);
                 }
@@ -0,0 +1,206 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.StandardMBean;
+
+/**
+ * Last known ping state of the hosts connected to this management server.
+ *
+ * A ping that tells nothing new only updates the host's entry here, without
+ * touching the database. ping() reports the transitions the caller has to act
+ * upon, so alerts are raised and cleared once per change instead of on every
+ * ping.
+ */
+public class HostPingTable extends StandardMBean implements HostPingTableMBean {
+    // ping() result flags
+    public static final int FIRST_PING = 1;
+    public static final int GATEWAY_LOST = 2;
+    public static final int GATEWAY_RESTORED = 4;
+
+    private static class HostPingState {
+        volatile long lastPingSeconds;
+        // guarded by this entry
+        boolean pinged;
+        Boolean gatewayAccessible;
+
+        HostPingState(long lastPingSeconds) {
+            this.lastPingSeconds = lastPingSeconds;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, HostPingState> _hosts = new ConcurrentHashMap<Long, HostPingState>(10007);
+
+    private final AtomicLong _pingCount = new AtomicLong();
+    private final AtomicLong _deltaPingCount = new AtomicLong();
+    private final AtomicLong _processingNanos = new AtomicLong();
+    private final AtomicLong _maxProcessingNanos = new AtomicLong();
+    private final AtomicLong _alertsRaised = new AtomicLong();
+    private final AtomicLong _alertsCleared = new AtomicLong();
+
+    private long _rateWindowStart = System.currentTimeMillis();
+    private long _rateWindowPingCount;
+    private double _pingRate;
+
+    public HostPingTable() {
+        super(HostPingTableMBean.class, false);
+    }
+
+    /**
+     * Starts tracking a host as if it had just pinged.
+     */
+    public void connect(long hostId, long nowSeconds) {
+        _hosts.put(hostId, new HostPingState(nowSeconds));
+    }
+
+    public void remove(long hostId) {
+        _hosts.remove(hostId);
+    }
+
+    public Long getLastPing(long hostId) {
+        HostPingState state = _hosts.get(hostId);
+        return state != null ? state.lastPingSeconds : null;
+    }
+
+    /**
+     * @param gatewayAccessible null if the ping does not report on the gateway
+     * @return a combination of FIRST_PING, GATEWAY_LOST and GATEWAY_RESTORED,
+     *         0 if nothing changed
+     */
+    public int ping(long hostId, long nowSeconds, Boolean gatewayAccessible) {
+        _pingCount.incrementAndGet();
+
+        HostPingState state = _hosts.get(hostId);
+        if (state == null) {
+            HostPingState newState = new HostPingState(nowSeconds);
+            state = _hosts.putIfAbsent(hostId, newState);
+            if (state == null) {
+                state = newState;
+            }
+        }
+        state.lastPingSeconds = nowSeconds;
+
+        int flags = 0;
+        synchronized (state) {
+            if (!state.pinged) {
+                state.pinged = true;
+                flags |= FIRST_PING;
+            }
+
+            if (gatewayAccessible != null && !gatewayAccessible.equals(state.gatewayAccessible)) {
+                // an unknown state counts as a change, so a restarted server
+                // clears or raises the alert once
+                flags |= gatewayAccessible ? GATEWAY_RESTORED : GATEWAY_LOST;
+                state.gatewayAccessible = gatewayAccessible;
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * @return hosts whose last ping is older than the cutoff
+     */
+    public List<Long> findBehind(long cutoffSeconds) {
+        List<Long> behind = new ArrayList<Long>();
+        for (Map.Entry<Long, HostPingState> entry : _hosts.entrySet()) {
+            if (entry.getValue().lastPingSeconds < cutoffSeconds) {
+                behind.add(entry.getKey());
+            }
+        }
+        return behind;
+    }
+
+    public void recordProcessing(long nanos, boolean delta) {
+        if (delta) {
+            _deltaPingCount.incrementAndGet();
+        }
+        _processingNanos.addAndGet(nanos);
+
+        long max = _maxProcessingNanos.get();
+        while (nanos > max && !_maxProcessingNanos.compareAndSet(max, nanos)) {
+            max = _maxProcessingNanos.get();
+        }
+    }
+
+    public void recordGatewayAlert(boolean raised) {
+        if (raised) {
+            _alertsRaised.incrementAndGet();
+        } else {
+            _alertsCleared.incrementAndGet();
+        }
+    }
+
+    /**
+     * Closes the current rate window, called once per monitor interval.
+     */
+    public synchronized void updateRate(long nowMillis) {
+        long pings = _pingCount.get();
+        long elapsed = nowMillis - _rateWindowStart;
+        if (elapsed > 0) {
+            _pingRate = (pings - _rateWindowPingCount) * 60000.0 / elapsed;
+        }
+        _rateWindowStart = nowMillis;
+        _rateWindowPingCount = pings;
+    }
+
+    @Override
+    public int getHostCount() {
+        return _hosts.size();
+    }
+
+    @Override
+    public long getPingCount() {
+        return _pingCount.get();
+    }
+
+    @Override
+    public long getDeltaPingCount() {
+        return _deltaPingCount.get();
+    }
+
+    @Override
+    public synchronized double getPingRate() {
+        return _pingRate;
+    }
+
+    @Override
+    public long getAverageProcessingMicros() {
+        long count = _pingCount.get();
+        return count > 0 ? _processingNanos.get() / count / 1000 : 0;
+    }
+
+    @Override
+    public long getMaxProcessingMicros() {
+        return _maxProcessingNanos.get() / 1000;
+    }
+
+    @Override
+    public long getGatewayAlertsRaised() {
+        return _alertsRaised.get();
+    }
+
+    @Override
+    public long getGatewayAlertsCleared() {
+        return _alertsCleared.get();
+    }
+}
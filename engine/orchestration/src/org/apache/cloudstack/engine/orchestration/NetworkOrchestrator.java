@@ -1529,6 +1529,7 @@ public class NetworkOrchestrator extends ManagerBase implements NetworkOrchestra
         NetworkGuru guru = AdapterBase.getAdapterByName(_networkGurus, network.getGuruName());
         guru.deallocate(network, profile, vm);
         _nicDao.remove(nic.getId());
+        _ipAddrMgr.releaseGuestIpAddress(network.getId(), nic.getIp4Address());
         s_logger.debug("Removed nic id=" + nic.getId());
         //remove the secondary ip addresses corresponding to to this nic
         if (!removeVmSecondaryIpsOfNic(nic.getId())) {
@@ -1962,6 +1963,7 @@ public class NetworkOrchestrator extends ManagerBase implements NetworkOrchestra
                 }
                 _networksDao.update(network.getId(), network);
                 _networksDao.clearCheckForGc(networkId);
+                _ipAddrMgr.invalidateGuestIps(networkId);
                 result = true;
             } else {
                 try {
@@ -2143,6 +2145,7 @@ public class NetworkOrchestrator extends ManagerBase implements NetworkOrchestra
                     s_logger.debug(e.getMessage());
                 }
                 if (_networksDao.remove(network.getId())) {
+                    _ipAddrMgr.invalidateGuestIps(network.getId());
                     NetworkDomainVO networkDomain = _networkDomainDao.getDomainNetworkMapByNetworkId(network.getId());
                     if (networkDomain != null)
                         _networkDomainDao.remove(networkDomain.getId());
@@ -3057,6 +3060,7 @@ public class NetworkOrchestrator extends ManagerBase implements NetworkOrchestra
         if (ipList != null) {
             for (NicSecondaryIpVO ip : ipList) {
                 _nicSecondaryIpDao.remove(ip.getId());
+                _ipAddrMgr.releaseGuestIpAddress(ip.getNetworkId(), ip.getIp4Address());
             }
             s_logger.debug("Revoving nic secondary ip entry ...");
         }
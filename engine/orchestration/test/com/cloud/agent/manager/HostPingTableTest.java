@@ -0,0 +1,83 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class HostPingTableTest {
+
+    @Test
+    public void testGatewayEdges() {
+        HostPingTable table = new HostPingTable();
+        table.connect(1, 100);
+
+        assertEquals(HostPingTable.FIRST_PING | HostPingTable.GATEWAY_RESTORED, table.ping(1, 160, true));
+        assertEquals(0, table.ping(1, 220, true));
+        assertEquals(HostPingTable.GATEWAY_LOST, table.ping(1, 280, false));
+        assertEquals(0, table.ping(1, 340, false));
+        assertEquals(HostPingTable.GATEWAY_RESTORED, table.ping(1, 400, true));
+
+        // pings without a gateway state do not change it
+        assertEquals(0, table.ping(1, 460, null));
+        assertEquals(0, table.ping(1, 520, true));
+        assertEquals(Long.valueOf(520), table.getLastPing(1));
+
+        // a reconnect starts over
+        table.connect(1, 600);
+        assertEquals(HostPingTable.FIRST_PING | HostPingTable.GATEWAY_RESTORED, table.ping(1, 660, true));
+    }
+
+    @Test
+    public void testBehindOnPing() {
+        HostPingTable table = new HostPingTable();
+        table.connect(1, 100);
+        table.connect(2, 100);
+        table.ping(3, 100, null);
+        table.ping(2, 200, null);
+
+        assertEquals(3, table.getHostCount());
+        assertEquals(Arrays.asList(1L, 3L), table.findBehind(150));
+
+        table.remove(1);
+        assertNull(table.getLastPing(1));
+        assertEquals(Arrays.asList(3L), table.findBehind(150));
+    }
+
+    @Test
+    public void testStats() {
+        HostPingTable table = new HostPingTable();
+        table.updateRate(0);
+        for (int i = 0; i < 300; i++) {
+            table.ping(i % 100, 100, true);
+            table.recordProcessing(2000, i < 100);
+        }
+        table.recordProcessing(9000, false);
+        table.updateRate(30000);
+
+        assertEquals(300, table.getPingCount());
+        assertEquals(100, table.getDeltaPingCount());
+        assertEquals(600.0, table.getPingRate(), 0.01);
+        assertEquals(9, table.getMaxProcessingMicros());
+        assertTrue(table.getAverageProcessingMicros() >= 2);
+    }
+}
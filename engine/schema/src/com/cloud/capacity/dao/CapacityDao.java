@@ -26,6 +26,7 @@ import com.cloud.utils.db.GenericDao;
 
 public interface CapacityDao extends GenericDao<CapacityVO, Long> {
 	CapacityVO findByHostIdType(Long hostId, short capacityType);
+	List<CapacityVO> listByHostIdsAndTypes(List<Long> hostIds, List<Short> capacityTypes);
 	List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone);
 	List<Long> listHostsWithEnoughCapacity(int requiredCpu, long requiredRam, Long clusterId, String hostType);
 	boolean removeBy(Short capacityType, Long zoneId, Long podId, Long clusterId, Long hostId);
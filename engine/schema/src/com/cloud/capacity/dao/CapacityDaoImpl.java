@@ -62,6 +62,7 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
     private static final String LIST_CLUSTERSINZONE_BY_HOST_CAPACITIES_PART3 = " AND capacity_type = ? AND cluster_details.name= ? AND ((total_capacity * cluster_details.value) - used_capacity + reserved_capacity) >= ?) ";
 
     private final SearchBuilder<CapacityVO> _hostIdTypeSearch;
+    private final SearchBuilder<CapacityVO> _hostIdsTypesSearch;
     private final SearchBuilder<CapacityVO> _hostOrPoolIdSearch;
     private final SearchBuilder<CapacityVO> _allFieldsSearch;
     @Inject protected PrimaryDataStoreDao _storagePoolDao;
@@ -167,6 +168,11 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         _hostIdTypeSearch.and("type", _hostIdTypeSearch.entity().getCapacityType(), SearchCriteria.Op.EQ);
         _hostIdTypeSearch.done();
 
+        _hostIdsTypesSearch = createSearchBuilder();
+        _hostIdsTypesSearch.and("hostIds", _hostIdsTypesSearch.entity().getHostOrPoolId(), SearchCriteria.Op.IN);
+        _hostIdsTypesSearch.and("types", _hostIdsTypesSearch.entity().getCapacityType(), SearchCriteria.Op.IN);
+        _hostIdsTypesSearch.done();
+
         _hostOrPoolIdSearch = createSearchBuilder();
         _hostOrPoolIdSearch.and("hostId", _hostOrPoolIdSearch.entity().getHostOrPoolId(), SearchCriteria.Op.EQ);
         _hostOrPoolIdSearch.done();
@@ -456,6 +462,17 @@ public class CapacityDaoImpl extends GenericDaoBase<CapacityVO, Long> implements
         return findOneBy(sc);
     }  
 
+    @Override
+    public List<CapacityVO> listByHostIdsAndTypes(List<Long> hostIds, List<Short> capacityTypes) {
+        if (hostIds.isEmpty() || capacityTypes.isEmpty()) {
+            return new ArrayList<CapacityVO>();
+        }
+        SearchCriteria<CapacityVO> sc = _hostIdsTypesSearch.create();
+        sc.setParameters("hostIds", hostIds.toArray(new Object[hostIds.size()]));
+        sc.setParameters("types", capacityTypes.toArray(new Object[capacityTypes.size()]));
+        return listBy(sc);
+    }
+
     @Override
     public List<Long> listClustersInZoneOrPodByHostCapacities(long id, int requiredCpu, long requiredRam, short capacityTypeForOrdering, boolean isZone){
     Transaction txn = Transaction.currentTxn();
@@ -36,6 +36,7 @@ import com.cloud.utils.db.Transaction;
 public class ClusterDetailsDaoImpl extends GenericDaoBase<ClusterDetailsVO, Long> implements ClusterDetailsDao, ScopedConfigStorage {
     protected final SearchBuilder<ClusterDetailsVO> ClusterSearch;
     protected final SearchBuilder<ClusterDetailsVO> DetailSearch;
+    protected final SearchBuilder<ClusterDetailsVO> ClustersDetailSearch;
 
     protected ClusterDetailsDaoImpl() {
         ClusterSearch = createSearchBuilder();
@@ -46,6 +47,11 @@ public class ClusterDetailsDaoImpl extends GenericDaoBase<ClusterDetailsVO, Long
         DetailSearch.and("clusterId", DetailSearch.entity().getClusterId(), SearchCriteria.Op.EQ);
         DetailSearch.and("name", DetailSearch.entity().getName(), SearchCriteria.Op.EQ);
         DetailSearch.done();
+
+        ClustersDetailSearch = createSearchBuilder();
+        ClustersDetailSearch.and("clusterIds", ClustersDetailSearch.entity().getClusterId(), SearchCriteria.Op.IN);
+        ClustersDetailSearch.and("name", ClustersDetailSearch.entity().getName(), SearchCriteria.Op.EQ);
+        ClustersDetailSearch.done();
     }
 
     @Override
@@ -69,6 +75,26 @@ public class ClusterDetailsDaoImpl extends GenericDaoBase<ClusterDetailsVO, Long
         return detail;
     }
 
+    @Override
+    public Map<Long, String> findDetailValues(List<Long> clusterIds, String name) {
+        Map<Long, String> values = new HashMap<Long, String>();
+        if (clusterIds.isEmpty()) {
+            return values;
+        }
+        SearchCriteria<ClusterDetailsVO> sc = ClustersDetailSearch.create();
+        sc.setParameters("clusterIds", clusterIds.toArray(new Object[clusterIds.size()]));
+        sc.setParameters("name", name);
+
+        for (ClusterDetailsVO detail : listIncludingRemovedBy(sc)) {
+            if ("password".equals(name)) {
+                values.put(detail.getClusterId(), DBEncryptionUtil.decrypt(detail.getValue()));
+            } else {
+                values.put(detail.getClusterId(), detail.getValue());
+            }
+        }
+        return values;
+    }
+
 
     @Override
     public Map<String, String> findDetails(long clusterId) {
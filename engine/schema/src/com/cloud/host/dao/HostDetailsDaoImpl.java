@@ -39,6 +39,7 @@ import com.cloud.utils.exception.CloudRuntimeException;
 public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implements HostDetailsDao {
     protected final SearchBuilder<DetailVO> HostSearch;
     protected final SearchBuilder<DetailVO> DetailSearch;
+    protected final SearchBuilder<DetailVO> HostsDetailSearch;
 
     public HostDetailsDaoImpl() {
         HostSearch = createSearchBuilder();
@@ -49,6 +50,11 @@ public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implement
         DetailSearch.and("hostId", DetailSearch.entity().getHostId(), SearchCriteria.Op.EQ);
         DetailSearch.and("name", DetailSearch.entity().getName(), SearchCriteria.Op.EQ);
         DetailSearch.done();
+
+        HostsDetailSearch = createSearchBuilder();
+        HostsDetailSearch.and("hostIds", HostsDetailSearch.entity().getHostId(), SearchCriteria.Op.IN);
+        HostsDetailSearch.and("name", HostsDetailSearch.entity().getName(), SearchCriteria.Op.EQ);
+        HostsDetailSearch.done();
     }
 
     @Override
@@ -64,6 +70,26 @@ public class HostDetailsDaoImpl extends GenericDaoBase<DetailVO, Long> implement
         return detail;
     }
 
+    @Override
+    public Map<Long, String> findDetailValues(List<Long> hostIds, String name) {
+        Map<Long, String> values = new HashMap<Long, String>();
+        if (hostIds.isEmpty()) {
+            return values;
+        }
+        SearchCriteria<DetailVO> sc = HostsDetailSearch.create();
+        sc.setParameters("hostIds", hostIds.toArray(new Object[hostIds.size()]));
+        sc.setParameters("name", name);
+
+        for (DetailVO detail : listIncludingRemovedBy(sc)) {
+            if ("password".equals(name)) {
+                values.put(detail.getHostId(), DBEncryptionUtil.decrypt(detail.getValue()));
+            } else {
+                values.put(detail.getHostId(), detail.getValue());
+            }
+        }
+        return values;
+    }
+
     @Override
     public Map<String, String> findDetails(long hostId) {
         SearchCriteria<DetailVO> sc = HostSearch.create();
@@ -39,4 +39,6 @@ public interface StoragePoolHostDao extends GenericDao<StoragePoolHostVO, Long>
     public void deleteStoragePoolHostDetails(long hostId, long poolId);
 
     List<StoragePoolHostVO> listByHostId(long hostId);
+
+    List<StoragePoolHostVO> listByHostIds(List<Long> hostIds);
 }
@@ -42,6 +42,7 @@ public class StoragePoolHostDaoImpl extends GenericDaoBase<StoragePoolHostVO, Lo
 
     protected final SearchBuilder<StoragePoolHostVO> PoolSearch;
     protected final SearchBuilder<StoragePoolHostVO> HostSearch;
+    protected final SearchBuilder<StoragePoolHostVO> HostsSearch;
     protected final SearchBuilder<StoragePoolHostVO> PoolHostSearch;
 
     protected static final String HOST_FOR_POOL_SEARCH = "SELECT * FROM storage_pool_host_ref ph,  host h where  ph.host_id = h.id and ph.pool_id=? and h.status=? ";
@@ -66,6 +67,10 @@ public class StoragePoolHostDaoImpl extends GenericDaoBase<StoragePoolHostVO, Lo
         HostSearch.and("host_id", HostSearch.entity().getHostId(), SearchCriteria.Op.EQ);
         HostSearch.done();
 
+        HostsSearch = createSearchBuilder();
+        HostsSearch.and("host_id", HostsSearch.entity().getHostId(), SearchCriteria.Op.IN);
+        HostsSearch.done();
+
         PoolHostSearch = createSearchBuilder();
         PoolHostSearch.and("pool_id", PoolHostSearch.entity().getPoolId(), SearchCriteria.Op.EQ);
         PoolHostSearch.and("host_id", PoolHostSearch.entity().getHostId(), SearchCriteria.Op.EQ);
@@ -94,6 +99,16 @@ public class StoragePoolHostDaoImpl extends GenericDaoBase<StoragePoolHostVO, Lo
         return listBy(sc);
     }
 
+    @Override
+    public List<StoragePoolHostVO> listByHostIds(List<Long> hostIds) {
+        if (hostIds.isEmpty()) {
+            return new ArrayList<StoragePoolHostVO>();
+        }
+        SearchCriteria<StoragePoolHostVO> sc = HostsSearch.create();
+        sc.setParameters("host_id", hostIds.toArray(new Object[hostIds.size()]));
+        return listBy(sc);
+    }
+
     @Override
     public StoragePoolHostVO findByPoolHost(long poolId, long hostId) {
         SearchCriteria<StoragePoolHostVO> sc = PoolHostSearch.create();
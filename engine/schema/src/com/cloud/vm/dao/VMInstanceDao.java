@@ -99,6 +99,11 @@ public interface VMInstanceDao extends GenericDao<VMInstanceVO, Long>, StateDao<
 
     public Long countRunningByHostId(long hostId);
 
+    /**
+     * @return host id -> number of running VMs, hosts without running VMs are left out
+     */
+    Map<Long, Long> countRunningByHostIds(List<Long> hostIds);
+
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId);
 
     Pair<List<Long>, Map<Long, Double>> listClusterIdsInPodByVmCount(long podId, long accountId);
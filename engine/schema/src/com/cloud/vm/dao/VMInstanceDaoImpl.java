@@ -81,6 +81,7 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
     protected SearchBuilder<VMInstanceVO> HostNameSearch;
     protected GenericSearchBuilder<VMInstanceVO, Long> FindIdsOfVirtualRoutersByAccount;
     protected GenericSearchBuilder<VMInstanceVO, Long> CountRunningByHost;
+    protected GenericSearchBuilder<VMInstanceVO, HostVmCount> CountRunningByHosts;
     protected GenericSearchBuilder<VMInstanceVO, Long> CountRunningByAccount;
     protected SearchBuilder<VMInstanceVO> NetworkTypeSearch;
     protected GenericSearchBuilder<VMInstanceVO, String> DistinctHostNameSearch;
@@ -210,6 +211,14 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         CountRunningByHost.and("state", CountRunningByHost.entity().getState(), SearchCriteria.Op.EQ);
         CountRunningByHost.done();
 
+        CountRunningByHosts = createSearchBuilder(HostVmCount.class);
+        CountRunningByHosts.select("hostId", Func.NATIVE, CountRunningByHosts.entity().getHostId());
+        CountRunningByHosts.select("count", Func.COUNT, (Object[])null);
+        CountRunningByHosts.and("hosts", CountRunningByHosts.entity().getHostId(), SearchCriteria.Op.IN);
+        CountRunningByHosts.and("state", CountRunningByHosts.entity().getState(), SearchCriteria.Op.EQ);
+        CountRunningByHosts.groupBy(CountRunningByHosts.entity().getHostId());
+        CountRunningByHosts.done();
+
         CountRunningByAccount = createSearchBuilder(Long.class);
         CountRunningByAccount.select(null, Func.COUNT, null);
         CountRunningByAccount.and("account", CountRunningByAccount.entity().getAccountId(), SearchCriteria.Op.EQ);
@@ -482,6 +491,29 @@ public class VMInstanceDaoImpl extends GenericDaoBase<VMInstanceVO, Long> implem
         return customSearch(sc, null).get(0);
     }
 
+    @Override
+    public Map<Long, Long> countRunningByHostIds(List<Long> hostIds) {
+        Map<Long, Long> counts = new HashMap<Long, Long>();
+        if (hostIds.isEmpty()) {
+            return counts;
+        }
+        SearchCriteria<HostVmCount> sc = CountRunningByHosts.create();
+        sc.setParameters("hosts", hostIds.toArray(new Object[hostIds.size()]));
+        sc.setParameters("state", State.Running);
+        for (HostVmCount count : customSearch(sc, null)) {
+            counts.put(count.hostId, count.count);
+        }
+        return counts;
+    }
+
+    public static class HostVmCount {
+        public long hostId;
+        public long count;
+
+        public HostVmCount() {
+        }
+    }
+
     @Override
     public Pair<List<Long>, Map<Long, Double>> listClusterIdsInZoneByVmCount(long zoneId, long accountId) {
         Transaction txn = Transaction.currentTxn();
@@ -42,6 +42,7 @@ import org.springframework.core.type.filter.TypeFilter;
 
 import com.cloud.agent.AgentManager;
 import com.cloud.alert.AlertManager;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDaoImpl;
 import com.cloud.cluster.ClusteredAgentRebalanceService;
 import com.cloud.cluster.agentlb.dao.HostTransferMapDaoImpl;
@@ -173,6 +174,11 @@ public class ChildTestConfiguration extends TestConfiguration {
         return Mockito.mock(TemplateManager.class);
     }
 
+    @Bean
+    public CapacityManager capacityMgr() {
+        return Mockito.mock(CapacityManager.class);
+    }
+
     @Bean
     public VolumeOrchestrationService volumeMgr() {
         return Mockito.mock(VolumeOrchestrationService.class);
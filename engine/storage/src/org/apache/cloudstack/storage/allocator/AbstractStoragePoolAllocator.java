@@ -34,6 +34,7 @@ import org.apache.cloudstack.engine.subsystem.api.storage.StoragePoolAllocator;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 
+import com.cloud.capacity.CapacityManager;
 import com.cloud.dc.ClusterVO;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.deploy.DeploymentPlan;
@@ -73,6 +74,8 @@ public abstract class AbstractStoragePoolAllocator extends AdapterBase implement
     protected String _allocationAlgorithm = "random";
     @Inject
     DiskOfferingDao _diskOfferingDao;
+    @Inject
+    CapacityManager _capacityMgr;
 
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
@@ -115,25 +118,18 @@ public abstract class AbstractStoragePoolAllocator extends AdapterBase implement
         if (account == null) {
             return pools;
         }
-        long dcId = plan.getDataCenterId();
-        Long podId = plan.getPodId();
-        Long clusterId = plan.getClusterId();
-
-        List<Long> poolIdsByVolCount = _volumeDao.listPoolIdsByVolumeCount(dcId, podId, clusterId,
-                account.getAccountId());
-        if (s_logger.isDebugEnabled()) {
-            s_logger.debug("List of pools in ascending order of number of volumes for account id: "
-                    + account.getAccountId() + " is: " + poolIdsByVolCount);
-        }
-
-        // now filter the given list of Pools by this ordered list
+        // the volume counts come from the allocated capacity model, not the database
         Map<Long, StoragePool> poolMap = new HashMap<Long, StoragePool>();
+        List<Long> poolIds = new ArrayList<Long>();
         for (StoragePool pool : pools) {
             poolMap.put(pool.getId(), pool);
+            poolIds.add(pool.getId());
+        }
+        List<Long> poolIdsByVolCount = _capacityMgr.orderPoolsByAccountVolumeCount(poolIds, account.getAccountId());
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("List of pools in ascending order of number of volumes for account id: "
+                    + account.getAccountId() + " is: " + poolIdsByVolCount);
         }
-        List<Long> matchingPoolIds = new ArrayList<Long>(poolMap.keySet());
-
-        poolIdsByVolCount.retainAll(matchingPoolIds);
 
         List<StoragePool> reorderedPools = new ArrayList<StoragePool>();
         for (Long id : poolIdsByVolCount) {
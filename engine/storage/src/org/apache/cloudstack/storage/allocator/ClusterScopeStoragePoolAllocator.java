@@ -18,6 +18,7 @@ package org.apache.cloudstack.storage.allocator;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -66,7 +67,8 @@ public class ClusterScopeStoragePoolAllocator extends AbstractStoragePoolAllocat
             // only podId is passed into this call.
             return null;
         }
-        if (dskCh.getTags() != null && dskCh.getTags().length != 0) {
+        boolean tagged = dskCh.getTags() != null && dskCh.getTags().length != 0;
+        if (tagged) {
             s_logger.debug("Looking for pools in dc: " + dcId + "  pod:" + podId + "  cluster:" + clusterId
                     + " having tags:" + Arrays.toString(dskCh.getTags()));
         } else {
@@ -75,11 +77,13 @@ public class ClusterScopeStoragePoolAllocator extends AbstractStoragePoolAllocat
 
         List<StoragePoolVO> pools = _storagePoolDao.findPoolsByTags(dcId, podId, clusterId, dskCh.getTags());
 
-        // add remaining pools in cluster, that did not match tags, to avoid set
-        List<StoragePoolVO> allPools = _storagePoolDao.findPoolsByTags(dcId, podId, clusterId, null);
-        allPools.removeAll(pools);
-        for (StoragePoolVO pool : allPools) {
-            avoid.addPool(pool.getId());
+        // add remaining pools in cluster, that did not match tags, to avoid set; without tags every pool matched
+        if (tagged) {
+            List<StoragePoolVO> allPools = _storagePoolDao.findPoolsByTags(dcId, podId, clusterId, null);
+            allPools.removeAll(new HashSet<StoragePoolVO>(pools));
+            for (StoragePoolVO pool : allPools) {
+                avoid.addPool(pool.getId());
+            }
         }
 
         if (pools.size() == 0) {
@@ -42,6 +42,7 @@ import org.springframework.stereotype.Component;
 
 import com.cloud.agent.api.to.DataObjectType;
 import com.cloud.agent.api.to.S3TO;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.exception.ConcurrentOperationException;
 import com.cloud.storage.DataStoreRole;
 import com.cloud.storage.VMTemplateStoragePoolVO;
@@ -81,6 +82,8 @@ public class ObjectInDataStoreManagerImpl implements ObjectInDataStoreManager {
     SnapshotDao snapshotDao;
     @Inject
     VolumeDao volumeDao;
+    @Inject
+    CapacityManager capacityMgr;
     protected StateMachine2<State, Event, DataObjectInStore> stateMachines;
 
     public ObjectInDataStoreManagerImpl() {
@@ -106,6 +109,7 @@ public class ObjectInDataStoreManagerImpl implements ObjectInDataStoreManager {
             if (obj.getType() == DataObjectType.TEMPLATE) {
                 VMTemplateStoragePoolVO vo = new VMTemplateStoragePoolVO(dataStore.getId(), obj.getId());
                 vo = templatePoolDao.persist(vo);
+                capacityMgr.templatesOnPoolChanged(dataStore.getId());
             } else if (obj.getType() == DataObjectType.SNAPSHOT) {
                 SnapshotInfo snapshotInfo = (SnapshotInfo)obj;
                 SnapshotDataStoreVO ss = new SnapshotDataStoreVO();
@@ -187,6 +191,7 @@ public class ObjectInDataStoreManagerImpl implements ObjectInDataStoreManager {
             if (dataObj.getType() == DataObjectType.TEMPLATE) {
                 VMTemplateStoragePoolVO destTmpltPool = templatePoolDao.findByPoolTemplate(dataStore.getId(), objId);
                 if (destTmpltPool != null) {
+                    capacityMgr.templatesOnPoolChanged(dataStore.getId());
                     return templatePoolDao.remove(destTmpltPool.getId());
                 } else {
                     s_logger.warn("Template " + objId + " is not found on storage pool " + dataStore.getId()
@@ -240,6 +245,7 @@ public class ObjectInDataStoreManagerImpl implements ObjectInDataStoreManager {
             if (dataObj.getType() == DataObjectType.TEMPLATE) {
                 VMTemplateStoragePoolVO destTmpltPool = templatePoolDao.findByPoolTemplate(dataStore.getId(), objId);
                 if (destTmpltPool != null && destTmpltPool.getState() != ObjectInDataStoreStateMachine.State.Ready) {
+                    capacityMgr.templatesOnPoolChanged(dataStore.getId());
                     return templatePoolDao.remove(destTmpltPool.getId());
                 } else {
                     s_logger.warn("Template " + objId + " is not found on storage pool " + dataStore.getId() + ", so no need to delete");
@@ -310,6 +316,7 @@ public class ObjectInDataStoreManagerImpl implements ObjectInDataStoreManager {
         } else if (data.getType() == DataObjectType.TEMPLATE && data.getDataStore().getRole() == DataStoreRole.Primary) {
 
             result = this.stateMachines.transitTo(obj, event, null, templatePoolDao);
+            capacityMgr.templatesOnPoolChanged(data.getDataStore().getId());
 
         } else if (data.getType() == DataObjectType.SNAPSHOT && data.getDataStore().getRole() == DataStoreRole.Primary) {
             result = this.stateMachines.transitTo(obj, event, null, snapshotDataStoreDao);
@@ -48,6 +48,7 @@ import org.apache.log4j.Logger;
 
 import com.cloud.agent.api.to.DataObjectType;
 import com.cloud.agent.api.to.DataStoreTO;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.storage.Storage.StoragePoolType;
 import com.cloud.storage.DataStoreRole;
@@ -84,6 +85,8 @@ public class PrimaryDataStoreImpl implements PrimaryDataStore {
 
     @Inject
     private VolumeDao volumeDao;
+    @Inject
+    private CapacityManager capacityMgr;
 
     public PrimaryDataStoreImpl() {
 
@@ -244,6 +247,7 @@ public class PrimaryDataStoreImpl implements PrimaryDataStore {
                         }
                         templateStoragePoolRef = new VMTemplateStoragePoolVO(this.getId(), obj.getId());
                         templateStoragePoolRef = templatePoolDao.persist(templateStoragePoolRef);
+                        capacityMgr.templatesOnPoolChanged(this.getId());
                     }
                 } catch (Throwable t) {
                         if (s_logger.isDebugEnabled()) {
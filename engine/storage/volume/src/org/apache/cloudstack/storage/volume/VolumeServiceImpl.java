@@ -68,6 +68,7 @@ import com.cloud.agent.api.storage.ListVolumeAnswer;
 import com.cloud.agent.api.storage.ListVolumeCommand;
 import com.cloud.agent.api.to.VirtualMachineTO;
 import com.cloud.alert.AlertManager;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.event.EventTypes;
@@ -128,6 +129,8 @@ public class VolumeServiceImpl implements VolumeService {
     VolumeDao _volumeDao;
     @Inject
     EndPointSelector _epSelector;
+    @Inject
+    CapacityManager _capacityMgr;
 
     public VolumeServiceImpl() {
     }
@@ -1125,6 +1128,12 @@ public class VolumeServiceImpl implements VolumeService {
             return null;
         }
 
+        // the driver persisted the new size, the transition above may have seen the old one
+        VolumeVO resized = volDao.findById(volume.getId());
+        if (resized != null) {
+            _capacityMgr.volumeOnPoolChanged(resized);
+        }
+
         VolumeApiResult res = new VolumeApiResult(volume);
         future.complete(res);
 
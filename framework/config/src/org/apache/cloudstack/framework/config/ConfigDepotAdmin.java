@@ -33,4 +33,19 @@ public interface ConfigDepotAdmin {
     void populateConfigurations();
 
     List<String> getComponentsInDepot();
+
+    /**
+     * Drops cached values of a configuration parameter after it has been
+     * changed, so the new value is used right away.
+     * @param name name of the parameter, or null to drop all cached values
+     */
+    void invalidateCache(String name);
+
+    /**
+     * Drops the cached values that all keys of the given scope hold for one
+     * resource, after the details of that resource have been changed.
+     * @param scope scope of the keys, e.g. Zone for the details of a zone
+     * @param id id of the zone, cluster, storage pool or account
+     */
+    void invalidateScopedCache(ConfigKey.Scope scope, long id);
 }
@@ -17,10 +17,13 @@
 package org.apache.cloudstack.framework.config;
 
 import java.sql.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.cloudstack.framework.config.impl.ConfigDepotImpl;
 import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
 
+import com.cloud.utils.concurrency.GenerationGuard;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 
@@ -79,6 +82,33 @@ public class ConfigKey<T> {
     private final T _multiplier;
     T _value = null;
 
+    /**
+     * Parsed values of a dynamic key.  A cached value is used until the depot
+     * invalidates it, either for this key or for all keys, or until it is
+     * older than the depot's cache ttl.
+     */
+    static class CachedValue<T> {
+        final T value;
+        final boolean isSet;
+        final long generation;
+        final long loaded;
+
+        CachedValue(T value, boolean isSet, long generation, long loaded) {
+            this.value = value;
+            this.isSet = isSet;
+            this.generation = generation;
+            this.loaded = loaded;
+        }
+    }
+
+    static final int MAX_SCOPED_CACHE_SIZE = 10000;
+
+    private volatile CachedValue<T> _cached;
+    private final Map<Long, CachedValue<T>> _scopedCache = new ConcurrentHashMap<Long, CachedValue<T>>();
+    // bumped by invalidate(), per scope id by invalidate(long); a load that
+    // raced with one of them is not cached
+    private final GenerationGuard<Long> _generations = new GenerationGuard<Long>();
+
     static ConfigDepotImpl s_depot = null;
 
     static public void init(ConfigDepotImpl depot) {
@@ -132,12 +162,39 @@ public class ConfigKey<T> {
     }
 
     public T value() {
-        if (_value == null || isDynamic()) {
-            ConfigurationVO vo = s_depot != null ? s_depot.global().findById(key()) : null;
-            _value = valueOf(vo != null ? vo.getValue() : defaultValue());
+        if (!isDynamic()) {
+            if (_value == null) {
+                _value = load();
+            }
+            return _value;
         }
 
-        return _value;
+        ConfigDepotImpl depot = s_depot;
+        if (depot == null) {
+            return load();
+        }
+
+        CachedValue<T> cached = _cached;
+        if (cached != null && depot.isCacheValid(cached.generation, cached.loaded)) {
+            depot.recordCacheHit();
+            return cached.value;
+        }
+
+        depot.recordCacheMiss();
+        // Read the generations before the value so an invalidation racing
+        // with the load keeps the old value out of the cache.
+        long generation = depot.getCacheGeneration();
+        long keyGeneration = _generations.get();
+        T value = load();
+        if (_generations.isCurrent(keyGeneration)) {
+            CachedValue<T> entry = new CachedValue<T>(value, true, generation, System.currentTimeMillis());
+            _cached = entry;
+            // an invalidation that ran between the check and the store may have missed the entry
+            if (!_generations.isCurrent(keyGeneration) && _cached == entry) {
+                _cached = null;
+            }
+        }
+        return value;
     }
 
     public T valueIn(Long id) {
@@ -145,12 +202,58 @@ public class ConfigKey<T> {
             return value();
         }
 
-        String value = s_depot != null ? s_depot.scoped(this).getConfigValue(id, this) : null;
-        if (value == null) {
+        ConfigDepotImpl depot = s_depot;
+        if (depot == null) {
             return value();
-        } else {
-            return valueOf(value);
         }
+
+        CachedValue<T> cached = _scopedCache.get(id);
+        if (cached != null && depot.isCacheValid(cached.generation, cached.loaded)) {
+            depot.recordCacheHit();
+            return cached.isSet ? cached.value : value();
+        }
+
+        depot.recordCacheMiss();
+        long generation = depot.getCacheGeneration();
+        long keyGeneration = _generations.get(id);
+        String value = depot.scoped(this).getConfigValue(id, this);
+        T parsed = value != null ? valueOf(value) : null;
+        if (_generations.isCurrent(id, keyGeneration)) {
+            if (_scopedCache.size() >= MAX_SCOPED_CACHE_SIZE) {
+                _scopedCache.clear();
+            }
+            CachedValue<T> entry = new CachedValue<T>(parsed, value != null, generation, System.currentTimeMillis());
+            _scopedCache.put(id, entry);
+            if (!_generations.isCurrent(id, keyGeneration)) {
+                _scopedCache.remove(id, entry);
+            }
+        }
+        return value != null ? parsed : value();
+    }
+
+    /**
+     * Drops the cached global and scoped values of this key so the next
+     * lookup reads them from the database again.  Keys that are not dynamic
+     * keep the value they were first read with.
+     */
+    public void invalidate() {
+        _generations.invalidateAll();
+        _cached = null;
+        _scopedCache.clear();
+    }
+
+    /**
+     * Drops the cached value of this key for one zone, cluster, storage pool
+     * or account, depending on the scope of the key.
+     */
+    public void invalidate(long id) {
+        _generations.invalidate(id);
+        _scopedCache.remove(id);
+    }
+
+    private T load() {
+        ConfigurationVO vo = s_depot != null ? s_depot.global().findById(key()) : null;
+        return valueOf(vo != null ? vo.getValue() : defaultValue());
     }
 
     @SuppressWarnings("unchecked")
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.PostConstruct;
 import javax.inject.Inject;
@@ -36,6 +37,7 @@ import org.apache.commons.lang.ObjectUtils;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.SystemIntegrityChecker;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
 
 /**
  * ConfigDepotImpl implements the ConfigDepot and ConfigDepotAdmin interface.
@@ -47,6 +49,10 @@ import com.cloud.utils.exception.CloudRuntimeException;
  *   - Hide the data source where configs are stored and retrieved.
  * 
  * When dealing with this class, we must be very careful on cluster situations.
+ * Parsed values of dynamic keys are cached in their ConfigKey.  A change made
+ * through the configuration manager invalidates the cache here and on the
+ * peer management servers; the cache ttl bounds how long a change made any
+ * other way, e.g. directly in the database, can go unnoticed.
  *
  * TODO:
  *   - Move the rest of the changes to the config table to here.
@@ -75,6 +81,15 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin, SystemInt
 
     HashMap<String, Pair<String, ConfigKey<?>>> _allKeys = new HashMap<String, Pair<String, ConfigKey<?>>>(1007);
 
+    public static final long DEFAULT_CACHE_TTL = 30000;
+
+    private volatile long _cacheTtl = DEFAULT_CACHE_TTL;
+    private final AtomicLong _cacheGeneration = new AtomicLong();
+    private final AtomicLong _cacheHits = new AtomicLong();
+    private final AtomicLong _cacheMisses = new AtomicLong();
+    private final AtomicLong _cacheInvalidations = new AtomicLong();
+    private final long _statsStart = System.currentTimeMillis();
+
     public ConfigDepotImpl() {
         ConfigKey.init(this);
     }
@@ -129,6 +144,12 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin, SystemInt
                 _allKeys.put(key.key(), new Pair<String, ConfigKey<?>>(configurable.getConfigComponentName(), key));
             }
         }
+
+        try {
+            JmxUtil.registerMBean("ConfigDepot", "Cache", new ConfigDepotMBeanImpl(this));
+        } catch (Exception e) {
+            s_logger.warn("Unable to register mbean for the config cache", e);
+        }
     }
 
     public ConfigurationDao global() {
@@ -144,4 +165,84 @@ public class ConfigDepotImpl implements ConfigDepot, ConfigDepotAdmin, SystemInt
 
         throw new CloudRuntimeException("Unable to find config storage for this scope: " + config.scope() + " for " + config.key());
     }
+
+    @Override
+    public void invalidateCache(String name) {
+        _cacheInvalidations.incrementAndGet();
+        Pair<String, ConfigKey<?>> key = name != null ? _allKeys.get(name) : null;
+        if (key != null) {
+            key.second().invalidate();
+        } else {
+            // Not a key we know of, it may still be read through a ConfigKey
+            // that no Configurable has registered, so drop everything.
+            _cacheGeneration.incrementAndGet();
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Invalidated cached config values for " + (key != null ? name : "all keys") + ", " + getCacheStats());
+        }
+    }
+
+    @Override
+    public void invalidateScopedCache(ConfigKey.Scope scope, long id) {
+        _cacheInvalidations.incrementAndGet();
+        for (Pair<String, ConfigKey<?>> key : _allKeys.values()) {
+            if (key.second().scope() == scope) {
+                key.second().invalidate(id);
+            }
+        }
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Invalidated cached config values of " + scope + " " + id);
+        }
+    }
+
+    public boolean isCacheValid(long generation, long loaded) {
+        return generation == _cacheGeneration.get() && System.currentTimeMillis() - loaded < _cacheTtl;
+    }
+
+    public long getCacheGeneration() {
+        return _cacheGeneration.get();
+    }
+
+    public void recordCacheHit() {
+        _cacheHits.incrementAndGet();
+    }
+
+    public void recordCacheMiss() {
+        _cacheMisses.incrementAndGet();
+    }
+
+    public long getCacheHits() {
+        return _cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return _cacheMisses.get();
+    }
+
+    public long getCacheInvalidations() {
+        return _cacheInvalidations.get();
+    }
+
+    /**
+     * @param ttl milliseconds a cached value is trusted without an
+     *        invalidation; 0 reads every dynamic value from the database
+     */
+    public void setCacheTtl(long ttl) {
+        _cacheTtl = ttl;
+    }
+
+    public long getCacheTtl() {
+        return _cacheTtl;
+    }
+
+    public String getCacheStats() {
+        long hits = _cacheHits.get();
+        long misses = _cacheMisses.get();
+        long seconds = Math.max(1, (System.currentTimeMillis() - _statsStart) / 1000);
+        long lookups = hits + misses;
+        return "config cache lookups: " + lookups + " (" + lookups / seconds + "/s), hits: " + hits + ", misses: " + misses + " (" + misses / seconds +
+            "/s), invalidations: " + _cacheInvalidations.get();
+    }
 }
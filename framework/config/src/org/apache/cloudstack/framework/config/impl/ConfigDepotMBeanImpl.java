@@ -0,0 +1,63 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+import javax.management.StandardMBean;
+
+public class ConfigDepotMBeanImpl extends StandardMBean implements ConfigDepotMBean {
+    private final ConfigDepotImpl _depot;
+
+    public ConfigDepotMBeanImpl(ConfigDepotImpl depot) {
+        super(ConfigDepotMBean.class, false);
+        _depot = depot;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return _depot.getCacheHits();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return _depot.getCacheMisses();
+    }
+
+    @Override
+    public long getCacheInvalidations() {
+        return _depot.getCacheInvalidations();
+    }
+
+    @Override
+    public long getCacheTtl() {
+        return _depot.getCacheTtl();
+    }
+
+    @Override
+    public void setCacheTtl(long ttl) {
+        _depot.setCacheTtl(ttl);
+    }
+
+    @Override
+    public String getCacheStats() {
+        return _depot.getCacheStats();
+    }
+
+    @Override
+    public void invalidateCache() {
+        _depot.invalidateCache(null);
+    }
+}
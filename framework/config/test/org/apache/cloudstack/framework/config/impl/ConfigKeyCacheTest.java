@@ -0,0 +1,191 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package org.apache.cloudstack.framework.config.impl;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.apache.cloudstack.framework.config.ConfigKey;
+import org.apache.cloudstack.framework.config.Configurable;
+import org.apache.cloudstack.framework.config.ScopedConfigStorage;
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+
+public class ConfigKeyCacheTest extends TestCase {
+    private final ConfigKey<Integer> DynamicIntCK = new ConfigKey<Integer>("Advanced", Integer.class, "cacheDynIntKey", "10", "Test Key", true, ConfigKey.Scope.Zone);
+
+    @Mock
+    Configurable _configurable;
+
+    @Mock
+    ConfigurationDao _configDao;
+
+    @Mock
+    ScopedConfigStorage _scopedStorage;
+
+    ConfigDepotImpl _depot;
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        _depot = new ConfigDepotImpl();
+        _depot._configDao = _configDao;
+        _depot._configurables = new ArrayList<Configurable>();
+        _depot._configurables.add(_configurable);
+        _depot._scopedStorages = new ArrayList<ScopedConfigStorage>();
+        _depot._scopedStorages.add(_scopedStorage);
+        when(_scopedStorage.getScope()).thenReturn(ConfigKey.Scope.Zone);
+        when(_configurable.getConfigComponentName()).thenReturn("UnitTestComponent");
+        when(_configurable.getConfigKeys()).thenReturn(new ConfigKey<?>[] {DynamicIntCK});
+        _depot.check();
+    }
+
+    @Test
+    public void testDynamicValueIsCachedUntilInvalidated() {
+        ConfigurationVO vo = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        vo.setValue("100");
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(vo);
+
+        assertEquals(100, DynamicIntCK.value().intValue());
+        assertEquals(100, DynamicIntCK.value().intValue());
+        verify(_configDao, times(1)).findById(DynamicIntCK.key());
+        assertEquals(1, _depot.getCacheHits());
+        assertEquals(1, _depot.getCacheMisses());
+
+        vo.setValue("200");
+        _depot.invalidateCache(DynamicIntCK.key());
+        assertEquals(200, DynamicIntCK.value().intValue());
+        verify(_configDao, times(2)).findById(DynamicIntCK.key());
+        assertEquals(1, _depot.getCacheInvalidations());
+    }
+
+    @Test
+    public void testScopedValueFallsBackToGlobal() {
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(null);
+        when(_scopedStorage.getConfigValue(1L, DynamicIntCK)).thenReturn("5");
+        when(_scopedStorage.getConfigValue(2L, DynamicIntCK)).thenReturn(null);
+
+        assertEquals(5, DynamicIntCK.valueIn(1L).intValue());
+        assertEquals(10, DynamicIntCK.valueIn(2L).intValue());
+        assertEquals(5, DynamicIntCK.valueIn(1L).intValue());
+        assertEquals(10, DynamicIntCK.valueIn(2L).intValue());
+        verify(_scopedStorage, times(1)).getConfigValue(1L, DynamicIntCK);
+        verify(_scopedStorage, times(1)).getConfigValue(2L, DynamicIntCK);
+
+        // an unknown name drops the cached values of every key
+        when(_scopedStorage.getConfigValue(1L, DynamicIntCK)).thenReturn("7");
+        _depot.invalidateCache("someOtherKey");
+        assertEquals(7, DynamicIntCK.valueIn(1L).intValue());
+    }
+
+    @Test
+    public void testScopedInvalidationDropsOnlyThatResource() {
+        when(_scopedStorage.getConfigValue(1L, DynamicIntCK)).thenReturn("5");
+        when(_scopedStorage.getConfigValue(2L, DynamicIntCK)).thenReturn("6");
+        assertEquals(5, DynamicIntCK.valueIn(1L).intValue());
+        assertEquals(6, DynamicIntCK.valueIn(2L).intValue());
+
+        when(_scopedStorage.getConfigValue(1L, DynamicIntCK)).thenReturn("8");
+        when(_scopedStorage.getConfigValue(2L, DynamicIntCK)).thenReturn("9");
+        _depot.invalidateScopedCache(ConfigKey.Scope.Zone, 1L);
+        assertEquals(8, DynamicIntCK.valueIn(1L).intValue());
+        assertEquals(6, DynamicIntCK.valueIn(2L).intValue());
+        verify(_scopedStorage, times(2)).getConfigValue(1L, DynamicIntCK);
+        verify(_scopedStorage, times(1)).getConfigValue(2L, DynamicIntCK);
+        assertEquals(1, _depot.getCacheInvalidations());
+    }
+
+    @Test
+    public void testScopedInvalidationIgnoresOtherScopes() {
+        when(_scopedStorage.getConfigValue(1L, DynamicIntCK)).thenReturn("5");
+        assertEquals(5, DynamicIntCK.valueIn(1L).intValue());
+
+        _depot.invalidateScopedCache(ConfigKey.Scope.Account, 1L);
+        assertEquals(5, DynamicIntCK.valueIn(1L).intValue());
+        verify(_scopedStorage, times(1)).getConfigValue(1L, DynamicIntCK);
+    }
+
+    @Test
+    public void testLoadRacingInvalidationIsNotCached() {
+        final ConfigurationVO vo = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+        vo.setValue("100");
+        when(_configDao.findById(DynamicIntCK.key())).thenAnswer(new Answer<ConfigurationVO>() {
+            boolean _updated;
+
+            @Override
+            public ConfigurationVO answer(InvocationOnMock invocation) {
+                ConfigurationVO read = new ConfigurationVO("UnitTestComponent", DynamicIntCK);
+                read.setValue(vo.getValue());
+                if (!_updated) {
+                    // the value is updated and invalidated after the load read the old row
+                    _updated = true;
+                    vo.setValue("200");
+                    _depot.invalidateCache(DynamicIntCK.key());
+                }
+                return read;
+            }
+        });
+
+        assertEquals(100, DynamicIntCK.value().intValue());
+        assertEquals(200, DynamicIntCK.value().intValue());
+        assertEquals(200, DynamicIntCK.value().intValue());
+        verify(_configDao, times(2)).findById(DynamicIntCK.key());
+    }
+
+    @Test
+    public void testScopedLoadRacingInvalidationIsNotCached() {
+        when(_scopedStorage.getConfigValue(1L, DynamicIntCK)).thenAnswer(new Answer<String>() {
+            int _loads;
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                if (_loads++ == 0) {
+                    // the zone's value is updated and invalidated after the load read the old one
+                    _depot.invalidateScopedCache(ConfigKey.Scope.Zone, 1L);
+                    return "5";
+                }
+                return "8";
+            }
+        });
+
+        assertEquals(5, DynamicIntCK.valueIn(1L).intValue());
+        assertEquals(8, DynamicIntCK.valueIn(1L).intValue());
+        assertEquals(8, DynamicIntCK.valueIn(1L).intValue());
+        verify(_scopedStorage, times(2)).getConfigValue(1L, DynamicIntCK);
+    }
+
+    @Test
+    public void testZeroTtlDisablesCache() {
+        when(_configDao.findById(DynamicIntCK.key())).thenReturn(null);
+        _depot.setCacheTtl(0);
+        DynamicIntCK.value();
+        DynamicIntCK.value();
+        verify(_configDao, times(2)).findById(DynamicIntCK.key());
+    }
+}
@@ -0,0 +1,357 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.cloud.utils.LatencyHistogram;
+
+/**
+ * Always on statistics of the statements the management server runs and of
+ * the transactions it holds.
+ *
+ * Statements run through Transaction.executeQuery() and executeUpdate(),
+ * which GenericDaoBase uses for all of its statements, are counted under
+ * their SQL template: the SQL with literals, IN lists and LIMIT values
+ * replaced by placeholders, so that every SearchBuilder ends up with one
+ * entry however it is parameterized. For each template it keeps a latency
+ * histogram, the rows its queries returned, the rows its updates changed,
+ * failures and the time spent in locking reads.
+ *
+ * Statements slower than the slow query threshold are sampled together
+ * with the method that ran them, the first caller outside of the DAO layer.
+ */
+public class DbStatistics {
+    private static final DbStatistics s_instance = new DbStatistics();
+
+    // bounds the memory used when code builds SQL with unusual literals
+    private static final int MAX_TEMPLATES = 5000;
+    private static final int MAX_TRANSACTION_NAMES = 2000;
+    private static final int MAX_SLOW_QUERIES = 200;
+    private static final String OTHER = "<other>";
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+\\b");
+    private static final Pattern LIMIT = Pattern.compile("(?i)\\bLIMIT\\s+\\?(\\s*,\\s*\\?)?");
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern LOCKING_READ = Pattern.compile("(?i)\\bFOR\\s+UPDATE\\b|\\bLOCK\\s+IN\\s+SHARE\\s+MODE\\b");
+
+    // raw SQL -> its template's stats, saves normalizing a SQL string more than once; cleared when full
+    private final Map<String, QueryStats> _bySql = new ConcurrentHashMap<String, QueryStats>();
+    private final Map<String, QueryStats> _byTemplate = new ConcurrentHashMap<String, QueryStats>();
+    private final Map<String, LatencyHistogram> _transactions = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final LinkedList<SlowQuery> _slowQueries = new LinkedList<SlowQuery>();
+    private volatile long _slowQueryThresholdMs = 1000;
+    private volatile boolean _enabled = true;
+
+    public static class QueryStats {
+        private final String _template;
+        private final boolean _lockingRead;
+        private final LatencyHistogram _latency = new LatencyHistogram();
+        private final AtomicLong _returnedRows = new AtomicLong();
+        private final AtomicLong _updatedRows = new AtomicLong();
+        private final AtomicLong _errors = new AtomicLong();
+        private final AtomicLong _lockingReadMs = new AtomicLong();
+
+        QueryStats(String template) {
+            _template = template;
+            _lockingRead = LOCKING_READ.matcher(template).find();
+        }
+
+        public String getTemplate() {
+            return _template;
+        }
+
+        public LatencyHistogram getLatency() {
+            return _latency;
+        }
+
+        /**
+         * @return the rows queries of this template returned, as far as the
+         *         caller reported them through Transaction.recordReturnedRows()
+         */
+        public long getReturnedRows() {
+            return _returnedRows.get();
+        }
+
+        /**
+         * @return the rows updates of this template changed
+         */
+        public long getUpdatedRows() {
+            return _updatedRows.get();
+        }
+
+        public long getErrors() {
+            return _errors.get();
+        }
+
+        /**
+         * @return the time spent in SELECT ... FOR UPDATE or LOCK IN SHARE MODE
+         *         queries of this template, row lock waits included
+         */
+        public long getLockingReadMs() {
+            return _lockingReadMs.get();
+        }
+
+        void reset() {
+            _latency.reset();
+            _returnedRows.set(0);
+            _updatedRows.set(0);
+            _errors.set(0);
+            _lockingReadMs.set(0);
+        }
+    }
+
+    public static class SlowQuery {
+        private final Date _time;
+        private final String _template;
+        private final long _durationMs;
+        private final String _caller;
+
+        SlowQuery(String template, long durationMs, String caller) {
+            _time = new Date();
+            _template = template;
+            _durationMs = durationMs;
+            _caller = caller;
+        }
+
+        public Date getTime() {
+            return _time;
+        }
+
+        public String getTemplate() {
+            return _template;
+        }
+
+        public long getDurationMs() {
+            return _durationMs;
+        }
+
+        public String getCaller() {
+            return _caller;
+        }
+    }
+
+    DbStatistics() {
+    }
+
+    public static DbStatistics getInstance() {
+        return s_instance;
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        _enabled = enabled;
+    }
+
+    public long getSlowQueryThresholdMs() {
+        return _slowQueryThresholdMs;
+    }
+
+    public void setSlowQueryThresholdMs(long ms) {
+        _slowQueryThresholdMs = ms;
+    }
+
+    /**
+     * @return the stats of the template of sql, null when statistics are off
+     */
+    QueryStats getQueryStats(String sql) {
+        if (!_enabled) {
+            return null;
+        }
+        QueryStats stats = _bySql.get(sql);
+        if (stats != null) {
+            return stats;
+        }
+
+        String template = toTemplate(sql);
+        stats = _byTemplate.get(template);
+        if (stats == null) {
+            synchronized (_byTemplate) {
+                stats = _byTemplate.get(template);
+                if (stats == null) {
+                    if (_byTemplate.size() >= MAX_TEMPLATES) {
+                        template = OTHER;
+                        stats = _byTemplate.get(template);
+                    }
+                    if (stats == null) {
+                        stats = new QueryStats(template);
+                        _byTemplate.put(template, stats);
+                    }
+                }
+            }
+        }
+        // start over rather than stop caching, so the SQL still in use is normalized once more at most
+        if (_bySql.size() >= MAX_TEMPLATES * 4) {
+            _bySql.clear();
+        }
+        _bySql.put(sql, stats);
+        return stats;
+    }
+
+    void recordReturnedRows(QueryStats stats, int rows) {
+        stats._returnedRows.addAndGet(rows);
+    }
+
+    void recordUpdatedRows(QueryStats stats, int rows) {
+        stats._updatedRows.addAndGet(rows);
+    }
+
+    void recordExecution(QueryStats stats, long ms, boolean failed) {
+        stats._latency.record(ms);
+        if (failed) {
+            stats._errors.incrementAndGet();
+        }
+        if (stats._lockingRead) {
+            stats._lockingReadMs.addAndGet(ms);
+        }
+        if (ms >= _slowQueryThresholdMs) {
+            SlowQuery slow = new SlowQuery(stats._template, ms, getCaller(new Throwable().getStackTrace()));
+            synchronized (_slowQueries) {
+                _slowQueries.addFirst(slow);
+                if (_slowQueries.size() > MAX_SLOW_QUERIES) {
+                    _slowQueries.removeLast();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param name name of the transaction, the method that opened it
+     * @param ms time from the start of the DB transaction to its commit or rollback
+     */
+    public void recordTransaction(String name, long ms) {
+        if (!_enabled) {
+            return;
+        }
+        if (name == null) {
+            name = OTHER;
+        }
+        LatencyHistogram histogram = _transactions.get(name);
+        if (histogram == null) {
+            synchronized (_transactions) {
+                if (_transactions.size() >= MAX_TRANSACTION_NAMES) {
+                    name = OTHER;
+                }
+                histogram = _transactions.get(name);
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    _transactions.put(name, histogram);
+                }
+            }
+        }
+        histogram.record(ms);
+    }
+
+    /**
+     * @return the stats of every template that ran, by total time, highest first
+     */
+    public List<QueryStats> getQueryStats() {
+        List<QueryStats> result = new ArrayList<QueryStats>();
+        for (QueryStats stats : _byTemplate.values()) {
+            if (stats._latency.getCount() > 0) {
+                result.add(stats);
+            }
+        }
+        Collections.sort(result, new Comparator<QueryStats>() {
+            @Override
+            public int compare(QueryStats s1, QueryStats s2) {
+                long t1 = s1._latency.getTotalMs();
+                long t2 = s2._latency.getTotalMs();
+                return t1 < t2 ? 1 : (t1 > t2 ? -1 : 0);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the most recent slow queries, latest first
+     */
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (_slowQueries) {
+            return new ArrayList<SlowQuery>(_slowQueries);
+        }
+    }
+
+    /**
+     * @return transaction hold times by transaction name
+     */
+    public Map<String, LatencyHistogram> getTransactionHoldTimes() {
+        return Collections.unmodifiableMap(_transactions);
+    }
+
+    public void reset() {
+        for (QueryStats stats : _byTemplate.values()) {
+            stats.reset();
+        }
+        for (LatencyHistogram histogram : _transactions.values()) {
+            histogram.reset();
+        }
+        synchronized (_slowQueries) {
+            _slowQueries.clear();
+        }
+    }
+
+    static String toTemplate(String sql) {
+        String template = STRING_LITERAL.matcher(sql).replaceAll("?");
+        template = NUMBER_LITERAL.matcher(template).replaceAll("?");
+        template = LIMIT.matcher(template).replaceAll("LIMIT ?");
+        template = PARAMETER_LIST.matcher(template).replaceAll("?,...");
+        return WHITESPACE.matcher(template).replaceAll(" ").trim();
+    }
+
+    /**
+     * @return the first method on the stack outside of the database layer,
+     *         followed by the DAO method it called
+     */
+    static String getCaller(StackTraceElement[] stack) {
+        String dao = null;
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (className.startsWith("com.cloud.utils.db.") || className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("sun.")
+                    || className.startsWith("com.sun.") || className.startsWith("net.sf.cglib.") || className.startsWith("org.springframework.")
+                    || className.startsWith("$Proxy") || className.contains("$$")) {
+                continue;
+            }
+            if (className.endsWith("DaoImpl") || className.endsWith("DaoBase")) {
+                if (dao == null) {
+                    dao = shortName(className) + "." + frame.getMethodName();
+                }
+                continue;
+            }
+            return shortName(className) + "." + frame.getMethodName() + ":" + frame.getLineNumber() + (dao != null ? " via " + dao : "");
+        }
+        return dao != null ? dao : "unknown";
+    }
+
+    private static String shortName(String className) {
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+}
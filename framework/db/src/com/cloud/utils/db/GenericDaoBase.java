@@ -412,10 +412,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             if (s_logger.isDebugEnabled() && lock != null) {
                 txn.registerLock(pstmt.toString());
             }
-            final ResultSet rs = pstmt.executeQuery();
+            final ResultSet rs = txn.executeQuery(pstmt, sql);
             while (rs.next()) {
                 result.add(toEntityBean(rs, cache));
             }
+            txn.recordReturnedRows(sql, result.size());
             return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -473,7 +474,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 }
             }
 
-            ResultSet rs = pstmt.executeQuery();
+            ResultSet rs = txn.executeQuery(pstmt, sql);
             SelectType st = sc.getSelectType();
             ArrayList<M> results = new ArrayList<M>();
             List<Field> fields = sc.getSelectFields();
@@ -490,6 +491,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                     results.add(getObject(sc.getResultType(), rs, 1));
                 }
             }
+            txn.recordReturnedRows(sql, results.size());
 
             return results;
         } catch (final SQLException e) {
@@ -807,7 +809,8 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
 
             txn.start();
-            pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            String updateSql = sql.toString();
+            pstmt = txn.prepareAutoCloseStatement(updateSql);
 
             Collection<Ternary<Attribute, Boolean, Object>> changes = ub.getChanges();
 
@@ -820,7 +823,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 prepareAttribute(i++, pstmt, value.first(), value.second());
             }
 
-            int result = pstmt.executeUpdate();
+            int result = txn.executeUpdate(pstmt, updateSql);
             txn.commit();
             ub.clear();
             return result;
@@ -974,14 +977,17 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         Transaction txn = Transaction.currentTxn();
         PreparedStatement pstmt = null;
         try {
-            pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            String selectSql = sql.toString();
+            pstmt = txn.prepareAutoCloseStatement(selectSql);
 
             if (_idField.getAnnotation(EmbeddedId.class) == null) {
                 prepareAttribute(1, pstmt, _idAttributes.get(_table)[0], id);
             }
 
-            ResultSet rs = pstmt.executeQuery();
-            return rs.next() ? toEntityBean(rs, true) : null;
+            ResultSet rs = txn.executeQuery(pstmt, selectSql);
+            T entity = rs.next() ? toEntityBean(rs, true) : null;
+            txn.recordReturnedRows(selectSql, entity != null ? 1 : 0);
+            return entity;
         } catch (SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         }
@@ -1086,10 +1092,11 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 pstmt.setObject(++i, param);
             }
 
-            final ResultSet rs = pstmt.executeQuery();
+            final ResultSet rs = txn.executeQuery(pstmt, sql);
             while (rs.next()) {
                 result.add(toEntityBean(rs, true));
             }
+            txn.recordReturnedRows(sql, result.size());
             return result;
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
@@ -1132,7 +1139,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 for (int i = 0; i < attrs.length; i++) {
                     prepareAttribute(i + 1, pstmt, attrs[i], id);
                 }
-                pstmt.executeUpdate();
+                txn.executeUpdate(pstmt, sql);
             }
 
             txn.commit();
@@ -1166,7 +1173,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             for (final Pair<Attribute, Object> value : sc.getValues()) {
                 prepareAttribute(++i, pstmt, value.first(), value.second());
             }
-            return pstmt.executeUpdate();
+            return txn.executeUpdate(pstmt, sql);
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on: " + pstmt, e);
         } catch (final Throwable e) {
@@ -1310,7 +1317,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 int index = 1;
                 index = prepareAttributes(pstmt, entity, attrs, index);
 
-                pstmt.executeUpdate();
+                txn.executeUpdate(pstmt, sql);
 
                 final ResultSet rs = pstmt.getGeneratedKeys();
                 if (id == null) {
@@ -1374,7 +1381,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
             PreparedStatement pstmt = txn.prepareAutoCloseStatement(ec.clearSql);
             prepareAttribute(1, pstmt, idAttribute, id);
-            pstmt.executeUpdate();
+            txn.executeUpdate(pstmt, ec.clearSql);
 
             while (en.hasMoreElements()) {
                 pstmt = txn.prepareAutoCloseStatement(ec.insertSql);
@@ -1384,7 +1391,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                     pstmt.setObject(1, en.nextElement());
                 }
                 prepareAttribute(2, pstmt, idAttribute, id);
-                pstmt.executeUpdate();
+                txn.executeUpdate(pstmt, ec.insertSql);
             }
         }
         txn.commit();
@@ -1597,7 +1604,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         try {
             pstmt = txn.prepareStatement(ec.selectSql);
             pstmt.setObject(1, _idField.get(entity));
-            rs = pstmt.executeQuery();
+            rs = txn.executeQuery(pstmt, ec.selectSql);
             ArrayList lst = new ArrayList();
             if (ec.targetClass == Integer.class) {
                 while (rs.next()) {
@@ -1626,6 +1633,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             } else {
                 assert (false) : "You'll need to add more classeses";
             }
+            txn.recordReturnedRows(ec.selectSql, lst.size());
 
             if (ec.rawClass == null) {
                 Object[] array = (Object[])Array.newInstance(ec.targetClass);
@@ -1679,9 +1687,10 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
         PreparedStatement pstmt = null;
         try {
             txn.start();
-            pstmt = txn.prepareAutoCloseStatement(sql.toString());
+            String deleteSql = sql.toString();
+            pstmt = txn.prepareAutoCloseStatement(deleteSql);
 
-            pstmt.executeUpdate();
+            txn.executeUpdate(pstmt, deleteSql);
             txn.commit();
         } catch (final SQLException e) {
             throw new CloudRuntimeException("DB Exception on " + pstmt, e);
@@ -1720,7 +1729,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
                 prepareAttribute(i + 2, pstmt, attrs[i], id);
             }
 
-            final int result = pstmt.executeUpdate();
+            final int result = txn.executeUpdate(pstmt, _removeSql.first());
             txn.commit();
             if (_cache != null) {
                 _cache.remove(id);
@@ -1847,7 +1856,7 @@ public abstract class GenericDaoBase<T, ID extends Serializable> extends Compone
             }
              */
 
-            final ResultSet rs = pstmt.executeQuery();
+            final ResultSet rs = txn.executeQuery(pstmt, sql);
             while (rs.next()) {
                 return rs.getInt(1);
             }
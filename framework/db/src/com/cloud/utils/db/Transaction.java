@@ -87,6 +87,7 @@ public class Transaction {
 
     private static AtomicLong s_id = new AtomicLong();
     private static final TransactionMBeanImpl s_mbean = new TransactionMBeanImpl();
+    private static final DbStatistics s_dbStats = DbStatistics.getInstance();
     static {
         try {
             JmxUtil.registerMBean("Transaction", "Transaction", s_mbean);
@@ -537,6 +538,65 @@ public class Transaction {
         return pstmt;
     }
 
+    /**
+     * Runs the query and counts it in DbStatistics under the template of sql.
+     *
+     * @param sql the SQL pstmt was prepared with
+     */
+    public ResultSet executeQuery(final PreparedStatement pstmt, final String sql) throws SQLException {
+        final DbStatistics.QueryStats stats = s_dbStats.getQueryStats(sql);
+        if (stats == null) {
+            return pstmt.executeQuery();
+        }
+        final long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            final ResultSet rs = pstmt.executeQuery();
+            failed = false;
+            return rs;
+        } finally {
+            s_dbStats.recordExecution(stats, System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    /**
+     * Counts the rows read from the result set of a query run through
+     * executeQuery(). The result set is not wrapped, so the caller reports
+     * them once it has read it.
+     *
+     * @param sql the SQL the query was prepared with
+     * @param rows the rows read
+     */
+    public void recordReturnedRows(final String sql, final int rows) {
+        final DbStatistics.QueryStats stats = s_dbStats.getQueryStats(sql);
+        if (stats != null) {
+            s_dbStats.recordReturnedRows(stats, rows);
+        }
+    }
+
+    /**
+     * Runs the update and counts it, and the rows it changed, in DbStatistics
+     * under the template of sql.
+     *
+     * @param sql the SQL pstmt was prepared with
+     */
+    public int executeUpdate(final PreparedStatement pstmt, final String sql) throws SQLException {
+        final DbStatistics.QueryStats stats = s_dbStats.getQueryStats(sql);
+        if (stats == null) {
+            return pstmt.executeUpdate();
+        }
+        final long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            final int rows = pstmt.executeUpdate();
+            failed = false;
+            s_dbStats.recordUpdatedRows(stats, rows);
+            return rows;
+        } finally {
+            s_dbStats.recordExecution(stats, System.currentTimeMillis() - start, failed);
+        }
+    }
+
     /**
      * Returns the db connection.
      * 
@@ -737,6 +797,7 @@ public class Transaction {
         try {
             if (_conn != null) {
                 _conn.commit();
+                s_dbStats.recordTransaction(_name, System.currentTimeMillis() - _txnTime);
                 s_logger.trace("txn: DB Changes committed. Time = " + (System.currentTimeMillis() - _txnTime));
                 clearLockTimes();
                 closeConnection();
@@ -856,6 +917,7 @@ public class Transaction {
                     s_logger.debug("Rolling back the transaction: Time = " + (System.currentTimeMillis() - _txnTime) + " Name =  " + _name + "; called by " + buildName());
                 }
                 _conn.rollback();
+                s_dbStats.recordTransaction(_name, System.currentTimeMillis() - _txnTime);
             }
             clearLockTimes();
             closeConnection();
@@ -29,5 +29,26 @@ public interface TransactionMBean {
     List<Map<String, String>> getActiveTransactions();
     
     List<Map<String, String>> getTransactionsWithDatabaseConnection();
-    
+
+    /**
+     * @return counters and latencies per SQL template, by total time spent
+     */
+    List<Map<String, String>> getQueryStatistics();
+
+    /**
+     * @return the most recent statements slower than the slow query threshold
+     */
+    List<Map<String, String>> getSlowQueries();
+
+    List<Map<String, String>> getTransactionHoldTimes();
+
+    long getSlowQueryThresholdMs();
+
+    void setSlowQueryThresholdMs(long ms);
+
+    boolean isStatisticsEnabled();
+
+    void setStatisticsEnabled(boolean enabled);
+
+    void resetStatistics();
 }
@@ -25,6 +25,10 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.StandardMBean;
 
+import com.cloud.utils.DateUtil;
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.db.DbStatistics.QueryStats;
+import com.cloud.utils.db.DbStatistics.SlowQuery;
 import com.cloud.utils.db.Transaction.StackElement;
 
 public class TransactionMBeanImpl extends StandardMBean implements TransactionMBean {
@@ -110,4 +114,80 @@ public class TransactionMBeanImpl extends StandardMBean implements TransactionMB
         }
         return txns;
     }
+
+    @Override
+    public List<Map<String, String>> getQueryStatistics() {
+        List<Map<String, String>> queries = new ArrayList<Map<String, String>>();
+        for (QueryStats stats : DbStatistics.getInstance().getQueryStats()) {
+            Map<String, String> map = toMap(stats.getLatency());
+            map.put("sql", stats.getTemplate());
+            map.put("returnedRows", Long.toString(stats.getReturnedRows()));
+            map.put("updatedRows", Long.toString(stats.getUpdatedRows()));
+            map.put("errors", Long.toString(stats.getErrors()));
+            map.put("lockingReadMs", Long.toString(stats.getLockingReadMs()));
+            queries.add(map);
+        }
+        return queries;
+    }
+
+    @Override
+    public List<Map<String, String>> getSlowQueries() {
+        List<Map<String, String>> queries = new ArrayList<Map<String, String>>();
+        for (SlowQuery query : DbStatistics.getInstance().getSlowQueries()) {
+            Map<String, String> map = new HashMap<String, String>();
+            map.put("time", DateUtil.getOutputString(query.getTime()));
+            map.put("sql", query.getTemplate());
+            map.put("ms", Long.toString(query.getDurationMs()));
+            map.put("caller", query.getCaller());
+            queries.add(map);
+        }
+        return queries;
+    }
+
+    @Override
+    public List<Map<String, String>> getTransactionHoldTimes() {
+        List<Map<String, String>> txns = new ArrayList<Map<String, String>>();
+        for (Map.Entry<String, LatencyHistogram> entry : DbStatistics.getInstance().getTransactionHoldTimes().entrySet()) {
+            Map<String, String> map = toMap(entry.getValue());
+            map.put("name", entry.getKey());
+            txns.add(map);
+        }
+        return txns;
+    }
+
+    protected Map<String, String> toMap(LatencyHistogram histogram) {
+        Map<String, String> map = new HashMap<String, String>();
+        map.put("count", Long.toString(histogram.getCount()));
+        map.put("totalMs", Long.toString(histogram.getTotalMs()));
+        map.put("avgMs", Long.toString(histogram.getAverageMs()));
+        map.put("p50Ms", Long.toString(histogram.getPercentileMs(50)));
+        map.put("p99Ms", Long.toString(histogram.getPercentileMs(99)));
+        map.put("maxMs", Long.toString(histogram.getMaxMs()));
+        return map;
+    }
+
+    @Override
+    public long getSlowQueryThresholdMs() {
+        return DbStatistics.getInstance().getSlowQueryThresholdMs();
+    }
+
+    @Override
+    public void setSlowQueryThresholdMs(long ms) {
+        DbStatistics.getInstance().setSlowQueryThresholdMs(ms);
+    }
+
+    @Override
+    public boolean isStatisticsEnabled() {
+        return DbStatistics.getInstance().isEnabled();
+    }
+
+    @Override
+    public void setStatisticsEnabled(boolean enabled) {
+        DbStatistics.getInstance().setEnabled(enabled);
+    }
+
+    @Override
+    public void resetStatistics() {
+        DbStatistics.getInstance().reset();
+    }
 }
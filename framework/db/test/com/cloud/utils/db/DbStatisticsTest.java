@@ -0,0 +1,110 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.cloud.utils.db.DbStatistics.QueryStats;
+
+public class DbStatisticsTest {
+
+    @Test
+    public void testTemplates() {
+        assertEquals("SELECT host.id FROM host WHERE host.status = ? AND host.id IN (?,...) LIMIT ?",
+                DbStatistics.toTemplate("SELECT host.id FROM host  WHERE host.status = ? AND host.id IN (?,?,?)\n LIMIT 0, 500"));
+        assertEquals("UPDATE op_it_work SET step=? WHERE id=? AND mgmt_server_id=?",
+                DbStatistics.toTemplate("UPDATE op_it_work SET step='Done' WHERE id='ab\\'c' AND mgmt_server_id=345051313197"));
+        // identifiers that merely contain digits are kept
+        assertEquals("SELECT * FROM s3 WHERE id = ?", DbStatistics.toTemplate("SELECT * FROM s3 WHERE id = 5"));
+    }
+
+    @Test
+    public void testSameTemplateSharesStats() {
+        DbStatistics stats = new DbStatistics();
+        QueryStats stats1 = stats.getQueryStats("SELECT * FROM vm_instance WHERE id IN (?,?)");
+        assertSame(stats1, stats.getQueryStats("SELECT * FROM vm_instance WHERE id IN (?,?,?,?)"));
+        assertFalse(stats1 == stats.getQueryStats("SELECT * FROM host WHERE id IN (?,?)"));
+    }
+
+    @Test
+    public void testExecutions() {
+        DbStatistics stats = new DbStatistics();
+        stats.setSlowQueryThresholdMs(1000);
+        String sql = "SELECT id FROM host WHERE id=? FOR UPDATE";
+        QueryStats query = stats.getQueryStats(sql);
+        stats.recordExecution(query, 5, false);
+        stats.recordExecution(query, 1500, true);
+
+        assertEquals(2, query.getLatency().getCount());
+        assertEquals(1, query.getErrors());
+        assertEquals(1505, query.getLockingReadMs());
+        stats.recordReturnedRows(query, 1);
+        stats.recordReturnedRows(query, 0);
+        assertEquals(1, query.getReturnedRows());
+        assertEquals(1, stats.getQueryStats().size());
+        assertEquals(1, stats.getSlowQueries().size());
+        assertEquals(query.getTemplate(), stats.getSlowQueries().get(0).getTemplate());
+
+        QueryStats update = stats.getQueryStats("UPDATE host SET status=? WHERE id=?");
+        stats.recordExecution(update, 1, false);
+        stats.recordUpdatedRows(update, 3);
+        assertEquals(3, update.getUpdatedRows());
+        assertEquals(0, update.getReturnedRows());
+        assertEquals(0, update.getLockingReadMs());
+        // by total time, highest first
+        assertSame(query, stats.getQueryStats().get(0));
+
+        stats.reset();
+        assertEquals(0, stats.getQueryStats().size());
+        assertEquals(0, stats.getSlowQueries().size());
+    }
+
+    @Test
+    public void testDisabled() {
+        DbStatistics stats = new DbStatistics();
+        stats.setEnabled(false);
+        assertNull(stats.getQueryStats("SELECT * FROM host"));
+    }
+
+    @Test
+    public void testCaller() {
+        StackTraceElement[] stack = new StackTraceElement[] {
+                new StackTraceElement("com.cloud.utils.db.DbStatistics", "recordExecution", "DbStatistics.java", 1),
+                new StackTraceElement("com.cloud.utils.db.GenericDaoBase", "searchIncludingRemoved", "GenericDaoBase.java", 2),
+                new StackTraceElement("com.cloud.vm.dao.VMInstanceDaoImpl", "listByHostId", "VMInstanceDaoImpl.java", 3),
+                new StackTraceElement("com.cloud.vm.dao.VMInstanceDaoImpl$$EnhancerByCGLIB$$1", "listByHostId", null, -1),
+                new StackTraceElement("com.cloud.vm.VirtualMachineManagerImpl", "fullHostSync", "VirtualMachineManagerImpl.java", 812),
+                new StackTraceElement("com.cloud.agent.manager.AgentManagerImpl", "handleCommands", "AgentManagerImpl.java", 99) };
+        assertEquals("VirtualMachineManagerImpl.fullHostSync:812 via VMInstanceDaoImpl.listByHostId", DbStatistics.getCaller(stack));
+    }
+
+    @Test
+    public void testTransactionHoldTimes() {
+        DbStatistics stats = new DbStatistics();
+        stats.recordTransaction("VMInstanceDaoImpl.updateState", 5);
+        stats.recordTransaction("VMInstanceDaoImpl.updateState", 15);
+        stats.recordTransaction(null, 1);
+        assertEquals(2, stats.getTransactionHoldTimes().get("VMInstanceDaoImpl.updateState").getCount());
+        assertEquals(20, stats.getTransactionHoldTimes().get("VMInstanceDaoImpl.updateState").getTotalMs());
+        assertEquals(2, stats.getTransactionHoldTimes().size());
+    }
+}
@@ -490,6 +490,9 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
     }
 
     private Runnable getExecutorRunnable(final AsyncJob job) {
+        // jobs loaded from a sync queue know when they were created, freshly
+        // submitted ones have only been queued since now
+        final long queuedSince = job.getCreated() != null ? job.getCreated().getTime() : System.currentTimeMillis();
         return new ManagedContextRunnable() {
             @Override
             protected void runInContext() {
@@ -527,6 +530,7 @@ public class AsyncJobManagerImpl extends ManagerBase implements AsyncJobManager,
                             s_logger.error("Unable to find a wakeup dispatcher from the joined job: " + job);
                         }
                     } else {
+                        _jobMonitor.recordQueueTime(job.getCmd(), System.currentTimeMillis() - queuedSince);
                         AsyncJobDispatcher jobDispatcher = getDispatcher(job.getDispatcher());
                         if (jobDispatcher != null) {
                             jobDispatcher.runJob(job);
@@ -16,10 +16,14 @@
 // under the License.
 package org.apache.cloudstack.framework.jobs.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
@@ -33,9 +37,11 @@ import org.apache.cloudstack.framework.messagebus.MessageDispatcher;
 import org.apache.cloudstack.framework.messagebus.MessageHandler;
 import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
 
+import com.cloud.utils.LatencyHistogram;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.mgmt.JmxUtil;
 
-public class AsyncJobMonitor extends ManagerBase {
+public class AsyncJobMonitor extends ManagerBase implements AsyncJobMonitorMBean {
     public static final Logger s_logger = Logger.getLogger(AsyncJobMonitor.class);
     
     @Inject private MessageBus _messageBus;
@@ -46,6 +52,9 @@ public class AsyncJobMonitor extends ManagerBase {
     private final AtomicInteger _activePoolThreads = new AtomicInteger();
     private final AtomicInteger _activeInplaceThreads = new AtomicInteger();
 
+    // command name -> time its jobs spent queued
+    private final Map<String, LatencyHistogram> _queueTimes = new ConcurrentHashMap<String, LatencyHistogram>();
+
     // configuration
     private long _inactivityCheckIntervalMs = 60000;
     private long _inactivityWarningThresholdMs = 90000;
@@ -104,6 +113,12 @@ public class AsyncJobMonitor extends ManagerBase {
 			}
 			
 		}, _inactivityCheckIntervalMs, _inactivityCheckIntervalMs);
+
+        try {
+            JmxUtil.registerMBean("AsyncJobManager", "Monitor", this);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register async job monitor to JMX", e);
+        }
 		return true;
 	}
 	
@@ -141,14 +156,51 @@ public class AsyncJobMonitor extends ManagerBase {
 		}
 	}
 
+    @Override
 	public int getActivePoolThreads() {
 		return _activePoolThreads.get();
 	}
 
+    @Override
 	public int getActiveInplaceThread() {
 		return _activeInplaceThreads.get();
 	}
 
+    /**
+     * @param cmd the command class of the job
+     * @param ms how long the job waited before it started to execute
+     */
+    public void recordQueueTime(String cmd, long ms) {
+        String name = cmd != null ? cmd.substring(cmd.lastIndexOf('.') + 1) : "unknown";
+        LatencyHistogram histogram = _queueTimes.get(name);
+        if (histogram == null) {
+            synchronized (_queueTimes) {
+                histogram = _queueTimes.get(name);
+                if (histogram == null) {
+                    histogram = new LatencyHistogram();
+                    _queueTimes.put(name, histogram);
+                }
+            }
+        }
+        histogram.record(ms);
+    }
+
+    @Override
+    public String[] getQueueTimes() {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(_queueTimes).entrySet()) {
+            lines.add(entry.getKey() + " " + entry.getValue());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public void resetQueueTimes() {
+        for (LatencyHistogram histogram : _queueTimes.values()) {
+            histogram.reset();
+        }
+    }
+
 	private static class ActiveTaskRecord {
 		long _jobId;
 		long _threadId;
@@ -55,4 +55,9 @@ public interface MockAgentManager extends Manager {
 	Answer maintain(MaintainCommand cmd);
 
 	Answer checkNetworkCommand(CheckNetworkCommand cmd);
+
+	/**
+	 * @return the in-memory mock hosts and VMs, null when they are kept in the simulator database
+	 */
+	MockStateStore getStateStore();
 }
@@ -27,6 +27,7 @@ import com.cloud.agent.api.HostStatsEntry;
 import com.cloud.agent.api.MaintainAnswer;
 import com.cloud.agent.api.PingTestCommand;
 import com.cloud.api.commands.SimulatorAddSecondaryAgent;
+import com.cloud.configuration.Config;
 import com.cloud.dc.dao.HostPodDao;
 import com.cloud.exception.DiscoveryException;
 import com.cloud.host.HostVO;
@@ -37,6 +38,7 @@ import com.cloud.simulator.MockHostVO;
 import com.cloud.simulator.MockVMVO;
 import com.cloud.simulator.dao.MockHostDao;
 import com.cloud.simulator.dao.MockVMDao;
+import com.cloud.utils.NumbersUtil;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
 import com.cloud.utils.concurrency.NamedThreadFactory;
@@ -44,7 +46,9 @@ import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
+import com.cloud.vm.VirtualMachine.State;
 import org.apache.cloudstack.api.command.admin.host.AddSecondaryStorageCmd;
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
@@ -85,9 +89,12 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
     SimulatorSecondaryDiscoverer discoverer;
     @Inject
     HostDao hostDao;
+    @Inject
+    ConfigurationDao _configDao;
     private SecureRandom random;
     private final Map<String, AgentResourceBase> _resources = new ConcurrentHashMap<String, AgentResourceBase>();
     private ThreadPoolExecutor _executor;
+    private MockStateStore _stateStore;
 
     private Pair<String, Long> getPodCidr(long podId, long dcId) {
         try {
@@ -130,35 +137,37 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
         long cpuSpeed = Long.parseLong((String) params.get("cpuspeed"));
         long memory = Long.parseLong((String) params.get("memory"));
         long localStorageSize = Long.parseLong((String) params.get("localstorage"));
-        synchronized (this) {
-            long dataCenterId = Long.parseLong((String) params.get("zone"));
-            long podId = Long.parseLong((String) params.get("pod"));
-            long clusterId = Long.parseLong((String) params.get("cluster"));
-            long cidrSize = getPodCidr(podId, dataCenterId).second();
-
-            int agentId = getNextAgentId(cidrSize);
-            String ipAddress = getIpAddress(agentId, dataCenterId, podId);
-            String macAddress = getMacAddress(dataCenterId, podId, clusterId, agentId);
-            MockHostVO mockHost = new MockHostVO();
-            mockHost.setDataCenterId(dataCenterId);
-            mockHost.setPodId(podId);
-            mockHost.setClusterId(clusterId);
-            mockHost.setCapabilities("hvm");
-            mockHost.setCpuCount(cpuCore);
-            mockHost.setCpuSpeed(cpuSpeed);
-            mockHost.setMemorySize(memory);
-            String guid = UUID.randomUUID().toString();
-            mockHost.setGuid(guid);
-            mockHost.setName("SimulatedAgent." + guid);
-            mockHost.setPrivateIpAddress(ipAddress);
-            mockHost.setPublicIpAddress(ipAddress);
-            mockHost.setStorageIpAddress(ipAddress);
-            mockHost.setPrivateMacAddress(macAddress);
-            mockHost.setPublicMacAddress(macAddress);
-            mockHost.setStorageMacAddress(macAddress);
-            mockHost.setVersion(this.getClass().getPackage().getImplementationVersion());
-            mockHost.setResource("com.cloud.agent.AgentRoutingResource");
-
+        long dataCenterId = Long.parseLong((String) params.get("zone"));
+        long podId = Long.parseLong((String) params.get("pod"));
+        long clusterId = Long.parseLong((String) params.get("cluster"));
+        long cidrSize = getPodCidr(podId, dataCenterId).second();
+
+        int agentId = getNextAgentId(cidrSize);
+        String ipAddress = getIpAddress(agentId, dataCenterId, podId);
+        String macAddress = getMacAddress(dataCenterId, podId, clusterId, agentId);
+        MockHostVO mockHost = new MockHostVO();
+        mockHost.setDataCenterId(dataCenterId);
+        mockHost.setPodId(podId);
+        mockHost.setClusterId(clusterId);
+        mockHost.setCapabilities("hvm");
+        mockHost.setCpuCount(cpuCore);
+        mockHost.setCpuSpeed(cpuSpeed);
+        mockHost.setMemorySize(memory);
+        String guid = UUID.randomUUID().toString();
+        mockHost.setGuid(guid);
+        mockHost.setName("SimulatedAgent." + guid);
+        mockHost.setPrivateIpAddress(ipAddress);
+        mockHost.setPublicIpAddress(ipAddress);
+        mockHost.setStorageIpAddress(ipAddress);
+        mockHost.setPrivateMacAddress(macAddress);
+        mockHost.setPublicMacAddress(macAddress);
+        mockHost.setStorageMacAddress(macAddress);
+        mockHost.setVersion(this.getClass().getPackage().getImplementationVersion());
+        mockHost.setResource("com.cloud.agent.AgentRoutingResource");
+
+        if (_stateStore != null) {
+            mockHost = _stateStore.addHost(mockHost);
+        } else {
             Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
             try {
                 txn.start();
@@ -173,20 +182,20 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
                 txn = Transaction.open(Transaction.CLOUD_DB);
                 txn.close();
             }
+        }
 
-            _storageMgr.getLocalStorage(guid, localStorageSize);
+        _storageMgr.getLocalStorage(guid, localStorageSize);
 
-            agentResource = new AgentRoutingResource();
-            if (agentResource != null) {
-                try {
-                    params.put("guid", mockHost.getGuid());
-                    agentResource.start();
-                    agentResource.configure(mockHost.getName(), params);
+        agentResource = new AgentRoutingResource();
+        if (agentResource != null) {
+            try {
+                params.put("guid", mockHost.getGuid());
+                agentResource.start();
+                agentResource.configure(mockHost.getName(), params);
 
-                    newResources.put(agentResource, args);
-                } catch (ConfigurationException e) {
-                    s_logger.error("error while configuring server resource" + e.getMessage());
-                }
+                newResources.put(agentResource, args);
+            } catch (ConfigurationException e) {
+                s_logger.error("error while configuring server resource" + e.getMessage());
             }
         }
         return newResources;
@@ -196,15 +205,28 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         try {
             random = SecureRandom.getInstance("SHA1PRNG");
-            _executor = new ThreadPoolExecutor(1, 5, 1, TimeUnit.DAYS, new LinkedBlockingQueue<Runnable>(),
+            // with an unbounded queue the pool never grows past its core size
+            int workers = NumbersUtil.parseInt(_configDao.getValue(Config.SimulatorAgentWorkers.key()), 5);
+            _executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
                     new NamedThreadFactory("Simulator-Agent-Mgr"));
+            _executor.allowCoreThreadTimeOut(true);
         } catch (NoSuchAlgorithmException e) {
             s_logger.debug("Failed to initialize random:" + e.toString());
             return false;
         }
+
+        if (Boolean.parseBoolean(_configDao.getValue(Config.SimulatorInMemoryState.key()))) {
+            s_logger.info("Simulator keeps mock hosts and VMs in memory");
+            _stateStore = new MockStateStore();
+        }
         return true;
     }
 
+    @Override
+    public MockStateStore getStateStore() {
+        return _stateStore;
+    }
+
     @Override
     public boolean handleSystemVMStart(long vmId, String privateIpAddress, String privateMacAddress,
             String privateNetMask, long dcId, long podId, String name, String vmType, String url) {
@@ -260,7 +282,7 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
             try {
                 if (this.mode.equalsIgnoreCase("Stop")) {
                     txn.start();
-                    MockHost host = _mockHostDao.findByVmId(this.vmId);
+                    MockHost host = _stateStore != null ? _stateStore.getHostByVmId(this.vmId) : _mockHostDao.findByVmId(this.vmId);
                     if (host != null) {
                         String guid = host.getGuid();
                         if (guid != null) {
@@ -323,19 +345,23 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
             mockHost.setVersion(this.getClass().getPackage().getImplementationVersion());
             mockHost.setResource(resource);
             mockHost.setVmId(vmId);
-            Transaction simtxn = Transaction.open(Transaction.SIMULATOR_DB);
-            try {
-                simtxn.start();
-                mockHost = _mockHostDao.persist(mockHost);
-                simtxn.commit();
-            } catch (Exception ex) {
-                simtxn.rollback();
-                throw new CloudRuntimeException("Unable to persist host " + mockHost.getGuid() + " due to "
-                        + ex.getMessage(), ex);
-            } finally {
-                simtxn.close();
-                simtxn = Transaction.open(Transaction.CLOUD_DB);
-                simtxn.close();
+            if (_stateStore != null) {
+                mockHost = _stateStore.addHost(mockHost);
+            } else {
+                Transaction simtxn = Transaction.open(Transaction.SIMULATOR_DB);
+                try {
+                    simtxn.start();
+                    mockHost = _mockHostDao.persist(mockHost);
+                    simtxn.commit();
+                } catch (Exception ex) {
+                    simtxn.rollback();
+                    throw new CloudRuntimeException("Unable to persist host " + mockHost.getGuid() + " due to "
+                            + ex.getMessage(), ex);
+                } finally {
+                    simtxn.close();
+                    simtxn = Transaction.open(Transaction.CLOUD_DB);
+                    simtxn.close();
+                }
             }
 
             if (vmType.equalsIgnoreCase("secstorage")) {
@@ -366,6 +392,14 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
 
     @Override
     public MockHost getHost(String guid) {
+        if (_stateStore != null) {
+            MockHost host = _stateStore.getHost(guid);
+            if (host == null) {
+                s_logger.error("Host with guid " + guid + " was not found");
+            }
+            return host;
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -390,6 +424,14 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
     @Override
     public GetHostStatsAnswer getHostStatistic(GetHostStatsCommand cmd) {
         String hostGuid = cmd.getHostGuid();
+        if (_stateStore != null) {
+            MockHost host = _stateStore.getHost(hostGuid);
+            if (host == null) {
+                return null;
+            }
+            return getHostStatistic(cmd, host, _stateStore.getVms(host.getId(), State.Running));
+        }
+
         MockHost host = null;
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
@@ -413,22 +455,7 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
             vmtxn.start();
             List<MockVMVO> vms = _mockVmDao.findByHostId(host.getId());
             vmtxn.commit();
-            double usedMem = 0.0;
-            double usedCpu = 0.0;
-            for (MockVMVO vm : vms) {
-                usedMem += vm.getMemory();
-                usedCpu += vm.getCpu();
-            }
-
-            HostStatsEntry hostStats = new HostStatsEntry();
-            hostStats.setTotalMemoryKBs(host.getMemorySize());
-            hostStats.setFreeMemoryKBs(host.getMemorySize() - usedMem);
-            hostStats.setNetworkReadKBs(32768);
-            hostStats.setNetworkWriteKBs(16384);
-            hostStats.setCpuUtilization(usedCpu / (host.getCpuCount() * host.getCpuSpeed()));
-            hostStats.setEntityType("simulator-host");
-            hostStats.setHostId(cmd.getHostId());
-            return new GetHostStatsAnswer(cmd, hostStats);
+            return getHostStatistic(cmd, host, vms);
         } catch (Exception ex) {
             vmtxn.rollback();
             throw new CloudRuntimeException("Unable to get Vms on host " + host.getGuid() + " due to "
@@ -440,6 +467,25 @@ public class MockAgentManagerImpl extends ManagerBase implements MockAgentManage
         }
     }
 
+    private GetHostStatsAnswer getHostStatistic(GetHostStatsCommand cmd, MockHost host, List<MockVMVO> vms) {
+        double usedMem = 0.0;
+        double usedCpu = 0.0;
+        for (MockVMVO vm : vms) {
+            usedMem += vm.getMemory();
+            usedCpu += vm.getCpu();
+        }
+
+        HostStatsEntry hostStats = new HostStatsEntry();
+        hostStats.setTotalMemoryKBs(host.getMemorySize());
+        hostStats.setFreeMemoryKBs(host.getMemorySize() - usedMem);
+        hostStats.setNetworkReadKBs(32768);
+        hostStats.setNetworkWriteKBs(16384);
+        hostStats.setCpuUtilization(usedCpu / (host.getCpuCount() * host.getCpuSpeed()));
+        hostStats.setEntityType("simulator-host");
+        hostStats.setHostId(cmd.getHostId());
+        return new GetHostStatsAnswer(cmd, hostStats);
+    }
+
     @Override
     public Answer checkHealth(CheckHealthCommand cmd) {
         return new Answer(cmd);
@@ -64,6 +64,13 @@ public class MockNetworkManagerImpl extends ManagerBase implements MockNetworkMa
 
     @Inject
     MockVMDao _mockVmDao;
+    @Inject
+    MockAgentManager _mockAgentMgr;
+
+    private MockVMVO findVm(String vmName) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        return store != null ? store.getVm(vmName) : _mockVmDao.findByVmName(vmName);
+    }
 
     @Override
     public Answer SetStaticNatRules(SetStaticNatRulesCommand cmd) {
@@ -123,7 +130,7 @@ public class MockNetworkManagerImpl extends ManagerBase implements MockNetworkMa
     @Override
     public PlugNicAnswer plugNic(PlugNicCommand cmd) {
         String vmname = cmd.getVmName();
-        if (_mockVmDao.findByVmName(vmname) != null) {
+        if (findVm(vmname) != null) {
             s_logger.debug("Plugged NIC (dev=" + cmd.getNic().getDeviceId() + ", " + cmd.getNic().getIp() + ") into " + cmd.getVmName());
             return new PlugNicAnswer(cmd,  true, "success");
         }
@@ -134,7 +141,7 @@ public class MockNetworkManagerImpl extends ManagerBase implements MockNetworkMa
     @Override
     public UnPlugNicAnswer unplugNic(UnPlugNicCommand cmd) {
         String vmname = cmd.getVmName();
-        if (_mockVmDao.findByVmName(vmname) != null) {
+        if (findVm(vmname) != null) {
             s_logger.debug("Plugged NIC (dev=" + cmd.getNic().getDeviceId() + ", " + cmd.getNic().getIp() + ") into " + cmd.getVmName());
             return new UnPlugNicAnswer(cmd,  true, "success");
         }
@@ -206,7 +213,7 @@ public class MockNetworkManagerImpl extends ManagerBase implements MockNetworkMa
     public SetupGuestNetworkAnswer setUpGuestNetwork(SetupGuestNetworkCommand cmd) {
         String domrName = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
         try {
-            MockVMVO vms = _mockVmDao.findByVmName(domrName);
+            MockVMVO vms = findVm(domrName);
             if (vms == null) {
                 return new SetupGuestNetworkAnswer(cmd, false, "Can not find VM " + domrName);
             }
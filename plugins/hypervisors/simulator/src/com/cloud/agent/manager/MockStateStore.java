@@ -0,0 +1,160 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloud.simulator.MockHostVO;
+import com.cloud.simulator.MockVMVO;
+import com.cloud.vm.VirtualMachine.State;
+
+/**
+ * Mock hosts and VMs of the simulator kept in memory, used instead of the
+ * simulator database when simulator.inmemory.state is on. Ids are handed out
+ * here, so they only mean something within this management server and are lost
+ * on restart, which is fine for a scale run but not for anything else.
+ */
+public class MockStateStore {
+    private final AtomicLong _nextHostId = new AtomicLong(1);
+    private final AtomicLong _nextVmId = new AtomicLong(1);
+
+    private final Map<String, MockHostVO> _hosts = new ConcurrentHashMap<String, MockHostVO>();
+    private final Map<Long, MockHostVO> _hostsById = new ConcurrentHashMap<Long, MockHostVO>();
+    private final Map<String, MockVMVO> _vms = new ConcurrentHashMap<String, MockVMVO>();
+    // host id -> names of the VMs placed on it
+    private final Map<Long, Set<String>> _vmsByHost = new ConcurrentHashMap<Long, Set<String>>();
+
+    public MockHostVO addHost(MockHostVO host) {
+        host.setId(_nextHostId.getAndIncrement());
+        _hostsById.put(host.getId(), host);
+        _hosts.put(host.getGuid(), host);
+        return host;
+    }
+
+    public MockHostVO getHost(String guid) {
+        return guid != null ? _hosts.get(guid) : null;
+    }
+
+    public MockHostVO getHost(long id) {
+        return _hostsById.get(id);
+    }
+
+    /**
+     * @return the host a system VM agent runs on, only system VMs have one
+     */
+    public MockHostVO getHostByVmId(long vmId) {
+        for (MockHostVO host : _hostsById.values()) {
+            if (host.getVmId() == vmId) {
+                return host;
+            }
+        }
+        return null;
+    }
+
+    public int getHostCount() {
+        return _hosts.size();
+    }
+
+    public MockVMVO getVm(String name) {
+        return name != null ? _vms.get(name) : null;
+    }
+
+    public MockVMVO getVm(String name, String hostGuid) {
+        MockVMVO vm = getVm(name);
+        MockHostVO host = getHost(hostGuid);
+        if (vm == null || host == null || vm.getHostId() != host.getId()) {
+            return null;
+        }
+        return vm;
+    }
+
+    public MockVMVO addVm(MockVMVO vm) {
+        vm.setId(_nextVmId.getAndIncrement());
+        _vms.put(vm.getName(), vm);
+        vmsOn(vm.getHostId()).add(vm.getName());
+        return vm;
+    }
+
+    public MockVMVO removeVm(String name) {
+        MockVMVO vm = _vms.remove(name);
+        if (vm != null) {
+            Set<String> names = _vmsByHost.get(vm.getHostId());
+            if (names != null) {
+                names.remove(name);
+            }
+        }
+        return vm;
+    }
+
+    public void moveVm(MockVMVO vm, long hostId) {
+        synchronized (vm) {
+            Set<String> names = _vmsByHost.get(vm.getHostId());
+            if (names != null) {
+                names.remove(vm.getName());
+            }
+            vm.setHostId(hostId);
+            vmsOn(hostId).add(vm.getName());
+        }
+    }
+
+    public int getVmCount() {
+        return _vms.size();
+    }
+
+    public List<MockVMVO> getVms(long hostId) {
+        return getVms(hostId, null);
+    }
+
+    /**
+     * @param state only return VMs in this state, null for all of them
+     */
+    public List<MockVMVO> getVms(long hostId, State state) {
+        Set<String> names = _vmsByHost.get(hostId);
+        if (names == null) {
+            return new ArrayList<MockVMVO>();
+        }
+
+        List<MockVMVO> vms = new ArrayList<MockVMVO>(names.size());
+        for (String name : names) {
+            MockVMVO vm = _vms.get(name);
+            if (vm != null && vm.getHostId() == hostId && (state == null || vm.getState() == state)) {
+                vms.add(vm);
+            }
+        }
+        return vms;
+    }
+
+    private Set<String> vmsOn(long hostId) {
+        Set<String> names = _vmsByHost.get(hostId);
+        if (names == null) {
+            synchronized (_vmsByHost) {
+                names = _vmsByHost.get(hostId);
+                if (names == null) {
+                    names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                    _vmsByHost.put(hostId, names);
+                }
+            }
+        }
+        return names;
+    }
+}
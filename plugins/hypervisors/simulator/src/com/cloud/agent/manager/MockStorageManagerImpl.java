@@ -117,6 +117,8 @@ public class MockStorageManagerImpl extends ManagerBase implements MockStorageMa
     @Inject
     MockHostDao _mockHostDao = null;
     @Inject
+    MockAgentManager _mockAgentMgr = null;
+    @Inject
     VMTemplateDao templateDao;
 
     private MockVolumeVO findVolumeFromSecondary(String path, String ssUrl, MockVolumeType type) {
@@ -257,7 +259,7 @@ public class MockStorageManagerImpl extends ManagerBase implements MockStorageMa
             }
 
             String vmName = cmd.getVmName();
-            MockVMVO vm = _mockVMDao.findByVmName(vmName);
+            MockVMVO vm = findVm(vmName);
             if (vm == null) {
                 return new AttachVolumeAnswer(cmd, "can't vm :" + vmName);
             }
@@ -288,7 +290,7 @@ public class MockStorageManagerImpl extends ManagerBase implements MockStorageMa
         MockVMVO vm = null;
         try {
             txn.start();
-            vm = _mockVMDao.findByVmName(vmName);
+            vm = findVm(vmName);
             txn.commit();
             if (vm == null) {
                 return new Answer(cmd, false, "can't vm :" + vmName);
@@ -516,7 +518,10 @@ public class MockStorageManagerImpl extends ManagerBase implements MockStorageMa
                 _mockVolumeDao.remove(volume.getId());
             }
 
-            if (cmd.getVmName() != null) {
+            MockStateStore store = _mockAgentMgr.getStateStore();
+            if (cmd.getVmName() != null && store != null) {
+                store.removeVm(cmd.getVmName());
+            } else if (cmd.getVmName() != null) {
                 MockVm vm = _mockVMDao.findByVmName(cmd.getVmName());
                 vm.setState(State.Expunging);
                 if (vm != null) {
@@ -938,6 +943,11 @@ public class MockStorageManagerImpl extends ManagerBase implements MockStorageMa
         }
     }
 
+    private MockVMVO findVm(String vmName) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        return store != null ? store.getVm(vmName) : _mockVMDao.findByVmName(vmName);
+    }
+
     @Override
     public StoragePoolInfo getLocalStorage(String hostGuid) {
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
@@ -945,7 +955,7 @@ public class MockStorageManagerImpl extends ManagerBase implements MockStorageMa
         MockStoragePoolVO storagePool = null;
         try {
             txn.start();
-            host = _mockHostDao.findByGuid(hostGuid);
+            host = _mockAgentMgr.getHost(hostGuid);
             storagePool = _mockStoragePoolDao.findByHost(hostGuid);
             txn.commit();
         } catch (Exception ex) {
@@ -989,7 +999,7 @@ public class MockStorageManagerImpl extends ManagerBase implements MockStorageMa
         MockHost host = null;
         try {
             txn.start();
-            host = _mockHostDao.findByGuid(hostGuid);
+            host = _mockAgentMgr.getHost(hostGuid);
             txn.commit();
         } catch (Exception ex) {
             txn.rollback();
@@ -111,25 +111,35 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
             int cpuHz, long ramSize,
             String bootArgs, String hostGuid) {
 
-        Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        Transaction txn = null;
         MockHost host = null;
         MockVm vm = null;
-        try {
-            txn.start();
-            host = _mockHostDao.findByGuid(hostGuid);
+        if (store != null) {
+            host = store.getHost(hostGuid);
             if (host == null) {
                 return "can't find host";
             }
+            vm = store.getVm(vmName);
+        } else {
+            txn = Transaction.open(Transaction.SIMULATOR_DB);
+            try {
+                txn.start();
+                host = _mockHostDao.findByGuid(hostGuid);
+                if (host == null) {
+                    return "can't find host";
+                }
 
-            vm = _mockVmDao.findByVmName(vmName);
-            txn.commit();
-        } catch (Exception ex) {
-            txn.rollback();
-            throw new CloudRuntimeException("Unable to start VM " + vmName, ex);
-        } finally {
-            txn.close();
-            txn = Transaction.open(Transaction.CLOUD_DB);
-            txn.close();
+                vm = _mockVmDao.findByVmName(vmName);
+                txn.commit();
+            } catch (Exception ex) {
+                txn.rollback();
+                throw new CloudRuntimeException("Unable to start VM " + vmName, ex);
+            } finally {
+                txn.close();
+                txn = Transaction.open(Transaction.CLOUD_DB);
+                txn.close();
+            }
         }
 
         if(vm == null) {
@@ -153,22 +163,32 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
             } else if (vmName.startsWith("i-")) {
                 vm.setType("User");
             }
-            txn = Transaction.open(Transaction.SIMULATOR_DB);
-            try {
-                txn.start();
-                vm = _mockVmDao.persist((MockVMVO) vm);
-                txn.commit();
-            } catch (Exception ex) {
-                txn.rollback();
-                throw new CloudRuntimeException("unable to save vm to db " + vm.getName(), ex);
-            } finally {
-                txn.close();
-                txn = Transaction.open(Transaction.CLOUD_DB);
-                txn.close();
+            if (store != null) {
+                vm = store.addVm((MockVMVO) vm);
+            } else {
+                txn = Transaction.open(Transaction.SIMULATOR_DB);
+                try {
+                    txn.start();
+                    vm = _mockVmDao.persist((MockVMVO) vm);
+                    txn.commit();
+                } catch (Exception ex) {
+                    txn.rollback();
+                    throw new CloudRuntimeException("unable to save vm to db " + vm.getName(), ex);
+                } finally {
+                    txn.close();
+                    txn = Transaction.open(Transaction.CLOUD_DB);
+                    txn.close();
+                }
+            }
+        } else if (store != null) {
+            if (vm.getState() == State.Stopped) {
+                vm.setState(State.Running);
+                store.moveVm((MockVMVO) vm, host.getId());
             }
         } else {
             if(vm.getState() == State.Stopped) {
                 vm.setState(State.Running);
+                vm.setHostId(host.getId());
                 txn = Transaction.open(Transaction.SIMULATOR_DB);
                 try {
                     txn.start();
@@ -230,6 +250,18 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public Map<String, MockVMVO> getVms(String hostGuid) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            Map<String, MockVMVO> vmMap = new HashMap<String, MockVMVO>();
+            MockHost host = store.getHost(hostGuid);
+            if (host != null) {
+                for (MockVMVO vm : store.getVms(host.getId(), State.Running)) {
+                    vmMap.put(vm.getName(), vm);
+                }
+            }
+            return vmMap;
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -253,7 +285,7 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
     @Override
     public CheckRouterAnswer checkRouter(CheckRouterCommand cmd) {
         String router_name = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
-        MockVm vm = _mockVmDao.findByVmName(router_name);
+        MockVm vm = findVm(router_name);
         String args = vm.getBootargs();
         if (args.indexOf("router_pr=100") > 0) {
             s_logger.debug("Router priority is for MASTER");
@@ -271,7 +303,7 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
     @Override
     public Answer bumpPriority(BumpUpPriorityCommand cmd) {
         String router_name = cmd.getAccessDetail(NetworkElementCommand.ROUTER_NAME);
-        MockVm vm = _mockVmDao.findByVmName(router_name);
+        MockVm vm = findVm(router_name);
         String args = vm.getBootargs();
         if (args.indexOf("router_pr=100") > 0) {
             return new Answer(cmd, true, "Status: BACKUP & Bumped: YES");
@@ -282,6 +314,18 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public Map<String, State> getVmStates(String hostGuid) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            Map<String, State> states = new HashMap<String, State>();
+            MockHost host = store.getHost(hostGuid);
+            if (host != null) {
+                for (MockVMVO vm : store.getVms(host.getId(), State.Running)) {
+                    states.put(vm.getName(), vm.getState());
+                }
+            }
+            return states;
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -338,6 +382,15 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public CheckVirtualMachineAnswer checkVmState(CheckVirtualMachineCommand cmd) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            MockVMVO vm = store.getVm(cmd.getVmName());
+            if (vm == null) {
+                return new CheckVirtualMachineAnswer(cmd, "can't find vm:" + cmd.getVmName());
+            }
+            return new CheckVirtualMachineAnswer(cmd, vm.getState(), vm.getVncPort());
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -378,6 +431,24 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public MigrateAnswer Migrate(MigrateCommand cmd, SimulatorInfo info) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            String vmName = cmd.getVmName();
+            MockVMVO vm = store.getVm(vmName, info.getHostUuid());
+            if (vm == null) {
+                return new MigrateAnswer(cmd, false, "can't find vm:" + vmName + " on host:" + info.getHostUuid(), null);
+            }
+            MockHost destHost = store.getHost(cmd.getHostGuid());
+            if (destHost == null) {
+                return new MigrateAnswer(cmd, false, "can;t find host:" + cmd.getHostGuid(), null);
+            }
+            if (vm.getState() == State.Migrating) {
+                vm.setState(State.Running);
+            }
+            store.moveVm(vm, destHost.getId());
+            return new MigrateAnswer(cmd, true, null, 0);
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -412,8 +483,17 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public PrepareForMigrationAnswer prepareForMigrate(PrepareForMigrationCommand cmd) {
-        Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         VirtualMachineTO vmTo = cmd.getVirtualMachine();
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            MockVMVO vm = store.getVm(vmTo.getName());
+            if (vm != null) {
+                vm.setState(State.Migrating);
+            }
+            return new PrepareForMigrationAnswer(cmd);
+        }
+
+        Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
             MockVMVO vm = _mockVmDao.findById(vmTo.getId());
@@ -438,6 +518,19 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public Answer CleanupNetworkRules(CleanupNetworkRulesCmd cmd, SimulatorInfo info) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            Map<String, Ternary<String, Long, Long>> rules = _securityRules.get(info.getHostUuid());
+            if (rules != null) {
+                for (String vmName : rules.keySet()) {
+                    if (store.getVm(vmName, info.getHostUuid()) == null) {
+                        rules.remove(vmName);
+                    }
+                }
+            }
+            return new Answer(cmd);
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -483,7 +576,7 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
     public Answer deleteVmSnapshot(DeleteVMSnapshotCommand cmd) {
         String vm = cmd.getVmName();
         String snapshotName = cmd.getTarget().getSnapshotName();
-        if(_mockVmDao.findByVmName(cmd.getVmName()) != null) {
+        if(findVm(cmd.getVmName()) != null) {
             return new DeleteVMSnapshotAnswer(cmd, false, "No VM by name "+ cmd.getVmName());
         }
         s_logger.debug("Removed snapshot " +snapshotName+ " of VM "+vm);
@@ -494,7 +587,7 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
     public Answer revertVmSnapshot(RevertToVMSnapshotCommand cmd) {
         String vm = cmd.getVmName();
         String snapshot = cmd.getTarget().getSnapshotName();
-        if(_mockVmDao.findByVmName(cmd.getVmName()) != null) {
+        if(findVm(cmd.getVmName()) != null) {
             return new RevertToVMSnapshotAnswer(cmd, false, "No VM by name "+ cmd.getVmName());
         }
         s_logger.debug("Reverted to snapshot " +snapshot+ " of VM "+vm);
@@ -503,6 +596,19 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public StopAnswer stopVM(StopCommand cmd) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            String vmName = cmd.getVmName();
+            MockVm vm = store.getVm(vmName);
+            if (vm != null) {
+                vm.setState(State.Stopped);
+                if (vmName.startsWith("s-")) {
+                    _mockAgentMgr.handleSystemVMStop(vm.getId());
+                }
+            }
+            return new StopAnswer(cmd, null, new Integer(0), true);
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -530,6 +636,15 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
 
     @Override
     public RebootAnswer rebootVM(RebootCommand cmd) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        if (store != null) {
+            MockVm vm = store.getVm(cmd.getVmName());
+            if (vm != null) {
+                vm.setState(State.Running);
+            }
+            return new RebootAnswer(cmd, "Rebooted " + cmd.getVmName(), true);
+        }
+
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
             txn.start();
@@ -646,6 +761,11 @@ public class MockVmManagerImpl extends ManagerBase implements MockVmManager {
         return new Answer(cmd);
     }
 
+    private MockVMVO findVm(String vmName) {
+        MockStateStore store = _mockAgentMgr.getStateStore();
+        return store != null ? store.getVm(vmName) : _mockVmDao.findByVmName(vmName);
+    }
+
     @Override
     public HashMap<String, Pair<Long, Long>> syncNetworkGroups(SimulatorInfo info) {
         HashMap<String, Pair<Long, Long>> maps = new HashMap<String, Pair<Long, Long>>();
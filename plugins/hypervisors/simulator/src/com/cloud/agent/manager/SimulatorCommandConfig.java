@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * How the simulator treats one command type on one host, parsed from the
+ * values of a MockConfigurationVO set through configureSimulator, e.g.
+ * "wait:200|jitter:300|failurerate:0.01".
+ *
+ * enabled/timeout are handed to the mock managers through SimulatorInfo as
+ * before. wait is a fixed delay in ms, jitter adds a uniformly distributed
+ * delay of up to that many ms on top, and failurerate is the probability, from
+ * 0 to 1, that the command fails without being executed.
+ */
+public class SimulatorCommandConfig {
+    private static final Logger s_logger = Logger.getLogger(SimulatorCommandConfig.class);
+
+    public static final SimulatorCommandConfig DEFAULT = new SimulatorCommandConfig();
+
+    private boolean _enabled = true;
+    private int _timeout = -1;
+    private int _wait;
+    private int _jitter;
+    private double _failureRate;
+
+    public static SimulatorCommandConfig parse(Map<String, String> parameters) {
+        SimulatorCommandConfig config = new SimulatorCommandConfig();
+        for (Map.Entry<String, String> entry : parameters.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            try {
+                if (key.equalsIgnoreCase("enabled")) {
+                    config._enabled = Boolean.parseBoolean(value);
+                } else if (key.equalsIgnoreCase("timeout")) {
+                    config._timeout = Integer.parseInt(value);
+                } else if (key.equalsIgnoreCase("wait")) {
+                    config._wait = Math.max(0, Integer.parseInt(value));
+                } else if (key.equalsIgnoreCase("jitter")) {
+                    config._jitter = Math.max(0, Integer.parseInt(value));
+                } else if (key.equalsIgnoreCase("failurerate")) {
+                    config._failureRate = Math.min(1.0, Math.max(0.0, Double.parseDouble(value)));
+                }
+            } catch (NumberFormatException e) {
+                s_logger.debug("invalid " + key + " parameter: " + e.toString());
+            }
+        }
+        return config;
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    public int getTimeout() {
+        return _timeout;
+    }
+
+    public int getWait() {
+        return _wait;
+    }
+
+    public int getJitter() {
+        return _jitter;
+    }
+
+    public double getFailureRate() {
+        return _failureRate;
+    }
+
+    /**
+     * @return how long, in ms, the command should take this time
+     */
+    public long nextDelay(Random random) {
+        if (_jitter == 0) {
+            return _wait;
+        }
+        return _wait + random.nextInt(_jitter + 1);
+    }
+
+    public boolean nextFailure(Random random) {
+        return _failureRate > 0 && random.nextDouble() < _failureRate;
+    }
+
+    public SimulatorInfo toInfo(String hostGuid) {
+        return new SimulatorInfo(_enabled, _timeout, hostGuid);
+    }
+}
@@ -92,7 +92,6 @@ import com.cloud.simulator.MockConfigurationVO;
 import com.cloud.simulator.MockHost;
 import com.cloud.simulator.MockVMVO;
 import com.cloud.simulator.dao.MockConfigurationDao;
-import com.cloud.simulator.dao.MockHostDao;
 import com.cloud.storage.resource.StorageSubsystemCommandHandler;
 import com.cloud.storage.resource.StorageSubsystemCommandHandlerBase;
 import com.cloud.utils.Pair;
@@ -116,6 +115,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 @Local(value = { SimulatorManager.class })
@@ -131,10 +132,25 @@ public class SimulatorManagerImpl extends ManagerBase implements SimulatorManage
     MockNetworkManager _mockNetworkMgr;
     @Inject
     MockConfigurationDao _mockConfigDao;
-    @Inject
-    MockHostDao _mockHost = null;
     protected StorageSubsystemCommandHandler storageHandler;
 
+    // how long a command configuration is used before it is looked up again, so
+    // that changes made through another management server show up eventually
+    private static final long COMMAND_CONFIG_TTL = 30000;
+    // mock host id + command name -> configuration
+    private final Map<String, CachedCommandConfig> _commandConfigs = new ConcurrentHashMap<String, CachedCommandConfig>();
+    private final Random _random = new Random();
+
+    private static class CachedCommandConfig {
+        final SimulatorCommandConfig config;
+        final long loaded;
+
+        CachedCommandConfig(SimulatorCommandConfig config, long loaded) {
+            this.config = config;
+            this.loaded = loaded;
+        }
+    }
+
     @Override
     public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
         SimulatorStorageProcessor processor = new SimulatorStorageProcessor(this);
@@ -184,40 +200,29 @@ public class SimulatorManagerImpl extends ManagerBase implements SimulatorManage
     public Answer simulate(Command cmd, String hostGuid) {
         Transaction txn = Transaction.open(Transaction.SIMULATOR_DB);
         try {
-            MockHost host = _mockHost.findByGuid(hostGuid);
+            MockHost host = _mockAgentMgr.getHost(hostGuid);
+            if (host == null) {
+                return new Answer(cmd, false, "can't find host " + hostGuid);
+            }
             String cmdName = cmd.toString();
             int index = cmdName.lastIndexOf(".");
             if (index != -1) {
                 cmdName = cmdName.substring(index + 1);
             }
-            MockConfigurationVO config = _mockConfigDao.findByNameBottomUP(host.getDataCenterId(), host.getPodId(), host.getClusterId(), host.getId(), cmdName);
+            SimulatorCommandConfig config = getCommandConfig(host, cmdName);
+            SimulatorInfo info = config.toInfo(hostGuid);
 
-            SimulatorInfo info = new SimulatorInfo();
-            info.setHostUuid(hostGuid);
-
-            if (config != null) {
-                Map<String, String> configParameters = config.getParameters();
-                for (Map.Entry<String, String> entry : configParameters.entrySet()) {
-                    if (entry.getKey().equalsIgnoreCase("enabled")) {
-                        info.setEnabled(Boolean.parseBoolean(entry.getValue()));
-                    } else if (entry.getKey().equalsIgnoreCase("timeout")) {
-                        try {
-                            info.setTimeout(Integer.valueOf(entry.getValue()));
-                        } catch (NumberFormatException e) {
-                            s_logger.debug("invalid timeout parameter: " + e.toString());
-                        }
-                    } else if (entry.getKey().equalsIgnoreCase("wait")) {
-                        try {
-                            int wait = Integer.valueOf(entry.getValue());
-                            Thread.sleep(wait);
-                        } catch (NumberFormatException e) {
-                            s_logger.debug("invalid timeout parameter: " + e.toString());
-                        } catch (InterruptedException e) {
-                            s_logger.debug("thread is interrupted: " + e.toString());
-                        }
-                    }
+            long delay = config.nextDelay(_random);
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    s_logger.debug("thread is interrupted: " + e.toString());
                 }
             }
+            if (config.nextFailure(_random)) {
+                return new Answer(cmd, false, "Simulated failure of " + cmdName);
+            }
 
             if (cmd instanceof GetHostStatsCommand) {
                 return _mockAgentMgr.getHostStatistic((GetHostStatsCommand) cmd);
@@ -378,6 +383,20 @@ public class SimulatorManagerImpl extends ManagerBase implements SimulatorManage
         }
     }
 
+    private SimulatorCommandConfig getCommandConfig(MockHost host, String cmdName) {
+        String key = host.getId() + "/" + cmdName;
+        long now = System.currentTimeMillis();
+        CachedCommandConfig cached = _commandConfigs.get(key);
+        if (cached != null && now - cached.loaded < COMMAND_CONFIG_TTL) {
+            return cached.config;
+        }
+
+        MockConfigurationVO configVO = _mockConfigDao.findByNameBottomUP(host.getDataCenterId(), host.getPodId(), host.getClusterId(), host.getId(), cmdName);
+        SimulatorCommandConfig config = configVO != null ? SimulatorCommandConfig.parse(configVO.getParameters()) : SimulatorCommandConfig.DEFAULT;
+        _commandConfigs.put(key, new CachedCommandConfig(config, now));
+        return config;
+    }
+
     @Override
     public StoragePoolInfo getLocalStorage(String hostGuid) {
         return _mockStorageMgr.getLocalStorage(hostGuid);
@@ -430,6 +449,7 @@ public class SimulatorManagerImpl extends ManagerBase implements SimulatorManage
             txn = Transaction.open(Transaction.CLOUD_DB);
             txn.close();
         }
+        _commandConfigs.clear();
         return true;
     }
 }
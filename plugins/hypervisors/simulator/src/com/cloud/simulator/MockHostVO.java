@@ -156,6 +156,10 @@ public class MockHostVO implements MockHost, InternalIdentity {
         return id;
     }
 
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public String getName() {
         return name;
     }
@@ -68,6 +68,10 @@ public class MockVMVO implements MockVm, InternalIdentity {
         return this.id;
     }
 
+    public void setId(long id) {
+        this.id = id;
+    }
+
     public String getName() {
         return this.name;
     }
@@ -0,0 +1,82 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.cloud.simulator.MockHostVO;
+import com.cloud.simulator.MockVMVO;
+import com.cloud.vm.VirtualMachine.State;
+
+public class MockStateStoreTest {
+    private static MockHostVO host(String guid) {
+        MockHostVO host = new MockHostVO();
+        host.setGuid(guid);
+        return host;
+    }
+
+    private static MockVMVO vm(String name, long hostId, State state) {
+        MockVMVO vm = new MockVMVO();
+        vm.setName(name);
+        vm.setHostId(hostId);
+        vm.setState(state);
+        return vm;
+    }
+
+    @Test
+    public void testVmsFollowTheirHost() {
+        MockStateStore store = new MockStateStore();
+        MockHostVO host1 = store.addHost(host("host-1"));
+        MockHostVO host2 = store.addHost(host("host-2"));
+        assertSame(host2, store.getHost("host-2"));
+        assertSame(host1, store.getHost(host1.getId()));
+
+        MockVMVO vm1 = store.addVm(vm("i-2-3-VM", host1.getId(), State.Running));
+        store.addVm(vm("i-2-4-VM", host1.getId(), State.Stopped));
+        assertEquals(2, store.getVms(host1.getId()).size());
+        assertEquals(1, store.getVms(host1.getId(), State.Running).size());
+        assertSame(vm1, store.getVm("i-2-3-VM", "host-1"));
+        assertNull(store.getVm("i-2-3-VM", "host-2"));
+
+        store.moveVm(vm1, host2.getId());
+        assertEquals(1, store.getVms(host1.getId()).size());
+        assertSame(vm1, store.getVm("i-2-3-VM", "host-2"));
+        assertEquals(1, store.getVms(host2.getId(), State.Running).size());
+
+        store.removeVm("i-2-3-VM");
+        assertNull(store.getVm("i-2-3-VM"));
+        assertEquals(0, store.getVms(host2.getId()).size());
+        assertEquals(1, store.getVmCount());
+    }
+
+    @Test
+    public void testSystemVmHost() {
+        MockStateStore store = new MockStateStore();
+        store.addHost(host("host-1"));
+        MockHostVO ssvmHost = host("SystemVM-1");
+        ssvmHost.setVmId(42);
+        store.addHost(ssvmHost);
+
+        assertSame(ssvmHost, store.getHostByVmId(42));
+        assertNull(store.getHostByVmId(43));
+        assertNull(store.getHost((String)null));
+    }
+}
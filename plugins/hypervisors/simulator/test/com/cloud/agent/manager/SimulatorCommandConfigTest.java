@@ -0,0 +1,73 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SimulatorCommandConfigTest {
+    @Test
+    public void testParse() {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("enabled", "false");
+        params.put("timeout", "30");
+        params.put("wait", "100");
+        params.put("jitter", "50");
+        params.put("failurerate", "2");
+        SimulatorCommandConfig config = SimulatorCommandConfig.parse(params);
+
+        assertFalse(config.isEnabled());
+        assertEquals(30, config.toInfo("host-1").getTimeout());
+        assertEquals(100, config.getWait());
+        assertEquals(50, config.getJitter());
+        // clamped to a probability
+        assertEquals(1.0, config.getFailureRate(), 0);
+
+        params.put("wait", "abc");
+        assertEquals(0, SimulatorCommandConfig.parse(params).getWait());
+    }
+
+    @Test
+    public void testDelayAndFailures() {
+        Random random = new Random(7);
+        assertEquals(0, SimulatorCommandConfig.DEFAULT.nextDelay(random));
+        assertFalse(SimulatorCommandConfig.DEFAULT.nextFailure(random));
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("wait", "100");
+        params.put("jitter", "50");
+        params.put("failurerate", "0.25");
+        SimulatorCommandConfig config = SimulatorCommandConfig.parse(params);
+
+        int failures = 0;
+        for (int i = 0; i < 10000; i++) {
+            long delay = config.nextDelay(random);
+            assertTrue(delay >= 100 && delay <= 150);
+            if (config.nextFailure(random)) {
+                failures++;
+            }
+        }
+        assertTrue("failures: " + failures, failures > 2000 && failures < 3000);
+    }
+}
@@ -306,6 +306,11 @@ public class VmwareManagerImpl extends ManagerBase implements VmwareManager, Vmw
         _hostScanInterval = NumbersUtil.parseLong(value, DEFAULT_HOST_SCAN_INTERVAL);
         s_logger.info("VmwareManagerImpl config - vmware.host.scan.interval: " + _hostScanInterval);
 
+        int maxContexts = NumbersUtil.parseInt(_configDao.getValue(Config.VmwareContextsMaxPerVCenter.key()), 128);
+        long acquireTimeout = NumbersUtil.parseLong(_configDao.getValue(Config.VmwareContextAcquireTimeout.key()), 120) * 1000;
+        VmwareContextFactory.configurePool(maxContexts, acquireTimeout);
+        s_logger.info("VmwareManagerImpl config - vCenter sessions per vCenter: " + maxContexts + ", acquire timeout: " + acquireTimeout + " ms");
+
         ((VmwareStorageManagerImpl)_storageMgr).configure(params);
 
         _agentMgr.registerForHostEvents(this, true, true, true);
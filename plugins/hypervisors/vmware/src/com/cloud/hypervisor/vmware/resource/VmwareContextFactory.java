@@ -45,6 +45,7 @@ public class VmwareContextFactory {
 		// skip certificate check
 		System.setProperty("axis.socketSecureFactory", "org.apache.axis.components.net.SunFakeTrustSocketFactory");
 		s_pool = new VmwareContextPool();
+		s_pool.registerMBean("VMware resources");
 	}
 
 	@PostConstruct
@@ -53,7 +54,16 @@ public class VmwareContextFactory {
 	    s_clusterMgr = _clusterMgr;
 	}
 
+	public static void configurePool(int maxContextsPerVCenter, long acquireTimeoutMs) {
+		s_pool.setMaxContextsPerKey(maxContextsPerVCenter);
+		s_pool.setAcquireTimeout(acquireTimeoutMs);
+	}
+
 	public static VmwareContext create(String vCenterAddress, String vCenterUserName, String vCenterPassword) throws Exception {
+		return create(vCenterAddress, vCenterUserName, vCenterPassword, null);
+	}
+
+	private static VmwareContext create(String vCenterAddress, String vCenterUserName, String vCenterPassword, VmwareContextPool.Reservation reservation) throws Exception {
 		assert(vCenterAddress != null);
 		assert(vCenterUserName != null);
 		assert(vCenterPassword != null);
@@ -73,20 +83,21 @@ public class VmwareContextFactory {
 		context.registerStockObject("noderuninfo", String.format("%d-%d", s_clusterMgr.getManagementNodeId(), s_clusterMgr.getCurrentRunId()));
 
 		context.setPoolInfo(s_pool, VmwareContextPool.composePoolKey(vCenterAddress, vCenterUserName));
-		s_pool.registerOutstandingContext(context);
+		s_pool.registerOutstandingContext(context, reservation);
 		
 		return context;
 	}
 	
 	public static VmwareContext getContext(String vCenterAddress, String vCenterUserName, String vCenterPassword) throws Exception {
-		VmwareContext context = s_pool.getContext(vCenterAddress, vCenterUserName);
+		// idle contexts are validated by the pool, it may block here if the vCenter is at its session limit
+		VmwareContextPool.Reservation reservation = s_pool.acquire(vCenterAddress, vCenterUserName);
+		VmwareContext context = reservation.getContext();
 		if(context == null) {
-			context = create(vCenterAddress, vCenterUserName, vCenterPassword);
-		} else {
-			if(!context.validate()) {
-				s_logger.info("Validation of the context faild. dispose and create a new one");
-				context.close();
-				context = create(vCenterAddress, vCenterUserName, vCenterPassword);
+			try {
+				context = create(vCenterAddress, vCenterUserName, vCenterPassword, reservation);
+			} catch(Exception e) {
+				s_pool.abortCreate(reservation);
+				throw e;
 			}
 		}
 		
@@ -78,18 +78,9 @@ import com.vmware.vim25.HostScsiTopologyTarget;
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.ObjectContent;
 import com.vmware.vim25.OptionValue;
-import com.vmware.vim25.PerfCounterInfo;
-import com.vmware.vim25.PerfEntityMetric;
-import com.vmware.vim25.PerfEntityMetricBase;
-import com.vmware.vim25.PerfMetricId;
-import com.vmware.vim25.PerfMetricIntSeries;
-import com.vmware.vim25.PerfMetricSeries;
-import com.vmware.vim25.PerfQuerySpec;
-import com.vmware.vim25.PerfSampleInfo;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ToolsUnavailableFaultMsg;
 import com.vmware.vim25.VMwareDVSPortSetting;
-import com.vmware.vim25.VimPortType;
 import com.vmware.vim25.VirtualDevice;
 import com.vmware.vim25.VirtualDeviceBackingInfo;
 import com.vmware.vim25.VirtualDeviceConfigSpec;
@@ -287,11 +278,13 @@ import com.cloud.hypervisor.vmware.mo.HostMO;
 import com.cloud.hypervisor.vmware.mo.HostStorageSystemMO;
 import com.cloud.hypervisor.vmware.mo.HypervisorHostHelper;
 import com.cloud.hypervisor.vmware.mo.NetworkDetails;
+import com.cloud.hypervisor.vmware.mo.PerfManagerMO;
 import com.cloud.hypervisor.vmware.mo.VirtualEthernetCardType;
 import com.cloud.hypervisor.vmware.mo.VirtualMachineDiskInfo;
 import com.cloud.hypervisor.vmware.mo.VirtualMachineDiskInfoBuilder;
 import com.cloud.hypervisor.vmware.mo.VirtualMachineMO;
 import com.cloud.hypervisor.vmware.mo.VirtualSwitchType;
+import com.cloud.hypervisor.vmware.mo.VmInventoryCache;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHost;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHostNetworkSummary;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHostResourceSummary;
@@ -378,6 +371,15 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     protected String _hostName;
 
     protected HashMap<String, State> _vms = new HashMap<String, State>(71);
+    // the last 5 minutes of realtime network samples of each VM
+    protected VmwareVmStatsCollector _vmStatsCollector = new VmwareVmStatsCollector(15);
+    // VM states are answered from an incrementally updated inventory kept in its own session
+    protected boolean _incrementalVmSync = true;
+    protected VmInventoryCache _vmInventory;
+    protected VmwareContext _vmInventoryContext;
+    protected long _vmInventoryVersion = -1;
+    protected HashMap<String, State> _vmInventoryStates;
+    protected final Object _vmInventoryLock = new Object();
     protected List<PropertyMapDynamicBean> _cmdMBeans = new ArrayList<PropertyMapDynamicBean>();
 
     protected Gson _gson;
@@ -6245,8 +6247,67 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
         
         // CLOUD_VM_INTERNAL_NAME stores the internal CS generated vm name. This was earlier stored in name. Now, name can be either the hostname or
         // the internal CS name, but the custom field CLOUD_VM_INTERNAL_NAME always stores the internal CS name.
-        ObjectContent[] ocs = hyperHost.getVmPropertiesOnHyperHost(new String[] { "name", "runtime.powerState", "config.template", instanceNameCustomField });
+        String[] propertyPaths = new String[] { "name", "runtime.powerState", "config.template", instanceNameCustomField };
+        if (_incrementalVmSync) {
+            synchronized (_vmInventoryLock) {
+                ObjectContent[] ocs = getVmPropertiesFromInventory(hyperHost, propertyPaths);
+                if (ocs != null) {
+                    if (_vmInventoryStates == null || _vmInventory.getVersion() != _vmInventoryVersion) {
+                        _vmInventoryStates = getVmStates(ocs, instanceNameCustomField);
+                        _vmInventoryVersion = _vmInventory.getVersion();
+                    }
+                    return new HashMap<String, State>(_vmInventoryStates);
+                }
+            }
+        }
+
+        ObjectContent[] ocs = hyperHost.getVmPropertiesOnHyperHost(propertyPaths);
+        return getVmStates(ocs, instanceNameCustomField);
+    }
+
+    /**
+     * @return the VM properties from the incrementally updated inventory, or
+     *         null if it can not be used and the caller should retrieve them
+     */
+    private ObjectContent[] getVmPropertiesFromInventory(VmwareHypervisorHost hyperHost, String[] propertyPaths) {
+        try {
+            if (_vmInventoryContext == null) {
+                _vmInventoryContext = VmwareContextFactory.create(_vCenterAddress, _username, _password);
+                // the session is owned by this resource for as long as it lives, keep it out of the pool limits
+                _vmInventoryContext.getPool().unregisterOutstandingContext(_vmInventoryContext);
+                _vmInventoryContext.setPoolInfo(null, null);
+            }
+            if (_vmInventory == null || !_vmInventory.getRoot().getValue().equals(hyperHost.getMor().getValue())
+                    || !Arrays.equals(_vmInventory.getPropertyPaths(), propertyPaths)) {
+                if (_vmInventory != null) {
+                    _vmInventory.reset();
+                }
+                _vmInventory = new VmInventoryCache(hyperHost.getMor(), propertyPaths);
+                _vmInventoryStates = null;
+            }
 
+            _vmInventory.refresh(_vmInventoryContext);
+            return _vmInventory.getVmProperties();
+        } catch (Throwable e) {
+            s_logger.warn("Unable to get VM states from the VM inventory, fall back to a full retrieve. " + e.getMessage());
+            releaseVmInventory();
+            return null;
+        }
+    }
+
+    private void releaseVmInventory() {
+        if (_vmInventory != null) {
+            _vmInventory.reset();
+            _vmInventory = null;
+        }
+        _vmInventoryStates = null;
+        if (_vmInventoryContext != null) {
+            _vmInventoryContext.close();
+            _vmInventoryContext = null;
+        }
+    }
+
+    private HashMap<String, State> getVmStates(ObjectContent[] ocs, String instanceNameCustomField) {
         HashMap<String, State> newStates = new HashMap<String, State>();
         if (ocs != null && ocs.length > 0) {
             for (ObjectContent oc : ocs) {
@@ -6288,31 +6349,19 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     }
 
     private HashMap<String, VmStatsEntry> getVmStats(List<String> vmNames) throws Exception {
-        VmwareHypervisorHost hyperHost = getHyperHost(getServiceContext());
+        VmwareContext context = getServiceContext();
+        VmwareHypervisorHost hyperHost = getHyperHost(context);
         HashMap<String, VmStatsEntry> vmResponseMap = new HashMap<String, VmStatsEntry>();
-        ManagedObjectReference perfMgr = getServiceContext().getServiceContent().getPerfManager();
-        VimPortType service = getServiceContext().getService();
-        PerfCounterInfo rxPerfCounterInfo = null;
-        PerfCounterInfo txPerfCounterInfo = null;
-
-        List<PerfCounterInfo> cInfo = (List<PerfCounterInfo>) getServiceContext().getVimClient().getDynamicProperty(perfMgr, "perfCounter");
-        for(PerfCounterInfo info : cInfo) {
-            if ("net".equalsIgnoreCase(info.getGroupInfo().getKey())) {
-                if ("transmitted".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    txPerfCounterInfo = info;
-                }
-                if ("received".equalsIgnoreCase(info.getNameInfo().getKey())) {
-                    rxPerfCounterInfo = info;
-                }
-            }
-        }
-        
+        PerfManagerMO perfMgr = new PerfManagerMO(context, context.getServiceContent().getPerfManager());
+
 		int key = ((HostMO)hyperHost).getCustomFieldKey("VirtualMachine", CustomFieldConstants.CLOUD_VM_INTERNAL_NAME);
 		if(key == 0) {
 			s_logger.warn("Custom field " + CustomFieldConstants.CLOUD_VM_INTERNAL_NAME + " is not registered ?!");
 		}
 		String instanceNameCustomField = "value[" + key + "]";
 
+        Map<String, ManagedObjectReference> vmMors = new HashMap<String, ManagedObjectReference>();
+        Map<String, Pair<String, String>> cpuStats = new HashMap<String, Pair<String, String>>();
         ObjectContent[] ocs = hyperHost.getVmPropertiesOnHyperHost(new String[] {"name", "summary.config.numCpu", "summary.quickStats.overallCpuUsage", instanceNameCustomField});
         if (ocs != null && ocs.length > 0) {
             for (ObjectContent oc : ocs) {
@@ -6336,7 +6385,6 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                             maxCpuUsage =  objProp.getVal().toString();
                         }
                     }
-                    VirtualMachineMO vmMo = new VirtualMachineMO(hyperHost.getContext(), oc.getObj());
                     if (vmInternalCSName != null) {
                         name = vmInternalCSName;
                     } else {
@@ -6347,58 +6395,25 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
                         continue;
                     }
 
-                    ManagedObjectReference vmMor = hyperHost.findVmOnHyperHost(name).getMor();
-                    assert(vmMor!=null);
-
-                    ArrayList vmNetworkMetrics = new ArrayList();
-                    // get all the metrics from the available sample period
-                    List<PerfMetricId> perfMetrics = service.queryAvailablePerfMetric(perfMgr, vmMor, null, null, null);
-                    if(perfMetrics != null) {
-                        for(int index=0; index < perfMetrics.size(); ++index) {
-                            if ( ((rxPerfCounterInfo != null) && (perfMetrics.get(index).getCounterId() == rxPerfCounterInfo.getKey())) ||
-                                    ((txPerfCounterInfo != null) && (perfMetrics.get(index).getCounterId() == txPerfCounterInfo.getKey())) ) {
-                                vmNetworkMetrics.add(perfMetrics.get(index));
-                            }
-                        }
-                    }
-
-                    double networkReadKBs=0;
-                    double networkWriteKBs=0;
-                    long sampleDuration=0;
-
-                    if (vmNetworkMetrics.size() != 0) {
-                        PerfQuerySpec qSpec = new PerfQuerySpec();
-                        qSpec.setEntity(vmMor);
-                        PerfMetricId[] availableMetricIds = (PerfMetricId[]) vmNetworkMetrics.toArray(new PerfMetricId[0]);
-                        qSpec.getMetricId().addAll(Arrays.asList(availableMetricIds));
-                        List<PerfQuerySpec> qSpecs = new ArrayList<PerfQuerySpec>();
-                        qSpecs.add(qSpec);
-                        List<PerfEntityMetricBase> values = service.queryPerf(perfMgr, qSpecs);
-
-                        for(int i=0; i<values.size(); ++i) {
-                            List<PerfSampleInfo>  infos = ((PerfEntityMetric)values.get(i)).getSampleInfo();
-                            int endMs = infos.get(infos.size()-1).getTimestamp().getSecond() * 1000 + infos.get(infos.size()-1).getTimestamp().getMillisecond();
-                            int beginMs = infos.get(0).getTimestamp().getSecond() * 1000 + infos.get(0).getTimestamp().getMillisecond();
-                            sampleDuration = (endMs - beginMs) /1000;
-                            List<PerfMetricSeries> vals = ((PerfEntityMetric)values.get(i)).getValue();
-                            for(int vi = 0; ((vals!= null) && (vi < vals.size())); ++vi){
-                                if(vals.get(vi) instanceof PerfMetricIntSeries) {
-                                    PerfMetricIntSeries val = (PerfMetricIntSeries)vals.get(vi);
-                                    List<Long> perfValues = val.getValue();
-                                    if (vals.get(vi).getId().getCounterId() == rxPerfCounterInfo.getKey()) {
-                                        networkReadKBs = sampleDuration * perfValues.get(3); //get the average RX rate multiplied by sampled duration
-                                    }
-                                    if (vals.get(vi).getId().getCounterId() == txPerfCounterInfo.getKey()) {
-                                        networkWriteKBs = sampleDuration * perfValues.get(3);//get the average TX rate multiplied by sampled duration
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    vmResponseMap.put(name, new VmStatsEntry(Integer.parseInt(maxCpuUsage), networkReadKBs, networkWriteKBs, Integer.parseInt(numberCPUs), "vm"));
+                    vmMors.put(name, oc.getObj());
+                    cpuStats.put(name, new Pair<String, String>(maxCpuUsage, numberCPUs));
                 }
             }
         }
+
+        // one batched queryPerf for all VMs instead of two round trips per VM
+        try {
+            _vmStatsCollector.refresh(perfMgr, vmMors);
+        } catch (Exception e) {
+            s_logger.warn("Unable to collect VM network stats, reporting what was collected before", e);
+        }
+
+        for (Map.Entry<String, Pair<String, String>> entry : cpuStats.entrySet()) {
+            String name = entry.getKey();
+            Pair<Double, Double> networkKBs = _vmStatsCollector.getNetworkKBs(name);
+            vmResponseMap.put(name, new VmStatsEntry(Integer.parseInt(entry.getValue().first()), networkKBs.first(), networkKBs.second(),
+                    Integer.parseInt(entry.getValue().second()), "vm"));
+        }
         return vmResponseMap;
     }
 
@@ -6634,6 +6649,10 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 	        if(value != null && value.equalsIgnoreCase("true"))
 	            _reserveMem = true;
 	
+	        value = (String) params.get("vmware.vm.sync.incremental");
+	        if(value != null && value.equalsIgnoreCase("false"))
+	            _incrementalVmSync = false;
+
 	        value = (String)params.get("vmware.root.disk.controller");
 	        if(value != null && value.equalsIgnoreCase("scsi"))
 	            _rootDiskController = DiskControllerType.scsi;
@@ -6690,6 +6709,9 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
 
     @Override
     public boolean stop() {
+        synchronized (_vmInventoryLock) {
+            releaseVmInventory();
+        }
         return true;
     }
 
@@ -6698,7 +6720,8 @@ public class VmwareResource implements StoragePoolResource, ServerResource, Vmwa
     }
 
     public void invalidateServiceContext() {
-        invalidateServiceContext(null);
+        // closing the context also gives its slot in the context pool back
+        invalidateServiceContext(s_serviceContext.get());
     }
 
     public VmwareHypervisorHost getHyperHost(VmwareContext context) {
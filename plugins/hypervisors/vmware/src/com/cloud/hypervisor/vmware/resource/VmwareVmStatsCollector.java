@@ -0,0 +1,259 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.resource;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.datatype.XMLGregorianCalendar;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.hypervisor.vmware.mo.PerfManagerMO;
+import com.cloud.utils.Pair;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfMetricSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSampleInfo;
+
+/**
+ * Network throughput samples of the VMs on a host, kept in a ring buffer per
+ * VM so GetVmStatsCommand is answered from memory.
+ *
+ * A refresh asks vCenter for the realtime samples of all VMs in one
+ * queryPerf call (split in batches of BATCH_SIZE entities), starting after
+ * the newest sample already buffered for each VM. Counter keys come from
+ * PerfManagerMO's per vCenter cache, so no queryAvailablePerfMetric or
+ * perfCounter round trip is made per VM.
+ */
+public class VmwareVmStatsCollector {
+    private static final Logger s_logger = Logger.getLogger(VmwareVmStatsCollector.class);
+
+    // vCenter keeps realtime stats at a 20 second interval for an hour
+    protected static final int REALTIME_INTERVAL = 20;
+    protected static final int BATCH_SIZE = 64;
+
+    private final int _capacity;
+    private final Map<String, SampleRing> _rings = new HashMap<String, SampleRing>();
+    private long _lastRefresh;
+
+    /**
+     * Fixed size ring of (timestamp, rx KBps, tx KBps) samples, oldest
+     * overwritten first.
+     */
+    static class SampleRing {
+        private final long[] _timestamps;
+        private final long[] _rx;
+        private final long[] _tx;
+        private int _next;
+        private int _size;
+
+        SampleRing(int capacity) {
+            _timestamps = new long[capacity];
+            _rx = new long[capacity];
+            _tx = new long[capacity];
+        }
+
+        void add(long timestamp, long rx, long tx) {
+            if (_size > 0 && timestamp <= getNewest()) {
+                return;
+            }
+            _timestamps[_next] = timestamp;
+            _rx[_next] = rx;
+            _tx[_next] = tx;
+            _next = (_next + 1) % _timestamps.length;
+            if (_size < _timestamps.length) {
+                _size++;
+            }
+        }
+
+        int size() {
+            return _size;
+        }
+
+        long getNewest() {
+            return _size == 0 ? 0 : _timestamps[(_next - 1 + _timestamps.length) % _timestamps.length];
+        }
+
+        long getOldest() {
+            return _size == 0 ? 0 : _timestamps[(_next - _size + _timestamps.length) % _timestamps.length];
+        }
+
+        /**
+         * @return KB received and sent over the buffered period, i.e. the
+         *         average rate times the time the samples span
+         */
+        Pair<Double, Double> getTotals() {
+            if (_size == 0) {
+                return new Pair<Double, Double>(0.0, 0.0);
+            }
+            double rx = 0;
+            double tx = 0;
+            for (int i = 0; i < _size; i++) {
+                rx += _rx[i];
+                tx += _tx[i];
+            }
+            long seconds = (getNewest() - getOldest()) / 1000 + REALTIME_INTERVAL;
+            return new Pair<Double, Double>(rx / _size * seconds, tx / _size * seconds);
+        }
+    }
+
+    /**
+     * @param capacity samples kept per VM, at 20 seconds each
+     */
+    public VmwareVmStatsCollector(int capacity) {
+        _capacity = capacity;
+    }
+
+    /**
+     * Fetches the samples vCenter has recorded since the previous refresh.
+     * Does nothing if that was less than one realtime interval ago, as there
+     * can't be a new sample yet.
+     *
+     * @param vms the VMs to collect for, keyed by name; buffers of VMs not in
+     *        here are dropped
+     */
+    public synchronized void refresh(PerfManagerMO perfMgr, Map<String, ManagedObjectReference> vms) throws Exception {
+        _rings.keySet().retainAll(vms.keySet());
+
+        long now = System.currentTimeMillis();
+        if (now - _lastRefresh < REALTIME_INTERVAL * 1000L && _rings.keySet().containsAll(vms.keySet())) {
+            return;
+        }
+
+        Integer rxKey = perfMgr.getCounterKey("net", "received");
+        Integer txKey = perfMgr.getCounterKey("net", "transmitted");
+        if (rxKey == null || txKey == null) {
+            s_logger.warn("vCenter has no net.received/net.transmitted counters, unable to collect VM network stats");
+            return;
+        }
+
+        DatatypeFactory datatypeFactory = DatatypeFactory.newInstance();
+        Map<String, String> names = new HashMap<String, String>();
+        List<PerfQuerySpec> specs = new ArrayList<PerfQuerySpec>();
+        for (Map.Entry<String, ManagedObjectReference> vm : vms.entrySet()) {
+            names.put(vm.getValue().getValue(), vm.getKey());
+
+            PerfQuerySpec spec = new PerfQuerySpec();
+            spec.setEntity(vm.getValue());
+            spec.setIntervalId(REALTIME_INTERVAL);
+            // the aggregate over all NICs of the VM
+            spec.getMetricId().add(metricId(rxKey));
+            spec.getMetricId().add(metricId(txKey));
+            SampleRing ring = _rings.get(vm.getKey());
+            if (ring != null && ring.size() > 0) {
+                GregorianCalendar start = new GregorianCalendar();
+                start.setTimeInMillis(ring.getNewest());
+                spec.setStartTime(datatypeFactory.newXMLGregorianCalendar(start));
+            } else {
+                spec.setMaxSample(_capacity);
+            }
+            specs.add(spec);
+        }
+
+        int samples = 0;
+        for (int i = 0; i < specs.size(); i += BATCH_SIZE) {
+            List<PerfQuerySpec> batch = specs.subList(i, Math.min(i + BATCH_SIZE, specs.size()));
+            List<PerfEntityMetricBase> values = perfMgr.queryPerf(batch.toArray(new PerfQuerySpec[batch.size()]));
+            if (values == null) {
+                continue;
+            }
+            for (PerfEntityMetricBase value : values) {
+                String name = names.get(value.getEntity().getValue());
+                if (name != null && value instanceof PerfEntityMetric) {
+                    samples += addSamples(name, (PerfEntityMetric)value, rxKey, txKey);
+                }
+            }
+        }
+        _lastRefresh = now;
+
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Collected " + samples + " network samples for " + vms.size() + " VMs in " + ((specs.size() + BATCH_SIZE - 1) / BATCH_SIZE) +
+                " queryPerf calls");
+        }
+    }
+
+    private static PerfMetricId metricId(int counterKey) {
+        PerfMetricId id = new PerfMetricId();
+        id.setCounterId(counterKey);
+        id.setInstance("");
+        return id;
+    }
+
+    private int addSamples(String name, PerfEntityMetric metric, int rxKey, int txKey) {
+        List<PerfSampleInfo> infos = metric.getSampleInfo();
+        if (infos == null || infos.isEmpty()) {
+            return 0;
+        }
+        List<Long> rx = null;
+        List<Long> tx = null;
+        for (PerfMetricSeries series : metric.getValue()) {
+            if (series instanceof PerfMetricIntSeries) {
+                if (series.getId().getCounterId() == rxKey) {
+                    rx = ((PerfMetricIntSeries)series).getValue();
+                } else if (series.getId().getCounterId() == txKey) {
+                    tx = ((PerfMetricIntSeries)series).getValue();
+                }
+            }
+        }
+
+        SampleRing ring = getRing(name);
+        for (int i = 0; i < infos.size(); i++) {
+            XMLGregorianCalendar timestamp = infos.get(i).getTimestamp();
+            ring.add(timestamp.toGregorianCalendar().getTimeInMillis(), value(rx, i), value(tx, i));
+        }
+        return infos.size();
+    }
+
+    private static long value(List<Long> values, int index) {
+        if (values == null || index >= values.size() || values.get(index) < 0) {
+            return 0;
+        }
+        return values.get(index);
+    }
+
+    synchronized SampleRing getRing(String name) {
+        SampleRing ring = _rings.get(name);
+        if (ring == null) {
+            ring = new SampleRing(_capacity);
+            _rings.put(name, ring);
+        }
+        return ring;
+    }
+
+    /**
+     * @return KB received and sent by the VM over the buffered period, or
+     *         zeros if nothing has been collected for it
+     */
+    public synchronized Pair<Double, Double> getNetworkKBs(String name) {
+        SampleRing ring = _rings.get(name);
+        return ring != null ? ring.getTotals() : new Pair<Double, Double>(0.0, 0.0);
+    }
+
+    public synchronized void clear() {
+        _rings.clear();
+        _lastRefresh = 0;
+    }
+}
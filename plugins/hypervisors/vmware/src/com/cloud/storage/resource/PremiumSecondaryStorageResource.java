@@ -28,6 +28,7 @@ import org.apache.log4j.Logger;
 import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.Command;
 import com.cloud.hypervisor.Hypervisor;
+import com.cloud.utils.NumbersUtil;
 
 public class PremiumSecondaryStorageResource extends NfsSecondaryStorageResource {
 
@@ -99,6 +100,9 @@ public class PremiumSecondaryStorageResource extends NfsSecondaryStorageResource
 
     	if(_inSystemVM) {
     		VmwareSecondaryStorageContextFactory.initFactoryEnvironment();
+    		// passed on the SSVM boot line, the same settings the management server uses for its own sessions
+    		VmwareSecondaryStorageContextFactory.configurePool(NumbersUtil.parseInt((String)params.get("vmware.contexts.max.per.vcenter"), 128),
+    		        NumbersUtil.parseLong((String)params.get("vmware.context.acquire.timeout"), 120) * 1000);
     	}
     	
     	registerHandler(Hypervisor.HypervisorType.VMware, new VmwareSecondaryStorageResourceHandler(this));
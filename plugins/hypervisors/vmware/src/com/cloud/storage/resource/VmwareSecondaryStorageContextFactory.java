@@ -32,9 +32,19 @@ public class VmwareSecondaryStorageContextFactory {
 	public static void initFactoryEnvironment() {
 		System.setProperty("axis.socketSecureFactory", "org.apache.axis.components.net.SunFakeTrustSocketFactory");
 		s_pool = new VmwareContextPool();
+		s_pool.registerMBean("VMware secondary storage");
+	}
+
+	public static void configurePool(int maxContextsPerVCenter, long acquireTimeoutMs) {
+		s_pool.setMaxContextsPerKey(maxContextsPerVCenter);
+		s_pool.setAcquireTimeout(acquireTimeoutMs);
 	}
 
 	public static VmwareContext create(String vCenterAddress, String vCenterUserName, String vCenterPassword) throws Exception {
+		return create(vCenterAddress, vCenterUserName, vCenterPassword, null);
+	}
+
+	private static VmwareContext create(String vCenterAddress, String vCenterUserName, String vCenterPassword, VmwareContextPool.Reservation reservation) throws Exception {
 		assert(vCenterAddress != null);
 		assert(vCenterUserName != null);
 		assert(vCenterPassword != null);
@@ -46,20 +56,21 @@ public class VmwareSecondaryStorageContextFactory {
 		assert(context != null);
 		
 		context.setPoolInfo(s_pool, VmwareContextPool.composePoolKey(vCenterAddress, vCenterUserName));
-		s_pool.registerOutstandingContext(context);
+		s_pool.registerOutstandingContext(context, reservation);
 		
 		return context;
 	}
 	
 	public static VmwareContext getContext(String vCenterAddress, String vCenterUserName, String vCenterPassword) throws Exception {
-		VmwareContext context = s_pool.getContext(vCenterAddress, vCenterUserName);
+		// idle contexts are validated by the pool, it may block here if the vCenter is at its session limit
+		VmwareContextPool.Reservation reservation = s_pool.acquire(vCenterAddress, vCenterUserName);
+		VmwareContext context = reservation.getContext();
 		if(context == null) {
-			context = create(vCenterAddress, vCenterUserName, vCenterPassword);
-		} else {
-			if(!context.validate()) {
-				s_logger.info("Validation of the context faild. dispose and create a new one");
-				context.close();
-				context = create(vCenterAddress, vCenterUserName, vCenterPassword);
+			try {
+				context = create(vCenterAddress, vCenterUserName, vCenterPassword, reservation);
+			} catch(Exception e) {
+				s_pool.abortCreate(reservation);
+				throw e;
 			}
 		}
 		
@@ -22,7 +22,9 @@ import com.cloud.agent.api.ScaleVmCommand;
 import com.cloud.agent.api.to.VirtualMachineTO;
 import com.cloud.hypervisor.vmware.mo.VirtualMachineMO;
 import com.cloud.hypervisor.vmware.mo.VmwareHypervisorHost;
+import com.cloud.hypervisor.vmware.util.VmwareClient;
 import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.cloud.hypervisor.vmware.util.VmwareContextPool;
 import com.cloud.hypervisor.vmware.util.VmwareHelper;
 import com.vmware.vim25.VirtualMachineConfigSpec;
 import org.junit.Test;
@@ -32,6 +34,8 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.MockitoAnnotations;
 import static org.mockito.Mockito.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 
 public class VmwareResourceTest {
@@ -80,4 +84,24 @@ public class VmwareResourceTest {
         verify(_resource).execute(cmd);
     }
 
+    @Test
+    public void testInvalidatedServiceContextsFreeTheirPoolSlots() {
+        VmwareContextPool pool = new VmwareContextPool();
+        pool.setMaxContextsPerKey(2);
+        pool.setAcquireTimeout(100);
+
+        // more failures than the pool has slots, every one needs a new session
+        for (int i = 0; i < 10; i++) {
+            VmwareContextPool.Reservation reservation = pool.acquire("vcenter", "admin");
+            assertNull(reservation.getContext());
+            VmwareContext serviceContext = new VmwareContext(mock(VmwareClient.class), "vcenter");
+            serviceContext.setPoolInfo(pool, VmwareContextPool.composePoolKey("vcenter", "admin"));
+            pool.registerOutstandingContext(serviceContext, reservation);
+
+            VmwareResource.s_serviceContext.set(serviceContext);
+            _resource.invalidateServiceContext();
+            assertNull(VmwareResource.s_serviceContext.get());
+        }
+        assertEquals(0, pool.getInUseCount());
+    }
 }
@@ -0,0 +1,132 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.datatype.DatatypeFactory;
+
+import org.junit.Test;
+
+import com.cloud.hypervisor.vmware.mo.PerfManagerMO;
+import com.cloud.utils.Pair;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.PerfEntityMetric;
+import com.vmware.vim25.PerfEntityMetricBase;
+import com.vmware.vim25.PerfMetricId;
+import com.vmware.vim25.PerfMetricIntSeries;
+import com.vmware.vim25.PerfQuerySpec;
+import com.vmware.vim25.PerfSampleInfo;
+
+public class VmwareVmStatsCollectorTest {
+    private static final int RX = 1;
+    private static final int TX = 2;
+
+    private static ManagedObjectReference vmMor(String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType("VirtualMachine");
+        mor.setValue(value);
+        return mor;
+    }
+
+    private static PerfMetricIntSeries series(int counter, long... values) {
+        PerfMetricId id = new PerfMetricId();
+        id.setCounterId(counter);
+        id.setInstance("");
+        PerfMetricIntSeries series = new PerfMetricIntSeries();
+        series.setId(id);
+        for (long value : values) {
+            series.getValue().add(value);
+        }
+        return series;
+    }
+
+    private static PerfEntityMetric metric(ManagedObjectReference mor, long start, long[] rx, long[] tx) throws Exception {
+        PerfEntityMetric metric = new PerfEntityMetric();
+        metric.setEntity(mor);
+        for (int i = 0; i < rx.length; i++) {
+            GregorianCalendar timestamp = new GregorianCalendar();
+            timestamp.setTimeInMillis(start + i * 20000L);
+            PerfSampleInfo info = new PerfSampleInfo();
+            info.setInterval(20);
+            info.setTimestamp(DatatypeFactory.newInstance().newXMLGregorianCalendar(timestamp));
+            metric.getSampleInfo().add(info);
+        }
+        metric.getValue().add(series(RX, rx));
+        metric.getValue().add(series(TX, tx));
+        return metric;
+    }
+
+    @Test
+    public void testRingKeepsNewestSamples() {
+        VmwareVmStatsCollector.SampleRing ring = new VmwareVmStatsCollector.SampleRing(3);
+        ring.add(20000, 10, 1);
+        ring.add(40000, 10, 1);
+        // samples are only ever appended in time order
+        ring.add(40000, 99, 99);
+        assertEquals(2, ring.size());
+        ring.add(60000, 40, 4);
+        ring.add(80000, 40, 4);
+        assertEquals(3, ring.size());
+        assertEquals(40000, ring.getOldest());
+        assertEquals(80000, ring.getNewest());
+
+        // average of 30 KBps over 60 seconds
+        Pair<Double, Double> totals = ring.getTotals();
+        assertEquals(30 * 60.0, totals.first(), 0.001);
+        assertEquals(3 * 60.0, totals.second(), 0.001);
+    }
+
+    @Test
+    public void testOneQueryForAllVms() throws Exception {
+        PerfManagerMO perfMgr = mock(PerfManagerMO.class);
+        when(perfMgr.getCounterKey("net", "received")).thenReturn(RX);
+        when(perfMgr.getCounterKey("net", "transmitted")).thenReturn(TX);
+
+        Map<String, ManagedObjectReference> vms = new HashMap<String, ManagedObjectReference>();
+        vms.put("i-2-3-VM", vmMor("vm-3"));
+        vms.put("i-2-4-VM", vmMor("vm-4"));
+
+        List<PerfEntityMetricBase> values = new ArrayList<PerfEntityMetricBase>();
+        values.add(metric(vms.get("i-2-3-VM"), 1000000, new long[] {100, 200}, new long[] {10, 20}));
+        values.add(metric(vms.get("i-2-4-VM"), 1000000, new long[] {0, -1}, new long[] {0, 0}));
+        when(perfMgr.queryPerf(any(PerfQuerySpec[].class))).thenReturn(values);
+
+        VmwareVmStatsCollector collector = new VmwareVmStatsCollector(15);
+        collector.refresh(perfMgr, vms);
+        verify(perfMgr, times(1)).queryPerf(any(PerfQuerySpec[].class));
+
+        assertEquals(150 * 40.0, collector.getNetworkKBs("i-2-3-VM").first(), 0.001);
+        assertEquals(15 * 40.0, collector.getNetworkKBs("i-2-3-VM").second(), 0.001);
+        assertEquals(0, collector.getNetworkKBs("i-2-4-VM").first(), 0.001);
+
+        // served from memory until vCenter can have a new sample
+        collector.refresh(perfMgr, vms);
+        verify(perfMgr, times(1)).queryPerf(any(PerfQuerySpec[].class));
+    }
+}
@@ -257,28 +257,21 @@ import org.apache.cloudstack.storage.to.VolumeObjectTO;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Logger;
 import org.apache.xmlrpc.XmlRpcException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 
 import javax.ejb.Local;
 import javax.naming.ConfigurationException;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -319,6 +312,8 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     protected String _pod;
     protected String _cluster;
     protected static final XenServerPoolVms s_vms = new XenServerPoolVms();
+    protected final XenServerVmEventTracker _vmEventTracker = new XenServerVmEventTracker();
+    protected boolean _incrementalVmSync = true;
     protected String _privateNetworkName;
     protected String _linkLocalPrivateNetworkName;
     protected String _publicNetworkName;
@@ -339,6 +334,8 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     // Guest and Host Performance Statistics
     protected String _consolidationFunction = "AVERAGE";
     protected int _pollingIntervalInSeconds = 60;
+    protected volatile RrdUpdates _lastHostRrd;
+    protected volatile RrdUpdates _lastVmRrd;
 
     //Hypervisor specific params with generic value, may need to be overridden for specific versions
     long _xs_memory_used = 128 * 1024 * 1024L; // xen hypervisor used 128 M
@@ -2521,65 +2518,46 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
     protected HostStatsEntry getHostStats(Connection conn, GetHostStatsCommand cmd, String hostGuid, long hostId) {
 
         HostStatsEntry hostStats = new HostStatsEntry(hostId, 0, 0, 0, "host", 0, 0, 0, 0);
-        Object[] rrdData = getRRDData(conn, 1); // call rrd method with 1 for host
+        RrdUpdates rrd = getRrdUpdates(conn, true);
 
-        if (rrdData == null) {
+        if (rrd == null) {
             return null;
         }
 
-        Integer numRows = (Integer) rrdData[0];
-        Integer numColumns = (Integer) rrdData[1];
-        Node legend = (Node) rrdData[2];
-        Node dataNode = (Node) rrdData[3];
+        for (int col = 0; col < rrd.getColumnCount(); col++) {
+            String type = rrd.getType(col);
+            String param = rrd.getParam(col);
 
-        NodeList legendChildren = legend.getChildNodes();
-        for (int col = 0; col < numColumns; col++) {
-
-            if (legendChildren == null || legendChildren.item(col) == null) {
-                continue;
-            }
-
-            String columnMetadata = getXMLNodeValue(legendChildren.item(col));
-
-            if (columnMetadata == null) {
+            if (type == null) {
                 continue;
             }
 
-            String[] columnMetadataList = columnMetadata.split(":");
-
-            if (columnMetadataList.length != 4) {
-                continue;
-            }
-
-            String type = columnMetadataList[1];
-            String param = columnMetadataList[3];
-
             if (type.equalsIgnoreCase("host")) {
 
                 if (param.contains("pif_eth0_rx")) {
-                    hostStats.setNetworkReadKBs(getDataAverage(dataNode, col, numRows));
+                    hostStats.setNetworkReadKBs(rrd.getAverage(col));
                 }
 
                 if (param.contains("pif_eth0_tx")) {
-                    hostStats.setNetworkWriteKBs(getDataAverage(dataNode, col, numRows));
+                    hostStats.setNetworkWriteKBs(rrd.getAverage(col));
                 }
 
                 if (param.contains("memory_total_kib")) {
-                    hostStats.setTotalMemoryKBs(getDataAverage(dataNode, col, numRows));
+                    hostStats.setTotalMemoryKBs(rrd.getAverage(col));
                 }
 
                 if (param.contains("memory_free_kib")) {
-                    hostStats.setFreeMemoryKBs(getDataAverage(dataNode, col, numRows));
+                    hostStats.setFreeMemoryKBs(rrd.getAverage(col));
                 }
 
                 if (param.contains("cpu")) {
                     // hostStats.setNumCpus(hostStats.getNumCpus() + 1);
-                    hostStats.setCpuUtilization(hostStats.getCpuUtilization() + getDataAverage(dataNode, col, numRows));
+                    hostStats.setCpuUtilization(hostStats.getCpuUtilization() + rrd.getAverage(col));
                 }
 
                 /*
                 if (param.contains("loadavg")) {
-                    hostStats.setAverageLoad((hostStats.getAverageLoad() + getDataAverage(dataNode, col, numRows)));
+                    hostStats.setAverageLoad((hostStats.getAverageLoad() + rrd.getAverage(col)));
                 }
                  */
             }
@@ -2641,40 +2619,21 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
             vmResponseMap.put(vmUUID, new VmStatsEntry(0, 0, 0, 0, "vm"));
         }
 
-        Object[] rrdData = getRRDData(conn, 2); // call rrddata with 2 for vm
+        RrdUpdates rrd = getRrdUpdates(conn, false);
 
-        if (rrdData == null) {
+        if (rrd == null) {
             return null;
         }
 
-        Integer numRows = (Integer) rrdData[0];
-        Integer numColumns = (Integer) rrdData[1];
-        Node legend = (Node) rrdData[2];
-        Node dataNode = (Node) rrdData[3];
-
-        NodeList legendChildren = legend.getChildNodes();
-        for (int col = 0; col < numColumns; col++) {
-
-            if (legendChildren == null || legendChildren.item(col) == null) {
-                continue;
-            }
-
-            String columnMetadata = getXMLNodeValue(legendChildren.item(col));
+        for (int col = 0; col < rrd.getColumnCount(); col++) {
+            String type = rrd.getType(col);
+            String uuid = rrd.getUuid(col);
+            String param = rrd.getParam(col);
 
-            if (columnMetadata == null) {
+            if (type == null) {
                 continue;
             }
 
-            String[] columnMetadataList = columnMetadata.split(":");
-
-            if (columnMetadataList.length != 4) {
-                continue;
-            }
-
-            String type = columnMetadataList[1];
-            String uuid = columnMetadataList[2];
-            String param = columnMetadataList[3];
-
             if (type.equals("vm") && vmResponseMap.keySet().contains(uuid)) {
                 VmStatsEntry vmStatsAnswer = vmResponseMap.get(uuid);
 
@@ -2682,11 +2641,11 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
                 if (param.contains("cpu")) {
                     vmStatsAnswer.setNumCPUs(vmStatsAnswer.getNumCPUs() + 1);
-                    vmStatsAnswer.setCPUUtilization(((vmStatsAnswer.getCPUUtilization() + getDataAverage(dataNode, col, numRows))));
+                    vmStatsAnswer.setCPUUtilization(((vmStatsAnswer.getCPUUtilization() + rrd.getAverage(col))));
                 } else if (param.matches("vif_\\d_rx")) {
-                    vmStatsAnswer.setNetworkReadKBs(vmStatsAnswer.getNetworkReadKBs() + (getDataAverage(dataNode, col, numRows)/(8*2)));
+                    vmStatsAnswer.setNetworkReadKBs(vmStatsAnswer.getNetworkReadKBs() + (rrd.getAverage(col)/(8*2)));
                 } else if (param.matches("vif_\\d_tx")) {
-                    vmStatsAnswer.setNetworkWriteKBs(vmStatsAnswer.getNetworkWriteKBs() + (getDataAverage(dataNode, col, numRows)/(8*2)));
+                    vmStatsAnswer.setNetworkWriteKBs(vmStatsAnswer.getNetworkWriteKBs() + (rrd.getAverage(col)/(8*2)));
                 }
             }
 
@@ -2735,130 +2694,79 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         return new GetVmDiskStatsAnswer(cmd, null, null, null);
     }
 
-    protected Object[] getRRDData(Connection conn, int flag) {
-
-        /*
-         * Note: 1 => called from host, hence host stats 2 => called from vm, hence vm stats
-         */
-        String stats = "";
+    /**
+     * Fetches and parses the rows rrd_updates has recorded since the previous
+     * call.  When there is no new row yet, e.g. because stats are polled more
+     * often than the rrd step, the previous result is returned again.  When
+     * the host clock has gone back, the previous result is dropped and all of
+     * the rows are fetched again.
+     *
+     * @param host true for the host columns, false for the vm columns
+     */
+    protected RrdUpdates getRrdUpdates(Connection conn, boolean host) {
+        RrdUpdates last = host ? _lastHostRrd : _lastVmRrd;
+        long after = last != null ? last.getEnd() : 0;
 
+        String stats = null;
         try {
-            if (flag == 1) {
-                stats = getHostStatsRawXML(conn);
-            }
-            if (flag == 2) {
-                stats = getVmStatsRawXML(conn);
+            if (host) {
+                stats = getHostStatsRawXML(conn, after);
+            } else {
+                stats = getVmStatsRawXML(conn, after);
             }
         } catch (Exception e1) {
             s_logger.warn("Error whilst collecting raw stats from plugin: ", e1);
             return null;
         }
 
-        // s_logger.debug("The raw xml stream is:"+stats);
-        // s_logger.debug("Length of raw xml is:"+stats.length());
-
         //stats are null when the host plugin call fails (host down state)
         if(stats == null) {
             return null;
         }
 
-        StringReader statsReader = new StringReader(stats);
-        InputSource statsSource = new InputSource(statsReader);
-
-        Document doc = null;
+        RrdUpdates rrd = null;
         try {
-            doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(statsSource);
+            rrd = RrdUpdates.parse(stats, host ? "host" : "vm", after);
         } catch (Exception e) {
-            s_logger.warn("Exception caught whilst processing the document via document factory:", e);
+            s_logger.warn("Exception caught whilst parsing the rrd updates:", e);
             return null;
         }
 
-        if(doc==null){
-            s_logger.warn("Null document found after tryinh to parse the stats source");
-            return null;
-        }
-
-        NodeList firstLevelChildren = doc.getChildNodes();
-        NodeList secondLevelChildren = (firstLevelChildren.item(0)).getChildNodes();
-        Node metaNode = secondLevelChildren.item(0);
-        Node dataNode = secondLevelChildren.item(1);
-
-        Integer numRows = 0;
-        Integer numColumns = 0;
-        Node legend = null;
-        NodeList metaNodeChildren = metaNode.getChildNodes();
-        for (int i = 0; i < metaNodeChildren.getLength(); i++) {
-            Node n = metaNodeChildren.item(i);
-            if (n.getNodeName().equals("rows")) {
-                numRows = Integer.valueOf(getXMLNodeValue(n));
-            } else if (n.getNodeName().equals("columns")) {
-                numColumns = Integer.valueOf(getXMLNodeValue(n));
-            } else if (n.getNodeName().equals("legend")) {
-                legend = n;
-            }
-        }
-
-        return new Object[] { numRows, numColumns, legend, dataNode };
-    }
-
-    protected String getXMLNodeValue(Node n) {
-        return n.getChildNodes().item(0).getNodeValue();
-    }
-
-    protected double getDataAverage(Node dataNode, int col, int numRows) {
-        double value = 0;
-        double dummy = 0;
-        int numRowsUsed = 0;
-        for (int row = 0; row < numRows; row++) {
-            Node data = dataNode.getChildNodes().item(numRows - 1 - row).getChildNodes().item(col + 1);
-            Double currentDataAsDouble = Double.valueOf(getXMLNodeValue(data));
-            if (!currentDataAsDouble.equals(Double.NaN)) {
-                numRowsUsed += 1;
-                value += currentDataAsDouble;
+        if (rrd.getEnd() < after) {
+            // every row is now stamped before the last one seen, so the
+            // previous result would be returned until the clock caught up
+            s_logger.info("Host clock went back from " + after + " to " + rrd.getEnd() + ", discarding the cached rrd updates");
+            if (host) {
+                _lastHostRrd = null;
+            } else {
+                _lastVmRrd = null;
             }
+            return getRrdUpdates(conn, host);
         }
 
-        if(numRowsUsed == 0)
-        {
-            if((!Double.isInfinite(value))&&(!Double.isNaN(value)))
-            {
-                return value;
-            }
-            else
-            {
-                s_logger.warn("Found an invalid value (infinity/NaN) in getDataAverage(), numRows=0");
-                return dummy;
-            }
+        if (rrd.getRows() == 0 && last != null) {
+            return last;
         }
-        else
-        {
-            if((!Double.isInfinite(value/numRowsUsed))&&(!Double.isNaN(value/numRowsUsed)))
-            {
-                return (value/numRowsUsed);
-            }
-            else
-            {
-                s_logger.warn("Found an invalid value (infinity/NaN) in getDataAverage(), numRows>0");
-                return dummy;
-            }
+        if (host) {
+            _lastHostRrd = rrd;
+        } else {
+            _lastVmRrd = rrd;
         }
-
+        return rrd;
     }
 
-    protected String getHostStatsRawXML(Connection conn) {
-        Date currentDate = new Date();
-        String startTime = String.valueOf(currentDate.getTime() / 1000 - 1000);
-
+    /**
+     * @param startTime host timestamp of the last row already seen, 0 for
+     *        none; the plugin only looks back 100 seconds at most
+     */
+    protected String getHostStatsRawXML(Connection conn, long startTime) {
         return callHostPlugin(conn, "vmops", "gethostvmstats", "collectHostStats", String.valueOf("true"), "consolidationFunction", _consolidationFunction, "interval", String
-                .valueOf(_pollingIntervalInSeconds), "startTime", startTime);
+                .valueOf(_pollingIntervalInSeconds), "startTime", String.valueOf(startTime));
     }
 
-    protected String getVmStatsRawXML(Connection conn) {
-        Date currentDate = new Date();
-        String startTime = String.valueOf(currentDate.getTime() / 1000 - 1000);
-
+    protected String getVmStatsRawXML(Connection conn, long startTime) {
         return callHostPlugin(conn, "vmops", "gethostvmstats", "collectHostStats", String.valueOf("false"), "consolidationFunction", _consolidationFunction, "interval", String
-                .valueOf(_pollingIntervalInSeconds), "startTime", startTime);
+                .valueOf(_pollingIntervalInSeconds), "startTime", String.valueOf(startTime));
     }
 
     protected State convertToState(Types.VmPowerState ps) {
@@ -2868,6 +2776,21 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
     protected HashMap<String, Pair<String, State>> getAllVms(Connection conn) {
         final HashMap<String, Pair<String, State>> vmStates = new HashMap<String, Pair<String, State>>();
+        if (_incrementalVmSync) {
+            Map<String, Pair<String, VmPowerState>> powerStates = _vmEventTracker.getVmStates(conn);
+            if (powerStates != null) {
+                for (Map.Entry<String, Pair<String, VmPowerState>> entry : powerStates.entrySet()) {
+                    VmPowerState ps = entry.getValue().second();
+                    final State state = convertToState(ps);
+                    if (s_logger.isTraceEnabled()) {
+                        s_logger.trace("VM " + entry.getKey() + ": powerstate = " + ps + "; vm state=" + state.toString());
+                    }
+                    vmStates.put(entry.getKey(), new Pair<String, State>(entry.getValue().first(), state));
+                }
+                return vmStates;
+            }
+        }
+
         Map<VM, VM.Record>  vm_map = null;
         for (int i = 0; i < 2; i++) {
             try {
@@ -5930,6 +5853,9 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
 
         _maxNics = NumbersUtil.parseInt((String) params.get("xen.nics.max"), 7);
 
+        value = (String) params.get("xen.vm.sync.incremental");
+        _incrementalVmSync = value == null || Boolean.parseBoolean(value);
+
         if (_pod == null) {
             throw new ConfigurationException("Unable to get the pod");
         }
@@ -8013,6 +7939,7 @@ public abstract class CitrixResourceBase implements ServerResource, HypervisorRe
         synchronized (_cluster.intern()) {
             s_vms.clear(_cluster);
         }
+        _vmEventTracker.reset();
         try {
             Map<VM, VM.Record>  vm_map = VM.getAllRecords(conn);  //USE THIS TO GET ALL VMS FROM  A CLUSTER
             for (VM.Record record: vm_map.values()) {
@@ -0,0 +1,195 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the 
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xen.resource;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.cloud.utils.NumbersUtil;
+
+/**
+ * Column averages of an rrd_updates document, read in a single streaming
+ * pass instead of through a DOM.
+ *
+ * rrd_updates looks like
+ * <pre>
+ * &lt;xport&gt;&lt;meta&gt;&lt;start&gt;..&lt;/start&gt;&lt;step&gt;60&lt;/step&gt;&lt;end&gt;..&lt;/end&gt;&lt;rows&gt;2&lt;/rows&gt;&lt;columns&gt;..&lt;/columns&gt;
+ *   &lt;legend&gt;&lt;entry&gt;AVERAGE:vm:&lt;uuid&gt;:cpu0&lt;/entry&gt;..&lt;/legend&gt;&lt;/meta&gt;
+ * &lt;data&gt;&lt;row&gt;&lt;t&gt;1380000060&lt;/t&gt;&lt;v&gt;0.01&lt;/v&gt;..&lt;/row&gt;..&lt;/data&gt;&lt;/xport&gt;
+ * </pre>
+ * Only the columns of the requested object type ("host" or "vm") are summed,
+ * NaN values are skipped, and rows at or before a given timestamp are
+ * ignored so a poll that asks for start= the previous end never counts a
+ * row twice.
+ */
+public class RrdUpdates {
+    private static final XMLInputFactory s_factory = XMLInputFactory.newInstance();
+    static {
+        s_factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    private long _start;
+    private long _end;
+    private long _step;
+    private int _rows;
+    private final List<String[]> _legend = new ArrayList<String[]>();
+    private double[] _sums;
+    private int[] _counts;
+
+    private RrdUpdates() {
+    }
+
+    /**
+     * @param xml the rrd_updates document
+     * @param type object type of the columns to sum, "host" or "vm"
+     * @param after rows with a timestamp at or before this one are skipped,
+     *        0 to use every row
+     */
+    public static RrdUpdates parse(String xml, String type, long after) throws XMLStreamException {
+        RrdUpdates rrd = new RrdUpdates();
+        boolean[] wanted = null;
+        boolean skipRow = false;
+        int col = -1;
+
+        XMLStreamReader reader = s_factory.createXMLStreamReader(new StringReader(xml));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if (name.equals("v")) {
+                    col++;
+                    if (skipRow || wanted == null || col >= wanted.length || !wanted[col]) {
+                        continue;
+                    }
+                    double value = parseValue(reader.getElementText());
+                    if (!Double.isNaN(value)) {
+                        rrd._sums[col] += value;
+                        rrd._counts[col]++;
+                    }
+                } else if (name.equals("row")) {
+                    col = -1;
+                    skipRow = false;
+                } else if (name.equals("t")) {
+                    long timestamp = NumbersUtil.parseLong(reader.getElementText().trim(), 0);
+                    skipRow = timestamp <= after;
+                    if (!skipRow) {
+                        rrd._rows++;
+                    }
+                } else if (name.equals("entry")) {
+                    rrd._legend.add(reader.getElementText().trim().split(":"));
+                } else if (name.equals("data")) {
+                    int columns = rrd._legend.size();
+                    wanted = new boolean[columns];
+                    rrd._sums = new double[columns];
+                    rrd._counts = new int[columns];
+                    for (int i = 0; i < columns; i++) {
+                        String[] entry = rrd._legend.get(i);
+                        wanted[i] = entry.length == 4 && entry[1].equalsIgnoreCase(type);
+                    }
+                } else if (name.equals("start")) {
+                    rrd._start = NumbersUtil.parseLong(reader.getElementText().trim(), 0);
+                } else if (name.equals("end")) {
+                    rrd._end = NumbersUtil.parseLong(reader.getElementText().trim(), 0);
+                } else if (name.equals("step")) {
+                    rrd._step = NumbersUtil.parseLong(reader.getElementText().trim(), 0);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (rrd._sums == null) {
+            rrd._sums = new double[rrd._legend.size()];
+            rrd._counts = new int[rrd._legend.size()];
+        }
+        return rrd;
+    }
+
+    private static double parseValue(String text) {
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    public long getStart() {
+        return _start;
+    }
+
+    /**
+     * @return timestamp of the newest row, in the host's clock
+     */
+    public long getEnd() {
+        return _end;
+    }
+
+    public long getStep() {
+        return _step;
+    }
+
+    /**
+     * @return number of rows that were used, i.e. newer than the timestamp
+     *         passed to parse
+     */
+    public int getRows() {
+        return _rows;
+    }
+
+    public int getColumnCount() {
+        return _legend.size();
+    }
+
+    /**
+     * @return object type of the column, e.g. "vm", or null if the legend
+     *         entry is not of the form cf:type:uuid:param
+     */
+    public String getType(int col) {
+        String[] entry = _legend.get(col);
+        return entry.length == 4 ? entry[1] : null;
+    }
+
+    public String getUuid(int col) {
+        String[] entry = _legend.get(col);
+        return entry.length == 4 ? entry[2] : null;
+    }
+
+    public String getParam(int col) {
+        String[] entry = _legend.get(col);
+        return entry.length == 4 ? entry[3] : null;
+    }
+
+    /**
+     * @return the average of the non NaN values of the column, 0 if there
+     *         are none or the average is not a finite number
+     */
+    public double getAverage(int col) {
+        if (_counts[col] == 0) {
+            return 0;
+        }
+        double average = _sums[col] / _counts[col];
+        return Double.isInfinite(average) || Double.isNaN(average) ? 0 : average;
+    }
+}
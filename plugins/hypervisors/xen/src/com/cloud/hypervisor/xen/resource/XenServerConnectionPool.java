@@ -870,6 +870,25 @@ public class XenServerConnectionPool {
         public String getIp() {
             return _ip;
         }
+
+        /**
+         * Calls event.from directly.  Event.from in the bindings expects an
+         * array of events back, but the server returns a struct holding the
+         * events and the token to pass on the next call.  Available from
+         * XenServer 6.0 on.
+         *
+         * @param classes lower case class names to watch, e.g. "vm"
+         * @param token token returned by the previous call, or "" to get a
+         *        snapshot of every object of the given classes
+         * @param timeout seconds to wait for an event, 0 returns right away
+         * @return the raw result with the "events" array and the next "token"
+         */
+        @SuppressWarnings("rawtypes")
+        public Map eventFrom(String[] classes, String token, double timeout) throws XmlRpcException, XenAPIException {
+            Object[] params = {getSessionReference(), classes, token, new Double(timeout)};
+            Map response = dispatch("event.from", params);
+            return (Map)response.get("Value");
+        }
         
         @Override
         protected Map dispatch(String method_call, Object[] method_params)  throws XmlRpcException, XenAPIException {
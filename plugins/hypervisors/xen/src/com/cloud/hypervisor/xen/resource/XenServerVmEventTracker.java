@@ -0,0 +1,194 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the 
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xen.resource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.hypervisor.xen.resource.XenServerConnectionPool.XenServerConnection;
+import com.cloud.utils.Pair;
+import com.xensource.xenapi.Connection;
+import com.xensource.xenapi.Types;
+import com.xensource.xenapi.Types.VmPowerState;
+
+/**
+ * Keeps a mirror of the VM and host records of a pool, updated with
+ * event.from, so a VM state sync only transfers the records that changed
+ * since the previous one instead of VM.getAllRecords for the whole pool plus
+ * a host.get_uuid call per running VM.
+ *
+ * Only opaque refs and plain values are kept, never XenAPI objects, so the
+ * mirror stays valid across sessions.  The event token is dropped, and the
+ * next call reloads everything, whenever the server rejects it or a VM
+ * refers to a host we have not seen.
+ */
+public class XenServerVmEventTracker {
+    private static final Logger s_logger = Logger.getLogger(XenServerVmEventTracker.class);
+
+    private static final String[] CLASSES = {"vm", "host"};
+    private static final String NULL_REF = "OpaqueRef:NULL";
+
+    // reload everything now and then in case an event was ever missed
+    protected static final long FULL_RELOAD_INTERVAL = 30 * 60 * 1000L;
+
+    static class VmEntry {
+        final String nameLabel;
+        final String residentOn;
+        final VmPowerState powerState;
+
+        VmEntry(String nameLabel, String residentOn, VmPowerState powerState) {
+            this.nameLabel = nameLabel;
+            this.residentOn = residentOn;
+            this.powerState = powerState;
+        }
+    }
+
+    private final Map<String /* vm ref */, VmEntry> _vms = new HashMap<String, VmEntry>();
+    private final Map<String /* host ref */, String /* host uuid */> _hostUuids = new HashMap<String, String>();
+    private String _token;
+    private long _lastFullLoad;
+    private boolean _unsupported;
+
+    /**
+     * @return power state and host uuid of every VM resident on a host of the
+     *         pool, keyed by name label, skipping dom0, templates and
+     *         snapshots; null if event.from can't be used right now, in which
+     *         case the caller should fall back to VM.getAllRecords
+     */
+    public synchronized Map<String, Pair<String, VmPowerState>> getVmStates(Connection conn) {
+        if (_unsupported || !(conn instanceof XenServerConnection)) {
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        boolean full = _token == null || now - _lastFullLoad > FULL_RELOAD_INTERVAL;
+        Map<?, ?> result;
+        try {
+            result = ((XenServerConnection)conn).eventFrom(CLASSES, full ? "" : _token, 0);
+        } catch (Types.MessageMethodUnknown e) {
+            s_logger.info("event.from is not supported by this XenServer, falling back to polling all VM records");
+            _unsupported = true;
+            reset();
+            return null;
+        } catch (Exception e) {
+            s_logger.warn("Unable to get VM events, reloading all VM records on the next sync", e);
+            reset();
+            return null;
+        }
+
+        if (full) {
+            _vms.clear();
+            _hostUuids.clear();
+            _lastFullLoad = now;
+        }
+        int count = applyEvents(result);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Applied " + count + " VM/host events" + (full ? " (full reload)" : "") + ", tracking " + _vms.size() + " VMs on " + _hostUuids.size() +
+                " hosts");
+        }
+
+        return buildStates();
+    }
+
+    synchronized Map<String, Pair<String, VmPowerState>> buildStates() {
+        Map<String, Pair<String, VmPowerState>> states = new HashMap<String, Pair<String, VmPowerState>>(_vms.size());
+        for (VmEntry vm : _vms.values()) {
+            if (vm.residentOn == null || NULL_REF.equals(vm.residentOn)) {
+                continue;
+            }
+            String hostUuid = _hostUuids.get(vm.residentOn);
+            if (hostUuid == null) {
+                s_logger.warn("VM " + vm.nameLabel + " is on unknown host " + vm.residentOn + ", reloading all VM records");
+                reset();
+                return null;
+            }
+            states.put(vm.nameLabel, new Pair<String, VmPowerState>(hostUuid, vm.powerState));
+        }
+        return states;
+    }
+
+    public synchronized void reset() {
+        _token = null;
+        _vms.clear();
+        _hostUuids.clear();
+    }
+
+    /**
+     * Applies the events of an event.from result to the mirror and keeps its
+     * token for the next call.
+     *
+     * @return the number of events applied
+     */
+    synchronized int applyEvents(Map<?, ?> result) {
+        Object[] events = (Object[])result.get("events");
+        int count = 0;
+        if (events != null) {
+            for (Object item : events) {
+                Map<?, ?> event = (Map<?, ?>)item;
+                String cls = (String)event.get("class");
+                String operation = (String)event.get("operation");
+                String ref = (String)event.get("ref");
+                Map<?, ?> snapshot = (Map<?, ?>)event.get("snapshot");
+                if (ref == null) {
+                    continue;
+                }
+                count++;
+
+                if ("vm".equalsIgnoreCase(cls)) {
+                    if ("del".equals(operation) || snapshot == null || isTrue(snapshot.get("is_control_domain")) || isTrue(snapshot.get("is_a_template")) ||
+                        isTrue(snapshot.get("is_a_snapshot"))) {
+                        _vms.remove(ref);
+                    } else {
+                        _vms.put(ref, new VmEntry((String)snapshot.get("name_label"), (String)snapshot.get("resident_on"),
+                            toPowerState((String)snapshot.get("power_state"))));
+                    }
+                } else if ("host".equalsIgnoreCase(cls)) {
+                    if ("del".equals(operation) || snapshot == null) {
+                        _hostUuids.remove(ref);
+                    } else {
+                        _hostUuids.put(ref, (String)snapshot.get("uuid"));
+                    }
+                }
+            }
+        }
+        _token = (String)result.get("token");
+        return count;
+    }
+
+    synchronized String getToken() {
+        return _token;
+    }
+
+    private static boolean isTrue(Object value) {
+        return value instanceof Boolean ? (Boolean)value : Boolean.parseBoolean(String.valueOf(value));
+    }
+
+    private static VmPowerState toPowerState(String value) {
+        if ("Running".equalsIgnoreCase(value)) {
+            return VmPowerState.RUNNING;
+        } else if ("Halted".equalsIgnoreCase(value)) {
+            return VmPowerState.HALTED;
+        } else if ("Paused".equalsIgnoreCase(value)) {
+            return VmPowerState.PAUSED;
+        } else if ("Suspended".equalsIgnoreCase(value)) {
+            return VmPowerState.SUSPENDED;
+        }
+        return VmPowerState.UNRECOGNIZED;
+    }
+}
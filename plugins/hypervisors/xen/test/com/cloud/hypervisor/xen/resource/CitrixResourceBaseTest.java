@@ -25,6 +25,8 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.MockitoAnnotations;
 import static org.mockito.Mockito.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import com.cloud.hypervisor.xen.resource.CitrixResourceBase.XsHost;
 import com.cloud.agent.api.ScaleVmCommand;
@@ -156,4 +158,33 @@ public class CitrixResourceBaseTest {
         verify(_resource, times(1)).callHostPlugin(conn, "vmops", "add_to_VCPUs_params_live", "key", "weight", "value", "253", "vmname", "i-2-3-VM");
         verify(_resource, times(1)).callHostPlugin(conn, "vmops", "add_to_VCPUs_params_live", "key", "cap", "value", "99", "vmname", "i-2-3-VM");
     }
+
+    private static String rrdUpdates(long end) {
+        return "<xport><meta><start>" + (end - 60) + "</start><step>60</step><end>" + end + "</end><rows>2</rows><columns>1</columns>"
+            + "<legend><entry>AVERAGE:vm:7b2c1c44-5d0e-4c63-a0f1-2d4f3e1b9a55:cpu0</entry></legend></meta>"
+            + "<data><row><t>" + end + "</t><v>0.3</v></row><row><t>" + (end - 60) + "</t><v>0.1</v></row></data></xport>";
+    }
+
+    @Test
+    public void testRrdUpdatesReusedUntilNewRows() {
+        doReturn(rrdUpdates(1380000120)).when(_resource).getVmStatsRawXML(conn, 0);
+        doReturn(rrdUpdates(1380000120)).when(_resource).getVmStatsRawXML(conn, 1380000120);
+
+        RrdUpdates first = _resource.getRrdUpdates(conn, false);
+        assertEquals(2, first.getRows());
+        assertSame(first, _resource.getRrdUpdates(conn, false));
+    }
+
+    @Test
+    public void testRrdUpdatesRefetchedWhenHostClockGoesBack() {
+        doReturn(rrdUpdates(1380000120)).doReturn(rrdUpdates(1370000060)).when(_resource).getVmStatsRawXML(eq(conn), anyLong());
+
+        assertEquals(1380000120, _resource.getRrdUpdates(conn, false).getEnd());
+        RrdUpdates rrd = _resource.getRrdUpdates(conn, false);
+        assertEquals(1370000060, rrd.getEnd());
+        assertEquals(2, rrd.getRows());
+        assertEquals(0.2, rrd.getAverage(0), 0.0001);
+        verify(_resource, times(1)).getVmStatsRawXML(conn, 1380000120);
+        verify(_resource, times(2)).getVmStatsRawXML(conn, 0);
+    }
 }
\ No newline at end of file
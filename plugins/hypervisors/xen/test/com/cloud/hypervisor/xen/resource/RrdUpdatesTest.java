@@ -0,0 +1,122 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xen.resource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.UUID;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class RrdUpdatesTest {
+    private static final String HOST = "0c6d3d1e-1a8c-4a9e-9f3b-4f5a2a7f8e11";
+    private static final String VM = "7b2c1c44-5d0e-4c63-a0f1-2d4f3e1b9a55";
+
+    // the shape of what rrd_updates returns for host=false
+    private static final String SAMPLE = "<xport><meta><start>1380000000</start><step>60</step><end>1380000120</end><rows>3</rows><columns>4</columns>"
+        + "<legend><entry>AVERAGE:vm:" + VM + ":cpu0</entry><entry>AVERAGE:vm:" + VM + ":vif_0_rx</entry>"
+        + "<entry>AVERAGE:host:" + HOST + ":cpu0</entry><entry>broken</entry></legend></meta>"
+        + "<data><row><t>1380000120</t><v>0.3</v><v>NaN</v><v>0.9</v><v>1</v></row>"
+        + "<row><t>1380000060</t><v>0.1</v><v>2048.0</v><v>0.5</v><v>1</v></row>"
+        + "<row><t>1380000000</t><v>0.2</v><v>1024.0</v><v>0.1</v><v>1</v></row></data></xport>";
+
+    @Test
+    public void testAverages() throws Exception {
+        RrdUpdates rrd = RrdUpdates.parse(SAMPLE, "vm", 0);
+        assertEquals(1380000120, rrd.getEnd());
+        assertEquals(60, rrd.getStep());
+        assertEquals(3, rrd.getRows());
+        assertEquals(4, rrd.getColumnCount());
+
+        assertEquals("vm", rrd.getType(0));
+        assertEquals(VM, rrd.getUuid(0));
+        assertEquals("cpu0", rrd.getParam(0));
+        assertEquals(0.2, rrd.getAverage(0), 0.0001);
+        // NaN values are not counted
+        assertEquals(1536.0, rrd.getAverage(1), 0.0001);
+        // only the requested type is summed
+        assertEquals(0, rrd.getAverage(2), 0);
+        assertEquals(null, rrd.getType(3));
+    }
+
+    @Test
+    public void testRowsAlreadySeenAreSkipped() throws Exception {
+        RrdUpdates rrd = RrdUpdates.parse(SAMPLE, "vm", 1380000060);
+        assertEquals(1, rrd.getRows());
+        assertEquals(0.3, rrd.getAverage(0), 0.0001);
+        assertEquals(0, rrd.getAverage(1), 0);
+
+        assertEquals(0, RrdUpdates.parse(SAMPLE, "vm", 1380000120).getRows());
+    }
+
+    private static String generate(int vms, int rows) {
+        StringBuilder legend = new StringBuilder();
+        int columns = 0;
+        for (int i = 0; i < vms; i++) {
+            String uuid = UUID.randomUUID().toString();
+            for (String param : new String[] {"cpu0", "cpu1", "vif_0_rx", "vif_0_tx", "vbd_xvda_read", "vbd_xvda_write", "memory"}) {
+                legend.append("<entry>AVERAGE:vm:").append(uuid).append(':').append(param).append("</entry>");
+                columns++;
+            }
+        }
+        StringBuilder xml = new StringBuilder();
+        xml.append("<xport><meta><start>1380000000</start><step>60</step><end>").append(1380000000 + 60 * (rows - 1)).append("</end><rows>").append(rows)
+            .append("</rows><columns>").append(columns).append("</columns><legend>").append(legend).append("</legend></meta><data>");
+        for (int row = rows - 1; row >= 0; row--) {
+            xml.append("<row><t>").append(1380000000 + 60 * row).append("</t>");
+            for (int col = 0; col < columns; col++) {
+                xml.append("<v>").append(col % 13 == 0 ? "NaN" : String.valueOf(col * 0.001 + row)).append("</v>");
+            }
+            xml.append("</row>");
+        }
+        return xml.append("</data></xport>").toString();
+    }
+
+    // the per column average the DOM based code used to compute
+    private static double domAverage(NodeList rows, int col) {
+        double sum = 0;
+        int count = 0;
+        for (int row = 0; row < rows.getLength(); row++) {
+            double value = Double.valueOf(rows.item(row).getChildNodes().item(col + 1).getChildNodes().item(0).getNodeValue());
+            if (!Double.isNaN(value)) {
+                sum += value;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    @Test
+    public void testAveragesMatchDom() throws Exception {
+        String xml = generate(30, 3);
+        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        RrdUpdates rrd = RrdUpdates.parse(xml, "vm", 0);
+
+        NodeList rows = doc.getElementsByTagName("row");
+        assertEquals(rows.getLength(), rrd.getRows());
+        assertEquals(210, rrd.getColumnCount());
+        for (int col = 0; col < rrd.getColumnCount(); col++) {
+            assertEquals(domAverage(rows, col), rrd.getAverage(col), 0.000001);
+        }
+    }
+}
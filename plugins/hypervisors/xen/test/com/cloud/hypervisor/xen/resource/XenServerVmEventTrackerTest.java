@@ -0,0 +1,120 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.xen.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+import com.xensource.xenapi.Types.VmPowerState;
+
+public class XenServerVmEventTrackerTest {
+
+    private static Map<String, Object> event(String cls, String operation, String ref, Map<String, Object> snapshot) {
+        Map<String, Object> event = new HashMap<String, Object>();
+        event.put("class", cls);
+        event.put("operation", operation);
+        event.put("ref", ref);
+        if (snapshot != null) {
+            event.put("snapshot", snapshot);
+        }
+        return event;
+    }
+
+    private static Map<String, Object> vm(String name, String residentOn, String powerState) {
+        Map<String, Object> vm = new HashMap<String, Object>();
+        vm.put("name_label", name);
+        vm.put("resident_on", residentOn);
+        vm.put("power_state", powerState);
+        vm.put("is_control_domain", false);
+        vm.put("is_a_template", false);
+        vm.put("is_a_snapshot", false);
+        return vm;
+    }
+
+    private static Map<String, Object> host(String uuid) {
+        Map<String, Object> host = new HashMap<String, Object>();
+        host.put("uuid", uuid);
+        return host;
+    }
+
+    private static Map<String, Object> result(String token, List<Map<String, Object>> events) {
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("events", events.toArray());
+        result.put("token", token);
+        return result;
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        XenServerVmEventTracker tracker = new XenServerVmEventTracker();
+
+        List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+        events.add(event("host", "add", "OpaqueRef:h1", host("host-1")));
+        events.add(event("host", "add", "OpaqueRef:h2", host("host-2")));
+        events.add(event("vm", "add", "OpaqueRef:v1", vm("i-2-3-VM", "OpaqueRef:h1", "Running")));
+        events.add(event("vm", "add", "OpaqueRef:v2", vm("r-4-VM", "OpaqueRef:h2", "Running")));
+        events.add(event("vm", "add", "OpaqueRef:v3", vm("i-2-5-VM", "OpaqueRef:NULL", "Halted")));
+        Map<String, Object> dom0 = vm("Control domain on host: host-1", "OpaqueRef:h1", "Running");
+        dom0.put("is_control_domain", true);
+        events.add(event("vm", "add", "OpaqueRef:d1", dom0));
+        assertEquals(6, tracker.applyEvents(result("1", events)));
+        assertEquals("1", tracker.getToken());
+
+        Map<String, Pair<String, VmPowerState>> states = tracker.buildStates();
+        assertEquals(2, states.size());
+        assertEquals("host-1", states.get("i-2-3-VM").first());
+        assertEquals(VmPowerState.RUNNING, states.get("i-2-3-VM").second());
+        assertFalse(states.containsKey("i-2-5-VM"));
+
+        // a migration, a stop and a start
+        events.clear();
+        events.add(event("vm", "mod", "OpaqueRef:v1", vm("i-2-3-VM", "OpaqueRef:h2", "Running")));
+        events.add(event("vm", "mod", "OpaqueRef:v2", vm("r-4-VM", "OpaqueRef:NULL", "Halted")));
+        events.add(event("vm", "mod", "OpaqueRef:v3", vm("i-2-5-VM", "OpaqueRef:h1", "Running")));
+        tracker.applyEvents(result("2", events));
+
+        states = tracker.buildStates();
+        assertEquals(2, states.size());
+        assertEquals("host-2", states.get("i-2-3-VM").first());
+        assertEquals("host-1", states.get("i-2-5-VM").first());
+
+        events.clear();
+        events.add(event("vm", "del", "OpaqueRef:v1", null));
+        tracker.applyEvents(result("3", events));
+        assertEquals(1, tracker.buildStates().size());
+    }
+
+    @Test
+    public void testUnknownHostForcesReload() {
+        XenServerVmEventTracker tracker = new XenServerVmEventTracker();
+        List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+        events.add(event("vm", "add", "OpaqueRef:v1", vm("i-2-3-VM", "OpaqueRef:h9", "Running")));
+        tracker.applyEvents(result("1", events));
+
+        assertNull(tracker.buildStates());
+        assertNull(tracker.getToken());
+    }
+}
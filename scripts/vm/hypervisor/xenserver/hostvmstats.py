@@ -25,21 +25,26 @@ logging.basicConfig(filename='/tmp/xapilog',level=logging.DEBUG)
                       
 def get_stats(session, collect_host_stats, consolidation_function, interval, start_time):
   try:
-    
+    # start from the last row the caller has seen, but never look back
+    # further than 100 seconds
+    start = int(time.time())-100
+    if start_time and int(start_time) > start :
+    	start = int(start_time)
+
     if collect_host_stats == "true" :
     	url = "http://localhost/rrd_updates?"
    	url += "session_id=" + session._session
    	url += "&host=" + collect_host_stats
     	url += "&cf=" + consolidation_function
     	url += "&interval=" + str(interval)
-    	url += "&start=" + str(int(time.time())-100)
+    	url += "&start=" + str(start)
     else :
     	url = "http://localhost/rrd_updates?"
    	url += "session_id=" + session._session
    	url += "&host=" + collect_host_stats
     	url += "&cf=" + consolidation_function
     	url += "&interval=" + str(interval)
-    	url += "&start=" + str(int(time.time())-100)
+    	url += "&start=" + str(start)
 
     logging.debug("Calling URL: %s",url)
     sock = urllib.URLopener().open(url)
@@ -29,7 +29,6 @@ import com.cloud.dc.DataCenter;
 import com.cloud.dc.DedicatedResourceVO;
 import com.cloud.dc.dao.DedicatedResourceDao;
 import com.cloud.domain.Domain;
-import com.cloud.domain.dao.DomainDao;
 import com.cloud.exception.PermissionDeniedException;
 import com.cloud.network.Network;
 import com.cloud.network.NetworkModel;
@@ -41,6 +40,7 @@ import com.cloud.storage.LaunchPermissionVO;
 import com.cloud.storage.dao.LaunchPermissionDao;
 import com.cloud.template.VirtualMachineTemplate;
 import com.cloud.user.Account;
+import com.cloud.user.DomainManager;
 import com.cloud.user.User;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.utils.component.AdapterBase;
@@ -49,7 +49,7 @@ import com.cloud.utils.component.AdapterBase;
 @Local(value = SecurityChecker.class)
 public class DomainChecker extends AdapterBase implements SecurityChecker {
     
-    @Inject DomainDao _domainDao;
+    @Inject DomainManager _domainMgr;
     @Inject AccountDao _accountDao;
     @Inject LaunchPermissionDao _launchPermissionDao;
     @Inject ProjectManager _projectMgr;
@@ -73,7 +73,7 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
             if (caller.getDomainId() != domainId) {
                 throw new PermissionDeniedException(caller + " does not have permission to operate within domain id=" + domain.getId());
             }
-        } else if (!_domainDao.isChildDomain(caller.getDomainId(), domainId)) {
+        } else if (!_domainMgr.isChildDomain(caller.getDomainId(), domainId)) {
             throw new PermissionDeniedException(caller + " does not have permission to operate within domain id=" + domain.getId());
         }
         
@@ -172,21 +172,9 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
             else if (account.getType() == Account.ACCOUNT_TYPE_NORMAL || account.getType() == Account.ACCOUNT_TYPE_RESOURCE_DOMAIN_ADMIN || account.getType() == Account.ACCOUNT_TYPE_DOMAIN_ADMIN) {
                 if (account.getDomainId() == dof.getDomainId()) {
 					return true; //disk offering and account at exact node
-                } else {
-                    Domain domainRecord = _domainDao.findById(account.getDomainId());
-                    if (domainRecord != null) {
-                        while (true) {
-                            if (domainRecord.getId() == dof.getDomainId()) {
-		    					//found as a child
-		    					return true;
-		    				}
-                            if (domainRecord.getParent() != null) {
-                                domainRecord = _domainDao.findById(domainRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
+                } else if (_domainMgr.isChildDomain(dof.getDomainId(), account.getDomainId())) {
+                    //found as a child
+                    return true;
 				}
 			}
 		}
@@ -208,21 +196,9 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
             else if (account.getType() == Account.ACCOUNT_TYPE_NORMAL || account.getType() == Account.ACCOUNT_TYPE_RESOURCE_DOMAIN_ADMIN || account.getType() == Account.ACCOUNT_TYPE_DOMAIN_ADMIN) {
                 if (account.getDomainId() == so.getDomainId()) {
 					return true; //service offering and account at exact node
-                } else {
-                    Domain domainRecord = _domainDao.findById(account.getDomainId());
-                    if (domainRecord != null) {
-                        while (true) {
-                            if (domainRecord.getId() == so.getDomainId()) {
-		    					//found as a child
-		    					return true;
-		    				}
-                            if (domainRecord.getParent() != null) {
-                                domainRecord = _domainDao.findById(domainRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
+                } else if (_domainMgr.isChildDomain(so.getDomainId(), account.getDomainId())) {
+                    //found as a child
+                    return true;
 				}
 			}
 		}
@@ -256,21 +232,9 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
                 }
                 if (account.getDomainId() == zone.getDomainId()) {
 					return true; //zone and account at exact node
-                } else {
-                    Domain domainRecord = _domainDao.findById(account.getDomainId());
-                    if (domainRecord != null) {
-                        while (true) {
-                            if (domainRecord.getId() == zone.getDomainId()) {
-		    					//found as a child
-		    					return true;
-		    				}
-                            if (domainRecord.getParent() != null) {
-                                domainRecord = _domainDao.findById(domainRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
+                } else if (_domainMgr.isChildDomain(zone.getDomainId(), account.getDomainId())) {
+                    //found as a child
+                    return true;
 				}
 				//not found
 				return false;
@@ -280,27 +244,12 @@ public class DomainChecker extends AdapterBase implements SecurityChecker {
             else if (account.getType() == Account.ACCOUNT_TYPE_DOMAIN_ADMIN) {
                 if (account.getDomainId() == zone.getDomainId()) {
 					return true; //zone and account at exact node
-                } else {
-                    Domain zoneDomainRecord = _domainDao.findById(zone.getDomainId());
-                    Domain accountDomainRecord = _domainDao.findById(account.getDomainId());
-                    if (accountDomainRecord != null) {
-                        Domain localRecord = accountDomainRecord;
-                        while (true) {
-                            if (localRecord.getId() == zone.getDomainId()) {
-		    					//found as a child
-		    					return true;
-		    				}
-                            if (localRecord.getParent() != null) {
-                                localRecord = _domainDao.findById(localRecord.getParent());
-                            } else {
-                                break;
-                            }
-		    			}
-		    		}
-		    		//didn't find in upper tree
-                    if (zoneDomainRecord.getPath().contains(accountDomainRecord.getPath())) {
-		    			return true;
-		    		}
+                } else if (_domainMgr.isChildDomain(zone.getDomainId(), account.getDomainId())) {
+                    //found as a child
+                    return true;
+                } else if (_domainMgr.isChildDomain(account.getDomainId(), zone.getDomainId())) {
+                    //zone's domain is below the account's
+                    return true;
 				}
 				//not found
 				return false;
@@ -19,6 +19,7 @@ package com.cloud.agent.manager.allocator.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -33,19 +34,18 @@ import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 
 import com.cloud.agent.manager.allocator.HostAllocator;
 import com.cloud.capacity.CapacityManager;
+import com.cloud.capacity.dao.CapacityDao;
 import com.cloud.dc.ClusterDetailsDao;
-import com.cloud.dc.ClusterDetailsVO;
 import com.cloud.dc.dao.ClusterDao;
 import com.cloud.deploy.DeploymentPlan;
 import com.cloud.deploy.DeploymentPlanner.ExcludeList;
-import com.cloud.host.DetailVO;
 import com.cloud.host.Host;
 import com.cloud.host.Host.Type;
 import com.cloud.host.HostVO;
 import com.cloud.host.dao.HostDao;
 import com.cloud.host.dao.HostDetailsDao;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
 import com.cloud.offering.ServiceOffering;
-import com.cloud.org.Cluster;
 import com.cloud.resource.ResourceManager;
 import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.GuestOSCategoryVO;
@@ -99,6 +99,10 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
     ClusterDao _clusterDao;
     @Inject
     ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    CapacityDao _capacityDao;
+    @Inject
+    HypervisorCapabilitiesDao _hypervisorCapabilitiesDao;
     float _factor = 1;
     boolean _checkHvm = true;
     protected String _allocationAlgorithm = "random";
@@ -168,7 +172,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
                 }
 
                 if (hasSvcOfferingTag && hasTemplateTag) {
-                    hostsMatchingOfferingTag.retainAll(hostsMatchingTemplateTag);
+                    hostsMatchingOfferingTag.retainAll(new HashSet<HostVO>(hostsMatchingTemplateTag));
                     clusterHosts = _hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnTemplate);
                     if (s_logger.isDebugEnabled()) {
                         s_logger.debug("Found " + hostsMatchingOfferingTag.size() + " Hosts satisfying both tags, host ids are:" + hostsMatchingOfferingTag);
@@ -187,7 +191,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         // add all hosts that we are not considering to the avoid list
         List<HostVO> allhostsInCluster = _hostDao.listAllUpAndEnabledNonHAHosts(type, clusterId, podId, dcId, null);
-        allhostsInCluster.removeAll(clusterHosts);
+        allhostsInCluster.removeAll(new HashSet<HostVO>(clusterHosts));
         for (HostVO host : allhostsInCluster) {
             avoid.addHost(host.getId());
         }
@@ -219,17 +223,17 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
 
         String haVmTag = (String)vmProfile.getParameter(VirtualMachineProfile.Param.HaTag);
         if (haVmTag != null) {
-            hosts.retainAll(_hostDao.listByHostTag(type, clusterId, podId, dcId, haVmTag));
+            hosts.retainAll(new HashSet<HostVO>(_hostDao.listByHostTag(type, clusterId, podId, dcId, haVmTag)));
         } else {
             if (hostTagOnOffering == null && hostTagOnTemplate == null) {
-                hosts.retainAll(_resourceMgr.listAllUpAndEnabledNonHAHosts(type, clusterId, podId, dcId));
+                hosts.retainAll(new HashSet<HostVO>(_resourceMgr.listAllUpAndEnabledNonHAHosts(type, clusterId, podId, dcId)));
             } else {
                 if (hasSvcOfferingTag) {
-                    hosts.retainAll(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnOffering));
+                    hosts.retainAll(new HashSet<HostVO>(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnOffering)));
                 }
 
                 if (hasTemplateTag) {
-                    hosts.retainAll(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnTemplate));
+                    hosts.retainAll(new HashSet<HostVO>(_hostDao.listByHostTag(type, clusterId, podId, dcId, hostTagOnTemplate)));
                 }
             }
         }
@@ -255,9 +259,12 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             s_logger.debug("FirstFitAllocator has " + hosts.size() + " hosts to check for allocation: " + hosts);
         }
 
+        // Everything the checks below look at is loaded in a few set queries per batch of hosts
+        HostAllocationSnapshot snapshot = createSnapshot();
+
         // We will try to reorder the host lists such that we give priority to hosts that have
         // the minimums to support a VM's requirements
-        hosts = prioritizeHosts(template, hosts);
+        hosts = prioritizeHosts(template, hosts, snapshot);
 
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Found " + hosts.size() + " hosts for allocation after prioritization: " + hosts);
@@ -267,61 +274,70 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
             s_logger.debug("Looking for speed=" + (offering.getCpu() * offering.getSpeed()) + "Mhz, Ram=" + offering.getRamSize());
         }
 
+        int cpu_requested = offering.getCpu() * offering.getSpeed();
+        long ram_requested = offering.getRamSize() * 1024L * 1024L;
         List<Host> suitableHosts = new ArrayList<Host>();
 
-        for (Host host : hosts) {
-            if (suitableHosts.size() == returnUpTo) {
-                break;
-            }
-            if (avoid.shouldAvoid(host)) {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId() + " is in avoid set, skipping this and trying other available hosts");
+        for (int start = 0; start < hosts.size() && suitableHosts.size() != returnUpTo; start += HostAllocationSnapshot.BATCH_SIZE) {
+            List<Host> candidates = new ArrayList<Host>();
+            for (Host host : hosts.subList(start, Math.min(start + HostAllocationSnapshot.BATCH_SIZE, hosts.size()))) {
+                if (avoid.shouldAvoid(host)) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId() + " is in avoid set, skipping this and trying other available hosts");
+                    }
+                    continue;
                 }
-                continue;
+                candidates.add(host);
             }
+            snapshot.loadCapacities(candidates);
 
-            //find number of guest VMs occupying capacity on this host.
-            if (_capacityMgr.checkIfHostReachMaxGuestLimit(host)) {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId()
-                            + " already has max Running VMs(count includes system VMs), skipping this and trying other available hosts");
+            for (Host host : candidates) {
+                if (suitableHosts.size() == returnUpTo) {
+                    break;
                 }
-                continue;
-            }
 
-            boolean numCpusGood = host.getCpus().intValue() >= offering.getCpu();
-            boolean cpuFreqGood = host.getSpeed().intValue() >= offering.getSpeed();
-            int cpu_requested = offering.getCpu() * offering.getSpeed();
-            long ram_requested = offering.getRamSize() * 1024L * 1024L;
-            Cluster cluster = _clusterDao.findById(host.getClusterId());
-            ClusterDetailsVO clusterDetailsCpuOvercommit = _clusterDetailsDao.findDetail(cluster.getId(), "cpuOvercommitRatio");
-            ClusterDetailsVO clusterDetailsRamOvercommmt = _clusterDetailsDao.findDetail(cluster.getId(), "memoryOvercommitRatio");
-            Float cpuOvercommitRatio = Float.parseFloat(clusterDetailsCpuOvercommit.getValue());
-            Float memoryOvercommitRatio = Float.parseFloat(clusterDetailsRamOvercommmt.getValue());
-
-            boolean hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), cpu_requested, ram_requested, false, cpuOvercommitRatio, memoryOvercommitRatio,
-                    considerReservedCapacity);
-
-            if (numCpusGood && cpuFreqGood && hostHasCapacity) {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Found a suitable host, adding to list: " + host.getId());
+                //find number of guest VMs occupying capacity on this host.
+                if (snapshot.hasReachedMaxGuestLimit(host)) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Host name: " + host.getName() + ", hostId: " + host.getId()
+                                + " already has max Running VMs(count includes system VMs), skipping this and trying other available hosts");
+                    }
+                    continue;
                 }
-                suitableHosts.add(host);
-            } else {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Not using host " + host.getId() + "; numCpusGood: " + numCpusGood + "; cpuFreqGood: " + cpuFreqGood + ", host has capacity?" + hostHasCapacity);
+
+                boolean numCpusGood = host.getCpus().intValue() >= offering.getCpu();
+                boolean cpuFreqGood = host.getSpeed().intValue() >= offering.getSpeed();
+                float cpuOvercommitRatio = snapshot.getCpuOvercommitRatio(host.getClusterId());
+                float memoryOvercommitRatio = snapshot.getMemoryOvercommitRatio(host.getClusterId());
+
+                boolean hostHasCapacity = _capacityMgr.checkIfHostHasCapacity(host.getId(), snapshot.getCpuCapacity(host.getId()), snapshot.getMemoryCapacity(host.getId()),
+                        cpu_requested, ram_requested, false, cpuOvercommitRatio, memoryOvercommitRatio, considerReservedCapacity);
+
+                if (numCpusGood && cpuFreqGood && hostHasCapacity) {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Found a suitable host, adding to list: " + host.getId());
+                    }
+                    suitableHosts.add(host);
+                } else {
+                    if (s_logger.isDebugEnabled()) {
+                        s_logger.debug("Not using host " + host.getId() + "; numCpusGood: " + numCpusGood + "; cpuFreqGood: " + cpuFreqGood + ", host has capacity?" + hostHasCapacity);
+                    }
+                    avoid.addHost(host.getId());
                 }
-                avoid.addHost(host.getId());
             }
         }
 
         if (s_logger.isDebugEnabled()) {
-            s_logger.debug("Host Allocator returning " + suitableHosts.size() + " suitable hosts");
+            s_logger.debug("Host Allocator returning " + suitableHosts.size() + " suitable hosts, " + snapshot.getQueryCount() + " queries to check them");
         }
 
         return suitableHosts;
     }
 
+    protected HostAllocationSnapshot createSnapshot() {
+        return new HostAllocationSnapshot(_capacityDao, _vmInstanceDao, _clusterDetailsDao, _hostDetailsDao, _guestOSCategoryDao, _hypervisorCapabilitiesDao);
+    }
+
     private List<? extends Host> reorderHostsByNumberOfVms(DeploymentPlan plan, List<? extends Host> hosts, Account account) {
         if (account == null) {
             return hosts;
@@ -359,7 +375,7 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         return true;
     }
 
-    protected List<? extends Host> prioritizeHosts(VMTemplateVO template, List<? extends Host> hosts) {
+    protected List<? extends Host> prioritizeHosts(VMTemplateVO template, List<? extends Host> hosts, HostAllocationSnapshot snapshot) {
         if (template == null) {
             return hosts;
         }
@@ -367,7 +383,6 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         // Determine the guest OS category of the template
         String templateGuestOSCategory = getTemplateGuestOSCategory(template);
 
-        List<Host> prioritizedHosts = new ArrayList<Host>();
         List<Host> noHvmHosts = new ArrayList<Host>();
 
         // If a template requires HVM and a host doesn't support HVM, remove it from consideration
@@ -391,35 +406,34 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         }
         // If a host is tagged with the same guest OS category as the template, move it to a high priority list
         // If a host is tagged with a different guest OS category than the template, move it to a low priority list
+        // Prioritize the remaining hosts by HVM capability
+        snapshot.loadGuestOSCategories(hostsToCheck);
         List<Host> highPriorityHosts = new ArrayList<Host>();
         List<Host> lowPriorityHosts = new ArrayList<Host>();
+        List<Host> noHvmFirstHosts = new ArrayList<Host>();
+        List<Host> hvmLastHosts = new ArrayList<Host>();
         for (Host host : hostsToCheck) {
-            String hostGuestOSCategory = getHostGuestOSCategory(host);
-            if (hostGuestOSCategory == null) {
-                continue;
-            } else if (templateGuestOSCategory.equals(hostGuestOSCategory)) {
-                highPriorityHosts.add(host);
-            } else {
-                lowPriorityHosts.add(host);
-            }
-        }
-
-        hostsToCheck.removeAll(highPriorityHosts);
-        hostsToCheck.removeAll(lowPriorityHosts);
-
-        // Prioritize the remaining hosts by HVM capability
-        for (Host host : hostsToCheck) {
-            if (!template.isRequiresHvm() && !hostSupportsHVM(host)) {
+            String hostGuestOSCategory = snapshot.getGuestOSCategory(host);
+            if (hostGuestOSCategory != null) {
+                if (templateGuestOSCategory.equals(hostGuestOSCategory)) {
+                    highPriorityHosts.add(host);
+                } else {
+                    lowPriorityHosts.add(host);
+                }
+            } else if (!template.isRequiresHvm() && !hostSupportsHVM(host)) {
                 // Host and template both do not support hvm, put it as first consideration
-                prioritizedHosts.add(0, host);
+                noHvmFirstHosts.add(host);
             } else {
                 // Template doesn't require hvm, but the machine supports it, make it last for consideration
-                prioritizedHosts.add(host);
+                hvmLastHosts.add(host);
             }
         }
 
         // Merge the lists
-        prioritizedHosts.addAll(0, highPriorityHosts);
+        List<Host> prioritizedHosts = new ArrayList<Host>(hostsToCheck.size());
+        prioritizedHosts.addAll(highPriorityHosts);
+        prioritizedHosts.addAll(noHvmFirstHosts);
+        prioritizedHosts.addAll(hvmLastHosts);
         prioritizedHosts.addAll(lowPriorityHosts);
 
         return prioritizedHosts;
@@ -444,30 +458,6 @@ public class FirstFitAllocator extends AdapterBase implements HostAllocator {
         return false;
     }
 
-    protected String getHostGuestOSCategory(Host host) {
-        DetailVO hostDetail = _hostDetailsDao.findDetail(host.getId(), "guest.os.category.id");
-        if (hostDetail != null) {
-            String guestOSCategoryIdString = hostDetail.getValue();
-            long guestOSCategoryId;
-
-            try {
-                guestOSCategoryId = Long.parseLong(guestOSCategoryIdString);
-            } catch (Exception e) {
-                return null;
-            }
-
-            GuestOSCategoryVO guestOSCategory = _guestOSCategoryDao.findById(guestOSCategoryId);
-
-            if (guestOSCategory != null) {
-                return guestOSCategory.getName();
-            } else {
-                return null;
-            }
-        } else {
-            return null;
-        }
-    }
-
     protected String getTemplateGuestOSCategory(VMTemplateVO template) {
         long guestOSId = template.getGuestOSId();
         GuestOSVO guestOS = _guestOSDao.findById(guestOSId);
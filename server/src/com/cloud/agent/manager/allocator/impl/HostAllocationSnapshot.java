@@ -0,0 +1,218 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager.allocator.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityVO;
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.host.Host;
+import com.cloud.host.dao.HostDetailsDao;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
+import com.cloud.storage.GuestOSCategoryVO;
+import com.cloud.storage.dao.GuestOSCategoryDao;
+import com.cloud.utils.NumbersUtil;
+import com.cloud.vm.dao.VMInstanceDao;
+
+/**
+ * Everything FirstFitAllocator looks at for a set of candidate hosts, loaded
+ * with a few set queries per batch of hosts instead of several lookups per
+ * host. A snapshot belongs to a single allocation request and is never
+ * refreshed, the capacity reservation done for the chosen host stays the
+ * authoritative check.
+ */
+public class HostAllocationSnapshot {
+    // keeps the IN lists of the set queries at a reasonable size
+    public static final int BATCH_SIZE = 1000;
+
+    private static final List<Short> HOST_CAPACITY_TYPES = Arrays.asList(Capacity.CAPACITY_TYPE_CPU, Capacity.CAPACITY_TYPE_MEMORY);
+
+    private final CapacityDao _capacityDao;
+    private final VMInstanceDao _vmInstanceDao;
+    private final ClusterDetailsDao _clusterDetailsDao;
+    private final HostDetailsDao _hostDetailsDao;
+    private final GuestOSCategoryDao _guestOSCategoryDao;
+    private final HypervisorCapabilitiesDao _hypervisorCapabilitiesDao;
+
+    private final Map<Long, CapacityVO> _cpuCapacities = new HashMap<Long, CapacityVO>();
+    private final Map<Long, CapacityVO> _memoryCapacities = new HashMap<Long, CapacityVO>();
+    private final Map<Long, Long> _runningVmCounts = new HashMap<Long, Long>();
+    private final Map<Long, Float> _cpuOvercommitRatios = new HashMap<Long, Float>();
+    private final Map<Long, Float> _memoryOvercommitRatios = new HashMap<Long, Float>();
+    // "hypervisor type/version" -> max running guests
+    private final Map<String, Long> _maxGuestsLimits = new HashMap<String, Long>();
+    private final Map<Long, String> _guestOSCategories = new HashMap<Long, String>();
+    private Map<Long, String> _guestOSCategoryNames;
+    private int _queryCount;
+
+    public HostAllocationSnapshot(CapacityDao capacityDao, VMInstanceDao vmInstanceDao, ClusterDetailsDao clusterDetailsDao, HostDetailsDao hostDetailsDao,
+            GuestOSCategoryDao guestOSCategoryDao, HypervisorCapabilitiesDao hypervisorCapabilitiesDao) {
+        _capacityDao = capacityDao;
+        _vmInstanceDao = vmInstanceDao;
+        _clusterDetailsDao = clusterDetailsDao;
+        _hostDetailsDao = hostDetailsDao;
+        _guestOSCategoryDao = guestOSCategoryDao;
+        _hypervisorCapabilitiesDao = hypervisorCapabilitiesDao;
+    }
+
+    /**
+     * Loads the guest OS category of the given hosts.
+     */
+    public void loadGuestOSCategories(List<? extends Host> hosts) {
+        if (_guestOSCategoryNames == null) {
+            _guestOSCategoryNames = new HashMap<Long, String>();
+            for (GuestOSCategoryVO category : _guestOSCategoryDao.listAll()) {
+                _guestOSCategoryNames.put(category.getId(), category.getName());
+            }
+            _queryCount++;
+        }
+
+        for (int start = 0; start < hosts.size(); start += BATCH_SIZE) {
+            List<Long> hostIds = getHostIds(hosts.subList(start, Math.min(start + BATCH_SIZE, hosts.size())));
+            Map<Long, String> categoryIds = _hostDetailsDao.findDetailValues(hostIds, "guest.os.category.id");
+            _queryCount++;
+            for (Map.Entry<Long, String> entry : categoryIds.entrySet()) {
+                long categoryId;
+                try {
+                    categoryId = Long.parseLong(entry.getValue());
+                } catch (Exception e) {
+                    continue;
+                }
+                String name = _guestOSCategoryNames.get(categoryId);
+                if (name != null) {
+                    _guestOSCategories.put(entry.getKey(), name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads capacities, running VM counts, the overcommit ratios of their
+     * clusters and the guest limits of their hypervisors for the given hosts.
+     * Data already in the snapshot is not loaded again.
+     */
+    public void loadCapacities(List<? extends Host> hosts) {
+        List<Long> hostIds = new ArrayList<Long>(hosts.size());
+        List<Long> clusterIds = new ArrayList<Long>();
+        for (Host host : hosts) {
+            if (!_runningVmCounts.containsKey(host.getId())) {
+                hostIds.add(host.getId());
+            }
+            Long clusterId = host.getClusterId();
+            if (clusterId != null && !_cpuOvercommitRatios.containsKey(clusterId) && !clusterIds.contains(clusterId)) {
+                clusterIds.add(clusterId);
+            }
+            String hypervisorKey = getHypervisorKey(host);
+            if (!_maxGuestsLimits.containsKey(hypervisorKey)) {
+                _maxGuestsLimits.put(hypervisorKey, _hypervisorCapabilitiesDao.getMaxGuestsLimit(host.getHypervisorType(), host.getHypervisorVersion()));
+                _queryCount++;
+            }
+        }
+
+        for (int start = 0; start < hostIds.size(); start += BATCH_SIZE) {
+            List<Long> batch = hostIds.subList(start, Math.min(start + BATCH_SIZE, hostIds.size()));
+            for (CapacityVO capacity : _capacityDao.listByHostIdsAndTypes(batch, HOST_CAPACITY_TYPES)) {
+                if (capacity.getCapacityType() == Capacity.CAPACITY_TYPE_CPU) {
+                    _cpuCapacities.put(capacity.getHostOrPoolId(), capacity);
+                } else {
+                    _memoryCapacities.put(capacity.getHostOrPoolId(), capacity);
+                }
+            }
+            Map<Long, Long> vmCounts = _vmInstanceDao.countRunningByHostIds(batch);
+            for (Long hostId : batch) {
+                Long count = vmCounts.get(hostId);
+                _runningVmCounts.put(hostId, count != null ? count : 0L);
+            }
+            _queryCount += 2;
+        }
+
+        if (!clusterIds.isEmpty()) {
+            Map<Long, String> cpuRatios = _clusterDetailsDao.findDetailValues(clusterIds, "cpuOvercommitRatio");
+            Map<Long, String> memoryRatios = _clusterDetailsDao.findDetailValues(clusterIds, "memoryOvercommitRatio");
+            _queryCount += 2;
+            for (Long clusterId : clusterIds) {
+                _cpuOvercommitRatios.put(clusterId, NumbersUtil.parseFloat(cpuRatios.get(clusterId), 1));
+                _memoryOvercommitRatios.put(clusterId, NumbersUtil.parseFloat(memoryRatios.get(clusterId), 1));
+            }
+        }
+    }
+
+    /**
+     * @return the guest OS category name the host is tagged with, null if none
+     */
+    public String getGuestOSCategory(Host host) {
+        return _guestOSCategories.get(host.getId());
+    }
+
+    /**
+     * @return true if the running VM count of the host has reached the guest
+     *         limit of its hypervisor, see CapacityManager.checkIfHostReachMaxGuestLimit()
+     */
+    public boolean hasReachedMaxGuestLimit(Host host) {
+        Long vmCount = _runningVmCounts.get(host.getId());
+        Long maxGuestsLimit = _maxGuestsLimits.get(getHypervisorKey(host));
+        return vmCount != null && maxGuestsLimit != null && vmCount.longValue() >= maxGuestsLimit.longValue();
+    }
+
+    public long getRunningVmCount(long hostId) {
+        Long count = _runningVmCounts.get(hostId);
+        return count != null ? count : 0;
+    }
+
+    public CapacityVO getCpuCapacity(long hostId) {
+        return _cpuCapacities.get(hostId);
+    }
+
+    public CapacityVO getMemoryCapacity(long hostId) {
+        return _memoryCapacities.get(hostId);
+    }
+
+    public float getCpuOvercommitRatio(Long clusterId) {
+        Float ratio = _cpuOvercommitRatios.get(clusterId);
+        return ratio != null ? ratio : 1;
+    }
+
+    public float getMemoryOvercommitRatio(Long clusterId) {
+        Float ratio = _memoryOvercommitRatios.get(clusterId);
+        return ratio != null ? ratio : 1;
+    }
+
+    /**
+     * @return number of queries the snapshot has run so far
+     */
+    public int getQueryCount() {
+        return _queryCount;
+    }
+
+    private static List<Long> getHostIds(List<? extends Host> hosts) {
+        List<Long> hostIds = new ArrayList<Long>(hosts.size());
+        for (Host host : hosts) {
+            hostIds.add(host.getId());
+        }
+        return hostIds;
+    }
+
+    private static String getHypervisorKey(Host host) {
+        return host.getHypervisorType() + "/" + host.getHypervisorVersion();
+    }
+}
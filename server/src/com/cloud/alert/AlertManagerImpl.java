@@ -324,7 +324,8 @@ public class AlertManagerImpl extends ManagerBase implements AlertManager, Confi
             // Calculate storage pool capacity
             List<StoragePoolVO> storagePools = _storagePoolDao.listAll();
             for (StoragePoolVO pool : storagePools) {
-                long disk = _capacityMgr.getAllocatedPoolCapacity(pool, null);
+                // also corrects the allocated capacity the pool allocators work from
+                long disk = _capacityMgr.reconcileAllocatedPoolCapacity(pool);
                 if (pool.isShared()){
                     _storageMgr.createCapacityEntry(pool, Capacity.CAPACITY_TYPE_STORAGE_ALLOCATED, disk);
                 }else {
@@ -17,6 +17,7 @@
 package com.cloud.api;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +63,7 @@ import org.apache.cloudstack.lb.dao.ApplicationLoadBalancerRuleDao;
 import org.apache.cloudstack.storage.datastore.db.PrimaryDataStoreDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
+import com.cloud.api.query.ResponseSideData;
 import com.cloud.api.query.dao.AccountJoinDao;
 import com.cloud.api.query.dao.AffinityGroupJoinDao;
 import com.cloud.api.query.dao.AsyncJobJoinDao;
@@ -254,6 +256,7 @@ import com.cloud.user.Account;
 import com.cloud.user.AccountDetailsDao;
 import com.cloud.user.AccountService;
 import com.cloud.user.AccountVO;
+import com.cloud.user.DomainManager;
 import com.cloud.user.ResourceLimitService;
 import com.cloud.user.SSHKeyPairVO;
 import com.cloud.user.User;
@@ -350,6 +353,7 @@ public class ApiDBUtils {
     static ResourceLimitService _resourceLimitMgr;
     static ProjectService _projectMgr;
     static ResourceManager _resourceMgr;
+    static DomainManager _domainMgr;
     static AccountDetailsDao _accountDetailsDao;
     static NetworkDomainDao _networkDomainDao;
     static HighAvailabilityManager _haMgr;
@@ -462,6 +466,7 @@ public class ApiDBUtils {
     @Inject private ResourceLimitService resourceLimitMgr;
     @Inject private ProjectService projectMgr;
     @Inject private ResourceManager resourceMgr;
+    @Inject private DomainManager domainMgr;
     @Inject private AccountDetailsDao accountDetailsDao;
     @Inject private NetworkDomainDao networkDomainDao;
     @Inject private HighAvailabilityManager haMgr;
@@ -575,6 +580,7 @@ public class ApiDBUtils {
         _resourceLimitMgr = resourceLimitMgr;
         _projectMgr = projectMgr;
         _resourceMgr = resourceMgr;
+        _domainMgr = domainMgr;
         _accountDetailsDao = accountDetailsDao;
         _networkDomainDao = networkDomainDao;
         _haMgr = haMgr;
@@ -731,6 +737,10 @@ public class ApiDBUtils {
         return _storageMgr.isLocalStorageActiveOnHost(hostId);
     }
 
+    public static Set<Long> listHostsWithActiveLocalStorage(List<Long> hostIds) {
+        return _storageMgr.listHostsWithActiveLocalStorage(hostIds);
+    }
+
     public static InstanceGroupVO findInstanceGroupForVM(long vmId) {
         return _userVmMgr.getGroupForVm(vmId);
     }
@@ -768,7 +778,11 @@ public class ApiDBUtils {
     // ///////////////////////////////////////////////////////////
 
     public static Account findAccountById(Long accountId) {
-        return _accountDao.findByIdIncludingRemoved(accountId);
+        Account account = ResponseSideData.getListed(Account.class, accountId);
+        if (account != null) {
+            return account;
+        }
+        return ResponseSideData.putListed(Account.class, accountId, _accountDao.findByIdIncludingRemoved(accountId));
     }
 
     public static Account findAccountByIdIncludingRemoved(Long accountId) {
@@ -793,11 +807,19 @@ public class ApiDBUtils {
     }
 
     public static DiskOfferingVO findDiskOfferingById(Long diskOfferingId) {
-        return _diskOfferingDao.findByIdIncludingRemoved(diskOfferingId);
+        DiskOfferingVO offering = ResponseSideData.getListed(DiskOfferingVO.class, diskOfferingId);
+        if (offering != null) {
+            return offering;
+        }
+        return ResponseSideData.putListed(DiskOfferingVO.class, diskOfferingId, _diskOfferingDao.findByIdIncludingRemoved(diskOfferingId));
     }
 
     public static DomainVO findDomainById(Long domainId) {
-        return _domainDao.findByIdIncludingRemoved(domainId);
+        DomainVO domain = ResponseSideData.getListed(DomainVO.class, domainId);
+        if (domain != null) {
+            return domain;
+        }
+        return ResponseSideData.putListed(DomainVO.class, domainId, _domainDao.findByIdIncludingRemoved(domainId));
     }
 
     public static DomainVO findDomainByIdIncludingRemoved(Long domainId) {
@@ -805,7 +827,7 @@ public class ApiDBUtils {
     }
 
     public static boolean isChildDomain(long parentId, long childId) {
-        return _domainDao.isChildDomain(parentId, childId);
+        return _domainMgr.isChildDomain(parentId, childId);
     }
 
     public static DomainRouterVO findDomainRouterById(Long routerId) {
@@ -855,7 +877,11 @@ public class ApiDBUtils {
     }
 
     public static HostPodVO findPodById(Long podId) {
-        return _podDao.findById(podId);
+        HostPodVO pod = ResponseSideData.getListed(HostPodVO.class, podId);
+        if (pod != null) {
+            return pod;
+        }
+        return ResponseSideData.putListed(HostPodVO.class, podId, _podDao.findById(podId));
     }
 
     public static VolumeVO findRootVolume(long vmId) {
@@ -868,7 +894,11 @@ public class ApiDBUtils {
     }
 
     public static ServiceOffering findServiceOfferingById(Long serviceOfferingId) {
-        return _serviceOfferingDao.findByIdIncludingRemoved(serviceOfferingId);
+        ServiceOffering offering = ResponseSideData.getListed(ServiceOffering.class, serviceOfferingId);
+        if (offering != null) {
+            return offering;
+        }
+        return ResponseSideData.putListed(ServiceOffering.class, serviceOfferingId, _serviceOfferingDao.findByIdIncludingRemoved(serviceOfferingId));
     }
 
     public static Snapshot findSnapshotById(long snapshotId) {
@@ -909,7 +939,11 @@ public class ApiDBUtils {
     }
 
     public static VlanVO findVlanById(long vlanDbId) {
-        return _vlanDao.findById(vlanDbId);
+        VlanVO vlan = ResponseSideData.getListed(VlanVO.class, vlanDbId);
+        if (vlan != null) {
+            return vlan;
+        }
+        return ResponseSideData.putListed(VlanVO.class, vlanDbId, _vlanDao.findById(vlanDbId));
     }
 
     public static VolumeVO findVolumeById(Long volumeId) {
@@ -929,7 +963,11 @@ public class ApiDBUtils {
     }
 
     public static DataCenterVO findZoneById(Long zoneId) {
-        return _zoneDao.findById(zoneId);
+        DataCenterVO zone = ResponseSideData.getListed(DataCenterVO.class, zoneId);
+        if (zone != null) {
+            return zone;
+        }
+        return ResponseSideData.putListed(DataCenterVO.class, zoneId, _zoneDao.findById(zoneId));
     }
 
     public static Long getAccountIdForVlan(long vlanDbId) {
@@ -998,7 +1036,11 @@ public class ApiDBUtils {
     }
 
     public static PhysicalNetworkVO findPhysicalNetworkById(long id) {
-        return _physicalNetworkDao.findById(id);
+        PhysicalNetworkVO network = ResponseSideData.getListed(PhysicalNetworkVO.class, id);
+        if (network != null) {
+            return network;
+        }
+        return ResponseSideData.putListed(PhysicalNetworkVO.class, id, _physicalNetworkDao.findById(id));
     }
 
     public static PhysicalNetworkTrafficTypeVO findPhysicalNetworkTrafficTypeById(long id) {
@@ -1006,7 +1048,11 @@ public class ApiDBUtils {
     }
 
     public static NetworkVO findNetworkById(long id) {
-        return _networkDao.findById(id);
+        NetworkVO network = ResponseSideData.getListed(NetworkVO.class, id);
+        if (network != null) {
+            return network;
+        }
+        return ResponseSideData.putListed(NetworkVO.class, id, _networkDao.findById(id));
     }
 
     public static Map<Service, Map<Capability, String>> getNetworkCapabilities(long networkId, long zoneId) {
@@ -1076,7 +1122,11 @@ public class ApiDBUtils {
     }
 
     public static Project findProjectByProjectAccountId(long projectAccountId) {
-        return _projectMgr.findByProjectAccountId(projectAccountId);
+        Project project = ResponseSideData.getListed(Project.class, projectAccountId);
+        if (project != null) {
+            return project;
+        }
+        return ResponseSideData.putListed(Project.class, projectAccountId, _projectMgr.findByProjectAccountId(projectAccountId));
     }
 
     public static Project findProjectByProjectAccountIdIncludingRemoved(long projectAccountId) {
@@ -1251,7 +1301,11 @@ public class ApiDBUtils {
     }
 
     public static VpcVO findVpcById(long vpcId){
-        return _vpcDao.findById(vpcId);
+        VpcVO vpc = ResponseSideData.getListed(VpcVO.class, vpcId);
+        if (vpc != null) {
+            return vpc;
+        }
+        return ResponseSideData.putListed(VpcVO.class, vpcId, _vpcDao.findById(vpcId));
     }
 
     public static SnapshotPolicy findSnapshotPolicyById(long policyId){
@@ -1453,6 +1507,10 @@ public class ApiDBUtils {
         }
     }
 
+    public static List<ResourceTagJoinVO> listResourceTagViewsByIds(Collection<Long> tagIds){
+        return _tagJoinDao.searchByIds(tagIds.toArray(new Long[tagIds.size()]));
+    }
+
     public static EventResponse newEventResponse(EventJoinVO ve) {
         return _eventJoinDao.newEventResponse(ve);
     }
@@ -1517,6 +1575,10 @@ public class ApiDBUtils {
         return _hostJoinDao.newHostResponse(vr, details);
     }
 
+    public static HostResponse newHostResponse(HostJoinVO vr, EnumSet<HostDetails> details, ResponseSideData sideData) {
+        return _hostJoinDao.newHostResponse(vr, details, sideData);
+    }
+
     public static HostResponse fillHostDetails(HostResponse vrData, HostJoinVO vr){
         return _hostJoinDao.setHostResponse(vrData, vr);
     }
@@ -1525,6 +1587,10 @@ public class ApiDBUtils {
         return _hostJoinDao.newHostForMigrationResponse(vr, details);
     }
 
+    public static HostForMigrationResponse newHostForMigrationResponse(HostJoinVO vr, EnumSet<HostDetails> details, ResponseSideData sideData) {
+        return _hostJoinDao.newHostForMigrationResponse(vr, details, sideData);
+    }
+
     public static HostForMigrationResponse fillHostForMigrationDetails(HostForMigrationResponse vrData, HostJoinVO vr) {
         return _hostJoinDao.setHostForMigrationResponse(vrData, vr);
     }
@@ -1537,11 +1603,19 @@ public class ApiDBUtils {
         return _volJoinDao.newVolumeResponse(vr);
     }
 
+    public static VolumeResponse newVolumeResponse(VolumeJoinVO vr, ResponseSideData sideData) {
+        return _volJoinDao.newVolumeResponse(vr, sideData);
+    }
+
 
     public static VolumeResponse fillVolumeDetails(VolumeResponse vrData, VolumeJoinVO vr){
         return _volJoinDao.setVolumeResponse(vrData, vr);
     }
 
+    public static VolumeResponse fillVolumeDetails(VolumeResponse vrData, VolumeJoinVO vr, ResponseSideData sideData){
+        return _volJoinDao.setVolumeResponse(vrData, vr, sideData);
+    }
+
     public static List<VolumeJoinVO> newVolumeView(Volume vr){
         return _volJoinDao.newVolumeView(vr);
     }
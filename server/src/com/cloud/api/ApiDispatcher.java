@@ -39,6 +39,7 @@ import org.apache.cloudstack.acl.ControlledEntity;
 import org.apache.cloudstack.acl.InfrastructureEntity;
 import org.apache.cloudstack.acl.SecurityChecker.AccessType;
 import org.apache.cloudstack.api.ACL;
+import org.apache.cloudstack.api.APICommand;
 import org.apache.cloudstack.api.ApiConstants;
 import org.apache.cloudstack.api.ApiErrorCode;
 import org.apache.cloudstack.api.BaseAsyncCmd;
@@ -60,6 +61,7 @@ import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.framework.jobs.AsyncJob;
 import org.apache.cloudstack.framework.jobs.AsyncJobManager;
 
+import com.cloud.api.query.ResponseSideData;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.user.Account;
 import com.cloud.user.AccountManager;
@@ -158,7 +160,18 @@ public class ApiDispatcher {
                 }
             }
         }
-        cmd.execute();
+        if (cmd instanceof BaseListCmd) {
+            // list commands read the same zones, networks and owners for many rows
+            APICommand api = cmd.getClass().getAnnotation(APICommand.class);
+            ResponseSideData.beginListing(api != null ? api.name() : cmd.getCommandName());
+            try {
+                cmd.execute();
+            } finally {
+                ResponseSideData.endListing();
+            }
+        } else {
+            cmd.execute();
+        }
 
     }
 
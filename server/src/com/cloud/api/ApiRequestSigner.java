@@ -0,0 +1,127 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Computes the signature of a signed API request.
+ *
+ * The request is signed over its parameters except the signature itself,
+ * sorted by name and joined as name=value pairs with '&', the values URL
+ * encoded with spaces as %20 and the whole string lower cased. canonicalize()
+ * builds that string in one pass into one buffer, giving the same result as
+ * URLEncoder.encode() per value, replaceAll("\\+", "%20") and toLowerCase()
+ * on the concatenation did. The Mac is kept per thread, getInstance() looks
+ * the provider up every time.
+ */
+public class ApiRequestSigner {
+    private static final String ALGORITHM = "HmacSHA1";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<Mac> s_mac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Mac.getInstance(ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new CloudRuntimeException("Unable to get " + ALGORITHM + " instance", e);
+            }
+        }
+    };
+
+    /**
+     * @return the string the request signature is computed over
+     */
+    public static String canonicalize(Map<String, Object[]> requestParameters) {
+        String[] names = requestParameters.keySet().toArray(new String[requestParameters.size()]);
+        Arrays.sort(names);
+
+        StringBuilder sb = new StringBuilder(names.length * 32);
+        for (String name : names) {
+            if ("signature".equalsIgnoreCase(name)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(name.toLowerCase()).append('=');
+            appendEncoded(sb, ((String[])requestParameters.get(name))[0]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the value URL encoded as UTF-8 and lower cased.
+     */
+    static void appendEncoded(StringBuilder sb, String value) {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '*' || c == '_') {
+                sb.append(c);
+                i++;
+            } else if (c >= 'A' && c <= 'Z') {
+                sb.append((char)(c + ('a' - 'A')));
+                i++;
+            } else if (c == ' ') {
+                sb.append("%20");
+                i++;
+            } else {
+                // encode the whole run of characters that need it, so surrogate pairs stay together
+                int start = i;
+                while (i < length && needsEncoding(value.charAt(i))) {
+                    i++;
+                }
+                byte[] bytes;
+                try {
+                    bytes = value.substring(start, i).getBytes("UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new CloudRuntimeException("UTF-8 is not supported", e);
+                }
+                for (byte b : bytes) {
+                    sb.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+                }
+            }
+        }
+    }
+
+    private static boolean needsEncoding(char c) {
+        return !(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-' || c == '*' || c == '_' || c == ' ');
+    }
+
+    /**
+     * @return the Base64 encoded HMAC-SHA1 of the canonical request
+     */
+    public static String sign(String unsignedRequest, String secretKey) throws InvalidKeyException {
+        Mac mac = s_mac.get();
+        mac.init(new SecretKeySpec(secretKey.getBytes(), ALGORITHM));
+        return Base64.encodeBase64String(mac.doFinal(unsignedRequest.getBytes()));
+    }
+}
@@ -24,13 +24,11 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URLEncoder;
 import java.security.SecureRandom;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,8 +43,6 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 import javax.servlet.http.HttpServletResponse;
@@ -149,7 +145,6 @@ import com.cloud.utils.component.PluggableService;
 import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.db.EntityManager;
 import com.cloud.utils.db.SearchCriteria;
-import com.cloud.utils.db.Transaction;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.exception.ExceptionProxyObject;
 
@@ -642,40 +637,20 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 }
             }
 
-            // - build a request string with sorted params, make sure it's all lowercase
-            // - sign the request, verify the signature is the same
-            List<String> parameterNames = new ArrayList<String>();
-
-            for (Object paramNameObj : requestParameters.keySet()) {
-                parameterNames.add((String) paramNameObj); // put the name in a list that we'll sort later
-            }
-
-            Collections.sort(parameterNames);
-
             String signatureVersion = null;
             String expires = null;
 
-            for (String paramName : parameterNames) {
+            for (Map.Entry<String, Object[]> param : requestParameters.entrySet()) {
                 // parameters come as name/value pairs in the form String/String[]
-                String paramValue = ((String[]) requestParameters.get(paramName))[0];
-
+                String paramName = param.getKey();
                 if ("signature".equalsIgnoreCase(paramName)) {
-                    signature = paramValue;
-                } else {
-                    if ("apikey".equalsIgnoreCase(paramName)) {
-                        apiKey = paramValue;
-                    }
-                    else if ("signatureversion".equalsIgnoreCase(paramName)) {
-                        signatureVersion = paramValue;
-                    } else if ("expires".equalsIgnoreCase(paramName)) {
-                        expires = paramValue;
-                    }
-
-                    if (unsignedRequest == null) {
-                        unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
-                    } else {
-                        unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
-                    }
+                    signature = ((String[]) param.getValue())[0];
+                } else if ("apikey".equalsIgnoreCase(paramName)) {
+                    apiKey = ((String[]) param.getValue())[0];
+                } else if ("signatureversion".equalsIgnoreCase(paramName)) {
+                    signatureVersion = ((String[]) param.getValue())[0];
+                } else if ("expires".equalsIgnoreCase(paramName)) {
+                    expires = ((String[]) param.getValue())[0];
                 }
             }
 
@@ -708,10 +683,8 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 }
             }
 
-            Transaction txn = Transaction.open(Transaction.CLOUD_DB);
-            txn.close();
             User user = null;
-            // verify there is a user with this api key
+            // verify there is a user with this api key, mostly answered from the account manager's cache
             Pair<User, Account> userAcctPair = _accountMgr.findUserByApiKey(apiKey);
             if (userAcctPair == null) {
                 s_logger.debug("apiKey does not map to a valid user -- ignoring request, apiKey: " + apiKey);
@@ -742,14 +715,10 @@ public class ApiServer extends ManagerBase implements HttpRequestHandler, ApiSer
                 return false;
             }
 
-            unsignedRequest = unsignedRequest.toLowerCase();
-
-            Mac mac = Mac.getInstance("HmacSHA1");
-            SecretKeySpec keySpec = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
-            mac.init(keySpec);
-            mac.update(unsignedRequest.getBytes());
-            byte[] encryptedBytes = mac.doFinal();
-            String computedSignature = Base64.encodeBase64String(encryptedBytes);
+            // - build a request string with sorted params, make sure it's all lowercase
+            // - sign the request, verify the signature is the same
+            unsignedRequest = ApiRequestSigner.canonicalize(requestParameters);
+            String computedSignature = ApiRequestSigner.sign(unsignedRequest, secretKey);
             boolean equalSig = signature.equals(computedSignature);
             if (!equalSig) {
                 s_logger.info("User signature: " + signature + " is not equaled to computed signature: " + computedSignature);
@@ -2277,18 +2277,12 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
         if ((account.getType() == Account.ACCOUNT_TYPE_NORMAL || account.getType() == Account.ACCOUNT_TYPE_DOMAIN_ADMIN)
                 || account.getType() == Account.ACCOUNT_TYPE_RESOURCE_DOMAIN_ADMIN) {
             // find all domain Id up to root domain for this account
-            domainIds = new ArrayList<Long>();
-            DomainVO domainRecord = _domainDao.findById(account.getDomainId());
-            if (domainRecord == null) {
+            domainIds = new ArrayList<Long>(_domainMgr.getDomainParentIds(account.getDomainId()));
+            if (domainIds.isEmpty()) {
                 s_logger.error("Could not find the domainId for account:" + account.getAccountName());
                 throw new CloudAuthenticationException("Could not find the domainId for account:"
                         + account.getAccountName());
             }
-            domainIds.add(domainRecord.getId());
-            while (domainRecord.getParent() != null) {
-                domainRecord = _domainDao.findById(domainRecord.getParent());
-                domainIds.add(domainRecord.getId());
-            }
 
             SearchCriteria<DiskOfferingJoinVO> spc = _diskOfferingJoinDao.createSearchCriteria();
 
@@ -2406,18 +2400,12 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
                 throw new InvalidParameterValueException("Only root admins can access system's offering");
             }
             // find all domain Id up to root domain for this account
-            List<Long> domainIds = new ArrayList<Long>();
-            DomainVO domainRecord = _domainDao.findById(caller.getDomainId());
-            if (domainRecord == null) {
+            Set<Long> domainIds = _domainMgr.getDomainParentIds(caller.getDomainId());
+            if (domainIds.isEmpty()) {
                 s_logger.error("Could not find the domainId for account:" + caller.getAccountName());
                 throw new CloudAuthenticationException("Could not find the domainId for account:"
                         + caller.getAccountName());
             }
-            domainIds.add(domainRecord.getId());
-            while (domainRecord.getParent() != null) {
-                domainRecord = _domainDao.findById(domainRecord.getParent());
-                domainIds.add(domainRecord.getId());
-            }
             SearchCriteria<ServiceOfferingJoinVO> spc = _srvOfferingJoinDao.createSearchCriteria();
 
             spc.addOr("domainId", SearchCriteria.Op.IN, domainIds.toArray());
@@ -2549,18 +2537,12 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
                 // list
 
                 // find all domain Id up to root domain for this account
-                List<Long> domainIds = new ArrayList<Long>();
-                DomainVO domainRecord = _domainDao.findById(account.getDomainId());
-                if (domainRecord == null) {
+                List<Long> domainIds = new ArrayList<Long>(_domainMgr.getDomainParentIds(account.getDomainId()));
+                if (domainIds.isEmpty()) {
                     s_logger.error("Could not find the domainId for account:" + account.getAccountName());
                     throw new CloudAuthenticationException("Could not find the domainId for account:"
                             + account.getAccountName());
                 }
-                domainIds.add(domainRecord.getId());
-                while (domainRecord.getParent() != null) {
-                    domainRecord = _domainDao.findById(domainRecord.getParent());
-                    domainIds.add(domainRecord.getId());
-                }
                 // domainId == null (public zones) or domainId IN [all domain id
                 // up to root domain]
                 SearchCriteria<DataCenterJoinVO> sdc = _dcJoinDao.createSearchCriteria();
@@ -2599,18 +2581,12 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
                     throw new CloudAuthenticationException("Could not find the domainId for account:"
                             + account.getAccountName());
                 }
-                domainIds.add(domainRecord.getId());
-                // find all domain Ids till leaf
-                List<DomainVO> allChildDomains = _domainDao.findAllChildren(domainRecord.getPath(),
-                        domainRecord.getId());
-                for (DomainVO domain : allChildDomains) {
-                    domainIds.add(domain.getId());
-                }
+                // find all domain Ids till leaf, this one included
+                domainIds.addAll(_domainMgr.getDomainChildrenIds(domainRecord.getPath()));
                 // then find all domain Id up to root domain for this account
-                while (domainRecord.getParent() != null) {
-                    domainRecord = _domainDao.findById(domainRecord.getParent());
-                    domainIds.add(domainRecord.getId());
-                }
+                Set<Long> parentIds = _domainMgr.getDomainParentIds(domainRecord.getId());
+                parentIds.remove(domainRecord.getId());
+                domainIds.addAll(parentIds);
 
                 // domainId == null (public zones) or domainId IN [all domain id
                 // up to root domain]
@@ -2676,24 +2652,7 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             return true; // account and service offering in same domain
         }
 
-        DomainVO domainRecord = _domainDao.findById(accountDomainId);
-
-        if (domainRecord != null) {
-            while (true) {
-                if (domainRecord.getId() == offeringDomainId) {
-                    return true;
-                }
-
-                // try and move on to the next domain
-                if (domainRecord.getParent() != null) {
-                    domainRecord = _domainDao.findById(domainRecord.getParent());
-                } else {
-                    break;
-                }
-            }
-        }
-
-        return false;
+        return _domainMgr.isChildDomain(offeringDomainId, accountDomainId);
     }
 
     @Override
@@ -2828,23 +2787,15 @@ public class QueryManagerImpl extends ManagerBase implements QueryService {
             if (!permittedAccounts.isEmpty()) {
                 for (Account account : permittedAccounts) {
                     permittedAccountIds.add(account.getId());
-                    DomainVO accountDomain = _domainDao.findById(account.getDomainId());
-
                     // get all parent domain ID's all the way till root domain
-                    DomainVO domainTreeNode = accountDomain;
-                    relatedDomainIds.add(domainTreeNode.getId());
-                    while (domainTreeNode.getParent() != null) {
-                        domainTreeNode = _domainDao.findById(domainTreeNode.getParent());
-                        relatedDomainIds.add(domainTreeNode.getId());
-                    }
+                    relatedDomainIds.addAll(_domainMgr.getDomainParentIds(account.getDomainId()));
 
                     // get all child domain ID's
                     if (_accountMgr.isAdmin(account.getType())) {
-                        List<DomainVO> allChildDomains = _domainDao.findAllChildren(accountDomain.getPath(),
-                                accountDomain.getId());
-                        for (DomainVO childDomain : allChildDomains) {
-                            relatedDomainIds.add(childDomain.getId());
-                        }
+                        DomainVO accountDomain = _domainDao.findById(account.getDomainId());
+                        Set<Long> childDomainIds = _domainMgr.getDomainChildrenIds(accountDomain.getPath());
+                        childDomainIds.remove(accountDomain.getId());
+                        relatedDomainIds.addAll(childDomainIds);
                     }
                 }
             }
@@ -0,0 +1,303 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.vo.ResourceTagJoinVO;
+import com.cloud.host.HostStats;
+import com.cloud.storage.StorageStats;
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Data a list response needs besides its view rows, fetched once for a page
+ * instead of once per row.
+ *
+ * Each response type in ViewResponseHelper declares the kinds it needs, load()
+ * runs one batched lookup per kind and the JoinDao code reads the result per
+ * row. Host and storage statistics are served from the stats collector's
+ * in-memory caches and the HA tag from the HA manager, neither needs a kind.
+ * A kind that was not loaded falls back to the per row lookup, so callers that
+ * build a single response keep working unchanged.
+ *
+ * Responses that ApiResponseHelper builds one object at a time look up the
+ * same zones, vlans, networks and owners over and over.  While a list command
+ * runs, between beginListing and endListing, ApiDBUtils keeps the entities it
+ * found for the command so each of them is read once per page.
+ *
+ * The counters are exported through the ResponseSideData MBean, per response
+ * type for the view pages and per API for list commands.
+ */
+public class ResponseSideData {
+    public static final Logger s_logger = Logger.getLogger(ResponseSideData.class);
+
+    public enum Kind {
+        CpuOverprovisioningFactor, LocalStorageActive, ResourceTags
+    }
+
+    // response type or API name -> counters, for every page built since startup
+    private static final ConcurrentHashMap<String, Counters> s_counters = new ConcurrentHashMap<String, Counters>();
+    // entities found by the list command running on this thread
+    private static final ThreadLocal<Listing> s_listing = new ThreadLocal<Listing>();
+    static {
+        try {
+            JmxUtil.registerMBean("ResponseSideData", "ResponseSideData", new ResponseSideDataMBeanImpl());
+        } catch (Exception e) {
+            s_logger.error("Unable to register mbean for response side data", e);
+        }
+    }
+
+    private final EnumSet<Kind> _kinds;
+    private float _cpuOverprovisioningFactor = 1;
+    private final Set<Long> _localStorageActiveHostIds = new HashSet<Long>();
+    private final Map<Long, ResourceTagJoinVO> _tags = new HashMap<Long, ResourceTagJoinVO>();
+    private int _lookupCount;
+
+    private static class Listing {
+        final String api;
+        final long started = System.currentTimeMillis();
+        final Map<Class<?>, Map<Object, Object>> entities = new HashMap<Class<?>, Map<Object, Object>>();
+        int lookups;
+        int reused;
+
+        Listing(String api) {
+            this.api = api;
+        }
+    }
+
+    public static class Counters {
+        private final LatencyHistogram _pageTimes = new LatencyHistogram();
+        private long _rows;
+        private long _lookups;
+        private long _reused;
+
+        synchronized void add(int rows, int lookups, int reused, long ms) {
+            _pageTimes.record(ms);
+            _rows += rows;
+            _lookups += lookups;
+            _reused += reused;
+        }
+
+        public long getPageCount() {
+            return _pageTimes.getCount();
+        }
+
+        /**
+         * @return how long loading the side data of a view page, or running
+         *         a list command, took
+         */
+        public LatencyHistogram getPageTimes() {
+            return _pageTimes;
+        }
+
+        public synchronized long getRowCount() {
+            return _rows;
+        }
+
+        /**
+         * @return database lookups issued for side data, independent of the
+         *         number of rows
+         */
+        public synchronized long getLookupCount() {
+            return _lookups;
+        }
+
+        /**
+         * @return lookups of a list command answered by an entity it had
+         *         already found
+         */
+        public synchronized long getReusedCount() {
+            return _reused;
+        }
+    }
+
+    private ResponseSideData(EnumSet<Kind> kinds) {
+        _kinds = kinds;
+    }
+
+    /**
+     * @param responseType name the lookups are counted under, e.g. "host"
+     * @param rows number of view rows in the page
+     * @param hostIds hosts in the page, for the host kinds
+     * @param tagIds resource tags in the page, for ResourceTags
+     */
+    public static ResponseSideData load(String responseType, EnumSet<Kind> kinds, int rows, Collection<Long> hostIds, Collection<Long> tagIds) {
+        long start = System.currentTimeMillis();
+        ResponseSideData data = new ResponseSideData(kinds);
+        if (kinds.contains(Kind.CpuOverprovisioningFactor)) {
+            data._cpuOverprovisioningFactor = ApiDBUtils.getCpuOverprovisioningFactor();
+            data._lookupCount++;
+        }
+        if (kinds.contains(Kind.LocalStorageActive) && !hostIds.isEmpty()) {
+            data._localStorageActiveHostIds.addAll(ApiDBUtils.listHostsWithActiveLocalStorage(new ArrayList<Long>(hostIds)));
+            data._lookupCount++;
+        }
+        if (kinds.contains(Kind.ResourceTags) && !tagIds.isEmpty()) {
+            for (ResourceTagJoinVO tag : ApiDBUtils.listResourceTagViewsByIds(tagIds)) {
+                data._tags.put(tag.getId(), tag);
+            }
+            data._lookupCount++;
+        }
+
+        countersOf(responseType).add(rows, data._lookupCount, 0, System.currentTimeMillis() - start);
+        Listing listing = s_listing.get();
+        if (listing != null) {
+            listing.lookups += data._lookupCount;
+        }
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Loaded " + kinds + " for " + rows + " " + responseType + " rows in " + data._lookupCount + " lookups");
+        }
+        return data;
+    }
+
+    /**
+     * Side data that loads nothing up front, every getter does its own lookup.
+     */
+    public static ResponseSideData none() {
+        return new ResponseSideData(EnumSet.noneOf(Kind.class));
+    }
+
+    private static Counters countersOf(String name) {
+        Counters counters = s_counters.get(name);
+        if (counters == null) {
+            s_counters.putIfAbsent(name, new Counters());
+            counters = s_counters.get(name);
+        }
+        return counters;
+    }
+
+    /**
+     * @return the counters of every response type and list API, keyed by
+     *         the type or API name
+     */
+    public static Map<String, Counters> getCounters() {
+        return Collections.unmodifiableMap(s_counters);
+    }
+
+    public static void resetCounters() {
+        s_counters.clear();
+    }
+
+    /**
+     * Starts keeping the entities ApiDBUtils finds on this thread, until
+     * endListing.  Only for commands that do not change what they list.
+     *
+     * @param api name of the list API, the lookups are counted under it
+     */
+    public static void beginListing(String api) {
+        s_listing.set(new Listing(api));
+    }
+
+    public static void endListing() {
+        Listing listing = s_listing.get();
+        if (listing == null) {
+            return;
+        }
+        s_listing.remove();
+        countersOf(listing.api).add(0, listing.lookups, listing.reused, System.currentTimeMillis() - listing.started);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug(listing.api + " looked up " + listing.lookups + " entities and reused " + listing.reused);
+        }
+    }
+
+    /**
+     * @return the entity of the given type and id the running list command
+     *         has already found, null if it has not or no list command runs
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getListed(Class<T> type, Object id) {
+        Listing listing = s_listing.get();
+        if (listing == null || id == null) {
+            return null;
+        }
+        Map<Object, Object> entities = listing.entities.get(type);
+        Object entity = entities != null ? entities.get(id) : null;
+        if (entity != null) {
+            listing.reused++;
+        }
+        return (T)entity;
+    }
+
+    /**
+     * Keeps an entity found for the running list command, if there is one.
+     */
+    public static <T> T putListed(Class<T> type, Object id, T entity) {
+        Listing listing = s_listing.get();
+        if (listing == null || id == null) {
+            return entity;
+        }
+        listing.lookups++;
+        if (entity != null) {
+            Map<Object, Object> entities = listing.entities.get(type);
+            if (entities == null) {
+                entities = new HashMap<Object, Object>();
+                listing.entities.put(type, entities);
+            }
+            entities.put(id, entity);
+        }
+        return entity;
+    }
+
+    public int getLookupCount() {
+        return _lookupCount;
+    }
+
+    public String getHaTag() {
+        return ApiDBUtils.getHaTag();
+    }
+
+    public float getCpuOverprovisioningFactor() {
+        if (!_kinds.contains(Kind.CpuOverprovisioningFactor)) {
+            return ApiDBUtils.getCpuOverprovisioningFactor();
+        }
+        return _cpuOverprovisioningFactor;
+    }
+
+    public HostStats getHostStats(long hostId) {
+        return ApiDBUtils.getHostStatistics(hostId);
+    }
+
+    public StorageStats getSecondaryStorageStats(long hostId) {
+        return ApiDBUtils.getSecondaryStorageStatistics(hostId);
+    }
+
+    public boolean isLocalStorageActive(long hostId) {
+        if (!_kinds.contains(Kind.LocalStorageActive)) {
+            return ApiDBUtils.isLocalStorageActiveOnHost(hostId);
+        }
+        return _localStorageActiveHostIds.contains(hostId);
+    }
+
+    public ResourceTagJoinVO getResourceTag(long tagId) {
+        if (!_kinds.contains(Kind.ResourceTags)) {
+            return ApiDBUtils.findResourceTagViewById(tagId);
+        }
+        return _tags.get(tagId);
+    }
+}
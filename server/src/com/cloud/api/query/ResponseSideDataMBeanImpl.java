@@ -0,0 +1,57 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.StandardMBean;
+
+import com.cloud.api.query.ResponseSideData.Counters;
+
+public class ResponseSideDataMBeanImpl extends StandardMBean implements ResponseSideDataMBean {
+
+    public ResponseSideDataMBeanImpl() {
+        super(ResponseSideDataMBean.class, false);
+    }
+
+    @Override
+    public List<Map<String, String>> getCounters() {
+        List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+        for (Map.Entry<String, Counters> entry : ResponseSideData.getCounters().entrySet()) {
+            Counters counters = entry.getValue();
+            Map<String, String> row = new HashMap<String, String>();
+            row.put("name", entry.getKey());
+            row.put("pages", String.valueOf(counters.getPageCount()));
+            row.put("avgMs", String.valueOf(counters.getPageTimes().getAverageMs()));
+            row.put("p99Ms", String.valueOf(counters.getPageTimes().getPercentileMs(99)));
+            row.put("maxMs", String.valueOf(counters.getPageTimes().getMaxMs()));
+            row.put("rows", String.valueOf(counters.getRowCount()));
+            row.put("lookups", String.valueOf(counters.getLookupCount()));
+            row.put("reused", String.valueOf(counters.getReusedCount()));
+            result.add(row);
+        }
+        return result;
+    }
+
+    @Override
+    public void resetCounters() {
+        ResponseSideData.resetCounters();
+    }
+}
@@ -17,6 +17,7 @@
 package com.cloud.api.query;
 
 import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.ResponseSideData.Kind;
 import com.cloud.api.query.vo.AccountJoinVO;
 import com.cloud.api.query.vo.AffinityGroupJoinVO;
 import com.cloud.api.query.vo.AsyncJobJoinVO;
@@ -71,8 +72,10 @@ import com.cloud.api.query.vo.TemplateJoinVO;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Helper class to generate response from DB view VO objects.
@@ -82,6 +85,11 @@ public class ViewResponseHelper {
 
     public static final Logger s_logger = Logger.getLogger(ViewResponseHelper.class);
 
+    // side data each response type loads once per page, see ResponseSideData
+    private static final EnumSet<Kind> HOST_SIDE_DATA = EnumSet.of(Kind.CpuOverprovisioningFactor, Kind.LocalStorageActive);
+    private static final EnumSet<Kind> HOST_FOR_MIGRATION_SIDE_DATA = EnumSet.of(Kind.CpuOverprovisioningFactor, Kind.LocalStorageActive);
+    private static final EnumSet<Kind> VOLUME_SIDE_DATA = EnumSet.of(Kind.ResourceTags);
+
     public static List<UserResponse> createUserResponse(UserAccountJoinVO... users) {
         List<UserResponse> respList = new ArrayList<UserResponse>();
         for (UserAccountJoinVO vt : users){
@@ -223,13 +231,14 @@ public class ViewResponseHelper {
     }
 
     public static List<HostResponse> createHostResponse(EnumSet<HostDetails> details, HostJoinVO... hosts) {
+        ResponseSideData sideData = ResponseSideData.load("host", getHostSideData(HOST_SIDE_DATA, details), hosts.length, getHostIds(hosts), new HashSet<Long>());
         Hashtable<Long, HostResponse> vrDataList = new Hashtable<Long, HostResponse>();
         // Initialise the vrdatalist with the input data
         for (HostJoinVO vr : hosts) {
             HostResponse vrData = vrDataList.get(vr.getId());
             if ( vrData == null ){
                 // first time encountering this vm
-                vrData = ApiDBUtils.newHostResponse(vr, details);
+                vrData = ApiDBUtils.newHostResponse(vr, details, sideData);
             }
             else{
                 // update tags
@@ -242,13 +251,15 @@ public class ViewResponseHelper {
 
     public static List<HostForMigrationResponse> createHostForMigrationResponse(EnumSet<HostDetails> details,
             HostJoinVO... hosts) {
+        ResponseSideData sideData = ResponseSideData.load("hostformigration", getHostSideData(HOST_FOR_MIGRATION_SIDE_DATA, details), hosts.length,
+                getHostIds(hosts), new HashSet<Long>());
         Hashtable<Long, HostForMigrationResponse> vrDataList = new Hashtable<Long, HostForMigrationResponse>();
         // Initialise the vrdatalist with the input data
         for (HostJoinVO vr : hosts) {
             HostForMigrationResponse vrData = vrDataList.get(vr.getId());
             if ( vrData == null ) {
                 // first time encountering this vm
-                vrData = ApiDBUtils.newHostForMigrationResponse(vr, details);
+                vrData = ApiDBUtils.newHostForMigrationResponse(vr, details, sideData);
             } else {
                 // update tags
                 vrData = ApiDBUtils.fillHostForMigrationDetails(vrData, vr);
@@ -259,16 +270,23 @@ public class ViewResponseHelper {
     }
 
     public static List<VolumeResponse> createVolumeResponse(VolumeJoinVO... volumes) {
+        Set<Long> tagIds = new HashSet<Long>();
+        for (VolumeJoinVO vr : volumes) {
+            if (vr.getTagId() > 0) {
+                tagIds.add(vr.getTagId());
+            }
+        }
+        ResponseSideData sideData = ResponseSideData.load("volume", VOLUME_SIDE_DATA, volumes.length, new HashSet<Long>(), tagIds);
         Hashtable<Long, VolumeResponse> vrDataList = new Hashtable<Long, VolumeResponse>();
         for (VolumeJoinVO vr : volumes) {
             VolumeResponse vrData = vrDataList.get(vr.getId());
             if ( vrData == null ){
                 // first time encountering this volume
-                vrData = ApiDBUtils.newVolumeResponse(vr);
+                vrData = ApiDBUtils.newVolumeResponse(vr, sideData);
             }
             else{
                 // update tags
-                vrData = ApiDBUtils.fillVolumeDetails(vrData, vr);
+                vrData = ApiDBUtils.fillVolumeDetails(vrData, vr, sideData);
             }
             vrDataList.put(vr.getId(), vrData);
         }
@@ -436,4 +454,23 @@ public class ViewResponseHelper {
         }
         return new ArrayList<AffinityGroupResponse>(vrDataList.values());
     }
+
+    /**
+     * Drops the side data the requested details do not use.
+     */
+    private static EnumSet<Kind> getHostSideData(EnumSet<Kind> kinds, EnumSet<HostDetails> details) {
+        EnumSet<Kind> needed = EnumSet.copyOf(kinds);
+        if (!details.contains(HostDetails.all) && !details.contains(HostDetails.capacity)) {
+            needed.remove(Kind.CpuOverprovisioningFactor);
+        }
+        return needed;
+    }
+
+    private static Set<Long> getHostIds(HostJoinVO... hosts) {
+        Set<Long> hostIds = new HashSet<Long>();
+        for (HostJoinVO host : hosts) {
+            hostIds.add(host.getId());
+        }
+        return hostIds;
+    }
 }
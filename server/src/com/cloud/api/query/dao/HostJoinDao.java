@@ -22,6 +22,7 @@ import java.util.List;
 import org.apache.cloudstack.api.ApiConstants.HostDetails;
 import org.apache.cloudstack.api.response.HostResponse;
 import org.apache.cloudstack.api.response.HostForMigrationResponse;
+import com.cloud.api.query.ResponseSideData;
 import com.cloud.api.query.vo.HostJoinVO;
 import com.cloud.host.Host;
 import com.cloud.utils.db.GenericDao;
@@ -30,10 +31,14 @@ public interface HostJoinDao extends GenericDao<HostJoinVO, Long> {
 
     HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details);
 
+    HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details, ResponseSideData sideData);
+
     HostResponse setHostResponse(HostResponse response, HostJoinVO host);
 
     HostForMigrationResponse newHostForMigrationResponse(HostJoinVO host, EnumSet<HostDetails> details);
 
+    HostForMigrationResponse newHostForMigrationResponse(HostJoinVO host, EnumSet<HostDetails> details, ResponseSideData sideData);
+
     HostForMigrationResponse setHostForMigrationResponse(HostForMigrationResponse response, HostJoinVO host);
 
     List<HostJoinVO> newHostView(Host group);
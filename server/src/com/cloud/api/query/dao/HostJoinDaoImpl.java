@@ -35,7 +35,7 @@ import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
 
-import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.ResponseSideData;
 import com.cloud.api.query.vo.HostJoinVO;
 import com.cloud.host.Host;
 import com.cloud.host.HostStats;
@@ -74,6 +74,11 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
 
     @Override
     public HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details) {
+        return newHostResponse(host, details, ResponseSideData.none());
+    }
+
+    @Override
+    public HostResponse newHostResponse(HostJoinVO host, EnumSet<HostDetails> details, ResponseSideData sideData) {
         HostResponse hostResponse = new HostResponse();
         hostResponse.setId(host.getUuid());
         hostResponse.setCapabilities(host.getCapabilities());
@@ -120,7 +125,7 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
                 String hostTags = host.getTag();
                 hostResponse.setHostTags(host.getTag());
 
-                String haTag = ApiDBUtils.getHaTag();
+                String haTag = sideData.getHaTag();
                 if (haTag != null && !haTag.isEmpty() && hostTags != null && !hostTags.isEmpty()) {
                     if (haTag.equalsIgnoreCase(hostTags)) {
                         hostResponse.setHaHost(true);
@@ -135,14 +140,14 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
 
                 String cpuAlloc = decimalFormat.format(((float) cpu / (float) (host.getCpus() * host.getSpeed())) * 100f) + "%";
                 hostResponse.setCpuAllocated(cpuAlloc);
-                String cpuWithOverprovisioning = new Float(host.getCpus() * host.getSpeed() * ApiDBUtils.getCpuOverprovisioningFactor()).toString();
+                String cpuWithOverprovisioning = new Float(host.getCpus() * host.getSpeed() * sideData.getCpuOverprovisioningFactor()).toString();
                 hostResponse.setCpuWithOverprovisioning(cpuWithOverprovisioning);
             }
 
             if (details.contains(HostDetails.all) || details.contains(HostDetails.stats)) {
                 // set CPU/RAM/Network stats
                 String cpuUsed = null;
-                HostStats hostStats = ApiDBUtils.getHostStatistics(host.getId());
+                HostStats hostStats = sideData.getHostStats(host.getId());
                 if (hostStats != null) {
                     float cpuUtil = (float) hostStats.getCpuUtilization();
                     cpuUsed = decimalFormat.format(cpuUtil) + "%";
@@ -155,14 +160,14 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
             }
 
         } else if (host.getType() == Host.Type.SecondaryStorage) {
-            StorageStats secStorageStats = ApiDBUtils.getSecondaryStorageStatistics(host.getId());
+            StorageStats secStorageStats = sideData.getSecondaryStorageStats(host.getId());
             if (secStorageStats != null) {
                 hostResponse.setDiskSizeTotal(secStorageStats.getCapacityBytes());
                 hostResponse.setDiskSizeAllocated(secStorageStats.getByteUsed());
             }
         }
 
-        hostResponse.setLocalStorageActive(ApiDBUtils.isLocalStorageActiveOnHost(host.getId()));
+        hostResponse.setLocalStorageActive(sideData.isLocalStorageActive(host.getId()));
 
         if (details.contains(HostDetails.all) || details.contains(HostDetails.events)) {
             Set<com.cloud.host.Status.Event> possibleEvents = host.getStatus().getPossibleEvents();
@@ -210,6 +215,11 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
 
     @Override
     public HostForMigrationResponse newHostForMigrationResponse(HostJoinVO host, EnumSet<HostDetails> details) {
+        return newHostForMigrationResponse(host, details, ResponseSideData.none());
+    }
+
+    @Override
+    public HostForMigrationResponse newHostForMigrationResponse(HostJoinVO host, EnumSet<HostDetails> details, ResponseSideData sideData) {
         HostForMigrationResponse hostResponse = new HostForMigrationResponse();
         hostResponse.setId(host.getUuid());
         hostResponse.setCapabilities(host.getCapabilities());
@@ -256,7 +266,7 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
                 String hostTags = host.getTag();
                 hostResponse.setHostTags(host.getTag());
 
-                String haTag = ApiDBUtils.getHaTag();
+                String haTag = sideData.getHaTag();
                 if (haTag != null && !haTag.isEmpty() && hostTags != null && !hostTags.isEmpty()) {
                     if (haTag.equalsIgnoreCase(hostTags)) {
                         hostResponse.setHaHost(true);
@@ -271,14 +281,14 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
 
                 String cpuAlloc = decimalFormat.format(((float) cpu / (float) (host.getCpus() * host.getSpeed())) * 100f) + "%";
                 hostResponse.setCpuAllocated(cpuAlloc);
-                String cpuWithOverprovisioning = new Float(host.getCpus() * host.getSpeed() * ApiDBUtils.getCpuOverprovisioningFactor()).toString();
+                String cpuWithOverprovisioning = new Float(host.getCpus() * host.getSpeed() * sideData.getCpuOverprovisioningFactor()).toString();
                 hostResponse.setCpuWithOverprovisioning(cpuWithOverprovisioning);
             }
 
             if (details.contains(HostDetails.all) || details.contains(HostDetails.stats)) {
                 // set CPU/RAM/Network stats
                 String cpuUsed = null;
-                HostStats hostStats = ApiDBUtils.getHostStatistics(host.getId());
+                HostStats hostStats = sideData.getHostStats(host.getId());
                 if (hostStats != null) {
                     float cpuUtil = (float) hostStats.getCpuUtilization();
                     cpuUsed = decimalFormat.format(cpuUtil) + "%";
@@ -291,14 +301,14 @@ public class HostJoinDaoImpl extends GenericDaoBase<HostJoinVO, Long> implements
             }
 
         } else if (host.getType() == Host.Type.SecondaryStorage) {
-            StorageStats secStorageStats = ApiDBUtils.getSecondaryStorageStatistics(host.getId());
+            StorageStats secStorageStats = sideData.getSecondaryStorageStats(host.getId());
             if (secStorageStats != null) {
                 hostResponse.setDiskSizeTotal(secStorageStats.getCapacityBytes());
                 hostResponse.setDiskSizeAllocated(secStorageStats.getByteUsed());
             }
         }
 
-        hostResponse.setLocalStorageActive(ApiDBUtils.isLocalStorageActiveOnHost(host.getId()));
+        hostResponse.setLocalStorageActive(sideData.isLocalStorageActive(host.getId()));
 
         if (details.contains(HostDetails.all) || details.contains(HostDetails.events)) {
             Set<com.cloud.host.Status.Event> possibleEvents = host.getStatus().getPossibleEvents();
@@ -20,7 +20,7 @@ import java.util.List;
 
 import org.apache.cloudstack.api.response.VolumeResponse;
 
-
+import com.cloud.api.query.ResponseSideData;
 import com.cloud.api.query.vo.VolumeJoinVO;
 import com.cloud.storage.Volume;
 import com.cloud.utils.db.GenericDao;
@@ -29,8 +29,12 @@ public interface VolumeJoinDao extends GenericDao<VolumeJoinVO, Long> {
 
     VolumeResponse newVolumeResponse(VolumeJoinVO vol);
 
+    VolumeResponse newVolumeResponse(VolumeJoinVO vol, ResponseSideData sideData);
+
     VolumeResponse setVolumeResponse(VolumeResponse volData, VolumeJoinVO vol);
 
+    VolumeResponse setVolumeResponse(VolumeResponse volData, VolumeJoinVO vol, ResponseSideData sideData);
+
     List<VolumeJoinVO> newVolumeView(Volume vol);
 
     List<VolumeJoinVO> searchByIds(Long... ids);
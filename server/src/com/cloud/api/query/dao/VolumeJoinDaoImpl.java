@@ -31,6 +31,7 @@ import org.springframework.stereotype.Component;
 
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.ApiResponseHelper;
+import com.cloud.api.query.ResponseSideData;
 import com.cloud.api.query.vo.ResourceTagJoinVO;
 import com.cloud.api.query.vo.VolumeJoinVO;
 import com.cloud.offering.ServiceOffering;
@@ -74,6 +75,11 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
 
     @Override
     public VolumeResponse newVolumeResponse(VolumeJoinVO volume) {
+        return newVolumeResponse(volume, ResponseSideData.none());
+    }
+
+    @Override
+    public VolumeResponse newVolumeResponse(VolumeJoinVO volume, ResponseSideData sideData) {
         Account caller = CallContext.current().getCallingAccount();
 
         VolumeResponse volResponse = new VolumeResponse();
@@ -202,7 +208,7 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
         // update tag information
         long tag_id = volume.getTagId();
         if (tag_id > 0) {
-            ResourceTagJoinVO vtag = ApiDBUtils.findResourceTagViewById(tag_id);
+            ResourceTagJoinVO vtag = sideData.getResourceTag(tag_id);
             if (vtag != null) {
                 volResponse.addTag(ApiDBUtils.newResourceTagResponse(vtag, false));
             }
@@ -225,9 +231,14 @@ public class VolumeJoinDaoImpl extends GenericDaoBase<VolumeJoinVO, Long> implem
 
     @Override
     public VolumeResponse setVolumeResponse(VolumeResponse volData, VolumeJoinVO vol) {
+        return setVolumeResponse(volData, vol, ResponseSideData.none());
+    }
+
+    @Override
+    public VolumeResponse setVolumeResponse(VolumeResponse volData, VolumeJoinVO vol, ResponseSideData sideData) {
         long tag_id = vol.getTagId();
         if (tag_id > 0) {
-            ResourceTagJoinVO vtag = ApiDBUtils.findResourceTagViewById(tag_id);
+            ResourceTagJoinVO vtag = sideData.getResourceTag(tag_id);
             if ( vtag != null ){
                 volData.addTag(ApiDBUtils.newResourceTagResponse(vtag, false));
             }
@@ -47,6 +47,8 @@ import com.cloud.agent.api.StartupCommand;
 import com.cloud.agent.api.StartupRoutingCommand;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.PeerCacheInvalidator;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.dc.ClusterDetailsDao;
@@ -68,9 +70,8 @@ import com.cloud.resource.ServerResource;
 import com.cloud.service.ServiceOfferingVO;
 import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
-import com.cloud.storage.VMTemplateStoragePoolVO;
 import com.cloud.storage.VMTemplateVO;
-import com.cloud.storage.VolumeVO;
+import com.cloud.storage.Volume;
 import com.cloud.storage.dao.VMTemplatePoolDao;
 import com.cloud.storage.dao.VolumeDao;
 import com.cloud.utils.DateUtil;
@@ -137,9 +138,12 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
     private int _vmCapacityReleaseInterval;
     private ScheduledExecutorService _executor;
     long _extraBytesPerVolume = 0;
+    PoolAllocatedCapacityModel _poolCapacityModel;
 
     @Inject
     MessageBus _messageBus;
+    @Inject
+    ClusterManager _clusterMgr;
 
     private static final String MESSAGE_RESERVED_CAPACITY_FREED_FLAG = "Message.ReservedCapacityFreed.Flag";
 
@@ -149,7 +153,16 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
         _executor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("HostCapacity-Checker"));
         VirtualMachine.State.getStateMachine().registerListener(this);
-        _agentManager.registerForHostEvents(new StorageCapacityListener(_capacityDao, _storageMgr), true, false, false);
+        _poolCapacityModel = new PoolAllocatedCapacityModel(_volumeDao, _templatePoolDao, _extraBytesPerVolume);
+        _poolCapacityModel.setClusterManager(_clusterMgr);
+        Volume.State.getStateMachine().registerListener(_poolCapacityModel);
+        PeerCacheInvalidator.subscribe(_messageBus, PoolAllocatedCapacityModel.POOL_CHANGED, new PeerCacheInvalidator.Listener() {
+            @Override
+            public void invalidate(long poolId) {
+                _poolCapacityModel.poolChangedOnPeer(poolId);
+            }
+        });
+        _agentManager.registerForHostEvents(new StorageCapacityListener(_capacityDao, _storageMgr, _poolCapacityModel), true, false, false);
         _agentManager.registerForHostEvents(new ComputeCapacityListener(_capacityDao, this), true, false, false);
 
         return true;
@@ -346,6 +359,15 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     @Override
     public boolean checkIfHostHasCapacity(long hostId, Integer cpu, long ram, boolean checkFromReservedCapacity, float cpuOvercommitRatio, float memoryOvercommitRatio, boolean considerReservedCapacity) {
+        CapacityVO capacityCpu = _capacityDao.findByHostIdType(hostId, CapacityVO.CAPACITY_TYPE_CPU);
+        CapacityVO capacityMem = _capacityDao.findByHostIdType(hostId, CapacityVO.CAPACITY_TYPE_MEMORY);
+
+        return checkIfHostHasCapacity(hostId, capacityCpu, capacityMem, cpu, ram, checkFromReservedCapacity, cpuOvercommitRatio, memoryOvercommitRatio, considerReservedCapacity);
+    }
+
+    @Override
+    public boolean checkIfHostHasCapacity(long hostId, CapacityVO capacityCpu, CapacityVO capacityMem, Integer cpu, long ram, boolean checkFromReservedCapacity,
+            float cpuOvercommitRatio, float memoryOvercommitRatio, boolean considerReservedCapacity) {
         boolean hasCapacity = false;
 
         if (s_logger.isDebugEnabled()) {
@@ -353,9 +375,6 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
                     + " , cpuOverprovisioningFactor: " + cpuOvercommitRatio);
         }
 
-        CapacityVO capacityCpu = _capacityDao.findByHostIdType(hostId, CapacityVO.CAPACITY_TYPE_CPU);
-        CapacityVO capacityMem = _capacityDao.findByHostIdType(hostId, CapacityVO.CAPACITY_TYPE_MEMORY);
-
         if (capacityCpu == null || capacityMem == null) {
             if (capacityCpu == null) {
                 if (s_logger.isDebugEnabled()) {
@@ -465,48 +484,35 @@ public class CapacityManagerImpl extends ManagerBase implements CapacityManager,
 
     }
 
-    private long getVMSnapshotAllocatedCapacity(StoragePoolVO pool){
-        List<VolumeVO> volumes = _volumeDao.findByPoolId(pool.getId());
-        long totalSize = 0;
-        for (VolumeVO volume : volumes) {
-            if(volume.getInstanceId() == null)
-                continue;
-            Long chainSize = volume.getVmSnapshotChainSize();
-            if(chainSize != null)
-                totalSize += chainSize;
-        }
-        return totalSize;
-    }
-
     @Override
     public long getAllocatedPoolCapacity(StoragePoolVO pool, VMTemplateVO templateForVmCreation){
+        // templateForVmCreation does not change the figure, the templates already on the pool are counted
+        return getAllocatedPoolCapacity(pool.getId());
+    }
 
-        // Get size for all the non-destroyed volumes
-        Pair<Long, Long> sizes = _volumeDao.getNonDestroyedCountAndTotalByPool(pool.getId());
-        long totalAllocatedSize = sizes.second() + sizes.first() * _extraBytesPerVolume;
-
-        // Get size for VM Snapshots
-        totalAllocatedSize = totalAllocatedSize + getVMSnapshotAllocatedCapacity(pool);
-
-        // Iterate through all templates on this storage pool
-        boolean tmpinstalled = false;
-        List<VMTemplateStoragePoolVO> templatePoolVOs;
-        templatePoolVOs = _templatePoolDao.listByPoolId(pool.getId());
+    @Override
+    public long getAllocatedPoolCapacity(long poolId) {
+        return _poolCapacityModel.getAllocatedCapacity(poolId);
+    }
 
-        for (VMTemplateStoragePoolVO templatePoolVO : templatePoolVOs) {
-            if ((templateForVmCreation != null) && !tmpinstalled && (templatePoolVO.getTemplateId() == templateForVmCreation.getId())) {
-                tmpinstalled = true;
-            }
-            long templateSize = templatePoolVO.getTemplateSize();
-            totalAllocatedSize += templateSize + _extraBytesPerVolume;
-        }
+    @Override
+    public long reconcileAllocatedPoolCapacity(StoragePoolVO pool) {
+        return _poolCapacityModel.reconcile(pool.getId());
+    }
 
-        // Add the size for the templateForVmCreation if its not already present
-        /*if ((templateForVmCreation != null) && !tmpinstalled) {
+    @Override
+    public void templatesOnPoolChanged(long poolId) {
+        _poolCapacityModel.templatesChanged(poolId);
+    }
 
-        }*/
+    @Override
+    public void volumeOnPoolChanged(Volume volume) {
+        _poolCapacityModel.volumeChanged(volume);
+    }
 
-        return totalAllocatedSize;
+    @Override
+    public List<Long> orderPoolsByAccountVolumeCount(List<Long> poolIds, long accountId) {
+        return _poolCapacityModel.orderByAccountVolumes(poolIds, accountId);
     }
 
 
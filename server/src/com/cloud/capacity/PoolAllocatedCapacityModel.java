@@ -0,0 +1,433 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.PeerCacheInvalidator;
+import com.cloud.storage.VMTemplateStoragePoolVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.VolumeVO;
+import com.cloud.storage.dao.VMTemplatePoolDao;
+import com.cloud.storage.dao.VolumeDao;
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.concurrency.GenerationGuard;
+import com.cloud.utils.fsm.StateListener;
+
+/**
+ * Allocated capacity of primary storage pools, the figure
+ * CapacityManager.getAllocatedPoolCapacity() reports, kept in memory.
+ *
+ * A pool is loaded from the database the first time it is asked for, in one
+ * pass over its volumes and one over its templates. After that volume state
+ * transitions are applied as deltas, a change to the templates on a pool
+ * drops the pool so the next lookup loads it again, and reconcile() replaces
+ * an entry with a fresh load and reports how far it had drifted. Loads run
+ * outside the lock and are only kept if the pool did not change meanwhile.
+ *
+ * Every change to a pool is also sent to the peer management servers, which
+ * drop the pool and load it again on their next lookup.
+ */
+public class PoolAllocatedCapacityModel implements StateListener<Volume.State, Volume.Event, Volume> {
+    private static final Logger s_logger = Logger.getLogger(PoolAllocatedCapacityModel.class);
+
+    public static final String POOL_CHANGED = "PoolAllocatedCapacityModel.PoolChanged";
+
+    private final VolumeDao _volumeDao;
+    private final VMTemplatePoolDao _templatePoolDao;
+    private final long _extraBytesPerVolume;
+    private ClusterManager _clusterMgr;
+
+    private final Map<Long, PoolUsage> _pools = new HashMap<Long, PoolUsage>();
+    // volume id -> what it is counted as, for the volumes on loaded pools
+    private final Map<Long, VolumeUsage> _volumes = new HashMap<Long, VolumeUsage>();
+    // tells a load whether it raced with a change to its pool
+    private final GenerationGuard<Long> _generations = new GenerationGuard<Long>();
+
+    private long _hitCount;
+    private final LatencyHistogram _loadTimes = new LatencyHistogram();
+    private final LatencyHistogram _reconcileTimes = new LatencyHistogram();
+    private long _driftCount;
+
+    private static class VolumeUsage {
+        final long poolId;
+        final long size;
+        final long snapshotChainSize;
+        final long accountId;
+        final boolean ready;
+
+        VolumeUsage(long poolId, long size, long snapshotChainSize, long accountId, boolean ready) {
+            this.poolId = poolId;
+            this.size = size;
+            this.snapshotChainSize = snapshotChainSize;
+            this.accountId = accountId;
+            this.ready = ready;
+        }
+
+        boolean sameAs(VolumeUsage other) {
+            return other != null && poolId == other.poolId && size == other.size && snapshotChainSize == other.snapshotChainSize
+                    && accountId == other.accountId && ready == other.ready;
+        }
+    }
+
+    private static class PoolUsage {
+        final Set<Long> volumeIds = new HashSet<Long>();
+        // account id -> number of its Ready volumes, for the user-dispersing allocators
+        final Map<Long, Integer> readyVolumes = new HashMap<Long, Integer>();
+        long volumeBytes;
+        long snapshotBytes;
+        int templateCount;
+        long templateBytes;
+        long loaded = System.currentTimeMillis();
+
+        void add(long volumeId, VolumeUsage usage) {
+            if (volumeIds.add(volumeId)) {
+                volumeBytes += usage.size;
+                snapshotBytes += usage.snapshotChainSize;
+                if (usage.ready) {
+                    readyVolumes.put(usage.accountId, getReadyVolumes(usage.accountId) + 1);
+                }
+            }
+        }
+
+        void remove(long volumeId, VolumeUsage usage) {
+            if (volumeIds.remove(volumeId)) {
+                volumeBytes -= usage.size;
+                snapshotBytes -= usage.snapshotChainSize;
+                if (usage.ready) {
+                    readyVolumes.put(usage.accountId, getReadyVolumes(usage.accountId) - 1);
+                }
+            }
+        }
+
+        int getReadyVolumes(long accountId) {
+            Integer count = readyVolumes.get(accountId);
+            return count != null ? count : 0;
+        }
+
+        long getTotal(long extraBytesPerVolume) {
+            return volumeBytes + volumeIds.size() * extraBytesPerVolume + snapshotBytes + templateBytes + templateCount * extraBytesPerVolume;
+        }
+    }
+
+    public PoolAllocatedCapacityModel(VolumeDao volumeDao, VMTemplatePoolDao templatePoolDao, long extraBytesPerVolume) {
+        _volumeDao = volumeDao;
+        _templatePoolDao = templatePoolDao;
+        _extraBytesPerVolume = extraBytesPerVolume;
+    }
+
+    /**
+     * Peers are notified of changes once this is set.
+     */
+    public void setClusterManager(ClusterManager clusterMgr) {
+        _clusterMgr = clusterMgr;
+    }
+
+    /**
+     * @return bytes allocated on the pool by volumes, VM snapshots and templates
+     */
+    public long getAllocatedCapacity(long poolId) {
+        PoolUsage usage = getPool(poolId);
+        synchronized (this) {
+            return usage.getTotal(_extraBytesPerVolume);
+        }
+    }
+
+    /**
+     * @return the pools ordered by the number of Ready volumes the account has
+     *         on them, fewest first; pools with the same number keep their order
+     */
+    public List<Long> orderByAccountVolumes(List<Long> poolIds, long accountId) {
+        final Map<Long, Integer> counts = new HashMap<Long, Integer>();
+        for (Long poolId : poolIds) {
+            PoolUsage usage = getPool(poolId);
+            synchronized (this) {
+                counts.put(poolId, usage.getReadyVolumes(accountId));
+            }
+        }
+
+        List<Long> ordered = new ArrayList<Long>(poolIds);
+        Collections.sort(ordered, new Comparator<Long>() {
+            @Override
+            public int compare(Long a, Long b) {
+                return counts.get(a).compareTo(counts.get(b));
+            }
+        });
+        return ordered;
+    }
+
+    /**
+     * @return the pool as the model has it, loading it first if needed; read
+     *         it while holding the model's lock
+     */
+    private PoolUsage getPool(long poolId) {
+        long generation;
+        synchronized (this) {
+            PoolUsage usage = _pools.get(poolId);
+            if (usage != null) {
+                _hitCount++;
+                return usage;
+            }
+            generation = _generations.get(poolId);
+        }
+
+        Map<Long, VolumeUsage> volumes = new HashMap<Long, VolumeUsage>();
+        long start = System.currentTimeMillis();
+        PoolUsage usage = load(poolId, volumes);
+        _loadTimes.record(System.currentTimeMillis() - start);
+        synchronized (this) {
+            if (_generations.isCurrent(poolId, generation) && !_pools.containsKey(poolId)) {
+                install(poolId, usage, volumes);
+            }
+        }
+        return usage;
+    }
+
+    /**
+     * Loads the pool from the database and replaces what the model had.
+     *
+     * @return the freshly loaded allocated capacity
+     */
+    public long reconcile(long poolId) {
+        long generation;
+        Long cached = null;
+        synchronized (this) {
+            PoolUsage usage = _pools.get(poolId);
+            if (usage != null) {
+                cached = usage.getTotal(_extraBytesPerVolume);
+            }
+            generation = _generations.get(poolId);
+        }
+
+        Map<Long, VolumeUsage> volumes = new HashMap<Long, VolumeUsage>();
+        long start = System.currentTimeMillis();
+        PoolUsage usage = load(poolId, volumes);
+        _reconcileTimes.record(System.currentTimeMillis() - start);
+        long total = usage.getTotal(_extraBytesPerVolume);
+        synchronized (this) {
+            if (cached != null && cached.longValue() != total) {
+                _driftCount++;
+                s_logger.info("Allocated capacity of pool " + poolId + " was off by " + (cached.longValue() - total) + " bytes, cached: " + cached + ", actual: " + total);
+            }
+            removePool(poolId);
+            if (_generations.isCurrent(poolId, generation)) {
+                install(poolId, usage, volumes);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Templates were added to, removed from or resized on the pool.
+     */
+    public void templatesChanged(long poolId) {
+        poolChangedOnPeer(poolId);
+        notifyPeers(poolId);
+    }
+
+    /**
+     * A peer management server changed the pool, it is loaded again on the
+     * next lookup.
+     */
+    public synchronized void poolChangedOnPeer(long poolId) {
+        removePool(poolId);
+        _generations.invalidate(poolId);
+    }
+
+    /**
+     * Drops the pools loaded more than maxAgeMs ago, the next lookup loads
+     * them again.
+     *
+     * @return the number of pools dropped
+     */
+    public synchronized int expire(long maxAgeMs) {
+        long cutoff = System.currentTimeMillis() - maxAgeMs;
+        int count = 0;
+        Iterator<Map.Entry<Long, PoolUsage>> it = _pools.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, PoolUsage> entry = it.next();
+            if (entry.getValue().loaded <= cutoff) {
+                for (Long volumeId : entry.getValue().volumeIds) {
+                    _volumes.remove(volumeId);
+                }
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Applies a volume change the model was not told about through a state
+     * transition, such as a resize or a new VM snapshot chain size.
+     */
+    public void volumeChanged(Volume volume) {
+        volumeChanged(volume, volume.getState());
+    }
+
+    public void volumeChanged(Volume volume, Volume.State state) {
+        VolumeUsage current = getUsage(volume, state);
+        VolumeUsage previous;
+        synchronized (this) {
+            previous = _volumes.remove(volume.getId());
+            if (previous != null) {
+                PoolUsage usage = _pools.get(previous.poolId);
+                if (usage != null) {
+                    usage.remove(volume.getId(), previous);
+                }
+                _generations.invalidate(previous.poolId);
+            }
+            if (current != null) {
+                PoolUsage usage = _pools.get(current.poolId);
+                if (usage != null) {
+                    usage.add(volume.getId(), current);
+                    _volumes.put(volume.getId(), current);
+                }
+                if (previous == null || previous.poolId != current.poolId) {
+                    _generations.invalidate(current.poolId);
+                }
+            }
+        }
+
+        // transitions that do not change what the volume counts for, e.g. Creating -> Ready, stay local
+        if (current != null && current.sameAs(previous)) {
+            return;
+        }
+        if (previous != null) {
+            notifyPeers(previous.poolId);
+        }
+        if (current != null && (previous == null || previous.poolId != current.poolId)) {
+            notifyPeers(current.poolId);
+        }
+    }
+
+    @Override
+    public boolean preStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+        return true;
+    }
+
+    @Override
+    public boolean postStateTransitionEvent(Volume.State oldState, Volume.Event event, Volume.State newState, Volume vo, boolean status, Object opaque) {
+        if (status) {
+            volumeChanged(vo, newState);
+        }
+        return true;
+    }
+
+    public synchronized int getPoolCount() {
+        return _pools.size();
+    }
+
+    public synchronized long getHitCount() {
+        return _hitCount;
+    }
+
+    public long getLoadCount() {
+        return _loadTimes.getCount();
+    }
+
+    /**
+     * @return how long loading a pool that was not cached took
+     */
+    public LatencyHistogram getLoadTimes() {
+        return _loadTimes;
+    }
+
+    public long getReconcileCount() {
+        return _reconcileTimes.getCount();
+    }
+
+    public LatencyHistogram getReconcileTimes() {
+        return _reconcileTimes;
+    }
+
+    /**
+     * @return number of reconciles that found the cached figure wrong
+     */
+    public synchronized long getDriftCount() {
+        return _driftCount;
+    }
+
+    private void notifyPeers(long poolId) {
+        if (_clusterMgr != null) {
+            PeerCacheInvalidator.notifyPeers(_clusterMgr, POOL_CHANGED, poolId);
+        }
+    }
+
+    protected PoolUsage load(long poolId, Map<Long, VolumeUsage> volumes) {
+        PoolUsage usage = new PoolUsage();
+        // non destroyed volumes of every type
+        for (VolumeVO volume : _volumeDao.findByPoolId(poolId, null)) {
+            VolumeUsage volumeUsage = getUsage(volume, volume.getState());
+            if (volumeUsage != null) {
+                usage.add(volume.getId(), volumeUsage);
+                volumes.put(volume.getId(), volumeUsage);
+            }
+        }
+        for (VMTemplateStoragePoolVO templatePool : _templatePoolDao.listByPoolId(poolId)) {
+            usage.templateCount++;
+            usage.templateBytes += templatePool.getTemplateSize();
+        }
+        return usage;
+    }
+
+    private static VolumeUsage getUsage(Volume volume, Volume.State state) {
+        if (volume.getPoolId() == null || state == Volume.State.Destroy || state == Volume.State.Expunged) {
+            return null;
+        }
+        long size = volume.getSize() != null ? volume.getSize() : 0;
+        long chainSize = 0;
+        if (volume.getVolumeType() == Volume.Type.ROOT && volume.getInstanceId() != null && volume.getVmSnapshotChainSize() != null) {
+            chainSize = volume.getVmSnapshotChainSize();
+        }
+        return new VolumeUsage(volume.getPoolId(), size, chainSize, volume.getAccountId(), state == Volume.State.Ready);
+    }
+
+    private void install(long poolId, PoolUsage usage, Map<Long, VolumeUsage> volumes) {
+        for (Map.Entry<Long, VolumeUsage> entry : volumes.entrySet()) {
+            // a volume that moved here keeps being counted on its old pool otherwise
+            VolumeUsage previous = _volumes.put(entry.getKey(), entry.getValue());
+            if (previous != null && previous.poolId != poolId) {
+                PoolUsage previousPool = _pools.get(previous.poolId);
+                if (previousPool != null) {
+                    previousPool.remove(entry.getKey(), previous);
+                }
+            }
+        }
+        _pools.put(poolId, usage);
+    }
+
+    private void removePool(long poolId) {
+        PoolUsage usage = _pools.remove(poolId);
+        if (usage != null) {
+            for (Long volumeId : usage.volumeIds) {
+                _volumes.remove(volumeId);
+            }
+        }
+    }
+}
@@ -42,10 +42,12 @@ public class StorageCapacityListener implements Listener {
     
     CapacityDao _capacityDao;
     StorageManager _storageMgr;
+    PoolAllocatedCapacityModel _poolCapacityModel;
 
-    public StorageCapacityListener(CapacityDao capacityDao, StorageManager storageMgr) {
+    public StorageCapacityListener(CapacityDao capacityDao, StorageManager storageMgr, PoolAllocatedCapacityModel poolCapacityModel) {
         this._capacityDao = capacityDao;
         this._storageMgr =  storageMgr;
+        this._poolCapacityModel = poolCapacityModel;
     }
 
 
@@ -84,6 +86,9 @@ public class StorageCapacityListener implements Listener {
                     (overProvFactor.multiply(new BigDecimal(server.getTotalSize()))).longValue(),
                     CapacityVO.CAPACITY_TYPE_STORAGE_ALLOCATED);
             _capacityDao.persist(capacity);
+
+            // volumes may have been changed while the storage was away, reload the pools on next use
+            _poolCapacityModel.expire(0);
         }
 
     }
@@ -0,0 +1,66 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.cluster;
+
+import org.apache.cloudstack.framework.messagebus.MessageBus;
+import org.apache.cloudstack.framework.messagebus.MessageSubscriber;
+import org.apache.log4j.Logger;
+
+import com.cloud.agent.api.CacheInvalidationCommand;
+import com.cloud.agent.api.Command;
+import com.cloud.serializer.GsonHelper;
+
+/**
+ * Keeps the caches of the management servers in a cluster in step. The
+ * server that changes an entity notifies its peers; on each peer
+ * ClusteredAgentManagerImpl republishes the subject and id on the local
+ * message bus, where the owner of the cache has subscribed.
+ *
+ * The broadcast is best effort. A peer that misses it keeps its stale entry
+ * until the cache's own expiry, so every cache using this needs one.
+ */
+public class PeerCacheInvalidator {
+    private static final Logger s_logger = Logger.getLogger(PeerCacheInvalidator.class);
+
+    public interface Listener {
+        void invalidate(long id);
+    }
+
+    private PeerCacheInvalidator() {
+    }
+
+    public static void notifyPeers(ClusterManager clusterMgr, String subject, long id) {
+        try {
+            Command[] cmds = new Command[] {new CacheInvalidationCommand(subject, id)};
+            clusterMgr.broadcast(0, GsonHelper.getGson().toJson(cmds));
+        } catch (Exception e) {
+            s_logger.warn("Unable to notify peer management servers of the change to " + subject + " " + id, e);
+        }
+    }
+
+    /**
+     * Subscribes to the invalidations the peers send for the subject.
+     */
+    public static void subscribe(MessageBus messageBus, String subject, final Listener listener) {
+        messageBus.subscribe(subject, new MessageSubscriber() {
+            @Override
+            public void onPublishMessage(String senderAddress, String subject, Object args) {
+                listener.invalidate((Long)args);
+            }
+        });
+    }
+}
@@ -168,6 +168,8 @@ public enum Config {
 	XapiWait("Advanced", AgentManager.class, Integer.class, "xapiwait", "600", "Time (in seconds) to wait for XAPI to return", null),
     MigrateWait("Advanced", AgentManager.class, Integer.class, "migratewait", "3600", "Time (in seconds) to wait for VM migrate finish", null),
 	HAWorkers("Advanced", AgentManager.class, Integer.class, "ha.workers", "5", "Number of ha worker threads.", null),
+    HABatchSize("Advanced", HighAvailabilityManager.class, Integer.class, "ha.batch.size", "100", "Maximum number of VMs of a failed host an ha worker takes at once", null),
+    HARestartWorkers("Advanced", HighAvailabilityManager.class, Integer.class, "ha.restart.workers", "10", "Number of threads restarting the VMs of a failed host in parallel", null),
 	MountParent("Advanced", ManagementServer.class, String.class, "mount.parent", "/var/cloudstack/mnt", "The mount point on the Management Server for Secondary Storage.", null),
 //	UpgradeURL("Advanced", ManagementServer.class, String.class, "upgrade.url", "http://example.com:8080/client/agent/update.zip", "The upgrade URL is the URL of the management server that agents will connect to in order to automatically upgrade.", null),
 	SystemVMUseLocalStorage("Advanced", ManagementServer.class, Boolean.class, "system.vm.use.local.storage", "false", "Indicates whether to use local storage pools or shared storage pools for system VMs.", null),
@@ -261,6 +263,8 @@ public enum Config {
     VmwareSystemVmNicDeviceType("Advanced", ManagementServer.class, String.class, "vmware.systemvm.nic.device.type", "E1000", "Specify the default network device type for system VMs, valid values are E1000, PCNet32, Vmxnet2, Vmxnet3", null),
     VmwareRecycleHungWorker("Advanced", ManagementServer.class, Boolean.class, "vmware.recycle.hung.wokervm", "false", "Specify whether or not to recycle hung worker VMs", null),
     VmwareHungWorkerTimeout("Advanced", ManagementServer.class, Long.class, "vmware.hung.wokervm.timeout", "7200", "Worker VM timeout in seconds", null),
+    VmwareContextsMaxPerVCenter("Advanced", ManagementServer.class, Integer.class, "vmware.contexts.max.per.vcenter", "128", "Maximum number of vCenter API sessions a management server opens per vCenter and user", null),
+    VmwareContextAcquireTimeout("Advanced", ManagementServer.class, Long.class, "vmware.context.acquire.timeout", "120", "Time in seconds to wait for a vCenter API session when the maximum is reached", null),
     VmwareEnableNestedVirtualization("Advanced", ManagementServer.class, Boolean.class, "vmware.nested.virtualization", "false", "When set to true this will enable nested virtualization when this is supported by the hypervisor", null),
 
     // Midonet
@@ -273,6 +277,10 @@ public enum Config {
     KvmGuestNetwork("Hidden", ManagementServer.class, String.class, "kvm.guest.network.device", null, "Specify the private bridge on host for private network", null),
     KvmSshToAgentEnabled("Advanced", ManagementServer.class, Boolean.class, "kvm.ssh.to.agent", "true", "Specify whether or not the management server is allowed to SSH into KVM Agents", null),
 
+    // Simulator
+    SimulatorInMemoryState("Advanced", ManagementServer.class, Boolean.class, "simulator.inmemory.state", "false", "Keep the mock hosts and VMs of the simulator in memory instead of the simulator database, for scale testing", null),
+    SimulatorAgentWorkers("Advanced", ManagementServer.class, Integer.class, "simulator.agent.workers", "5", "Number of threads handling simulated system VM agents", null),
+
 	// Usage
 	UsageExecutionTimezone("Usage", ManagementServer.class, String.class, "usage.execution.timezone", null, "The timezone to use for usage job execution time", null),
 	UsageStatsJobAggregationRange("Usage", ManagementServer.class, Integer.class, "usage.stats.job.aggregation.range", "1440", "The range of time for aggregating the user statistics specified in minutes (e.g. 1440 for daily, 60 for hourly.", null),
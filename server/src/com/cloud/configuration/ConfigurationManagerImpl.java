@@ -68,6 +68,7 @@ import org.apache.cloudstack.config.Configuration;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationService;
 import org.apache.cloudstack.engine.subsystem.api.storage.DataStoreManager;
+import org.apache.cloudstack.framework.config.ConfigDepotAdmin;
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
 import org.apache.cloudstack.framework.config.impl.ConfigurationVO;
@@ -85,10 +86,13 @@ import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailVO;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolDetailsDao;
 import org.apache.cloudstack.storage.datastore.db.StoragePoolVO;
 
+import com.cloud.agent.api.Command;
+import com.cloud.agent.api.ConfigChangedCommand;
 import com.cloud.alert.AlertManager;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.capacity.CapacityManager;
 import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.cluster.ClusterManager;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.dc.AccountVlanMapVO;
 import com.cloud.dc.ClusterDetailsDao;
@@ -166,6 +170,7 @@ import com.cloud.org.Grouping;
 import com.cloud.org.Grouping.AllocationState;
 import com.cloud.projects.Project;
 import com.cloud.projects.ProjectManager;
+import com.cloud.serializer.GsonHelper;
 import com.cloud.server.ConfigurationServer;
 import com.cloud.server.ManagementService;
 import com.cloud.service.ServiceOfferingVO;
@@ -304,6 +309,10 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
     AffinityGroupDao _affinityGroupDao;
     @Inject
     AffinityGroupService _affinityGroupService;
+    @Inject
+    ConfigDepotAdmin _configDepotAdmin;
+    @Inject
+    ClusterManager _clusterMgr;
 
     // FIXME - why don't we have interface for DataCenterLinkLocalIpAddressDao?
     @Inject
@@ -504,6 +513,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
             default:
                 throw new InvalidParameterValueException("Scope provided is invalid");
             }
+            scopedConfigChanged(ConfigKey.Scope.valueOf(scope), resourceId);
             return value;
         }
 
@@ -616,9 +626,36 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
 
         txn.commit();
+        notifyConfigChanged(name);
         return _configDao.getValue(name);
     }
 
+    /**
+     * Drops the cached values of a changed parameter here and on the peer
+     * management servers, so dynamic config keys pick up the new value
+     * without waiting for the cache to expire.
+     */
+    private void notifyConfigChanged(String name) {
+        _configDepotAdmin.invalidateCache(name);
+        notifyPeers(new ConfigChangedCommand(name), name);
+    }
+
+    @Override
+    public void scopedConfigChanged(ConfigKey.Scope scope, long resourceId) {
+        _configDepotAdmin.invalidateScopedCache(scope, resourceId);
+        notifyPeers(new ConfigChangedCommand(scope.toString(), resourceId), scope + " " + resourceId);
+    }
+
+    private void notifyPeers(ConfigChangedCommand cmd, String changed) {
+        try {
+            Command[] cmds = new Command[] {cmd};
+            _clusterMgr.broadcast(0, GsonHelper.getGson().toJson(cmds));
+        } catch (Exception e) {
+            // the peers still pick up the change once their cached value expires
+            s_logger.warn("Unable to notify peer management servers of the change to " + changed, e);
+        }
+    }
+
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_CONFIGURATION_VALUE_EDIT, eventDescription = "updating configuration")
     public Configuration updateConfiguration(UpdateCfgCmd cmd) throws InvalidParameterValueException {
@@ -1778,6 +1815,7 @@ public class ConfigurationManagerImpl extends ManagerBase implements Configurati
         }
 
         txn.commit();
+        scopedConfigChanged(ConfigKey.Scope.Zone, zoneId);
         return zone;
     }
 
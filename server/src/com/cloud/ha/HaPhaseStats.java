@@ -0,0 +1,66 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import com.cloud.utils.LatencyHistogram;
+
+/**
+ * Latencies of the phases HA work goes through, since the management server
+ * started.
+ */
+public class HaPhaseStats {
+    public enum Phase {
+        /** from scheduled, or due again, until a worker took it */
+        Queued,
+        /** one host investigation for a batch */
+        InvestigateHost,
+        /** per VM investigation, fencing and forced stop */
+        Fence,
+        /** starting the VM again */
+        Restart,
+        /** a whole host batch */
+        Batch
+    }
+
+    private final LatencyHistogram[] _latencies = new LatencyHistogram[Phase.values().length];
+
+    public HaPhaseStats() {
+        for (int i = 0; i < _latencies.length; i++) {
+            _latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Phase phase, long ms) {
+        _latencies[phase.ordinal()].record(ms);
+    }
+
+    public LatencyHistogram getLatency(Phase phase) {
+        return _latencies[phase.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(phase).append(": ").append(getLatency(phase));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,77 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import java.util.Comparator;
+
+import com.cloud.vm.VirtualMachine;
+
+/**
+ * Order in which the VMs of a failed host are restarted. The virtual
+ * appliances the user VMs depend on come first, then the other system VMs,
+ * then HA enabled user VMs before the rest. Within a class the larger service
+ * offerings go first, while there is still room left for them.
+ */
+public class HaRestartOrder implements Comparator<HaRestartOrder.Entry> {
+    public static class Entry {
+        final long workId;
+        final int haClass;
+        final long cpu;
+        final long ramSize;
+
+        /**
+         * @param cpu total MHz of the service offering, 0 if unknown
+         * @param ramSize MB of the service offering, 0 if unknown
+         */
+        public Entry(long workId, VirtualMachine.Type type, boolean haEnabled, long cpu, long ramSize) {
+            this.workId = workId;
+            this.haClass = haClass(type, haEnabled);
+            this.cpu = cpu;
+            this.ramSize = ramSize;
+        }
+
+        public long getWorkId() {
+            return workId;
+        }
+    }
+
+    static int haClass(VirtualMachine.Type type, boolean haEnabled) {
+        if (type == VirtualMachine.Type.DomainRouter || type == VirtualMachine.Type.InternalLoadBalancerVm) {
+            return 0;
+        } else if (type != null && type != VirtualMachine.Type.User) {
+            return 1;
+        } else if (haEnabled) {
+            return 2;
+        }
+        return 3;
+    }
+
+    @Override
+    public int compare(Entry e1, Entry e2) {
+        if (e1.haClass != e2.haClass) {
+            return e1.haClass < e2.haClass ? -1 : 1;
+        }
+        if (e1.ramSize != e2.ramSize) {
+            return e1.ramSize > e2.ramSize ? -1 : 1;
+        }
+        if (e1.cpu != e2.cpu) {
+            return e1.cpu > e2.cpu ? -1 : 1;
+        }
+        // oldest work first
+        return e1.workId < e2.workId ? -1 : (e1.workId == e2.workId ? 0 : 1);
+    }
+}
@@ -17,11 +17,15 @@
 package com.cloud.ha;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -60,6 +64,8 @@ import com.cloud.host.dao.HostDao;
 import com.cloud.hypervisor.Hypervisor.HypervisorType;
 import com.cloud.resource.ResourceManager;
 import com.cloud.server.ManagementServer;
+import com.cloud.service.ServiceOfferingVO;
+import com.cloud.service.dao.ServiceOfferingDao;
 import com.cloud.storage.StorageManager;
 import com.cloud.storage.dao.GuestOSCategoryDao;
 import com.cloud.storage.dao.GuestOSDao;
@@ -115,6 +121,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     HostPodDao _podDao;
     @Inject
     ClusterDetailsDao _clusterDetailsDao;
+    @Inject
+    ServiceOfferingDao _offeringDao;
     long _serverId;
     
     @Inject
@@ -172,6 +180,11 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     boolean _forceHA;
     String _haTag = null;
 
+    // the VMs of a failed host are taken as one batch and restarted in parallel
+    int _batchSize;
+    ExecutorService _restartExecutor;
+    final HaPhaseStats _phaseStats = new HaPhaseStats();
+
     protected HighAvailabilityManagerImpl() {
     }
 
@@ -245,8 +258,10 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Notifying HA Mgr of to restart vm " + vm.getId() + "-" + vm.getHostName());
             }
-            scheduleRestart(vm, investigate);
+            scheduleRestart(vm, investigate, false);
         }
+        // all of the work is in, a worker can take it as one batch
+        wakeupWorkers();
     }
 
     @Override
@@ -284,6 +299,10 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
     @Override
     public void scheduleRestart(VMInstanceVO vm, boolean investigate) {
+        scheduleRestart(vm, investigate, true);
+    }
+
+    protected void scheduleRestart(VMInstanceVO vm, boolean investigate, boolean wakeup) {
         Long hostId = vm.getHostId();
         if (hostId == null) {
             try {
@@ -361,11 +380,21 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             s_logger.info("Schedule vm for HA:  " + vm);
         }
 
-        wakeupWorkers();
-
+        if (wakeup) {
+            wakeupWorkers();
+        }
     }
 
     protected Long restart(HaWorkVO work) {
+        return restart(work, null);
+    }
+
+    /**
+     * @param hostState the state the investigators found the host in for the
+     *        whole batch, null if it was not investigated. When the host is
+     *        known to be down its VMs are not investigated one by one.
+     */
+    protected Long restart(HaWorkVO work, Status hostState) {
         List<HaWorkVO> items = _haDao.listFutureHaWorkForVm(work.getInstanceId(), work.getId());
         if (items.size() > 0) {
             StringBuilder str = new StringBuilder("Cancelling this work item because newer ones have been scheduled.  Work Ids = [");
@@ -427,6 +456,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         String hostDesc = "name: " + host.getName() + "(id:" + host.getId() + "), availability zone: " + dcVO.getName() + ", pod: " + podVO.getName();
 
         Boolean alive = null;
+        long fenceStart = System.currentTimeMillis();
         if (work.getStep() == Step.Investigating) {
             if (!isHostRemoved) {
                 if (vm.getHostId() == null || vm.getHostId() != work.getHostId()) {
@@ -435,12 +465,17 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                 }
 
                 Investigator investigator = null;
-                for(Investigator it : _investigators) {
-                    investigator = it;
-                    alive = investigator.isVmAlive(vm, host);
-                    s_logger.info(investigator.getName() + " found " + vm + "to be alive? " + alive);
-                    if (alive != null) {
-                        break;
+                if (hostState == Status.Down) {
+                    s_logger.info("Host " + host.getId() + " was found to be down, " + vm + " is not alive");
+                    alive = false;
+                } else {
+                    for(Investigator it : _investigators) {
+                        investigator = it;
+                        alive = investigator.isVmAlive(vm, host);
+                        s_logger.info(investigator.getName() + " found " + vm + "to be alive? " + alive);
+                        if (alive != null) {
+                            break;
+                        }
                     }
                 }
 
@@ -491,6 +526,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
                 work.setStep(Step.Scheduled);
                 _haDao.update(work.getId(), work);
+                _phaseStats.record(HaPhaseStats.Phase.Fence, System.currentTimeMillis() - fenceStart);
             } else {
                 s_logger.debug("How come that HA step is Investigating and the host is removed? Calling forced Stop on Vm anyways");
                 try {
@@ -534,8 +570,10 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
             if (_haTag != null) {
                 params.put(VirtualMachineProfile.Param.HaTag, _haTag);
             }
+            long restartStart = System.currentTimeMillis();
             _itMgr.advanceStart(vm.getUuid(), params);
-            
+            _phaseStats.record(HaPhaseStats.Phase.Restart, System.currentTimeMillis() - restartStart);
+
             VMInstanceVO started = _instanceDao.findById(vm.getId());
             if (started != null && started.getState() == VirtualMachine.State.Running) {
                 s_logger.info("VM is now restarted: " + vmId + " on " + started.getHostId());
@@ -743,11 +781,15 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
 
         _haTag = params.get("ha.tag");
 
+        _batchSize = NumbersUtil.parseInt(params.get(Config.HABatchSize.key()), 100);
+        int restartWorkers = NumbersUtil.parseInt(params.get(Config.HARestartWorkers.key()), 10);
+
         _haDao.releaseWorkItems(_serverId);
 
         _stopped = true;
 
         _executor = Executors.newScheduledThreadPool(count, new NamedThreadFactory("HA"));
+        _restartExecutor = Executors.newFixedThreadPool(restartWorkers, new NamedThreadFactory("HA-Restart"));
 
         return true;
     }
@@ -772,6 +814,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         wakeupWorkers();
 
         _executor.shutdown();
+        _restartExecutor.shutdown();
 
         return true;
     }
@@ -779,7 +822,7 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     protected class CleanupTask extends ManagedContextRunnable {
         @Override
         protected void runInContext() {
-            s_logger.info("HA Cleanup Thread Running");
+            s_logger.info("HA Cleanup Thread Running, phase latencies: " + _phaseStats);
 
             try {
                 _haDao.cleanup(System.currentTimeMillis() - _timeBetweenFailures);
@@ -790,6 +833,8 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
     }
 
     protected class WorkerThread extends Thread {
+        private boolean _woken;
+
         public WorkerThread(String name) {
             super(name);
         }
@@ -809,14 +854,17 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
         }
 
         private void runWithContext() {
-            HaWorkVO work = null;
-                try {
+            try {
                 s_logger.trace("Checking the database");
-                work = _haDao.take(_serverId);
-                if (work == null) {
+                List<HaWorkVO> works = _haDao.take(_serverId, _batchSize);
+                if (works.isEmpty()) {
                     try {
                         synchronized (this) {
-                            wait(_timeToSleep);
+                            // work scheduled while this thread was busy must not wait for the timeout
+                            if (!_woken) {
+                                wait(_timeToSleep);
+                            }
+                            _woken = false;
                         }
                         return;
                     } catch (final InterruptedException e) {
@@ -825,53 +873,146 @@ public class HighAvailabilityManagerImpl extends ManagerBase implements HighAvai
                     }
                 }
 
-                NDC.push("work-" + work.getId());
-                s_logger.info("Processing " + work);
-
-                try {
-                    final WorkType wt = work.getWorkType();
-                    Long nextTime = null;
-                    if (wt == WorkType.Migration) {
-                        nextTime = migrate(work);
-                    } else if (wt == WorkType.HA) {
-                        nextTime = restart(work);
-                    } else if (wt == WorkType.Stop || wt == WorkType.CheckStop || wt == WorkType.ForceStop) {
-                        nextTime = stopVM(work);
-                    } else if (wt == WorkType.Destroy) {
-                        nextTime = destroyVM(work);
-                    } else {
-                        assert false : "How did we get here with " + wt.toString();
-                        return;
-                    }
-
-                    if (nextTime == null) {
-                        s_logger.info("Completed " + work);
-                        work.setStep(Step.Done);
-                    } else {
-                        s_logger.info("Rescheduling " + work + " to try again at " + new Date(nextTime << 10));
-                        work.setTimeToTry(nextTime);
-                        work.setServerId(null);
-                        work.setDateTaken(null);
-                    }
-                } catch (Exception e) {
-                    s_logger.error("Terminating " + work, e);
-                    work.setStep(Step.Error);
+                if (works.size() == 1) {
+                    recordQueued(works.get(0));
+                    processWork(works.get(0), null);
+                } else {
+                    processHostBatch(works);
                 }
-                _haDao.update(work.getId(), work);
             } catch (final Throwable th) {
                 s_logger.error("Caught this throwable, ", th);
-            } finally {
-                if (work != null) {
-                    NDC.pop();
-                    }
-                }
+            }
         }
 
         public synchronized void wakup() {
+            _woken = true;
             notifyAll();
         }
     }
 
+    private void recordQueued(HaWorkVO work) {
+        long due = Math.max(work.getCreated() != null ? work.getCreated().getTime() : 0, work.getTimeToTry() << 10);
+        if (due > 0) {
+            _phaseStats.record(HaPhaseStats.Phase.Queued, Math.max(0, System.currentTimeMillis() - due));
+        }
+    }
+
+    /**
+     * Restarts the VMs of one host. The host is investigated once for all of
+     * them, and the VMs are restarted in priority order on the restart pool,
+     * so the deployment planner places them in parallel.
+     */
+    protected void processHostBatch(List<HaWorkVO> works) {
+        long start = System.currentTimeMillis();
+        long hostId = works.get(0).getHostId();
+        s_logger.info("Processing " + works.size() + " HA work items for host " + hostId);
+
+        boolean investigating = false;
+        for (HaWorkVO work : works) {
+            recordQueued(work);
+            investigating |= work.getStep() == Step.Investigating;
+        }
+
+        Status hostState = null;
+        if (investigating) {
+            long investigateStart = System.currentTimeMillis();
+            hostState = investigate(hostId);
+            _phaseStats.record(HaPhaseStats.Phase.InvestigateHost, System.currentTimeMillis() - investigateStart);
+            s_logger.info("Host " + hostId + " was found to be " + hostState + " for " + works.size() + " HA work items");
+        }
+
+        final Map<Long, HaWorkVO> byId = new HashMap<Long, HaWorkVO>();
+        Map<Long, ServiceOfferingVO> offerings = new HashMap<Long, ServiceOfferingVO>();
+        List<HaRestartOrder.Entry> entries = new ArrayList<HaRestartOrder.Entry>(works.size());
+        for (HaWorkVO work : works) {
+            byId.put(work.getId(), work);
+            VMInstanceVO vm = _instanceDao.findById(work.getInstanceId());
+            long cpu = 0;
+            long ramSize = 0;
+            boolean haEnabled = false;
+            if (vm != null) {
+                haEnabled = vm.isHaEnabled();
+                ServiceOfferingVO offering = offerings.get(vm.getServiceOfferingId());
+                if (offering == null) {
+                    offering = _offeringDao.findByIdIncludingRemoved(vm.getServiceOfferingId());
+                    offerings.put(vm.getServiceOfferingId(), offering);
+                }
+                if (offering != null) {
+                    cpu = (long)offering.getCpu() * offering.getSpeed();
+                    ramSize = offering.getRamSize();
+                }
+            }
+            entries.add(new HaRestartOrder.Entry(work.getId(), work.getType(), haEnabled, cpu, ramSize));
+        }
+        Collections.sort(entries, new HaRestartOrder());
+
+        final Status state = hostState;
+        List<Future<?>> futures = new ArrayList<Future<?>>(entries.size());
+        for (HaRestartOrder.Entry entry : entries) {
+            final HaWorkVO work = byId.get(entry.getWorkId());
+            futures.add(_restartExecutor.submit(new ManagedContextRunnable() {
+                @Override
+                protected void runInContext() {
+                    processWork(work, state);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                s_logger.info("Interrupted while waiting for the HA work of host " + hostId);
+                break;
+            } catch (ExecutionException e) {
+                s_logger.error("Caught this throwable, ", e.getCause());
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        _phaseStats.record(HaPhaseStats.Phase.Batch, elapsed);
+        s_logger.info("Processed " + works.size() + " HA work items for host " + hostId + " in " + elapsed + " ms, phase latencies: " + _phaseStats);
+    }
+
+    protected void processWork(HaWorkVO work, Status hostState) {
+        NDC.push("work-" + work.getId());
+        try {
+            s_logger.info("Processing " + work);
+
+            try {
+                final WorkType wt = work.getWorkType();
+                Long nextTime = null;
+                if (wt == WorkType.Migration) {
+                    nextTime = migrate(work);
+                } else if (wt == WorkType.HA) {
+                    nextTime = restart(work, hostState);
+                } else if (wt == WorkType.Stop || wt == WorkType.CheckStop || wt == WorkType.ForceStop) {
+                    nextTime = stopVM(work);
+                } else if (wt == WorkType.Destroy) {
+                    nextTime = destroyVM(work);
+                } else {
+                    assert false : "How did we get here with " + wt.toString();
+                    return;
+                }
+
+                if (nextTime == null) {
+                    s_logger.info("Completed " + work);
+                    work.setStep(Step.Done);
+                } else {
+                    s_logger.info("Rescheduling " + work + " to try again at " + new Date(nextTime << 10));
+                    work.setTimeToTry(nextTime);
+                    work.setServerId(null);
+                    work.setDateTaken(null);
+                }
+            } catch (Exception e) {
+                s_logger.error("Terminating " + work, e);
+                work.setStep(Step.Error);
+            }
+            _haDao.update(work.getId(), work);
+        } finally {
+            NDC.pop();
+        }
+    }
+
     @Override
     public void onManagementNodeJoined(List<? extends ManagementServerHost> nodeList, long selfNodeId) {
     }
@@ -32,6 +32,17 @@ public interface HighAvailabilityDao extends GenericDao<HaWorkVO, Long> {
      */
     HaWorkVO take(long serverId);
 
+    /**
+     * Takes an available work item and, if it is HA work, the other HA work
+     * that is due for the same host, so the VMs of a failed host are handled
+     * together.
+     * 
+     * @param serverId server that is taking this.
+     * @param max most work items to take.
+     * @return the work items taken, the first one being the oldest; empty list if none.
+     */
+    List<HaWorkVO> take(long serverId, int max);
+
     /**
      * Finds all the work items related to this instance.
      * 
@@ -16,6 +16,7 @@
 // under the License.
 package com.cloud.ha.dao;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -41,6 +42,7 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
     private static final Logger s_logger = Logger.getLogger(HighAvailabilityDaoImpl.class);
 
     private final SearchBuilder<HaWorkVO> TBASearch;
+    private final SearchBuilder<HaWorkVO> TBAHostSearch;
     private final SearchBuilder<HaWorkVO> PreviousInstanceSearch;
     private final SearchBuilder<HaWorkVO> UntakenMigrationSearch;
     private final SearchBuilder<HaWorkVO> CleanupSearch;
@@ -64,6 +66,14 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         TBASearch.and("time", TBASearch.entity().getTimeToTry(), Op.LTEQ);
         TBASearch.done();
 
+        TBAHostSearch = createSearchBuilder();
+        TBAHostSearch.and("server", TBAHostSearch.entity().getServerId(), Op.NULL);
+        TBAHostSearch.and("taken", TBAHostSearch.entity().getDateTaken(), Op.NULL);
+        TBAHostSearch.and("time", TBAHostSearch.entity().getTimeToTry(), Op.LTEQ);
+        TBAHostSearch.and("host", TBAHostSearch.entity().getHostId(), Op.EQ);
+        TBAHostSearch.and("type", TBAHostSearch.entity().getWorkType(), Op.EQ);
+        TBAHostSearch.done();
+
         PreviousInstanceSearch = createSearchBuilder();
         PreviousInstanceSearch.and("instance", PreviousInstanceSearch.entity().getInstanceId(), Op.EQ);
         PreviousInstanceSearch.done();
@@ -159,6 +169,53 @@ public class HighAvailabilityDaoImpl extends GenericDaoBase<HaWorkVO, Long> impl
         }
     }
 
+    @Override
+    public List<HaWorkVO> take(final long serverId, final int max) {
+        final Transaction txn = Transaction.currentTxn();
+        try {
+            final long now = System.currentTimeMillis() >> 10;
+            final SearchCriteria<HaWorkVO> sc = TBASearch.create();
+            sc.setParameters("time", now);
+
+            txn.start();
+            List<HaWorkVO> vos = lockRows(sc, new Filter(HaWorkVO.class, "id", true, 0l, 1l), true);
+            if (vos.size() == 0) {
+                txn.commit();
+                return vos;
+            }
+
+            final HaWorkVO first = vos.get(0);
+            final List<HaWorkVO> works = new ArrayList<HaWorkVO>();
+            works.add(first);
+            if (first.getWorkType() == WorkType.HA && max > 1) {
+                final SearchCriteria<HaWorkVO> hostSc = TBAHostSearch.create();
+                hostSc.setParameters("time", now);
+                hostSc.setParameters("host", first.getHostId());
+                hostSc.setParameters("type", WorkType.HA);
+                // the first one is locked by us already and comes back with the others
+                for (HaWorkVO work : lockRows(hostSc, new Filter(HaWorkVO.class, "id", true, 0l, (long)max), true)) {
+                    if (work.getId() != first.getId() && works.size() < max) {
+                        works.add(work);
+                    }
+                }
+            }
+
+            final Date taken = new Date();
+            for (HaWorkVO work : works) {
+                work.setServerId(serverId);
+                work.setDateTaken(taken);
+                update(work.getId(), work);
+            }
+
+            txn.commit();
+
+            return works;
+
+        } catch (final Throwable e) {
+            throw new CloudRuntimeException("Unable to execute take", e);
+        }
+    }
+
     @Override
     public List<HaWorkVO> findPreviousHA(final long instanceId) {
         final SearchCriteria<HaWorkVO> sc = PreviousInstanceSearch.create();
@@ -23,6 +23,9 @@ import javax.ejb.Local;
 import javax.inject.Inject;
 import javax.naming.ConfigurationException;
 
+import org.apache.cloudstack.framework.config.ConfigKey;
+
+import com.cloud.configuration.ConfigurationManager;
 import com.cloud.dc.DcDetailVO;
 import com.cloud.dc.dao.DataCenterDao;
 import com.cloud.dc.dao.DcDetailsDao;
@@ -132,6 +135,8 @@ public class ResourceMetaDataManagerImpl extends ManagerBase implements Resource
     @Inject
     TaggedResourceService _taggedResourceMgr;
     @Inject
+    ConfigurationManager _configMgr;
+    @Inject
     UserVmDetailsDao _userVmDetail;
 
     @Override
@@ -226,6 +231,9 @@ public class ResourceMetaDataManagerImpl extends ManagerBase implements Resource
         }
 
         txn.commit();
+        if (resourceType == TaggedResourceType.Zone) {
+            _configMgr.scopedConfigChanged(ConfigKey.Scope.Zone, _taggedResourceMgr.getResourceId(resourceId, resourceType));
+        }
 
         return true;
     }
@@ -246,6 +254,7 @@ public class ResourceMetaDataManagerImpl extends ManagerBase implements Resource
             _userVmDetailDao.removeDetails(id, key);
         } else if (resourceType == TaggedResourceType.Zone){
             _dcDetailsDao.removeDetails(id, key);
+            _configMgr.scopedConfigChanged(ConfigKey.Scope.Zone, id);
         }
         else{
             throw new InvalidParameterValueException("The resource type " + resourceType + " is not supported by the API yet");
@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -37,6 +38,7 @@ import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationSe
 import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.Configurable;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.lb.dao.ApplicationLoadBalancerRuleDao;
 import org.apache.cloudstack.region.PortableIp;
 import org.apache.cloudstack.region.PortableIpDao;
 import org.apache.cloudstack.region.PortableIpVO;
@@ -145,6 +147,7 @@ import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.db.Transaction;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.IpAddressBitmap;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
@@ -264,6 +267,8 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
     Ipv6AddressManager _ipv6Mgr;
     @Inject
     PortableIpDao _portableIpDao;
+    @Inject
+    ApplicationLoadBalancerRuleDao _appLbRuleDao;
     SearchBuilder<IPAddressVO> AssignIpAddressSearch;
     SearchBuilder<IPAddressVO> AssignIpAddressFromPodVlanSearch;
 
@@ -1649,35 +1654,148 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
             return null;
         }
 
-        Set<Long> availableIps = _networkModel.getAvailableIps(network, requestedIp);
-
-        if (availableIps == null || availableIps.isEmpty()) {
-            return null;
-        }
-
-        Long[] array = availableIps.toArray(new Long[availableIps.size()]);
-
         if (requestedIp != null) {
             // check that requested ip has the same cidr
             String[] cidr = network.getCidr().split("/");
-            boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, NetUtils.long2Ip(array[0]), Integer.parseInt(cidr[1]));
+            boolean isSameCidr = NetUtils.sameSubnetCIDR(requestedIp, cidr[0], Integer.parseInt(cidr[1]));
             if (!isSameCidr) {
                 s_logger.warn("Requested ip address " + requestedIp + " doesn't belong to the network " + network + " cidr");
                 return null;
-            } else {
+            }
+
+            long ip = NetUtils.ip2Long(requestedIp);
+            GuestIps guestIps = getGuestIps(network.getId());
+            synchronized (guestIps) {
+                boolean reloaded = loadGuestIps(guestIps, network, false);
+                // addresses released on other management servers are only seen by a reload
+                if (!guestIps.bitmap.isFree(ip) && !reloaded) {
+                    loadGuestIps(guestIps, network, true);
+                }
+                if (!guestIps.bitmap.isFree(ip) || isGuestIpInUse(network.getId(), requestedIp)) {
+                    s_logger.warn("Requested ip address " + requestedIp + " is already in use in network" + network);
+                    return null;
+                }
+                guestIps.bitmap.markUsed(ip);
                 return requestedIp;
             }
         }
 
-        String result;
-        do {
-            result = NetUtils.long2Ip(array[_rand.nextInt(array.length)]);
-        } while (result.split("\\.")[3].equals("1"));
-        return result;
+        boolean sequential = "sequential".equalsIgnoreCase(GuestIpAllocationPolicy.value());
+        GuestIps guestIps = getGuestIps(network.getId());
+        synchronized (guestIps) {
+            boolean reloaded = loadGuestIps(guestIps, network, false);
+            while (true) {
+                long ip = sequential ? guestIps.bitmap.nextFree(0) : guestIps.bitmap.randomFree(_rand);
+                if (ip < 0) {
+                    if (reloaded) {
+                        return null;
+                    }
+                    // addresses released on other management servers are only seen by a reload
+                    reloaded = loadGuestIps(guestIps, network, true);
+                    continue;
+                }
+                guestIps.bitmap.markUsed(ip);
+                // x.x.x.1 is left alone, it is commonly used by routers
+                if ((ip & 0xff) == 1) {
+                    continue;
+                }
+                String result = NetUtils.long2Ip(ip);
+                if (isGuestIpInUse(network.getId(), result)) {
+                    s_logger.debug("Guest ip address " + result + " was taken outside this management server, picking another one in network " + network);
+                    continue;
+                }
+                return result;
+            }
+        }
+    }
+
+    @Override
+    public void releaseGuestIpAddress(long networkId, String ip) {
+        if (ip == null) {
+            return;
+        }
+        GuestIps guestIps;
+        synchronized (_guestIps) {
+            guestIps = _guestIps.get(networkId);
+        }
+        if (guestIps != null) {
+            synchronized (guestIps) {
+                if (guestIps.bitmap != null) {
+                    guestIps.bitmap.release(NetUtils.ip2Long(ip));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void invalidateGuestIps(long networkId) {
+        synchronized (_guestIps) {
+            _guestIps.remove(networkId);
+        }
+    }
+
+    private GuestIps getGuestIps(long networkId) {
+        synchronized (_guestIps) {
+            GuestIps guestIps = _guestIps.get(networkId);
+            if (guestIps == null) {
+                // networks removed on other management servers are never
+                // invalidated here, drop what would be reloaded anyway
+                long expired = System.currentTimeMillis() - GUEST_IPS_MAX_AGE_MS;
+                for (Iterator<GuestIps> it = _guestIps.values().iterator(); it.hasNext();) {
+                    if (it.next().loaded <= expired) {
+                        it.remove();
+                    }
+                }
+                guestIps = new GuestIps();
+                _guestIps.put(networkId, guestIps);
+            }
+            return guestIps;
+        }
+    }
+
+    /**
+     * Loads the guest addresses of the network if they were never loaded, are
+     * too old, are for another CIDR, or if forced to.  To be called holding
+     * the lock of guestIps.
+     *
+     * @return whether they were loaded
+     */
+    private boolean loadGuestIps(GuestIps guestIps, Network network, boolean force) {
+        if (!force && guestIps.bitmap != null && guestIps.loaded > System.currentTimeMillis() - GUEST_IPS_MAX_AGE_MS && network.getCidr().equals(guestIps.cidr)) {
+            return false;
+        }
+        guestIps.bitmap = _networkModel.getGuestIpBitmap(network, null);
+        guestIps.cidr = network.getCidr();
+        guestIps.loaded = System.currentTimeMillis();
+        return true;
+    }
+
+    private boolean isGuestIpInUse(long networkId, String ip) {
+        return _nicDao.findByIp4AddressAndNetworkId(ip, networkId) != null || _nicSecondaryIpDao.findByIp4AddressAndNetworkId(ip, networkId) != null
+                || _appLbRuleDao.countBySourceIp(new Ip(ip), networkId) > 0;
     }
 
     Random _rand = new Random(System.currentTimeMillis());
 
+    private static final long GUEST_IPS_MAX_AGE_MS = 10 * 60 * 1000L;
+
+    /**
+     * Guest addresses of a network as this management server last saw them.
+     * Addresses picked here are marked at once and released ones are cleared,
+     * so picking does not read every used address of the network again. Each
+     * pick is still checked against the database, which also catches addresses
+     * taken on other management servers.
+     */
+    private static class GuestIps {
+        IpAddressBitmap bitmap;
+        // the network CIDR the bitmap was built for
+        String cidr;
+        long loaded;
+    }
+
+    // network id -> its guest addresses, see GuestIps
+    private final Map<Long, GuestIps> _guestIps = new HashMap<Long, GuestIps>();
+
     @Override
     public boolean applyStaticNats(List<? extends StaticNat> staticNats, boolean continueOnError, boolean forRevoke) throws ResourceUnavailableException {
         Network network = _networksDao.findById(staticNats.get(0).getNetworkId());
@@ -1924,6 +2042,6 @@ public class IpAddressManagerImpl extends ManagerBase implements IpAddressManage
 
     @Override
     public ConfigKey<?>[] getConfigKeys() {
-        return new ConfigKey<?>[] {UseSystemPublicIps};
+        return new ConfigKey<?>[] {UseSystemPublicIps, GuestIpAllocationPolicy};
     }
 }
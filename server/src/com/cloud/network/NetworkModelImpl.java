@@ -26,7 +26,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
@@ -110,6 +109,7 @@ import com.cloud.utils.db.SearchBuilder;
 import com.cloud.utils.db.SearchCriteria;
 import com.cloud.utils.db.SearchCriteria.Op;
 import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.net.IpAddressBitmap;
 import com.cloud.utils.net.NetUtils;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
@@ -582,7 +582,7 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
         		hasFreeIps = isIP6AddressAvailableInNetwork(network.getId());
         	}
         } else {
-            hasFreeIps = (getAvailableIps(network, null)).size() > 0;
+            hasFreeIps = getGuestIpBitmap(network, null).getFreeCount() > 0;
         }
     
         return hasFreeIps;
@@ -1681,9 +1681,19 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
 
     @Override
     public Set<Long> getAvailableIps(Network network, String requestedIp) {
+        IpAddressBitmap bitmap = getGuestIpBitmap(network, requestedIp);
+        if (bitmap == null) {
+            return null;
+        }
+        // same cap as NetUtils.getAllIpsFromCidr, callers only ever need a few
+        return bitmap.listFree(255);
+    }
+
+    @Override
+    public IpAddressBitmap getGuestIpBitmap(Network network, String requestedIp) {
         String[] cidr = network.getCidr().split("/");
         List<String> ips = getUsedIpsInNetwork(network);
-        Set<Long> usedIps = new TreeSet<Long>();
+        IpAddressBitmap bitmap = IpAddressBitmap.fromCidr(cidr[0], Integer.parseInt(cidr[1]));
 
         for (String ip : ips) {
             if (requestedIp != null && requestedIp.equals(ip)) {
@@ -1691,16 +1701,15 @@ public class NetworkModelImpl extends ManagerBase implements NetworkModel {
                 return null;
             }
 
-            usedIps.add(NetUtils.ip2Long(ip));
+            bitmap.markUsed(ip);
         }
 
-        Set<Long> allPossibleIps = NetUtils.getAllIpsFromCidr(cidr[0], Integer.parseInt(cidr[1]), usedIps);
-
         String gateway = network.getGateway();
-        if ((gateway != null) && (allPossibleIps.contains(NetUtils.ip2Long(gateway))))
-            allPossibleIps.remove(NetUtils.ip2Long(gateway));
+        if (gateway != null) {
+            bitmap.markUsed(gateway);
+        }
 
-        return allPossibleIps;
+        return bitmap;
     }
     
     @Override
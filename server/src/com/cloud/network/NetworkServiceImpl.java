@@ -33,7 +33,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 import java.util.UUID;
 
 import javax.ejb.Local;
@@ -837,6 +836,7 @@ public class NetworkServiceImpl extends ManagerBase implements  NetworkService {
         s_logger.debug("Revoving nic secondary ip entry ...");
         _nicSecondaryIpDao.remove(ipVO.getId());
         txn.commit();
+        _ipAddrMgr.releaseGuestIpAddress(ipVO.getNetworkId(), ipVO.getIp4Address());
         return true;
     }
 
@@ -2144,6 +2144,7 @@ public class NetworkServiceImpl extends ManagerBase implements  NetworkService {
                 // which becomes the effective address space for CloudStack guest VMs
                 network.setCidr(guestVmCidr);
                 _networksDao.update(networkId, network);
+                _ipAddrMgr.invalidateGuestIps(networkId);
                 s_logger.info("IP Reservation has been applied. The new CIDR for Guests Vms is " + guestVmCidr);
             }
 
@@ -2275,25 +2276,7 @@ public class NetworkServiceImpl extends ManagerBase implements  NetworkService {
 
 
     protected Set<Long> getAvailableIps(Network network, String requestedIp) {
-        String[] cidr = network.getCidr().split("/");
-        List<String> ips = _nicDao.listIpAddressInNetwork(network.getId());
-        Set<Long> usedIps = new TreeSet<Long>();
-
-        for (String ip : ips) {
-            if (requestedIp != null && requestedIp.equals(ip)) {
-                s_logger.warn("Requested ip address " + requestedIp + " is already in use in network" + network);
-                return null;
-            }
-
-            usedIps.add(NetUtils.ip2Long(ip));
-        }
-        Set<Long> allPossibleIps = NetUtils.getAllIpsFromCidr(cidr[0], Integer.parseInt(cidr[1]), usedIps);
-
-        String gateway = network.getGateway();
-        if ((gateway != null) && (allPossibleIps.contains(NetUtils.ip2Long(gateway))))
-            allPossibleIps.remove(NetUtils.ip2Long(gateway));
-
-        return allPossibleIps;
+        return _networkModel.getAvailableIps(network, requestedIp);
     }
 
 
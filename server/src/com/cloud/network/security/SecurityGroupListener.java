@@ -25,7 +25,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.apache.log4j.Logger;
 
 import com.cloud.agent.AgentManager;
-import com.cloud.agent.Listener;
+import com.cloud.agent.PingDeltaListener;
 import com.cloud.agent.api.AgentControlAnswer;
 import com.cloud.agent.api.AgentControlCommand;
 import com.cloud.agent.api.Answer;
@@ -47,7 +47,7 @@ import com.cloud.network.security.dao.SecurityGroupWorkDao;
  * Listens for answers to ingress rules modification commands
  *
  */
-public class SecurityGroupListener implements Listener {
+public class SecurityGroupListener implements PingDeltaListener {
     public static final Logger s_logger = Logger.getLogger(SecurityGroupListener.class.getName());
 
     private static final int MAX_RETRIES_ON_FAILURE = 3;
@@ -18,6 +18,7 @@ package com.cloud.storage;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.cloudstack.engine.subsystem.api.storage.DataStore;
 import org.apache.cloudstack.engine.subsystem.api.storage.HypervisorHostListener;
@@ -62,6 +63,12 @@ public interface StorageManager extends StorageService {
 	 */
 	boolean isLocalStorageActiveOnHost(Long hostId);
 
+    /**
+     * Same as isLocalStorageActiveOnHost() for a batch of hosts.
+     * @return the ids of the hosts that have local storage in use
+     */
+    Set<Long> listHostsWithActiveLocalStorage(List<Long> hostIds);
+
     /**
 	 * Cleans up storage pools by removing unused templates.
 	 * @param recurring - true if this cleanup is part of a recurring garbage collection thread
@@ -27,6 +27,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -376,6 +377,68 @@ public class StorageManagerImpl extends ManagerBase implements StorageManager, C
         return false;
     }
 
+    @Override
+    public Set<Long> listHostsWithActiveLocalStorage(List<Long> hostIds) {
+        Set<Long> activeHostIds = new HashSet<Long>();
+        if (hostIds.isEmpty()) {
+            return activeHostIds;
+        }
+
+        // pool id -> hosts the pool is attached to
+        Map<Long, List<Long>> poolHostIds = new HashMap<Long, List<Long>>();
+        for (StoragePoolHostVO storagePoolHostRef : _storagePoolHostDao.listByHostIds(hostIds)) {
+            List<Long> ids = poolHostIds.get(storagePoolHostRef.getPoolId());
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                poolHostIds.put(storagePoolHostRef.getPoolId(), ids);
+            }
+            ids.add(storagePoolHostRef.getHostId());
+        }
+        if (poolHostIds.isEmpty()) {
+            return activeHostIds;
+        }
+
+        SearchBuilder<StoragePoolVO> poolSB = _storagePoolDao.createSearchBuilder();
+        poolSB.and("id", poolSB.entity().getId(), SearchCriteria.Op.IN);
+        poolSB.and("poolType", poolSB.entity().getPoolType(), SearchCriteria.Op.IN);
+        poolSB.done();
+
+        SearchCriteria<StoragePoolVO> poolSC = poolSB.create();
+        poolSC.setParameters("id", poolHostIds.keySet().toArray(new Object[poolHostIds.size()]));
+        poolSC.setParameters("poolType", StoragePoolType.LVM, StoragePoolType.EXT);
+        List<StoragePoolVO> localPools = _storagePoolDao.search(poolSC, null);
+        if (localPools.isEmpty()) {
+            return activeHostIds;
+        }
+        Object[] localPoolIds = new Object[localPools.size()];
+        for (int i = 0; i < localPools.size(); i++) {
+            localPoolIds[i] = localPools.get(i).getId();
+        }
+
+        // same conditions as isLocalStorageActiveOnHost(), one row per pool that has any such volume
+        GenericSearchBuilder<VolumeVO, Long> volumeSB = _volsDao.createSearchBuilder(Long.class);
+        volumeSB.selectFields(volumeSB.entity().getPoolId());
+        volumeSB.and("poolId", volumeSB.entity().getPoolId(), SearchCriteria.Op.IN);
+        volumeSB.and("removed", volumeSB.entity().getRemoved(), SearchCriteria.Op.NULL);
+        volumeSB.and("state", volumeSB.entity().getState(), SearchCriteria.Op.NIN);
+
+        SearchBuilder<VMInstanceVO> activeVmSB = _vmInstanceDao.createSearchBuilder();
+        activeVmSB.and("state", activeVmSB.entity().getState(), SearchCriteria.Op.IN);
+        volumeSB.join("activeVmSB", activeVmSB, volumeSB.entity().getInstanceId(), activeVmSB.entity().getId(), JoinBuilder.JoinType.INNER);
+        volumeSB.groupBy(volumeSB.entity().getPoolId());
+        volumeSB.done();
+
+        SearchCriteria<Long> volumeSC = volumeSB.create();
+        volumeSC.setParameters("poolId", localPoolIds);
+        volumeSC.setParameters("state", Volume.State.Expunging, Volume.State.Destroy);
+        volumeSC.setJoinParameters("activeVmSB", "state", State.Starting, State.Running, State.Stopping, State.Migrating);
+
+        for (Long poolId : _volsDao.customSearch(volumeSC, null)) {
+            activeHostIds.addAll(poolHostIds.get(poolId));
+        }
+        return activeHostIds;
+    }
+
     @Override
     public Answer[] sendToPool(StoragePool pool, Commands cmds) throws StorageUnavailableException {
         return sendToPool(pool, null, null, cmds).second();
@@ -1552,17 +1615,10 @@ public class StorageManagerImpl extends ManagerBase implements StorageManager, C
             return false;
         }
 
-        // allocated space includes template of specified volume
-        StoragePoolVO poolVO = _storagePoolDao.findById(pool.getId());
-        long allocatedSizeWithtemplate = _capacityMgr.getAllocatedPoolCapacity(poolVO, null);
+        // allocated space includes the templates on the pool
+        long allocatedSizeWithtemplate = _capacityMgr.getAllocatedPoolCapacity(pool.getId());
         long totalAskingSize = 0;
         for (Volume volume : volumes) {
-            if (volume.getTemplateId() != null) {
-                VMTemplateVO tmpl = _templateDao.findById(volume.getTemplateId());
-                if (tmpl.getFormat() != ImageFormat.ISO) {
-                    allocatedSizeWithtemplate = _capacityMgr.getAllocatedPoolCapacity(poolVO, tmpl);
-                }
-            }
             if (volume.getState() != Volume.State.Ready) {
                 totalAskingSize = totalAskingSize + volume.getSize();
             }
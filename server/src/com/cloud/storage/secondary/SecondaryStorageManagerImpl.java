@@ -1026,6 +1026,14 @@ public class SecondaryStorageManagerImpl extends ManagerBase implements Secondar
         if (_configDao.isPremium()) {
             s_logger.debug("VmWare hypervisor configured, telling the ssvm to load the PremiumSecondaryStorageResource");
             buf.append(" resource=com.cloud.storage.resource.PremiumSecondaryStorageResource");
+            String maxContexts = _configDao.getValue(Config.VmwareContextsMaxPerVCenter.key());
+            if (maxContexts != null) {
+                buf.append(" vmware.contexts.max.per.vcenter=").append(maxContexts);
+            }
+            String acquireTimeout = _configDao.getValue(Config.VmwareContextAcquireTimeout.key());
+            if (acquireTimeout != null) {
+                buf.append(" vmware.context.acquire.timeout=").append(acquireTimeout);
+            }
         } else {
             buf.append(" resource=org.apache.cloudstack.storage.resource.NfsSecondaryStorageResource");
         }
@@ -95,6 +95,7 @@ import com.cloud.agent.api.to.NfsTO;
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.dao.UserVmJoinDao;
 import com.cloud.api.query.vo.UserVmJoinVO;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.Resource.ResourceType;
 import com.cloud.dc.DataCenter;
@@ -298,6 +299,8 @@ public class TemplateManagerImpl extends ManagerBase implements TemplateManager,
     StorageCacheManager cacheMgr;
     @Inject
     EndPointSelector selector;
+    @Inject
+    CapacityManager _capacityMgr;
 
     private TemplateAdapter getAdapter(HypervisorType type) {
         TemplateAdapter adapter = null;
@@ -795,6 +798,7 @@ public class TemplateManagerImpl extends ManagerBase implements TemplateManager,
                 if (answer != null && answer.getResult()) {
                     // Remove the templatePoolVO
                     if (_tmpltPoolDao.remove(templatePoolVO.getId())) {
+                        _capacityMgr.templatesOnPoolChanged(templatePoolVO.getPoolId());
                         s_logger.debug("Successfully evicted template: " + template.getName() + " from storage pool: " + pool.getName());
                     }
                 } else {
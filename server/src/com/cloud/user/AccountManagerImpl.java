@@ -51,12 +51,16 @@ import org.apache.cloudstack.api.command.admin.user.RegisterCmd;
 import org.apache.cloudstack.api.command.admin.user.UpdateUserCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationService;
+import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.managed.context.ManagedContextRunnable;
 import org.apache.cloudstack.region.gslb.GlobalLoadBalancerRuleDao;
 
 import com.cloud.api.ApiDBUtils;
 import com.cloud.api.query.vo.ControlledViewEntity;
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.PeerCacheInvalidator;
 import com.cloud.configuration.Config;
 import com.cloud.configuration.ConfigurationManager;
 import com.cloud.configuration.Resource.ResourceOwnerType;
@@ -246,6 +250,10 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     private GlobalLoadBalancerRuleDao _gslbRuleDao;
     @Inject
     public com.cloud.region.ha.GlobalLoadBalancingRulesService _gslbService;
+    @Inject
+    ClusterManager _clusterMgr;
+    @Inject
+    MessageBus _messageBus;
 
     private List<UserAuthenticator> _userAuthenticators;
     List<UserAuthenticator> _userPasswordEncoders;
@@ -263,6 +271,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
     
 	int _cleanupInterval;
 
+    // api key lookups of signed API requests, see findUserByApiKey()
+    final ApiKeyCache _apiKeyCache = new ApiKeyCache(10000, 60 * 1000);
+
     public List<UserAuthenticator> getUserAuthenticators() {
     	return _userAuthenticators;
     }
@@ -307,6 +318,20 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         String value = configs.get(Config.AccountCleanupInterval.key());
         _cleanupInterval = NumbersUtil.parseInt(value, 60 * 60 * 24); // 1 day.
 
+        // changes made on the peer management servers
+        PeerCacheInvalidator.subscribe(_messageBus, ApiKeyCache.USER_CHANGED, new PeerCacheInvalidator.Listener() {
+            @Override
+            public void invalidate(long id) {
+                _apiKeyCache.invalidateUser(id);
+            }
+        });
+        PeerCacheInvalidator.subscribe(_messageBus, ApiKeyCache.ACCOUNT_CHANGED, new PeerCacheInvalidator.Listener() {
+            @Override
+            public void invalidate(long id) {
+                _apiKeyCache.invalidateAccount(id);
+            }
+        });
+
         return true;
     }
 
@@ -434,11 +459,11 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         }
 
         for (Map.Entry<Long, List<ControlledEntity>> domain : domains.entrySet()) {
+            Domain d = _domainMgr.getDomain(domain.getKey());
+            if (d == null || d.getRemoved() != null) {
+                throw new PermissionDeniedException("Domain is not found.", caller, domain.getValue());
+            }
             for (SecurityChecker checker : _securityCheckers) {
-                Domain d = _domainMgr.getDomain(domain.getKey());
-                if (d == null || d.getRemoved() != null) {
-                    throw new PermissionDeniedException("Domain is not found.", caller, domain.getValue());
-                }
                 try {
                     checker.checkAccess(caller, d);
                 } catch (PermissionDeniedException e) {
@@ -492,6 +517,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
             _userAccountDao.update(id, user);
              txn.commit();
+            if (toDisable) {
+                userChanged(id);
+            }
         } catch (Exception e) {
             s_logger.error("Failed to update login attempts for user with id " + id );
         }
@@ -511,6 +539,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         acctForUpdate.setState(State.enabled);
         acctForUpdate.setNeedsCleanup(false);
         success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+        accountChanged(accountId);
         return success;
     }
 
@@ -525,6 +554,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
                 AccountVO acctForUpdate = _accountDao.createForUpdate();
                 acctForUpdate.setState(State.locked);
                 success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+                accountChanged(accountId);
             } else {
                 if (s_logger.isInfoEnabled()) {
                     s_logger.info("Attempting to lock a non-enabled account, current state is " + account.getState() + " (accountId: " + accountId + "), locking failed.");
@@ -545,6 +575,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             s_logger.error("Unable to delete account " + accountId);
             return false;
         }
+        accountChanged(accountId);
 
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("Removed account " + accountId);
@@ -802,6 +833,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             AccountVO acctForUpdate = _accountDao.createForUpdate();
             acctForUpdate.setState(State.disabled);
             success = _accountDao.update(Long.valueOf(accountId), acctForUpdate);
+            accountChanged(accountId);
 
             if (success) {
                 boolean disableAccountResult = false;
@@ -1082,6 +1114,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             }
 
             _userDao.update(id, user);
+            userChanged(id);
         } catch (Throwable th) {
             s_logger.error("error updating user", th);
             throw new CloudRuntimeException("Unable to update user " + id);
@@ -1118,6 +1151,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         checkAccess(caller, null, true, account);
 
         boolean success = doSetUserStatus(userId, State.disabled);
+        userChanged(userId);
         if (success) {
 
             CallContext.current().putContextParameter(User.class, user.getUuid());
@@ -1165,6 +1199,10 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         txn.commit();
 
+        // the cached keys may have been reloaded before the commit, drop them once it is visible
+        userChanged(userId);
+        accountChanged(user.getAccountId());
+
         if (success) {
             // whenever the user is successfully enabled, reset the login attempts to zero
             updateLoginAttempts(userId, 0, false);
@@ -1211,6 +1249,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
             return _userAccountDao.findById(userId);
         } else if (user.getState().equals(State.enabled)) {
             success = doSetUserStatus(user.getId(), State.locked);
+            userChanged(user.getId());
 
             boolean lockAccount = true;
             List<UserVO> allUsersByAccount = _userDao.listByAccount(user.getAccountId());
@@ -1455,6 +1494,10 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         }
 
         txn.commit();
+        accountChanged(account.getId());
+        if (details != null && success) {
+            _configMgr.scopedConfigChanged(ConfigKey.Scope.Account, account.getId());
+        }
 
         if (success) {
             CallContext.current().putContextParameter(Account.class, account.getUuid());
@@ -1489,7 +1532,9 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
         checkAccess(CallContext.current().getCallingAccount(), null, true, account);
         CallContext.current().putContextParameter(User.class, user.getUuid());
-        return _userDao.remove(id);
+        boolean success = _userDao.remove(id);
+        userChanged(id);
+        return success;
     }
 
     protected class AccountCleanupTask extends ManagedContextRunnable {
@@ -2000,7 +2045,27 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
 
     @Override
     public Pair<User, Account> findUserByApiKey(String apiKey) {
-        return _accountDao.findUserAccountByApiKey(apiKey);
+        Pair<User, Account> userAcct = _apiKeyCache.get(apiKey);
+        if (userAcct == null) {
+            long generation = _apiKeyCache.getGeneration();
+            long start = System.currentTimeMillis();
+            userAcct = _accountDao.findUserAccountByApiKey(apiKey);
+            _apiKeyCache.recordLookup(System.currentTimeMillis() - start);
+            if (userAcct != null) {
+                _apiKeyCache.put(apiKey, userAcct, generation);
+            }
+        }
+        return userAcct;
+    }
+
+    private void userChanged(long userId) {
+        _apiKeyCache.invalidateUser(userId);
+        PeerCacheInvalidator.notifyPeers(_clusterMgr, ApiKeyCache.USER_CHANGED, userId);
+    }
+
+    private void accountChanged(long accountId) {
+        _apiKeyCache.invalidateAccount(accountId);
+        PeerCacheInvalidator.notifyPeers(_clusterMgr, ApiKeyCache.ACCOUNT_CHANGED, accountId);
     }
 
     @Override @DB
@@ -2025,6 +2090,7 @@ public class AccountManagerImpl extends ManagerBase implements AccountManager, M
         keys[0] = createUserApiKey(userId);
         keys[1] = createUserSecretKey(userId);
         txn.commit();
+        userChanged(userId);
 
         return keys;
     }
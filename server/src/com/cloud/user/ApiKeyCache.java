@@ -0,0 +1,171 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.cloud.utils.LatencyHistogram;
+import com.cloud.utils.Pair;
+import com.cloud.utils.concurrency.GenerationGuard;
+
+/**
+ * API key -> owning user and account, so signed API requests do not look the
+ * key up in the database every time.
+ *
+ * Entries are dropped when the user or the account changes, on this
+ * management server through the AccountManager and on the peers through a
+ * CacheInvalidationCommand. The ttl only bounds changes made behind the
+ * AccountManager's back, such as direct database edits. A load that raced
+ * with an invalidation is not kept, see put().
+ */
+public class ApiKeyCache {
+    public static final String USER_CHANGED = "ApiKeyCache.UserChanged";
+    public static final String ACCOUNT_CHANGED = "ApiKeyCache.AccountChanged";
+
+    private final int _maxSize;
+    private final long _ttlMs;
+
+    private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    // bumped by every invalidation
+    private final GenerationGuard<Long> _generation = new GenerationGuard<Long>();
+
+    private final AtomicLong _hitCount = new AtomicLong();
+    // database lookups of the keys that missed
+    private final LatencyHistogram _lookupTimes = new LatencyHistogram();
+    private final AtomicLong _invalidationCount = new AtomicLong();
+
+    private static class Entry {
+        final Pair<User, Account> userAccount;
+        final long loaded = System.currentTimeMillis();
+
+        Entry(Pair<User, Account> userAccount) {
+            this.userAccount = userAccount;
+        }
+    }
+
+    public ApiKeyCache(int maxSize, long ttlMs) {
+        _maxSize = maxSize;
+        _ttlMs = ttlMs;
+    }
+
+    /**
+     * @return the cached user and account, or null if the key has to be
+     *         looked up
+     */
+    public Pair<User, Account> get(String apiKey) {
+        Entry entry = _entries.get(apiKey);
+        if (entry != null && System.currentTimeMillis() - entry.loaded < _ttlMs) {
+            _hitCount.incrementAndGet();
+            return entry.userAccount;
+        }
+        return null;
+    }
+
+    /**
+     * To be read before looking the key up and passed to put().
+     */
+    public long getGeneration() {
+        return _generation.get();
+    }
+
+    /**
+     * Records how long the database lookup of a key that missed took.
+     */
+    public void recordLookup(long ms) {
+        _lookupTimes.record(ms);
+    }
+
+    /**
+     * Caches a looked up key, unless something was invalidated since
+     * getGeneration() was read before the lookup.
+     */
+    public void put(String apiKey, Pair<User, Account> userAccount, long generation) {
+        if (!_generation.isCurrent(generation)) {
+            return;
+        }
+        if (_entries.size() >= _maxSize) {
+            _entries.clear();
+        }
+        Entry entry = new Entry(userAccount);
+        _entries.put(apiKey, entry);
+        // an invalidation that ran between the check and the put may have missed the entry
+        if (!_generation.isCurrent(generation)) {
+            _entries.remove(apiKey, entry);
+        }
+    }
+
+    /**
+     * @return the number of keys dropped
+     */
+    public int invalidateUser(long userId) {
+        _generation.invalidateAll();
+        _invalidationCount.incrementAndGet();
+        int count = 0;
+        for (Iterator<Map.Entry<String, Entry>> it = _entries.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().userAccount.first().getId() == userId) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of keys dropped
+     */
+    public int invalidateAccount(long accountId) {
+        _generation.invalidateAll();
+        _invalidationCount.incrementAndGet();
+        int count = 0;
+        for (Iterator<Map.Entry<String, Entry>> it = _entries.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getValue().userAccount.second().getId() == accountId) {
+                it.remove();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void invalidateAll() {
+        _generation.invalidateAll();
+        _invalidationCount.incrementAndGet();
+        _entries.clear();
+    }
+
+    public int getSize() {
+        return _entries.size();
+    }
+
+    public long getHitCount() {
+        return _hitCount.get();
+    }
+
+    public long getMissCount() {
+        return _lookupTimes.getCount();
+    }
+
+    public LatencyHistogram getLookupTimes() {
+        return _lookupTimes;
+    }
+
+    public long getInvalidationCount() {
+        return _invalidationCount.get();
+    }
+}
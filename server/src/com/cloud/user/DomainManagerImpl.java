@@ -18,11 +18,13 @@ package com.cloud.user;
 
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
 import javax.ejb.Local;
 import javax.inject.Inject;
+import javax.naming.ConfigurationException;
 
 import org.apache.log4j.Logger;
 import org.springframework.stereotype.Component;
@@ -32,8 +34,11 @@ import org.apache.cloudstack.api.command.admin.domain.ListDomainsCmd;
 import org.apache.cloudstack.api.command.admin.domain.UpdateDomainCmd;
 import org.apache.cloudstack.context.CallContext;
 import org.apache.cloudstack.engine.orchestration.service.NetworkOrchestrationService;
+import org.apache.cloudstack.framework.messagebus.MessageBus;
 import org.apache.cloudstack.region.RegionManager;
 
+import com.cloud.cluster.ClusterManager;
+import com.cloud.cluster.PeerCacheInvalidator;
 import com.cloud.configuration.Resource.ResourceOwnerType;
 import com.cloud.configuration.ResourceLimit;
 import com.cloud.configuration.dao.ResourceCountDao;
@@ -60,6 +65,7 @@ import com.cloud.storage.dao.DiskOfferingDao;
 import com.cloud.user.dao.AccountDao;
 import com.cloud.utils.Pair;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.concurrency.GenerationGuard;
 import com.cloud.utils.db.DB;
 import com.cloud.utils.db.Filter;
 import com.cloud.utils.db.SearchBuilder;
@@ -101,6 +107,33 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
     private NetworkOrchestrationService _networkMgr;
     @Inject
     private NetworkDomainDao _networkDomainDao;
+    @Inject
+    private ClusterManager _clusterMgr;
+    @Inject
+    private MessageBus _messageBus;
+
+    // rebuilt at least this often in case a change notification got lost
+    private static final long DOMAIN_TREE_MAX_AGE = 10 * 60 * 1000;
+
+    private volatile DomainTree _domainTree;
+    private volatile long _domainTreeLoaded;
+    // bumped by every change, a tree loaded across a change is not kept
+    private final GenerationGuard<Long> _domainTreeGeneration = new GenerationGuard<Long>();
+    private final Object _domainTreeLock = new Object();
+
+    @Override
+    public boolean configure(String name, Map<String, Object> params) throws ConfigurationException {
+        super.configure(name, params);
+
+        // changes made on the peer management servers
+        PeerCacheInvalidator.subscribe(_messageBus, DomainTree.DOMAINS_CHANGED, new PeerCacheInvalidator.Listener() {
+            @Override
+            public void invalidate(long id) {
+                invalidateDomainTree();
+            }
+        });
+        return true;
+    }
 
     @Override
     public Domain getDomain(long domainId) {
@@ -114,6 +147,11 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Override
     public Set<Long> getDomainChildrenIds(String parentDomainPath) {
+        List<Long> subtree = getDomainTree().getSubtreeIds(parentDomainPath);
+        if (subtree != null) {
+            return new HashSet<Long>(subtree);
+        }
+
         Set<Long> childDomains = new HashSet<Long>();
         SearchCriteria<DomainVO> sc = _domainDao.createSearchCriteria();
         sc.addAnd("path", SearchCriteria.Op.LIKE, parentDomainPath + "%");
@@ -129,9 +167,61 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Override
     public boolean isChildDomain(Long parentId, Long childId) {
+        if ((parentId == null) || (childId == null)) {
+            return false;
+        }
+        if (parentId.equals(childId)) {
+            return true;
+        }
+
+        DomainTree tree = getDomainTree();
+        if (tree.contains(parentId) && tree.contains(childId)) {
+            return tree.isChildDomain(parentId, childId);
+        }
+        // created after the tree was loaded
         return _domainDao.isChildDomain(parentId, childId);
     }
 
+    DomainTree getDomainTree() {
+        DomainTree tree = _domainTree;
+        if (tree != null && System.currentTimeMillis() - _domainTreeLoaded < DOMAIN_TREE_MAX_AGE) {
+            return tree;
+        }
+
+        synchronized (_domainTreeLock) {
+            tree = _domainTree;
+            if (tree != null && System.currentTimeMillis() - _domainTreeLoaded < DOMAIN_TREE_MAX_AGE) {
+                return tree;
+            }
+
+            long generation = _domainTreeGeneration.get();
+            long start = System.currentTimeMillis();
+            tree = DomainTree.build(_domainDao.listAll());
+            if (_domainTreeGeneration.isCurrent(generation)) {
+                _domainTree = tree;
+                _domainTreeLoaded = start;
+            }
+            if (s_logger.isDebugEnabled()) {
+                s_logger.debug("Loaded domain tree of " + tree.getSize() + " domains in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            return tree;
+        }
+    }
+
+    void invalidateDomainTree() {
+        _domainTreeGeneration.invalidateAll();
+        _domainTree = null;
+    }
+
+    /**
+     * Drops the domain tree here and on the peer management servers after a
+     * domain was created, removed or renamed.
+     */
+    private void domainsChanged(long domainId) {
+        invalidateDomainTree();
+        PeerCacheInvalidator.notifyPeers(_clusterMgr, DomainTree.DOMAINS_CHANGED, domainId);
+    }
+
     @Override
     @ActionEvent(eventType = EventTypes.EVENT_DOMAIN_CREATE, eventDescription = "creating Domain")
     public Domain createDomain(String name, Long parentId, String networkDomain, String domainUUID) {
@@ -186,6 +276,7 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
         DomainVO domain = _domainDao.create(new DomainVO(name, ownerId, parentId, networkDomain, domainUUID));
         _resourceCountDao.createResourceCounts(domain.getId(), ResourceLimit.ResourceOwnerType.Domain);
         txn.commit();
+        domainsChanged(domain.getId());
         CallContext.current().putContextParameter(Domain.class, domain.getUuid());
         return domain;
     }
@@ -197,12 +288,20 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
 
     @Override
     public Set<Long> getDomainParentIds(long domainId) {
+        Set<Long> parentIds = getDomainTree().getParentIds(domainId);
+        if (parentIds != null) {
+            return parentIds;
+        }
         return _domainDao.getDomainParentIds(domainId);
     }
 
     @Override
     public boolean removeDomain(long domainId) {
-        return _domainDao.remove(domainId);
+        boolean success = _domainDao.remove(domainId);
+        if (success) {
+            domainsChanged(domainId);
+        }
+        return success;
     }
 
     @Override
@@ -262,6 +361,7 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
                         e.addProxyObject(domain.getUuid(), "domainId");
                         throw e;
                     }
+                    domainsChanged(domain.getId());
                 } else {
                     rollBackState = true;
                     String msg = null;
@@ -405,6 +505,9 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
             }
             //delete domain
             deleteDomainSuccess = _domainDao.remove(domainId);
+            if (deleteDomainSuccess) {
+                domainsChanged(domainId);
+            }
 
             // Delete resource count and resource limits entries set for this domain (if there are any).
             _resourceCountDao.removeEntriesByOwner(domainId, ResourceOwnerType.Domain);
@@ -608,6 +711,9 @@ public class DomainManagerImpl extends ManagerBase implements DomainManager, Dom
         _domainDao.update(domainId, domain);
         CallContext.current().putContextParameter(Domain.class, domain.getUuid());
         txn.commit();
+        if (domainName != null) {
+            domainsChanged(domainId);
+        }
 
         return _domainDao.findById(domainId);
 
@@ -0,0 +1,210 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.cloud.domain.Domain;
+
+/**
+ * Immutable snapshot of the domain hierarchy.
+ *
+ * The domains are numbered in depth first pre-order, so the subtree of a
+ * domain is the contiguous run of positions starting at its own: a domain is
+ * an ancestor of another when the other's position falls within its run, and
+ * listing a subtree is copying that run. Parents are walked through the
+ * parent index, the hierarchy is only a few levels deep.
+ *
+ * A domain missing from the snapshot is reported as unknown rather than as
+ * unrelated, so callers can fall back to the database for domains created
+ * after the snapshot was taken.
+ */
+public class DomainTree {
+    public static final String DOMAINS_CHANGED = "DomainTree.DomainsChanged";
+
+    // by position
+    private final long[] _ids;
+    private final int[] _parents; // position of the parent, -1 for the root
+    private final int[] _subtreeSizes;
+
+    private final Map<Long, Integer> _positions;
+    private final Map<String, Integer> _pathPositions;
+
+    public static DomainTree build(List<? extends Domain> domains) {
+        long[] ids = new long[domains.size()];
+        long[] parentIds = new long[domains.size()];
+        String[] paths = new String[domains.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Domain domain = domains.get(i);
+            ids[i] = domain.getId();
+            parentIds[i] = domain.getParent() != null ? domain.getParent() : 0;
+            paths[i] = domain.getPath();
+        }
+        return new DomainTree(ids, parentIds, paths);
+    }
+
+    /**
+     * @param parentIds the parent of each domain, 0 for the root. Domains whose
+     *        parent is not listed are kept as roots of their own subtree.
+     */
+    DomainTree(long[] ids, long[] parentIds, String[] paths) {
+        int count = ids.length;
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>(count * 2);
+        for (int i = 0; i < count; i++) {
+            indexes.put(ids[i], i);
+        }
+
+        // children of each input index, in the order they were listed
+        int[] firstChild = new int[count];
+        int[] nextSibling = new int[count];
+        int[] lastChild = new int[count];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        List<Integer> roots = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            Integer parent = parentIds[i] != 0 ? indexes.get(parentIds[i]) : null;
+            if (parent == null || parent == i) {
+                roots.add(i);
+            } else if (firstChild[parent] < 0) {
+                firstChild[parent] = i;
+                lastChild[parent] = i;
+            } else {
+                nextSibling[lastChild[parent]] = i;
+                lastChild[parent] = i;
+            }
+        }
+
+        _ids = new long[count];
+        _parents = new int[count];
+        _subtreeSizes = new int[count];
+        _positions = new HashMap<Long, Integer>(count * 2);
+        _pathPositions = new HashMap<String, Integer>(count * 2);
+
+        // iterative pre-order walk, the stack holds input indexes
+        int[] stack = new int[count];
+        int[] positionOf = new int[count];
+        Arrays.fill(positionOf, -1);
+        int next = 0;
+        for (int root : roots) {
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int index = stack[--top];
+                int position = next++;
+                positionOf[index] = position;
+                _ids[position] = ids[index];
+                Integer parent = parentIds[index] != 0 ? indexes.get(parentIds[index]) : null;
+                _parents[position] = parent != null && parent != index ? positionOf[parent] : -1;
+                _positions.put(ids[index], position);
+                if (paths[index] != null) {
+                    _pathPositions.put(paths[index], position);
+                }
+
+                // push in reverse so the children come out in listing order
+                int childCount = 0;
+                for (int child = firstChild[index]; child >= 0; child = nextSibling[child]) {
+                    childCount++;
+                }
+                top += childCount;
+                int slot = top - 1;
+                for (int child = firstChild[index]; child >= 0; child = nextSibling[child]) {
+                    stack[slot--] = child;
+                }
+            }
+        }
+
+        // parents come before their children, so adding each size to the
+        // parent's from the back sums up whole subtrees. Domains on a parent
+        // cycle are never reached and are left out.
+        for (int position = next - 1; position >= 0; position--) {
+            _subtreeSizes[position] += 1;
+            if (_parents[position] >= 0) {
+                _subtreeSizes[_parents[position]] += _subtreeSizes[position];
+            }
+        }
+    }
+
+    public int getSize() {
+        return _positions.size();
+    }
+
+    public boolean contains(long domainId) {
+        return _positions.containsKey(domainId);
+    }
+
+    /**
+     * @return whether childId is parentId or below it. Only meaningful when
+     *         both domains are in the snapshot.
+     */
+    public boolean isChildDomain(long parentId, long childId) {
+        Integer parent = _positions.get(parentId);
+        Integer child = _positions.get(childId);
+        if (parent == null || child == null) {
+            return false;
+        }
+        return child >= parent && child < parent + _subtreeSizes[parent];
+    }
+
+    /**
+     * @return the domain and everything below it, or null if the domain is
+     *         unknown
+     */
+    public List<Long> getSubtreeIds(long domainId) {
+        Integer position = _positions.get(domainId);
+        return position != null ? slice(position) : null;
+    }
+
+    /**
+     * @return the domain with this path and everything below it, or null if
+     *         no domain has the path
+     */
+    public List<Long> getSubtreeIds(String path) {
+        Integer position = _pathPositions.get(path);
+        return position != null ? slice(position) : null;
+    }
+
+    /**
+     * @return the domain and all of its parents up to the root, or null if the
+     *         domain is unknown
+     */
+    public Set<Long> getParentIds(long domainId) {
+        Integer position = _positions.get(domainId);
+        if (position == null) {
+            return null;
+        }
+        Set<Long> ids = new HashSet<Long>();
+        for (int p = position; p >= 0; p = _parents[p]) {
+            ids.add(_ids[p]);
+        }
+        return ids;
+    }
+
+    private List<Long> slice(int position) {
+        int size = _subtreeSizes[position];
+        List<Long> ids = new ArrayList<Long>(size);
+        for (int p = position; p < position + size; p++) {
+            ids.add(_ids[p]);
+        }
+        return ids;
+    }
+}
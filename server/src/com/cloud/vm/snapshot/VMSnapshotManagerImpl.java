@@ -48,6 +48,7 @@ import com.cloud.agent.api.RevertToVMSnapshotAnswer;
 import com.cloud.agent.api.RevertToVMSnapshotCommand;
 import com.cloud.agent.api.VMSnapshotTO;
 import com.cloud.agent.api.to.VolumeTO;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.event.ActionEvent;
 import com.cloud.event.EventTypes;
 import com.cloud.event.UsageEventUtils;
@@ -118,6 +119,7 @@ public class VMSnapshotManagerImpl extends ManagerBase implements VMSnapshotMana
     @Inject AgentManager _agentMgr;
     @Inject HypervisorGuruManager _hvGuruMgr;
     @Inject AccountManager _accountMgr;
+    @Inject CapacityManager _capacityMgr;
     @Inject GuestOSDao _guestOSDao;
     @Inject PrimaryDataStoreDao _storagePoolDao;
     @Inject SnapshotDao _snapshotDao;
@@ -568,6 +570,7 @@ public class VMSnapshotManagerImpl extends ManagerBase implements VMSnapshotMana
                 volumeVO.setPath(volume.getPath());
                 volumeVO.setVmSnapshotChainSize(volume.getChainSize());
                 _volumeDao.persist(volumeVO);
+                _capacityMgr.volumeOnPoolChanged(volumeVO);
             }
         }
     }
@@ -0,0 +1,54 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager.allocator.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloud.deploy.DeploymentPlanner.ExcludeList;
+import com.cloud.host.Host;
+
+/**
+ * How long FirstFitAllocator takes to find hosts in a large, nearly full
+ * zone whose DAOs answer from memory, so only the allocator's own work is
+ * measured. Not a unit test, run it by hand against the test classpath.
+ *
+ * Uses the simulated zone of FirstFitAllocatorTest.
+ *
+ * Usage: FirstFitAllocatorBenchmark [hosts] [runs]
+ */
+public class FirstFitAllocatorBenchmark {
+
+    public static void main(String[] args) {
+        int hostCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        FirstFitAllocatorTest zone = new FirstFitAllocatorTest();
+        zone.setUp();
+        List<Host> hosts = zone.simulatedZone(hostCount);
+
+        for (int run = 1; run <= runs; run++) {
+            ExcludeList avoid = new ExcludeList();
+            long start = System.currentTimeMillis();
+            List<Host> suitable = zone._allocator.allocateTo(zone._plan, zone._offering, zone._template, avoid, new ArrayList<Host>(hosts), 5, true, null);
+            long elapsed = System.currentTimeMillis() - start;
+
+            System.out.println("Run " + run + ": found " + FirstFitAllocatorTest.ids(suitable) + ", avoided " + avoid.getHostsToAvoid().size() + " of " + hostCount
+                    + " hosts in " + elapsed + " ms");
+        }
+    }
+}
@@ -0,0 +1,281 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.agent.manager.allocator.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyShort;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.cloud.capacity.Capacity;
+import com.cloud.capacity.CapacityManagerImpl;
+import com.cloud.capacity.CapacityVO;
+import com.cloud.capacity.dao.CapacityDao;
+import com.cloud.dc.ClusterDetailsDao;
+import com.cloud.deploy.DeploymentPlan;
+import com.cloud.deploy.DeploymentPlanner.ExcludeList;
+import com.cloud.host.Host;
+import com.cloud.host.HostVO;
+import com.cloud.host.Status;
+import com.cloud.host.dao.HostDetailsDao;
+import com.cloud.hypervisor.Hypervisor.HypervisorType;
+import com.cloud.hypervisor.dao.HypervisorCapabilitiesDao;
+import com.cloud.offering.ServiceOffering;
+import com.cloud.storage.GuestOSCategoryVO;
+import com.cloud.storage.GuestOSVO;
+import com.cloud.storage.VMTemplateVO;
+import com.cloud.storage.dao.GuestOSCategoryDao;
+import com.cloud.storage.dao.GuestOSDao;
+import com.cloud.vm.dao.VMInstanceDao;
+
+public class FirstFitAllocatorTest {
+    private static final int HOSTS_PER_CLUSTER = 200;
+    private static final long MAX_GUESTS = 50;
+
+    CapacityDao _capacityDao = mock(CapacityDao.class);
+    VMInstanceDao _vmInstanceDao = mock(VMInstanceDao.class);
+    ClusterDetailsDao _clusterDetailsDao = mock(ClusterDetailsDao.class);
+    HostDetailsDao _hostDetailsDao = mock(HostDetailsDao.class);
+    GuestOSDao _guestOSDao = mock(GuestOSDao.class);
+    GuestOSCategoryDao _guestOSCategoryDao = mock(GuestOSCategoryDao.class);
+    HypervisorCapabilitiesDao _hypervisorCapabilitiesDao = mock(HypervisorCapabilitiesDao.class);
+
+    ServiceOffering _offering = mock(ServiceOffering.class);
+    VMTemplateVO _template = mock(VMTemplateVO.class);
+    DeploymentPlan _plan = mock(DeploymentPlan.class);
+
+    // what the DAOs above answer with, filled by addHost()
+    final Map<Long, CapacityVO> _capacities = new HashMap<Long, CapacityVO>();
+    final Map<Long, Long> _vmCounts = new HashMap<Long, Long>();
+    final Map<Long, String> _guestOSCategoryIds = new HashMap<Long, String>();
+
+    FirstFitAllocator _allocator;
+
+    @Before
+    public void setUp() {
+        _allocator = new FirstFitAllocator();
+        _allocator._allocationAlgorithm = "firstfit";
+        _allocator._capacityMgr = new CapacityManagerImpl();
+        _allocator._capacityDao = _capacityDao;
+        _allocator._vmInstanceDao = _vmInstanceDao;
+        _allocator._clusterDetailsDao = _clusterDetailsDao;
+        _allocator._hostDetailsDao = _hostDetailsDao;
+        _allocator._guestOSDao = _guestOSDao;
+        _allocator._guestOSCategoryDao = _guestOSCategoryDao;
+        _allocator._hypervisorCapabilitiesDao = _hypervisorCapabilitiesDao;
+
+        when(_offering.getCpu()).thenReturn(1);
+        when(_offering.getSpeed()).thenReturn(1000);
+        when(_offering.getRamSize()).thenReturn(512);
+
+        GuestOSVO guestOS = mock(GuestOSVO.class);
+        when(guestOS.getCategoryId()).thenReturn(1L);
+        when(_template.getGuestOSId()).thenReturn(10L);
+        when(_guestOSDao.findById(10L)).thenReturn(guestOS);
+        List<GuestOSCategoryVO> categories = new ArrayList<GuestOSCategoryVO>();
+        categories.add(category(1L, "CentOS"));
+        categories.add(category(2L, "Windows"));
+        when(_guestOSCategoryDao.findById(1L)).thenReturn(categories.get(0));
+        when(_guestOSCategoryDao.listAll()).thenReturn(categories);
+
+        when(_hypervisorCapabilitiesDao.getMaxGuestsLimit(any(HypervisorType.class), anyString())).thenReturn(MAX_GUESTS);
+
+        when(_capacityDao.listByHostIdsAndTypes(anyListOf(Long.class), anyListOf(Short.class))).thenAnswer(new Answer<List<CapacityVO>>() {
+            @Override
+            public List<CapacityVO> answer(InvocationOnMock invocation) {
+                List<CapacityVO> result = new ArrayList<CapacityVO>();
+                for (Long hostId : hostIds(invocation)) {
+                    result.add(_capacities.get(-hostId));
+                    result.add(_capacities.get(hostId));
+                }
+                return result;
+            }
+        });
+        when(_vmInstanceDao.countRunningByHostIds(anyListOf(Long.class))).thenAnswer(new Answer<Map<Long, Long>>() {
+            @Override
+            public Map<Long, Long> answer(InvocationOnMock invocation) {
+                Map<Long, Long> result = new HashMap<Long, Long>();
+                for (Long hostId : hostIds(invocation)) {
+                    result.put(hostId, _vmCounts.get(hostId));
+                }
+                return result;
+            }
+        });
+        when(_clusterDetailsDao.findDetailValues(anyListOf(Long.class), anyString())).thenAnswer(new Answer<Map<Long, String>>() {
+            @Override
+            public Map<Long, String> answer(InvocationOnMock invocation) {
+                Map<Long, String> result = new HashMap<Long, String>();
+                for (Long clusterId : hostIds(invocation)) {
+                    result.put(clusterId, "1.0");
+                }
+                return result;
+            }
+        });
+        when(_hostDetailsDao.findDetailValues(anyListOf(Long.class), eq("guest.os.category.id"))).thenAnswer(new Answer<Map<Long, String>>() {
+            @Override
+            public Map<Long, String> answer(InvocationOnMock invocation) {
+                Map<Long, String> result = new HashMap<Long, String>();
+                for (Long hostId : hostIds(invocation)) {
+                    if (_guestOSCategoryIds.containsKey(hostId)) {
+                        result.put(hostId, _guestOSCategoryIds.get(hostId));
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> hostIds(InvocationOnMock invocation) {
+        return (List<Long>)invocation.getArguments()[0];
+    }
+
+    private static GuestOSCategoryVO category(long id, String name) {
+        GuestOSCategoryVO category = mock(GuestOSCategoryVO.class);
+        when(category.getId()).thenReturn(id);
+        when(category.getName()).thenReturn(name);
+        return category;
+    }
+
+    /**
+     * Adds a host with 8 x 2000 MHz and 16 GB, the given part of it already
+     * in use.
+     */
+    private HostVO addHost(long id, float usedRatio, long runningVms, String caps) {
+        HostVO host = new HostVO(id, "host-" + id, Host.Type.Routing, null, null, null, null, null, null, null, null, null, "guid-" + id, Status.Up, null, null, null, 1, 1L,
+                0, 0, 8, 2000L, 16L * 1024 * 1024 * 1024, 0, caps);
+        host.setClusterId((id - 1) / HOSTS_PER_CLUSTER + 1);
+        host.setHypervisorType(HypervisorType.XenServer);
+        host.setHypervisorVersion("6.2.0");
+
+        long totalCpu = 8 * 2000;
+        long totalMem = 16L * 1024 * 1024 * 1024;
+        // memory entries are keyed by the negated host id
+        _capacities.put(id, new CapacityVO(id, 1L, 1L, host.getClusterId(), (long)(totalCpu * usedRatio), totalCpu, Capacity.CAPACITY_TYPE_CPU));
+        _capacities.put(-id, new CapacityVO(id, 1L, 1L, host.getClusterId(), (long)(totalMem * usedRatio), totalMem, Capacity.CAPACITY_TYPE_MEMORY));
+        _vmCounts.put(id, runningVms);
+        return host;
+    }
+
+    /**
+     * 50 clusters, nearly all hosts full; every 1000th host has room and
+     * every 7th is at its guest limit.
+     */
+    List<Host> simulatedZone(int hostCount) {
+        List<Host> hosts = new ArrayList<Host>(hostCount);
+        for (long id = 1; id <= hostCount; id++) {
+            hosts.add(addHost(id, id % 1000 == 0 ? 0.1f : 0.99f, id % 7 == 0 ? MAX_GUESTS : 20, "hvm"));
+        }
+        return hosts;
+    }
+
+    static List<Long> ids(List<Host> hosts) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Host host : hosts) {
+            ids.add(host.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testFilterHosts() {
+        List<Host> hosts = new ArrayList<Host>();
+        hosts.add(addHost(1, 0.5f, 10, "hvm"));
+        // out of CPU and memory
+        hosts.add(addHost(2, 1.0f, 10, "hvm"));
+        // at the guest limit of its hypervisor
+        hosts.add(addHost(3, 0.1f, MAX_GUESTS, "hvm"));
+        hosts.add(addHost(4, 0.1f, 0, "hvm"));
+        hosts.add(addHost(5, 0.1f, 0, "hvm"));
+
+        ExcludeList avoid = new ExcludeList();
+        avoid.addHost(4L);
+        List<Host> suitable = _allocator.allocateTo(_plan, _offering, _template, avoid, hosts, 10, true, null);
+
+        assertEquals("[1, 5]", ids(suitable).toString());
+        assertTrue(avoid.getHostsToAvoid().contains(2L));
+        assertFalse(avoid.getHostsToAvoid().contains(3L));
+
+        verify(_capacityDao, times(1)).listByHostIdsAndTypes(anyListOf(Long.class), anyListOf(Short.class));
+        verify(_capacityDao, never()).findByHostIdType(anyLong(), anyShort());
+        verify(_vmInstanceDao, never()).countRunningByHostId(anyLong());
+        verify(_hypervisorCapabilitiesDao, times(1)).getMaxGuestsLimit(HypervisorType.XenServer, "6.2.0");
+    }
+
+    @Test
+    public void testPrioritizeHosts() {
+        List<Host> hosts = new ArrayList<Host>();
+        hosts.add(addHost(1, 0, 0, "hvm"));
+        hosts.add(addHost(2, 0, 0, "hvm"));
+        hosts.add(addHost(3, 0, 0, "hvm"));
+        hosts.add(addHost(4, 0, 0, "xen-3.0-x86_64"));
+        hosts.add(addHost(5, 0, 0, "hvm"));
+        hosts.add(addHost(6, 0, 0, "hvm"));
+        _guestOSCategoryIds.put(2L, "1");
+        _guestOSCategoryIds.put(3L, "2");
+        _guestOSCategoryIds.put(5L, "1");
+        _guestOSCategoryIds.put(6L, "not-a-number");
+
+        // same category as the template first, other categories last, and in
+        // between the hosts not supporting HVM ahead of those that do
+        List<Host> suitable = _allocator.allocateTo(_plan, _offering, _template, new ExcludeList(), hosts, 10, true, null);
+        assertEquals("[2, 5, 4, 1, 6, 3]", ids(suitable).toString());
+
+        when(_template.isRequiresHvm()).thenReturn(true);
+        suitable = _allocator.allocateTo(_plan, _offering, _template, new ExcludeList(), hosts, 10, true, null);
+        assertEquals("[2, 5, 1, 6, 3]", ids(suitable).toString());
+    }
+
+    @Test
+    public void testSimulatedZone() {
+        // 10k hosts, the fifth host with room is half way through the list
+        int hostCount = 10000;
+        List<Host> hosts = simulatedZone(hostCount);
+
+        List<Host> suitable = _allocator.allocateTo(_plan, _offering, _template, new ExcludeList(), new ArrayList<Host>(hosts), 5, true, null);
+
+        assertEquals("[1000, 2000, 3000, 4000, 5000]", ids(suitable).toString());
+        // one capacity and one VM count query per batch of 1000 hosts, the
+        // overcommit ratios once per batch for the clusters first seen in it
+        int batches = 5;
+        verify(_capacityDao, times(batches)).listByHostIdsAndTypes(anyListOf(Long.class), anyListOf(Short.class));
+        verify(_vmInstanceDao, times(batches)).countRunningByHostIds(anyListOf(Long.class));
+        verify(_clusterDetailsDao, times(2 * batches)).findDetailValues(anyListOf(Long.class), anyString());
+        verify(_hostDetailsDao, times(hostCount / HostAllocationSnapshot.BATCH_SIZE)).findDetailValues(anyListOf(Long.class), anyString());
+        verify(_capacityDao, never()).findByHostIdType(anyLong(), anyShort());
+    }
+}
@@ -0,0 +1,57 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import java.util.Map;
+
+/**
+ * Signing throughput of ApiRequestSigner against the canonicalization and
+ * HMAC ApiServer did before it. Not a unit test, run it by hand against the
+ * test classpath.
+ *
+ * Usage: ApiRequestSignerBenchmark [iterations]
+ */
+public class ApiRequestSignerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Map<String, Object[]> params = ApiRequestSignerTest.request("command", "deployVirtualMachine", "apiKey", "ABCdefGHIjklMNOpqrSTUvwxYZ0123456789", "zoneId",
+                "1f9a2c6e-2d3b-4c3e-9a2b-3e5f6a7b8c9d", "serviceOfferingId", "5a7b8c9d-1e2f-3a4b-5c6d-7e8f9a0b1c2d", "templateId",
+                "9d8c7b6a-5f4e-3d2c-1b0a-9f8e7d6c5b4a", "displayName", "web server 01", "response", "json", "signature", "ignored");
+        String secretKey = ApiRequestSignerTest.SECRET;
+
+        // warm up both paths
+        for (int i = 0; i < iterations / 10; i++) {
+            ApiRequestSignerTest.legacySign(ApiRequestSignerTest.legacyCanonicalize(params), secretKey);
+            ApiRequestSigner.sign(ApiRequestSigner.canonicalize(params), secretKey);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ApiRequestSignerTest.legacySign(ApiRequestSignerTest.legacyCanonicalize(params), secretKey);
+        }
+        long legacyNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ApiRequestSigner.sign(ApiRequestSigner.canonicalize(params), secretKey);
+        }
+        long signerNs = System.nanoTime() - start;
+
+        System.out.println(iterations + " signatures, legacy: " + legacyNs / iterations + " ns/op, signer: " + signerNs / iterations + " ns/op");
+    }
+}
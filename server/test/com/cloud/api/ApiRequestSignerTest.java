@@ -0,0 +1,157 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+public class ApiRequestSignerTest {
+    static final String SECRET = "VDaACYb0LV9eNjTetIOElcVQkvJck_J_QljX_FcHRj87ZKiy0z0ty0ZsYBkoXkY9b7eq1EhwJaw7FF3akA3KBQ";
+
+    // the way verifyRequest() used to build the string
+    static String legacyCanonicalize(Map<String, Object[]> requestParameters) throws Exception {
+        List<String> parameterNames = new ArrayList<String>(requestParameters.keySet());
+        Collections.sort(parameterNames);
+        String unsignedRequest = null;
+        for (String paramName : parameterNames) {
+            if ("signature".equalsIgnoreCase(paramName)) {
+                continue;
+            }
+            String paramValue = ((String[])requestParameters.get(paramName))[0];
+            if (unsignedRequest == null) {
+                unsignedRequest = paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
+            } else {
+                unsignedRequest = unsignedRequest + "&" + paramName + "=" + URLEncoder.encode(paramValue, "UTF-8").replaceAll("\\+", "%20");
+            }
+        }
+        return unsignedRequest.toLowerCase();
+    }
+
+    static String legacySign(String unsignedRequest, String secretKey) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(secretKey.getBytes(), "HmacSHA1"));
+        mac.update(unsignedRequest.getBytes());
+        return Base64.encodeBase64String(mac.doFinal());
+    }
+
+    static Map<String, Object[]> request(String... nameValues) {
+        Map<String, Object[]> params = new HashMap<String, Object[]>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            params.put(nameValues[i], new String[] { nameValues[i + 1] });
+        }
+        return params;
+    }
+
+    @Test
+    public void testMatchesLegacyEncoding() throws Exception {
+        String[] values = new String[] { "", "listVirtualMachines", "Hello World", "a+b&c=d/e%f*g~h", "MiXeD.CaSe-_", "caf\u00e9 \u00fcber",
+                "\u4e2d\u6587 name", "emoji \ud83d\ude00!", "tab\tnew\nline", "2013-07-15T10:00:00+0530", "'quoted' \"double\" <tag>" };
+        for (String value : values) {
+            Map<String, Object[]> params = request("command", "deployVirtualMachine", "apiKey", "ABCdef", "displayName", value, "signature", "ignored");
+            assertEquals(value, legacyCanonicalize(params), ApiRequestSigner.canonicalize(params));
+        }
+    }
+
+    @Test
+    public void testMatchesLegacyOnRandomValues() throws Exception {
+        Random random = new Random(17);
+        for (int n = 0; n < 2000; n++) {
+            Map<String, Object[]> params = request("command", "listHosts", "apikey", "key" + n);
+            int count = random.nextInt(6);
+            for (int i = 0; i < count; i++) {
+                StringBuilder sb = new StringBuilder();
+                int length = random.nextInt(20);
+                for (int j = 0; j < length; j++) {
+                    // mostly printable ASCII with some Latin-1 and CJK in between
+                    int kind = random.nextInt(10);
+                    if (kind < 7) {
+                        sb.append((char)(0x20 + random.nextInt(0x5f)));
+                    } else if (kind < 9) {
+                        sb.append((char)(0xa0 + random.nextInt(0x60)));
+                    } else {
+                        sb.append((char)(0x4e00 + random.nextInt(0x100)));
+                    }
+                }
+                params.put("Param" + i, new String[] { sb.toString() });
+            }
+            assertEquals(legacyCanonicalize(params), ApiRequestSigner.canonicalize(params));
+        }
+    }
+
+    @Test
+    public void testSignMatchesFreshMac() throws Exception {
+        Map<String, Object[]> params = request("command", "listZones", "apiKey", "ABCdef", "response", "json");
+        String unsignedRequest = ApiRequestSigner.canonicalize(params);
+        assertEquals(legacySign(unsignedRequest, SECRET), ApiRequestSigner.sign(unsignedRequest, SECRET));
+        // the per thread Mac is reinitialized for every key
+        assertEquals(legacySign(unsignedRequest, "other"), ApiRequestSigner.sign(unsignedRequest, "other"));
+        assertEquals(legacySign(unsignedRequest, SECRET), ApiRequestSigner.sign(unsignedRequest, SECRET));
+    }
+
+    @Test
+    public void testSignOnManyThreads() throws Exception {
+        final Map<String, Object[]> params = request("command", "deployVirtualMachine", "apiKey", "ABCdefGHIjklMNOpqrSTUvwxYZ0123456789", "zoneId",
+                "1f9a2c6e-2d3b-4c3e-9a2b-3e5f6a7b8c9d", "serviceOfferingId", "5a7b8c9d-1e2f-3a4b-5c6d-7e8f9a0b1c2d", "templateId",
+                "9d8c7b6a-5f4e-3d2c-1b0a-9f8e7d6c5b4a", "displayName", "web server 01", "response", "json", "signature", "ignored");
+        final String unsignedRequest = legacyCanonicalize(params);
+        assertEquals(unsignedRequest, ApiRequestSigner.canonicalize(params));
+
+        // every thread signs with its own key, through its own Mac
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int t = 0; t < 4; t++) {
+                final String secretKey = SECRET + t;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        String expected = legacySign(unsignedRequest, secretKey);
+                        for (int i = 0; i < 500; i++) {
+                            if (!expected.equals(ApiRequestSigner.sign(ApiRequestSigner.canonicalize(params), secretKey))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cloudstack.framework.config.dao.ConfigurationDao;
+
+import com.cloud.api.ApiDBUtils;
+import com.cloud.api.query.ResponseSideData.Counters;
+import com.cloud.api.query.ResponseSideData.Kind;
+import com.cloud.api.query.dao.ResourceTagJoinDao;
+import com.cloud.api.query.vo.ResourceTagJoinVO;
+import com.cloud.dc.DataCenterVO;
+import com.cloud.dc.dao.DataCenterDao;
+import com.cloud.storage.StorageManager;
+
+public class ResponseSideDataTest {
+    StorageManager _storageMgr = mock(StorageManager.class);
+    ConfigurationDao _configDao = mock(ConfigurationDao.class);
+    ResourceTagJoinDao _tagJoinDao = mock(ResourceTagJoinDao.class);
+    DataCenterDao _zoneDao = mock(DataCenterDao.class);
+
+    @Before
+    public void setUp() throws Exception {
+        setApiDBUtils("_storageMgr", _storageMgr);
+        setApiDBUtils("_configDao", _configDao);
+        setApiDBUtils("_tagJoinDao", _tagJoinDao);
+        setApiDBUtils("_zoneDao", _zoneDao);
+        ResponseSideData.resetCounters();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ResponseSideData.endListing();
+        setApiDBUtils("_storageMgr", null);
+        setApiDBUtils("_configDao", null);
+        setApiDBUtils("_tagJoinDao", null);
+        setApiDBUtils("_zoneDao", null);
+    }
+
+    private static void setApiDBUtils(String name, Object value) throws Exception {
+        Field field = ApiDBUtils.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    @Test
+    public void testHostPageIsLoadedInOneLookupPerKind() {
+        List<Long> hostIds = new ArrayList<Long>();
+        for (long id = 1; id <= 100; id++) {
+            hostIds.add(id);
+        }
+        when(_configDao.getValue("cpu.overprovisioning.factor")).thenReturn("2");
+        when(_storageMgr.listHostsWithActiveLocalStorage(anyListOf(Long.class))).thenReturn(Collections.singleton(7L));
+
+        ResponseSideData data = ResponseSideData.load("host", EnumSet.of(Kind.CpuOverprovisioningFactor, Kind.LocalStorageActive), hostIds.size(), hostIds,
+            new HashSet<Long>());
+        for (Long hostId : hostIds) {
+            assertEquals(2f, data.getCpuOverprovisioningFactor(), 0);
+            assertEquals(hostId == 7L, data.isLocalStorageActive(hostId));
+        }
+
+        assertEquals(2, data.getLookupCount());
+        verify(_configDao, times(1)).getValue("cpu.overprovisioning.factor");
+        verify(_storageMgr, times(1)).listHostsWithActiveLocalStorage(anyListOf(Long.class));
+        verify(_storageMgr, never()).isLocalStorageActiveOnHost(anyLong());
+
+        Counters counters = ResponseSideData.getCounters().get("host");
+        assertEquals(1, counters.getPageCount());
+        assertEquals(100, counters.getRowCount());
+        assertEquals(2, counters.getLookupCount());
+    }
+
+    @Test
+    public void testTagsAreLoadedInOneLookup() {
+        Set<Long> tagIds = new HashSet<Long>();
+        List<ResourceTagJoinVO> tags = new ArrayList<ResourceTagJoinVO>();
+        for (long id = 1; id <= 50; id++) {
+            tagIds.add(id);
+            ResourceTagJoinVO tag = mock(ResourceTagJoinVO.class);
+            when(tag.getId()).thenReturn(id);
+            tags.add(tag);
+        }
+        when(_tagJoinDao.searchByIds(any(Long[].class))).thenReturn(tags);
+
+        ResponseSideData data = ResponseSideData.load("volume", EnumSet.of(Kind.ResourceTags), 50, new HashSet<Long>(), tagIds);
+        for (ResourceTagJoinVO tag : tags) {
+            assertSame(tag, data.getResourceTag(tag.getId()));
+        }
+
+        assertEquals(1, data.getLookupCount());
+        verify(_tagJoinDao, times(1)).searchByIds(any(Long[].class));
+    }
+
+    @Test
+    public void testListingFindsEachEntityOnce() {
+        DataCenterVO zone1 = mock(DataCenterVO.class);
+        DataCenterVO zone2 = mock(DataCenterVO.class);
+        when(_zoneDao.findById(1L)).thenReturn(zone1);
+        when(_zoneDao.findById(2L)).thenReturn(zone2);
+
+        ResponseSideData.beginListing("listPublicIpAddresses");
+        for (int row = 0; row < 10; row++) {
+            assertSame(zone1, ApiDBUtils.findZoneById(1L));
+            assertSame(zone2, ApiDBUtils.findZoneById(2L));
+        }
+        ResponseSideData.endListing();
+
+        verify(_zoneDao, times(1)).findById(1L);
+        verify(_zoneDao, times(1)).findById(2L);
+        Counters counters = ResponseSideData.getCounters().get("listPublicIpAddresses");
+        assertEquals(1, counters.getPageCount());
+        assertEquals(1, counters.getPageTimes().getCount());
+        assertEquals(2, counters.getLookupCount());
+        assertEquals(18, counters.getReusedCount());
+    }
+
+    @Test
+    public void testNothingIsKeptOutsideListing() {
+        when(_zoneDao.findById(1L)).thenReturn(mock(DataCenterVO.class));
+
+        ApiDBUtils.findZoneById(1L);
+        ApiDBUtils.findZoneById(1L);
+
+        verify(_zoneDao, times(2)).findById(1L);
+        assertTrue(ResponseSideData.getCounters().isEmpty());
+    }
+}
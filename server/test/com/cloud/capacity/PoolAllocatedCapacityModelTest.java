@@ -0,0 +1,219 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.capacity;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.cluster.ClusterManager;
+import com.cloud.storage.VMTemplateStoragePoolVO;
+import com.cloud.storage.Volume;
+import com.cloud.storage.VolumeVO;
+import com.cloud.storage.dao.VMTemplatePoolDao;
+import com.cloud.storage.dao.VolumeDao;
+
+public class PoolAllocatedCapacityModelTest {
+    private static final long EXTRA = 10;
+
+    VolumeDao _volumeDao = mock(VolumeDao.class);
+    VMTemplatePoolDao _templatePoolDao = mock(VMTemplatePoolDao.class);
+    PoolAllocatedCapacityModel _model;
+
+    private static VolumeVO volume(long id, Long poolId, long size, Volume.State state) {
+        return volume(id, poolId, size, state, 1L);
+    }
+
+    private static VolumeVO volume(long id, Long poolId, long size, Volume.State state, long accountId) {
+        VolumeVO volume = mock(VolumeVO.class);
+        when(volume.getAccountId()).thenReturn(accountId);
+        when(volume.getId()).thenReturn(id);
+        when(volume.getPoolId()).thenReturn(poolId);
+        when(volume.getSize()).thenReturn(size);
+        when(volume.getState()).thenReturn(state);
+        when(volume.getVolumeType()).thenReturn(Volume.Type.DATADISK);
+        return volume;
+    }
+
+    private static VMTemplateStoragePoolVO template(long size) {
+        VMTemplateStoragePoolVO templatePool = mock(VMTemplateStoragePoolVO.class);
+        when(templatePool.getTemplateSize()).thenReturn(size);
+        return templatePool;
+    }
+
+    @Before
+    public void setUp() {
+        _model = new PoolAllocatedCapacityModel(_volumeDao, _templatePoolDao, EXTRA);
+        when(_volumeDao.findByPoolId(1L, null)).thenReturn(new ArrayList<VolumeVO>(Arrays.asList(
+                volume(1, 1L, 1000, Volume.State.Ready), volume(2, 1L, 2000, Volume.State.Allocated))));
+        when(_templatePoolDao.listByPoolId(1L)).thenReturn(Arrays.asList(template(500)));
+        when(_volumeDao.findByPoolId(2L, null)).thenReturn(new ArrayList<VolumeVO>());
+        when(_templatePoolDao.listByPoolId(2L)).thenReturn(new ArrayList<VMTemplateStoragePoolVO>());
+    }
+
+    @Test
+    public void testLoadOnceThenHit() {
+        assertEquals(1000 + 2000 + 500 + 3 * EXTRA, _model.getAllocatedCapacity(1L));
+        assertEquals(1000 + 2000 + 500 + 3 * EXTRA, _model.getAllocatedCapacity(1L));
+        verify(_volumeDao, times(1)).findByPoolId(1L, null);
+        assertEquals(1, _model.getLoadCount());
+        assertEquals(1, _model.getLoadTimes().getCount());
+        assertEquals(1, _model.getHitCount());
+    }
+
+    @Test
+    public void testVolumeTransitionsApplyAsDeltas() {
+        long before = _model.getAllocatedCapacity(1L);
+        _model.getAllocatedCapacity(2L);
+
+        // new volume on the pool
+        _model.postStateTransitionEvent(Volume.State.Allocated, Volume.Event.CreateRequested, Volume.State.Creating,
+                volume(3, 1L, 300, Volume.State.Creating), true, null);
+        assertEquals(before + 300 + EXTRA, _model.getAllocatedCapacity(1L));
+
+        // failed transitions are ignored
+        _model.postStateTransitionEvent(Volume.State.Ready, Volume.Event.DestroyRequested, Volume.State.Destroy,
+                volume(1, 1L, 1000, Volume.State.Destroy), false, null);
+        assertEquals(before + 300 + EXTRA, _model.getAllocatedCapacity(1L));
+
+        // destroyed volumes no longer count
+        _model.postStateTransitionEvent(Volume.State.Ready, Volume.Event.DestroyRequested, Volume.State.Destroy,
+                volume(1, 1L, 1000, Volume.State.Destroy), true, null);
+        assertEquals(before + 300 - 1000, _model.getAllocatedCapacity(1L));
+
+        // migrated volumes move between pools
+        _model.postStateTransitionEvent(Volume.State.Migrating, Volume.Event.OperationSucceeded, Volume.State.Ready,
+                volume(2, 2L, 2000, Volume.State.Ready), true, null);
+        assertEquals(before + 300 - 1000 - 2000 - EXTRA, _model.getAllocatedCapacity(1L));
+        assertEquals(2000 + EXTRA, _model.getAllocatedCapacity(2L));
+
+        verify(_volumeDao, times(1)).findByPoolId(1L, null);
+        verify(_volumeDao, times(1)).findByPoolId(2L, null);
+    }
+
+    @Test
+    public void testReconcileReportsDrift() {
+        long cached = _model.getAllocatedCapacity(1L);
+        assertEquals(cached, _model.reconcile(1L));
+        assertEquals(0, _model.getDriftCount());
+
+        // a volume written behind the model's back
+        when(_volumeDao.findByPoolId(1L, null)).thenReturn(new ArrayList<VolumeVO>(Arrays.asList(volume(1, 1L, 1000, Volume.State.Ready))));
+        assertEquals(cached, _model.getAllocatedCapacity(1L));
+        assertEquals(1000 + 500 + 2 * EXTRA, _model.reconcile(1L));
+        assertEquals(1, _model.getDriftCount());
+        assertEquals(2, _model.getReconcileCount());
+        assertEquals(1000 + 500 + 2 * EXTRA, _model.getAllocatedCapacity(1L));
+    }
+
+    @Test
+    public void testTemplateChangeReloadsPool() {
+        long before = _model.getAllocatedCapacity(1L);
+        when(_templatePoolDao.listByPoolId(1L)).thenReturn(Arrays.asList(template(500), template(700)));
+        _model.templatesChanged(1L);
+        assertEquals(0, _model.getPoolCount());
+        assertEquals(before + 700 + EXTRA, _model.getAllocatedCapacity(1L));
+        verify(_templatePoolDao, times(2)).listByPoolId(1L);
+    }
+
+    @Test
+    public void testExpire() {
+        _model.getAllocatedCapacity(1L);
+        _model.getAllocatedCapacity(2L);
+        assertEquals(2, _model.getPoolCount());
+        assertEquals(0, _model.expire(60000));
+        assertEquals(2, _model.expire(0));
+        assertEquals(0, _model.getPoolCount());
+    }
+
+    @Test
+    public void testResizeAndSnapshotChainChanges() {
+        long before = _model.getAllocatedCapacity(1L);
+
+        // resized outside a state transition
+        _model.volumeChanged(volume(1, 1L, 1500, Volume.State.Ready));
+        assertEquals(before + 500, _model.getAllocatedCapacity(1L));
+
+        // a VM snapshot grew the chain of a root volume
+        VolumeVO root = volume(1, 1L, 1500, Volume.State.Ready);
+        when(root.getVolumeType()).thenReturn(Volume.Type.ROOT);
+        when(root.getInstanceId()).thenReturn(7L);
+        when(root.getVmSnapshotChainSize()).thenReturn(250L);
+        _model.volumeChanged(root);
+        assertEquals(before + 500 + 250, _model.getAllocatedCapacity(1L));
+        verify(_volumeDao, times(1)).findByPoolId(1L, null);
+    }
+
+    @Test
+    public void testChangesAreSentToPeers() {
+        ClusterManager clusterMgr = mock(ClusterManager.class);
+        _model.setClusterManager(clusterMgr);
+        _model.getAllocatedCapacity(1L);
+
+        // Allocated -> Creating does not change what the volume counts for
+        _model.postStateTransitionEvent(Volume.State.Allocated, Volume.Event.CreateRequested, Volume.State.Creating,
+                volume(2, 1L, 2000, Volume.State.Creating), true, null);
+        verify(clusterMgr, never()).broadcast(anyLong(), anyString());
+
+        _model.volumeChanged(volume(2, 1L, 4000, Volume.State.Creating));
+        verify(clusterMgr, times(1)).broadcast(anyLong(), anyString());
+        _model.templatesChanged(1L);
+        verify(clusterMgr, times(2)).broadcast(anyLong(), anyString());
+    }
+
+    @Test
+    public void testPeerChangeReloadsPool() {
+        long before = _model.getAllocatedCapacity(1L);
+        when(_volumeDao.findByPoolId(1L, null)).thenReturn(new ArrayList<VolumeVO>(Arrays.asList(
+                volume(1, 1L, 1000, Volume.State.Ready), volume(2, 1L, 2000, Volume.State.Allocated), volume(3, 1L, 300, Volume.State.Ready))));
+        _model.poolChangedOnPeer(1L);
+        assertEquals(0, _model.getPoolCount());
+        assertEquals(before + 300 + EXTRA, _model.getAllocatedCapacity(1L));
+    }
+
+    @Test
+    public void testOrderByAccountVolumes() {
+        when(_volumeDao.findByPoolId(3L, null)).thenReturn(new ArrayList<VolumeVO>(Arrays.asList(
+                volume(4, 3L, 100, Volume.State.Ready), volume(5, 3L, 100, Volume.State.Ready), volume(6, 3L, 100, Volume.State.Ready, 2L))));
+        when(_templatePoolDao.listByPoolId(3L)).thenReturn(new ArrayList<VMTemplateStoragePoolVO>());
+
+        // account 1 has one Ready volume on pool 1, none on 2 and two on 3
+        assertEquals(Arrays.asList(2L, 1L, 3L), _model.orderByAccountVolumes(Arrays.asList(3L, 1L, 2L), 1L));
+        // account 2 only has a volume on pool 3, the other pools keep their order
+        assertEquals(Arrays.asList(1L, 2L, 3L), _model.orderByAccountVolumes(Arrays.asList(3L, 1L, 2L), 2L));
+
+        // the counts follow transitions without going back to the database
+        _model.postStateTransitionEvent(Volume.State.Allocated, Volume.Event.OperationSucceeded, Volume.State.Ready,
+                volume(7, 2L, 100, Volume.State.Ready), true, null);
+        _model.postStateTransitionEvent(Volume.State.Allocated, Volume.Event.OperationSucceeded, Volume.State.Ready,
+                volume(8, 2L, 100, Volume.State.Ready), true, null);
+        assertEquals(Arrays.asList(1L, 3L, 2L), _model.orderByAccountVolumes(Arrays.asList(3L, 1L, 2L), 1L));
+        verify(_volumeDao, times(1)).findByPoolId(3L, null);
+    }
+}
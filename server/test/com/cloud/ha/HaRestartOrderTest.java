@@ -0,0 +1,125 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.cloud.ha.HighAvailabilityManager.Step;
+import com.cloud.host.Status;
+import com.cloud.service.ServiceOfferingVO;
+import com.cloud.service.dao.ServiceOfferingDao;
+import com.cloud.vm.VMInstanceVO;
+import com.cloud.vm.VirtualMachine;
+import com.cloud.vm.dao.VMInstanceDao;
+
+public class HaRestartOrderTest {
+    @Test
+    public void testOrder() {
+        List<HaRestartOrder.Entry> entries = new ArrayList<HaRestartOrder.Entry>();
+        entries.add(new HaRestartOrder.Entry(1, VirtualMachine.Type.User, false, 8000, 8192));
+        entries.add(new HaRestartOrder.Entry(2, VirtualMachine.Type.User, true, 1000, 512));
+        entries.add(new HaRestartOrder.Entry(3, VirtualMachine.Type.ConsoleProxy, false, 500, 1024));
+        entries.add(new HaRestartOrder.Entry(4, VirtualMachine.Type.User, true, 4000, 4096));
+        entries.add(new HaRestartOrder.Entry(5, VirtualMachine.Type.DomainRouter, false, 500, 256));
+        entries.add(new HaRestartOrder.Entry(6, VirtualMachine.Type.User, true, 2000, 4096));
+        entries.add(new HaRestartOrder.Entry(7, VirtualMachine.Type.User, true, 2000, 4096));
+
+        Collections.sort(entries, new HaRestartOrder());
+
+        long[] expected = new long[] {5, 3, 4, 6, 7, 2, 1};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], entries.get(i).getWorkId());
+        }
+    }
+
+    @Test
+    public void testPhaseStats() {
+        HaPhaseStats stats = new HaPhaseStats();
+        stats.record(HaPhaseStats.Phase.Restart, 100);
+        stats.record(HaPhaseStats.Phase.Restart, 300);
+        assertEquals(2, stats.getLatency(HaPhaseStats.Phase.Restart).getCount());
+        assertEquals(200, stats.getLatency(HaPhaseStats.Phase.Restart).getAverageMs());
+        assertEquals(300, stats.getLatency(HaPhaseStats.Phase.Restart).getMaxMs());
+        assertEquals(0, stats.getLatency(HaPhaseStats.Phase.Fence).getAverageMs());
+    }
+
+    @Test
+    public void testHostBatchRestartedInPriorityOrder() throws Exception {
+        final List<Long> restarted = Collections.synchronizedList(new ArrayList<Long>());
+        HighAvailabilityManagerImpl haMgr = new HighAvailabilityManagerImpl() {
+            @Override
+            protected void processWork(HaWorkVO work, Status hostState) {
+                restarted.add(work.getId());
+            }
+        };
+        haMgr._instanceDao = mock(VMInstanceDao.class);
+        haMgr._offeringDao = mock(ServiceOfferingDao.class);
+        haMgr._restartExecutor = Executors.newSingleThreadExecutor();
+
+        ServiceOfferingVO small = mock(ServiceOfferingVO.class);
+        when(small.getCpu()).thenReturn(1);
+        when(small.getSpeed()).thenReturn(1000);
+        when(small.getRamSize()).thenReturn(512);
+        ServiceOfferingVO large = mock(ServiceOfferingVO.class);
+        when(large.getCpu()).thenReturn(4);
+        when(large.getSpeed()).thenReturn(2000);
+        when(large.getRamSize()).thenReturn(8192);
+        when(haMgr._offeringDao.findByIdIncludingRemoved(1L)).thenReturn(small);
+        when(haMgr._offeringDao.findByIdIncludingRemoved(2L)).thenReturn(large);
+
+        List<HaWorkVO> works = new ArrayList<HaWorkVO>();
+        works.add(work(haMgr, 1, VirtualMachine.Type.User, false, 2L));
+        works.add(work(haMgr, 2, VirtualMachine.Type.User, true, 1L));
+        works.add(work(haMgr, 3, VirtualMachine.Type.DomainRouter, false, 1L));
+        works.add(work(haMgr, 4, VirtualMachine.Type.User, true, 2L));
+        try {
+            haMgr.processHostBatch(works);
+        } finally {
+            haMgr._restartExecutor.shutdown();
+        }
+
+        assertEquals(4, restarted.size());
+        long[] expected = new long[] {3, 4, 2, 1};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], restarted.get(i).longValue());
+        }
+        assertEquals(1, haMgr._phaseStats.getLatency(HaPhaseStats.Phase.Batch).getCount());
+    }
+
+    private static HaWorkVO work(HighAvailabilityManagerImpl haMgr, long id, VirtualMachine.Type type, boolean haEnabled, long offeringId) {
+        HaWorkVO work = mock(HaWorkVO.class);
+        when(work.getId()).thenReturn(id);
+        when(work.getInstanceId()).thenReturn(100 + id);
+        when(work.getHostId()).thenReturn(5L);
+        when(work.getType()).thenReturn(type);
+        when(work.getStep()).thenReturn(Step.Scheduled);
+        VMInstanceVO vm = mock(VMInstanceVO.class);
+        when(vm.isHaEnabled()).thenReturn(haEnabled);
+        when(vm.getServiceOfferingId()).thenReturn(offeringId);
+        when(haMgr._instanceDao.findById(100 + id)).thenReturn(vm);
+        return work;
+    }
+}
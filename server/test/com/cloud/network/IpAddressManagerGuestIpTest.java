@@ -0,0 +1,101 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import org.apache.cloudstack.lb.dao.ApplicationLoadBalancerRuleDao;
+
+import com.cloud.utils.net.Ip;
+import com.cloud.utils.net.IpAddressBitmap;
+import com.cloud.vm.NicVO;
+import com.cloud.vm.dao.NicDao;
+import com.cloud.vm.dao.NicSecondaryIpDao;
+
+public class IpAddressManagerGuestIpTest {
+    IpAddressManagerImpl _ipAddrMgr;
+    Network _network;
+
+    @Before
+    public void setUp() {
+        _ipAddrMgr = new IpAddressManagerImpl();
+        _ipAddrMgr._networkModel = mock(NetworkModel.class);
+        _ipAddrMgr._nicDao = mock(NicDao.class);
+        _ipAddrMgr._nicSecondaryIpDao = mock(NicSecondaryIpDao.class);
+        _ipAddrMgr._appLbRuleDao = mock(ApplicationLoadBalancerRuleDao.class);
+
+        _network = mock(Network.class);
+        when(_network.getId()).thenReturn(1L);
+        when(_network.getCidr()).thenReturn("10.1.1.0/24");
+        when(_network.getGateway()).thenReturn("10.1.1.1");
+        when(_ipAddrMgr._networkModel.getGuestIpBitmap(_network, null)).thenAnswer(new Answer<IpAddressBitmap>() {
+            @Override
+            public IpAddressBitmap answer(InvocationOnMock invocation) {
+                String[] cidr = _network.getCidr().split("/");
+                IpAddressBitmap bitmap = IpAddressBitmap.fromCidr(cidr[0], Integer.parseInt(cidr[1]));
+                bitmap.markUsed("10.1.1.1");
+                bitmap.markUsed("10.1.1.5");
+                return bitmap;
+            }
+        });
+    }
+
+    @Test
+    public void testRequestedIpIsCheckedAgainstCachedAddresses() {
+        assertEquals("10.1.1.20", _ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.20"));
+        assertEquals("10.1.1.21", _ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.21"));
+        verify(_ipAddrMgr._networkModel, times(1)).getGuestIpBitmap(_network, null);
+        verify(_ipAddrMgr._nicDao).findByIp4AddressAndNetworkId("10.1.1.21", 1L);
+    }
+
+    @Test
+    public void testRequestedIpInUse() {
+        assertNull(_ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.5"));
+        assertNull(_ipAddrMgr.acquireGuestIpAddress(_network, "10.1.2.20"));
+
+        // taken on another management server
+        when(_ipAddrMgr._nicDao.findByIp4AddressAndNetworkId("10.1.1.30", 1L)).thenReturn(mock(NicVO.class));
+        assertNull(_ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.30"));
+        when(_ipAddrMgr._appLbRuleDao.countBySourceIp(any(Ip.class), anyLong())).thenReturn(1L);
+        assertNull(_ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.31"));
+    }
+
+    @Test
+    public void testInvalidateAndCidrChangeReload() {
+        _ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.20");
+        _ipAddrMgr.invalidateGuestIps(1L);
+        _ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.21");
+        verify(_ipAddrMgr._networkModel, times(2)).getGuestIpBitmap(_network, null);
+
+        when(_network.getCidr()).thenReturn("10.1.1.0/25");
+        assertEquals("10.1.1.22", _ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.22"));
+        verify(_ipAddrMgr._networkModel, times(3)).getGuestIpBitmap(_network, null);
+        assertNull(_ipAddrMgr.acquireGuestIpAddress(_network, "10.1.1.200"));
+    }
+}
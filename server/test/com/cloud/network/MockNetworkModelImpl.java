@@ -44,6 +44,7 @@ import com.cloud.offering.NetworkOffering.Detail;
 import com.cloud.offerings.NetworkOfferingVO;
 import com.cloud.user.Account;
 import com.cloud.utils.component.ManagerBase;
+import com.cloud.utils.net.IpAddressBitmap;
 import com.cloud.vm.Nic;
 import com.cloud.vm.NicProfile;
 import com.cloud.vm.VirtualMachine;
@@ -745,6 +746,11 @@ public class MockNetworkModelImpl extends ManagerBase implements NetworkModel {
         return null;
     }
 
+    @Override
+    public IpAddressBitmap getGuestIpBitmap(Network network, String requestedIp) {
+        return null;
+    }
+
     /* (non-Javadoc)
      * @see com.cloud.network.NetworkModel#getDomainNetworkDomain(long, long)
      */
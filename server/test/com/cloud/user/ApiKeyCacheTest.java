@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+
+import com.cloud.utils.Pair;
+
+public class ApiKeyCacheTest {
+    private static Pair<User, Account> userAccount(long userId, long accountId) {
+        User user = mock(User.class);
+        when(user.getId()).thenReturn(userId);
+        Account account = mock(Account.class);
+        when(account.getId()).thenReturn(accountId);
+        return new Pair<User, Account>(user, account);
+    }
+
+    @Test
+    public void testInvalidateByUserAndAccount() {
+        ApiKeyCache cache = new ApiKeyCache(100, 60000);
+        Pair<User, Account> first = userAccount(1, 10);
+        Pair<User, Account> second = userAccount(2, 10);
+        Pair<User, Account> third = userAccount(3, 11);
+        cache.put("k1", first, cache.getGeneration());
+        cache.put("k2", second, cache.getGeneration());
+        cache.put("k3", third, cache.getGeneration());
+        assertSame(first, cache.get("k1"));
+        assertEquals(3, cache.getSize());
+
+        assertEquals(1, cache.invalidateUser(1));
+        assertNull(cache.get("k1"));
+        assertSame(second, cache.get("k2"));
+
+        assertEquals(1, cache.invalidateAccount(10));
+        assertNull(cache.get("k2"));
+        assertSame(third, cache.get("k3"));
+        assertEquals(3, cache.getHitCount());
+    }
+
+    @Test
+    public void testLookupTimes() {
+        ApiKeyCache cache = new ApiKeyCache(100, 60000);
+        assertNull(cache.get("k1"));
+        cache.recordLookup(4);
+        assertNull(cache.get("k2"));
+        cache.recordLookup(8);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(6, cache.getLookupTimes().getAverageMs());
+        assertEquals(8, cache.getLookupTimes().getMaxMs());
+    }
+
+    @Test
+    public void testLoadRacingInvalidationIsNotCached() {
+        ApiKeyCache cache = new ApiKeyCache(100, 60000);
+        long generation = cache.getGeneration();
+        // the user is changed while its key is being looked up
+        cache.invalidateUser(1);
+        cache.put("k1", userAccount(1, 10), generation);
+        assertNull(cache.get("k1"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        ApiKeyCache cache = new ApiKeyCache(100, 0);
+        cache.put("k1", userAccount(1, 10), cache.getGeneration());
+        assertNull(cache.get("k1"));
+    }
+}
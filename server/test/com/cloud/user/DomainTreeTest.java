@@ -0,0 +1,119 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+public class DomainTreeTest {
+    private static final Logger s_logger = Logger.getLogger(DomainTreeTest.class);
+
+    //  ROOT(1) -> a(2) -> c(4)
+    //          -> b(3)
+    private static DomainTree smallTree() {
+        return new DomainTree(new long[] {4, 1, 3, 2}, new long[] {2, 0, 1, 1}, new String[] {"/a/c/", "/", "/b/", "/a/"});
+    }
+
+    @Test
+    public void testAncestry() {
+        DomainTree tree = smallTree();
+        assertEquals(4, tree.getSize());
+        assertTrue(tree.isChildDomain(1, 4));
+        assertTrue(tree.isChildDomain(2, 4));
+        assertTrue(tree.isChildDomain(2, 2));
+        assertFalse(tree.isChildDomain(4, 2));
+        assertFalse(tree.isChildDomain(3, 4));
+        assertFalse(tree.isChildDomain(2, 3));
+        assertFalse(tree.isChildDomain(2, 99));
+        assertFalse(tree.contains(99));
+    }
+
+    @Test
+    public void testSubtreesAndParents() {
+        DomainTree tree = smallTree();
+        assertEquals(new HashSet<Long>(Arrays.asList(2L, 4L)), new HashSet<Long>(tree.getSubtreeIds(2)));
+        assertEquals(new HashSet<Long>(Arrays.asList(2L, 4L)), new HashSet<Long>(tree.getSubtreeIds("/a/")));
+        assertEquals(4, tree.getSubtreeIds("/").size());
+        assertEquals(Arrays.asList(3L), tree.getSubtreeIds(3));
+        assertNull(tree.getSubtreeIds("/x/"));
+
+        assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 4L)), tree.getParentIds(4));
+        assertEquals(new HashSet<Long>(Arrays.asList(1L)), tree.getParentIds(1));
+        assertNull(tree.getParentIds(99));
+    }
+
+    @Test
+    public void testOrphanIsItsOwnRoot() {
+        // the parent of 5 is not loaded
+        DomainTree tree = new DomainTree(new long[] {1, 5, 6}, new long[] {0, 42, 5}, new String[] {"/", "/gone/x/", "/gone/x/y/"});
+        assertTrue(tree.isChildDomain(5, 6));
+        assertFalse(tree.isChildDomain(1, 5));
+        assertEquals(new HashSet<Long>(Arrays.asList(5L, 6L)), tree.getParentIds(6));
+    }
+
+    @Test
+    public void testMatchesPathPrefixes() {
+        Random random = new Random(11);
+        int count = 50000;
+        long[] ids = new long[count];
+        long[] parents = new long[count];
+        String[] paths = new String[count];
+        ids[0] = 1;
+        paths[0] = "/";
+        for (int i = 1; i < count; i++) {
+            ids[i] = i + 1;
+            // favour recent domains as parents to get some depth
+            int parent = random.nextBoolean() ? random.nextInt(i) : Math.max(0, i - 1 - random.nextInt(10));
+            parents[i] = ids[parent];
+            paths[i] = paths[parent] + "d" + ids[i] + "/";
+        }
+
+        long start = System.currentTimeMillis();
+        DomainTree tree = new DomainTree(ids, parents, paths);
+        s_logger.info("Built tree of " + count + " domains in " + (System.currentTimeMillis() - start) + " ms");
+        assertEquals(count, tree.getSize());
+
+        start = System.currentTimeMillis();
+        for (int n = 0; n < 200000; n++) {
+            int parent = random.nextInt(count);
+            int child = random.nextInt(count);
+            assertEquals(paths[child].startsWith(paths[parent]), tree.isChildDomain(ids[parent], ids[child]));
+        }
+        s_logger.info("200000 ancestry checks in " + (System.currentTimeMillis() - start) + " ms");
+
+        for (int n = 0; n < 20; n++) {
+            int domain = random.nextInt(count);
+            Set<Long> expected = new HashSet<Long>();
+            for (int i = 0; i < count; i++) {
+                if (paths[i].startsWith(paths[domain])) {
+                    expected.add(ids[i]);
+                }
+            }
+            assertEquals(expected, new HashSet<Long>(tree.getSubtreeIds(ids[domain])));
+        }
+    }
+}
@@ -47,6 +47,7 @@ import com.cloud.agent.api.Answer;
 import com.cloud.agent.api.CreateVMSnapshotAnswer;
 import com.cloud.agent.api.CreateVMSnapshotCommand;
 import com.cloud.agent.api.to.VolumeTO;
+import com.cloud.capacity.CapacityManager;
 import com.cloud.exception.AgentUnavailableException;
 import com.cloud.exception.InvalidParameterValueException;
 import com.cloud.exception.OperationTimedoutException;
@@ -90,6 +91,7 @@ public class VMSnapshotManagerTest {
     @Mock AgentManager _agentMgr;
     @Mock HypervisorGuruManager _hvGuruMgr;
     @Mock AccountManager _accountMgr;
+    @Mock CapacityManager _capacityMgr;
     @Mock GuestOSDao _guestOSDao;
     @Mock PrimaryDataStoreDao _storagePoolDao;
     @Mock SnapshotDao _snapshotDao;
@@ -111,6 +113,7 @@ public class VMSnapshotManagerTest {
         _vmSnapshotMgr._vmSnapshotDao = _vmSnapshotDao;
         _vmSnapshotMgr._volumeDao = _volumeDao;
         _vmSnapshotMgr._accountMgr = _accountMgr;
+        _vmSnapshotMgr._capacityMgr = _capacityMgr;
         _vmSnapshotMgr._snapshotDao = _snapshotDao;
         _vmSnapshotMgr._guestOSDao = _guestOSDao;
         _vmSnapshotMgr._hypervisorCapabilitiesDao = _hypervisorCapabilitiesDao;
@@ -51,6 +51,7 @@ import org.apache.cloudstack.api.command.admin.zone.DeleteZoneCmd;
 import org.apache.cloudstack.api.command.admin.zone.UpdateZoneCmd;
 import org.apache.cloudstack.api.command.user.network.ListNetworkOfferingsCmd;
 import org.apache.cloudstack.config.Configuration;
+import org.apache.cloudstack.framework.config.ConfigKey;
 import org.apache.cloudstack.region.PortableIp;
 import org.apache.cloudstack.region.PortableIpRange;
 
@@ -390,6 +391,14 @@ public class MockConfigurationManagerImpl extends ManagerBase implements Configu
         return null;
     }
 
+    /* (non-Javadoc)
+     * @see com.cloud.configuration.ConfigurationManager#scopedConfigChanged(org.apache.cloudstack.framework.config.ConfigKey.Scope, long)
+     */
+    @Override
+    public void scopedConfigChanged(ConfigKey.Scope scope, long resourceId) {
+        // TODO Auto-generated method stub
+    }
+
     /* (non-Javadoc)
      * @see com.cloud.configuration.ConfigurationManager#createPod(long, java.lang.String, long, java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String, boolean)
      */
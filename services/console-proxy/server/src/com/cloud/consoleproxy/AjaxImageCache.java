@@ -0,0 +1,164 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cloud.consoleproxy.util.Logger;
+
+/**
+ * Encoded AJAX images of a console session, shared by every viewer of the VM.
+ * 
+ * Images are evicted in least recently used order once either the entry or the
+ * byte limit is reached. An image can be stored under a hash of the content it
+ * was encoded from, so the same tiles are only JPEG encoded once as long as
+ * the result stays in the cache.
+ */
+public class AjaxImageCache {
+    private static final Logger s_logger = Logger.getLogger(AjaxImageCache.class);
+    
+    private static class CachedImage {
+        final byte[] image;
+        final Long contentHash;
+        
+        CachedImage(byte[] image, Long contentHash) {
+            this.image = image;
+            this.contentHash = contentHash;
+        }
+    }
+    
+    // key -> image, in access order
+    private final LinkedHashMap<Integer, CachedImage> cache = new LinkedHashMap<Integer, CachedImage>(16, 0.75f, true);
+    private final Map<Long, Integer> contentKeys = new HashMap<Long, Integer>();
+    private final int cacheSize;
+    private final long maxBytes;
+    private long cachedBytes = 0;
+    private int nextKey = 0;
+    
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+    
+    public AjaxImageCache(int cacheSize, long maxBytes) {
+        this.cacheSize = Math.max(cacheSize, 1);
+        this.maxBytes = maxBytes;
+    }
+    
+    public synchronized void clear() {
+        cache.clear();
+        contentKeys.clear();
+        cachedBytes = 0;
+    }
+    
+    public synchronized int putImage(byte[] image) {
+        return putImage(image, null);
+    }
+    
+    public synchronized int putImage(long contentHash, byte[] image) {
+        return putImage(image, contentHash);
+    }
+    
+    private int putImage(byte[] image, Long contentHash) {
+        int size = image != null ? image.length : 0;
+        Iterator<Map.Entry<Integer, CachedImage>> it = cache.entrySet().iterator();
+        while(it.hasNext() && (cache.size() >= cacheSize || cachedBytes + size > maxBytes)) {
+            Map.Entry<Integer, CachedImage> eldest = it.next();
+            it.remove();
+            forget(eldest.getKey(), eldest.getValue());
+            evictionCount++;
+            
+            if(s_logger.isTraceEnabled())
+                s_logger.trace("Remove image from cache, key: " + eldest.getKey());
+        }
+        
+        int key = getNextKey();
+        
+        if(s_logger.isTraceEnabled())
+            s_logger.trace("Add image to cache, key: " + key + ", size: " + size);
+        
+        cache.put(key, new CachedImage(image, contentHash));
+        cachedBytes += size;
+        if(contentHash != null)
+            contentKeys.put(contentHash, key);
+        return key;
+    }
+    
+    /**
+     * @return the key of the image encoded from the given content, or 0 if it
+     *         is not cached
+     */
+    public synchronized int getImageKey(long contentHash) {
+        Integer key = contentKeys.get(contentHash);
+        if(key != null && cache.get(key) != null) {
+            hitCount++;
+            return key;
+        }
+        missCount++;
+        return 0;
+    }
+    
+    public synchronized byte[] getImage(int key) {
+        if (key == 0) {
+            key = nextKey;
+        }
+        CachedImage cached = cache.get(key);
+        if (cached != null) {
+            if (s_logger.isTraceEnabled())
+                s_logger.trace("Retrieve image from cache, key: " + key);
+
+            return cached.image;
+        }
+
+        if (s_logger.isTraceEnabled())
+            s_logger.trace("Image is no long in cache, key: " + key);
+        return null;
+    }
+
+    public synchronized int getNextKey() {
+        return ++nextKey;
+    }
+    
+    public synchronized int getImageCount() {
+        return cache.size();
+    }
+    
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+    
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+    
+    private void forget(Integer key, CachedImage cached) {
+        if(cached.image != null)
+            cachedBytes -= cached.image.length;
+        if(cached.contentHash != null && key.equals(contentKeys.get(cached.contentHash)))
+            contentKeys.remove(cached.contentHash);
+    }
+}
@@ -19,6 +19,7 @@ package com.cloud.consoleproxy;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -30,13 +31,21 @@ import java.security.SecureRandom;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.xml.DOMConfigurator;
 
 import com.cloud.consoleproxy.util.Logger;
+import com.cloud.consoleproxy.vnc.VncSelectorLoop;
 import com.cloud.utils.PropertiesUtil;
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.google.gson.Gson;
 import com.sun.net.httpserver.HttpServer;
 
@@ -71,6 +80,28 @@ public class ConsoleProxy {
     static int keyboardType = KEYBOARD_RAW;
     static String factoryClzName;
     static boolean standaloneStart = false;
+    static int httpWorkerThreads = 64;
+    static int httpCmdWorkerThreads = 4;
+    static int vncWorkerThreads = 16;
+    static int vncHandshakeThreads = 8;
+    static int workerQueueSize = 1000;
+    static int ajaxImageCacheSize = 8;
+    static int ajaxImageCacheBytes = 2 * 1024 * 1024;
+
+    // Bounded pools that replace a thread per request and a thread per VNC
+    // session. Work is queued, never run by the submitting thread: that is the
+    // HTTP dispatcher, the VNC selector or the timer, none of which may block.
+    // Their queues stay short on their own, there is at most one task per open
+    // HTTP exchange and one read and one flush per VNC session.
+    private static ThreadPoolExecutor httpExecutor;
+    private static ThreadPoolExecutor httpCmdExecutor;
+    private static ThreadPoolExecutor vncExecutor;
+    // The RFB handshake blocks for up to a minute on a silent host, so it gets
+    // its own pool and never holds up live sessions. Connect attempts beyond
+    // workerQueueSize are rejected and retried later.
+    private static ThreadPoolExecutor vncHandshakeExecutor;
+    private static ScheduledExecutorService timer;
+    private static VncSelectorLoop vncSelectorLoop;
     
     static String encryptorPassword = genDefaultEncryptorPassword(); 
     
@@ -156,6 +187,48 @@ public class ConsoleProxy {
             readTimeoutSeconds = Integer.parseInt(s);
             s_logger.info("Setting readTimeoutSeconds=" + readTimeoutSeconds);
         }
+
+        s = conf.getProperty("consoleproxy.httpWorkerThreads");
+        if (s!=null) {
+            httpWorkerThreads = Integer.parseInt(s);
+            s_logger.info("Setting httpWorkerThreads=" + httpWorkerThreads);
+        }
+
+        s = conf.getProperty("consoleproxy.httpCmdWorkerThreads");
+        if (s!=null) {
+            httpCmdWorkerThreads = Integer.parseInt(s);
+            s_logger.info("Setting httpCmdWorkerThreads=" + httpCmdWorkerThreads);
+        }
+
+        s = conf.getProperty("consoleproxy.vncWorkerThreads");
+        if (s!=null) {
+            vncWorkerThreads = Integer.parseInt(s);
+            s_logger.info("Setting vncWorkerThreads=" + vncWorkerThreads);
+        }
+
+        s = conf.getProperty("consoleproxy.vncHandshakeThreads");
+        if (s!=null) {
+            vncHandshakeThreads = Integer.parseInt(s);
+            s_logger.info("Setting vncHandshakeThreads=" + vncHandshakeThreads);
+        }
+
+        s = conf.getProperty("consoleproxy.workerQueueSize");
+        if (s!=null) {
+            workerQueueSize = Integer.parseInt(s);
+            s_logger.info("Setting workerQueueSize=" + workerQueueSize);
+        }
+
+        s = conf.getProperty("consoleproxy.ajaxImageCacheSize");
+        if (s!=null) {
+            ajaxImageCacheSize = Integer.parseInt(s);
+            s_logger.info("Setting ajaxImageCacheSize=" + ajaxImageCacheSize);
+        }
+
+        s = conf.getProperty("consoleproxy.ajaxImageCacheBytes");
+        if (s!=null) {
+            ajaxImageCacheBytes = Integer.parseInt(s);
+            s_logger.info("Setting ajaxImageCacheBytes=" + ajaxImageCacheBytes);
+        }
     }
     
     public static ConsoleProxyServerFactory getHttpServerFactory() {
@@ -324,6 +397,8 @@ public class ConsoleProxy {
             System.exit(1);
         }
         
+        startupWorkers();
+        
         if(httpListenPort != 0) {
             startupHttpMain();
         } else {
@@ -342,6 +417,29 @@ public class ConsoleProxy {
         cthread.start();
     }
     
+    private static void startupWorkers() {
+        httpExecutor = createWorkerPool("ConsoleProxy-HTTP", httpWorkerThreads, new LinkedBlockingQueue<Runnable>());
+        httpCmdExecutor = createWorkerPool("ConsoleProxy-CMD", httpCmdWorkerThreads, new LinkedBlockingQueue<Runnable>());
+        vncExecutor = createWorkerPool("ConsoleProxy-VNC", vncWorkerThreads, new LinkedBlockingQueue<Runnable>());
+        vncHandshakeExecutor = createWorkerPool("ConsoleProxy-Handshake", vncHandshakeThreads, new ArrayBlockingQueue<Runnable>(workerQueueSize));
+        timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ConsoleProxy-Timer"));
+        
+        try {
+            vncSelectorLoop = new VncSelectorLoop(vncExecutor, vncHandshakeExecutor, timer);
+            vncSelectorLoop.start();
+        } catch(IOException e) {
+            s_logger.warn("Unable to open selector, VNC sessions will run a receiver thread each", e);
+            vncSelectorLoop = null;
+        }
+    }
+    
+    private static ThreadPoolExecutor createWorkerPool(String name, int threads, BlockingQueue<Runnable> queue) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            queue, new NamedThreadFactory(name), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
     private static void startupHttpMain() {
         try {
             ConsoleProxyServerFactory factory = getHttpServerFactory();
@@ -355,7 +453,7 @@ public class ConsoleProxy {
             server.createContext("/resource/", new ConsoleProxyResourceHandler());
             server.createContext("/ajax", new ConsoleProxyAjaxHandler());
             server.createContext("/ajaximg", new ConsoleProxyAjaxImageHandler());
-            server.setExecutor(new ThreadExecutor()); // creates a default executor
+            server.setExecutor(httpExecutor);
             server.start();
         } catch(Exception e) {
             s_logger.error(e.getMessage(), e);
@@ -368,7 +466,7 @@ public class ConsoleProxy {
             s_logger.info("Listening for HTTP CMDs on port " + httpCmdListenPort);
             HttpServer cmdServer = HttpServer.create(new InetSocketAddress(httpCmdListenPort), 2);
             cmdServer.createContext("/cmd", new ConsoleProxyCmdHandler());
-            cmdServer.setExecutor(new ThreadExecutor()); // creates a default executor
+            cmdServer.setExecutor(httpCmdExecutor);
             cmdServer.start();
         } catch(Exception e) {
             s_logger.error(e.getMessage(), e);
@@ -486,6 +584,50 @@ public class ConsoleProxy {
         }
     }
     
+    /**
+     * @return the selector loop for non-blocking VNC sessions, or null if VNC
+     *         sessions should run a receiver thread each
+     */
+    public static VncSelectorLoop getVncSelectorLoop() {
+        return vncSelectorLoop;
+    }
+    
+    /**
+     * @return the timer for short delayed tasks, or null if the proxy has not
+     *         been started
+     */
+    public static ScheduledExecutorService getTimer() {
+        return timer;
+    }
+    
+    /**
+     * Run a task on the HTTP worker pool, or on the calling thread if the proxy
+     * has not been started.
+     */
+    public static void executeHttpTask(Runnable task) {
+        ThreadPoolExecutor executor = httpExecutor;
+        if(executor != null)
+            executor.execute(task);
+        else
+            task.run();
+    }
+    
+    static ThreadPoolExecutor getHttpExecutor() {
+        return httpExecutor;
+    }
+    
+    static ThreadPoolExecutor getHttpCmdExecutor() {
+        return httpCmdExecutor;
+    }
+    
+    static ThreadPoolExecutor getVncExecutor() {
+        return vncExecutor;
+    }
+    
+    static ThreadPoolExecutor getVncHandshakeExecutor() {
+        return vncHandshakeExecutor;
+    }
+    
     public static ConsoleProxyClientStatsCollector getStatsCollector() {
         return new ConsoleProxyClientStatsCollector(connectionMap);
     }
@@ -511,10 +653,4 @@ public class ConsoleProxy {
     public static void setEncryptorPassword(String password) {
         encryptorPassword = password;
     }
-    
-    static class ThreadExecutor implements Executor {
-         public void execute(Runnable r) {
-             new Thread(r).start();
-         }
-    }
 }
@@ -38,13 +38,15 @@ public class ConsoleProxyAjaxHandler implements HttpHandler {
     }
     
     public void handle(HttpExchange t) throws IOException {
+        // update requests are answered later from the worker pool, which then closes the exchange
+        boolean deferred = false;
         try {
             if(s_logger.isTraceEnabled())
                 s_logger.trace("AjaxHandler " + t.getRequestURI());
             
             long startTick = System.currentTimeMillis();
             
-            doHandle(t);
+            deferred = doHandle(t);
             
             if(s_logger.isTraceEnabled())
                 s_logger.trace(t.getRequestURI() + " process time " + (System.currentTimeMillis() - startTick) + " ms");
@@ -57,11 +59,15 @@ public class ConsoleProxyAjaxHandler implements HttpHandler {
             s_logger.error("Unexpected exception, ", e);
             t.sendResponseHeaders(500, -1);     // server error
         } finally {
-            t.close();
+            if(!deferred)
+                t.close();
         }
     }
     
-    private void doHandle(HttpExchange t) throws Exception, IllegalArgumentException {
+    /**
+     * @return true if the response will be sent asynchronously
+     */
+    private boolean doHandle(HttpExchange t) throws Exception, IllegalArgumentException {
         String queries = t.getRequestURI().getQuery();
         if(s_logger.isTraceEnabled())
             s_logger.trace("Handle AJAX request: " + queries);
@@ -142,7 +148,7 @@ public class ConsoleProxyAjaxHandler implements HttpHandler {
                 sb.append(content[i]);
             
             sendResponse(t, "text/html", sb.toString());
-            return;
+            return false;
         }
         
         if(event != 0) {
@@ -178,8 +184,10 @@ public class ConsoleProxyAjaxHandler implements HttpHandler {
                     s_logger.trace("Ajax request indicates client update");
                 
                 handleClientUpdate(t, viewer);
+                return true;
             }
         }
+        return false;
     }
     
     private static String convertStreamToString(InputStream is, boolean closeStreamAfterRead) { 
@@ -389,8 +397,22 @@ public class ConsoleProxyAjaxHandler implements HttpHandler {
         }
     }
     
-    private void handleClientUpdate(HttpExchange t, ConsoleProxyClient viewer) throws IOException {
-        String response = viewer.onAjaxClientUpdate();
+    private void handleClientUpdate(final HttpExchange t, final ConsoleProxyClient viewer) {
+        viewer.waitForAjaxClientUpdate(new Runnable() {
+            public void run() {
+                try {
+                    sendClientUpdate(t, viewer, viewer.getAjaxClientUpdate());
+                } catch(Throwable e) {
+                    s_logger.warn("Unable to send AJAX update to client, ", e);
+                } finally {
+                    t.close();
+                }
+            }
+        });
+    }
+    
+    private void sendClientUpdate(HttpExchange t, ConsoleProxyClient viewer, String response) throws IOException {
+        viewer.recordFrontEndBytesSent(response.length());
         
         Headers hds = t.getResponseHeaders();
         hds.set("Content-Type", "text/javascript");
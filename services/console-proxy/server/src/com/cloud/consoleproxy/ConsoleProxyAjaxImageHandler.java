@@ -131,17 +131,19 @@ public class ConsoleProxyAjaxImageHandler implements HttpHandler {
             hds.set("Cache-Control", "no-cache");
             hds.set("Cache-Control", "no-store");
             t.sendResponseHeaders(200, bs.length);
+            viewer.recordFrontEndBytesSent(bs.length);
             OutputStream os = t.getResponseBody();
             os.write(bs);
             os.close();
         } else {
-            AjaxFIFOImageCache imageCache = viewer.getAjaxImageCache();
+            AjaxImageCache imageCache = viewer.getAjaxImageCache();
                     byte[] img = imageCache.getImage(key);
     
             if(img != null) {
                 Headers hds = t.getResponseHeaders();
                 hds.set("Content-Type", "image/jpeg");
                 t.sendResponseHeaders(200, img.length);
+                viewer.recordFrontEndBytesSent(img.length);
                 
                 OutputStream os = t.getResponseBody();
                 try {
@@ -38,11 +38,13 @@ public interface ConsoleProxyClient {
     // AJAX viewer
     //
     long getAjaxSessionId();
-    AjaxFIFOImageCache getAjaxImageCache();
+    AjaxImageCache getAjaxImageCache();
     Image getClientScaledImage(int width, int height);                  // client thumbnail support
     
     String onAjaxClientStart(String title, List<String> languages, String guest);
     String onAjaxClientUpdate();
+    void waitForAjaxClientUpdate(Runnable task);                        // run task once an update is due, without blocking
+    String getAjaxClientUpdate();
     String onAjaxClientKickoff();
 
     //
@@ -60,6 +62,16 @@ public interface ConsoleProxyClient {
     int getClientHostPort();
     String getClientHostPassword();
     String getClientTag();
+    boolean isNonBlockingSession();
+    long getHostBytesReceived();
+    long getHostFramebufferUpdates();
+    long getFrontEndBytesSent();
+    long getAjaxUpdateCount();
+    void recordFrontEndBytesSent(int bytes);
+    long getEncodedImageCount();
+    long getEncodedImageBytes();
+    long getImageEncodeTimeMs();
+    long getUnchangedTileCount();                                       // dirty tiles not sent as their content had not changed
 
     //
     // Setup/house-keeping
@@ -16,12 +16,21 @@
 // under the License.
 package com.cloud.consoleproxy;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
+import com.cloud.consoleproxy.util.ImageHelper;
 import com.cloud.consoleproxy.util.TileInfo;
 import com.cloud.consoleproxy.util.TileTracker;
 import com.cloud.consoleproxy.vnc.FrameBufferCanvas;
@@ -36,6 +45,9 @@ import com.cloud.consoleproxy.vnc.FrameBufferCanvas;
 public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, ConsoleProxyClientListener {
     private static final Logger s_logger = Logger.getLogger(ConsoleProxyClientBase.class);
     
+    private static final long AJAX_UPDATE_WAIT_MS = 3000;
+    private static final long VIEWER_READY_WAIT_MS = 5000;
+    
     private static int s_nextClientId = 0;
     protected int clientId = getNextClientId();
     
@@ -43,8 +55,10 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
     
     protected boolean dirtyFlag = false;
     protected Object tileDirtyEvent = new Object();
+    // pending AJAX updates parked until tiles get dirty, guarded by tileDirtyEvent
+    private final List<Runnable> ajaxUpdateWaiters = new ArrayList<Runnable>();
     protected TileTracker tracker;
-    protected AjaxFIFOImageCache ajaxImageCache = new AjaxFIFOImageCache(2);
+    protected AjaxImageCache ajaxImageCache = new AjaxImageCache(ConsoleProxy.ajaxImageCacheSize, ConsoleProxy.ajaxImageCacheBytes);
 
     protected ConsoleProxyClientParam clientParam;
     protected String clientToken;
@@ -56,6 +70,15 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
     protected int resizedFramebufferWidth;
     protected int resizedFramebufferHeight;
 
+    protected final AtomicLong frontEndBytesSent = new AtomicLong();
+    protected final AtomicLong ajaxUpdateCount = new AtomicLong();
+    
+    // JPEG encoder stats of the AJAX images
+    protected final AtomicLong encodedImageCount = new AtomicLong();
+    protected final AtomicLong encodedImageBytes = new AtomicLong();
+    protected final AtomicLong imageEncodeNanos = new AtomicLong();
+    protected final AtomicLong unchangedTileCount = new AtomicLong();
+
     public ConsoleProxyClientBase() {
         tracker = new TileTracker();
         tracker.initTracking(64, 64, 800, 600);
@@ -78,7 +101,7 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
     }
     
     @Override
-    public AjaxFIFOImageCache getAjaxImageCache() {
+    public AjaxImageCache getAjaxImageCache() {
         return ajaxImageCache;
     }
     
@@ -125,6 +148,41 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
         return "";
     }
 
+    @Override
+    public long getFrontEndBytesSent() {
+        return frontEndBytesSent.get();
+    }
+    
+    @Override
+    public long getAjaxUpdateCount() {
+        return ajaxUpdateCount.get();
+    }
+    
+    @Override
+    public void recordFrontEndBytesSent(int bytes) {
+        frontEndBytesSent.addAndGet(bytes);
+    }
+    
+    @Override
+    public long getEncodedImageCount() {
+        return encodedImageCount.get();
+    }
+    
+    @Override
+    public long getEncodedImageBytes() {
+        return encodedImageBytes.get();
+    }
+    
+    @Override
+    public long getImageEncodeTimeMs() {
+        return imageEncodeNanos.get() / 1000000;
+    }
+    
+    @Override
+    public long getUnchangedTileCount() {
+        return unchangedTileCount.get();
+    }
+
     @Override
     public abstract void initClient(ConsoleProxyClientParam param);
         
@@ -147,6 +205,12 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
         signalTileDirtyEvent();
     }
 
+    @Override
+    public void onClientConnected() {
+        // the frame buffer is available now, wake up viewers waiting for it
+        signalTileDirtyEvent();
+    }
+
     @Override
     public void onFramebufferUpdate(int x, int y, int w, int h) {
         if(s_logger.isTraceEnabled())
@@ -174,21 +238,25 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
         return null;
     }
     
-    private String prepareAjaxImage(List<TileInfo> tiles, boolean init) {
-        byte[] imgBits;
-        if(init)
-            imgBits = getFrameBufferJpeg();
-        else 
-            imgBits = getTilesMergedJpeg(tiles, tracker.getTileWidth(), tracker.getTileHeight());
-        
-        if(imgBits == null) {
-            s_logger.warn("Unable to generate jpeg image");
+    /**
+     * Encode the tiles for the AJAX viewer and cache the result.
+     * 
+     * Unless skipUnchanged is false, tiles whose content is the same as when
+     * they were last sent are dropped from the list, so the caller should build
+     * the tile map after this returns. Tiles are hashed from the same copy of
+     * the frame buffer that gets encoded, and an image that has already been
+     * encoded from the same content is served from the cache.
+     */
+    private String prepareAjaxImage(List<TileInfo> tiles, boolean init, boolean skipUnchanged) {
+        FrameBufferCanvas canvas = getFrameBufferCavas();
+        int key;
+        if(canvas != null) {
+            key = prepareAjaxImageKey(canvas, tiles, init, skipUnchanged);
         } else {
-            if(s_logger.isTraceEnabled())
-                s_logger.trace("Generated jpeg image size: " + imgBits.length);
+            s_logger.warn("Unable to generate jpeg image");
+            key = ajaxImageCache.putImage(null);
         }
         
-        int key = ajaxImageCache.putImage(imgBits);
         StringBuffer sb = new StringBuffer();
         sb.append("/ajaximg?token=").append(clientToken);
         sb.append("&key=").append(key);
@@ -197,6 +265,99 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
         return sb.toString();
     }
     
+    private int prepareAjaxImageKey(FrameBufferCanvas canvas, List<TileInfo> tiles, boolean init, boolean skipUnchanged) {
+        int tileWidth = tracker.getTileWidth();
+        int tileHeight = tracker.getTileHeight();
+        
+        BufferedImage image;
+        long contentHash = ImageHelper.newHash();
+        if(init) {
+            image = canvas.getFrameBufferImage();
+            contentHash = ImageHelper.combineHash(contentHash, image.getWidth());
+            contentHash = ImageHelper.combineHash(contentHash, image.getHeight());
+            for(TileInfo tile : tiles) {
+                Rectangle rc = tile.getTileRect().intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+                long hash = rc.isEmpty() ? 0 : ImageHelper.hashRegion(image, rc.x, rc.y, rc.width, rc.height);
+                tracker.updateTileHash(tile.getRow(), tile.getCol(), hash);
+                contentHash = ImageHelper.combineHash(contentHash, hash);
+            }
+        } else {
+            image = canvas.getTilesMergedImage(tiles, tileWidth, tileHeight);
+            
+            List<TileInfo> changedTiles = new ArrayList<TileInfo>(tiles.size());
+            List<Integer> changedSlots = new ArrayList<Integer>(tiles.size());
+            int slot = 0;
+            for(TileInfo tile : tiles) {
+                Rectangle rc = tile.getTileRect();
+                int w = Math.min(rc.width, tileWidth);
+                int h = Math.min(rc.height, tileHeight);
+                long hash = (w <= 0 || h <= 0) ? 0 : ImageHelper.hashRegion(image, slot * tileWidth, 0, w, h);
+                
+                if(tracker.updateTileHash(tile.getRow(), tile.getCol(), hash) || !skipUnchanged) {
+                    changedTiles.add(tile);
+                    changedSlots.add(slot);
+                    
+                    contentHash = ImageHelper.combineHash(contentHash, tile.getRow());
+                    contentHash = ImageHelper.combineHash(contentHash, tile.getCol());
+                    contentHash = ImageHelper.combineHash(contentHash, ((long)w << 32) | h);
+                    contentHash = ImageHelper.combineHash(contentHash, hash);
+                } else {
+                    unchangedTileCount.incrementAndGet();
+                }
+                slot++;
+            }
+            
+            if(changedTiles.size() < tiles.size()) {
+                if(s_logger.isTraceEnabled())
+                    s_logger.trace("Skip " + (tiles.size() - changedTiles.size()) + " unchanged tiles out of " + tiles.size());
+                
+                image = compactMergedImage(image, changedSlots, tileWidth, tileHeight);
+                tiles.clear();
+                tiles.addAll(changedTiles);
+            }
+        }
+        
+        int key = ajaxImageCache.getImageKey(contentHash);
+        if(key != 0) {
+            if(s_logger.isTraceEnabled())
+                s_logger.trace("Reuse cached jpeg image, key: " + key);
+            return key;
+        }
+        
+        byte[] imgBits = null;
+        long startTick = System.nanoTime();
+        try {
+            imgBits = ImageHelper.jpegFromImage(image);
+        } catch (IOException e) {
+        }
+        
+        if(imgBits == null) {
+            s_logger.warn("Unable to generate jpeg image");
+            return ajaxImageCache.putImage(null);
+        }
+        
+        imageEncodeNanos.addAndGet(System.nanoTime() - startTick);
+        encodedImageCount.incrementAndGet();
+        encodedImageBytes.addAndGet(imgBits.length);
+        if(s_logger.isTraceEnabled())
+            s_logger.trace("Generated jpeg image size: " + imgBits.length);
+        
+        return ajaxImageCache.putImage(contentHash, imgBits);
+    }
+    
+    private static BufferedImage compactMergedImage(BufferedImage merged, List<Integer> slots, int tileWidth, int tileHeight) {
+        int width = Math.max(tileWidth, tileWidth * slots.size());
+        BufferedImage image = new BufferedImage(width, tileHeight, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = image.createGraphics();
+        int i = 0;
+        for(int slot : slots) {
+            g.drawImage(merged, i * tileWidth, 0, (i + 1) * tileWidth, tileHeight, slot * tileWidth, 0, (slot + 1) * tileWidth, tileHeight, null);
+            i++;
+        }
+        g.dispose();
+        return image;
+    }
+    
     private String prepareAjaxSession(boolean init) {
         if(init) {
             synchronized(this) {
@@ -216,16 +377,18 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
     
     private boolean waitForViewerReady() {
         long startTick = System.currentTimeMillis();
-        while(System.currentTimeMillis() - startTick < 5000) {
-            if(getFrameBufferCavas() != null)
-                return true;
-            
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
+        synchronized(tileDirtyEvent) {
+            // onClientConnected() wakes us up once the frame buffer is there
+            long waitMs;
+            while(getFrameBufferCavas() == null && (waitMs = VIEWER_READY_WAIT_MS - (System.currentTimeMillis() - startTick)) > 0) {
+                try {
+                    tileDirtyEvent.wait(waitMs);
+                } catch (InterruptedException e) {
+                    break;
+                }
             }
         }
-        return false;
+        return getFrameBufferCavas() != null;
     }
     
     private String onAjaxClientConnectFailed() {
@@ -253,21 +416,9 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
         
         if(s_logger.isTraceEnabled())
             s_logger.trace("Ajax client start, frame buffer w: " + width + ", " + height);
-
-/*        
-        int retry = 0;
-        tracker.initCoverageTest();
-        while(!tracker.hasFullCoverage() && retry < 10) {
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-            }
-            retry++;
-        }
-*/
         
         List<TileInfo> tiles = tracker.scan(true);
-        String imgUrl = prepareAjaxImage(tiles, true);
+        String imgUrl = prepareAjaxImage(tiles, true, false);
         String updateUrl = prepareAjaxSession(true);
         
         StringBuffer sbTileSequence = new StringBuffer();
@@ -368,17 +519,90 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
     @Override
     public String onAjaxClientUpdate() {
         updateFrontEndActivityTime();
+        ajaxUpdateCount.incrementAndGet();
         if(!waitForViewerReady())
             return onAjaxClientDisconnected();
         
         synchronized(tileDirtyEvent) {
             if(!dirtyFlag) {
                 try {
-                    tileDirtyEvent.wait(3000);
+                    tileDirtyEvent.wait(AJAX_UPDATE_WAIT_MS);
+                } catch(InterruptedException e) {
+                }
+            }
+        }
+        
+        return getAjaxClientUpdate();
+    }
+    
+    /**
+     * Long-poll without holding a thread: the task is parked until the tiles get
+     * dirty or the poll times out, and then runs on the HTTP worker pool. It runs
+     * right away if there is already something to send.
+     */
+    @Override
+    public void waitForAjaxClientUpdate(final Runnable task) {
+        updateFrontEndActivityTime();
+        ajaxUpdateCount.incrementAndGet();
+        
+        ScheduledExecutorService timer = ConsoleProxy.getTimer();
+        if(timer == null) {
+            // proxy not started, e.g. in a test harness
+            onAjaxClientUpdateWait();
+            task.run();
+            return;
+        }
+        
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final Runnable waiter = new Runnable() {
+            public void run() {
+                if(done.compareAndSet(false, true))
+                    task.run();
+            }
+        };
+        
+        boolean viewerReady = getFrameBufferCavas() != null;
+        boolean parked;
+        synchronized(tileDirtyEvent) {
+            parked = !dirtyFlag || !viewerReady;
+            if(parked)
+                ajaxUpdateWaiters.add(waiter);
+        }
+        
+        if(!parked) {
+            waiter.run();
+            return;
+        }
+        
+        timer.schedule(new Runnable() {
+            public void run() {
+                synchronized(tileDirtyEvent) {
+                    ajaxUpdateWaiters.remove(waiter);
+                }
+                ConsoleProxy.executeHttpTask(waiter);
+            }
+        }, viewerReady ? AJAX_UPDATE_WAIT_MS : VIEWER_READY_WAIT_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    private void onAjaxClientUpdateWait() {
+        waitForViewerReady();
+        synchronized(tileDirtyEvent) {
+            if(!dirtyFlag) {
+                try {
+                    tileDirtyEvent.wait(AJAX_UPDATE_WAIT_MS);
                 } catch(InterruptedException e) {
                 }
             }
         }
+    }
+    
+    /**
+     * Build the update for the AJAX viewer from the tiles that are dirty now.
+     */
+    @Override
+    public String getAjaxClientUpdate() {
+        if(getFrameBufferCavas() == null)
+            return onAjaxClientDisconnected();
         
         boolean doResize = false;
         synchronized(this) {
@@ -396,7 +620,8 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
             tiles = tracker.scan(false);
         dirtyFlag = false;
         
-        String imgUrl = prepareAjaxImage(tiles, false);
+        // after a resize the viewer starts over with blank tiles, send them all
+        String imgUrl = prepareAjaxImage(tiles, false, !doResize);
         StringBuffer sbTileSequence = new StringBuffer();
         int i = 0;
         for(TileInfo tile : tiles) {
@@ -436,9 +661,20 @@ public abstract class ConsoleProxyClientBase implements ConsoleProxyClient, Cons
     }
     
     private void signalTileDirtyEvent() {
+        List<Runnable> waiters = null;
         synchronized(tileDirtyEvent) {
             dirtyFlag = true;
             tileDirtyEvent.notifyAll();
+            
+            if(!ajaxUpdateWaiters.isEmpty()) {
+                waiters = new ArrayList<Runnable>(ajaxUpdateWaiters);
+                ajaxUpdateWaiters.clear();
+            }
+        }
+        
+        if(waiters != null) {
+            for(Runnable waiter : waiters)
+                ConsoleProxy.executeHttpTask(waiter);
         }
     }
     
@@ -20,6 +20,9 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.cloud.consoleproxy.vnc.VncSelectorLoop;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -31,12 +34,15 @@ import com.google.gson.GsonBuilder;
 public class ConsoleProxyClientStatsCollector {
     
     ArrayList<ConsoleProxyConnection> connections;
+    ArrayList<WorkerPoolStats> workerPools;
+    int nonBlockingSessions;
     
     public ConsoleProxyClientStatsCollector() {
     }
     
     public ConsoleProxyClientStatsCollector(Hashtable<String, ConsoleProxyClient> connMap) {
         setConnections(connMap);
+        setWorkerPools();
     }
     
     public String getStatsReport() {
@@ -67,12 +73,55 @@ public class ConsoleProxyClientStatsCollector {
                 conn.tag = client.getClientTag();
                 conn.createTime = client.getClientCreateTime();
                 conn.lastUsedTime = client.getClientLastFrontEndActivityTime();
+                conn.nonBlocking = client.isNonBlockingSession();
+                conn.hostBytesReceived = client.getHostBytesReceived();
+                conn.hostFramebufferUpdates = client.getHostFramebufferUpdates();
+                conn.frontEndBytesSent = client.getFrontEndBytesSent();
+                conn.ajaxUpdates = client.getAjaxUpdateCount();
+                conn.encodedImages = client.getEncodedImageCount();
+                conn.encodedImageBytes = client.getEncodedImageBytes();
+                if(conn.encodedImages > 0)
+                    conn.averageImageBytes = conn.encodedImageBytes / conn.encodedImages;
+                conn.imageEncodeTimeMs = client.getImageEncodeTimeMs();
+                conn.unchangedTiles = client.getUnchangedTileCount();
+                AjaxImageCache imageCache = client.getAjaxImageCache();
+                if(imageCache != null) {
+                    conn.imageCacheHits = imageCache.getHitCount();
+                    conn.imageCacheBytes = imageCache.getCachedBytes();
+                }
                 conns.add(conn);
             }
         }
         connections = conns;
     }
     
+    private void setWorkerPools() {
+        ArrayList<WorkerPoolStats> pools = new ArrayList<WorkerPoolStats>();
+        addWorkerPool(pools, "http", ConsoleProxy.getHttpExecutor());
+        addWorkerPool(pools, "cmd", ConsoleProxy.getHttpCmdExecutor());
+        addWorkerPool(pools, "vnc", ConsoleProxy.getVncExecutor());
+        addWorkerPool(pools, "handshake", ConsoleProxy.getVncHandshakeExecutor());
+        workerPools = pools;
+        
+        VncSelectorLoop selectorLoop = ConsoleProxy.getVncSelectorLoop();
+        if(selectorLoop != null)
+            nonBlockingSessions = selectorLoop.getSessionCount();
+    }
+    
+    private static void addWorkerPool(ArrayList<WorkerPoolStats> pools, String name, ThreadPoolExecutor executor) {
+        if(executor == null)
+            return;
+        
+        WorkerPoolStats stats = new WorkerPoolStats();
+        stats.name = name;
+        stats.poolSize = executor.getPoolSize();
+        stats.maxPoolSize = executor.getMaximumPoolSize();
+        stats.activeCount = executor.getActiveCount();
+        stats.queueSize = executor.getQueue().size();
+        stats.completedTaskCount = executor.getCompletedTaskCount();
+        pools.add(stats);
+    }
+    
     public static class ConsoleProxyConnection {
         public int id;
         public String clientInfo;
@@ -81,8 +130,32 @@ public class ConsoleProxyClientStatsCollector {
         public String tag;
         public long createTime;
         public long lastUsedTime;
+        public boolean nonBlocking;
+        public long hostBytesReceived;
+        public long hostFramebufferUpdates;
+        public long frontEndBytesSent;
+        public long ajaxUpdates;
+        public long encodedImages;
+        public long encodedImageBytes;
+        public long averageImageBytes;
+        public long imageEncodeTimeMs;
+        public long unchangedTiles;
+        public long imageCacheHits;
+        public long imageCacheBytes;
         
         public ConsoleProxyConnection() {
         }
     }
+    
+    public static class WorkerPoolStats {
+        public String name;
+        public int poolSize;
+        public int maxPoolSize;
+        public int activeCount;
+        public int queueSize;
+        public long completedTaskCount;
+        
+        public WorkerPoolStats() {
+        }
+    }
 }
@@ -25,6 +25,7 @@ import org.apache.log4j.Logger;
 import com.cloud.consoleproxy.vnc.FrameBufferCanvas;
 import com.cloud.consoleproxy.vnc.RfbConstants;
 import com.cloud.consoleproxy.vnc.VncClient;
+import com.cloud.consoleproxy.vnc.VncSelectorLoop;
 
 /**
  * 
@@ -44,10 +45,16 @@ public class ConsoleProxyVncClient extends ConsoleProxyClientBase {
     private static final int X11_KEY_ALT = 0xffe9;
     private static final int X11_KEY_META = 0xffe7;
     
-    private VncClient client;
+    private static final int MAX_CONNECT_ATTEMPTS = 15;
+    private static final long CONNECT_RETRY_INTERVAL_MS = 1000;
+    
+    private volatile VncClient client;
     private Thread worker;
     private volatile boolean workerDone = false;
     
+    // Connection attempts of a non-blocking session, including reconnects
+    private volatile int connectAttempts = 0;
+    
     private int lastModifierStates = 0;
     private int lastPointerMask = 0;
     
@@ -70,10 +77,37 @@ public class ConsoleProxyVncClient extends ConsoleProxyClientBase {
         return true;
     }
 
+    @Override
+    public boolean isNonBlockingSession() {
+        VncClient vncClient = client;
+        return vncClient != null && vncClient.isNonBlocking();
+    }
+    
+    @Override
+    public long getHostBytesReceived() {
+        VncClient vncClient = client;
+        return vncClient != null ? vncClient.getBytesReceived() : 0;
+    }
+    
+    @Override
+    public long getHostFramebufferUpdates() {
+        VncClient vncClient = client;
+        return vncClient != null ? vncClient.getFramebufferUpdates() : 0;
+    }
+
     @Override
     public void initClient(ConsoleProxyClientParam param) {
         setClientParam(param);
         
+        // Tunneled sessions go through an HTTP CONNECT socket and keep a receiver thread
+        VncSelectorLoop selectorLoop = ConsoleProxy.getVncSelectorLoop();
+        String tunnelUrl = param.getClientTunnelUrl();
+        String tunnelSession = param.getClientTunnelSession();
+        if(selectorLoop != null && (tunnelUrl == null || tunnelUrl.isEmpty() || tunnelSession == null || tunnelSession.isEmpty())) {
+            initNonBlockingClient(selectorLoop);
+            return;
+        }
+        
         client = new VncClient(this);
         worker = new Thread(new Runnable() {
             public void run() {
@@ -134,6 +168,72 @@ public class ConsoleProxyVncClient extends ConsoleProxyClientBase {
         worker.start();
     }
     
+    private void initNonBlockingClient(final VncSelectorLoop selectorLoop) {
+        final VncClient vncClient = new VncClient(this, selectorLoop);
+        vncClient.setConnectionCloseHandler(new Runnable() {
+            public void run() {
+                onConnectionClosed(selectorLoop, vncClient);
+            }
+        });
+        
+        VncClient previous = client;
+        client = vncClient;
+        workerDone = false;
+        connectAttempts = 0;
+        if(previous != null)
+            previous.shutdown();
+        
+        scheduleConnect(selectorLoop, vncClient, 0);
+    }
+    
+    private void scheduleConnect(final VncSelectorLoop selectorLoop, final VncClient vncClient, long delayMs) {
+        selectorLoop.connectLater(new Runnable() {
+            public void run() {
+                connect(selectorLoop, vncClient);
+            }
+        }, new Runnable() {
+            public void run() {
+                // a rejected attempt counts, so a saturated proxy gives up on the session in time
+                connectAttempts++;
+                onConnectionClosed(selectorLoop, vncClient);
+            }
+        }, delayMs);
+    }
+    
+    private void connect(VncSelectorLoop selectorLoop, VncClient vncClient) {
+        if(workerDone || vncClient != client)
+            return;
+        
+        connectAttempts++;
+        try {
+            s_logger.info("Connect to VNC server directly. host: " + getClientHostAddress() + ", port: " + getClientHostPort());
+            ConsoleProxy.ensureRoute(getClientHostAddress());
+            vncClient.connectTo(getClientHostAddress(), getClientHostPort(), getClientHostPassword());
+            
+            // session runs on the selector loop from now on, the close handler takes over
+            return;
+        } catch (Throwable e) {
+            s_logger.error("Unexpected exception (will retry until timeout) ", e);
+        }
+        
+        onConnectionClosed(selectorLoop, vncClient);
+    }
+    
+    private void onConnectionClosed(VncSelectorLoop selectorLoop, VncClient vncClient) {
+        // the viewer has been re-initialized with another client meanwhile
+        if(vncClient != client)
+            return;
+        
+        if(!workerDone && connectAttempts < MAX_CONNECT_ATTEMPTS) {
+            scheduleConnect(selectorLoop, vncClient, CONNECT_RETRY_INTERVAL_MS);
+            return;
+        }
+        
+        s_logger.info("VNC session stopped.");
+        workerDone = true;
+        onClientClose();
+    }
+    
     @Override
     public void closeClient() {
     	workerDone = true;
@@ -141,10 +241,6 @@ public class ConsoleProxyVncClient extends ConsoleProxyClientBase {
             client.shutdown();
     }
     
-    @Override
-    public void onClientConnected() {
-    }
-    
     public void onClientClose() {
         s_logger.info("Received client close indication. remove viewer from map.");
         
@@ -17,6 +17,9 @@
 package com.cloud.consoleproxy.util;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
@@ -29,4 +32,57 @@ public class ImageHelper {
         bos.close();
         return jpegBits;
     }
+    
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    
+    /**
+     * 64-bit FNV-1a hash of the pixels in a region of the image, used to tell
+     * whether a tile has changed since it was last encoded.
+     */
+    public static long hashRegion(BufferedImage image, int x, int y, int width, int height) {
+        long hash = FNV_OFFSET_BASIS;
+        DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        
+        if(image.getType() == BufferedImage.TYPE_3BYTE_BGR && dataBuffer instanceof DataBufferByte) {
+            byte[] data = ((DataBufferByte)dataBuffer).getData();
+            int stride = image.getWidth() * 3;
+            for(int row = y; row < y + height; row++) {
+                int end = row * stride + (x + width) * 3;
+                for(int i = row * stride + x * 3; i < end; i++) {
+                    hash ^= data[i] & 0xff;
+                    hash *= FNV_PRIME;
+                }
+            }
+        } else if(image.getType() == BufferedImage.TYPE_INT_RGB && dataBuffer instanceof DataBufferInt) {
+            int[] data = ((DataBufferInt)dataBuffer).getData();
+            int stride = image.getWidth();
+            for(int row = y; row < y + height; row++) {
+                int end = row * stride + x + width;
+                for(int i = row * stride + x; i < end; i++) {
+                    hash ^= data[i] & 0xffffff;
+                    hash *= FNV_PRIME;
+                }
+            }
+        } else {
+            int[] pixels = image.getRGB(x, y, width, height, null, 0, width);
+            for(int pixel : pixels) {
+                hash ^= pixel & 0xffffff;
+                hash *= FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+    
+    public static long combineHash(long hash, long value) {
+        for(int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+    
+    public static long newHash() {
+        return FNV_OFFSET_BASIS;
+    }
 }
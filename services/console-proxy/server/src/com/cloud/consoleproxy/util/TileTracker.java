@@ -25,6 +25,9 @@ public class TileTracker {
     // 2 dimension tile status snapshot, a true value means the corresponding tile has been invalidated
     private boolean[][] snapshot;
     
+    // content hash of each tile as it was last handed out to the viewer, 0 if unknown
+    private long[][] tileHashes;
+    
     private int tileWidth = 0;
     private int tileHeight = 0;
     private int trackWidth = 0;
@@ -84,6 +87,7 @@ public class TileTracker {
         for(int i = 0; i < rows; i++)
             for(int j = 0; j < cols; j++)
                 snapshot[i][j] = false;
+        tileHashes = new long[rows][cols];
     }
     
     public synchronized void resize(int trackWidth, int trackHeight) {
@@ -101,6 +105,24 @@ public class TileTracker {
         for(int i = 0; i < rows; i++)
             for(int j = 0; j < cols; j++)
                 snapshot[i][j] = true;
+        tileHashes = new long[rows][cols];
+    }
+    
+    /**
+     * Records the content hash of a tile that is about to be sent to the viewer.
+     * 
+     * @return false if the viewer already has this content for the tile
+     */
+    public synchronized boolean updateTileHash(int row, int col, long hash) {
+        // the tile may be from a scan taken before the frame buffer was resized
+        if(row >= tileHashes.length || col >= tileHashes[row].length)
+            return true;
+        
+        if(tileHashes[row][col] == hash && hash != 0)
+            return false;
+        
+        tileHashes[row][col] = hash;
+        return true;
     }
     
     public void invalidate(Rectangle rect) {
@@ -104,29 +104,31 @@ public class BufferedImageCanvas extends Canvas implements FrameBufferCanvas {
     }
 
     @Override
-    public byte[] getFrameBufferJpeg() {
-        int width = 800;
-        int height = 600;
-
-        width = offlineImage.getWidth();
-        height = offlineImage.getHeight();
+    public BufferedImage getFrameBufferImage() {
+        int width = offlineImage.getWidth();
+        int height = offlineImage.getHeight();
 
         BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
         Graphics2D g = bufferedImage.createGraphics();
         synchronized (offlineImage) {
             g.drawImage(offlineImage, 0, 0, width, height, 0, 0, width, height, null);
         }
+        g.dispose();
+        return bufferedImage;
+    }
 
+    @Override
+    public byte[] getFrameBufferJpeg() {
         byte[] imgBits = null;
         try {
-            imgBits = ImageHelper.jpegFromImage(bufferedImage);
+            imgBits = ImageHelper.jpegFromImage(getFrameBufferImage());
         } catch (IOException e) {
         }
         return imgBits;
     }
 
     @Override
-    public byte[] getTilesMergedJpeg(List<TileInfo> tileList, int tileWidth, int tileHeight) {
+    public BufferedImage getTilesMergedImage(List<TileInfo> tileList, int tileWidth, int tileHeight) {
         int width = Math.max(tileWidth, tileWidth * tileList.size());
         BufferedImage bufferedImage = new BufferedImage(width, tileHeight, BufferedImage.TYPE_3BYTE_BGR);
         Graphics2D g = bufferedImage.createGraphics();
@@ -139,10 +141,15 @@ public class BufferedImageCanvas extends Canvas implements FrameBufferCanvas {
                 i++;
             }
         }
+        g.dispose();
+        return bufferedImage;
+    }
 
+    @Override
+    public byte[] getTilesMergedJpeg(List<TileInfo> tileList, int tileWidth, int tileHeight) {
         byte[] imgBits = null;
         try {
-            imgBits = ImageHelper.jpegFromImage(bufferedImage);
+            imgBits = ImageHelper.jpegFromImage(getTilesMergedImage(tileList, tileWidth, tileHeight));
         } catch (IOException e) {
         }
         return imgBits;
@@ -17,6 +17,7 @@
 package com.cloud.consoleproxy.vnc;
 
 import java.awt.Image;
+import java.awt.image.BufferedImage;
 import java.util.List;
 
 import com.cloud.consoleproxy.util.TileInfo;
@@ -27,4 +28,16 @@ public interface FrameBufferCanvas {
     public byte[] getFrameBufferJpeg();
 
     public byte[] getTilesMergedJpeg(List<TileInfo> tileList, int tileWidth, int tileHeight);
+
+    /**
+     * @return a copy of the frame buffer, to hash and encode without holding up
+     *         the VNC session
+     */
+    public BufferedImage getFrameBufferImage();
+
+    /**
+     * @return a copy of the tiles laid out side by side, the layout
+     *         getTilesMergedJpeg() encodes
+     */
+    public BufferedImage getTilesMergedImage(List<TileInfo> tileList, int tileWidth, int tileHeight);
 }
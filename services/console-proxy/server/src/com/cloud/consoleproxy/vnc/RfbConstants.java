@@ -49,7 +49,7 @@ public interface RfbConstants {
     /**
      * Encodings.
      */
-    public final static int ENCODING_RAW = 0, ENCODING_COPY_RECT = 1, ENCODING_RRE = 2, ENCODING_CO_RRE = 4, ENCODING_HEXTILE = 5, ENCODING_ZRLE = 16;
+    public final static int ENCODING_RAW = 0, ENCODING_COPY_RECT = 1, ENCODING_RRE = 2, ENCODING_CO_RRE = 4, ENCODING_HEXTILE = 5, ENCODING_TIGHT = 7, ENCODING_ZRLE = 16;
 
     /**
      * Pseudo-encodings.
@@ -57,9 +57,39 @@ public interface RfbConstants {
     public final static int ENCODING_CURSOR = -239 /* 0xFFFFFF11 */, ENCODING_DESKTOP_SIZE = -223 /* 0xFFFFFF21 */;
 
     /**
-     * Encodings, which we support.
+     * Tight pseudo-encodings: zlib compression level 0-9 and JPEG quality
+     * level 0-9 are requested by adding the level to the base value.
      */
-    public final static int[] SUPPORTED_ENCODINGS_ARRAY = { ENCODING_RAW, ENCODING_COPY_RECT, ENCODING_DESKTOP_SIZE };
+    public final static int ENCODING_COMPRESS_LEVEL_0 = -256 /* 0xFFFFFF00 */, ENCODING_QUALITY_LEVEL_0 = -32 /* 0xFFFFFFE0 */;
+
+    /**
+     * Encodings, which we support, in order of preference. Frame buffer
+     * updates are re-encoded as JPEG for the AJAX viewer anyway, so lossy
+     * Tight JPEG rectangles at a high quality level are acceptable.
+     */
+    public final static int[] SUPPORTED_ENCODINGS_ARRAY = { ENCODING_TIGHT, ENCODING_ZRLE, ENCODING_HEXTILE, ENCODING_COPY_RECT, ENCODING_RAW, ENCODING_DESKTOP_SIZE,
+            ENCODING_COMPRESS_LEVEL_0 + 6, ENCODING_QUALITY_LEVEL_0 + 8 };
+
+    /**
+     * Hextile sub-encoding flags.
+     */
+    public final static int HEXTILE_RAW = 1, HEXTILE_BACKGROUND_SPECIFIED = 2, HEXTILE_FOREGROUND_SPECIFIED = 4, HEXTILE_ANY_SUBRECTS = 8, HEXTILE_SUBRECTS_COLOURED = 16;
+
+    /**
+     * Tight compression control: the low 4 bits reset zlib streams, the high
+     * 4 bits select the compression type.
+     */
+    public final static int TIGHT_FILL = 0x08, TIGHT_JPEG = 0x09, TIGHT_MAX_SUBENCODING = 0x09, TIGHT_EXPLICIT_FILTER = 0x04;
+
+    /**
+     * Tight filters of the basic compression type.
+     */
+    public final static int TIGHT_FILTER_COPY = 0, TIGHT_FILTER_PALETTE = 1, TIGHT_FILTER_GRADIENT = 2;
+
+    /**
+     * Tight data shorter than this is sent without zlib compression.
+     */
+    public final static int TIGHT_MIN_TO_COMPRESS = 12;
 
     /**
      * Frame buffer update request type: update of whole screen or partial
@@ -20,12 +20,22 @@ import java.awt.Frame;
 import java.awt.ScrollPane;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.security.spec.KeySpec;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
@@ -41,6 +51,12 @@ import com.cloud.consoleproxy.vnc.packet.client.MouseEventPacket;
 public class VncClient {
     private static final Logger s_logger = Logger.getLogger(VncClient.class);
 
+    // Time allowed to connect and complete the RFB handshake in non-blocking mode
+    private static final int HANDSHAKE_TIMEOUT_MS = 60000;
+
+    // Time allowed for the server to accept more data from a non-blocking socket
+    private static final long WRITE_TIMEOUT_MS = 30000;
+
     private Socket socket;
     private DataInputStream is;
     private DataOutputStream os;
@@ -53,6 +69,14 @@ public class VncClient {
     private boolean noUI = false;
     private ConsoleProxyClientListener clientListener = null;
 
+    // Set when sessions run in non-blocking mode on a shared selector
+    private final VncSelectorLoop selectorLoop;
+    private volatile Runnable connectionCloseHandler;
+    private final AtomicBoolean sessionActive = new AtomicBoolean(false);
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong framebufferUpdates = new AtomicLong();
+
     public static void main(String args[]) {
         if (args.length < 3) {
             printHelpMessage();
@@ -86,17 +110,39 @@ public class VncClient {
     }
 
     public VncClient(ConsoleProxyClientListener clientListener) {
+        this(clientListener, null);
+    }
+
+    /**
+     * Create a client whose direct connections are read through the given
+     * selector loop instead of a thread per session.
+     */
+    public VncClient(ConsoleProxyClientListener clientListener, VncSelectorLoop selectorLoop) {
         this.noUI = true;
         this.clientListener = clientListener;
+        this.selectorLoop = selectorLoop;
     }
 
     public VncClient(String host, int port, String password, boolean noUI, ConsoleProxyClientListener clientListener) throws UnknownHostException, IOException {
 
         this.noUI = noUI;
         this.clientListener = clientListener;
+        this.selectorLoop = null;
         connectTo(host, port, password);
     }
 
+    /**
+     * In non-blocking mode connectTo() returns once the session is set up, the
+     * handler is invoked when an established session is shut down.
+     */
+    public void setConnectionCloseHandler(Runnable handler) {
+        this.connectionCloseHandler = handler;
+    }
+
+    public boolean isNonBlocking() {
+        return selectorLoop != null;
+    }
+
     public void shutdown() {
         if (sender != null)
             sender.closeConnection();
@@ -124,6 +170,12 @@ public class VncClient {
             } catch (Throwable e) {
             }
         }
+
+        if (sessionActive.compareAndSet(true, false)) {
+            Runnable handler = connectionCloseHandler;
+            if (handler != null)
+                handler.run();
+        }
     }
 
     public ConsoleProxyClientListener getClientListener() {
@@ -146,12 +198,67 @@ public class VncClient {
     public void connectTo(String host, int port, String password) throws UnknownHostException, IOException {
         // Connect to server
         s_logger.info("Connecting to VNC server " + host + ":" + port + "...");
+        if (selectorLoop != null) {
+            doConnectNonBlocking(host, port, password);
+            return;
+        }
+
         this.socket = new Socket(host, port);
         doConnect(password);
     }
 
+    private void doConnectNonBlocking(String host, int port, String password) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        this.socket = channel.socket();
+
+        // Handshake runs in blocking mode on a pool thread, don't let a silent
+        // server keep that thread
+        ScheduledFuture<?> watchdog = selectorLoop.schedule(new Runnable() {
+            @Override
+            public void run() {
+                s_logger.warn("Timed out connecting to VNC server, close socket");
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                }
+            }
+        }, HANDSHAKE_TIMEOUT_MS);
+
+        try {
+            socket.connect(new InetSocketAddress(host, port), HANDSHAKE_TIMEOUT_MS);
+            is = new DataInputStream(new CountingInputStream(socket.getInputStream()));
+            os = new DataOutputStream(socket.getOutputStream());
+
+            handshake();
+            authenticate(password);
+            initialize();
+        } catch (IOException e) {
+            shutdown();
+            throw e;
+        } catch (RuntimeException e) {
+            shutdown();
+            throw e;
+        } finally {
+            watchdog.cancel(false);
+        }
+
+        s_logger.info("Connecting to VNC server succeeded, start non-blocking session");
+
+        channel.configureBlocking(false);
+        os = new DataOutputStream(new BufferedOutputStream(new ChannelOutputStream(channel)));
+
+        sender = new VncClientPacketSender(os, screen, this, selectorLoop);
+        BufferedImageCanvas canvas = new BufferedImageCanvas(sender, screen.getFramebufferWidth(), screen.getFramebufferHeight());
+        receiver = new VncServerPacketReceiver(null, canvas, screen, this, sender, clientListener);
+
+        sessionActive.set(true);
+        selectorLoop.register(channel, receiver);
+        if (clientListener != null)
+            clientListener.onClientConnected();
+    }
+
     private void doConnect(String password) throws IOException {
-        is = new DataInputStream(socket.getInputStream());
+        is = new DataInputStream(new CountingInputStream(socket.getInputStream()));
         os = new DataOutputStream(socket.getOutputStream());
 
         // Initialize connection
@@ -180,6 +287,8 @@ public class VncClient {
 
         // Run server-to-client packet receiver
         receiver = new VncServerPacketReceiver(is, canvas, screen, this, sender, clientListener);
+        if (clientListener != null)
+            clientListener.onClientConnected();
         try {
             receiver.run();
         } finally {
@@ -448,4 +557,85 @@ public class VncClient {
     public boolean isHostConnected() {
         return receiver != null && receiver.isConnectionAlive();
     }
+
+    void recordBytesReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    void recordFramebufferUpdate() {
+        framebufferUpdates.incrementAndGet();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getFramebufferUpdates() {
+        return framebufferUpdates.get();
+    }
+
+    /**
+     * Counts the bytes read through a blocking socket stream.
+     */
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                recordBytesReceived(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                recordBytesReceived(n);
+            return n;
+        }
+    }
+
+    /**
+     * Writes to a non-blocking channel, waiting while the socket send buffer
+     * is full. Client packets are small, so this rarely has to wait at all.
+     */
+    private static class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            long startTick = System.currentTimeMillis();
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    if (System.currentTimeMillis() - startTick > WRITE_TIMEOUT_MS)
+                        throw new IOException("Timed out writing to VNC server");
+
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted writing to VNC server");
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
 }
@@ -24,7 +24,9 @@ import java.awt.event.MouseMotionListener;
 import java.io.DataOutputStream;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.cloud.consoleproxy.util.Logger;
 import com.cloud.consoleproxy.vnc.packet.client.ClientPacket;
@@ -44,15 +46,31 @@ public class VncClientPacketSender implements Runnable, PaintNotificationListene
     private final VncScreenDescription screen;
     private final VncClient vncConnection;
 
-    private boolean connectionAlive = true;
+    // Pool that drains the queue in non-blocking mode, null when run() drains
+    // it from a dedicated thread
+    private final Executor executor;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flushQueue();
+        }
+    };
+
+    private volatile boolean connectionAlive = true;
 
     // Don't send update request again until we receive next frame buffer update
     private boolean updateRequestSent = false;
 
     public VncClientPacketSender(DataOutputStream os, VncScreenDescription screen, VncClient vncConnection) {
+        this(os, screen, vncConnection, null);
+    }
+
+    public VncClientPacketSender(DataOutputStream os, VncScreenDescription screen, VncClient vncConnection, Executor executor) {
         this.os = os;
         this.screen = screen;
         this.vncConnection = vncConnection;
+        this.executor = executor;
 
         sendSetPixelFormat();
         sendSetEncodings();
@@ -60,7 +78,36 @@ public class VncClientPacketSender implements Runnable, PaintNotificationListene
     }
 
     public void sendClientPacket(ClientPacket packet) {
+        enqueue(packet);
+    }
+
+    private void enqueue(ClientPacket packet) {
         queue.add(packet);
+        if (executor != null && flushScheduled.compareAndSet(false, true))
+            executor.execute(flushTask);
+    }
+
+    /**
+     * Non-blocking mode: write out everything queued so far. Writers are
+     * serialized on the stream, so packets keep their order.
+     */
+    private void flushQueue() {
+        flushScheduled.set(false);
+        try {
+            synchronized (os) {
+                ClientPacket packet;
+                while (connectionAlive && (packet = queue.poll()) != null) {
+                    packet.write(os);
+                }
+                os.flush();
+            }
+        } catch (Throwable e) {
+            s_logger.error("Unexpected exception: ", e);
+            if (connectionAlive) {
+                closeConnection();
+                vncConnection.shutdown();
+            }
+        }
     }
 
     @Override
@@ -85,12 +132,12 @@ public class VncClientPacketSender implements Runnable, PaintNotificationListene
     }
 
     private void sendSetEncodings() {
-        queue.add(new SetEncodingsPacket(RfbConstants.SUPPORTED_ENCODINGS_ARRAY));
+        enqueue(new SetEncodingsPacket(RfbConstants.SUPPORTED_ENCODINGS_ARRAY));
     }
 
     private void sendSetPixelFormat() {
         if (!screen.isRGB888_32_LE()) {
-            queue.add(new SetPixelFormatPacket(screen, 32, 24, RfbConstants.LITTLE_ENDIAN, RfbConstants.TRUE_COLOR, 255, 255, 255, 16, 8, 0));
+            enqueue(new SetPixelFormatPacket(screen, 32, 24, RfbConstants.LITTLE_ENDIAN, RfbConstants.TRUE_COLOR, 255, 255, 255, 16, 8, 0));
         }
     }
 
@@ -99,14 +146,14 @@ public class VncClientPacketSender implements Runnable, PaintNotificationListene
     }
 
     public void requestFullScreenUpdate() {
-        queue.add(new FramebufferUpdateRequestPacket(RfbConstants.FRAMEBUFFER_FULL_UPDATE_REQUEST, 0, 0, screen.getFramebufferWidth(), screen.getFramebufferHeight()));
+        enqueue(new FramebufferUpdateRequestPacket(RfbConstants.FRAMEBUFFER_FULL_UPDATE_REQUEST, 0, 0, screen.getFramebufferWidth(), screen.getFramebufferHeight()));
         updateRequestSent = true;
     }
 
     @Override
     public void imagePaintedOnScreen() {
         if (!updateRequestSent) {
-            queue.add(new FramebufferUpdateRequestPacket(RfbConstants.FRAMEBUFFER_INCREMENTAL_UPDATE_REQUEST, 0, 0, screen.getFramebufferWidth(), screen.getFramebufferHeight()));
+            enqueue(new FramebufferUpdateRequestPacket(RfbConstants.FRAMEBUFFER_INCREMENTAL_UPDATE_REQUEST, 0, 0, screen.getFramebufferWidth(), screen.getFramebufferHeight()));
             updateRequestSent = true;
         }
     }
@@ -118,12 +165,12 @@ public class VncClientPacketSender implements Runnable, PaintNotificationListene
 
     @Override
     public void mouseDragged(MouseEvent e) {
-        queue.add(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
+        enqueue(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
     }
 
     @Override
     public void mouseMoved(MouseEvent e) {
-        queue.add(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
+        enqueue(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
     }
 
     @Override
@@ -133,12 +180,12 @@ public class VncClientPacketSender implements Runnable, PaintNotificationListene
 
     @Override
     public void mousePressed(MouseEvent e) {
-        queue.add(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
+        enqueue(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        queue.add(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
+        enqueue(new MouseEventPacket(mapAwtModifiersToVncButtonMask(e.getModifiersEx()), e.getX(), e.getY()));
     }
 
     @Override
@@ -177,13 +224,13 @@ public class VncClientPacketSender implements Runnable, PaintNotificationListene
     @Override
     public void keyPressed(KeyEvent e) {
         ClientPacket request = new KeyboardEventPacket(RfbConstants.KEY_DOWN, mapAwtKeyToVncKey(e.getKeyCode()));
-        queue.add(request);
+        enqueue(request);
     }
 
     @Override
     public void keyReleased(KeyEvent e) {
         ClientPacket request = new KeyboardEventPacket(RfbConstants.KEY_UP, mapAwtKeyToVncKey(e.getKeyCode()));
-        queue.add(request);
+        enqueue(request);
     }
 
     private int mapAwtKeyToVncKey(int key) {
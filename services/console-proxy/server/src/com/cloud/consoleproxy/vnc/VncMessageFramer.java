@@ -0,0 +1,240 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc;
+
+/**
+ * VncMessageFramer - finds the boundaries of server-to-client messages in a
+ * buffer of bytes read from a non-blocking socket, so that a message is only
+ * handed to the packet decoders once it has arrived completely.
+ */
+public class VncMessageFramer {
+
+    private VncMessageFramer() {
+    }
+
+    /**
+     * @param buf
+     *            bytes received from the server
+     * @param offset
+     *            position of the first byte of the message in buf
+     * @param length
+     *            number of bytes available from offset
+     * @param screen
+     *            description of the remote screen, for the pixel size
+     * @return length of the message starting at offset, including the message
+     *         type, or -1 when more bytes are needed to complete it
+     */
+    public static int getMessageLength(byte[] buf, int offset, int length, VncScreenDescription screen) {
+        if (length < 1)
+            return -1;
+
+        int messageType = buf[offset] & 0xff;
+        switch (messageType) {
+        case RfbConstants.SERVER_FRAMEBUFFER_UPDATE:
+            return getFramebufferUpdateLength(buf, offset, length, screen);
+
+        case RfbConstants.SERVER_BELL:
+            return 1;
+
+        case RfbConstants.SERVER_CUT_TEXT: {
+            // type, 3 bytes of padding, length and text
+            if (length < 8)
+                return -1;
+            long messageLength = 8 + readUnsignedInt(buf, offset + 4);
+            return messageLength <= length ? (int) messageLength : -1;
+        }
+
+        default:
+            throw new RuntimeException("Unknown server packet type: " + messageType + ".");
+        }
+    }
+
+    private static int getFramebufferUpdateLength(byte[] buf, int offset, int length, VncScreenDescription screen) {
+        // type, 1 byte of padding and number of rectangles
+        if (length < 4)
+            return -1;
+
+        int numberOfRectangles = readUnsignedShort(buf, offset + 2);
+        long pos = 4;
+        for (int i = 0; i < numberOfRectangles; i++) {
+            // x, y, width, height and encoding type
+            if (pos + 12 > length)
+                return -1;
+
+            int width = readUnsignedShort(buf, offset + (int) pos + 4);
+            int height = readUnsignedShort(buf, offset + (int) pos + 6);
+            int encodingType = (int) readUnsignedInt(buf, offset + (int) pos + 8);
+            pos += 12;
+
+            switch (encodingType) {
+            case RfbConstants.ENCODING_RAW:
+                pos += (long) width * height * screen.getBytesPerPixel();
+                break;
+
+            case RfbConstants.ENCODING_COPY_RECT:
+                pos += 4;
+                break;
+
+            case RfbConstants.ENCODING_DESKTOP_SIZE:
+                break;
+
+            case RfbConstants.ENCODING_HEXTILE:
+                pos = getHextileEnd(buf, offset, length, pos, width, height, screen.getBytesPerPixel());
+                break;
+
+            case RfbConstants.ENCODING_ZRLE:
+                // length of the zlib data and the data
+                if (pos + 4 > length)
+                    return -1;
+                pos += 4 + readUnsignedInt(buf, offset + (int) pos);
+                break;
+
+            case RfbConstants.ENCODING_TIGHT:
+                pos = getTightEnd(buf, offset, length, pos, width, height, screen.getCompactPixelSize());
+                break;
+
+            default:
+                throw new RuntimeException("Unsupported ecnoding: " + encodingType);
+            }
+
+            if (pos < 0 || pos > length)
+                return -1;
+        }
+        return (int) pos;
+    }
+
+    /**
+     * @return position after the tiles of a Hextile rectangle, or -1 if they
+     *         are incomplete
+     */
+    private static long getHextileEnd(byte[] buf, int offset, int length, long pos, int width, int height, int bytesPerPixel) {
+        for (int tileY = 0; tileY < height; tileY += 16) {
+            int tileHeight = Math.min(16, height - tileY);
+
+            for (int tileX = 0; tileX < width; tileX += 16) {
+                int tileWidth = Math.min(16, width - tileX);
+
+                if (pos >= length)
+                    return -1;
+                int subencoding = buf[offset + (int) pos] & 0xff;
+                pos++;
+
+                if ((subencoding & RfbConstants.HEXTILE_RAW) != 0) {
+                    pos += tileWidth * tileHeight * bytesPerPixel;
+                    continue;
+                }
+
+                if ((subencoding & RfbConstants.HEXTILE_BACKGROUND_SPECIFIED) != 0)
+                    pos += bytesPerPixel;
+                if ((subencoding & RfbConstants.HEXTILE_FOREGROUND_SPECIFIED) != 0)
+                    pos += bytesPerPixel;
+
+                if ((subencoding & RfbConstants.HEXTILE_ANY_SUBRECTS) != 0) {
+                    if (pos >= length)
+                        return -1;
+                    int numberOfSubrects = buf[offset + (int) pos] & 0xff;
+                    pos++;
+
+                    boolean coloured = (subencoding & RfbConstants.HEXTILE_SUBRECTS_COLOURED) != 0;
+                    pos += numberOfSubrects * (coloured ? bytesPerPixel + 2 : 2);
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return position after a Tight rectangle, or -1 if it is incomplete
+     */
+    private static long getTightEnd(byte[] buf, int offset, int length, long pos, int width, int height, int pixelSize) {
+        if (pos >= length)
+            return -1;
+        int compressionType = (buf[offset + (int) pos] & 0xff) >> 4;
+        pos++;
+
+        if (compressionType == RfbConstants.TIGHT_FILL)
+            return pos + pixelSize;
+        if (compressionType == RfbConstants.TIGHT_JPEG)
+            return getCompactLengthEnd(buf, offset, length, pos);
+        if (compressionType > RfbConstants.TIGHT_MAX_SUBENCODING)
+            throw new RuntimeException("Unsupported Tight compression type: " + compressionType);
+
+        int filter = RfbConstants.TIGHT_FILTER_COPY;
+        if ((compressionType & RfbConstants.TIGHT_EXPLICIT_FILTER) != 0) {
+            if (pos >= length)
+                return -1;
+            filter = buf[offset + (int) pos] & 0xff;
+            pos++;
+        }
+
+        int rowSize;
+        switch (filter) {
+        case RfbConstants.TIGHT_FILTER_COPY:
+        case RfbConstants.TIGHT_FILTER_GRADIENT:
+            rowSize = width * pixelSize;
+            break;
+
+        case RfbConstants.TIGHT_FILTER_PALETTE: {
+            if (pos >= length)
+                return -1;
+            int numberOfColors = (buf[offset + (int) pos] & 0xff) + 1;
+            pos += 1 + numberOfColors * pixelSize;
+            rowSize = numberOfColors == 2 ? (width + 7) / 8 : width;
+            break;
+        }
+
+        default:
+            throw new RuntimeException("Unsupported Tight filter: " + filter);
+        }
+
+        long dataSize = (long) rowSize * height;
+        if (dataSize < RfbConstants.TIGHT_MIN_TO_COMPRESS)
+            return pos + dataSize;
+        return getCompactLengthEnd(buf, offset, length, pos);
+    }
+
+    /**
+     * @return position after a Tight compact length and the data it counts, or
+     *         -1 if the length is incomplete
+     */
+    private static long getCompactLengthEnd(byte[] buf, int offset, int length, long pos) {
+        int dataLength = 0;
+        for (int i = 0; i < 3; i++) {
+            if (pos >= length)
+                return -1;
+            int b = buf[offset + (int) pos] & 0xff;
+            pos++;
+
+            if (i == 2) {
+                dataLength |= b << 14;
+                break;
+            }
+            dataLength |= (b & 0x7f) << (7 * i);
+            if ((b & 0x80) == 0)
+                break;
+        }
+        return pos + dataLength;
+    }
+
+    static int readUnsignedShort(byte[] buf, int offset) {
+        return ((buf[offset] & 0xff) << 8) | (buf[offset + 1] & 0xff);
+    }
+
+    static long readUnsignedInt(byte[] buf, int offset) {
+        return ((long) (buf[offset] & 0xff) << 24) | ((buf[offset + 1] & 0xff) << 16) | ((buf[offset + 2] & 0xff) << 8) | (buf[offset + 3] & 0xff);
+    }
+}
@@ -86,4 +86,12 @@ public class VncScreenDescription {
         return rgb888_32_le;
     }
 
+    /**
+     * @return size of the compressed pixel used by ZRLE (CPIXEL) and Tight
+     *         (TPIXEL), which drop the unused byte of 24 bit colour in 32 bit
+     */
+    public int getCompactPixelSize() {
+        return rgb888_32_le ? 3 : bytesPerPixel;
+    }
+
 }
@@ -0,0 +1,221 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.cloud.consoleproxy.util.Logger;
+
+/**
+ * VncSelectorLoop - a single selector thread watching the sockets of all VNC
+ * sessions that run in non-blocking mode.
+ * 
+ * When a socket becomes readable its key is parked and the read is handed to
+ * the worker pool, the key is armed again once the worker has drained the
+ * socket. A session is therefore never read by two workers at the same time,
+ * and an idle session costs a selection key instead of a blocked thread.
+ * 
+ * Connecting a session runs in blocking mode on a separate handshake pool, so
+ * a slow VNC server never delays the reads of live sessions.
+ */
+public class VncSelectorLoop implements Runnable, Executor {
+    private static final Logger s_logger = Logger.getLogger(VncSelectorLoop.class);
+
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final ExecutorService handshakeWorkers;
+    private final ScheduledExecutorService timer;
+
+    // Work that has to run on the selector thread, e.g. changing interest ops
+    private final ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private volatile boolean running = true;
+    private Thread thread;
+
+    public VncSelectorLoop(ExecutorService workers, ExecutorService handshakeWorkers, ScheduledExecutorService timer) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.handshakeWorkers = handshakeWorkers;
+        this.timer = timer;
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "VNC Selector");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Run a task on the worker pool.
+     */
+    @Override
+    public void execute(Runnable task) {
+        workers.execute(task);
+    }
+
+    /**
+     * Run a connect and handshake task on the handshake pool after the given
+     * delay. If the pool is saturated the task is dropped and rejected runs
+     * instead, on the calling or the timer thread, so it must be short.
+     */
+    public void connectLater(final Runnable task, final Runnable rejected, long delayMs) {
+        Runnable submit = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    handshakeWorkers.execute(task);
+                } catch (RejectedExecutionException e) {
+                    s_logger.warn("VNC handshake pool is saturated, connect attempt rejected");
+                    rejected.run();
+                }
+            }
+        };
+
+        if (delayMs <= 0)
+            submit.run();
+        else
+            timer.schedule(submit, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run a short task on the timer thread after the given delay.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return timer.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Start watching a connected channel, which must be in non-blocking mode.
+     * Data read from it is passed to the receiver.
+     */
+    public void register(final SocketChannel channel, final VncServerPacketReceiver receiver) {
+        runOnSelector(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, receiver);
+                } catch (ClosedChannelException e) {
+                    receiver.connectionLost("channel closed before it was registered");
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of sessions currently watched
+     */
+    public int getSessionCount() {
+        return selector.keys().size();
+    }
+
+    @Override
+    public void run() {
+        s_logger.info("VNC selector loop started");
+        while (running) {
+            try {
+                selector.select();
+
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            // Park the key until the worker is done with the socket
+                            key.interestOps(0);
+                            dispatchRead(key);
+                        }
+                    } catch (CancelledKeyException e) {
+                        // session has been shut down meanwhile
+                    }
+                }
+            } catch (Throwable e) {
+                s_logger.error("Unexpected exception in VNC selector loop: ", e);
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+        }
+        s_logger.info("VNC selector loop stopped");
+    }
+
+    private void dispatchRead(final SelectionKey key) {
+        final VncServerPacketReceiver receiver = (VncServerPacketReceiver) key.attachment();
+        workers.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean keepReading = false;
+                try {
+                    keepReading = receiver.processAvailableData((SocketChannel) key.channel());
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception: ", e);
+                    receiver.connectionLost(e.getMessage());
+                }
+
+                if (keepReading)
+                    resumeReading(key);
+                else
+                    key.cancel();
+            }
+        });
+    }
+
+    private void resumeReading(final SelectionKey key) {
+        runOnSelector(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (key.isValid())
+                        key.interestOps(SelectionKey.OP_READ);
+                } catch (CancelledKeyException e) {
+                }
+            }
+        });
+    }
+
+    private void runOnSelector(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+}
@@ -18,22 +18,40 @@ package com.cloud.consoleproxy.vnc;
 
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 
 import com.cloud.consoleproxy.ConsoleProxyClientListener;
 import com.cloud.consoleproxy.util.Logger;
 import com.cloud.consoleproxy.vnc.packet.server.FramebufferUpdatePacket;
 import com.cloud.consoleproxy.vnc.packet.server.ServerCutText;
+import com.cloud.consoleproxy.vnc.packet.server.ZlibStreams;
 
 public class VncServerPacketReceiver implements Runnable {
     private static final Logger s_logger = Logger.getLogger(VncServerPacketReceiver.class);
 
+    private static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_READ_BUFFER_SIZE = 64 * 1024 * 1024;
+
+    // Reads from a non-blocking socket before the worker gives the session
+    // back to the selector, so one busy session can't hold a worker forever
+    private static final int MAX_READS_PER_DISPATCH = 16;
+
     private final VncScreenDescription screen;
     private BufferedImageCanvas canvas;
     private DataInputStream is;
 
-    private boolean connectionAlive = true;
+    // Bytes read from a non-blocking socket which don't form a complete
+    // message yet, allocated on first use
+    private ByteBuffer readBuffer;
+
+    // State of the compressed encodings, shared by all updates of the connection
+    private final ZlibStreams zlibStreams = new ZlibStreams();
+
+    private volatile boolean connectionAlive = true;
     private VncClient vncConnection;
     private final FrameBufferUpdateListener fburListener;
     private final ConsoleProxyClientListener clientListener;
@@ -52,39 +70,14 @@ public class VncServerPacketReceiver implements Runnable {
         return canvas;
     }
 
+    /**
+     * Blocking mode: read and process messages until the connection is closed.
+     */
     @Override
     public void run() {
         try {
             while (connectionAlive) {
-
-                // Read server message type
-                int messageType = is.readUnsignedByte();
-
-                // Invoke packet handler by packet type.
-                switch (messageType) {
-
-                case RfbConstants.SERVER_FRAMEBUFFER_UPDATE: {
-                    // Notify sender that frame buffer update is received,
-                    // so it can send another frame buffer update request
-                    fburListener.frameBufferPacketReceived();
-                    // Handle frame buffer update
-                    new FramebufferUpdatePacket(canvas, screen, is, clientListener);
-                    break;
-                }
-
-                case RfbConstants.SERVER_BELL: {
-                    serverBell();
-                    break;
-                }
-
-                case RfbConstants.SERVER_CUT_TEXT: {
-                    serverCutText(is);
-                    break;
-                }
-
-                default:
-                    throw new RuntimeException("Unknown server packet type: " + messageType + ".");
-                }
+                processMessage(is);
             }
         } catch (Throwable e) {
             s_logger.error("Unexpected exception: ", e);
@@ -94,6 +87,114 @@ public class VncServerPacketReceiver implements Runnable {
         } finally {
         	s_logger.info("Receiving thread exit processing, shutdown connection");
             vncConnection.shutdown();
+            zlibStreams.end();
+        }
+    }
+
+    /**
+     * Non-blocking mode: read whatever the socket has and process the
+     * messages which are complete, the rest is kept until the next call.
+     * 
+     * @return true if the channel should be watched for more data, false if
+     *         the connection has been shut down
+     */
+    public boolean processAvailableData(ReadableByteChannel channel) throws IOException {
+        if (readBuffer == null)
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+        for (int i = 0; i < MAX_READS_PER_DISPATCH && connectionAlive; i++) {
+            if (!readBuffer.hasRemaining())
+                growReadBuffer();
+
+            int bytesRead = channel.read(readBuffer);
+            if (bytesRead < 0) {
+                connectionLost("connection closed by VNC server");
+                return false;
+            }
+            if (bytesRead == 0)
+                break;
+
+            vncConnection.recordBytesReceived(bytesRead);
+            processBufferedMessages();
+        }
+        return connectionAlive;
+    }
+
+    /**
+     * Shut down the connection from the non-blocking path.
+     */
+    public void connectionLost(String reason) {
+        s_logger.info("VNC connection lost (" + reason + "), shutdown connection");
+        closeConnection();
+        vncConnection.shutdown();
+        zlibStreams.end();
+    }
+
+    private void processBufferedMessages() throws IOException {
+        readBuffer.flip();
+        byte[] data = readBuffer.array();
+        int pos = readBuffer.position();
+        int limit = readBuffer.limit();
+
+        while (connectionAlive) {
+            int length = VncMessageFramer.getMessageLength(data, pos, limit - pos, screen);
+            if (length < 0)
+                break;
+
+            processMessage(new DataInputStream(new ByteArrayInputStream(data, pos, length)));
+            pos += length;
+        }
+
+        readBuffer.position(pos);
+        readBuffer.compact();
+
+        // Don't keep the buffer of a large update around for an idle session
+        if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_READ_BUFFER_SIZE)
+            readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+    }
+
+    private void growReadBuffer() throws IOException {
+        if (readBuffer.capacity() >= MAX_READ_BUFFER_SIZE)
+            throw new IOException("VNC server message is larger than " + MAX_READ_BUFFER_SIZE + " bytes");
+
+        ByteBuffer buffer = ByteBuffer.allocate(readBuffer.capacity() * 2);
+        readBuffer.flip();
+        buffer.put(readBuffer);
+        readBuffer = buffer;
+    }
+
+    /**
+     * Read one server message and invoke the handler of its type.
+     */
+    private void processMessage(DataInputStream is) throws IOException {
+        // Read server message type
+        int messageType = is.readUnsignedByte();
+
+        // Invoke packet handler by packet type.
+        switch (messageType) {
+
+        case RfbConstants.SERVER_FRAMEBUFFER_UPDATE: {
+            // Notify sender that frame buffer update is received,
+            // so it can send another frame buffer update request
+            fburListener.frameBufferPacketReceived();
+            // Handle frame buffer update
+            new FramebufferUpdatePacket(canvas, screen, zlibStreams, is, clientListener);
+            vncConnection.recordFramebufferUpdate();
+            break;
+        }
+
+        case RfbConstants.SERVER_BELL: {
+            serverBell();
+            break;
+        }
+
+        case RfbConstants.SERVER_CUT_TEXT: {
+            serverCutText(is);
+            break;
+        }
+
+        default:
+            throw new RuntimeException("Unknown server packet type: " + messageType + ".");
         }
     }
 
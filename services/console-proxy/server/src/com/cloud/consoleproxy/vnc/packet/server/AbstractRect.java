@@ -16,6 +16,10 @@
 // under the License.
 package com.cloud.consoleproxy.vnc.packet.server;
 
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+
 public abstract class AbstractRect implements Rect {
 
     protected final int x;
@@ -50,4 +54,60 @@ public abstract class AbstractRect implements Rect {
         return height;
     }
 
+    /**
+     * Copy decoded pixels of this rectangle, row by row, directly into the
+     * buffer of the offline image. Parts outside of the image are clipped.
+     */
+    protected void paintPixels(BufferedImage image, int[] pixels) {
+        DataBuffer dataBuf = image.getRaster().getDataBuffer();
+
+        switch (dataBuf.getDataType()) {
+
+        case DataBuffer.TYPE_INT: {
+            // We chose RGB888 model, so Raster will use DataBufferInt type
+            DataBufferInt dataBuffer = (DataBufferInt) dataBuf;
+
+            int imageWidth = image.getWidth();
+            int imageHeight = image.getHeight();
+            int lineWidth = Math.min(width, imageWidth - x);
+            if (lineWidth <= 0)
+                return;
+
+            // Paint rectangle directly on buffer, line by line
+            int[] imageBuffer = dataBuffer.getData();
+            for (int srcLine = 0, dstLine = y; srcLine < height && dstLine < imageHeight; srcLine++, dstLine++) {
+                System.arraycopy(pixels, srcLine * width, imageBuffer, x + dstLine * imageWidth, lineWidth);
+            }
+            break;
+        }
+
+        default:
+            throw new RuntimeException("Unsupported data buffer in buffered image: expected data buffer of type int (DataBufferInt). Actual data buffer type: " + dataBuf.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Fill a part of the decoded pixels of this rectangle, coordinates are
+     * relative to the rectangle.
+     */
+    protected void fillPixels(int[] pixels, int fillX, int fillY, int fillWidth, int fillHeight, int color) {
+        int right = Math.min(fillX + fillWidth, width);
+        int bottom = Math.min(fillY + fillHeight, height);
+        for (int row = fillY; row < bottom; row++) {
+            int offset = row * width;
+            for (int col = fillX; col < right; col++)
+                pixels[offset + col] = color;
+        }
+    }
+
+    /**
+     * Read a pixel in the format we asked the server for: RGB888 in a little
+     * endian 32 bit int.
+     */
+    protected static int readPixel(byte[] buf, int offset, int bytesPerPixel) {
+        int pixel = 0;
+        for (int i = 0; i < bytesPerPixel && i < 3; i++)
+            pixel |= (buf[offset + i] & 0xFF) << (8 * i);
+        return pixel;
+    }
 }
\ No newline at end of file
@@ -32,12 +32,23 @@ public class FramebufferUpdatePacket {
     private final VncScreenDescription screen;
     private final BufferedImageCanvas canvas;
     private final ConsoleProxyClientListener clientListener;
+    private final ZlibStreams zlibStreams;
 
     public FramebufferUpdatePacket(BufferedImageCanvas canvas, VncScreenDescription screen, DataInputStream is, ConsoleProxyClientListener clientListener) throws IOException {
+        this(canvas, screen, new ZlibStreams(), is, clientListener);
+    }
+
+    /**
+     * @param zlibStreams
+     *            zlib streams of the connection, used by compressed encodings
+     */
+    public FramebufferUpdatePacket(BufferedImageCanvas canvas, VncScreenDescription screen, ZlibStreams zlibStreams, DataInputStream is, ConsoleProxyClientListener clientListener)
+            throws IOException {
 
         this.screen = screen;
         this.canvas = canvas;
         this.clientListener = clientListener;
+        this.zlibStreams = zlibStreams;
         readPacketData(is);
     }
 
@@ -72,6 +83,21 @@ public class FramebufferUpdatePacket {
                 break;
             }
 
+            case RfbConstants.ENCODING_HEXTILE: {
+                rect = new HextileRect(screen, x, y, width, height, is);
+                break;
+            }
+
+            case RfbConstants.ENCODING_ZRLE: {
+                rect = new ZrleRect(screen, zlibStreams, x, y, width, height, is);
+                break;
+            }
+
+            case RfbConstants.ENCODING_TIGHT: {
+                rect = new TightRect(screen, zlibStreams, x, y, width, height, is);
+                break;
+            }
+
             case RfbConstants.ENCODING_DESKTOP_SIZE: {
                 rect = new FrameBufferSizeChangeRequest(canvas, width, height);
                 if (this.clientListener != null)
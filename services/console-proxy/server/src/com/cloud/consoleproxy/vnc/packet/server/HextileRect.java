@@ -0,0 +1,95 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import com.cloud.consoleproxy.vnc.RfbConstants;
+import com.cloud.consoleproxy.vnc.VncScreenDescription;
+
+/**
+ * Hextile: the rectangle is split into 16x16 tiles, each one either raw or a
+ * background colour with optional sub-rectangles on top of it.
+ */
+public class HextileRect extends AbstractRect {
+    private static final int TILE_SIZE = 16;
+
+    private final int[] buf;
+
+    public HextileRect(VncScreenDescription screen, int x, int y, int width, int height, DataInputStream is) throws IOException {
+        super(x, y, width, height);
+
+        int bytesPerPixel = screen.getBytesPerPixel();
+        byte[] pixelBuf = new byte[TILE_SIZE * TILE_SIZE * bytesPerPixel];
+        buf = new int[width * height];
+
+        // Background and foreground carry over from one tile to the next
+        int background = 0;
+        int foreground = 0;
+
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, height - tileY);
+
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - tileX);
+                int subencoding = is.readUnsignedByte();
+
+                if ((subencoding & RfbConstants.HEXTILE_RAW) != 0) {
+                    is.readFully(pixelBuf, 0, tileWidth * tileHeight * bytesPerPixel);
+                    for (int row = 0, j = 0; row < tileHeight; row++) {
+                        int offset = (tileY + row) * width + tileX;
+                        for (int col = 0; col < tileWidth; col++, j += bytesPerPixel)
+                            buf[offset + col] = readPixel(pixelBuf, j, bytesPerPixel);
+                    }
+                    continue;
+                }
+
+                if ((subencoding & RfbConstants.HEXTILE_BACKGROUND_SPECIFIED) != 0)
+                    background = readPixel(is, pixelBuf, bytesPerPixel);
+                fillPixels(buf, tileX, tileY, tileWidth, tileHeight, background);
+
+                if ((subencoding & RfbConstants.HEXTILE_FOREGROUND_SPECIFIED) != 0)
+                    foreground = readPixel(is, pixelBuf, bytesPerPixel);
+
+                if ((subencoding & RfbConstants.HEXTILE_ANY_SUBRECTS) != 0) {
+                    int numberOfSubrects = is.readUnsignedByte();
+                    boolean coloured = (subencoding & RfbConstants.HEXTILE_SUBRECTS_COLOURED) != 0;
+
+                    for (int i = 0; i < numberOfSubrects; i++) {
+                        int color = coloured ? readPixel(is, pixelBuf, bytesPerPixel) : foreground;
+                        int xy = is.readUnsignedByte();
+                        int wh = is.readUnsignedByte();
+                        fillPixels(buf, tileX + (xy >> 4), tileY + (xy & 0xF), (wh >> 4) + 1, (wh & 0xF) + 1, color);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int readPixel(DataInputStream is, byte[] pixelBuf, int bytesPerPixel) throws IOException {
+        is.readFully(pixelBuf, 0, bytesPerPixel);
+        return readPixel(pixelBuf, 0, bytesPerPixel);
+    }
+
+    @Override
+    public void paint(BufferedImage image, Graphics2D graphics) {
+        paintPixels(image, buf);
+    }
+}
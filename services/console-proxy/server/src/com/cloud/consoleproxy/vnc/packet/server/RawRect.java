@@ -18,8 +18,6 @@ package com.cloud.consoleproxy.vnc.packet.server;
 
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
-import java.awt.image.DataBufferInt;
 import java.io.DataInputStream;
 import java.io.IOException;
 
@@ -45,31 +43,6 @@ public class RawRect extends AbstractRect {
 
     @Override
     public void paint(BufferedImage image, Graphics2D graphics) {
-
-        DataBuffer dataBuf = image.getRaster().getDataBuffer();
-
-        switch (dataBuf.getDataType()) {
-
-        case DataBuffer.TYPE_INT: {
-            // We chose RGB888 model, so Raster will use DataBufferInt type
-            DataBufferInt dataBuffer = (DataBufferInt) dataBuf;
-
-            int imageWidth = image.getWidth();
-            int imageHeight = image.getHeight();
-
-            // Paint rectangle directly on buffer, line by line
-            int[] imageBuffer = dataBuffer.getData();
-            for (int srcLine = 0, dstLine = y; srcLine < height && dstLine < imageHeight; srcLine++, dstLine++) {
-                try {
-                    System.arraycopy(buf, srcLine * width, imageBuffer, x + dstLine * imageWidth, width);
-                } catch (IndexOutOfBoundsException e) {
-                }
-            }
-            break;
-        }
-
-        default:
-            throw new RuntimeException("Unsupported data buffer in buffered image: expected data buffer of type int (DataBufferInt). Actual data buffer type: " + dataBuf.getClass().getSimpleName());
-        }
+        paintPixels(image, buf);
     }
 }
@@ -0,0 +1,207 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import com.cloud.consoleproxy.vnc.RfbConstants;
+import com.cloud.consoleproxy.vnc.VncScreenDescription;
+
+/**
+ * Tight: a rectangle is either filled with one colour, a JPEG image, or zlib
+ * compressed pixels passed through a copy, palette or gradient filter on one
+ * of four zlib streams. Pixels are sent as TPIXELs, which are red, green and
+ * blue bytes for our 32 bit format.
+ */
+public class TightRect extends AbstractRect {
+
+    private final int[] buf;
+
+    public TightRect(VncScreenDescription screen, ZlibStreams zlibStreams, int x, int y, int width, int height, DataInputStream is) throws IOException {
+        super(x, y, width, height);
+
+        buf = new int[width * height];
+
+        int control = is.readUnsignedByte();
+        for (int i = 0; i < 4; i++) {
+            if ((control & (1 << i)) != 0)
+                zlibStreams.resetTightInflater(i);
+        }
+
+        int compressionType = control >> 4;
+        boolean rgb = screen.isRGB888_32_LE();
+        int pixelSize = screen.getCompactPixelSize();
+
+        if (compressionType == RfbConstants.TIGHT_FILL) {
+            byte[] pixel = new byte[pixelSize];
+            is.readFully(pixel);
+            fillPixels(buf, 0, 0, width, height, readTightPixel(pixel, 0, pixelSize, rgb));
+        } else if (compressionType == RfbConstants.TIGHT_JPEG) {
+            byte[] jpeg = new byte[readCompactLength(is)];
+            is.readFully(jpeg);
+            decodeJpeg(jpeg);
+        } else if (compressionType > RfbConstants.TIGHT_MAX_SUBENCODING) {
+            throw new IOException("Unsupported Tight compression type: " + compressionType);
+        } else {
+            decodeBasic(zlibStreams, compressionType, pixelSize, rgb, is);
+        }
+    }
+
+    private void decodeBasic(ZlibStreams zlibStreams, int compressionType, int pixelSize, boolean rgb, DataInputStream is) throws IOException {
+        int stream = compressionType & 0x03;
+        int filter = RfbConstants.TIGHT_FILTER_COPY;
+        if ((compressionType & RfbConstants.TIGHT_EXPLICIT_FILTER) != 0)
+            filter = is.readUnsignedByte();
+
+        int[] palette = null;
+        int rowSize;
+        switch (filter) {
+        case RfbConstants.TIGHT_FILTER_COPY:
+        case RfbConstants.TIGHT_FILTER_GRADIENT:
+            rowSize = width * pixelSize;
+            break;
+
+        case RfbConstants.TIGHT_FILTER_PALETTE: {
+            int numberOfColors = is.readUnsignedByte() + 1;
+            byte[] paletteData = new byte[numberOfColors * pixelSize];
+            is.readFully(paletteData);
+            palette = new int[numberOfColors];
+            for (int i = 0; i < numberOfColors; i++)
+                palette[i] = readTightPixel(paletteData, i * pixelSize, pixelSize, rgb);
+            rowSize = numberOfColors == 2 ? (width + 7) / 8 : width;
+            break;
+        }
+
+        default:
+            throw new IOException("Unsupported Tight filter: " + filter);
+        }
+
+        int dataSize = rowSize * height;
+        byte[] data;
+        if (dataSize < RfbConstants.TIGHT_MIN_TO_COMPRESS) {
+            data = new byte[dataSize];
+            is.readFully(data);
+        } else {
+            byte[] compressed = new byte[readCompactLength(is)];
+            is.readFully(compressed);
+            data = ZlibStreams.inflateFully(zlibStreams.getTightInflater(stream), compressed, dataSize);
+        }
+
+        switch (filter) {
+        case RfbConstants.TIGHT_FILTER_COPY:
+            for (int i = 0, j = 0; i < buf.length; i++, j += pixelSize)
+                buf[i] = readTightPixel(data, j, pixelSize, rgb);
+            break;
+
+        case RfbConstants.TIGHT_FILTER_PALETTE:
+            if (palette.length == 2) {
+                for (int row = 0; row < height; row++) {
+                    int rowOffset = row * rowSize;
+                    for (int col = 0; col < width; col++) {
+                        int bit = (data[rowOffset + col / 8] >> (7 - col % 8)) & 1;
+                        buf[row * width + col] = palette[bit];
+                    }
+                }
+            } else {
+                for (int i = 0; i < buf.length; i++)
+                    buf[i] = palette[(data[i] & 0xFF) % palette.length];
+            }
+            break;
+
+        case RfbConstants.TIGHT_FILTER_GRADIENT:
+            decodeGradient(data, pixelSize, rgb);
+            break;
+        }
+    }
+
+    /**
+     * Each colour component was sent as the difference to the prediction
+     * left + above - above-left, clamped to 0..255.
+     */
+    private void decodeGradient(byte[] data, int pixelSize, boolean rgb) throws IOException {
+        if (!rgb)
+            throw new IOException("Tight gradient filter is only supported for 24 bit colour");
+
+        int[] prevRow = new int[width * 3];
+        int[] thisRow = new int[width * 3];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                for (int c = 0; c < 3; c++) {
+                    int left = col > 0 ? thisRow[(col - 1) * 3 + c] : 0;
+                    int upperLeft = col > 0 ? prevRow[(col - 1) * 3 + c] : 0;
+                    int prediction = left + prevRow[col * 3 + c] - upperLeft;
+                    if (prediction < 0)
+                        prediction = 0;
+                    else if (prediction > 255)
+                        prediction = 255;
+                    thisRow[col * 3 + c] = (data[(row * width + col) * 3 + c] + prediction) & 0xFF;
+                }
+                buf[row * width + col] = (thisRow[col * 3] << 16) | (thisRow[col * 3 + 1] << 8) | thisRow[col * 3 + 2];
+            }
+
+            int[] swap = prevRow;
+            prevRow = thisRow;
+            thisRow = swap;
+        }
+    }
+
+    private void decodeJpeg(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        if (image == null)
+            throw new IOException("Unable to decode Tight JPEG rectangle");
+
+        int w = Math.min(width, image.getWidth());
+        int h = Math.min(height, image.getHeight());
+        image.getRGB(0, 0, w, h, buf, 0, width);
+        for (int i = 0; i < buf.length; i++)
+            buf[i] &= 0xFFFFFF;
+    }
+
+    private static int readTightPixel(byte[] data, int offset, int pixelSize, boolean rgb) {
+        if (rgb)
+            return ((data[offset] & 0xFF) << 16) | ((data[offset + 1] & 0xFF) << 8) | (data[offset + 2] & 0xFF);
+        return readPixel(data, offset, pixelSize);
+    }
+
+    /**
+     * Length in 1 to 3 bytes, 7 bits in each of the first two bytes with the
+     * high bit set when another byte follows.
+     */
+    public static int readCompactLength(DataInputStream is) throws IOException {
+        int b = is.readUnsignedByte();
+        int length = b & 0x7F;
+        if ((b & 0x80) != 0) {
+            b = is.readUnsignedByte();
+            length |= (b & 0x7F) << 7;
+            if ((b & 0x80) != 0) {
+                length |= is.readUnsignedByte() << 14;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public void paint(BufferedImage image, Graphics2D graphics) {
+        paintPixels(image, buf);
+    }
+}
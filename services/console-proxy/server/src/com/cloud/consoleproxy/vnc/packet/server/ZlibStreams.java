@@ -0,0 +1,116 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * ZlibStreams - zlib streams of a VNC connection. ZRLE uses one stream and
+ * Tight up to four, and their state carries over from one rectangle to the
+ * next, so they live as long as the connection.
+ */
+public class ZlibStreams {
+    private Inflater zrleInflater;
+    private final Inflater[] tightInflaters = new Inflater[4];
+
+    public synchronized Inflater getZrleInflater() {
+        if (zrleInflater == null)
+            zrleInflater = new Inflater();
+        return zrleInflater;
+    }
+
+    public synchronized Inflater getTightInflater(int stream) {
+        if (tightInflaters[stream] == null)
+            tightInflaters[stream] = new Inflater();
+        return tightInflaters[stream];
+    }
+
+    public synchronized void resetTightInflater(int stream) {
+        if (tightInflaters[stream] != null) {
+            tightInflaters[stream].end();
+            tightInflaters[stream] = null;
+        }
+    }
+
+    /**
+     * Release the native memory of all streams.
+     */
+    public synchronized void end() {
+        if (zrleInflater != null) {
+            zrleInflater.end();
+            zrleInflater = null;
+        }
+        for (int i = 0; i < tightInflaters.length; i++)
+            resetTightInflater(i);
+    }
+
+    /**
+     * Inflate all data the server flushed for one rectangle.
+     */
+    public static byte[] inflate(Inflater inflater, byte[] input, int sizeHint) throws IOException {
+        startInput(inflater, input);
+
+        byte[] output = new byte[Math.max(sizeHint, 1024)];
+        int length = 0;
+        try {
+            while (true) {
+                if (length == output.length)
+                    output = Arrays.copyOf(output, output.length * 2);
+
+                int count = inflater.inflate(output, length, output.length - length);
+                if (count == 0)
+                    break;
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid zlib data from VNC server: " + e.getMessage());
+        }
+        return length == output.length ? output : Arrays.copyOf(output, length);
+    }
+
+    /**
+     * Inflate exactly the given number of bytes.
+     */
+    public static byte[] inflateFully(Inflater inflater, byte[] input, int length) throws IOException {
+        startInput(inflater, input);
+
+        byte[] output = new byte[length];
+        int offset = 0;
+        try {
+            while (offset < length) {
+                int count = inflater.inflate(output, offset, length - offset);
+                if (count == 0)
+                    throw new IOException("Incomplete zlib data from VNC server, expected " + length + " bytes, got " + offset);
+                offset += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid zlib data from VNC server: " + e.getMessage());
+        }
+        return output;
+    }
+
+    private static void startInput(Inflater inflater, byte[] input) {
+        // Servers normally keep one stream going for the whole connection, but
+        // if one ended its stream the next rectangle starts a new one
+        if (inflater.finished())
+            inflater.reset();
+        inflater.setInput(input);
+    }
+}
@@ -0,0 +1,164 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc.packet.server;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import com.cloud.consoleproxy.vnc.VncScreenDescription;
+
+/**
+ * ZRLE: zlib compressed 64x64 tiles, each one raw, solid, packed palette,
+ * plain RLE or palette RLE. Pixels are sent as CPIXELs, which drop the unused
+ * byte of our 32 bit format.
+ */
+public class ZrleRect extends AbstractRect {
+    private static final int TILE_SIZE = 64;
+
+    private final int[] buf;
+
+    // Decoding state
+    private byte[] data;
+    private int pos;
+
+    public ZrleRect(VncScreenDescription screen, ZlibStreams zlibStreams, int x, int y, int width, int height, DataInputStream is) throws IOException {
+        super(x, y, width, height);
+
+        int length = is.readInt();
+        byte[] compressed = new byte[length];
+        is.readFully(compressed);
+
+        data = ZlibStreams.inflate(zlibStreams.getZrleInflater(), compressed, width * height);
+        pos = 0;
+        buf = new int[width * height];
+
+        try {
+            decodeTiles(screen.getCompactPixelSize());
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated ZRLE data from VNC server");
+        } finally {
+            data = null;
+        }
+    }
+
+    private void decodeTiles(int pixelSize) throws IOException {
+        int[] palette = new int[128];
+
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            int tileHeight = Math.min(TILE_SIZE, height - tileY);
+
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int tileWidth = Math.min(TILE_SIZE, width - tileX);
+                int subencoding = data[pos++] & 0xFF;
+
+                if (subencoding == 0) {
+                    // Raw pixels
+                    for (int row = 0; row < tileHeight; row++) {
+                        int offset = (tileY + row) * width + tileX;
+                        for (int col = 0; col < tileWidth; col++)
+                            buf[offset + col] = readCompactPixel(pixelSize);
+                    }
+                } else if (subencoding == 1) {
+                    // Solid tile
+                    fillPixels(buf, tileX, tileY, tileWidth, tileHeight, readCompactPixel(pixelSize));
+                } else if (subencoding <= 16) {
+                    // Packed palette, rows are padded to a byte
+                    readPalette(palette, subencoding, pixelSize);
+                    int bitsPerIndex = subencoding == 2 ? 1 : (subencoding <= 4 ? 2 : 4);
+                    int mask = (1 << bitsPerIndex) - 1;
+
+                    for (int row = 0; row < tileHeight; row++) {
+                        int offset = (tileY + row) * width + tileX;
+                        int bits = 0;
+                        int bitsLeft = 0;
+                        for (int col = 0; col < tileWidth; col++) {
+                            if (bitsLeft == 0) {
+                                bits = data[pos++] & 0xFF;
+                                bitsLeft = 8;
+                            }
+                            bitsLeft -= bitsPerIndex;
+                            buf[offset + col] = palette[(bits >> bitsLeft) & mask];
+                        }
+                    }
+                } else if (subencoding == 128) {
+                    // Plain RLE
+                    int count = tileWidth * tileHeight;
+                    for (int i = 0; i < count;) {
+                        int color = readCompactPixel(pixelSize);
+                        int runLength = readRunLength();
+                        i = fillRun(tileX, tileY, tileWidth, i, Math.min(runLength, count - i), color);
+                    }
+                } else if (subencoding >= 130) {
+                    // Palette RLE
+                    readPalette(palette, subencoding - 128, pixelSize);
+                    int count = tileWidth * tileHeight;
+                    for (int i = 0; i < count;) {
+                        int index = data[pos++] & 0xFF;
+                        int runLength = 1;
+                        if ((index & 0x80) != 0) {
+                            index &= 0x7F;
+                            runLength = readRunLength();
+                        }
+                        i = fillRun(tileX, tileY, tileWidth, i, Math.min(runLength, count - i), palette[index]);
+                    }
+                } else {
+                    throw new IOException("Unsupported ZRLE sub-encoding: " + subencoding);
+                }
+            }
+        }
+    }
+
+    private void readPalette(int[] palette, int size, int pixelSize) {
+        for (int i = 0; i < size; i++)
+            palette[i] = readCompactPixel(pixelSize);
+    }
+
+    private int readCompactPixel(int pixelSize) {
+        int pixel = readPixel(data, pos, pixelSize);
+        pos += pixelSize;
+        return pixel;
+    }
+
+    private int readRunLength() {
+        int runLength = 1;
+        int b;
+        do {
+            b = data[pos++] & 0xFF;
+            runLength += b;
+        } while (b == 255);
+        return runLength;
+    }
+
+    /**
+     * Fill a run of pixels, counted in row order from the top left of a tile.
+     * 
+     * @return index of the pixel after the run
+     */
+    private int fillRun(int tileX, int tileY, int tileWidth, int start, int runLength, int color) {
+        int end = start + runLength;
+        for (int i = start; i < end; i++)
+            buf[(tileY + i / tileWidth) * width + tileX + i % tileWidth] = color;
+        return end;
+    }
+
+    @Override
+    public void paint(BufferedImage image, Graphics2D graphics) {
+        paintPixels(image, buf);
+    }
+}
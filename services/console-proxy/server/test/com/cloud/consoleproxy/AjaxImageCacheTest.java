@@ -0,0 +1,177 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.cloud.consoleproxy.vnc.BufferedImageCanvas;
+import com.cloud.consoleproxy.vnc.FrameBufferCanvas;
+import com.cloud.consoleproxy.vnc.PaintNotificationListener;
+
+public class AjaxImageCacheTest {
+    private static final Pattern TILE_MAP = Pattern.compile("tileMap = \\[ (.*) \\];");
+    private static final Pattern IMAGE_KEY = Pattern.compile("&key=(\\d+)");
+
+    private static class TestClient extends ConsoleProxyClientBase {
+        final BufferedImageCanvas canvas = new BufferedImageCanvas(new PaintNotificationListener() {
+            @Override
+            public void imagePaintedOnScreen() {
+            }
+        }, 800, 600);
+
+        @Override
+        public boolean isHostConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isFrontEndAlive() {
+            return true;
+        }
+
+        @Override
+        public void sendClientRawKeyboardEvent(InputEventType event, int code, int modifiers) {
+        }
+
+        @Override
+        public void sendClientMouseEvent(InputEventType event, int x, int y, int code, int modifiers) {
+        }
+
+        @Override
+        public void initClient(ConsoleProxyClientParam param) {
+        }
+
+        @Override
+        public void closeClient() {
+        }
+
+        @Override
+        public void onClientClose() {
+        }
+
+        @Override
+        public boolean isNonBlockingSession() {
+            return false;
+        }
+
+        @Override
+        public long getHostBytesReceived() {
+            return 0;
+        }
+
+        @Override
+        public long getHostFramebufferUpdates() {
+            return 0;
+        }
+
+        @Override
+        protected FrameBufferCanvas getFrameBufferCavas() {
+            return canvas;
+        }
+
+        void paint(int x, int y, int w, int h, Color color) {
+            Graphics2D g = canvas.getOfflineGraphics();
+            g.setColor(color);
+            g.fillRect(x, y, w, h);
+            onFramebufferUpdate(x, y, w, h);
+        }
+    }
+
+    private static String find(Pattern pattern, String update) {
+        Matcher matcher = pattern.matcher(update);
+        assertTrue(update, matcher.find());
+        return matcher.group(1);
+    }
+
+    @Test
+    public void testLruEviction() {
+        AjaxImageCache cache = new AjaxImageCache(3, 100);
+        int first = cache.putImage(1L, new byte[10]);
+        int second = cache.putImage(2L, new byte[10]);
+        int third = cache.putImage(3L, new byte[10]);
+
+        // touching the first image keeps it over the second one
+        assertEquals(first, cache.getImageKey(1L));
+        assertNotNull(cache.getImage(first));
+        cache.putImage(4L, new byte[10]);
+        assertNull(cache.getImage(second));
+        assertEquals(0, cache.getImageKey(2L));
+        assertNotNull(cache.getImage(first));
+        assertNotNull(cache.getImage(third));
+
+        // the byte limit evicts as well
+        int big = cache.putImage(5L, new byte[95]);
+        assertEquals(1, cache.getImageCount());
+        assertEquals(95, cache.getCachedBytes());
+        assertNotNull(cache.getImage(big));
+        assertNotNull(cache.getImage(0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testUnchangedTilesAreNotSent() {
+        TestClient client = new TestClient();
+        client.onAjaxClientStart("test", null, null);
+        long encoded = client.getEncodedImageCount();
+        assertEquals(1, encoded);
+
+        // two tiles painted, one of them with the color it already had
+        client.paint(0, 0, 64, 64, Color.RED);
+        client.paint(128, 0, 64, 64, Color.BLACK);
+        String update = client.getAjaxClientUpdate();
+        assertEquals("[0,0]", find(TILE_MAP, update));
+        assertEquals(1, client.getUnchangedTileCount());
+        assertEquals(encoded + 1, client.getEncodedImageCount());
+
+        // same content again, nothing to send
+        client.paint(0, 0, 64, 64, Color.RED);
+        update = client.getAjaxClientUpdate();
+        assertEquals("", find(TILE_MAP, update).trim());
+        assertEquals(2, client.getUnchangedTileCount());
+    }
+
+    @Test
+    public void testEncodedImagesAreShared() {
+        TestClient client = new TestClient();
+        client.onAjaxClientStart("test", null, null);
+        String key = find(IMAGE_KEY, client.getAjaxClientUpdate());
+        long encoded = client.getEncodedImageCount();
+
+        // another viewer of the same VM starting on an unchanged screen reuses
+        // the full frame image
+        String start = client.onAjaxClientStart("test", null, null);
+        assertEquals(encoded, client.getEncodedImageCount());
+        assertTrue(client.getAjaxImageCache().getHitCount() > 0);
+        assertNotNull(client.getAjaxImageCache().getImage(Integer.parseInt(find(IMAGE_KEY, start))));
+
+        // an empty update is encoded once too
+        assertEquals(key, find(IMAGE_KEY, client.getAjaxClientUpdate()));
+        assertFalse(client.getEncodedImageCount() > encoded);
+    }
+}
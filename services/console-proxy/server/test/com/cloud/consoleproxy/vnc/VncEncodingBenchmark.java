@@ -0,0 +1,82 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.cloud.consoleproxy.vnc.VncEncodingTest.RectEncoder;
+
+/**
+ * Size and decode time of a VNC session per encoding. Not a unit test, run it
+ * by hand against the test classpath.
+ *
+ * Replays the synthetic 640x480 desktop session of VncEncodingTest once per
+ * encoding. A capture taken from a real server, the server to client stream
+ * from the first framebuffer update on, is replayed as well when given with
+ * -Dvnc.capture=<file> [-Dvnc.capture.width=1024 -Dvnc.capture.height=768].
+ *
+ * Usage: VncEncodingBenchmark [frames]
+ */
+public class VncEncodingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        Map<String, RectEncoder> encoders = new LinkedHashMap<String, RectEncoder>();
+        encoders.put("raw", VncEncodingTest.RAW);
+        encoders.put("hextile", VncEncodingTest.HEXTILE);
+        encoders.put("zrle", VncEncodingTest.ZRLE);
+        encoders.put("tight", VncEncodingTest.TIGHT);
+
+        long rawSize = 0;
+        for (Map.Entry<String, RectEncoder> entry : encoders.entrySet()) {
+            byte[] capture = VncEncodingTest.recordSession(entry.getValue(), frames);
+            if (rawSize == 0) {
+                rawSize = capture.length;
+            }
+
+            long startTick = System.currentTimeMillis();
+            VncEncodingTest.replay(new ByteArrayInputStream(capture), VncEncodingTest.WIDTH, VncEncodingTest.HEIGHT);
+            long elapsed = System.currentTimeMillis() - startTick;
+
+            System.out.println(entry.getKey() + ": " + frames + " updates, " + capture.length + " bytes (" + (capture.length * 100 / rawSize) + "% of raw), decoded in "
+                    + elapsed + " ms");
+        }
+
+        String captureFile = System.getProperty("vnc.capture");
+        if (captureFile != null) {
+            int width = Integer.parseInt(System.getProperty("vnc.capture.width", "1024"));
+            int height = Integer.parseInt(System.getProperty("vnc.capture.height", "768"));
+            File file = new File(captureFile);
+
+            long startTick = System.currentTimeMillis();
+            InputStream is = new FileInputStream(file);
+            try {
+                VncEncodingTest.replay(is, width, height);
+            } finally {
+                is.close();
+            }
+            System.out.println(file.getName() + ": " + file.length() + " bytes decoded in " + (System.currentTimeMillis() - startTick) + " ms");
+        }
+    }
+}
@@ -0,0 +1,526 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+
+import com.cloud.consoleproxy.vnc.packet.server.FramebufferUpdatePacket;
+import com.cloud.consoleproxy.vnc.packet.server.ZlibStreams;
+
+/**
+ * Decodes updates produced by simple Hextile, ZRLE and Tight encoders written
+ * after the RFB specification, and replays a recorded session through the
+ * non-blocking receiver to compare the encodings.
+ * 
+ * A session recorded from a real server can be replayed with
+ * -Dvnc.capture=file -Dvnc.capture.width=w -Dvnc.capture.height=h, the file
+ * holding the server messages that follow ServerInit.
+ */
+public class VncEncodingTest {
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+
+    private static VncScreenDescription screen(int width, int height) {
+        VncScreenDescription screen = new VncScreenDescription();
+        screen.setPixelFormat(32, 24, RfbConstants.LITTLE_ENDIAN, RfbConstants.TRUE_COLOR, 255, 255, 255, 16, 8, 0);
+        screen.setFramebufferSize(width, height);
+        return screen;
+    }
+
+    private static BufferedImageCanvas canvas(int width, int height) {
+        return new BufferedImageCanvas(new PaintNotificationListener() {
+            @Override
+            public void imagePaintedOnScreen() {
+            }
+        }, width, height);
+    }
+
+    static int[] pixels(BufferedImageCanvas canvas) {
+        BufferedImage image = canvas.getOfflineImage();
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] &= 0xFFFFFF;
+        return pixels;
+    }
+
+    //
+    // Synthetic desktop: flat background, windows with text and a photo
+    //
+
+    private static int[] desktop(Random random) {
+        int[] frame = new int[WIDTH * HEIGHT];
+        fill(frame, 0, 0, WIDTH, HEIGHT, 0x3A6EA5);
+        fill(frame, 40, 30, 360, 260, 0xECE9D8);
+        fill(frame, 40, 30, 360, 20, 0x0A246A);
+        text(frame, random, 50, 60, 340, 220);
+        photo(frame, random, 420, 200, 200, 150);
+        return frame;
+    }
+
+    private static void fill(int[] frame, int x, int y, int w, int h, int color) {
+        for (int row = y; row < y + h; row++)
+            for (int col = x; col < x + w; col++)
+                frame[row * WIDTH + col] = color;
+    }
+
+    // two colour glyph-like noise on a light background
+    private static void text(int[] frame, Random random, int x, int y, int w, int h) {
+        for (int row = y; row < y + h; row++) {
+            boolean line = (row - y) % 12 < 9;
+            for (int col = x; col < x + w; col++)
+                frame[row * WIDTH + col] = line && random.nextInt(4) == 0 ? 0x000000 : 0xFFFFFF;
+        }
+    }
+
+    // smooth gradient with a little noise, so it has lots of colours
+    private static void photo(int[] frame, Random random, int x, int y, int w, int h) {
+        for (int row = 0; row < h; row++)
+            for (int col = 0; col < w; col++) {
+                int r = (col * 255 / w + random.nextInt(8)) & 0xFF;
+                int g = (row * 255 / h + random.nextInt(8)) & 0xFF;
+                int b = ((col + row) * 127 / (w + h) + random.nextInt(8)) & 0xFF;
+                frame[(y + row) * WIDTH + x + col] = (r << 16) | (g << 8) | b;
+            }
+    }
+
+    //
+    // Encoders
+    //
+
+    interface RectEncoder {
+        int getEncoding();
+
+        void encode(int[] frame, int x, int y, int w, int h, DataOutputStream os) throws IOException;
+    }
+
+    private static void writePixel(DataOutputStream os, int pixel) throws IOException {
+        os.writeByte(pixel & 0xFF);
+        os.writeByte((pixel >> 8) & 0xFF);
+        os.writeByte((pixel >> 16) & 0xFF);
+        os.writeByte(0);
+    }
+
+    private static void writeCompactPixel(DataOutputStream os, int pixel) throws IOException {
+        os.writeByte(pixel & 0xFF);
+        os.writeByte((pixel >> 8) & 0xFF);
+        os.writeByte((pixel >> 16) & 0xFF);
+    }
+
+    private static void writeTightPixel(DataOutputStream os, int pixel) throws IOException {
+        os.writeByte((pixel >> 16) & 0xFF);
+        os.writeByte((pixel >> 8) & 0xFF);
+        os.writeByte(pixel & 0xFF);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(6);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        while (!deflater.finished())
+            bos.write(buf, 0, deflater.deflate(buf));
+        deflater.end();
+        return bos.toByteArray();
+    }
+
+    private static List<Integer> colors(int[] frame, int x, int y, int w, int h, int max) {
+        List<Integer> colors = new ArrayList<Integer>();
+        for (int row = y; row < y + h; row++)
+            for (int col = x; col < x + w; col++) {
+                Integer color = frame[row * WIDTH + col];
+                if (!colors.contains(color)) {
+                    colors.add(color);
+                    if (colors.size() > max)
+                        return colors;
+                }
+            }
+        return colors;
+    }
+
+    static final RectEncoder RAW = new RectEncoder() {
+        @Override
+        public int getEncoding() {
+            return RfbConstants.ENCODING_RAW;
+        }
+
+        @Override
+        public void encode(int[] frame, int x, int y, int w, int h, DataOutputStream os) throws IOException {
+            for (int row = y; row < y + h; row++)
+                for (int col = x; col < x + w; col++)
+                    writePixel(os, frame[row * WIDTH + col]);
+        }
+    };
+
+    static final RectEncoder HEXTILE = new RectEncoder() {
+        @Override
+        public int getEncoding() {
+            return RfbConstants.ENCODING_HEXTILE;
+        }
+
+        @Override
+        public void encode(int[] frame, int x, int y, int w, int h, DataOutputStream os) throws IOException {
+            for (int ty = y; ty < y + h; ty += 16) {
+                int th = Math.min(16, y + h - ty);
+                for (int tx = x; tx < x + w; tx += 16) {
+                    int tw = Math.min(16, x + w - tx);
+                    List<Integer> colors = colors(frame, tx, ty, tw, th, 2);
+                    if (colors.size() == 1) {
+                        os.writeByte(RfbConstants.HEXTILE_BACKGROUND_SPECIFIED);
+                        writePixel(os, colors.get(0));
+                        continue;
+                    }
+
+                    List<int[]> subrects = new ArrayList<int[]>();
+                    if (colors.size() == 2) {
+                        // one pixel high runs of the foreground colour
+                        int fg = colors.get(1);
+                        for (int row = 0; row < th; row++) {
+                            for (int col = 0; col < tw; col++) {
+                                if (frame[(ty + row) * WIDTH + tx + col] != fg)
+                                    continue;
+                                int end = col;
+                                while (end + 1 < tw && frame[(ty + row) * WIDTH + tx + end + 1] == fg)
+                                    end++;
+                                subrects.add(new int[] { col, row, end - col + 1 });
+                                col = end;
+                            }
+                        }
+                    }
+
+                    if (colors.size() > 2 || subrects.size() * 2 + 8 > tw * th * 4) {
+                        os.writeByte(RfbConstants.HEXTILE_RAW);
+                        for (int row = ty; row < ty + th; row++)
+                            for (int col = tx; col < tx + tw; col++)
+                                writePixel(os, frame[row * WIDTH + col]);
+                        continue;
+                    }
+
+                    os.writeByte(RfbConstants.HEXTILE_BACKGROUND_SPECIFIED | RfbConstants.HEXTILE_FOREGROUND_SPECIFIED | RfbConstants.HEXTILE_ANY_SUBRECTS);
+                    writePixel(os, colors.get(0));
+                    writePixel(os, colors.get(1));
+                    os.writeByte(subrects.size());
+                    for (int[] subrect : subrects) {
+                        os.writeByte((subrect[0] << 4) | subrect[1]);
+                        os.writeByte((subrect[2] - 1) << 4);
+                    }
+                }
+            }
+        }
+    };
+
+    static final RectEncoder ZRLE = new RectEncoder() {
+        @Override
+        public int getEncoding() {
+            return RfbConstants.ENCODING_ZRLE;
+        }
+
+        @Override
+        public void encode(int[] frame, int x, int y, int w, int h, DataOutputStream os) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream tiles = new DataOutputStream(bos);
+            for (int ty = y; ty < y + h; ty += 64) {
+                int th = Math.min(64, y + h - ty);
+                for (int tx = x; tx < x + w; tx += 64) {
+                    int tw = Math.min(64, x + w - tx);
+                    List<Integer> colors = colors(frame, tx, ty, tw, th, 16);
+                    if (colors.size() == 1) {
+                        tiles.writeByte(1);
+                        writeCompactPixel(tiles, colors.get(0));
+                    } else if (colors.size() <= 16) {
+                        tiles.writeByte(colors.size());
+                        for (int color : colors)
+                            writeCompactPixel(tiles, color);
+                        int bits = colors.size() == 2 ? 1 : (colors.size() <= 4 ? 2 : 4);
+                        for (int row = ty; row < ty + th; row++) {
+                            int b = 0;
+                            int used = 0;
+                            for (int col = tx; col < tx + tw; col++) {
+                                b = (b << bits) | colors.indexOf(frame[row * WIDTH + col]);
+                                used += bits;
+                                if (used == 8) {
+                                    tiles.writeByte(b);
+                                    b = 0;
+                                    used = 0;
+                                }
+                            }
+                            if (used > 0)
+                                tiles.writeByte(b << (8 - used));
+                        }
+                    } else {
+                        // plain RLE
+                        tiles.writeByte(128);
+                        int count = tw * th;
+                        for (int i = 0; i < count;) {
+                            int color = frame[(ty + i / tw) * WIDTH + tx + i % tw];
+                            int run = 1;
+                            while (i + run < count && frame[(ty + (i + run) / tw) * WIDTH + tx + (i + run) % tw] == color)
+                                run++;
+                            writeCompactPixel(tiles, color);
+                            int rest = run - 1;
+                            while (rest >= 255) {
+                                tiles.writeByte(255);
+                                rest -= 255;
+                            }
+                            tiles.writeByte(rest);
+                            i += run;
+                        }
+                    }
+                }
+            }
+
+            byte[] compressed = deflate(bos.toByteArray());
+            os.writeInt(compressed.length);
+            os.write(compressed);
+        }
+    };
+
+    static final RectEncoder TIGHT = new RectEncoder() {
+        @Override
+        public int getEncoding() {
+            return RfbConstants.ENCODING_TIGHT;
+        }
+
+        @Override
+        public void encode(int[] frame, int x, int y, int w, int h, DataOutputStream os) throws IOException {
+            List<Integer> colors = colors(frame, x, y, w, h, 16);
+            if (colors.size() == 1) {
+                os.writeByte(RfbConstants.TIGHT_FILL << 4);
+                writeTightPixel(os, colors.get(0));
+                return;
+            }
+
+            // every rectangle ends its zlib stream, so reset the streams first
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bos);
+            if (colors.size() <= 16) {
+                os.writeByte(((1 | RfbConstants.TIGHT_EXPLICIT_FILTER) << 4) | 0x0F);
+                os.writeByte(RfbConstants.TIGHT_FILTER_PALETTE);
+                os.writeByte(colors.size() - 1);
+                for (int color : colors)
+                    writeTightPixel(os, color);
+
+                for (int row = y; row < y + h; row++) {
+                    if (colors.size() == 2) {
+                        int b = 0;
+                        int used = 0;
+                        for (int col = x; col < x + w; col++) {
+                            b = (b << 1) | colors.indexOf(frame[row * WIDTH + col]);
+                            if (++used == 8) {
+                                data.writeByte(b);
+                                b = 0;
+                                used = 0;
+                            }
+                        }
+                        if (used > 0)
+                            data.writeByte(b << (8 - used));
+                    } else {
+                        for (int col = x; col < x + w; col++)
+                            data.writeByte(colors.indexOf(frame[row * WIDTH + col]));
+                    }
+                }
+            } else {
+                os.writeByte(0x0F);
+                for (int row = y; row < y + h; row++)
+                    for (int col = x; col < x + w; col++)
+                        writeTightPixel(data, frame[row * WIDTH + col]);
+            }
+
+            byte[] raw = bos.toByteArray();
+            if (raw.length < RfbConstants.TIGHT_MIN_TO_COMPRESS) {
+                os.write(raw);
+                return;
+            }
+
+            byte[] compressed = deflate(raw);
+            int length = compressed.length;
+            os.writeByte((length & 0x7F) | (length > 0x7F ? 0x80 : 0));
+            if (length > 0x7F) {
+                os.writeByte(((length >> 7) & 0x7F) | (length > 0x3FFF ? 0x80 : 0));
+                if (length > 0x3FFF)
+                    os.writeByte(length >> 14);
+            }
+            os.write(compressed);
+        }
+    };
+
+    private static void writeUpdate(int[] frame, int[][] rects, RectEncoder encoder, DataOutputStream os) throws IOException {
+        os.writeByte(RfbConstants.SERVER_FRAMEBUFFER_UPDATE);
+        os.writeByte(0);
+        os.writeShort(rects.length);
+        for (int[] rect : rects) {
+            os.writeShort(rect[0]);
+            os.writeShort(rect[1]);
+            os.writeShort(rect[2]);
+            os.writeShort(rect[3]);
+            os.writeInt(encoder.getEncoding());
+            encoder.encode(frame, rect[0], rect[1], rect[2], rect[3], os);
+        }
+    }
+
+    //
+    // Round trips through the blocking decoder
+    //
+
+    private void assertRoundTrip(RectEncoder encoder) throws IOException {
+        int[] frame = desktop(new Random(1));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+
+        // odd sized rectangles, so partial tiles are covered too
+        int[][] rects = { { 0, 0, 400, 300 }, { 400, 0, 240, 300 }, { 0, 300, 333, 180 }, { 333, 300, 307, 180 } };
+        writeUpdate(frame, rects, encoder, os);
+        byte[] message = bos.toByteArray();
+
+        VncScreenDescription screen = screen(WIDTH, HEIGHT);
+        assertEquals(message.length, VncMessageFramer.getMessageLength(message, 0, message.length, screen));
+        assertEquals(-1, VncMessageFramer.getMessageLength(message, 0, message.length - 1, screen));
+
+        BufferedImageCanvas canvas = canvas(WIDTH, HEIGHT);
+        DataInputStream is = new DataInputStream(new ByteArrayInputStream(message));
+        assertEquals(RfbConstants.SERVER_FRAMEBUFFER_UPDATE, is.readUnsignedByte());
+        new FramebufferUpdatePacket(canvas, screen, new ZlibStreams(), is, null);
+        assertEquals(-1, is.read());
+        assertArrayEquals(frame, pixels(canvas));
+    }
+
+    @Test
+    public void testHextile() throws IOException {
+        assertRoundTrip(HEXTILE);
+    }
+
+    @Test
+    public void testZrle() throws IOException {
+        assertRoundTrip(ZRLE);
+    }
+
+    @Test
+    public void testTight() throws IOException {
+        assertRoundTrip(TIGHT);
+    }
+
+    //
+    // Session replay through the non-blocking receiver
+    //
+
+    /**
+     * Reads at most a socket buffer worth of bytes per call.
+     */
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final InputStream is;
+        private final byte[] chunk = new byte[16 * 1024];
+
+        ChunkedChannel(InputStream is) {
+            this.is = is;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = is.read(chunk, 0, Math.min(chunk.length, dst.remaining()));
+            if (n > 0)
+                dst.put(chunk, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    static BufferedImageCanvas replay(InputStream capture, int width, int height) throws IOException {
+        BufferedImageCanvas canvas = canvas(width, height);
+        VncClient client = new VncClient(null);
+        VncServerPacketReceiver receiver = new VncServerPacketReceiver(null, canvas, screen(width, height), client, new FrameBufferUpdateListener() {
+            @Override
+            public void frameBufferPacketReceived() {
+            }
+        }, null);
+
+        ChunkedChannel channel = new ChunkedChannel(capture);
+        while (receiver.processAvailableData(channel))
+            ;
+        return canvas;
+    }
+
+    static byte[] recordSession(RectEncoder encoder, int frames) throws IOException {
+        Random random = new Random(7);
+        int[] frame = desktop(random);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+
+        writeUpdate(frame, new int[][] { { 0, 0, WIDTH, HEIGHT } }, encoder, os);
+        for (int i = 0; i < frames; i++) {
+            // typing into the window and a video-like region changing
+            int line = 60 + (i % 18) * 12;
+            text(frame, random, 50, line, 340, 12);
+            photo(frame, random, 420, 200, 200, 150);
+            writeUpdate(frame, new int[][] { { 50, line, 340, 12 }, { 420, 200, 200, 150 } }, encoder, os);
+        }
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testReplaySession() throws IOException {
+        int frames = 100;
+        int[] expected = null;
+
+        Map<String, RectEncoder> encoders = new LinkedHashMap<String, RectEncoder>();
+        encoders.put("raw", RAW);
+        encoders.put("hextile", HEXTILE);
+        encoders.put("zrle", ZRLE);
+        encoders.put("tight", TIGHT);
+
+        long rawSize = 0;
+        for (Map.Entry<String, RectEncoder> entry : encoders.entrySet()) {
+            byte[] capture = recordSession(entry.getValue(), frames);
+            int[] pixels = pixels(replay(new ByteArrayInputStream(capture), WIDTH, HEIGHT));
+
+            if (expected == null) {
+                expected = pixels;
+                rawSize = capture.length;
+            } else {
+                assertTrue(entry.getKey() + " is not smaller than raw", capture.length < rawSize);
+            }
+            assertArrayEquals(entry.getKey(), expected, pixels);
+        }
+    }
+}
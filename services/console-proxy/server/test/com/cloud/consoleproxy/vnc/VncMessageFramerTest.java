@@ -0,0 +1,100 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class VncMessageFramerTest {
+
+    private static VncScreenDescription screen() {
+        VncScreenDescription screen = new VncScreenDescription();
+        screen.setPixelFormat(32, 24, RfbConstants.LITTLE_ENDIAN, RfbConstants.TRUE_COLOR, 255, 255, 255, 16, 8, 0);
+        screen.setFramebufferSize(800, 600);
+        return screen;
+    }
+
+    private static void writeRectHeader(DataOutputStream os, int x, int y, int w, int h, int encoding) throws IOException {
+        os.writeShort(x);
+        os.writeShort(y);
+        os.writeShort(w);
+        os.writeShort(h);
+        os.writeInt(encoding);
+    }
+
+    private static byte[] framebufferUpdate() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeByte(RfbConstants.SERVER_FRAMEBUFFER_UPDATE);
+        os.writeByte(0);
+        os.writeShort(3);
+
+        writeRectHeader(os, 0, 0, 4, 2, RfbConstants.ENCODING_RAW);
+        os.write(new byte[4 * 2 * 4]);
+
+        writeRectHeader(os, 10, 10, 4, 2, RfbConstants.ENCODING_COPY_RECT);
+        os.writeShort(0);
+        os.writeShort(0);
+
+        writeRectHeader(os, 0, 0, 1024, 768, RfbConstants.ENCODING_DESKTOP_SIZE);
+        os.flush();
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testFramebufferUpdate() throws IOException {
+        byte[] message = framebufferUpdate();
+        assertEquals(4 + 12 + 32 + 12 + 4 + 12, message.length);
+        assertEquals(message.length, VncMessageFramer.getMessageLength(message, 0, message.length, screen()));
+
+        // every prefix of the message is incomplete, wherever the socket read stops
+        for (int i = 0; i < message.length; i++) {
+            assertEquals(-1, VncMessageFramer.getMessageLength(message, 0, i, screen()));
+        }
+    }
+
+    @Test
+    public void testMessagesInOneBuffer() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream os = new DataOutputStream(bos);
+        os.writeByte(RfbConstants.SERVER_BELL);
+        os.writeByte(RfbConstants.SERVER_CUT_TEXT);
+        os.write(new byte[3]);
+        os.writeInt(5);
+        os.write("hello".getBytes());
+        os.write(framebufferUpdate());
+        byte[] buf = bos.toByteArray();
+
+        VncScreenDescription screen = screen();
+        int pos = 0;
+        assertEquals(1, VncMessageFramer.getMessageLength(buf, pos, buf.length - pos, screen));
+        pos += 1;
+        assertEquals(13, VncMessageFramer.getMessageLength(buf, pos, buf.length - pos, screen));
+        pos += 13;
+        assertEquals(buf.length - pos, VncMessageFramer.getMessageLength(buf, pos, buf.length - pos, screen));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownMessageType() {
+        VncMessageFramer.getMessageLength(new byte[] { 42 }, 0, 1, screen());
+    }
+}
@@ -0,0 +1,118 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.consoleproxy.vnc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.concurrency.NamedThreadFactory;
+
+public class VncSelectorLoopTest {
+
+    private ThreadPoolExecutor workers;
+    private ThreadPoolExecutor handshakeWorkers;
+    private ScheduledExecutorService timer;
+    private VncSelectorLoop loop;
+
+    @Before
+    public void setUp() throws IOException {
+        workers = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1));
+        handshakeWorkers = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1), new NamedThreadFactory("Handshake"));
+        timer = Executors.newSingleThreadScheduledExecutor();
+        loop = new VncSelectorLoop(workers, handshakeWorkers, timer);
+    }
+
+    @After
+    public void tearDown() {
+        loop.stop();
+        workers.shutdownNow();
+        handshakeWorkers.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void testConnectRunsOnTheHandshakePool() throws InterruptedException {
+        final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        loop.connectLater(new Runnable() {
+            @Override
+            public void run() {
+                ranOn.set(Thread.currentThread());
+                done.countDown();
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 10);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(ranOn.get().getName().startsWith("Handshake"));
+        assertEquals(0, workers.getCompletedTaskCount());
+    }
+
+    @Test
+    public void testSaturatedHandshakePoolRejectsInsteadOfRunningOnTheCaller() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        // one handshake running and one queued fill the pool
+        handshakeWorkers.execute(blocking);
+        handshakeWorkers.execute(blocking);
+
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        final AtomicBoolean rejected = new AtomicBoolean(false);
+        loop.connectLater(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                rejected.set(true);
+            }
+        }, 0);
+
+        assertTrue(rejected.get());
+        assertFalse(ran.get());
+        release.countDown();
+    }
+}
@@ -27,19 +27,19 @@ import static org.apache.commons.lang.StringUtils.substringAfterLast;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -49,15 +49,16 @@ import java.util.concurrent.Callable;
 
 import javax.naming.ConfigurationException;
 
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 import com.amazonaws.services.s3.model.S3ObjectSummary;
@@ -119,6 +120,7 @@ import com.cloud.storage.DataStoreRole;
 import com.cloud.storage.Storage.ImageFormat;
 import com.cloud.storage.StorageLayer;
 import com.cloud.storage.VMTemplateStorageResourceAssoc;
+import com.cloud.storage.template.ChecksumCache;
 import com.cloud.storage.template.Processor;
 import com.cloud.storage.template.Processor.FormatInfo;
 import com.cloud.storage.template.QCOW2Processor;
@@ -133,7 +135,6 @@ import com.cloud.utils.S3Utils.FileNamingStrategy;
 import com.cloud.utils.SwiftUtil;
 import com.cloud.utils.exception.CloudRuntimeException;
 import com.cloud.utils.net.NetUtils;
-import com.cloud.utils.script.OutputInterpreter;
 import com.cloud.utils.script.Script;
 import com.cloud.vm.SecondaryStorageVm;
 
@@ -351,6 +352,7 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
                 s_logger.debug("Directory " + downloadPath + " already exists");
             }
 
+            long start = System.currentTimeMillis();
             File destFile = S3Utils.getFile(s3, s3.getBucketName(), srcData.getPath(), downloadDirectory,
                     new FileNamingStrategy() {
                 @Override
@@ -362,8 +364,13 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             if (destFile == null) {
                 return new CopyCmdAnswer("Can't find template");
             }
+            long transferTime = System.currentTimeMillis() - start;
+            long transferred = destFile.length();
 
-            return postProcessing(destFile,downloadPath,destPath,srcData,destData);
+            CopyCmdAnswer answer = postProcessing(destFile,downloadPath,destPath,srcData,destData);
+            answer.setTransferStats(transferred, transferTime);
+            logTransferStats("Downloaded " + srcData.getPath() + " from S3", answer);
+            return answer;
         } catch (Exception e) {
 
             final String errMsg = format("Failed to download" + "due to $2%s", e.getMessage());
@@ -677,31 +684,54 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
         HttpGet get = new HttpGet(url);
         try {
             HttpResponse response =  client.execute(get);
-            HttpEntity entity = response.getEntity();
-            if (entity == null) {
-                s_logger.debug("Faled to get entity");
-                throw new CloudRuntimeException("Failed to get url: " + url);
-            }
-
-            String nfsMountPath = getRootDir(nfs.getUrl());
-
-            String filePath = nfsMountPath + File.separator + path;
-            File directory = new File(filePath);
-            if (!directory.exists()) {
-                _storage.mkdirs(filePath);
-            }
-            File destFile = new File(filePath + File.separator + name);
-            if (!destFile.exists()) {
-                destFile.createNewFile();
+            InputStream in = getContent(response, url);
+            try {
+                return writeToNfs(in, nfs, path, name);
+            } finally {
+                in.close();
             }
-            FileOutputStream outputStream = new FileOutputStream(destFile);
-            entity.writeTo(outputStream);
-            return new File(destFile.getAbsolutePath());
         } catch (IOException e) {
             s_logger.debug("Faild to get url:"+ url + ", due to " + e.toString());
             throw new CloudRuntimeException(e);
         }
     }
+
+    private static InputStream getContent(HttpResponse response, String url) throws IOException {
+        HttpEntity entity = response.getEntity();
+        int status = response.getStatusLine().getStatusCode();
+        if (status != HttpStatus.SC_OK) {
+            EntityUtils.consume(entity);
+            throw new CloudRuntimeException("Failed to get url: " + url + ", status: " + response.getStatusLine());
+        }
+        if (entity == null) {
+            s_logger.debug("Faled to get entity");
+            throw new CloudRuntimeException("Failed to get url: " + url);
+        }
+        return entity.getContent();
+    }
+
+    private File writeToNfs(InputStream in, NfsTO nfs, String path, String name) throws IOException {
+        String nfsMountPath = getRootDir(nfs.getUrl());
+
+        String filePath = nfsMountPath + File.separator + path;
+        File directory = new File(filePath);
+        if (!directory.exists()) {
+            _storage.mkdirs(filePath);
+        }
+        File destFile = new File(filePath + File.separator + name);
+        FileOutputStream outputStream = new FileOutputStream(destFile);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, len);
+            }
+        } finally {
+            outputStream.close();
+        }
+        return new File(destFile.getAbsolutePath());
+    }
+
     protected Answer registerTemplateOnSwift(DownloadCommand cmd) {
         SwiftTO swiftTO = (SwiftTO)cmd.getDataStore();
         String path = cmd.getInstallPath();
@@ -712,39 +742,44 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
 
         File file = null;
         try {
-            NfsTO nfsCacheStore = (NfsTO)cacheStore;
             String fileName = cmd.getName() + "." + cmd.getFormat().getFileExtension();
-            file = downloadFromUrlToNfs(cmd.getUrl(), nfsCacheStore, path, fileName);
             String container = "T-" + cmd.getId();
-            String swiftPath = SwiftUtil.putObject(swiftTO, file, container, null);
-
-            //put metda file
-            File uniqDir = _storage.createUniqDir();
-            String metaFileName = uniqDir.getAbsolutePath() + File.separator + "template.properties";
-            _storage.create(uniqDir.getAbsolutePath(), "template.properties");
-            File metaFile = new File(metaFileName);
-            FileWriter writer = new FileWriter(metaFile);
-            BufferedWriter bufferWriter = new BufferedWriter(writer);
-            bufferWriter.write("uniquename=" + cmd.getName());
-            bufferWriter.write("\n");
-            bufferWriter.write("filename=" + fileName);
-            bufferWriter.write("\n");
-            bufferWriter.write("size=" + file.length());
-            bufferWriter.close();
-            writer.close();
-
-            SwiftUtil.putObject(swiftTO, metaFile, container, "template.properties");
-            metaFile.delete();
-            uniqDir.delete();
+            String swiftPath = null;
             String md5sum = null;
+            long size = -1;
+
+            // stream the template straight into swift when its length is known up front, so it
+            // never touches the cache store; otherwise stage it on the cache store from the same
+            // response, as swift needs the length before the upload starts
+            HttpClient client = new DefaultHttpClient();
+            HttpResponse response = client.execute(new HttpGet(cmd.getUrl()));
+            long contentLength = response.getEntity() != null ? response.getEntity().getContentLength() : -1;
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            DigestInputStream in = new DigestInputStream(getContent(response, cmd.getUrl()), digest);
             try {
-                md5sum = DigestUtils.md5Hex(new FileInputStream(file));
-            } catch (IOException e) {
-                s_logger.debug("Failed to get md5sum: " + file.getAbsoluteFile());
+                if (contentLength >= 0) {
+                    size = contentLength;
+                    swiftPath = SwiftUtil.putObject(swiftTO, in, size, container, fileName);
+                } else {
+                    file = writeToNfs(in, (NfsTO)cacheStore, path, fileName);
+                    size = file.length();
+                    swiftPath = SwiftUtil.putObject(swiftTO, file, container, null);
+                }
+            } finally {
+                in.close();
             }
+            md5sum = String.format("%032x", new BigInteger(1, digest.digest()));
+
+            //put metda file
+            StringBuilder meta = new StringBuilder();
+            meta.append("uniquename=").append(cmd.getName()).append("\n");
+            meta.append("filename=").append(fileName).append("\n");
+            meta.append("size=").append(size);
+            byte[] metaBytes = meta.toString().getBytes("UTF-8");
+            SwiftUtil.putObject(swiftTO, new ByteArrayInputStream(metaBytes), metaBytes.length, container, "template.properties");
 
             DownloadAnswer answer = new DownloadAnswer(null, 100, null, VMTemplateStorageResourceAssoc.Status.DOWNLOADED,
-                    swiftPath, swiftPath, file.length(), file.length(), md5sum
+                    swiftPath, swiftPath, size, size, md5sum
                     );
             return answer;
         } catch (Exception e) {
@@ -824,6 +859,13 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
         return file.length();
     }
 
+    private void logTransferStats(String operation, CopyCmdAnswer answer) {
+        if (s_logger.isInfoEnabled()) {
+            s_logger.info(operation + ": " + answer.getTransferredBytes() + " bytes in " + answer.getTransferTimeMs() + " ms ("
+                    + answer.getThroughput() / 1024 + " KB/s)");
+        }
+    }
+
     protected Answer copyFromNfsToS3(CopyCommand cmd) {
         final DataTO srcData = cmd.getSrcTO();
         final DataTO destData = cmd.getDestTO();
@@ -859,11 +901,13 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             }
             ImageFormat format = getTemplateFormat(srcFile.getName());
             String key = destData.getPath() + S3Utils.SEPARATOR + srcFile.getName();
+            long start = System.currentTimeMillis();
             if (s3.isMultipartEnabled()){
                 mputFile(s3, srcFile, bucket, key);
             } else{
                 putFile(s3, srcFile, bucket, key);
             }
+            long transferTime = System.currentTimeMillis() - start;
 
             DataTO retObj = null;
             if (destData.getObjectType() == DataObjectType.TEMPLATE) {
@@ -884,7 +928,10 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
                 retObj = newSnapshot;
             }
 
-            return new CopyCmdAnswer(retObj);
+            CopyCmdAnswer answer = new CopyCmdAnswer(retObj);
+            answer.setTransferStats(srcFile.length(), transferTime);
+            logTransferStats("Uploaded " + srcFile.getName() + " to S3", answer);
+            return answer;
         } catch (Exception e) {
             s_logger.error("failed to upload" + srcData.getPath(), e);
             return new CopyCmdAnswer("failed to upload" + srcData.getPath() + e.toString());
@@ -892,61 +939,32 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
     }
 
     String swiftDownload(SwiftTO swift, String container, String rfilename, String lFullPath) {
-        Script command = new Script("/bin/bash", s_logger);
-        command.add("-c");
-        command.add("/usr/bin/python /usr/local/cloud/systemvm/scripts/storage/secondary/swift -A " + swift.getUrl()
-                + " -U " + swift.getAccount() + ":" + swift.getUserName() + " -K " + swift.getKey() + " download "
-                + container + " " + rfilename + " -o " + lFullPath);
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
-        if (result != null) {
-            String errMsg = "swiftDownload failed  err=" + result;
+        try {
+            SwiftUtil.getObject(swift, new File(lFullPath), container + File.separator + rfilename);
+        } catch (CloudRuntimeException e) {
+            String errMsg = "swiftDownload failed  err=" + e.getMessage();
             s_logger.warn(errMsg);
             return errMsg;
         }
-        if (parser.getLines() != null) {
-            String[] lines = parser.getLines().split("\\n");
-            for (String line : lines) {
-                if (line.contains("Errno") || line.contains("failed")) {
-                    String errMsg = "swiftDownload failed , err=" + lines.toString();
-                    s_logger.warn(errMsg);
-                    return errMsg;
-                }
-            }
-        }
         return null;
 
     }
 
     String swiftDownloadContainer(SwiftTO swift, String container, String ldir) {
-        Script command = new Script("/bin/bash", s_logger);
-        command.add("-c");
-        command.add("cd " + ldir + ";/usr/bin/python /usr/local/cloud/systemvm/scripts/storage/secondary/swift -A "
-                + swift.getUrl() + " -U " + swift.getAccount() + ":" + swift.getUserName() + " -K " + swift.getKey()
-                + " download " + container);
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
-        if (result != null) {
-            String errMsg = "swiftDownloadContainer failed  err=" + result;
+        try {
+            for (String object : SwiftUtil.list(swift, container, null)) {
+                SwiftUtil.getObject(swift, new File(ldir + File.separator + object), container + File.separator + object);
+            }
+        } catch (CloudRuntimeException e) {
+            String errMsg = "swiftDownloadContainer failed  err=" + e.getMessage();
             s_logger.warn(errMsg);
             return errMsg;
         }
-        if (parser.getLines() != null) {
-            String[] lines = parser.getLines().split("\\n");
-            for (String line : lines) {
-                if (line.contains("Errno") || line.contains("failed")) {
-                    String errMsg = "swiftDownloadContainer failed , err=" + lines.toString();
-                    s_logger.warn(errMsg);
-                    return errMsg;
-                }
-            }
-        }
         return null;
 
     }
 
     String swiftUpload(SwiftTO swift, String container, String lDir, String lFilename) {
-        long SWIFT_MAX_SIZE = 5L * 1024L * 1024L * 1024L;
         List<String> files = new ArrayList<String>();
         if (lFilename.equals("*")) {
             File dir = new File(lDir);
@@ -961,89 +979,34 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
         }
 
         for (String file : files) {
-            File f = new File(lDir + "/" + file);
-            long size = f.length();
-            Script command = new Script("/bin/bash", s_logger);
-            command.add("-c");
-            if (size <= SWIFT_MAX_SIZE) {
-                command.add("cd " + lDir
-                        + ";/usr/bin/python /usr/local/cloud/systemvm/scripts/storage/secondary/swift -A "
-                        + swift.getUrl() + " -U " + swift.getAccount() + ":" + swift.getUserName() + " -K "
-                        + swift.getKey() + " upload " + container + " " + file);
-            } else {
-                command.add("cd " + lDir
-                        + ";/usr/bin/python /usr/local/cloud/systemvm/scripts/storage/secondary/swift -A "
-                        + swift.getUrl() + " -U " + swift.getAccount() + ":" + swift.getUserName() + " -K "
-                        + swift.getKey() + " upload -S " + SWIFT_MAX_SIZE + " " + container + " " + file);
-            }
-            OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-            String result = command.execute(parser);
-            if (result != null) {
-                String errMsg = "swiftUpload failed , err=" + result;
+            try {
+                SwiftUtil.putObject(swift, new File(lDir + File.separator + file), container, file);
+            } catch (CloudRuntimeException e) {
+                String errMsg = "swiftUpload failed , err=" + e.getMessage();
                 s_logger.warn(errMsg);
                 return errMsg;
             }
-            if (parser.getLines() != null) {
-                String[] lines = parser.getLines().split("\\n");
-                for (String line : lines) {
-                    if (line.contains("Errno") || line.contains("failed")) {
-                        String errMsg = "swiftUpload failed , err=" + lines.toString();
-                        s_logger.warn(errMsg);
-                        return errMsg;
-                    }
-                }
-            }
         }
 
         return null;
     }
 
     String[] swiftList(SwiftTO swift, String container, String rFilename) {
-        Script command = new Script("/bin/bash", s_logger);
-        command.add("-c");
-        command.add("/usr/bin/python /usr/local/cloud/systemvm/scripts/storage/secondary/swift -A " + swift.getUrl()
-                + " -U " + swift.getAccount() + ":" + swift.getUserName() + " -K " + swift.getKey() + " list "
-                + container + " " + rFilename);
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
-        if (result == null && parser.getLines() != null) {
-            String[] lines = parser.getLines().split("\\n");
-            return lines;
-        } else {
-            if (result != null) {
-                String errMsg = "swiftList failed , err=" + result;
-                s_logger.warn(errMsg);
-            } else {
-                String errMsg = "swiftList failed, no lines returns";
-                s_logger.warn(errMsg);
-            }
-        }
-        return null;
+        return SwiftUtil.list(swift, container, rFilename);
     }
 
     String swiftDelete(SwiftTO swift, String container, String object) {
-        Script command = new Script("/bin/bash", s_logger);
-        command.add("-c");
-        command.add("/usr/bin/python /usr/local/cloud/systemvm/scripts/storage/secondary/swift -A " + swift.getUrl()
-                + " -U " + swift.getAccount() + ":" + swift.getUserName() + " -K " + swift.getKey() + " delete "
-                + container + " " + object);
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
-        if (result != null) {
-            String errMsg = "swiftDelete failed , err=" + result;
+        try {
+            if (object == null || object.isEmpty()) {
+                SwiftUtil.deleteContainer(swift, container);
+            } else {
+                SwiftUtil.deleteObject(swift, container + File.separator + object);
+            }
+        } catch (CloudRuntimeException e) {
+            String errMsg = "swiftDelete failed , err=" + e.getMessage();
             s_logger.warn(errMsg);
             return errMsg;
         }
-        if (parser.getLines() != null) {
-            String[] lines = parser.getLines().split("\\n");
-            for (String line : lines) {
-                if (line.contains("Errno") || line.contains("failed")) {
-                    String errMsg = "swiftDelete failed , err=" + lines.toString();
-                    s_logger.warn(errMsg);
-                    return errMsg;
-                }
-            }
-        }
         return null;
     }
 
@@ -1160,46 +1123,24 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             parent += File.separator;
         }
         String absoluteTemplatePath = parent + relativeTemplatePath;
-        MessageDigest digest;
         String checksum = null;
         File f = new File(absoluteTemplatePath);
-        InputStream is = null;
-        byte[] buffer = new byte[8192];
-        int read = 0;
         if (s_logger.isDebugEnabled()) {
             s_logger.debug("parent path " + parent + " relative template path " + relativeTemplatePath);
         }
 
         try {
-            digest = MessageDigest.getInstance("MD5");
-            is = new FileInputStream(f);
-            while ((read = is.read(buffer)) > 0) {
-                digest.update(buffer, 0, read);
-            }
-            byte[] md5sum = digest.digest();
-            BigInteger bigInt = new BigInteger(1, md5sum);
-            checksum = bigInt.toString(16);
+            // served from the sidecar written at download time unless the file changed since
+            checksum = ChecksumCache.getChecksum(f);
+            // keep the historical format, which drops leading zeros
+            checksum = new BigInteger(checksum, 16).toString(16);
             if (s_logger.isDebugEnabled()) {
                 s_logger.debug("Successfully calculated checksum for file " + absoluteTemplatePath + " - " + checksum);
             }
-
         } catch (IOException e) {
             String logMsg = "Unable to process file for MD5 - " + absoluteTemplatePath;
             s_logger.error(logMsg);
             return new Answer(cmd, false, checksum);
-        } catch (NoSuchAlgorithmException e) {
-            return new Answer(cmd, false, checksum);
-        } finally {
-            try {
-                if (is != null) {
-                    is.close();
-                }
-            } catch (IOException e) {
-                if (s_logger.isDebugEnabled()) {
-                    s_logger.debug("Could not close the file " + absoluteTemplatePath);
-                }
-                return new Answer(cmd, false, checksum);
-            }
         }
 
         return new Answer(cmd, true, checksum);
@@ -1400,7 +1341,13 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
         } else if (dstore instanceof SwiftTO) {
             SwiftTO swiftTO = (SwiftTO)dstore;
             String path = obj.getPath();
-            SwiftUtil.deleteObject(swiftTO, path);
+            try {
+                SwiftUtil.deleteObject(swiftTO, path);
+            } catch (CloudRuntimeException e) {
+                String errorMessage = "Failed to delete snapshot " + path + " from swift due to " + e.getMessage();
+                s_logger.error(errorMessage, e);
+                return new Answer(cmd, false, errorMessage);
+            }
 
             return new Answer(cmd, true, "Deleted snapshot " + path + " from swift");
         } else {
@@ -1422,28 +1369,25 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
                     continue;
                 }
                 try {
-                    File tempFile = File.createTempFile("template", ".tmp");
-                    File tmpFile = SwiftUtil.getObject(swift, tempFile, container + File.separator + "template.properties");
-                    if (tmpFile == null) {
-                        continue;
-                    }
-                    FileReader fr = new FileReader(tmpFile);
-                    BufferedReader brf = new BufferedReader(fr);
+                    InputStream in = SwiftUtil.getObjectStream(swift, container + File.separator + "template.properties");
+                    BufferedReader brf = new BufferedReader(new InputStreamReader(in, "UTF-8"));
                     String line = null;
                     String uniqName = null;
                     Long size = null;
                     String name = null;
-                    while ((line = brf.readLine()) != null) {
-                        if (line.startsWith("uniquename=")) {
-                            uniqName = line.split("=")[1];
-                        } else if (line.startsWith("size=")) {
-                            size = Long.parseLong(line.split("=")[1]);
-                        } else if (line.startsWith("filename=")) {
-                            name = line.split("=")[1];
+                    try {
+                        while ((line = brf.readLine()) != null) {
+                            if (line.startsWith("uniquename=")) {
+                                uniqName = line.split("=")[1];
+                            } else if (line.startsWith("size=")) {
+                                size = Long.parseLong(line.split("=")[1]);
+                            } else if (line.startsWith("filename=")) {
+                                name = line.split("=")[1];
+                            }
                         }
+                    } finally {
+                        brf.close();
                     }
-                    brf.close();
-                    tempFile.delete();
                     if (uniqName != null) {
                         TemplateProp prop = new TemplateProp(uniqName, container + File.separator + name, size, size, true, false);
                         tmpltInfos.put(uniqName, prop);
@@ -1520,7 +1464,14 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
             return new ListTemplateAnswer(secUrl, templateInfos);
         } else if (store instanceof SwiftTO) {
             SwiftTO swift = (SwiftTO) store;
-            Map<String, TemplateProp> templateInfos = swiftListTemplate(swift);
+            Map<String, TemplateProp> templateInfos;
+            try {
+                templateInfos = swiftListTemplate(swift);
+            } catch (CloudRuntimeException e) {
+                // an empty list would read as every template being gone from the store
+                s_logger.warn("Failed to list templates on swift " + swift.getUrl() + ": " + e.getMessage());
+                return new Answer(cmd, false, e.getMessage());
+            }
             return new ListTemplateAnswer(swift.toString(), templateInfos);
         } else if (store instanceof S3TO) {
             S3TO s3 = (S3TO) store;
@@ -2013,6 +1964,16 @@ public class NfsSecondaryStorageResource extends ServerResourceBase implements S
         String value = (String) params.get("scripts.timeout");
         _timeout = NumbersUtil.parseInt(value, 1440) * 1000;
 
+        // segment size is given in MB
+        long swiftSegmentSize = NumbersUtil.parseLong((String) params.get("swift.segment.size"), 0) * 1024L * 1024L;
+        int swiftThreads = NumbersUtil.parseInt((String) params.get("swift.transfer.threads"), 0);
+        SwiftUtil.setTransferOptions(swiftSegmentSize, swiftThreads);
+
+        // part size is given in MB
+        long s3PartSize = NumbersUtil.parseLong((String) params.get("s3.transfer.part.size"), 0) * 1024L * 1024L;
+        int s3Threads = NumbersUtil.parseInt((String) params.get("s3.transfer.threads"), 0);
+        S3Utils.setTransferOptions(s3PartSize, s3Threads);
+
         _storage = (StorageLayer) params.get(StorageLayer.InstanceConfigKey);
         configureStorageLayerClass(params);
 
@@ -18,14 +18,9 @@ package org.apache.cloudstack.storage.template;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -59,6 +54,8 @@ import com.cloud.storage.Storage.ImageFormat;
 import com.cloud.storage.StorageLayer;
 import com.cloud.storage.VMTemplateHostVO;
 import com.cloud.storage.VMTemplateStorageResourceAssoc;
+import com.cloud.storage.template.ChecksumCache;
+import com.cloud.storage.template.DownloadCheckpoint;
 import com.cloud.storage.template.HttpTemplateDownloader;
 import com.cloud.storage.template.IsoProcessor;
 import com.cloud.storage.template.LocalTemplateDownloader;
@@ -193,7 +190,10 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         public void cleanup() {
             if (td != null) {
                 String dnldPath = td.getDownloadLocalPath();
-                if (dnldPath != null) {
+                if (dnldPath != null && DownloadCheckpoint.checkpointFor(dnldPath).exists()) {
+                    // keep the partial download so that the next attempt can resume it
+                    s_logger.info("Keeping partial download " + dnldPath + " for resume");
+                } else if (dnldPath != null) {
                     File f = new File(dnldPath);
                     File dir = f.getParentFile();
                     f.delete();
@@ -240,6 +240,8 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
     private String listVolScr;
     private int installTimeoutPerGig = 180 * 60 * 1000;
     private boolean _sslCopy;
+    private int _httpDownloadConnections = HttpTemplateDownloader.DEFAULT_CONNECTIONS;
+    private long _httpDownloadSegmentSize = HttpTemplateDownloader.DEFAULT_SEGMENT_SIZE;
 
     public void setThreadPool(ExecutorService threadPool) {
         this.threadPool = threadPool;
@@ -320,32 +322,10 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
     }
 
     private String computeCheckSum(File f) {
-        byte[] buffer = new byte[8192];
-        int read = 0;
-        MessageDigest digest;
-        String checksum = null;
-        InputStream is = null;
         try {
-            digest = MessageDigest.getInstance("MD5");
-            is = new FileInputStream(f);
-            while ((read = is.read(buffer)) > 0) {
-                digest.update(buffer, 0, read);
-            }
-            byte[] md5sum = digest.digest();
-            BigInteger bigInt = new BigInteger(1, md5sum);
-            checksum = String.format("%032x", bigInt);
-            return checksum;
+            return ChecksumCache.compute(f);
         } catch (IOException e) {
             return null;
-        } catch (NoSuchAlgorithmException e) {
-            return null;
-        } finally {
-            try {
-                if (is != null)
-                    is.close();
-            } catch (IOException e) {
-                return null;
-            }
         }
     }
 
@@ -382,7 +362,16 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         */
 
         File originalTemplate = new File(td.getDownloadLocalPath());
-        String checkSum = computeCheckSum(originalTemplate);
+        long originalSize = originalTemplate.length();
+        long originalModified = originalTemplate.lastModified();
+        String checkSum = null;
+        if (td instanceof HttpTemplateDownloader) {
+            // already digested while the file was being written
+            checkSum = ((HttpTemplateDownloader)td).getChecksum();
+        }
+        if (checkSum == null) {
+            checkSum = computeCheckSum(originalTemplate);
+        }
         if (checkSum == null) {
             s_logger.warn("Something wrong happened when try to calculate the checksum of downloaded template!");
         }
@@ -436,6 +425,16 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         File downloadedTemplate = new File(resourcePath + "/" + templateFilename);
         _storage.setWorldReadableAndWriteable(downloadedTemplate);
 
+        // the install script only moves plain images into place, in which case the
+        // checksum taken during download still describes the installed file.  A
+        // converted or copied image has another size or mtime, or leaves the
+        // download behind, and is digested again the first time its checksum is
+        // asked for.
+        boolean moved = downloadedTemplate.getAbsolutePath().equals(originalTemplate.getAbsolutePath()) || !originalTemplate.exists();
+        if (checkSum != null && moved && downloadedTemplate.length() == originalSize && downloadedTemplate.lastModified() == originalModified) {
+            ChecksumCache.record(downloadedTemplate, checkSum);
+        }
+
         // Set permissions for template/volume.properties
         String propertiesFile = resourcePath;
         if (resourceType == ResourceType.TEMPLATE) {
@@ -560,8 +559,11 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
             TemplateDownloader td;
             if ((uri != null) && (uri.getScheme() != null)) {
                 if (uri.getScheme().equalsIgnoreCase("http") || uri.getScheme().equalsIgnoreCase("https")) {
-                    td = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes, user, password, proxy,
-                            resourceType);
+                    HttpTemplateDownloader httpDownloader = new HttpTemplateDownloader(_storage, url, tmpDir, new Completion(jobId), maxTemplateSizeInBytes,
+                            user, password, proxy, resourceType);
+                    httpDownloader.setConnections(_httpDownloadConnections);
+                    httpDownloader.setSegmentSize(_httpDownloadSegmentSize);
+                    td = httpDownloader;
                 } else if (uri.getScheme().equalsIgnoreCase("file")) {
                     td = new LocalTemplateDownloader(_storage, url, tmpDir, maxTemplateSizeInBytes, new Completion(jobId));
                 } else if (uri.getScheme().equalsIgnoreCase("scp")) {
@@ -838,6 +840,9 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
             }
 
             TemplateProp tInfo = loc.getTemplateInfo();
+            // only what is cached for the file at this path, the template itself is never read here
+            String installPath = tInfo.getInstallPath();
+            tInfo.setChecksum(ChecksumCache.lookup(new File(path, installPath.substring(installPath.lastIndexOf(File.separator) + 1))));
 
 			if ((tInfo.getSize() == tInfo.getPhysicalSize())
 					&& (tInfo.getInstallPath().endsWith(ImageFormat.OVA.getFileExtension()))) {
@@ -1019,6 +1024,16 @@ public class DownloadManagerImpl extends ManagerBase implements DownloadManager
         value = (String) params.get("install.timeout.pergig");
         installTimeoutPerGig = NumbersUtil.parseInt(value, 15 * 60) * 1000;
 
+        value = (String) params.get("download.http.connections");
+        _httpDownloadConnections = NumbersUtil.parseInt(value, HttpTemplateDownloader.DEFAULT_CONNECTIONS);
+
+        value = (String) params.get("download.http.segment.size");
+        _httpDownloadSegmentSize = NumbersUtil.parseLong(value, HttpTemplateDownloader.DEFAULT_SEGMENT_SIZE / (1024 * 1024)) * 1024 * 1024;
+        if (_httpDownloadSegmentSize < HttpTemplateDownloader.MIN_SEGMENT_SIZE) {
+            s_logger.warn("Invalid download.http.segment.size " + value + ", using the default of " + HttpTemplateDownloader.DEFAULT_SEGMENT_SIZE / (1024 * 1024) + " MB");
+            _httpDownloadSegmentSize = HttpTemplateDownloader.DEFAULT_SEGMENT_SIZE;
+        }
+
         value = (String) params.get("install.numthreads");
         final int numInstallThreads = NumbersUtil.parseInt(value, 10);
 
@@ -0,0 +1,412 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.test.stress;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+
+import com.cloud.test.stress.ApiMix.Operation;
+import com.cloud.test.utils.ApiClient;
+import com.cloud.utils.LatencyHistogram;
+
+/**
+ * Open loop load benchmark of the management server API, meant to run against
+ * a management server with the simulator (ideally with
+ * simulator.inmemory.state on) so that the numbers are those of the management
+ * server and its database rather than of a hypervisor.
+ *
+ * Calls are picked from an API mix (see ApiMix) and started at the target
+ * rate whether or not earlier ones completed, latencies are counted from the
+ * time a call was due so that a saturated server shows up as latency instead
+ * of as a lower request rate. Async commands are timed until their job
+ * completes.
+ *
+ * With -db, every operation of the mix is first run a few times on its own to
+ * count the SQL statements it costs, from the Questions counter of MySQL. With
+ * -jmx, the time async jobs spent queued in the management server is read
+ * from its AsyncJobManager Monitor MBean after the run.
+ *
+ * The report is JSON, written to stdout or to the -o file.
+ *
+ * Usage: ApiLoadBenchmark -h localhost:8080 [-k apikey -s secretkey] -mix file
+ *            [-rate calls/s] [-d seconds] [-w warmup seconds] [-t threads]
+ *            [-var name=value]... [-db jdbcurl -dbuser user -dbpassword password [-calibrate n]]
+ *            [-jmx host:port] [-o report.json]
+ */
+public class ApiLoadBenchmark {
+    public static final Logger s_logger = Logger.getLogger(ApiLoadBenchmark.class);
+
+    private static final long POLL_INTERVAL = 250;
+    private static final long JOB_TIMEOUT = 10 * 60 * 1000;
+    private static final String MONITOR_MBEAN = "com.cloud:type=AsyncJobManager, name=Monitor";
+
+    private static ApiClient client;
+    private static ApiMix mix;
+
+    private static final Map<String, LatencyHistogram> stats = new TreeMap<String, LatencyHistogram>();
+    private static final Map<String, AtomicLong> failed = new TreeMap<String, AtomicLong>();
+    private static final Map<String, AtomicLong> skipped = new TreeMap<String, AtomicLong>();
+    private static volatile boolean measuring;
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost:8080";
+        String apiKey = null;
+        String secretKey = null;
+        String mixFile = null;
+        double rate = 10;
+        int duration = 60;
+        int warmup = 10;
+        int numThreads = 100;
+        String dbUrl = null;
+        String dbUser = "cloud";
+        String dbPassword = "cloud";
+        int calibrate = 5;
+        String jmx = null;
+        String output = null;
+        Map<String, String> variables = new HashMap<String, String>();
+
+        Iterator<String> iter = Arrays.asList(args).iterator();
+        while (iter.hasNext()) {
+            String arg = iter.next();
+            if (arg.equals("-h")) {
+                host = iter.next();
+            } else if (arg.equals("-k")) {
+                apiKey = iter.next();
+            } else if (arg.equals("-s")) {
+                secretKey = iter.next();
+            } else if (arg.equals("-mix")) {
+                mixFile = iter.next();
+            } else if (arg.equals("-rate")) {
+                rate = Double.parseDouble(iter.next());
+            } else if (arg.equals("-d")) {
+                duration = Integer.parseInt(iter.next());
+            } else if (arg.equals("-w")) {
+                warmup = Integer.parseInt(iter.next());
+            } else if (arg.equals("-t")) {
+                numThreads = Integer.parseInt(iter.next());
+            } else if (arg.equals("-var")) {
+                String[] var = iter.next().split("=", 2);
+                variables.put(var[0], var.length > 1 ? var[1] : "");
+            } else if (arg.equals("-db")) {
+                dbUrl = iter.next();
+            } else if (arg.equals("-dbuser")) {
+                dbUser = iter.next();
+            } else if (arg.equals("-dbpassword")) {
+                dbPassword = iter.next();
+            } else if (arg.equals("-calibrate")) {
+                calibrate = Integer.parseInt(iter.next());
+            } else if (arg.equals("-jmx")) {
+                jmx = iter.next();
+            } else if (arg.equals("-o")) {
+                output = iter.next();
+            }
+        }
+
+        if (mixFile == null || rate <= 0 || duration <= 0) {
+            System.out.println("Usage: ApiLoadBenchmark -h host:port [-k apikey -s secretkey] -mix file [-rate calls/s] [-d seconds] [-w warmup seconds]"
+                    + " [-t threads] [-var name=value]... [-db jdbcurl -dbuser user -dbpassword password [-calibrate n]] [-jmx host:port] [-o report.json]");
+            System.exit(1);
+        }
+
+        FileReader reader = new FileReader(mixFile);
+        try {
+            mix = ApiMix.parse(reader, variables);
+        } finally {
+            reader.close();
+        }
+        client = new ApiClient("http://" + host + "/client/api", apiKey, secretKey, numThreads);
+
+        Map<String, Double> queries = null;
+        if (dbUrl != null) {
+            queries = countQueries(dbUrl, dbUser, dbPassword, calibrate);
+        }
+
+        JMXConnector jmxConnector = null;
+        MBeanServerConnection mbeanServer = null;
+        if (jmx != null) {
+            jmxConnector = JMXConnectorFactory.connect(new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + jmx + "/jmxrmi"));
+            mbeanServer = jmxConnector.getMBeanServerConnection();
+        }
+
+        s_logger.info("Warming up for " + warmup + " s");
+        run(rate, warmup * 1000L, numThreads);
+
+        if (mbeanServer != null) {
+            mbeanServer.invoke(new ObjectName(MONITOR_MBEAN), "resetQueueTimes", null, null);
+        }
+        s_logger.info("Running " + rate + " calls/s for " + duration + " s");
+        measuring = true;
+        long elapsed = run(rate, duration * 1000L, numThreads);
+        measuring = false;
+
+        String[] queueTimes = null;
+        if (mbeanServer != null) {
+            queueTimes = (String[])mbeanServer.getAttribute(new ObjectName(MONITOR_MBEAN), "QueueTimes");
+            jmxConnector.close();
+        }
+
+        Writer writer = output != null ? new FileWriter(output) : new PrintWriter(System.out);
+        try {
+            writeReport(writer, rate, elapsed, queries, queueTimes);
+        } finally {
+            writer.flush();
+            if (output != null) {
+                writer.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts calls at the given rate for the given time and waits for them
+     * to complete.
+     *
+     * @return the time until the last call completed, in ms
+     */
+    private static long run(double rate, long durationMs, int numThreads) throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        Random random = new Random();
+        long intervalNs = (long)(1000000000L / rate);
+        long start = System.nanoTime();
+        long end = start + durationMs * 1000000L;
+        long backlogWarned = 0;
+
+        for (long due = start; due < end; due += intervalNs) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+
+            final long dueMs = System.currentTimeMillis() - (System.nanoTime() - due) / 1000000L;
+            final Operation op = mix.pick(random);
+            final Map<String, String> params = mix.resolve(op, random);
+            if (params == null) {
+                count(skipped, op.getCommand());
+                continue;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    call(op, params, dueMs);
+                }
+            });
+
+            if (executor.getQueue().size() > numThreads && System.currentTimeMillis() - backlogWarned > 10000) {
+                s_logger.warn(executor.getQueue().size() + " calls are waiting for a thread, latencies include that wait; use more threads (-t)");
+                backlogWarned = System.currentTimeMillis();
+            }
+        }
+
+        shutdown(executor);
+        return Math.max(1, (System.nanoTime() - start) / 1000000L);
+    }
+
+    private static Document call(Operation op, Map<String, String> params, long dueMs) {
+        try {
+            Document result = op.isAsync() ? client.executeAndWait(op.getCommand(), params, POLL_INTERVAL, JOB_TIMEOUT) : client.execute(op.getCommand(), params);
+            if (measuring) {
+                getStats(op.getCommand()).record(System.currentTimeMillis() - dueMs);
+            }
+            mix.save(op, result);
+            return result;
+        } catch (Exception e) {
+            if (measuring) {
+                getStats(op.getCommand());
+                count(failed, op.getCommand());
+            }
+            s_logger.debug(op.getCommand() + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Runs every operation of the mix on its own and counts the statements
+     * the database executed meanwhile. The counter is server wide, so the
+     * background activity of an idle management server, measured first, is
+     * subtracted from it.
+     *
+     * @return the average number of statements per call, by command
+     */
+    private static Map<String, Double> countQueries(String dbUrl, String dbUser, String dbPassword, int calls) throws SQLException, InterruptedException {
+        Map<String, Double> queries = new TreeMap<String, Double>();
+        Connection conn = DriverManager.getConnection(dbUrl, dbUser, dbPassword);
+        try {
+            Random random = new Random();
+            long before = getQuestions(conn);
+            long idleStart = System.currentTimeMillis();
+            Thread.sleep(5000);
+            // the SHOW STATUS statements count themselves
+            double idleRate = (double)(getQuestions(conn) - before - 1) / (System.currentTimeMillis() - idleStart);
+
+            for (Operation op : mix.getOperations()) {
+                int done = 0;
+                long statements = 0;
+                for (int i = 0; i < calls; i++) {
+                    Map<String, String> params = mix.resolve(op, random);
+                    if (params == null) {
+                        break;
+                    }
+                    long start = System.currentTimeMillis();
+                    before = getQuestions(conn);
+                    if (call(op, params, start) == null) {
+                        continue;
+                    }
+                    statements += getQuestions(conn) - before - 1 - Math.round(idleRate * (System.currentTimeMillis() - start));
+                    done++;
+                }
+                if (done > 0) {
+                    queries.put(op.getCommand(), Math.max(0, (double)statements / done));
+                } else {
+                    s_logger.warn("Unable to count the statements of " + op.getCommand() + ", none of its calls succeeded");
+                }
+            }
+        } finally {
+            conn.close();
+        }
+        return queries;
+    }
+
+    private static long getQuestions(Connection conn) throws SQLException {
+        Statement stmt = conn.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery("SHOW GLOBAL STATUS LIKE 'Questions'");
+            return rs.next() ? rs.getLong(2) : 0;
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static void writeReport(Writer writer, double rate, long elapsed, Map<String, Double> queries, String[] queueTimes) throws IOException {
+        long total = 0;
+        long failures = 0;
+        StringBuilder apis = new StringBuilder();
+        synchronized (stats) {
+            for (Map.Entry<String, LatencyHistogram> entry : stats.entrySet()) {
+                String command = entry.getKey();
+                LatencyHistogram stat = entry.getValue();
+                AtomicLong fails = failed.get(command);
+                total += stat.getCount();
+                failures += fails != null ? fails.get() : 0;
+                if (apis.length() > 0) {
+                    apis.append(",\n");
+                }
+                apis.append("    \"").append(command).append("\": {");
+                apis.append("\"calls\": ").append(stat.getCount());
+                apis.append(", \"failures\": ").append(fails != null ? fails.get() : 0);
+                apis.append(", \"throughput\": ").append(format(stat.getCount() * 1000.0 / elapsed));
+                apis.append(", \"meanMs\": ").append(stat.getAverageMs());
+                apis.append(", \"p50Ms\": ").append(stat.getPercentileMs(50));
+                apis.append(", \"p99Ms\": ").append(stat.getPercentileMs(99));
+                apis.append(", \"maxMs\": ").append(stat.getMaxMs());
+                if (queries != null && queries.containsKey(command)) {
+                    apis.append(", \"dbQueries\": ").append(format(queries.get(command)));
+                }
+                AtomicLong skips = skipped.get(command);
+                if (skips != null) {
+                    apis.append(", \"skipped\": ").append(skips.get());
+                }
+                apis.append("}");
+            }
+        }
+
+        writer.write("{\n");
+        writer.write("  \"targetRate\": " + format(rate) + ",\n");
+        writer.write("  \"elapsedMs\": " + elapsed + ",\n");
+        writer.write("  \"calls\": " + total + ",\n");
+        writer.write("  \"failures\": " + failures + ",\n");
+        writer.write("  \"throughput\": " + format(total * 1000.0 / elapsed) + ",\n");
+        writer.write("  \"apis\": {\n" + apis + "\n  }");
+        if (queueTimes != null) {
+            writer.write(",\n  \"jobQueueTimes\": {");
+            for (int i = 0; i < queueTimes.length; i++) {
+                // "<command> count=.. avg=.. p50=.. p99=.. max=.."
+                String[] fields = queueTimes[i].split(" ");
+                writer.write((i > 0 ? "," : "") + "\n    \"" + fields[0] + "\": {");
+                for (int j = 1; j < fields.length; j++) {
+                    String[] kv = fields[j].split("=", 2);
+                    writer.write((j > 1 ? ", " : "") + "\"" + kv[0] + "\": " + kv[1]);
+                }
+                writer.write("}");
+            }
+            writer.write("\n  }");
+        }
+        writer.write("\n}\n");
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.2f", value);
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    private static void count(Map<String, AtomicLong> counters, String command) {
+        if (!measuring) {
+            return;
+        }
+        synchronized (stats) {
+            AtomicLong counter = counters.get(command);
+            if (counter == null) {
+                counter = new AtomicLong();
+                counters.put(command, counter);
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    private static LatencyHistogram getStats(String command) {
+        synchronized (stats) {
+            LatencyHistogram stat = stats.get(command);
+            if (stat == null) {
+                stat = new LatencyHistogram();
+                stats.put(command, stat);
+            }
+            return stat;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.test.stress;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.cloud.test.utils.ApiClient;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * A weighted mix of API calls read from a file with one operation per line:
+ *
+ *   command [weight=N] [async=true] [save=pool[:element]] [consume=true] param=value...
+ *
+ * Parameter values may reference ${name}, which is replaced by a variable
+ * given on the command line or, failing that, by a random id from the pool of
+ * that name. Operations with save= add the id of their result to a pool, from
+ * the first id of the response or from every given element of it; those with
+ * consume=true take the ids they use out of their pools. ${seq} expands to a
+ * number unique within the run. Lines starting with # are comments.
+ */
+public class ApiMix {
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private final List<Operation> _operations = new ArrayList<Operation>();
+    private final Map<String, List<String>> _pools = new HashMap<String, List<String>>();
+    private final Map<String, String> _variables;
+    private final AtomicLong _seq = new AtomicLong();
+    private int _totalWeight;
+
+    public static class Operation {
+        private final String _command;
+        private final Map<String, String> _params = new LinkedHashMap<String, String>();
+        private int _weight = 1;
+        private boolean _async;
+        private boolean _consume;
+        private String _savePool;
+        private String _saveElement;
+
+        Operation(String command) {
+            _command = command;
+        }
+
+        public String getCommand() {
+            return _command;
+        }
+
+        public int getWeight() {
+            return _weight;
+        }
+
+        public boolean isAsync() {
+            return _async;
+        }
+
+        public Map<String, String> getParams() {
+            return Collections.unmodifiableMap(_params);
+        }
+    }
+
+    public ApiMix(Map<String, String> variables) {
+        _variables = new HashMap<String, String>(variables);
+    }
+
+    public static ApiMix parse(Reader reader, Map<String, String> variables) throws IOException {
+        ApiMix mix = new ApiMix(variables);
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        int lineNo = 0;
+        while ((line = in.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] tokens = line.split("\\s+");
+            Operation op = new Operation(tokens[0]);
+            for (int i = 1; i < tokens.length; i++) {
+                int eq = tokens[i].indexOf('=');
+                if (eq <= 0) {
+                    throw new CloudRuntimeException("Invalid parameter '" + tokens[i] + "' at line " + lineNo);
+                }
+                String key = tokens[i].substring(0, eq);
+                String value = tokens[i].substring(eq + 1);
+                if (key.equals("weight")) {
+                    op._weight = Integer.parseInt(value);
+                } else if (key.equals("async")) {
+                    op._async = Boolean.parseBoolean(value);
+                } else if (key.equals("consume")) {
+                    op._consume = Boolean.parseBoolean(value);
+                } else if (key.equals("save")) {
+                    int colon = value.indexOf(':');
+                    op._savePool = colon > 0 ? value.substring(0, colon) : value;
+                    op._saveElement = colon > 0 ? value.substring(colon + 1) : null;
+                } else {
+                    op._params.put(key, value);
+                }
+            }
+            if (op._weight <= 0) {
+                throw new CloudRuntimeException("Weight of " + op._command + " at line " + lineNo + " must be positive");
+            }
+            mix._operations.add(op);
+            mix._totalWeight += op._weight;
+        }
+
+        if (mix._operations.isEmpty()) {
+            throw new CloudRuntimeException("The API mix has no operations");
+        }
+        return mix;
+    }
+
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(_operations);
+    }
+
+    public Operation pick(Random random) {
+        int n = random.nextInt(_totalWeight);
+        for (Operation op : _operations) {
+            n -= op._weight;
+            if (n < 0) {
+                return op;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * @return the parameters of this call with every placeholder replaced, null
+     *         if it needs an id from a pool that is empty
+     */
+    public Map<String, String> resolve(Operation op, Random random) {
+        Map<String, String> params = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : op._params.entrySet()) {
+            Matcher matcher = PLACEHOLDER.matcher(entry.getValue());
+            StringBuffer value = new StringBuffer();
+            while (matcher.find()) {
+                String name = matcher.group(1);
+                String replacement;
+                if (name.equals("seq")) {
+                    replacement = String.valueOf(_seq.incrementAndGet());
+                } else if (_variables.containsKey(name)) {
+                    replacement = _variables.get(name);
+                } else {
+                    replacement = take(name, random, op._consume);
+                    if (replacement == null) {
+                        return null;
+                    }
+                }
+                matcher.appendReplacement(value, Matcher.quoteReplacement(replacement));
+            }
+            matcher.appendTail(value);
+            params.put(entry.getKey(), value.toString());
+        }
+        return params;
+    }
+
+    /**
+     * Adds the ids of a successful call to the pool of its operation.
+     */
+    public void save(Operation op, Document result) {
+        if (op._savePool == null || result == null) {
+            return;
+        }
+
+        List<String> ids = new ArrayList<String>();
+        if (op._saveElement == null) {
+            String id = ApiClient.getValue(result.getDocumentElement(), "id");
+            if (id != null) {
+                ids.add(id);
+            }
+        } else {
+            NodeList elements = result.getElementsByTagName(op._saveElement);
+            for (int i = 0; i < elements.getLength(); i++) {
+                String id = ApiClient.getValue((Element)elements.item(i), "id");
+                if (id != null) {
+                    ids.add(id);
+                }
+            }
+        }
+        addToPool(op._savePool, ids);
+    }
+
+    public synchronized void addToPool(String pool, List<String> ids) {
+        List<String> members = _pools.get(pool);
+        if (members == null) {
+            members = new ArrayList<String>();
+            _pools.put(pool, members);
+        }
+        for (String id : ids) {
+            if (!members.contains(id)) {
+                members.add(id);
+            }
+        }
+    }
+
+    public synchronized int getPoolSize(String pool) {
+        List<String> members = _pools.get(pool);
+        return members != null ? members.size() : 0;
+    }
+
+    private synchronized String take(String pool, Random random, boolean remove) {
+        List<String> members = _pools.get(pool);
+        if (members == null || members.isEmpty()) {
+            return null;
+        }
+        int index = random.nextInt(members.size());
+        return remove ? members.remove(index) : members.get(index);
+    }
+}
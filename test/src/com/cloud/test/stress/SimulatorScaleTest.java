@@ -0,0 +1,273 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.test.stress;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.cloud.test.utils.ApiClient;
+import com.cloud.utils.LatencyHistogram;
+
+/**
+ * Scale run against a management server whose simulator keeps its state in
+ * memory (simulator.inmemory.state). Adds the given number of simulator hosts,
+ * deploys VMs on them, migrates part of them and stops them all, recording how
+ * long the management server takes for every call and async job.
+ *
+ * Usage: SimulatorScaleTest -h localhost:8080 [-k apikey -s secretkey]
+ *            -z zoneid -pod podid -c clusterid[,clusterid...] -n hosts -v vms
+ *            -so serviceofferingid -tmpl templateid [-net networkid]
+ *            [-m migrations] [-t threads]
+ */
+public class SimulatorScaleTest {
+    public static final Logger s_logger = Logger.getLogger(SimulatorScaleTest.class);
+
+    private static final long POLL_INTERVAL = 250;
+    private static final long JOB_TIMEOUT = 30 * 60 * 1000;
+
+    private static String zoneId;
+    private static String podId;
+    private static String[] clusterIds;
+    private static String serviceOfferingId;
+    private static String templateId;
+    private static String networkId;
+    private static int numHosts = 0;
+    private static int numVms = 0;
+    private static int numMigrations = 0;
+    private static int numThreads = 50;
+
+    private static ApiClient client;
+    private static final Map<String, LatencyHistogram> stats = Collections.synchronizedMap(new HashMap<String, LatencyHistogram>());
+    private static final Map<String, AtomicLong> failures = new HashMap<String, AtomicLong>();
+
+    public static void main(String[] args) {
+        String host = "localhost:8080";
+        String apiKey = null;
+        String secretKey = null;
+
+        Iterator<String> iter = Arrays.asList(args).iterator();
+        while (iter.hasNext()) {
+            String arg = iter.next();
+            if (arg.equals("-h")) {
+                host = iter.next();
+            } else if (arg.equals("-k")) {
+                apiKey = iter.next();
+            } else if (arg.equals("-s")) {
+                secretKey = iter.next();
+            } else if (arg.equals("-z")) {
+                zoneId = iter.next();
+            } else if (arg.equals("-pod")) {
+                podId = iter.next();
+            } else if (arg.equals("-c")) {
+                clusterIds = iter.next().split(",");
+            } else if (arg.equals("-n")) {
+                numHosts = Integer.parseInt(iter.next());
+            } else if (arg.equals("-v")) {
+                numVms = Integer.parseInt(iter.next());
+            } else if (arg.equals("-m")) {
+                numMigrations = Integer.parseInt(iter.next());
+            } else if (arg.equals("-t")) {
+                numThreads = Integer.parseInt(iter.next());
+            } else if (arg.equals("-so")) {
+                serviceOfferingId = iter.next();
+            } else if (arg.equals("-tmpl")) {
+                templateId = iter.next();
+            } else if (arg.equals("-net")) {
+                networkId = iter.next();
+            }
+        }
+
+        if (zoneId == null || (numHosts > 0 && (podId == null || clusterIds == null)) || (numVms > 0 && (serviceOfferingId == null || templateId == null))) {
+            System.out.println("Usage: SimulatorScaleTest -h host:port [-k apikey -s secretkey] -z zoneid -pod podid -c clusterid[,clusterid...] -n hosts -v vms"
+                    + " -so serviceofferingid -tmpl templateid [-net networkid] [-m migrations] [-t threads]");
+            System.exit(1);
+        }
+
+        client = new ApiClient("http://" + host + "/client/api", apiKey, secretKey, numThreads * 2);
+        s_logger.info("Starting scale run against " + host + ": " + numHosts + " hosts, " + numVms + " VMs, " + numMigrations + " migrations, " + numThreads + " threads");
+
+        try {
+            addHosts();
+            List<String> vmIds = deployVms();
+            migrateVms(vmIds.subList(0, Math.min(numMigrations, vmIds.size())));
+            stopVms(vmIds);
+        } catch (Exception e) {
+            s_logger.error("Scale run failed", e);
+        }
+
+        synchronized (stats) {
+            for (Map.Entry<String, LatencyHistogram> entry : stats.entrySet()) {
+                AtomicLong failed = failures.get(entry.getKey());
+                s_logger.info(entry.getKey() + ": " + entry.getValue() + " failed=" + (failed != null ? failed.get() : 0));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void addHosts() throws InterruptedException {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < numHosts; i++) {
+            final Map<String, String> params = new HashMap<String, String>();
+            String clusterId = clusterIds[i % clusterIds.length];
+            params.put("zoneid", zoneId);
+            params.put("podid", podId);
+            params.put("clusterid", clusterId);
+            params.put("hypervisor", "Simulator");
+            params.put("url", "http://sim/c" + clusterId + "/h" + i);
+            params.put("username", "root");
+            params.put("password", "password");
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    call("addHost", params, false);
+                }
+            });
+        }
+        runPhase("addHost", tasks);
+    }
+
+    private static List<String> deployVms() throws InterruptedException {
+        final List<String> vmIds = Collections.synchronizedList(new ArrayList<String>());
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        long run = System.currentTimeMillis() / 1000;
+        for (int i = 0; i < numVms; i++) {
+            final Map<String, String> params = new HashMap<String, String>();
+            params.put("zoneid", zoneId);
+            params.put("serviceofferingid", serviceOfferingId);
+            params.put("templateid", templateId);
+            params.put("networkids", networkId);
+            params.put("name", "scale-" + run + "-" + i);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    Document result = call("deployVirtualMachine", params, true);
+                    if (result != null) {
+                        Element vm = (Element)result.getElementsByTagName("virtualmachine").item(0);
+                        if (vm != null) {
+                            vmIds.add(ApiClient.getValue(vm, "id"));
+                        }
+                    }
+                }
+            });
+        }
+        runPhase("deployVirtualMachine", tasks);
+        return vmIds;
+    }
+
+    private static void migrateVms(List<String> vmIds) throws InterruptedException {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final String vmId : vmIds) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    Map<String, String> params = new HashMap<String, String>();
+                    params.put("virtualmachineid", vmId);
+                    Document hosts = call("findHostsForMigration", params, false);
+                    if (hosts == null) {
+                        return;
+                    }
+                    NodeList candidates = hosts.getElementsByTagName("host");
+                    if (candidates.getLength() == 0) {
+                        s_logger.info("No host to migrate VM " + vmId + " to");
+                        return;
+                    }
+                    params.put("hostid", ApiClient.getValue((Element)candidates.item(0), "id"));
+                    call("migrateVirtualMachine", params, true);
+                }
+            });
+        }
+        runPhase("migrateVirtualMachine", tasks);
+    }
+
+    private static void stopVms(List<String> vmIds) throws InterruptedException {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (String vmId : vmIds) {
+            final Map<String, String> params = new HashMap<String, String>();
+            params.put("id", vmId);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    call("stopVirtualMachine", params, true);
+                }
+            });
+        }
+        runPhase("stopVirtualMachine", tasks);
+    }
+
+    private static void runPhase(String name, List<Runnable> tasks) throws InterruptedException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        s_logger.info("Running " + tasks.size() + " " + name + " operations");
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        for (Runnable task : tasks) {
+            executor.execute(task);
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        s_logger.info(name + " phase: " + tasks.size() + " operations in " + elapsed + " ms, " + (tasks.size() * 1000L / elapsed) + " per second");
+    }
+
+    /**
+     * @return the response, or the job result of async commands, null on failure
+     */
+    private static Document call(String command, Map<String, String> params, boolean async) {
+        LatencyHistogram stat = getStats(command);
+        long start = System.currentTimeMillis();
+        try {
+            Document result = async ? client.executeAndWait(command, params, POLL_INTERVAL, JOB_TIMEOUT) : client.execute(command, params);
+            stat.record(System.currentTimeMillis() - start);
+            return result;
+        } catch (Exception e) {
+            synchronized (stats) {
+                failures.get(command).incrementAndGet();
+            }
+            s_logger.warn(command + " failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static LatencyHistogram getStats(String command) {
+        synchronized (stats) {
+            LatencyHistogram stat = stats.get(command);
+            if (stat == null) {
+                stat = new LatencyHistogram();
+                stats.put(command, stat);
+                failures.put(command, new AtomicLong());
+            }
+            return stat;
+        }
+    }
+}
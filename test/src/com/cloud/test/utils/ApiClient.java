@@ -0,0 +1,189 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.test.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Minimal thread safe client of the management server API for the load tools.
+ * Requests are signed with the given keys, without keys they are sent as they
+ * are, which only works against the integration port.
+ */
+public class ApiClient {
+    public static final int JOB_IN_PROGRESS = 0;
+    public static final int JOB_SUCCEEDED = 1;
+    public static final int JOB_FAILED = 2;
+
+    private final String _url;
+    private final String _apiKey;
+    private final String _secretKey;
+    private final HttpClient _client;
+    private final DocumentBuilderFactory _factory = DocumentBuilderFactory.newInstance();
+
+    /**
+     * @param url e.g. http://localhost:8080/client/api
+     * @param maxConnections concurrent requests the client allows
+     */
+    public ApiClient(String url, String apiKey, String secretKey, int maxConnections) {
+        _url = url;
+        _apiKey = apiKey;
+        _secretKey = secretKey;
+
+        MultiThreadedHttpConnectionManager mgr = new MultiThreadedHttpConnectionManager();
+        mgr.getParams().setDefaultMaxConnectionsPerHost(maxConnections);
+        mgr.getParams().setMaxTotalConnections(maxConnections);
+        _client = new HttpClient(mgr);
+    }
+
+    public String buildUrl(String command, Map<String, String> params) {
+        // the signature is computed over the sorted, encoded and lower cased parameters
+        Map<String, String> sorted = new TreeMap<String, String>();
+        if (params != null) {
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                if (param.getValue() != null) {
+                    sorted.put(param.getKey().toLowerCase(), param.getValue());
+                }
+            }
+        }
+        sorted.put("command", command);
+        if (_apiKey != null) {
+            sorted.put("apikey", _apiKey);
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (Map.Entry<String, String> param : sorted.entrySet()) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(param.getKey()).append('=').append(encode(param.getValue()));
+        }
+
+        StringBuilder url = new StringBuilder(_url).append('?').append(query);
+        if (_apiKey != null && _secretKey != null) {
+            url.append("&signature=").append(encode(UtilsForTest.signRequest(query.toString().toLowerCase(), _secretKey)));
+        }
+        return url.toString();
+    }
+
+    /**
+     * @return the response document
+     * @throws CloudRuntimeException when the server answers with an error
+     */
+    public Document execute(String command, Map<String, String> params) throws IOException {
+        GetMethod method = new GetMethod(buildUrl(command, params));
+        try {
+            int responseCode = _client.executeMethod(method);
+            InputStream is = method.getResponseBodyAsStream();
+            Document doc = parse(is);
+            if (responseCode != 200) {
+                String error = doc != null ? getValue(doc.getDocumentElement(), "errortext") : null;
+                throw new CloudRuntimeException(command + " failed with " + responseCode + (error != null ? ": " + error : ""));
+            }
+            return doc;
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Submits an async command and polls until its job completes.
+     *
+     * @return the queryAsyncJobResult response of the completed job
+     * @throws CloudRuntimeException when the job fails or does not complete in time
+     */
+    public Document executeAndWait(String command, Map<String, String> params, long pollInterval, long timeout) throws IOException {
+        Document submitted = execute(command, params);
+        String jobId = getValue(submitted.getDocumentElement(), "jobid");
+        if (jobId == null) {
+            throw new CloudRuntimeException(command + " did not return a job id");
+        }
+        return waitForJob(jobId, pollInterval, timeout);
+    }
+
+    public Document waitForJob(String jobId, long pollInterval, long timeout) throws IOException {
+        Map<String, String> params = new TreeMap<String, String>();
+        params.put("jobid", jobId);
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            Document result = execute("queryAsyncJobResult", params);
+            String status = getValue(result.getDocumentElement(), "jobstatus");
+            if (status != null && Integer.parseInt(status) == JOB_SUCCEEDED) {
+                return result;
+            }
+            if (status != null && Integer.parseInt(status) == JOB_FAILED) {
+                throw new CloudRuntimeException("job " + jobId + " failed: " + getValue(result.getDocumentElement(), "errortext"));
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new CloudRuntimeException("job " + jobId + " did not complete in " + timeout + " ms");
+            }
+            try {
+                Thread.sleep(pollInterval);
+            } catch (InterruptedException e) {
+                throw new CloudRuntimeException("interrupted while waiting for job " + jobId);
+            }
+        }
+    }
+
+    /**
+     * @return the text of the first element with this tag name, null if there is none
+     */
+    public static String getValue(Element root, String tagName) {
+        NodeList nodes = root.getElementsByTagName(tagName);
+        return nodes.getLength() > 0 ? nodes.item(0).getTextContent() : null;
+    }
+
+    private Document parse(InputStream is) {
+        if (is == null) {
+            return null;
+        }
+        try {
+            // neither the factory nor its builders are thread safe
+            DocumentBuilder builder;
+            synchronized (_factory) {
+                builder = _factory.newDocumentBuilder();
+            }
+            return builder.parse(is);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replaceAll("\\+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new CloudRuntimeException("UTF-8 is not supported", e);
+        }
+    }
+}
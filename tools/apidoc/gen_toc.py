@@ -150,6 +150,7 @@ known_categories = {
     'listSecondaryStagingStores': 'Image Store',
     'InternalLoadBalancer': 'Internal LB',
 	'DeploymentPlanners': 'Configuration',
+    'DbStatistics': 'Configuration',
     'PortableIp': 'Portable IP',
     'dedicateHost': 'Dedicate Resources',
     'releaseDedicatedHost': 'Dedicate Resources',
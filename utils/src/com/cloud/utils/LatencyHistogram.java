@@ -0,0 +1,115 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies in ms with fixed, roughly logarithmic,
+ * buckets. Cheap enough to be updated on every call, percentiles are
+ * therefore only as precise as the bucket they fall into.
+ */
+public class LatencyHistogram {
+    // upper bounds of the buckets, the last bucket takes everything above
+    private static final long[] BOUNDS = new long[] { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    public void record(long ms) {
+        if (ms < 0) {
+            ms = 0;
+        }
+        _buckets.incrementAndGet(bucketOf(ms));
+        _count.incrementAndGet();
+        _total.addAndGet(ms);
+        long max = _max.get();
+        while (ms > max && !_max.compareAndSet(max, ms)) {
+            max = _max.get();
+        }
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getTotalMs() {
+        return _total.get();
+    }
+
+    public long getAverageMs() {
+        long count = _count.get();
+        return count > 0 ? _total.get() / count : 0;
+    }
+
+    public long getMaxMs() {
+        return _max.get();
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the upper bound of the bucket the percentile falls into, capped
+     *         by the largest latency seen, 0 when nothing was recorded
+     */
+    public long getPercentileMs(double percentile) {
+        long[] buckets = new long[_buckets.length()];
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = _buckets.get(i);
+            count += buckets[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long)Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && buckets[i] > 0) {
+                return i < BOUNDS.length ? Math.min(BOUNDS[i], getMaxMs()) : getMaxMs();
+            }
+        }
+        return getMaxMs();
+    }
+
+    public void reset() {
+        for (int i = 0; i < _buckets.length(); i++) {
+            _buckets.set(i, 0);
+        }
+        _count.set(0);
+        _total.set(0);
+        _max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " avg=" + getAverageMs() + " p50=" + getPercentileMs(50) + " p99=" + getPercentileMs(99) + " max=" + getMaxMs();
+    }
+
+    private static int bucketOf(long ms) {
+        for (int i = 0; i < BOUNDS.length; i++) {
+            if (ms <= BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BOUNDS.length;
+    }
+}
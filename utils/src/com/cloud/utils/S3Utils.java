@@ -38,12 +38,27 @@ import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 
@@ -63,8 +78,10 @@ import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
 import com.amazonaws.services.s3.transfer.Upload;
 
+import com.cloud.utils.concurrency.NamedThreadFactory;
 import com.cloud.utils.exception.CloudRuntimeException;
 
 public final class S3Utils {
@@ -76,12 +93,120 @@ public final class S3Utils {
     private static final int MIN_BUCKET_NAME_LENGTH = 3;
     private static final int MAX_BUCKET_NAME_LENGTH = 63;
 
+    public static final long MIN_PART_SIZE = 5L * 1024L * 1024L;
+    public static final long DEFAULT_PART_SIZE = 32L * 1024L * 1024L;
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_RANGE_ATTEMPTS = 3;
+
+    // AmazonS3Client and TransferManager are thread safe and expensive to build, so
+    // one of each is kept per distinct set of client options
+    private static final ConcurrentHashMap<String, AmazonS3> s_clients = new ConcurrentHashMap<String, AmazonS3>();
+    private static final ConcurrentHashMap<String, TransferManager> s_transferManagers = new ConcurrentHashMap<String, TransferManager>();
+
+    private static volatile long s_partSize = DEFAULT_PART_SIZE;
+    private static volatile int s_concurrency = DEFAULT_CONCURRENCY;
+    private static volatile ThreadPoolExecutor s_transferExecutor;
+
     private S3Utils() {
         super();
     }
 
+    /**
+     * Sets the multipart part size, which is also the size of the ranges fetched in
+     * parallel on download, and the number of concurrent connections per transfer.
+     */
+    public static synchronized void setTransferOptions(final long partSize, final int concurrency) {
+
+        final long newPartSize = partSize >= MIN_PART_SIZE ? partSize : s_partSize;
+        final int newConcurrency = concurrency > 0 ? concurrency : s_concurrency;
+        if (newPartSize == s_partSize && newConcurrency == s_concurrency) {
+            return;
+        }
+
+        s_partSize = newPartSize;
+        s_concurrency = newConcurrency;
+
+        // transfer managers capture the executor and part size, rebuild them lazily
+        s_transferManagers.clear();
+        if (s_transferExecutor != null) {
+            s_transferExecutor.shutdown();
+            s_transferExecutor = null;
+        }
+
+        LOGGER.info(format("S3 transfers use a part size of %1$s bytes and %2$s concurrent connections",
+                s_partSize, s_concurrency));
+
+    }
+
+    public static long getPartSize() {
+        return s_partSize;
+    }
+
+    public static int getConcurrency() {
+        return s_concurrency;
+    }
+
+    private static synchronized ThreadPoolExecutor getTransferExecutor() {
+        if (s_transferExecutor == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(s_concurrency, s_concurrency, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("S3Transfer"));
+            executor.allowCoreThreadTimeOut(true);
+            s_transferExecutor = executor;
+        }
+        return s_transferExecutor;
+    }
+
+    private static String getClientKey(final ClientOptions clientOptions) {
+        return join("|", clientOptions.getAccessKey(), DigestUtils.md5Hex(String.valueOf(clientOptions.getSecretKey())),
+                clientOptions.getEndPoint(), clientOptions.isHttps(), clientOptions.getConnectionTimeout(),
+                clientOptions.getMaxErrorRetry(), clientOptions.getSocketTimeout());
+    }
+
+    /**
+     * Returns a client for the passed options, shared with every other caller
+     * using the same options.
+     */
     public static AmazonS3 acquireClient(final ClientOptions clientOptions) {
 
+        final String key = getClientKey(clientOptions);
+        AmazonS3 client = s_clients.get(key);
+        if (client == null) {
+            final AmazonS3 newClient = createClient(clientOptions);
+            client = s_clients.putIfAbsent(key, newClient);
+            if (client == null) {
+                client = newClient;
+            }
+        }
+        return client;
+
+    }
+
+    /**
+     * Returns the transfer manager shared by every caller using the same options.
+     */
+    public static TransferManager acquireTransferManager(final ClientOptions clientOptions) {
+
+        final String key = getClientKey(clientOptions);
+        TransferManager tm = s_transferManagers.get(key);
+        if (tm == null) {
+            final TransferManager newTm = new TransferManager(acquireClient(clientOptions), getTransferExecutor());
+            final TransferManagerConfiguration configuration = new TransferManagerConfiguration();
+            configuration.setMinimumUploadPartSize(s_partSize);
+            configuration.setMultipartUploadThreshold((int)Math.min(Integer.MAX_VALUE, s_partSize));
+            newTm.setConfiguration(configuration);
+            tm = s_transferManagers.putIfAbsent(key, newTm);
+            if (tm == null) {
+                tm = newTm;
+            }
+        }
+        return tm;
+
+    }
+
+    private static AmazonS3 createClient(final ClientOptions clientOptions) {
+
         final AWSCredentials credentials = new BasicAWSCredentials(
                 clientOptions.getAccessKey(), clientOptions.getSecretKey());
 
@@ -105,6 +230,8 @@ public final class S3Utils {
             configuration.setSocketTimeout(clientOptions.getSocketTimeout());
         }
 
+        configuration.setMaxConnections(Math.max(configuration.getMaxConnections(), s_concurrency * 2));
+
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(format(
                     "Creating S3 client with configuration: [protocol: %1$s, connectionTimeOut: "
@@ -188,7 +315,7 @@ public final class S3Utils {
             LOGGER.debug(format("Multipart sending file %1$s as S3 object %2$s in "
                     + "bucket %3$s", sourceFile.getName(), key, bucketName));
         }
-        TransferManager tm = new TransferManager(S3Utils.acquireClient(clientOptions));
+        TransferManager tm = acquireTransferManager(clientOptions);
         Upload upload = tm.upload(bucketName, key, sourceFile);
         upload.waitForCompletion();
     }
@@ -206,7 +333,7 @@ public final class S3Utils {
             LOGGER.debug(format("Multipart sending stream as S3 object %1$s in "
                     + "bucket %2$s", key, bucketName));
         }
-        TransferManager tm = new TransferManager(S3Utils.acquireClient(clientOptions));
+        TransferManager tm = acquireTransferManager(clientOptions);
         Upload upload = tm.upload(bucketName, key, sourceStream, null);
         upload.waitForCompletion();
     }
@@ -221,7 +348,7 @@ public final class S3Utils {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Multipart sending object to S3 using PutObjectRequest");
         }       
-        TransferManager tm = new TransferManager(S3Utils.acquireClient(clientOptions));
+        TransferManager tm = acquireTransferManager(clientOptions);
         Upload upload = tm.upload(req);
         upload.waitForCompletion();
 
@@ -292,13 +419,18 @@ public final class S3Utils {
                         key, bucketName, tempFile.getName()));
             }
 
-            try {
-                connection.getObject(new GetObjectRequest(bucketName, key), tempFile);
-            } catch (AmazonClientException ex) {
-                // hack to handle different ETAG format generated from RiakCS for multi-part uploaded object
-                String msg = ex.getMessage();
-                if (!msg.contains("verify integrity")){
-                    throw ex;
+            final ObjectMetadata metadata = connection.getObjectMetadata(bucketName, key);
+            if (metadata.getContentLength() > s_partSize && s_concurrency > 1) {
+                getRanges(connection, bucketName, key, tempFile, metadata);
+            } else {
+                try {
+                    connection.getObject(new GetObjectRequest(bucketName, key), tempFile);
+                } catch (AmazonClientException ex) {
+                    // hack to handle different ETAG format generated from RiakCS for multi-part uploaded object
+                    String msg = ex.getMessage();
+                    if (!msg.contains("verify integrity")){
+                        throw ex;
+                    }
                 }
             }
 
@@ -333,6 +465,157 @@ public final class S3Utils {
 
     }
 
+    /**
+     * Downloads the object with parallel ranged GETs written positionally into a
+     * preallocated file. When the etag is a plain MD5 the parts are digested in
+     * order as soon as they land, so verification overlaps the remaining transfer.
+     */
+    static void getRanges(final AmazonS3 connection, final String bucketName, final String key,
+            final File targetFile, final ObjectMetadata metadata) throws IOException {
+
+        final long length = metadata.getContentLength();
+        final long partSize = s_partSize;
+        final int count = (int)((length + partSize - 1) / partSize);
+        final String etag = metadata.getETag();
+        final MessageDigest digest = etag != null && etag.matches("[0-9a-fA-F]{32}") ? md5() : null;
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug(format("Downloading object %1$s from bucket %2$s as %3$s ranges of %4$s bytes",
+                    key, bucketName, count, partSize));
+        }
+
+        final RandomAccessFile file = new RandomAccessFile(targetFile, "rw");
+        final List<Future<Long>> futures = new ArrayList<Future<Long>>(count);
+        try {
+            file.setLength(length);
+            final FileChannel channel = file.getChannel();
+            final ExecutorService executor = getTransferExecutor();
+            for (int i = 0; i < count; i++) {
+                final long start = i * partSize;
+                final long end = Math.min(length, start + partSize) - 1;
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return getRange(connection, bucketName, key, channel, start, end);
+                    }
+                }));
+            }
+
+            final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            for (int i = 0; i < count; i++) {
+                waitFor(futures.get(i));
+                if (digest != null) {
+                    long position = i * partSize;
+                    final long end = Math.min(length, position + partSize);
+                    while (position < end) {
+                        buffer.clear();
+                        buffer.limit((int)Math.min(buffer.capacity(), end - position));
+                        final int read = channel.read(buffer, position);
+                        if (read < 0) {
+                            throw new IOException("Unexpected end of " + targetFile + " at " + position);
+                        }
+                        digest.update(buffer.array(), 0, read);
+                        position += read;
+                    }
+                }
+            }
+
+            if (digest != null) {
+                final String md5 = new String(Hex.encodeHex(digest.digest()));
+                if (!md5.equalsIgnoreCase(etag)) {
+                    throw new CloudRuntimeException(format("Checksum of object %1$s in bucket %2$s does not match: expected %3$s, got %4$s",
+                            key, bucketName, etag, md5));
+                }
+            }
+        } finally {
+            for (final Future<Long> future : futures) {
+                future.cancel(true);
+            }
+            file.close();
+        }
+
+    }
+
+    /**
+     * Fetches bytes start to end (inclusive) of the object into the channel. A request that
+     * fails or ends early is resumed from what was already written; every such request
+     * counts as an attempt, so a server that keeps returning nothing cannot stall the
+     * download.
+     */
+    static long getRange(final AmazonS3 connection, final String bucketName, final String key,
+            final FileChannel channel, final long start, final long end) throws IOException {
+
+        long position = start;
+        int attempt = 0;
+        final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        while (position <= end) {
+            final long requested = position;
+            final GetObjectRequest request = new GetObjectRequest(bucketName, key);
+            request.setRange(position, end);
+            IOException failure = null;
+            try {
+                final S3Object object = connection.getObject(request);
+                final InputStream in = object.getObjectContent();
+                try {
+                    final long contentLength = object.getObjectMetadata().getContentLength();
+                    if (contentLength != end - requested + 1) {
+                        throw new CloudRuntimeException(format("Range %1$s-%2$s of object %3$s in bucket %4$s returned %5$s bytes",
+                                requested, end, key, bucketName, contentLength));
+                    }
+
+                    int read;
+                    while (position <= end && (read = in.read(buffer, 0, (int)Math.min(buffer.length, end - position + 1))) != -1) {
+                        final ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+                        while (bb.hasRemaining()) {
+                            position += channel.write(bb, position);
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+
+            if (position <= end) {
+                // resume the range from what was already written
+                if (++attempt > MAX_RANGE_ATTEMPTS) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    throw new IOException(format("Range %1$s-%2$s of object %3$s ended at %4$s after %5$s attempts",
+                            start, end, key, position, attempt));
+                }
+                LOGGER.warn(format("Retrying range %1$s-%2$s of object %3$s after %4$s of %5$s bytes: %6$s", position, end, key,
+                        position - requested, end - requested + 1, failure != null ? failure.getMessage() : "end of stream"));
+            }
+        }
+        return position - start;
+
+    }
+
+    private static <T> T waitFor(final Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted while waiting for S3 transfer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new CloudRuntimeException("S3 transfer failed", e.getCause());
+        }
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("MD5 is not available", e);
+        }
+    }
+
     public static List<File> getDirectory(final ClientOptions clientOptions,
             final String bucketName, final String sourcePath,
             final File targetDirectory, final FileNamingStrategy namingStrategy) {
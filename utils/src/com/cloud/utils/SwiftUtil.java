@@ -18,19 +18,21 @@
  */
 package com.cloud.utils;
 
-import com.cloud.utils.exception.CloudRuntimeException;
-import com.cloud.utils.script.OutputInterpreter;
-import com.cloud.utils.script.Script;
-import org.apache.log4j.Logger;
-
 import java.io.File;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.log4j.Logger;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.swift.SwiftClient;
 
 public class SwiftUtil {
     private static Logger logger = Logger.getLogger(SwiftUtil.class);
-    private static long SWIFT_MAX_SIZE = 5L * 1024L * 1024L * 1024L;
+    private static volatile long s_segmentSize = SwiftClient.DEFAULT_SEGMENT_SIZE;
+    private static volatile int s_concurrency = SwiftClient.DEFAULT_CONCURRENCY;
+
     public interface SwiftClientCfg {
         String getAccount();
         String getUserName();
@@ -38,123 +40,69 @@ public class SwiftUtil {
         String getEndPoint();
     }
 
-    private static String getSwiftCLIPath() {
-        String swiftCLI = Script.findScript("scripts/storage/secondary", "swift");
-        if (swiftCLI == null) {
-            logger.debug("Can't find swift cli at scripts/storage/secondary/swift");
-            throw new CloudRuntimeException("Can't find swift cli at scripts/storage/secondary/swift");
+    /**
+     * Sets the segment size and the number of parallel connections used for
+     * large object uploads and downloads.
+     */
+    public static void setTransferOptions(long segmentSize, int concurrency) {
+        if (segmentSize > 0 && segmentSize <= SwiftClient.MAX_OBJECT_SIZE) {
+            s_segmentSize = segmentSize;
+        }
+        if (concurrency > 0) {
+            s_concurrency = concurrency;
         }
-        return swiftCLI;
+    }
+
+    private static SwiftClient getClient(SwiftClientCfg cfg) {
+        SwiftClient client = new SwiftClient(cfg);
+        client.setSegmentSize(s_segmentSize);
+        client.setConcurrency(s_concurrency);
+        return client;
     }
 
     public static boolean postMeta(SwiftClientCfg cfg, String container, String object, Map<String, String> metas) {
-        String swiftCli = getSwiftCLIPath();
-        StringBuilder cms = new StringBuilder();
-        for(Map.Entry<String, String> entry : metas.entrySet()) {
-            cms.append(" -m ");
-            cms.append(entry.getKey());
-            cms.append(":");
-            cms.append(entry.getValue());
-            cms.append(" ");
-        }
-        Script command = new Script("/bin/bash", logger);
-        command.add("-c");
-        command.add("/usr/bin/python " + swiftCli + " -A "
-                + cfg.getEndPoint() + " -U " + cfg.getAccount() + ":" + cfg.getUserName() + " -K "
-                + cfg.getKey() + " post " + container + " " + object + " " + cms.toString());
-        OutputInterpreter.OneLineParser parser = new OutputInterpreter.OneLineParser();
-        String result = command.execute(parser);
-        if (result != null) {
-            throw new CloudRuntimeException("Failed to post meta" + result);
-        }
+        getClient(cfg).postMeta(container, object, metas);
         return true;
     }
 
     public static String putObject(SwiftClientCfg cfg, File srcFile, String container, String fileName) {
-        String swiftCli = getSwiftCLIPath();
         if (fileName == null) {
             fileName = srcFile.getName();
         }
-        String srcDirectory = srcFile.getParent();
-        Script command = new Script("/bin/bash", logger);
-        long size = srcFile.length();
-        command.add("-c");
-        if (size <= SWIFT_MAX_SIZE) {
-            command.add("cd " + srcDirectory
-                    + ";/usr/bin/python " + swiftCli + " -A "
-                    + cfg.getEndPoint() + " -U " + cfg.getAccount() + ":" + cfg.getUserName() + " -K "
-                    + cfg.getKey() + " upload " + container + " " + fileName);
-        } else {
-            command.add("cd " + srcDirectory
-                    + ";/usr/bin/python " + swiftCli + " -A "
-                    + cfg.getEndPoint() + " -U " + cfg.getAccount() + ":" + cfg.getUserName() + " -K "
-                    + cfg.getKey() + " upload -S " + SWIFT_MAX_SIZE + " " + container + " " + fileName);
-        }
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
-        if (result != null) {
-            throw new CloudRuntimeException("Failed to upload file: " + result);
-        }
-
-        if (parser.getLines() != null) {
-            String[] lines = parser.getLines().split("\\n");
-            for (String line : lines) {
-                if (line.contains("Errno") || line.contains("failed") || line.contains("not found")) {
-                    throw new CloudRuntimeException("Failed to upload file: " + lines.toString());
-                }
-            }
+        try {
+            getClient(cfg).putObject(container, fileName, srcFile);
+        } catch (CloudRuntimeException e) {
+            logger.debug("Failed to upload " + srcFile.getAbsolutePath() + " to swift: " + e.getMessage());
+            throw new CloudRuntimeException("Failed to upload file: " + e.getMessage(), e);
         }
-
-        return container + File.separator + srcFile.getName();
+        return container + File.separator + fileName;
     }
 
-    private static StringBuilder buildSwiftCmd(SwiftClientCfg swift) {
-        String swiftCli = getSwiftCLIPath();
-        StringBuilder sb = new StringBuilder();
-        sb.append(" /usr/bin/python ");
-        sb.append(swiftCli);
-        sb.append(" -A ");
-        sb.append(swift.getEndPoint());
-        sb.append(" -U ");
-        sb.append(swift.getAccount());
-        sb.append(":");
-        sb.append(swift.getUserName());
-        sb.append(" -K ");
-        sb.append(swift.getKey());
-        sb.append(" ");
-        return sb;
+    /**
+     * Uploads length bytes of the stream without staging them in a local file.
+     */
+    public static String putObject(SwiftClientCfg cfg, InputStream in, long length, String container, String fileName) {
+        try {
+            getClient(cfg).putObject(container, fileName, in, length);
+        } catch (CloudRuntimeException e) {
+            logger.debug("Failed to upload stream to swift " + container + File.separator + fileName + ": " + e.getMessage());
+            throw new CloudRuntimeException("Failed to upload file: " + e.getMessage(), e);
+        }
+        return container + File.separator + fileName;
     }
 
+    /**
+     * @return the matching names, empty if there are none; a failed listing throws rather
+     * than reading as an empty container
+     */
     public static String[] list(SwiftClientCfg swift, String container, String rFilename) {
-        String swiftCli = getSwiftCLIPath();
-        Script command = new Script("/bin/bash", logger);
-        command.add("-c");
-
-        StringBuilder swiftCmdBuilder = buildSwiftCmd(swift);
-        swiftCmdBuilder.append(" list ");
-        swiftCmdBuilder.append(container);
-
-        if (rFilename != null) {
-            swiftCmdBuilder.append(" -p ");
-            swiftCmdBuilder.append(rFilename);
+        try {
+            List<String> names = getClient(swift).list(container, rFilename);
+            return names.toArray(new String[names.size()]);
+        } catch (CloudRuntimeException e) {
+            logger.debug("swiftList failed , err=" + e.getMessage());
+            throw new CloudRuntimeException("Failed to list " + container + ": " + e.getMessage(), e);
         }
-
-        command.add(swiftCmdBuilder.toString());
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
-        if (result == null && parser.getLines() != null && !parser.getLines().equalsIgnoreCase("")) {
-            String[] lines = parser.getLines().split("\\n");
-            return lines;
-        } else {
-            if (result != null) {
-                String errMsg = "swiftList failed , err=" + result;
-                logger.debug("Failed to list " + errMsg);
-            } else {
-                String errMsg = "swiftList failed, no lines returns";
-                logger.debug("Failed to list " + errMsg);
-            }
-        }
-        return new String[0];
     }
 
     public static File getObject(SwiftClientCfg cfg, File destDirectory, String swiftPath) {
@@ -167,30 +115,23 @@ public class SwiftUtil {
         } else {
             destFilePath = destDirectory.getAbsolutePath();
         }
-        String swiftCli = getSwiftCLIPath();
-        Script command = new Script("/bin/bash", logger);
-        command.add("-c");
-        command.add("/usr/bin/python " + swiftCli + " -A " + cfg.getEndPoint()
-                + " -U " + cfg.getAccount() + ":" + cfg.getUserName() + " -K " + cfg.getKey() + " download "
-                + container + " " + srcPath + " -o " + destFilePath);
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
-        if (result != null) {
-            String errMsg = "swiftDownload failed  err=" + result;
-            logger.debug(errMsg);
-            throw new CloudRuntimeException("failed to get object: " + swiftPath);
+        try {
+            return getClient(cfg).getObject(container, srcPath, new File(destFilePath));
+        } catch (CloudRuntimeException e) {
+            logger.debug("swiftDownload failed  err=" + e.getMessage());
+            throw new CloudRuntimeException("failed to get object: " + swiftPath, e);
         }
-        if (parser.getLines() != null) {
-            String[] lines = parser.getLines().split("\\n");
-            for (String line : lines) {
-                if (line.contains("Errno") || line.contains("failed")) {
-                    String errMsg = "swiftDownload failed , err=" + lines.toString();
-                    logger.debug(errMsg);
-                    throw new CloudRuntimeException("Failed to get object: " + swiftPath);
-                }
-            }
+    }
+
+    /**
+     * Opens a stream on the object; the caller must close it.
+     */
+    public static InputStream getObjectStream(SwiftClientCfg cfg, String swiftPath) {
+        String[] paths = splitSwiftPath(swiftPath);
+        if (paths == null) {
+            throw new CloudRuntimeException("Invalid swift path: " + swiftPath);
         }
-        return new File(destFilePath);
+        return getClient(cfg).getObjectStream(paths[0], paths[1]);
     }
 
     public static String getContainerName(String type, Long id) {
@@ -216,9 +157,6 @@ public class SwiftUtil {
     }
 
     public static boolean deleteObject(SwiftClientCfg cfg, String path) {
-        Script command = new Script("/bin/bash", logger);
-        command.add("-c");
-
         String[] paths = splitSwiftPath(path);
         if (paths == null) {
             return false;
@@ -226,16 +164,19 @@ public class SwiftUtil {
         String container = paths[0];
         String objectName = paths[1];
 
-        StringBuilder swiftCmdBuilder = buildSwiftCmd(cfg);
-        swiftCmdBuilder.append(" delete ");
-        swiftCmdBuilder.append(container);
-        swiftCmdBuilder.append(" ");
-        swiftCmdBuilder.append(objectName);
-
-
-        command.add(swiftCmdBuilder.toString());
-        OutputInterpreter.AllLinesParser parser = new OutputInterpreter.AllLinesParser();
-        String result = command.execute(parser);
+        try {
+            getClient(cfg).deleteObject(container, objectName);
+        } catch (CloudRuntimeException e) {
+            logger.debug("Failed to delete swift object " + path + ": " + e.getMessage());
+            throw new CloudRuntimeException("Failed to delete " + path + ": " + e.getMessage(), e);
+        }
         return true;
     }
+
+    /**
+     * Deletes every object in the container, including large object segments, and then the container.
+     */
+    public static void deleteContainer(SwiftClientCfg cfg, String container) {
+        getClient(cfg).deleteContainer(container);
+    }
 }
@@ -0,0 +1,67 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.concurrency;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tells a cache whether a value it loaded raced with an invalidation.
+ *
+ * Read the generation before loading, invalidate after every change, and
+ * only keep the loaded value if isCurrent() still holds afterwards. The key
+ * narrows invalidations down, e.g. to one storage pool; invalidateAll()
+ * makes every generation read so far stale.
+ */
+public class GenerationGuard<K> {
+    private final AtomicLong _all = new AtomicLong();
+    private final ConcurrentHashMap<K, AtomicLong> _keys = new ConcurrentHashMap<K, AtomicLong>();
+
+    public long get() {
+        return _all.get();
+    }
+
+    public long get(K key) {
+        // both counters only grow, so their sum changes whenever either does
+        AtomicLong counter = _keys.get(key);
+        return _all.get() + (counter != null ? counter.get() : 0);
+    }
+
+    public boolean isCurrent(long generation) {
+        return generation == get();
+    }
+
+    public boolean isCurrent(K key, long generation) {
+        return generation == get(key);
+    }
+
+    public void invalidate(K key) {
+        AtomicLong counter = _keys.get(key);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = _keys.putIfAbsent(key, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    public void invalidateAll() {
+        _all.incrementAndGet();
+    }
+}
@@ -0,0 +1,148 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.net;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Tracks which host addresses of an IPv4 cidr are in use with one bit per
+ * address, so a /16 costs 8 KB instead of a set of 65k boxed Longs. The
+ * range covers the same addresses as NetUtils.getAllIpsFromCidr: everything
+ * between the network and the broadcast address.
+ */
+public class IpAddressBitmap {
+    private static final int RANDOM_PROBES = 8;
+
+    private final long _first;
+    private final int _size;
+    private final BitSet _used;
+    private int _usedCount;
+
+    public IpAddressBitmap(long first, long last) {
+        _first = first;
+        _size = last < first ? 0 : (int)(last - first + 1);
+        _used = new BitSet(_size);
+    }
+
+    /**
+     * @param cidr any address in the network, e.g. "10.1.0.0"
+     * @param size the prefix length, e.g. 16
+     */
+    public static IpAddressBitmap fromCidr(String cidr, long size) {
+        assert (size < 32) : "You do know this is not for ipv6 right?  Keep it smaller than 32 but you have " + size;
+        long mask = NetUtils.ip2Long(NetUtils.getCidrNetmask(size));
+        long network = NetUtils.ip2Long(cidr) & mask;
+        long broadcast = network | (~mask & 0xffffffffL);
+        return new IpAddressBitmap(network + 1, broadcast - 1);
+    }
+
+    public int getSize() {
+        return _size;
+    }
+
+    public int getFreeCount() {
+        return _size - _usedCount;
+    }
+
+    public boolean contains(long ip) {
+        return ip >= _first && ip - _first < _size;
+    }
+
+    public boolean isFree(long ip) {
+        return contains(ip) && !_used.get(index(ip));
+    }
+
+    /**
+     * @return true if the address is in range and was not already marked
+     */
+    public boolean markUsed(long ip) {
+        if (!contains(ip)) {
+            return false;
+        }
+        int index = index(ip);
+        if (_used.get(index)) {
+            return false;
+        }
+        _used.set(index);
+        _usedCount++;
+        return true;
+    }
+
+    public boolean markUsed(String ip) {
+        return markUsed(NetUtils.ip2Long(ip));
+    }
+
+    public void release(long ip) {
+        if (contains(ip) && _used.get(index(ip))) {
+            _used.clear(index(ip));
+            _usedCount--;
+        }
+    }
+
+    /**
+     * @return the first free address at or after the given one, wrapping
+     *         around at the end of the range, or -1 if the range is full
+     */
+    public long nextFree(long from) {
+        if (getFreeCount() == 0) {
+            return -1;
+        }
+        int start = contains(from) ? index(from) : 0;
+        int index = _used.nextClearBit(start);
+        if (index >= _size) {
+            index = _used.nextClearBit(0);
+        }
+        return index < _size ? _first + index : -1;
+    }
+
+    /**
+     * @return a free address picked at random, or -1 if the range is full.
+     *         A few random probes are tried first; when the range is nearly
+     *         full the next free address after a random start is used, so
+     *         the cost stays bounded either way.
+     */
+    public long randomFree(Random random) {
+        if (getFreeCount() == 0) {
+            return -1;
+        }
+        for (int i = 0; i < RANDOM_PROBES; i++) {
+            int index = random.nextInt(_size);
+            if (!_used.get(index)) {
+                return _first + index;
+            }
+        }
+        return nextFree(_first + random.nextInt(_size));
+    }
+
+    /**
+     * @return up to max free addresses in ascending order
+     */
+    public Set<Long> listFree(int max) {
+        Set<Long> result = new TreeSet<Long>();
+        for (int index = _used.nextClearBit(0); index < _size && result.size() < max; index = _used.nextClearBit(index + 1)) {
+            result.add(_first + index);
+        }
+        return result;
+    }
+
+    private int index(long ip) {
+        return (int)(ip - _first);
+    }
+}
@@ -0,0 +1,1016 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.swift;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.cloud.utils.NumbersUtil;
+import com.cloud.utils.SwiftUtil.SwiftClientCfg;
+import com.cloud.utils.concurrency.NamedThreadFactory;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+/**
+ * Native Swift object storage client. Talks to the Swift REST API directly
+ * instead of forking the python swift CLI, so uploads and downloads can be
+ * streamed, segmented and run in parallel.
+ *
+ * Both tempauth/swauth (v1.0) and keystone (v2.0) authentication are supported;
+ * an endpoint containing "/v2.0" selects keystone. Tokens are cached per
+ * endpoint/account/user and are refreshed on expiry or on a 401 reply.
+ */
+public class SwiftClient {
+    private static final Logger s_logger = Logger.getLogger(SwiftClient.class);
+
+    public static final long MAX_OBJECT_SIZE = 5L * 1024L * 1024L * 1024L;
+    public static final long DEFAULT_SEGMENT_SIZE = 1024L * 1024L * 1024L;
+    public static final long DEFAULT_RANGE_SIZE = 256L * 1024L * 1024L;
+    public static final int DEFAULT_CONCURRENCY = 4;
+    public static final String SEGMENT_CONTAINER_SUFFIX = "_segments";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LIST_LIMIT = 10000;
+    private static final long DEFAULT_TOKEN_TTL = 60L * 60L * 1000L;
+    private static final long TOKEN_EXPIRY_MARGIN = 60L * 1000L;
+
+    private static final ConcurrentHashMap<String, Token> s_tokens = new ConcurrentHashMap<String, Token>();
+
+    public enum LargeObjectMode {
+        /** X-Object-Manifest prefix manifest, compatible with the swift CLI */
+        Dynamic,
+        /** multipart-manifest=put, segments are pinned by etag */
+        Static
+    }
+
+    private final SwiftClientCfg _cfg;
+    private final String _tokenKey;
+    private long _segmentSize = DEFAULT_SEGMENT_SIZE;
+    private long _rangeSize = DEFAULT_RANGE_SIZE;
+    private int _concurrency = DEFAULT_CONCURRENCY;
+    private LargeObjectMode _largeObjectMode = LargeObjectMode.Dynamic;
+    private int _connectTimeout = 60 * 1000;
+    private int _readTimeout = 10 * 60 * 1000;
+
+    public SwiftClient(SwiftClientCfg cfg) {
+        _cfg = cfg;
+        _tokenKey = cfg.getEndPoint() + "|" + cfg.getAccount() + ":" + cfg.getUserName() + "|" + DigestUtils.md5Hex(String.valueOf(cfg.getKey()));
+    }
+
+    public void setSegmentSize(long segmentSize) {
+        if (segmentSize <= 0 || segmentSize > MAX_OBJECT_SIZE) {
+            throw new IllegalArgumentException("Swift segment size must be between 1 and " + MAX_OBJECT_SIZE);
+        }
+        _segmentSize = segmentSize;
+    }
+
+    public long getSegmentSize() {
+        return _segmentSize;
+    }
+
+    public void setRangeSize(long rangeSize) {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("Swift range size must be positive");
+        }
+        _rangeSize = rangeSize;
+    }
+
+    public void setConcurrency(int concurrency) {
+        _concurrency = Math.max(1, concurrency);
+    }
+
+    public int getConcurrency() {
+        return _concurrency;
+    }
+
+    public void setLargeObjectMode(LargeObjectMode mode) {
+        _largeObjectMode = mode;
+    }
+
+    public void setTimeouts(int connectTimeout, int readTimeout) {
+        _connectTimeout = connectTimeout;
+        _readTimeout = readTimeout;
+    }
+
+    /**
+     * Drops every cached token, forcing the next request of each client to authenticate again.
+     */
+    public static void clearTokenCache() {
+        s_tokens.clear();
+    }
+
+    public void createContainer(String container) {
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("PUT", container, null, null, null, new BytesBody(new byte[0]));
+            expect(conn, "create container " + container, 201, 202);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to create swift container " + container, e);
+        } finally {
+            release(conn);
+        }
+    }
+
+    /**
+     * Uploads a file. Files larger than the segment size are split into segments
+     * that are uploaded in parallel and stitched together with a manifest.
+     *
+     * @return the etag of the uploaded object or manifest
+     */
+    public String putObject(String container, String object, File file) {
+        createContainer(container);
+        long size = file.length();
+        if (size <= _segmentSize) {
+            return putSimpleObject(container, object, new FileRangeBody(file, 0, size), null);
+        }
+
+        String segmentContainer = container + SEGMENT_CONTAINER_SUFFIX;
+        createContainer(segmentContainer);
+        String prefix = segmentPrefix(object, file.lastModified(), size);
+        int count = (int)((size + _segmentSize - 1) / _segmentSize);
+        if (s_logger.isDebugEnabled()) {
+            s_logger.debug("Uploading " + file.getAbsolutePath() + " to swift " + container + "/" + object + " as " + count + " segments with "
+                    + _concurrency + " threads");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(_concurrency, count), new NamedThreadFactory("SwiftUpload"));
+        try {
+            List<Future<Segment>> futures = new ArrayList<Future<Segment>>(count);
+            for (int i = 0; i < count; i++) {
+                final long offset = i * _segmentSize;
+                final long length = Math.min(_segmentSize, size - offset);
+                final String name = prefix + String.format("%08d", i);
+                final FileRangeBody body = new FileRangeBody(file, offset, length);
+                final String segContainer = segmentContainer;
+                futures.add(executor.submit(new Callable<Segment>() {
+                    @Override
+                    public Segment call() throws Exception {
+                        String etag = putSimpleObject(segContainer, name, body, null);
+                        return new Segment(segContainer, name, etag, length);
+                    }
+                }));
+            }
+            List<Segment> segments = new ArrayList<Segment>(count);
+            for (Future<Segment> future : futures) {
+                segments.add(waitFor(future));
+            }
+            return putManifest(container, object, segmentContainer, prefix, segments);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Uploads a stream of known length without staging it on disk. Streams larger
+     * than the segment size are cut into segments on the fly; since the source can
+     * only be read once those segments are sent sequentially.
+     */
+    public String putObject(String container, String object, InputStream in, long length) {
+        createContainer(container);
+        if (length <= _segmentSize) {
+            return putSimpleObject(container, object, new StreamBody(in, length), null);
+        }
+
+        String segmentContainer = container + SEGMENT_CONTAINER_SUFFIX;
+        createContainer(segmentContainer);
+        String prefix = segmentPrefix(object, System.currentTimeMillis(), length);
+        List<Segment> segments = new ArrayList<Segment>();
+        long remaining = length;
+        for (int i = 0; remaining > 0; i++) {
+            long segLength = Math.min(_segmentSize, remaining);
+            String name = prefix + String.format("%08d", i);
+            String etag = putSimpleObject(segmentContainer, name, new StreamBody(new BoundedInputStream(in, segLength), segLength), null);
+            segments.add(new Segment(segmentContainer, name, etag, segLength));
+            remaining -= segLength;
+        }
+        return putManifest(container, object, segmentContainer, prefix, segments);
+    }
+
+    public String putObject(String container, String object, byte[] content) {
+        createContainer(container);
+        return putSimpleObject(container, object, new BytesBody(content), null);
+    }
+
+    /**
+     * Downloads an object into a file. Objects larger than the range size are
+     * fetched with parallel ranged GETs written positionally into the target.
+     */
+    public File getObject(String container, String object, File destFile) {
+        ObjectInfo info = headObject(container, object);
+        if (info == null) {
+            throw new CloudRuntimeException("Swift object " + container + "/" + object + " does not exist");
+        }
+
+        File parent = destFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(destFile, "rw");
+            raf.setLength(info.length);
+            FileChannel channel = raf.getChannel();
+            if (info.length <= _rangeSize || _concurrency == 1) {
+                readRange(container, object, channel, 0, info.length, false);
+            } else {
+                int count = (int)((info.length + _rangeSize - 1) / _rangeSize);
+                ExecutorService executor = Executors.newFixedThreadPool(Math.min(_concurrency, count), new NamedThreadFactory("SwiftDownload"));
+                try {
+                    List<Future<Long>> futures = new ArrayList<Future<Long>>(count);
+                    for (int i = 0; i < count; i++) {
+                        final long offset = i * _rangeSize;
+                        final long length = Math.min(_rangeSize, info.length - offset);
+                        final FileChannel target = channel;
+                        final String c = container;
+                        final String o = object;
+                        futures.add(executor.submit(new Callable<Long>() {
+                            @Override
+                            public Long call() throws Exception {
+                                return readRange(c, o, target, offset, length, true);
+                            }
+                        }));
+                    }
+                    for (Future<Long> future : futures) {
+                        waitFor(future);
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+            return destFile;
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to download swift object " + container + "/" + object + " to " + destFile, e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    s_logger.debug("Failed to close " + destFile + ": " + e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a stream on an object. The caller must close the returned stream.
+     */
+    public InputStream getObjectStream(String container, String object) {
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("GET", container, object, null, null, null);
+            expect(conn, "get object " + container + "/" + object, 200);
+            return conn.getInputStream();
+        } catch (IOException e) {
+            release(conn);
+            throw new CloudRuntimeException("Failed to get swift object " + container + "/" + object, e);
+        } catch (CloudRuntimeException e) {
+            release(conn);
+            throw e;
+        }
+    }
+
+    /**
+     * @return object metadata, or null if the object does not exist
+     */
+    public ObjectInfo headObject(String container, String object) {
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("HEAD", container, object, null, null, null);
+            if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return null;
+            }
+            expect(conn, "head object " + container + "/" + object, 200, 204);
+            ObjectInfo info = new ObjectInfo();
+            info.length = NumbersUtil.parseLong(conn.getHeaderField("Content-Length"), 0);
+            info.etag = unquote(conn.getHeaderField("ETag"));
+            info.manifest = conn.getHeaderField("X-Object-Manifest");
+            info.staticLargeObject = Boolean.parseBoolean(conn.getHeaderField("X-Static-Large-Object"));
+            return info;
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to head swift object " + container + "/" + object, e);
+        } finally {
+            release(conn);
+        }
+    }
+
+    /**
+     * Lists container names when container is empty, otherwise object names in the container.
+     */
+    public List<String> list(String container, String prefix) {
+        List<String> names = new ArrayList<String>();
+        String marker = null;
+        while (true) {
+            StringBuilder query = new StringBuilder("format=plain&limit=").append(LIST_LIMIT);
+            if (prefix != null) {
+                query.append("&prefix=").append(encode(prefix));
+            }
+            if (marker != null) {
+                query.append("&marker=").append(encode(marker));
+            }
+            HttpURLConnection conn = null;
+            int received = 0;
+            try {
+                conn = execute("GET", container == null || container.isEmpty() ? null : container, null, query.toString(), null, null);
+                int code = conn.getResponseCode();
+                if (code == HttpURLConnection.HTTP_NOT_FOUND || code == HttpURLConnection.HTTP_NO_CONTENT) {
+                    break;
+                }
+                expect(conn, "list " + container, 200);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            names.add(line);
+                            marker = line;
+                            received++;
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Failed to list swift container " + container, e);
+            } finally {
+                release(conn);
+            }
+            if (received < LIST_LIMIT) {
+                break;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Deletes an object; for large objects the segments are removed as well.
+     */
+    public boolean deleteObject(String container, String object) {
+        ObjectInfo info = headObject(container, object);
+        if (info == null) {
+            return false;
+        }
+        HttpURLConnection conn = null;
+        try {
+            if (info.staticLargeObject) {
+                conn = execute("DELETE", container, object, "multipart-manifest=delete", null, null);
+                expect(conn, "delete object " + container + "/" + object, 200, 204);
+                return true;
+            }
+            if (info.manifest != null) {
+                String[] parts = info.manifest.split("/", 2);
+                if (parts.length == 2) {
+                    for (String segment : list(parts[0], parts[1])) {
+                        deleteSimpleObject(parts[0], segment);
+                    }
+                }
+            }
+            return deleteSimpleObject(container, object);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to delete swift object " + container + "/" + object, e);
+        } finally {
+            release(conn);
+        }
+    }
+
+    public void deleteContainer(String container) {
+        for (String object : list(container, null)) {
+            deleteObject(container, object);
+        }
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("DELETE", container, null, null, null, null);
+            expect(conn, "delete container " + container, 204, 404);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to delete swift container " + container, e);
+        } finally {
+            release(conn);
+        }
+    }
+
+    public void postMeta(String container, String object, Map<String, String> metas) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : metas.entrySet()) {
+            headers.put("X-Object-Meta-" + entry.getKey(), entry.getValue());
+        }
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("POST", container, object, null, headers, new BytesBody(new byte[0]));
+            expect(conn, "post meta " + container + "/" + object, 202, 204);
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to post meta to swift object " + container + "/" + object, e);
+        } finally {
+            release(conn);
+        }
+    }
+
+    private boolean deleteSimpleObject(String container, String object) throws IOException {
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("DELETE", container, object, null, null, null);
+            if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            expect(conn, "delete object " + container + "/" + object, 200, 204);
+            return true;
+        } finally {
+            release(conn);
+        }
+    }
+
+    private String putSimpleObject(String container, String object, RequestBody body, Map<String, String> headers) {
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("PUT", container, object, null, headers, body);
+            expect(conn, "put object " + container + "/" + object, 201);
+            String etag = unquote(conn.getHeaderField("ETag"));
+            String md5 = body.getMd5();
+            if (etag != null && md5 != null && !etag.equalsIgnoreCase(md5)) {
+                throw new CloudRuntimeException("Checksum mismatch uploading " + container + "/" + object + ": local " + md5 + ", swift " + etag);
+            }
+            return etag != null ? etag : md5;
+        } catch (IOException e) {
+            throw new CloudRuntimeException("Failed to upload swift object " + container + "/" + object, e);
+        } finally {
+            release(conn);
+        }
+    }
+
+    private String putManifest(String container, String object, String segmentContainer, String prefix, List<Segment> segments) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (_largeObjectMode == LargeObjectMode.Static) {
+            JsonArray manifest = new JsonArray();
+            for (Segment segment : segments) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("path", "/" + segment.container + "/" + segment.name);
+                entry.addProperty("etag", segment.etag);
+                entry.addProperty("size_bytes", segment.length);
+                manifest.add(entry);
+            }
+            HttpURLConnection conn = null;
+            try {
+                conn = execute("PUT", container, object, "multipart-manifest=put", headers, new BytesBody(manifest.toString().getBytes("UTF-8")));
+                expect(conn, "put manifest " + container + "/" + object, 201);
+                return unquote(conn.getHeaderField("ETag"));
+            } catch (IOException e) {
+                throw new CloudRuntimeException("Failed to put swift manifest " + container + "/" + object, e);
+            } finally {
+                release(conn);
+            }
+        }
+        headers.put("X-Object-Manifest", segmentContainer + "/" + prefix);
+        putSimpleObject(container, object, new BytesBody(new byte[0]), headers);
+        // the etag of a dynamic large object is the md5 of the concatenated segment etags
+        StringBuilder etags = new StringBuilder();
+        for (Segment segment : segments) {
+            etags.append(segment.etag);
+        }
+        return DigestUtils.md5Hex(etags.toString());
+    }
+
+    private long readRange(String container, String object, FileChannel channel, long offset, long length, boolean ranged) throws IOException {
+        Map<String, String> headers = null;
+        if (ranged) {
+            headers = new HashMap<String, String>();
+            headers.put("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        }
+        HttpURLConnection conn = null;
+        try {
+            conn = execute("GET", container, object, null, headers, null);
+            expect(conn, "get object " + container + "/" + object, ranged ? 206 : 200);
+            InputStream in = conn.getInputStream();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long position = offset;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    ByteBuffer bb = ByteBuffer.wrap(buffer, 0, read);
+                    while (bb.hasRemaining()) {
+                        position += channel.write(bb, position);
+                    }
+                }
+                if (position - offset != length) {
+                    throw new IOException("Short read of " + container + "/" + object + " at " + offset + ": expected " + length + " bytes, got "
+                            + (position - offset));
+                }
+                return position - offset;
+            } finally {
+                in.close();
+            }
+        } finally {
+            release(conn);
+        }
+    }
+
+    /**
+     * Sends a request with the cached token, re-authenticating once if the token was rejected.
+     */
+    HttpURLConnection execute(String method, String container, String object, String query, Map<String, String> headers, RequestBody body)
+            throws IOException {
+        Token token = getToken();
+        HttpURLConnection conn = send(token, method, container, object, query, headers, body);
+        if (conn.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED && (body == null || body.isRepeatable())) {
+            release(conn);
+            s_tokens.remove(_tokenKey, token);
+            conn = send(getToken(), method, container, object, query, headers, body);
+        }
+        return conn;
+    }
+
+    private HttpURLConnection send(Token token, String method, String container, String object, String query, Map<String, String> headers,
+            RequestBody body) throws IOException {
+        StringBuilder url = new StringBuilder(token.storageUrl);
+        if (container != null) {
+            url.append('/').append(encodePath(container));
+            if (object != null) {
+                url.append('/').append(encodePath(object));
+            }
+        }
+        if (query != null) {
+            url.append('?').append(query);
+        }
+
+        HttpURLConnection conn = open(url.toString(), method);
+        conn.setRequestProperty("X-Auth-Token", token.token);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        if (body != null) {
+            writeBody(conn, body);
+        }
+        conn.getResponseCode();
+        return conn;
+    }
+
+    private HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection)new URL(url).openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(_connectTimeout);
+        conn.setReadTimeout(_readTimeout);
+        conn.setUseCaches(false);
+        return conn;
+    }
+
+    private void writeBody(HttpURLConnection conn, RequestBody body) throws IOException {
+        conn.setDoOutput(true);
+        long length = body.length();
+        if (length <= Integer.MAX_VALUE) {
+            conn.setFixedLengthStreamingMode((int)length);
+        } else {
+            conn.setChunkedStreamingMode(BUFFER_SIZE);
+        }
+        OutputStream out = conn.getOutputStream();
+        try {
+            body.writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private Token getToken() throws IOException {
+        Token token = s_tokens.get(_tokenKey);
+        if (token != null && !token.isExpired()) {
+            return token;
+        }
+        token = isKeystone() ? authenticateKeystone() : authenticateTempAuth();
+        s_tokens.put(_tokenKey, token);
+        return token;
+    }
+
+    private boolean isKeystone() {
+        return _cfg.getEndPoint().contains("/v2.0");
+    }
+
+    private Token authenticateTempAuth() throws IOException {
+        HttpURLConnection conn = open(_cfg.getEndPoint(), "GET");
+        try {
+            conn.setRequestProperty("X-Auth-User", _cfg.getAccount() + ":" + _cfg.getUserName());
+            conn.setRequestProperty("X-Auth-Key", _cfg.getKey());
+            expect(conn, "authenticate against " + _cfg.getEndPoint(), 200, 204);
+            String storageUrl = conn.getHeaderField("X-Storage-Url");
+            String authToken = conn.getHeaderField("X-Auth-Token");
+            if (storageUrl == null || authToken == null) {
+                throw new CloudRuntimeException("Swift auth at " + _cfg.getEndPoint() + " did not return a storage url and token");
+            }
+            long ttl = NumbersUtil.parseLong(conn.getHeaderField("X-Auth-Token-Expires"), -1);
+            return new Token(trimSlash(storageUrl), authToken, ttl > 0 ? System.currentTimeMillis() + ttl * 1000 : System.currentTimeMillis()
+                    + DEFAULT_TOKEN_TTL);
+        } finally {
+            release(conn);
+        }
+    }
+
+    private Token authenticateKeystone() throws IOException {
+        String url = trimSlash(_cfg.getEndPoint());
+        if (!url.endsWith("/tokens")) {
+            url = url + "/tokens";
+        }
+        JsonObject credentials = new JsonObject();
+        credentials.addProperty("username", _cfg.getUserName());
+        credentials.addProperty("password", _cfg.getKey());
+        JsonObject auth = new JsonObject();
+        auth.addProperty("tenantName", _cfg.getAccount());
+        auth.add("passwordCredentials", credentials);
+        JsonObject request = new JsonObject();
+        request.add("auth", auth);
+
+        HttpURLConnection conn = open(url, "POST");
+        try {
+            conn.setRequestProperty("Content-Type", "application/json");
+            writeBody(conn, new BytesBody(request.toString().getBytes("UTF-8")));
+            expect(conn, "authenticate against " + url, 200, 203);
+            JsonObject access = new JsonParser().parse(readFully(conn.getInputStream())).getAsJsonObject().getAsJsonObject("access");
+            JsonObject token = access.getAsJsonObject("token");
+            String storageUrl = null;
+            for (JsonElement service : access.getAsJsonArray("serviceCatalog")) {
+                JsonObject svc = service.getAsJsonObject();
+                if ("object-store".equals(svc.get("type").getAsString())) {
+                    JsonArray endpoints = svc.getAsJsonArray("endpoints");
+                    if (endpoints.size() > 0) {
+                        storageUrl = endpoints.get(0).getAsJsonObject().get("publicURL").getAsString();
+                    }
+                    break;
+                }
+            }
+            if (storageUrl == null) {
+                throw new CloudRuntimeException("Keystone at " + url + " has no object-store endpoint for tenant " + _cfg.getAccount());
+            }
+            return new Token(trimSlash(storageUrl), token.get("id").getAsString(), parseExpiry(token.get("expires")));
+        } finally {
+            release(conn);
+        }
+    }
+
+    private static long parseExpiry(JsonElement expires) {
+        if (expires != null) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            try {
+                return format.parse(expires.getAsString()).getTime();
+            } catch (ParseException e) {
+                s_logger.debug("Unable to parse keystone token expiry " + expires + ", using default ttl");
+            }
+        }
+        return System.currentTimeMillis() + DEFAULT_TOKEN_TTL;
+    }
+
+    private static void expect(HttpURLConnection conn, String operation, int... codes) throws IOException {
+        int code = conn.getResponseCode();
+        for (int expected : codes) {
+            if (code == expected) {
+                return;
+            }
+        }
+        String detail = null;
+        InputStream err = conn.getErrorStream();
+        if (err != null) {
+            detail = readFully(err);
+        }
+        throw new CloudRuntimeException("Swift failed to " + operation + ": " + code + " " + conn.getResponseMessage()
+                + (detail != null && !detail.isEmpty() ? " - " + detail : ""));
+    }
+
+    private static <T> T waitFor(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CloudRuntimeException("Interrupted during swift transfer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CloudRuntimeException) {
+                throw (CloudRuntimeException)e.getCause();
+            }
+            throw new CloudRuntimeException("Swift transfer failed", e.getCause());
+        }
+    }
+
+    private String segmentPrefix(String object, long mtime, long size) {
+        // same layout as the swift CLI: <object>/<mtime>/<size>/<segment size>/<index>
+        return object + "/" + mtime + "/" + size + "/" + _segmentSize + "/";
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Consumes what is left of the response so the connection goes back to the
+     * keep-alive pool; disconnect() would close the pooled socket instead.
+     */
+    private static void release(HttpURLConnection conn) {
+        if (conn == null) {
+            return;
+        }
+        InputStream in;
+        try {
+            in = conn.getResponseCode() >= 400 ? conn.getErrorStream() : conn.getInputStream();
+        } catch (IOException e) {
+            conn.disconnect();
+            return;
+        }
+        if (in != null) {
+            try {
+                byte[] buffer = new byte[4096];
+                while (in.read(buffer) != -1) {
+                }
+                in.close();
+            } catch (IOException e) {
+                // the caller already consumed and closed the stream
+            }
+        }
+    }
+
+    private static String unquote(String etag) {
+        if (etag != null && etag.length() > 1 && etag.startsWith("\"") && etag.endsWith("\"")) {
+            return etag.substring(1, etag.length() - 1);
+        }
+        return etag;
+    }
+
+    private static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new CloudRuntimeException("UTF-8 is not supported", e);
+        }
+    }
+
+    static String encodePath(String path) {
+        return encode(path).replace("%2F", "/");
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new CloudRuntimeException("MD5 is not available", e);
+        }
+    }
+
+    public static class ObjectInfo {
+        long length;
+        String etag;
+        String manifest;
+        boolean staticLargeObject;
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public boolean isLargeObject() {
+            return manifest != null || staticLargeObject;
+        }
+    }
+
+    static class Token {
+        final String storageUrl;
+        final String token;
+        final long expiresAt;
+
+        Token(String storageUrl, String token, long expiresAt) {
+            this.storageUrl = storageUrl;
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() + TOKEN_EXPIRY_MARGIN >= expiresAt;
+        }
+    }
+
+    private static class Segment {
+        final String container;
+        final String name;
+        final String etag;
+        final long length;
+
+        Segment(String container, String name, String etag, long length) {
+            this.container = container;
+            this.name = name;
+            this.etag = etag;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Request payload. The md5 of the bytes written is computed while sending so
+     * it can be checked against the etag Swift returns.
+     */
+    abstract static class RequestBody {
+        private String _md5;
+
+        abstract long length();
+
+        abstract InputStream open() throws IOException;
+
+        boolean isRepeatable() {
+            return true;
+        }
+
+        String getMd5() {
+            return _md5;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            MessageDigest digest = md5();
+            InputStream in = open();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long remaining = length();
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        throw new IOException("Unexpected end of upload source, " + remaining + " bytes missing");
+                    }
+                    digest.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            } finally {
+                if (isRepeatable()) {
+                    in.close();
+                }
+            }
+            _md5 = new String(Hex.encodeHex(digest.digest()));
+        }
+    }
+
+    static class BytesBody extends RequestBody {
+        private final byte[] _content;
+
+        BytesBody(byte[] content) {
+            _content = content;
+        }
+
+        @Override
+        long length() {
+            return _content.length;
+        }
+
+        @Override
+        InputStream open() {
+            return new ByteArrayInputStream(_content);
+        }
+    }
+
+    static class FileRangeBody extends RequestBody {
+        private final File _file;
+        private final long _offset;
+        private final long _length;
+
+        FileRangeBody(File file, long offset, long length) {
+            _file = file;
+            _offset = offset;
+            _length = length;
+        }
+
+        @Override
+        long length() {
+            return _length;
+        }
+
+        @Override
+        InputStream open() throws IOException {
+            FileInputStream in = new FileInputStream(_file);
+            in.getChannel().position(_offset);
+            return in;
+        }
+    }
+
+    static class StreamBody extends RequestBody {
+        private final InputStream _in;
+        private final long _length;
+
+        StreamBody(InputStream in, long length) {
+            _in = in;
+            _length = length;
+        }
+
+        @Override
+        long length() {
+            return _length;
+        }
+
+        @Override
+        InputStream open() {
+            return _in;
+        }
+
+        @Override
+        boolean isRepeatable() {
+            return false;
+        }
+    }
+
+    /**
+     * Exposes at most a fixed number of bytes of the underlying stream without closing it.
+     */
+    static class BoundedInputStream extends FilterInputStream {
+        private long _remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            _remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                _remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int)Math.min(len, _remaining));
+            if (read > 0) {
+                _remaining -= read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
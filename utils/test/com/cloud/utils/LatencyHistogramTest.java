@@ -0,0 +1,54 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileMs(50));
+
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3);
+        }
+        histogram.record(150);
+        histogram.record(90000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(90000, histogram.getMaxMs());
+        assertEquals((98 * 3 + 150 + 90000) / 100, histogram.getAverageMs());
+        // bucket upper bounds
+        assertEquals(5, histogram.getPercentileMs(50));
+        assertEquals(200, histogram.getPercentileMs(99));
+        assertEquals(90000, histogram.getPercentileMs(100));
+    }
+
+    @Test
+    public void testCappedByMax() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(12);
+        assertEquals(12, histogram.getPercentileMs(99));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMs());
+    }
+}
@@ -0,0 +1,204 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class S3UtilsTest {
+
+    private File _file;
+
+    @Before
+    public void setUp() throws IOException {
+        _file = File.createTempFile("s3utils", "test");
+    }
+
+    @After
+    public void tearDown() {
+        S3Utils.setTransferOptions(S3Utils.DEFAULT_PART_SIZE, S3Utils.DEFAULT_CONCURRENCY);
+        _file.delete();
+    }
+
+    @Test
+    public void testParallelDownloadReassemblesTheObject() throws IOException {
+        final byte[] data = randomBytes((int)(3 * S3Utils.MIN_PART_SIZE + 12345));
+        final RangeServer server = new RangeServer(data);
+        S3Utils.setTransferOptions(S3Utils.MIN_PART_SIZE, 3);
+
+        S3Utils.getRanges(connection(server), "bucket", "key", _file, metadata(data, DigestUtils.md5Hex(data)));
+
+        assertArrayEquals(data, readFile());
+        assertEquals(4, server._requests.get());
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void testParallelDownloadVerifiesTheChecksum() throws IOException {
+        final byte[] data = randomBytes((int)(2 * S3Utils.MIN_PART_SIZE + 1));
+        S3Utils.setTransferOptions(S3Utils.MIN_PART_SIZE, 2);
+
+        S3Utils.getRanges(connection(new RangeServer(data)), "bucket", "key", _file, metadata(data, DigestUtils.md5Hex("other")));
+    }
+
+    @Test
+    public void testRangeResumesAfterAShortRead() throws IOException {
+        final byte[] data = randomBytes(100000);
+        final RangeServer server = new RangeServer(data) {
+            @Override
+            int body(final int from, final int to, final int request) {
+                return request == 1 ? (to - from) / 2 : to - from;
+            }
+        };
+
+        assertEquals(90000, getRange(server, 10000, 99999));
+
+        final byte[] written = readFile();
+        for (int i = 10000; i < data.length; i++) {
+            assertEquals(data[i], written[i]);
+        }
+        assertEquals(2, server._requests.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testRangeFailsWhenRequestsMakeNoProgress() {
+        final RangeServer server = new RangeServer(randomBytes(1000)) {
+            @Override
+            int body(final int from, final int to, final int request) {
+                return 0;
+            }
+        };
+
+        try {
+            getRange(server, 0, 999);
+            fail("a range that never makes progress must fail");
+        } catch (IOException e) {
+        }
+        assertEquals(4, server._requests.get());
+    }
+
+    @Test(expected = CloudRuntimeException.class)
+    public void testRangeFailsWhenTheContentLengthDoesNotMatch() throws IOException {
+        final byte[] data = randomBytes(1000);
+
+        // a server that ignores the Range header and sends the whole object
+        getRange(new RangeServer(data) {
+            @Override
+            long contentLength(final int from, final int to) {
+                return data.length;
+            }
+        }, 100, 199);
+    }
+
+    private long getRange(final RangeServer server, final long start, final long end) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(_file, "rw");
+        try {
+            return S3Utils.getRange(connection(server), "bucket", "key", file.getChannel(), start, end);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static AmazonS3 connection(final RangeServer server) {
+        final AmazonS3 connection = mock(AmazonS3.class);
+        when(connection.getObject(any(GetObjectRequest.class))).thenAnswer(server);
+        return connection;
+    }
+
+    private static ObjectMetadata metadata(final byte[] data, final String etag) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(data.length);
+        metadata.setHeader("ETag", etag);
+        return metadata;
+    }
+
+    private static byte[] randomBytes(final int length) {
+        final byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private byte[] readFile() throws IOException {
+        final byte[] data = new byte[(int)_file.length()];
+        final FileInputStream in = new FileInputStream(_file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                offset += in.read(data, offset, data.length - offset);
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    /**
+     * Serves ranged GETs of an in memory object; subclasses shorten the bodies or
+     * misreport their lengths.
+     */
+    private static class RangeServer implements Answer<S3Object> {
+        private final byte[] _data;
+        private final AtomicInteger _requests = new AtomicInteger();
+
+        RangeServer(final byte[] data) {
+            _data = data;
+        }
+
+        @Override
+        public S3Object answer(final InvocationOnMock invocation) {
+            final long[] range = ((GetObjectRequest)invocation.getArguments()[0]).getRange();
+            final int from = (int)range[0];
+            final int to = (int)range[1] + 1;
+            final S3Object object = new S3Object();
+            object.getObjectMetadata().setContentLength(contentLength(from, to));
+            object.setObjectContent(new ByteArrayInputStream(_data, from, body(from, to, _requests.incrementAndGet())));
+            return object;
+        }
+
+        long contentLength(final int from, final int to) {
+            return to - from;
+        }
+
+        int body(final int from, final int to, final int request) {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.concurrency;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GenerationGuardTest {
+
+    @Test
+    public void testInvalidationMakesEarlierGenerationsStale() {
+        GenerationGuard<Long> guard = new GenerationGuard<Long>();
+        long generation = guard.get();
+        assertTrue(guard.isCurrent(generation));
+
+        guard.invalidateAll();
+        assertFalse(guard.isCurrent(generation));
+        assertTrue(guard.isCurrent(guard.get()));
+    }
+
+    @Test
+    public void testKeyedInvalidationOnlyAffectsItsKey() {
+        GenerationGuard<Long> guard = new GenerationGuard<Long>();
+        long first = guard.get(1L);
+        long second = guard.get(2L);
+
+        guard.invalidate(1L);
+        assertFalse(guard.isCurrent(1L, first));
+        assertTrue(guard.isCurrent(2L, second));
+
+        guard.invalidateAll();
+        assertFalse(guard.isCurrent(2L, second));
+    }
+}
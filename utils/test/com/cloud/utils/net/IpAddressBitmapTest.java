@@ -0,0 +1,120 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.net;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class IpAddressBitmapTest {
+    @Test
+    public void testRangeMatchesGetAllIpsFromCidr() {
+        IpAddressBitmap bitmap = IpAddressBitmap.fromCidr("10.1.1.77", 24);
+        assertEquals(254, bitmap.getSize());
+        assertFalse(bitmap.contains(NetUtils.ip2Long("10.1.1.0")));
+        assertTrue(bitmap.contains(NetUtils.ip2Long("10.1.1.1")));
+        assertTrue(bitmap.contains(NetUtils.ip2Long("10.1.1.254")));
+        assertFalse(bitmap.contains(NetUtils.ip2Long("10.1.1.255")));
+
+        Set<Long> used = new TreeSet<Long>();
+        used.add(NetUtils.ip2Long("10.1.1.1"));
+        used.add(NetUtils.ip2Long("10.1.1.5"));
+        for (Long ip : used) {
+            bitmap.markUsed(ip);
+        }
+        assertEquals(NetUtils.getAllIpsFromCidr("10.1.1.77", 24, used), bitmap.listFree(255));
+    }
+
+    @Test
+    public void testSequentialAllocation() {
+        IpAddressBitmap bitmap = IpAddressBitmap.fromCidr("192.168.0.0", 29);
+        assertEquals(6, bitmap.getSize());
+        long first = NetUtils.ip2Long("192.168.0.1");
+        bitmap.markUsed(first);
+        assertEquals(first + 1, bitmap.nextFree(0));
+        assertEquals(first + 1, bitmap.nextFree(first));
+
+        // wraps around to the start of the range
+        bitmap.markUsed(first + 5);
+        assertEquals(first + 1, bitmap.nextFree(first + 5));
+
+        for (long ip = first; ip < first + 6; ip++) {
+            bitmap.markUsed(ip);
+        }
+        assertEquals(0, bitmap.getFreeCount());
+        assertEquals(-1, bitmap.nextFree(0));
+
+        bitmap.release(first + 3);
+        assertEquals(first + 3, bitmap.nextFree(0));
+    }
+
+    @Test
+    public void testRandomAllocationDrainsRange() {
+        IpAddressBitmap bitmap = IpAddressBitmap.fromCidr("172.16.0.0", 22);
+        Random random = new Random(42);
+        Set<Long> allocated = new TreeSet<Long>();
+        long ip;
+        while ((ip = bitmap.randomFree(random)) >= 0) {
+            assertTrue(bitmap.markUsed(ip));
+            assertTrue(allocated.add(ip));
+        }
+        assertEquals(bitmap.getSize(), allocated.size());
+    }
+
+    @Test
+    public void testLargeNetworks() {
+        Random random = new Random(7);
+        for (int size = 8; size <= 24; size += 8) {
+            IpAddressBitmap bitmap = IpAddressBitmap.fromCidr("10.0.0.0", size);
+            assertEquals((1 << (32 - size)) - 2, bitmap.getSize());
+            for (int i = 0; i < 200; i++) {
+                long ip = bitmap.randomFree(random);
+                assertTrue(bitmap.contains(ip));
+                assertTrue(bitmap.markUsed(ip));
+            }
+            assertEquals(bitmap.getSize() - 200, bitmap.getFreeCount());
+        }
+    }
+
+    @Test
+    public void testNearlyFullNetworkFindsLastAddress() {
+        IpAddressBitmap bitmap = IpAddressBitmap.fromCidr("10.0.0.0", 16);
+        long first = NetUtils.ip2Long("10.0.0.1");
+        long last = first + bitmap.getSize() - 1;
+        long left = NetUtils.ip2Long("10.0.200.17");
+        for (long ip = first; ip <= last; ip++) {
+            if (ip != left) {
+                bitmap.markUsed(ip);
+            }
+        }
+        assertEquals(1, bitmap.getFreeCount());
+        assertEquals(left, bitmap.randomFree(new Random(1)));
+        assertEquals(left, bitmap.nextFree(0));
+        assertEquals(left, bitmap.nextFree(left + 1));
+
+        bitmap.markUsed(left);
+        assertEquals(-1, bitmap.randomFree(new Random(1)));
+        bitmap.release(first);
+        assertEquals(first, bitmap.nextFree(left));
+    }
+}
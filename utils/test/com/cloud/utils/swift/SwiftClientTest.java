@@ -0,0 +1,447 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.utils.swift;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.cloud.utils.SwiftUtil;
+import com.cloud.utils.SwiftUtil.SwiftClientCfg;
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class SwiftClientTest {
+
+    private HttpServer _server;
+    private ExecutorService _executor;
+    private SwiftStub _stub;
+    private File _dir;
+
+    @Before
+    public void setUp() throws IOException {
+        SwiftClient.clearTokenCache();
+        _stub = new SwiftStub();
+        _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        _server.createContext("/", _stub);
+        _executor = Executors.newFixedThreadPool(8);
+        _server.setExecutor(_executor);
+        _server.start();
+        _dir = File.createTempFile("swift", "test");
+        _dir.delete();
+        _dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        _server.stop(0);
+        _executor.shutdownNow();
+        for (File f : _dir.listFiles()) {
+            f.delete();
+        }
+        _dir.delete();
+    }
+
+    private SwiftClient client(final String authPath) {
+        return new SwiftClient(cfg(authPath));
+    }
+
+    private SwiftClientCfg cfg(final String authPath) {
+        final String endpoint = "http://127.0.0.1:" + _server.getAddress().getPort() + authPath;
+        return new SwiftClientCfg() {
+            @Override
+            public String getAccount() {
+                return "test";
+            }
+
+            @Override
+            public String getUserName() {
+                return "tester";
+            }
+
+            @Override
+            public String getKey() {
+                return "testing";
+            }
+
+            @Override
+            public String getEndPoint() {
+                return endpoint;
+            }
+        };
+    }
+
+    private File createFile(String name, int size) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        File file = new File(_dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void testPutAndGetSmallObject() throws IOException {
+        SwiftClient client = client("/auth/v1.0");
+        File src = createFile("small", 1000);
+        String etag = client.putObject("T-1", "small", src);
+        assertEquals(DigestUtils.md5Hex(new FileInputStream(src)), etag);
+
+        File dest = client.getObject("T-1", "small", new File(_dir, "small.out"));
+        assertEquals(DigestUtils.md5Hex(new FileInputStream(src)), DigestUtils.md5Hex(new FileInputStream(dest)));
+    }
+
+    @Test
+    public void testTokenIsCachedAcrossClients() {
+        client("/auth/v1.0").putObject("T-1", "a", new byte[] {1});
+        client("/auth/v1.0").putObject("T-1", "b", new byte[] {2});
+        assertEquals(1, _stub.authCount.get());
+    }
+
+    @Test
+    public void testExpiredTokenIsRefreshed() {
+        SwiftClient client = client("/auth/v1.0");
+        client.putObject("T-1", "a", new byte[] {1});
+        _stub.tokens.clear();
+        client.putObject("T-1", "b", new byte[] {2});
+        assertEquals(2, _stub.authCount.get());
+    }
+
+    @Test
+    public void testKeystoneAuth() {
+        SwiftClient client = client("/v2.0");
+        client.putObject("T-1", "a", "hello".getBytes());
+        assertEquals(1, _stub.authCount.get());
+        assertEquals(1, client.list("T-1", null).size());
+    }
+
+    @Test
+    public void testSegmentedUploadAndRangedDownload() throws IOException {
+        SwiftClient client = client("/auth/v1.0");
+        client.setSegmentSize(10 * 1024);
+        client.setRangeSize(7 * 1024);
+        client.setConcurrency(4);
+        File src = createFile("large", 100 * 1024 + 17);
+        client.putObject("T-2", "large", src);
+
+        assertEquals(11, client.list("T-2" + SwiftClient.SEGMENT_CONTAINER_SUFFIX, "large/").size());
+        assertTrue(client.headObject("T-2", "large").isLargeObject());
+
+        File dest = client.getObject("T-2", "large", new File(_dir, "large.out"));
+        assertEquals(src.length(), dest.length());
+        assertEquals(DigestUtils.md5Hex(new FileInputStream(src)), DigestUtils.md5Hex(new FileInputStream(dest)));
+        assertTrue(_stub.rangeRequests.get() > 1);
+    }
+
+    @Test
+    public void testStreamingSegmentedUpload() throws IOException {
+        SwiftClient client = client("/auth/v1.0");
+        client.setSegmentSize(4096);
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+        client.putObject("T-3", "stream", new ByteArrayInputStream(data), data.length);
+
+        InputStream in = client.getObjectStream("T-3", "stream");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        in.close();
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void testDeleteRemovesSegments() throws IOException {
+        SwiftClient client = client("/auth/v1.0");
+        client.setSegmentSize(1024);
+        client.putObject("T-4", "obj", createFile("obj", 5000));
+        assertTrue(client.deleteObject("T-4", "obj"));
+        assertNull(client.headObject("T-4", "obj"));
+        assertTrue(client.list("T-4" + SwiftClient.SEGMENT_CONTAINER_SUFFIX, "obj/").isEmpty());
+        assertFalse(client.deleteObject("T-4", "obj"));
+    }
+
+    @Test
+    public void testListContainers() {
+        SwiftClient client = client("/auth/v1.0");
+        client.putObject("T-5", "a", new byte[] {1});
+        client.putObject("S-6", "b", new byte[] {1});
+        List<String> containers = client.list("", null);
+        assertTrue(containers.contains("T-5"));
+        assertTrue(containers.contains("S-6"));
+    }
+
+    @Test
+    public void testSwiftUtilReportsFailedListsAndDeletes() {
+        SwiftClientCfg cfg = cfg("/auth/v1.0");
+        client("/auth/v1.0").putObject("T-7", "obj", new byte[] {1});
+        assertArrayEquals(new String[] {"obj"}, SwiftUtil.list(cfg, "T-7", null));
+        assertEquals(0, SwiftUtil.list(cfg, "T-8", null).length);
+
+        _stub.failStatus = 503;
+        try {
+            SwiftUtil.list(cfg, "T-7", null);
+            fail("a failed listing must not read as an empty container");
+        } catch (CloudRuntimeException e) {
+        }
+        try {
+            SwiftUtil.deleteObject(cfg, "T-7/obj");
+            fail("a failed delete must be reported");
+        } catch (CloudRuntimeException e) {
+        }
+
+        _stub.failStatus = 0;
+        assertTrue(SwiftUtil.deleteObject(cfg, "T-7/obj"));
+        assertEquals(0, SwiftUtil.list(cfg, "T-7", null).length);
+    }
+
+    /**
+     * Minimal in-memory Swift proxy: tempauth and keystone auth, containers,
+     * objects, ranged reads and dynamic large object manifests.
+     */
+    static class SwiftStub implements HttpHandler {
+        final AtomicInteger authCount = new AtomicInteger();
+        final AtomicInteger rangeRequests = new AtomicInteger();
+        final Map<String, Boolean> tokens = new ConcurrentHashMap<String, Boolean>();
+        final Map<String, TreeMap<String, byte[]>> containers = new ConcurrentHashMap<String, TreeMap<String, byte[]>>();
+        final Map<String, String> manifests = new ConcurrentHashMap<String, String>();
+        // when set, every storage request fails with this status
+        volatile int failStatus;
+
+        @Override
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                // the JDK server drops the connection if a request body is left unread
+                byte[] body = drain(ex);
+                String path = ex.getRequestURI().getRawPath();
+                if (path.startsWith("/auth")) {
+                    authCount.incrementAndGet();
+                    String token = "tk" + authCount.get();
+                    tokens.put(token, true);
+                    ex.getResponseHeaders().add("X-Storage-Url", "http://" + ex.getRequestHeaders().getFirst("Host") + "/v1/AUTH_test");
+                    ex.getResponseHeaders().add("X-Auth-Token", token);
+                    reply(ex, 200, null);
+                    return;
+                }
+                if (path.startsWith("/v2.0")) {
+                    authCount.incrementAndGet();
+                    String token = "ks" + authCount.get();
+                    tokens.put(token, true);
+                    String url = "http://" + ex.getRequestHeaders().getFirst("Host") + "/v1/AUTH_test";
+                    reply(ex, 200, ("{\"access\":{\"token\":{\"id\":\"" + token + "\",\"expires\":\"2099-01-01T00:00:00Z\"},"
+                            + "\"serviceCatalog\":[{\"type\":\"object-store\",\"endpoints\":[{\"publicURL\":\"" + url + "\"}]}]}}").getBytes());
+                    return;
+                }
+                String token = ex.getRequestHeaders().getFirst("X-Auth-Token");
+                if (token == null || !tokens.containsKey(token)) {
+                    reply(ex, 401, null);
+                    return;
+                }
+                if (failStatus != 0) {
+                    reply(ex, failStatus, null);
+                    return;
+                }
+                String rest = URLDecoder.decode(path.substring("/v1/AUTH_test".length()), "UTF-8");
+                String[] parts = rest.length() > 1 ? rest.substring(1).split("/", 2) : new String[0];
+                String method = ex.getRequestMethod();
+                if (parts.length == 0) {
+                    reply(ex, 200, join(containers.keySet(), null));
+                } else if (parts.length == 1) {
+                    handleContainer(ex, method, parts[0]);
+                } else {
+                    handleObject(ex, method, parts[0], parts[1], body);
+                }
+            } finally {
+                ex.close();
+            }
+        }
+
+        private void handleContainer(HttpExchange ex, String method, String container) throws IOException {
+            if ("PUT".equals(method)) {
+                boolean existed = containers.containsKey(container);
+                if (!existed) {
+                    containers.put(container, new TreeMap<String, byte[]>());
+                }
+                reply(ex, existed ? 202 : 201, null);
+                return;
+            }
+            TreeMap<String, byte[]> objects = containers.get(container);
+            if (objects == null) {
+                reply(ex, 404, null);
+                return;
+            }
+            String prefix = query(ex, "prefix");
+            byte[] listing;
+            synchronized (objects) {
+                listing = join(objects.keySet(), prefix);
+            }
+            reply(ex, listing.length == 0 ? 204 : 200, listing.length == 0 ? null : listing);
+        }
+
+        private void handleObject(HttpExchange ex, String method, String container, String name, byte[] body) throws IOException {
+            TreeMap<String, byte[]> objects = containers.get(container);
+            if (objects == null) {
+                reply(ex, 404, null);
+                return;
+            }
+            String key = container + "/" + name;
+            if ("PUT".equals(method)) {
+                byte[] data = body;
+                String manifest = ex.getRequestHeaders().getFirst("X-Object-Manifest");
+                if (manifest != null) {
+                    manifests.put(key, manifest);
+                }
+                synchronized (objects) {
+                    objects.put(name, data);
+                }
+                ex.getResponseHeaders().add("ETag", "\"" + DigestUtils.md5Hex(data) + "\"");
+                reply(ex, 201, null);
+                return;
+            }
+            byte[] data;
+            synchronized (objects) {
+                data = objects.get(name);
+            }
+            if (data == null) {
+                reply(ex, 404, null);
+                return;
+            }
+            if ("DELETE".equals(method)) {
+                synchronized (objects) {
+                    objects.remove(name);
+                }
+                manifests.remove(key);
+                reply(ex, 204, null);
+                return;
+            }
+            String manifest = manifests.get(key);
+            if (manifest != null) {
+                String[] m = manifest.split("/", 2);
+                TreeMap<String, byte[]> segments = containers.get(m[0]);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                synchronized (segments) {
+                    for (Map.Entry<String, byte[]> segment : segments.entrySet()) {
+                        if (segment.getKey().startsWith(m[1])) {
+                            out.write(segment.getValue());
+                        }
+                    }
+                }
+                data = out.toByteArray();
+                ex.getResponseHeaders().add("X-Object-Manifest", manifest);
+            }
+            if ("HEAD".equals(method)) {
+                ex.getResponseHeaders().add("Content-Length", String.valueOf(data.length));
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            String range = ex.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                rangeRequests.incrementAndGet();
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Integer.parseInt(bounds[1]);
+                byte[] slice = new byte[end - start + 1];
+                System.arraycopy(data, start, slice, 0, slice.length);
+                reply(ex, 206, slice);
+                return;
+            }
+            reply(ex, 200, data);
+        }
+
+        private static String query(HttpExchange ex, String name) throws IOException {
+            String query = ex.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    if (param.startsWith(name + "=")) {
+                        return URLDecoder.decode(param.substring(name.length() + 1), "UTF-8");
+                    }
+                }
+            }
+            return null;
+        }
+
+        private static byte[] join(Iterable<String> names, String prefix) {
+            List<String> matches = new ArrayList<String>();
+            for (String name : names) {
+                if (prefix == null || name.startsWith(prefix)) {
+                    matches.add(name);
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String name : matches) {
+                sb.append(name).append('\n');
+            }
+            return sb.toString().getBytes();
+        }
+
+        private static byte[] drain(HttpExchange ex) throws IOException {
+            InputStream in = ex.getRequestBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        }
+
+        private static void reply(HttpExchange ex, int code, byte[] body) throws IOException {
+            if (body == null) {
+                ex.sendResponseHeaders(code, -1);
+                return;
+            }
+            ex.sendResponseHeaders(code, body.length);
+            OutputStream out = ex.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
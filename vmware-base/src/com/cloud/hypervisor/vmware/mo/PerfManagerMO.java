@@ -18,7 +18,10 @@ package com.cloud.hypervisor.vmware.mo;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
@@ -37,6 +40,10 @@ import com.vmware.vim25.PerfQuerySpec;
 import java.util.Arrays;
 
 public class PerfManagerMO extends BaseMO {
+    // counter keys per vCenter, the perfCounter list has hundreds of entries
+    // and does not change while vCenter is up
+    private static final Map<String, Map<String, Integer>> s_counterKeys = new ConcurrentHashMap<String, Map<String, Integer>>();
+
     public PerfManagerMO(VmwareContext context, ManagedObjectReference mor) {
         super(context, mor);
     }
@@ -118,6 +125,24 @@ public class PerfManagerMO extends BaseMO {
         return (List<PerfCounterInfo>)_context.getVimClient().getDynamicProperty(_mor, "perfCounter");
     }
 
+    /**
+     * @return the key of a performance counter, e.g. ("net", "received"), or
+     *         null if vCenter has no such counter. The counter list is only
+     *         fetched once per vCenter.
+     */
+    public Integer getCounterKey(String group, String name) throws Exception {
+        String server = _context.getServerAddress();
+        Map<String, Integer> keys = s_counterKeys.get(server);
+        if (keys == null) {
+            keys = new HashMap<String, Integer>();
+            for (PerfCounterInfo info : getCounterInfo()) {
+                keys.put((info.getGroupInfo().getKey() + "." + info.getNameInfo().getKey()).toLowerCase(), info.getKey());
+            }
+            s_counterKeys.put(server, keys);
+        }
+        return keys.get((group + "." + name).toLowerCase());
+    }
+
     public List<PerfInterval> getIntervalInfo() throws Exception {
         return (List<PerfInterval>)_context.getVimClient().getDynamicProperty(_mor, "historicalInterval");
     }
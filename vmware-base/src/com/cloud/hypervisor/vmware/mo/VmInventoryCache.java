@@ -0,0 +1,297 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.mo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.cloud.hypervisor.vmware.util.VmwareContext;
+import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.SelectionSpec;
+import com.vmware.vim25.TraversalSpec;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * In-memory copy of a set of VirtualMachine properties under a host or a
+ * cluster, kept current through a dedicated PropertyCollector.
+ *
+ * The first refresh() creates the collector and its filter and receives every
+ * VM as an ENTER update; later calls only pull the changes that happened since
+ * the last one through WaitForUpdatesEx, so polling the inventory no longer
+ * downloads it again. The collector lives in the session of the context it was
+ * created with, callers should therefore keep passing the same long lived
+ * context. Passing a different one, or any failure, drops the cached state and
+ * the next refresh() starts over with a full load.
+ */
+public class VmInventoryCache {
+    private static final Logger s_logger = Logger.getLogger(VmInventoryCache.class);
+
+    private final ManagedObjectReference _root;
+    private final String[] _propertyPaths;
+
+    private VmwareContext _context;
+    private ManagedObjectReference _collector;
+    private String _collectorVersion;
+
+    // VM MOR value -> entry, in the order vCenter reported them
+    private final Map<String, VmEntry> _vms = new LinkedHashMap<String, VmEntry>();
+    private long _version;
+    private long _lastUpdateCount;
+
+    private static class VmEntry {
+        final ManagedObjectReference mor;
+        final Map<String, Object> properties = new HashMap<String, Object>();
+
+        VmEntry(ManagedObjectReference mor) {
+            this.mor = mor;
+        }
+    }
+
+    /**
+     * @param root a HostSystem or ClusterComputeResource
+     * @param propertyPaths the VirtualMachine properties to keep, e.g. "runtime.powerState"
+     */
+    public VmInventoryCache(ManagedObjectReference root, String[] propertyPaths) {
+        assert (root != null);
+        _root = root;
+        _propertyPaths = propertyPaths.clone();
+    }
+
+    public ManagedObjectReference getRoot() {
+        return _root;
+    }
+
+    public String[] getPropertyPaths() {
+        return _propertyPaths.clone();
+    }
+
+    /**
+     * Pulls the pending changes from vCenter without waiting for new ones.
+     *
+     * @return the inventory version, which only moves when a VM entered, left
+     *         or changed one of the watched properties
+     */
+    public synchronized long refresh(VmwareContext context) throws Exception {
+        if (context != _context || _collector == null) {
+            reset();
+            createCollector(context);
+        }
+
+        try {
+            WaitOptions options = new WaitOptions();
+            options.setMaxWaitSeconds(0);
+
+            long updates = 0;
+            while (true) {
+                UpdateSet updateSet = _context.getService().waitForUpdatesEx(_collector, _collectorVersion, options);
+                if (updateSet == null) {
+                    // nothing changed since the last version
+                    break;
+                }
+
+                _collectorVersion = updateSet.getVersion();
+                updates += applyUpdates(updateSet);
+                if (updateSet.isTruncated() == null || !updateSet.isTruncated().booleanValue()) {
+                    break;
+                }
+            }
+            _lastUpdateCount = updates;
+
+            if (s_logger.isTraceEnabled())
+                s_logger.trace("VM inventory of " + _root.getValue() + " refreshed, " + updates + " object updates, version: " + _version + ", VMs: " + _vms.size());
+        } catch (Exception e) {
+            s_logger.info("Unable to refresh VM inventory of " + _root.getValue() + ", it will be reloaded on next refresh: " + e.getMessage());
+            reset();
+            throw e;
+        }
+        return _version;
+    }
+
+    public synchronized long getVersion() {
+        return _version;
+    }
+
+    public synchronized int getVmCount() {
+        return _vms.size();
+    }
+
+    /**
+     * @return the number of object updates the last refresh() applied
+     */
+    public synchronized long getLastUpdateCount() {
+        return _lastUpdateCount;
+    }
+
+    /**
+     * @return the cached properties in the same shape as
+     *         VmwareHypervisorHost.getVmPropertiesOnHyperHost() returns them
+     */
+    public synchronized ObjectContent[] getVmProperties() {
+        List<ObjectContent> result = new ArrayList<ObjectContent>(_vms.size());
+        for (VmEntry entry : _vms.values()) {
+            ObjectContent oc = new ObjectContent();
+            oc.setObj(entry.mor);
+            for (String path : _propertyPaths) {
+                if (entry.properties.containsKey(path)) {
+                    DynamicProperty prop = new DynamicProperty();
+                    prop.setName(path);
+                    prop.setVal(entry.properties.get(path));
+                    oc.getPropSet().add(prop);
+                }
+            }
+            result.add(oc);
+        }
+        return result.toArray(new ObjectContent[result.size()]);
+    }
+
+    public synchronized Object getVmProperty(ManagedObjectReference vmMor, String path) {
+        VmEntry entry = _vms.get(vmMor.getValue());
+        return entry != null ? entry.properties.get(path) : null;
+    }
+
+    /**
+     * Drops the cached state and the collector, the next refresh() does a full
+     * load.
+     */
+    public synchronized void reset() {
+        if (_collector != null && _context != null) {
+            try {
+                // destroying the collector destroys its filter too
+                _context.getService().destroyPropertyCollector(_collector);
+            } catch (Exception e) {
+                s_logger.debug("Unable to destroy property collector " + _collector.getValue() + ": " + e.getMessage());
+            }
+        }
+        _context = null;
+        _collector = null;
+        _collectorVersion = "";
+        if (!_vms.isEmpty()) {
+            _vms.clear();
+            _version++;
+        }
+    }
+
+    /**
+     * @return the number of object updates applied
+     */
+    synchronized int applyUpdates(UpdateSet updateSet) {
+        int count = 0;
+        if (updateSet.getFilterSet() == null) {
+            return count;
+        }
+
+        for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+            if (filterUpdate.getObjectSet() == null) {
+                continue;
+            }
+            for (ObjectUpdate objUpdate : filterUpdate.getObjectSet()) {
+                ManagedObjectReference mor = objUpdate.getObj();
+                if (objUpdate.getKind() == ObjectUpdateKind.LEAVE) {
+                    _vms.remove(mor.getValue());
+                } else {
+                    VmEntry entry = _vms.get(mor.getValue());
+                    if (entry == null || objUpdate.getKind() == ObjectUpdateKind.ENTER) {
+                        entry = new VmEntry(mor);
+                        _vms.put(mor.getValue(), entry);
+                    }
+                    if (objUpdate.getChangeSet() != null) {
+                        for (PropertyChange change : objUpdate.getChangeSet()) {
+                            if (change.getOp() == PropertyChangeOp.REMOVE || change.getOp() == PropertyChangeOp.INDIRECT_REMOVE || change.getVal() == null) {
+                                entry.properties.remove(change.getName());
+                            } else {
+                                entry.properties.put(change.getName(), change.getVal());
+                            }
+                        }
+                    }
+                }
+                count++;
+            }
+        }
+
+        if (count > 0) {
+            _version++;
+        }
+        return count;
+    }
+
+    private void createCollector(VmwareContext context) throws Exception {
+        PropertySpec pSpec = new PropertySpec();
+        pSpec.setType("VirtualMachine");
+        pSpec.getPathSet().addAll(Arrays.asList(_propertyPaths));
+
+        TraversalSpec host2VmTraversal = new TraversalSpec();
+        host2VmTraversal.setType("HostSystem");
+        host2VmTraversal.setPath("vm");
+        host2VmTraversal.setName("host2VmTraversal");
+
+        ObjectSpec oSpec = new ObjectSpec();
+        oSpec.setObj(_root);
+        oSpec.setSkip(Boolean.TRUE);
+        if (_root.getType().equalsIgnoreCase("ClusterComputeResource")) {
+            SelectionSpec host2VmSelection = new SelectionSpec();
+            host2VmSelection.setName("host2VmTraversal");
+
+            TraversalSpec cluster2HostTraversal = new TraversalSpec();
+            cluster2HostTraversal.setType("ClusterComputeResource");
+            cluster2HostTraversal.setPath("host");
+            cluster2HostTraversal.setName("cluster2HostTraversal");
+            cluster2HostTraversal.setSkip(Boolean.TRUE);
+            cluster2HostTraversal.getSelectSet().add(host2VmSelection);
+
+            oSpec.getSelectSet().add(cluster2HostTraversal);
+            oSpec.getSelectSet().add(host2VmTraversal);
+        } else {
+            oSpec.getSelectSet().add(host2VmTraversal);
+        }
+
+        PropertyFilterSpec pfSpec = new PropertyFilterSpec();
+        pfSpec.getPropSet().add(pSpec);
+        pfSpec.getObjectSet().add(oSpec);
+
+        if (s_logger.isDebugEnabled())
+            s_logger.debug("Create property collector for VM inventory of " + _root.getValue() + ", properties: " + Arrays.toString(_propertyPaths));
+
+        ManagedObjectReference collector = context.getService().createPropertyCollector(context.getPropertyCollector());
+        try {
+            context.getService().createFilter(collector, pfSpec, true);
+        } catch (Exception e) {
+            context.getService().destroyPropertyCollector(collector);
+            throw e;
+        }
+
+        _context = context;
+        _collector = collector;
+        _collectorVersion = "";
+    }
+}
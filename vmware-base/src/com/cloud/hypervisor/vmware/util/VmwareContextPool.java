@@ -17,188 +17,552 @@
 package com.cloud.hypervisor.vmware.util;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.StandardMBean;
 
-import org.apache.cloudstack.managed.context.ManagedContextRunnable;
-import org.apache.cloudstack.managed.context.ManagedContextTimerTask;
 import org.apache.log4j.Logger;
 
-public class VmwareContextPool {
+import com.cloud.utils.exception.CloudRuntimeException;
+import com.cloud.utils.mgmt.JmxUtil;
+
+/**
+ * Pool of vCenter API sessions, keyed by vCenter address and user.
+ *
+ * Every key is limited to a maximum number of live contexts, idle plus in use.
+ * acquire() hands out an idle context if there is one, otherwise it either
+ * reserves a slot for the caller to create a new context in, or waits until a
+ * context is returned or closed. Waiting is bounded by the acquire timeout.
+ * The reservation is released only by registering the context created for it
+ * or by aborting it, contexts created outside of acquire() are counted as live
+ * but never take over a slot another thread reserved.
+ *
+ * Idle contexts are kept alive with a cheap call while they sit in the pool,
+ * closed once they have been idle for too long, and only validated on the
+ * way out if nothing has touched them for a while, so a busy pool does not pay
+ * for a full inventory walk on every command.
+ */
+public class VmwareContextPool extends StandardMBean implements VmwareContextPoolMBean {
     private static final Logger s_logger = Logger.getLogger(VmwareContextPool.class);
-    
+
     private static final long DEFAULT_CHECK_INTERVAL = 10000;
     private static final int DEFAULT_IDLE_QUEUE_LENGTH = 128;
-	
-    private List<VmwareContext> _outstandingRegistry = new ArrayList<VmwareContext>();
-    
-	private Map<String, List<VmwareContext>> _pool;
-	private int _maxIdleQueueLength = DEFAULT_IDLE_QUEUE_LENGTH;
-	private long _idleCheckIntervalMs = DEFAULT_CHECK_INTERVAL;
-			
-	private Timer _timer = new Timer();
-	
-	public VmwareContextPool() {
-		this(DEFAULT_IDLE_QUEUE_LENGTH, DEFAULT_CHECK_INTERVAL);
-	}
-	
-	public VmwareContextPool(int maxIdleQueueLength) {
-		this(maxIdleQueueLength, DEFAULT_CHECK_INTERVAL);
-	}
-	
-	public VmwareContextPool(int maxIdleQueueLength, long idleCheckIntervalMs) {
-		_pool = new HashMap<String, List<VmwareContext>>();
-		
-		_maxIdleQueueLength = maxIdleQueueLength;
-		_idleCheckIntervalMs = idleCheckIntervalMs;
-		
-		_timer.scheduleAtFixedRate(getTimerTask(), _idleCheckIntervalMs, _idleCheckIntervalMs);
-	}
-	
-	public void registerOutstandingContext(VmwareContext context) {
-		assert(context != null);
-		synchronized(this) {
-			_outstandingRegistry.add(context);
-		}
-	}
-	
-	public void unregisterOutstandingContext(VmwareContext context) {
-		assert(context != null);
-		synchronized(this) {
-			_outstandingRegistry.remove(context);
-		}
-	}
-	
-	public VmwareContext getContext(String vCenterAddress, String vCenterUserName) {
-		String poolKey = composePoolKey(vCenterAddress, vCenterUserName);
-		synchronized(this) {
-			List<VmwareContext> l = _pool.get(poolKey);
-			if(l == null)
-				return null;
-
-			if(l.size() > 0) {
-				VmwareContext context = l.remove(0);
-				context.setPoolInfo(this, poolKey);
-				
-				if(s_logger.isTraceEnabled())
-					s_logger.trace("Return a VmwareContext from the idle pool: " + poolKey + ". current pool size: " + l.size() + ", outstanding count: " + VmwareContext.getOutstandingContextCount());
-				return context;
-			}
-			
-			// TODO, we need to control the maximum number of outstanding VmwareContext object in the future
-			return null;
-		}
-	}
-	
-	public void returnContext(VmwareContext context) {
-		assert(context.getPool() == this);
-		assert(context.getPoolKey() != null);
-		synchronized(this) {
-			List<VmwareContext> l = _pool.get(context.getPoolKey());
-			if(l == null) {
-				l = new ArrayList<VmwareContext>();
-				_pool.put(context.getPoolKey(), l);
-			}
-			
-			if(l.size() < _maxIdleQueueLength) {
-				context.clearStockObjects();
-				l.add(context);
-				
-				if(s_logger.isTraceEnabled())
-					s_logger.trace("Recycle VmwareContext into idle pool: " + context.getPoolKey() + ", current idle pool size: " 
-						+ l.size() + ", outstanding count: " + VmwareContext.getOutstandingContextCount());
-			} else {
-				if(s_logger.isTraceEnabled())
-					s_logger.trace("VmwareContextPool queue exceeds limits, queue size: " + l.size());
-				context.close();
-			}
-		}
-	}
-	
-	private TimerTask getTimerTask() {
-		return new TimerTask() {
+    private static final int DEFAULT_MAX_CONTEXTS_PER_KEY = 128;
+    private static final long DEFAULT_ACQUIRE_TIMEOUT = 120000;
+    private static final long DEFAULT_KEEPALIVE_INTERVAL = 300000;
+    private static final long DEFAULT_MAX_IDLE_TIME = 1200000;
+    private static final long DEFAULT_VALIDATE_INTERVAL = 60000;
+
+    private final Map<String, KeyPool> _pools = new ConcurrentHashMap<String, KeyPool>();
+
+    private int _maxIdleQueueLength = DEFAULT_IDLE_QUEUE_LENGTH;
+    private long _idleCheckIntervalMs = DEFAULT_CHECK_INTERVAL;
+    private volatile int _maxContextsPerKey = DEFAULT_MAX_CONTEXTS_PER_KEY;
+    private volatile long _acquireTimeoutMs = DEFAULT_ACQUIRE_TIMEOUT;
+    private volatile long _keepAliveIntervalMs = DEFAULT_KEEPALIVE_INTERVAL;
+    private volatile long _maxIdleTimeMs = DEFAULT_MAX_IDLE_TIME;
+    private volatile long _validateIntervalMs = DEFAULT_VALIDATE_INTERVAL;
+
+    private final AtomicLong _createdCount = new AtomicLong();
+    private final AtomicLong _waitCount = new AtomicLong();
+    private final AtomicLong _waitTimeMs = new AtomicLong();
+    private final AtomicLong _maxWaitMs = new AtomicLong();
+    private final AtomicLong _timeoutCount = new AtomicLong();
+    private final AtomicLong _evictedCount = new AtomicLong();
+    private final AtomicLong _validationFailureCount = new AtomicLong();
+    private volatile double _creationRate;
+    private long _lastRateCreatedCount;
+    private long _lastRateTime = System.currentTimeMillis();
+
+    private Timer _timer = new Timer("VmwareContextPool", true);
+
+    private static class IdleContext {
+        final VmwareContext context;
+        final long returnedAt;
+        long checkedAt;
+
+        IdleContext(VmwareContext context, long returnedAt, long checkedAt) {
+            this.context = context;
+            this.returnedAt = returnedAt;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    /**
+     * What acquire() got for its caller: an idle context, or a reserved slot
+     * to create a new one in.
+     */
+    public static class Reservation {
+        private final String _poolKey;
+        private final VmwareContext _context;
+        private boolean _released;
+
+        Reservation(String poolKey, VmwareContext context) {
+            _poolKey = poolKey;
+            _context = context;
+            _released = context != null;
+        }
+
+        /**
+         * @return the idle context handed out, or null if the caller has to
+         *         create one and register it with this reservation
+         */
+        public VmwareContext getContext() {
+            return _context;
+        }
+
+        public String getPoolKey() {
+            return _poolKey;
+        }
+    }
+
+    private static class KeyPool {
+        final String key;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition available = lock.newCondition();
+        // most recently returned first, so a small hot set is reused and the rest ages out
+        final LinkedList<IdleContext> idle = new LinkedList<IdleContext>();
+        final Set<VmwareContext> live = new HashSet<VmwareContext>();
+        int pendingCreates;
+        long created;
+        long waits;
+        long timeouts;
+
+        KeyPool(String key) {
+            this.key = key;
+        }
+    }
+
+    public VmwareContextPool() {
+        this(DEFAULT_IDLE_QUEUE_LENGTH, DEFAULT_CHECK_INTERVAL);
+    }
+
+    public VmwareContextPool(int maxIdleQueueLength) {
+        this(maxIdleQueueLength, DEFAULT_CHECK_INTERVAL);
+    }
+
+    public VmwareContextPool(int maxIdleQueueLength, long idleCheckIntervalMs) {
+        super(VmwareContextPoolMBean.class, false);
+
+        _maxIdleQueueLength = maxIdleQueueLength;
+        _idleCheckIntervalMs = idleCheckIntervalMs;
+
+        _timer.scheduleAtFixedRate(getTimerTask(), _idleCheckIntervalMs, _idleCheckIntervalMs);
+    }
+
+    public void registerMBean(String name) {
+        try {
+            JmxUtil.registerMBean("VmwareContextPool", name, this);
+        } catch (Exception e) {
+            s_logger.warn("Unable to register VmwareContextPool MBean " + name + ": " + e.getMessage());
+        }
+    }
+
+    public void setMaxContextsPerKey(int maxContextsPerKey) {
+        _maxContextsPerKey = maxContextsPerKey;
+    }
+
+    public void setAcquireTimeout(long acquireTimeoutMs) {
+        _acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    public void setKeepAliveInterval(long keepAliveIntervalMs) {
+        _keepAliveIntervalMs = keepAliveIntervalMs;
+    }
+
+    public void setMaxIdleTime(long maxIdleTimeMs) {
+        _maxIdleTimeMs = maxIdleTimeMs;
+    }
+
+    public void setValidateInterval(long validateIntervalMs) {
+        _validateIntervalMs = validateIntervalMs;
+    }
+
+    private KeyPool getKeyPool(String poolKey) {
+        KeyPool pool = _pools.get(poolKey);
+        if (pool == null) {
+            synchronized (_pools) {
+                pool = _pools.get(poolKey);
+                if (pool == null) {
+                    pool = new KeyPool(poolKey);
+                    _pools.put(poolKey, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Registers a context created without a reservation.
+     */
+    public void registerOutstandingContext(VmwareContext context) {
+        registerOutstandingContext(context, null);
+    }
+
+    /**
+     * Registers a context the caller just created, it takes over the slot of
+     * the reservation acquire() returned.
+     */
+    public void registerOutstandingContext(VmwareContext context, Reservation reservation) {
+        assert (context != null);
+        assert (context.getPoolKey() != null);
+        assert (reservation == null || reservation._poolKey.equals(context.getPoolKey()));
+        KeyPool pool = getKeyPool(context.getPoolKey());
+        pool.lock.lock();
+        try {
+            release(pool, reservation);
+            if (pool.live.add(context)) {
+                pool.created++;
+                _createdCount.incrementAndGet();
+            }
+        } finally {
+            pool.lock.unlock();
+        }
+    }
+
+    public void unregisterOutstandingContext(VmwareContext context) {
+        assert (context != null);
+        if (context.getPoolKey() == null) {
+            return;
+        }
+        KeyPool pool = getKeyPool(context.getPoolKey());
+        pool.lock.lock();
+        try {
+            pool.live.remove(context);
+            for (Iterator<IdleContext> it = pool.idle.iterator(); it.hasNext();) {
+                if (it.next().context == context) {
+                    it.remove();
+                }
+            }
+            pool.available.signal();
+        } finally {
+            pool.lock.unlock();
+        }
+    }
+
+    /**
+     * @return an idle context for the vCenter and user, or a reserved slot to
+     *         create a new one in. In that case the caller must either
+     *         register the new context with the reservation or abort it.
+     * @throws CloudRuntimeException if the key is at its limit and no context
+     *         became available within the acquire timeout
+     */
+    public Reservation acquire(String vCenterAddress, String vCenterUserName) {
+        String poolKey = composePoolKey(vCenterAddress, vCenterUserName);
+        KeyPool pool = getKeyPool(poolKey);
+        long start = System.currentTimeMillis();
+        long deadline = start + _acquireTimeoutMs;
+        boolean waited = false;
+
+        while (true) {
+            IdleContext entry = null;
+            pool.lock.lock();
+            try {
+                while (entry == null) {
+                    if (!pool.idle.isEmpty()) {
+                        entry = pool.idle.removeFirst();
+                    } else if (pool.live.size() + pool.pendingCreates < _maxContextsPerKey) {
+                        pool.pendingCreates++;
+                        if (waited) {
+                            recordWait(pool, start);
+                        }
+                        return new Reservation(poolKey, null);
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            pool.timeouts++;
+                            _timeoutCount.incrementAndGet();
+                            throw new CloudRuntimeException("Timed out after " + _acquireTimeoutMs + " ms waiting for a vCenter session of " + poolKey + ", "
+                                    + pool.live.size() + " sessions are in use");
+                        }
+                        waited = true;
+                        try {
+                            pool.available.await(remaining, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new CloudRuntimeException("Interrupted while waiting for a vCenter session of " + poolKey);
+                        }
+                    }
+                }
+                if (waited) {
+                    recordWait(pool, start);
+                    waited = false;
+                }
+            } finally {
+                pool.lock.unlock();
+            }
+
+            if (System.currentTimeMillis() - entry.checkedAt > _validateIntervalMs && !entry.context.validate()) {
+                s_logger.info("Validation of an idle VmwareContext of " + poolKey + " failed, dispose it");
+                _validationFailureCount.incrementAndGet();
+                entry.context.close();
+                continue;
+            }
+
+            entry.context.setPoolInfo(this, poolKey);
+            if (s_logger.isTraceEnabled())
+                s_logger.trace("Return a VmwareContext from the idle pool: " + poolKey + ". current pool size: " + pool.idle.size() + ", outstanding count: "
+                        + VmwareContext.getOutstandingContextCount());
+            return new Reservation(poolKey, entry.context);
+        }
+    }
+
+    /**
+     * Gives back the slot of a reservation when the caller failed to create
+     * the context.
+     */
+    public void abortCreate(Reservation reservation) {
+        KeyPool pool = getKeyPool(reservation._poolKey);
+        pool.lock.lock();
+        try {
+            release(pool, reservation);
+        } finally {
+            pool.lock.unlock();
+        }
+    }
+
+    // called with the pool locked
+    private void release(KeyPool pool, Reservation reservation) {
+        if (reservation != null && !reservation._released) {
+            reservation._released = true;
+            pool.pendingCreates--;
+            pool.available.signal();
+        }
+    }
+
+    public void returnContext(VmwareContext context) {
+        assert (context.getPool() == this);
+        assert (context.getPoolKey() != null);
+        KeyPool pool = getKeyPool(context.getPoolKey());
+        boolean recycled = false;
+        pool.lock.lock();
+        try {
+            if (pool.idle.size() < _maxIdleQueueLength) {
+                context.clearStockObjects();
+                long now = System.currentTimeMillis();
+                pool.idle.addFirst(new IdleContext(context, now, now));
+                pool.available.signal();
+                recycled = true;
+
+                if (s_logger.isTraceEnabled())
+                    s_logger.trace("Recycle VmwareContext into idle pool: " + context.getPoolKey() + ", current idle pool size: " + pool.idle.size()
+                            + ", outstanding count: " + VmwareContext.getOutstandingContextCount());
+            }
+        } finally {
+            pool.lock.unlock();
+        }
+
+        if (!recycled) {
+            if (s_logger.isTraceEnabled())
+                s_logger.trace("VmwareContextPool queue exceeds limits, queue size: " + _maxIdleQueueLength);
+            context.close();
+        }
+    }
+
+    private void recordWait(KeyPool pool, long start) {
+        long waitMs = System.currentTimeMillis() - start;
+        pool.waits++;
+        _waitCount.incrementAndGet();
+        _waitTimeMs.addAndGet(waitMs);
+        long max = _maxWaitMs.get();
+        while (waitMs > max && !_maxWaitMs.compareAndSet(max, waitMs)) {
+            max = _maxWaitMs.get();
+        }
+    }
+
+    private TimerTask getTimerTask() {
+        return new TimerTask() {
             @Override
             public void run() {
-				try {
-					// doIdleCheck();
-					
-					doKeepAlive();
-				} catch (Throwable e) {
-					s_logger.error("Unexpected exception", e);
-				}
-			}
-		};
-	}
-	
-	private void getIdleCheckContexts(List<VmwareContext> l, int batchSize) {
-		synchronized(this) {
-			for(Map.Entry<String, List<VmwareContext>> entry : _pool.entrySet()) {
-				if(entry.getValue() != null) {
-					int count = 0;
-					while(entry.getValue().size() > 0 && count < batchSize) {
-						VmwareContext context = entry.getValue().remove(0);
-						context.setPoolInfo(this, entry.getKey());
-						l.add(context);
-						count++;
-					}
-				}
-			}
-		}
-	}
-	
-	private void doIdleCheck() {
-		List<VmwareContext> l = new ArrayList<VmwareContext>();
-		int batchSize = (int)(_idleCheckIntervalMs / 1000);	// calculate batch size at 1 request/sec rate
-		getIdleCheckContexts(l, batchSize);
-		
-		for(VmwareContext context : l) {
-			try {
-				context.idleCheck();
-				
-				if(s_logger.isTraceEnabled())
-					s_logger.trace("Recyle context after idle check");
-				returnContext(context);
-			} catch(Throwable e) {
-				s_logger.warn("Exception caught during VmwareContext idle check, close and discard the context", e);
-				context.close();
-			}
-		}
-	}
-	
-	private void getKeepAliveCheckContexts(List<VmwareContext> l, int batchSize) {
-		synchronized(this) {
-			int size = Math.min(_outstandingRegistry.size(), batchSize);
-			while(size > 0) {
-				VmwareContext context = _outstandingRegistry.remove(0);
-				l.add(context);
-				
-				_outstandingRegistry.add(context);
-				size--;
-			}
-		}
-	}
-	
-	private void doKeepAlive() {
-		List<VmwareContext> l = new ArrayList<VmwareContext>();
-		int batchSize = (int)(_idleCheckIntervalMs / 1000);	// calculate batch size at 1 request/sec rate
-		getKeepAliveCheckContexts(l, batchSize);
-		
-		for(VmwareContext context : l) {
-			try {
-				context.idleCheck();
-			} catch(Throwable e) {
-				s_logger.warn("Exception caught during VmwareContext idle check, close and discard the context", e);
-				context.close();
-			}
-		}
-	}
-	
-	public static String composePoolKey(String vCenterAddress, String vCenterUserName) {
-		assert(vCenterUserName != null);
-		assert(vCenterAddress != null);
-		return vCenterUserName + "@" + vCenterAddress;
-	}
+                try {
+                    doIdleCheck();
+                    updateCreationRate();
+                } catch (Throwable e) {
+                    s_logger.error("Unexpected exception", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Closes contexts that have been idle for too long and keeps the others
+     * alive. Keep-alive calls are rate limited to about one per second.
+     */
+    private void doIdleCheck() {
+        long now = System.currentTimeMillis();
+        int batchSize = (int)Math.max(1, _idleCheckIntervalMs / 1000);
+        List<IdleContext> expired = new ArrayList<IdleContext>();
+        List<IdleContext> keepAlive = new ArrayList<IdleContext>();
+
+        for (KeyPool pool : _pools.values()) {
+            pool.lock.lock();
+            try {
+                for (Iterator<IdleContext> it = pool.idle.iterator(); it.hasNext();) {
+                    IdleContext entry = it.next();
+                    if (now - entry.returnedAt > _maxIdleTimeMs) {
+                        it.remove();
+                        expired.add(entry);
+                    } else if (now - entry.checkedAt > _keepAliveIntervalMs && keepAlive.size() < batchSize) {
+                        it.remove();
+                        keepAlive.add(entry);
+                    }
+                }
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+
+        for (IdleContext entry : expired) {
+            if (s_logger.isDebugEnabled())
+                s_logger.debug("Close VmwareContext of " + entry.context.getPoolKey() + " after " + (now - entry.returnedAt) / 1000 + " seconds idle");
+            _evictedCount.incrementAndGet();
+            entry.context.close();
+        }
+
+        for (IdleContext entry : keepAlive) {
+            try {
+                entry.context.idleCheck();
+                entry.checkedAt = System.currentTimeMillis();
+
+                KeyPool pool = getKeyPool(entry.context.getPoolKey());
+                pool.lock.lock();
+                try {
+                    // goes to the tail, it has been idle longer than the ones returned since
+                    pool.idle.addLast(entry);
+                    pool.available.signal();
+                } finally {
+                    pool.lock.unlock();
+                }
+            } catch (Throwable e) {
+                s_logger.warn("Exception caught during VmwareContext idle check, close and discard the context", e);
+                _validationFailureCount.incrementAndGet();
+                entry.context.close();
+            }
+        }
+    }
+
+    private synchronized void updateCreationRate() {
+        long now = System.currentTimeMillis();
+        long created = _createdCount.get();
+        if (now > _lastRateTime) {
+            _creationRate = (created - _lastRateCreatedCount) * 60000.0 / (now - _lastRateTime);
+        }
+        _lastRateCreatedCount = created;
+        _lastRateTime = now;
+
+        if (s_logger.isDebugEnabled() && !_pools.isEmpty()) {
+            StringBuilder sb = new StringBuilder("VmwareContextPool stats:");
+            for (String line : getKeyStats()) {
+                sb.append(" [").append(line).append("]");
+            }
+            s_logger.debug(sb.toString());
+        }
+    }
+
+    @Override
+    public int getMaxContextsPerKey() {
+        return _maxContextsPerKey;
+    }
+
+    @Override
+    public int getInUseCount() {
+        int count = 0;
+        for (KeyPool pool : _pools.values()) {
+            pool.lock.lock();
+            try {
+                count += pool.live.size() - pool.idle.size();
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int getIdleCount() {
+        int count = 0;
+        for (KeyPool pool : _pools.values()) {
+            pool.lock.lock();
+            try {
+                count += pool.idle.size();
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return _createdCount.get();
+    }
+
+    @Override
+    public double getCreationRate() {
+        return _creationRate;
+    }
+
+    @Override
+    public long getWaitCount() {
+        return _waitCount.get();
+    }
+
+    @Override
+    public long getAverageWaitMs() {
+        long waits = _waitCount.get();
+        return waits > 0 ? _waitTimeMs.get() / waits : 0;
+    }
+
+    @Override
+    public long getMaxWaitMs() {
+        return _maxWaitMs.get();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return _timeoutCount.get();
+    }
+
+    @Override
+    public long getEvictedCount() {
+        return _evictedCount.get();
+    }
+
+    @Override
+    public long getValidationFailureCount() {
+        return _validationFailureCount.get();
+    }
+
+    @Override
+    public String[] getKeyStats() {
+        List<String> result = new ArrayList<String>();
+        for (KeyPool pool : _pools.values()) {
+            pool.lock.lock();
+            try {
+                result.add(pool.key + ": in use " + (pool.live.size() - pool.idle.size()) + ", idle " + pool.idle.size() + ", creating " + pool.pendingCreates
+                        + ", created " + pool.created + ", waits " + pool.waits + ", timeouts " + pool.timeouts);
+            } finally {
+                pool.lock.unlock();
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    public static String composePoolKey(String vCenterAddress, String vCenterUserName) {
+        assert (vCenterUserName != null);
+        assert (vCenterAddress != null);
+        return vCenterUserName + "@" + vCenterAddress;
+    }
 }
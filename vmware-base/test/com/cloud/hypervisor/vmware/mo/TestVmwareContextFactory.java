@@ -51,13 +51,22 @@ public class TestVmwareContextFactory {
 		vimClient.connect(serviceUrl, vCenterUserName, vCenterPassword);
 
 		VmwareContext context = new VmwareContext(vimClient, vCenterAddress);
+		context.setPoolInfo(s_pool, VmwareContextPool.composePoolKey(vCenterAddress, vCenterUserName));
+		s_pool.registerOutstandingContext(context);
 		return context;
 	}
 	
 	public static VmwareContext getContext(String vCenterAddress, String vCenterUserName, String vCenterPassword) throws Exception {
-		VmwareContext context = s_pool.getContext(vCenterAddress, vCenterUserName);
-		if(context == null)
-			context = create(vCenterAddress, vCenterUserName, vCenterPassword);
+		VmwareContextPool.Reservation reservation = s_pool.acquire(vCenterAddress, vCenterUserName);
+		VmwareContext context = reservation.getContext();
+		if(context == null) {
+			try {
+				context = create(vCenterAddress, vCenterUserName, vCenterPassword);
+			} finally {
+				// create() registered the context without the reservation
+				s_pool.abortCreate(reservation);
+			}
+		}
 		
 		if(context != null) {
 			context.setPoolInfo(s_pool, VmwareContextPool.composePoolKey(vCenterAddress, vCenterUserName));
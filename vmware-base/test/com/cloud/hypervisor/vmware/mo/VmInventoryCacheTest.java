@@ -0,0 +1,106 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.mo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectContent;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VirtualMachinePowerState;
+
+public class VmInventoryCacheTest {
+    private static final String[] PATHS = new String[] { "name", "runtime.powerState" };
+
+    private static ManagedObjectReference mor(String type, String value) {
+        ManagedObjectReference mor = new ManagedObjectReference();
+        mor.setType(type);
+        mor.setValue(value);
+        return mor;
+    }
+
+    private static ObjectUpdate update(ObjectUpdateKind kind, String vm, Object... nameValues) {
+        ObjectUpdate update = new ObjectUpdate();
+        update.setKind(kind);
+        update.setObj(mor("VirtualMachine", vm));
+        for (int i = 0; i < nameValues.length; i += 2) {
+            PropertyChange change = new PropertyChange();
+            change.setName((String)nameValues[i]);
+            change.setOp(PropertyChangeOp.ASSIGN);
+            change.setVal(nameValues[i + 1]);
+            update.getChangeSet().add(change);
+        }
+        return update;
+    }
+
+    private static UpdateSet updateSet(ObjectUpdate... updates) {
+        PropertyFilterUpdate filterUpdate = new PropertyFilterUpdate();
+        for (ObjectUpdate update : updates) {
+            filterUpdate.getObjectSet().add(update);
+        }
+        UpdateSet set = new UpdateSet();
+        set.getFilterSet().add(filterUpdate);
+        return set;
+    }
+
+    @Test
+    public void testEnterModifyLeave() {
+        VmInventoryCache cache = new VmInventoryCache(mor("HostSystem", "host-1"), PATHS);
+        long version = cache.getVersion();
+
+        assertEquals(2, cache.applyUpdates(updateSet(
+                update(ObjectUpdateKind.ENTER, "vm-1", "name", "i-2-3-VM", "runtime.powerState", VirtualMachinePowerState.POWERED_ON),
+                update(ObjectUpdateKind.ENTER, "vm-2", "name", "r-4-VM", "runtime.powerState", VirtualMachinePowerState.POWERED_OFF))));
+        assertEquals(version + 1, cache.getVersion());
+        assertEquals(2, cache.getVmCount());
+
+        cache.applyUpdates(updateSet(update(ObjectUpdateKind.MODIFY, "vm-2", "runtime.powerState", VirtualMachinePowerState.POWERED_ON)));
+        assertEquals(version + 2, cache.getVersion());
+        assertEquals(VirtualMachinePowerState.POWERED_ON, cache.getVmProperty(mor("VirtualMachine", "vm-2"), "runtime.powerState"));
+        assertEquals("r-4-VM", cache.getVmProperty(mor("VirtualMachine", "vm-2"), "name"));
+
+        cache.applyUpdates(updateSet(update(ObjectUpdateKind.LEAVE, "vm-1")));
+        assertEquals(1, cache.getVmCount());
+        assertNull(cache.getVmProperty(mor("VirtualMachine", "vm-1"), "name"));
+    }
+
+    @Test
+    public void testPropertiesInRetrieveShape() {
+        VmInventoryCache cache = new VmInventoryCache(mor("HostSystem", "host-1"), PATHS);
+        cache.applyUpdates(updateSet(update(ObjectUpdateKind.ENTER, "vm-1", "name", "i-2-3-VM", "runtime.powerState", VirtualMachinePowerState.POWERED_ON)));
+
+        // an empty update set leaves the version alone, so callers can skip rebuilding their view
+        long version = cache.getVersion();
+        assertEquals(0, cache.applyUpdates(new UpdateSet()));
+        assertEquals(version, cache.getVersion());
+
+        ObjectContent[] ocs = cache.getVmProperties();
+        assertEquals(1, ocs.length);
+        assertEquals("vm-1", ocs[0].getObj().getValue());
+        assertEquals(2, ocs[0].getPropSet().size());
+        assertEquals("name", ocs[0].getPropSet().get(0).getName());
+        assertEquals("i-2-3-VM", ocs[0].getPropSet().get(0).getVal());
+    }
+}
@@ -0,0 +1,152 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+package com.cloud.hypervisor.vmware.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.cloud.utils.exception.CloudRuntimeException;
+
+public class VmwareContextPoolTest {
+    private static final String VCENTER = "vcenter.example.com";
+    private static final String USER = "admin";
+
+    private VmwareContextPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new VmwareContextPool();
+        pool.setMaxContextsPerKey(2);
+        pool.setAcquireTimeout(200);
+        // the mocked client never validates, keep idle contexts trusted
+        pool.setValidateInterval(Long.MAX_VALUE / 2);
+    }
+
+    private VmwareContext newContext() {
+        VmwareContext context = new VmwareContext(mock(VmwareClient.class), VCENTER);
+        context.setPoolInfo(pool, VmwareContextPool.composePoolKey(VCENTER, USER));
+        return context;
+    }
+
+    private VmwareContext create() {
+        VmwareContextPool.Reservation reservation = pool.acquire(VCENTER, USER);
+        assertNull(reservation.getContext());
+        VmwareContext context = newContext();
+        pool.registerOutstandingContext(context, reservation);
+        return context;
+    }
+
+    @Test
+    public void testLimitPerKey() {
+        VmwareContext first = create();
+        create();
+        assertEquals(2, pool.getInUseCount());
+
+        try {
+            pool.acquire(VCENTER, USER);
+            fail("the third context must not be handed out");
+        } catch (CloudRuntimeException e) {
+            assertEquals(1, pool.getTimeoutCount());
+        }
+
+        // other keys are not affected
+        VmwareContextPool.Reservation other = pool.acquire("other.example.com", USER);
+        assertNull(other.getContext());
+        pool.abortCreate(other);
+
+        pool.returnContext(first);
+        assertEquals(1, pool.getIdleCount());
+        assertSame(first, pool.acquire(VCENTER, USER).getContext());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testWaiterIsWokenByReturn() throws Exception {
+        pool.setAcquireTimeout(5000);
+        create();
+        final VmwareContext second = create();
+
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                }
+                pool.returnContext(second);
+            }
+        };
+        t.start();
+        assertSame(second, pool.acquire(VCENTER, USER).getContext());
+        t.join();
+        assertEquals(1, pool.getWaitCount());
+    }
+
+    @Test
+    public void testClosedContextFreesItsSlot() {
+        VmwareContext first = create();
+        create();
+
+        first.close();
+        assertNull(pool.acquire(VCENTER, USER).getContext());
+    }
+
+    @Test
+    public void testRepeatedlyClosedContextsKeepThePoolUsable() {
+        for (int i = 0; i < 10; i++) {
+            VmwareContext context = create();
+            context.close();
+        }
+        assertEquals(0, pool.getInUseCount());
+        assertNotNull(create());
+        assertNotNull(create());
+    }
+
+    @Test
+    public void testUnreservedContextsKeepOtherReservations() {
+        VmwareContextPool.Reservation reservation = pool.acquire(VCENTER, USER);
+
+        // created directly, e.g. by a discoverer, while the reservation is pending
+        VmwareContext direct = newContext();
+        pool.registerOutstandingContext(direct);
+
+        // the reservation still holds its slot, and the key is now full
+        try {
+            pool.acquire(VCENTER, USER);
+            fail("the reserved slot must not be handed out again");
+        } catch (CloudRuntimeException e) {
+        }
+
+        pool.registerOutstandingContext(newContext(), reservation);
+        // releasing the same reservation twice must not free a second slot
+        pool.abortCreate(reservation);
+        direct.close();
+        assertNull(pool.acquire(VCENTER, USER).getContext());
+        try {
+            pool.acquire(VCENTER, USER);
+            fail("the key must be full again");
+        } catch (CloudRuntimeException e) {
+        }
+    }
+}